@@ -0,0 +1,87 @@
+package edu.caltech.nanodb.bench;
+
+
+/**
+ * This is the base class of the benchmarks that {@link BenchmarkRunner}
+ * measures.  A benchmark performs some number of operations each time it is
+ * {@link #run}, and the runner reports the average time of an operation.
+ * <p>
+ * By default, each iteration of a benchmark runs for a fixed time, and the
+ * runner chooses how many operations to perform in each call to
+ * {@link #run}.  Benchmarks whose operations change their state so much that
+ * the state must be rebuilt between iterations, such as splitting the
+ * buckets of a hash file, can instead specify a fixed number of operations
+ * per iteration with {@link #getOpsPerIteration}, and rebuild their state in
+ * {@link #setUpIteration}, which isn't timed.
+ */
+public abstract class Benchmark {
+
+    /** The name of the benchmark, such as <tt>dbpage.readInt</tt>. */
+    private String name;
+
+
+    protected Benchmark(String name) {
+        if (name == null)
+            throw new IllegalArgumentException("name cannot be null");
+
+        this.name = name;
+    }
+
+
+    public String getName() {
+        return name;
+    }
+
+
+    /**
+     * Returns the number of operations to perform in each iteration, or 0
+     * if each iteration should run for the configured time instead.
+     *
+     * @return the number of operations in each iteration, or 0
+     */
+    public int getOpsPerIteration() {
+        return 0;
+    }
+
+
+    /**
+     * Prepares the benchmark's state before its first iteration.
+     *
+     * @throws Exception if the state can't be prepared
+     */
+    public void setUp() throws Exception {
+    }
+
+
+    /**
+     * Prepares the benchmark's state before each iteration.  This isn't
+     * included in the time of the iteration.
+     *
+     * @throws Exception if the state can't be prepared
+     */
+    public void setUpIteration() throws Exception {
+    }
+
+
+    /**
+     * Performs some number of the benchmark's operations.  The result should
+     * depend on the work that was done, such as a sum of the values that
+     * were read, so that the work can't be optimized away.
+     *
+     * @param ops the number of operations to perform
+     *
+     * @return a value computed from the operations' results
+     *
+     * @throws Exception if an operation fails
+     */
+    public abstract long run(int ops) throws Exception;
+
+
+    /**
+     * Cleans up the benchmark's state after its last iteration.
+     *
+     * @throws Exception if the state can't be cleaned up
+     */
+    public void tearDown() throws Exception {
+    }
+}
@@ -0,0 +1,166 @@
+package edu.caltech.nanodb.bench;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.NullOutputStream;
+
+import edu.caltech.nanodb.client.SessionState;
+import edu.caltech.nanodb.relations.TableInfo;
+import edu.caltech.nanodb.server.CommandResult;
+import edu.caltech.nanodb.server.NanoDBServer;
+import edu.caltech.nanodb.server.properties.PropertyRegistry;
+import edu.caltech.nanodb.storage.StorageManager;
+
+
+/**
+ * This class starts a database server in its own directory for a suite of
+ * benchmarks, with the system properties that the suite specifies, and
+ * removes the directory when the server is shut down.  The system properties
+ * are restored when the server is shut down, so that one suite's properties
+ * don't affect the next suite.
+ */
+public class BenchmarkDatabase {
+
+    /** The directory that the database's files are stored in. */
+    private File baseDir;
+
+
+    /** The system properties that the server is started with. */
+    private HashMap<String, String> properties = new HashMap<String, String>();
+
+
+    /** The values of the properties before the server was started. */
+    private HashMap<String, String> oldProperties = new HashMap<String, String>();
+
+
+    private NanoDBServer server;
+
+
+    /** The session's output stream before the server was started. */
+    private PrintStream oldOutput;
+
+
+    public BenchmarkDatabase(File baseDir) {
+        if (baseDir == null)
+            throw new IllegalArgumentException("baseDir cannot be null");
+
+        this.baseDir = baseDir;
+    }
+
+
+    /**
+     * Sets a system property that the server is started with.
+     *
+     * @param name the name of the property
+     * @param value the value of the property
+     */
+    public void setProperty(String name, String value) {
+        properties.put(name, value);
+    }
+
+
+    /**
+     * Starts the server in an empty directory.
+     *
+     * @throws IOException if the server couldn't be started
+     */
+    public void start() throws IOException {
+        if (baseDir.exists())
+            FileUtils.cleanDirectory(baseDir);
+        else
+            baseDir.mkdirs();
+
+        setProperty(StorageManager.PROP_BASEDIR, baseDir.getAbsolutePath());
+        for (Map.Entry<String, String> entry : properties.entrySet()) {
+            oldProperties.put(entry.getKey(),
+                System.getProperty(entry.getKey()));
+            System.setProperty(entry.getKey(), entry.getValue());
+        }
+
+        PropertyRegistry.getInstance().unregisterAllProperties();
+        server = new NanoDBServer();
+        server.startup();
+
+        // Discard what commands print, such as the tables they create.
+        SessionState session = SessionState.get();
+        oldOutput = session.getOutputStream();
+        session.setOutputStream(new PrintStream(new NullOutputStream()));
+    }
+
+
+    /**
+     * Shuts down the server, restores the system properties, and removes the
+     * database's files.
+     *
+     * @throws IOException if the database's files couldn't be removed
+     */
+    public void stop() throws IOException {
+        if (server != null) {
+            server.shutdown();
+            server = null;
+            SessionState.get().setOutputStream(oldOutput);
+        }
+
+        for (Map.Entry<String, String> entry : oldProperties.entrySet()) {
+            if (entry.getValue() != null)
+                System.setProperty(entry.getKey(), entry.getValue());
+            else
+                System.clearProperty(entry.getKey());
+        }
+        oldProperties.clear();
+
+        FileUtils.deleteDirectory(baseDir);
+    }
+
+
+    public NanoDBServer getServer() {
+        return server;
+    }
+
+
+    public StorageManager getStorageManager() {
+        return server.getStorageManager();
+    }
+
+
+    /**
+     * Runs a command, throwing an exception if it fails.
+     *
+     * @param command the command to run
+     *
+     * @return the result of the command, including its tuples
+     *
+     * @throws Exception if the command fails
+     */
+    public CommandResult doCommand(String command) throws Exception {
+        CommandResult result = server.doCommand(command, true);
+        if (result.failed()) {
+            throw new Exception("Command failed:  " + command,
+                result.getFailure());
+        }
+
+        return result;
+    }
+
+
+    /**
+     * Opens a table.  The name is converted to uppercase, as the SQL parser
+     * converts names.
+     *
+     * @param tableName the name of the table
+     *
+     * @return the table's information
+     *
+     * @throws IOException if the table can't be opened
+     */
+    public TableInfo openTable(String tableName) throws IOException {
+        return getStorageManager().getTableManager().openTable(
+            tableName.toUpperCase());
+    }
+}
@@ -0,0 +1,177 @@
+package edu.caltech.nanodb.bench;
+
+
+import java.util.List;
+import java.util.Locale;
+
+
+/**
+ * This class holds the measurements of one benchmark, and computes their
+ * average and the 99.9% confidence interval of the average, the same way
+ * that JMH reports its results.
+ */
+public class BenchmarkResult {
+
+    /**
+     * The 0.9995 quantiles of Student's t-distribution for 1 to 30 degrees of
+     * freedom, which give the half-width of a two-sided 99.9% confidence
+     * interval.
+     */
+    private static final double[] T_QUANTILES = {
+        636.619, 31.599, 12.924, 8.610, 6.869, 5.959, 5.408, 5.041, 4.781,
+        4.587, 4.437, 4.318, 4.221, 4.140, 4.073, 4.015, 3.965, 3.922, 3.883,
+        3.850, 3.819, 3.792, 3.768, 3.745, 3.725, 3.707, 3.690, 3.674, 3.659,
+        3.646
+    };
+
+
+    /** The quantile of the normal distribution, for many degrees of freedom. */
+    private static final double NORMAL_QUANTILE = 3.291;
+
+
+    /** The name of the benchmark. */
+    private String name;
+
+
+    /** The number of warmup iterations that were run before measuring. */
+    private int warmupIterations;
+
+
+    /** The nanoseconds per operation that were measured in each iteration. */
+    private double[] measurements;
+
+
+    public BenchmarkResult(String name, int warmupIterations,
+                           List<Double> measurements) {
+        if (measurements == null || measurements.isEmpty()) {
+            throw new IllegalArgumentException(
+                "measurements cannot be null or empty");
+        }
+
+        this.name = name;
+        this.warmupIterations = warmupIterations;
+
+        this.measurements = new double[measurements.size()];
+        for (int i = 0; i < this.measurements.length; i++)
+            this.measurements[i] = measurements.get(i);
+    }
+
+
+    public String getName() {
+        return name;
+    }
+
+
+    public int getWarmupIterations() {
+        return warmupIterations;
+    }
+
+
+    public double[] getMeasurements() {
+        return measurements;
+    }
+
+
+    /**
+     * Returns the average time of an operation over all iterations.
+     *
+     * @return the average time of an operation, in nanoseconds
+     */
+    public double getScore() {
+        double sum = 0;
+        for (double m : measurements)
+            sum += m;
+
+        return sum / measurements.length;
+    }
+
+
+    /**
+     * Returns the half-width of the 99.9% confidence interval of the
+     * {@link #getScore score}, or <tt>NaN</tt> if there was only one
+     * iteration.
+     *
+     * @return the error of the score, in nanoseconds
+     */
+    public double getScoreError() {
+        int n = measurements.length;
+        if (n < 2)
+            return Double.NaN;
+
+        double mean = getScore();
+        double sumSquares = 0;
+        for (double m : measurements)
+            sumSquares += (m - mean) * (m - mean);
+
+        double stdDev = Math.sqrt(sumSquares / (n - 1));
+        double t = (n - 1 <= T_QUANTILES.length) ?
+            T_QUANTILES[n - 2] : NORMAL_QUANTILE;
+
+        return t * stdDev / Math.sqrt(n);
+    }
+
+
+    /**
+     * Appends the result to a JSON document, as an object with the fields
+     * that JMH uses, so that the same tools can read both.
+     *
+     * @param buf the buffer to append the result to
+     */
+    public void appendJSON(StringBuilder buf) {
+        double score = getScore();
+        double error = getScoreError();
+        double lo = Double.isNaN(error) ? Double.NaN : score - error;
+        double hi = Double.isNaN(error) ? Double.NaN : score + error;
+
+        buf.append("    {\n");
+        buf.append("        \"benchmark\" : ").append(quote(name)).append(",\n");
+        buf.append("        \"mode\" : \"avgt\",\n");
+        buf.append("        \"threads\" : 1,\n");
+        buf.append("        \"forks\" : 1,\n");
+        buf.append("        \"warmupIterations\" : ").append(warmupIterations)
+            .append(",\n");
+        buf.append("        \"measurementIterations\" : ")
+            .append(measurements.length).append(",\n");
+        buf.append("        \"primaryMetric\" : {\n");
+        buf.append("            \"score\" : ").append(number(score))
+            .append(",\n");
+        buf.append("            \"scoreError\" : ").append(number(error))
+            .append(",\n");
+        buf.append("            \"scoreConfidence\" : [ ").append(number(lo))
+            .append(", ").append(number(hi)).append(" ],\n");
+        buf.append("            \"scoreUnit\" : \"ns/op\",\n");
+        buf.append("            \"rawData\" : [ [ ");
+        for (int i = 0; i < measurements.length; i++) {
+            if (i > 0)
+                buf.append(", ");
+            buf.append(number(measurements[i]));
+        }
+        buf.append(" ] ]\n");
+        buf.append("        },\n");
+        buf.append("        \"secondaryMetrics\" : {}\n");
+        buf.append("    }");
+    }
+
+
+    /** Formats a number for JSON, which has no representation of NaN. */
+    private static String number(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value))
+            return "\"NaN\"";
+
+        return String.format(Locale.US, "%.3f", value);
+    }
+
+
+    /** Quotes a string for JSON. */
+    private static String quote(String s) {
+        StringBuilder buf = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            char ch = s.charAt(i);
+            if (ch == '"' || ch == '\\')
+                buf.append('\\');
+            buf.append(ch);
+        }
+        buf.append('"');
+        return buf.toString();
+    }
+}
@@ -0,0 +1,477 @@
+package edu.caltech.nanodb.bench;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Logger;
+
+
+/**
+ * This class runs the benchmarks of the storage formats and plan nodes, and
+ * reports the average time of each benchmark's operations, with the 99.9%
+ * confidence interval of the average.  The results are written to a JSON
+ * file in the same format that JMH uses, and can be compared with the
+ * results of an earlier run to find regressions.
+ * <p>
+ * The runner is configured with these system properties:
+ * <ul>
+ *   <li>{@link #PROP_FILTER} - a regular expression that selects the
+ *       benchmarks to run, by name</li>
+ *   <li>{@link #PROP_WARMUP} - the number of iterations to run before
+ *       measuring</li>
+ *   <li>{@link #PROP_ITERATIONS} - the number of iterations to measure</li>
+ *   <li>{@link #PROP_TIME} - how long each iteration runs, in
+ *       milliseconds</li>
+ *   <li>{@link #PROP_OUTPUT} - the file to write the results to</li>
+ *   <li>{@link #PROP_BASELINE} - a results file to compare the results
+ *       with</li>
+ *   <li>{@link #PROP_THRESHOLD} - the percentage by which a benchmark may be
+ *       slower than its baseline before it is reported as a regression</li>
+ * </ul>
+ * The runner exits with a status of 1 if any benchmark fails or regresses,
+ * so that a build can be failed by it.
+ */
+public class BenchmarkRunner {
+    /** A logging object for reporting anything interesting that happens. */
+    private static Logger logger = Logger.getLogger(BenchmarkRunner.class);
+
+
+    /** A regular expression that selects the benchmarks to run. */
+    public static final String PROP_FILTER = "nanodb.bench.filter";
+
+
+    /** The number of warmup iterations of each benchmark. */
+    public static final String PROP_WARMUP = "nanodb.bench.warmup";
+
+
+    /** The default number of warmup iterations. */
+    public static final int DEFAULT_WARMUP = 3;
+
+
+    /** The number of measured iterations of each benchmark. */
+    public static final String PROP_ITERATIONS = "nanodb.bench.iterations";
+
+
+    /** The default number of measured iterations. */
+    public static final int DEFAULT_ITERATIONS = 5;
+
+
+    /** How long each iteration runs, in milliseconds. */
+    public static final String PROP_TIME = "nanodb.bench.time";
+
+
+    /** The default time of each iteration, in milliseconds. */
+    public static final int DEFAULT_TIME = 1000;
+
+
+    /** The file that the results are written to. */
+    public static final String PROP_OUTPUT = "nanodb.bench.output";
+
+
+    /** The default file that the results are written to. */
+    public static final String DEFAULT_OUTPUT = "bench-results.json";
+
+
+    /** A results file that the results are compared with. */
+    public static final String PROP_BASELINE = "nanodb.bench.baseline";
+
+
+    /**
+     * The percentage by which a benchmark may be slower than its baseline
+     * before it is reported as a regression.
+     */
+    public static final String PROP_THRESHOLD = "nanodb.bench.threshold";
+
+
+    /** The default regression threshold, in percent. */
+    public static final int DEFAULT_THRESHOLD = 10;
+
+
+    /**
+     * The shortest time that one call to {@link Benchmark#run} may take when
+     * the runner chooses its number of operations, so that the time of the
+     * call can be measured accurately.
+     */
+    private static final long MIN_CALL_NANOS = 10L * 1000 * 1000;
+
+
+    /**
+     * The values that the benchmarks compute are accumulated here, so that
+     * the JIT compiler can't discard the work that computed them.
+     */
+    private static volatile long sink;
+
+
+    /** The regular expression that selects the benchmarks to run. */
+    private Pattern filter;
+
+
+    private int warmupIterations;
+
+
+    private int measuredIterations;
+
+
+    private long iterationNanos;
+
+
+    /** The names of the benchmarks that failed. */
+    private ArrayList<String> failures = new ArrayList<String>();
+
+
+    public BenchmarkRunner(String filter, int warmupIterations,
+                           int measuredIterations, long iterationMillis) {
+        if (filter != null)
+            this.filter = Pattern.compile(filter);
+
+        this.warmupIterations = warmupIterations;
+        this.measuredIterations = Math.max(1, measuredIterations);
+        this.iterationNanos = iterationMillis * 1000 * 1000;
+    }
+
+
+    public List<String> getFailures() {
+        return failures;
+    }
+
+
+    /**
+     * Returns the suites of benchmarks that are run, in order.
+     *
+     * @param dataDir the directory that suites may store their files in
+     *
+     * @return the suites of benchmarks
+     */
+    public static List<BenchmarkSuite> getSuites(File dataDir) {
+        ArrayList<BenchmarkSuite> suites = new ArrayList<BenchmarkSuite>();
+        suites.add(new PageBenchmarks(dataDir));
+        suites.add(new TupleHasherBenchmarks());
+        suites.add(new TupleFileBenchmarks(dataDir));
+        suites.add(new BufferManagerBenchmarks(dataDir, "lru"));
+        suites.add(new BufferManagerBenchmarks(dataDir, "fifo"));
+        suites.add(new WALBenchmarks(dataDir));
+        suites.add(new PlanNodeBenchmarks(dataDir));
+        return suites;
+    }
+
+
+    /**
+     * Runs the selected benchmarks of the suites.  A benchmark that fails is
+     * recorded in the {@link #getFailures failures}, and doesn't stop the
+     * other benchmarks from running.
+     *
+     * @param suites the suites to run
+     *
+     * @return the results of the benchmarks that succeeded
+     */
+    public List<BenchmarkResult> runSuites(List<BenchmarkSuite> suites) {
+        ArrayList<BenchmarkResult> results = new ArrayList<BenchmarkResult>();
+
+        for (BenchmarkSuite suite : suites) {
+            ArrayList<Benchmark> selected = new ArrayList<Benchmark>();
+            for (Benchmark benchmark : suite.getBenchmarks()) {
+                if (filter == null || filter.matcher(benchmark.getName()).find())
+                    selected.add(benchmark);
+            }
+
+            if (selected.isEmpty())
+                continue;
+
+            try {
+                suite.start();
+            }
+            catch (Exception e) {
+                logger.error("Couldn't start the fixture of " +
+                    suite.getClass().getSimpleName(), e);
+                for (Benchmark benchmark : selected)
+                    failures.add(benchmark.getName());
+                continue;
+            }
+
+            try {
+                for (Benchmark benchmark : selected) {
+                    BenchmarkResult result = runBenchmark(benchmark);
+                    if (result != null)
+                        results.add(result);
+                }
+            }
+            finally {
+                try {
+                    suite.stop();
+                }
+                catch (Exception e) {
+                    logger.error("Couldn't stop the fixture of " +
+                        suite.getClass().getSimpleName(), e);
+                }
+            }
+        }
+
+        return results;
+    }
+
+
+    /**
+     * Runs one benchmark, returning its result, or <tt>null</tt> if it
+     * failed.
+     */
+    private BenchmarkResult runBenchmark(Benchmark benchmark) {
+        String name = benchmark.getName();
+        System.out.print(name + " ...");
+        System.out.flush();
+
+        ArrayList<Double> measurements = new ArrayList<Double>();
+        try {
+            benchmark.setUp();
+            try {
+                // Choose the number of operations per call once, so that the
+                // warmup iterations warm up the same calls that are measured.
+                int opsPerCall = benchmark.getOpsPerIteration();
+                if (opsPerCall <= 0)
+                    opsPerCall = calibrate(benchmark);
+
+                int total = warmupIterations + measuredIterations;
+                for (int i = 0; i < total; i++) {
+                    double nanosPerOp = runIteration(benchmark, opsPerCall);
+                    if (i >= warmupIterations)
+                        measurements.add(nanosPerOp);
+                }
+            }
+            finally {
+                benchmark.tearDown();
+            }
+        }
+        catch (Exception e) {
+            System.out.println(" FAILED");
+            logger.error("Benchmark " + name + " failed", e);
+            failures.add(name);
+            return null;
+        }
+
+        BenchmarkResult result =
+            new BenchmarkResult(name, warmupIterations, measurements);
+        System.out.println(String.format(" %.1f ns/op", result.getScore()));
+        return result;
+    }
+
+
+    /**
+     * Finds a number of operations that takes at least
+     * {@link #MIN_CALL_NANOS} to run, by doubling the number until a call
+     * takes that long.
+     */
+    private int calibrate(Benchmark benchmark) throws Exception {
+        int ops = 1;
+        while (true) {
+            benchmark.setUpIteration();
+            long start = System.nanoTime();
+            sink += benchmark.run(ops);
+            long elapsed = System.nanoTime() - start;
+
+            if (elapsed >= MIN_CALL_NANOS || ops >= Integer.MAX_VALUE / 2)
+                return ops;
+
+            ops *= 2;
+        }
+    }
+
+
+    /**
+     * Runs one iteration of a benchmark, returning the average time of its
+     * operations in nanoseconds.  A benchmark with a fixed number of
+     * operations per iteration is run once; other benchmarks are run until
+     * the iteration time has elapsed.
+     */
+    private double runIteration(Benchmark benchmark, int opsPerCall)
+        throws Exception {
+
+        benchmark.setUpIteration();
+
+        long totalOps = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            sink += benchmark.run(opsPerCall);
+            totalOps += opsPerCall;
+            elapsed = System.nanoTime() - start;
+        }
+        while (benchmark.getOpsPerIteration() <= 0 && elapsed < iterationNanos);
+
+        return (double) elapsed / totalOps;
+    }
+
+
+    /**
+     * Writes the results to a file, as a JSON array in the format that JMH
+     * uses.
+     *
+     * @param results the results to write
+     * @param file the file to write them to
+     *
+     * @throws IOException if the file can't be written
+     */
+    public static void writeResults(List<BenchmarkResult> results, File file)
+        throws IOException {
+
+        StringBuilder buf = new StringBuilder("[\n");
+        for (int i = 0; i < results.size(); i++) {
+            if (i > 0)
+                buf.append(",\n");
+            results.get(i).appendJSON(buf);
+        }
+        buf.append("\n]\n");
+
+        FileUtils.writeStringToFile(file, buf.toString(), "UTF-8");
+    }
+
+
+    /**
+     * Reads the scores of the benchmarks from a results file, which may have
+     * been written by this runner or by JMH.
+     *
+     * @param file the results file to read
+     *
+     * @return a map from the name of each benchmark to its score
+     *
+     * @throws IOException if the file can't be read
+     */
+    public static Map<String, Double> readScores(File file) throws IOException {
+        String json = FileUtils.readFileToString(file, "UTF-8");
+
+        // The score is the first one after the name of the benchmark, in its
+        // primary metric.
+        Pattern pattern = Pattern.compile("\"benchmark\"\\s*:\\s*\"([^\"]*)\"" +
+            ".*?\"score\"\\s*:\\s*\"?([-+0-9.eENa]+)", Pattern.DOTALL);
+
+        HashMap<String, Double> scores = new HashMap<String, Double>();
+        Matcher matcher = pattern.matcher(json);
+        while (matcher.find()) {
+            try {
+                scores.put(matcher.group(1),
+                    Double.valueOf(matcher.group(2)));
+            }
+            catch (NumberFormatException e) {
+                logger.warn("Couldn't read the score of " + matcher.group(1) +
+                    " from " + file);
+            }
+        }
+
+        return scores;
+    }
+
+
+    /**
+     * Compares results with the scores of a baseline, printing the change of
+     * each benchmark, and returns the names of the benchmarks that are slower
+     * than their baseline by more than the threshold.
+     *
+     * @param results the results to compare
+     * @param baseline the scores of the baseline, by benchmark name
+     * @param thresholdPct the percentage by which a benchmark may be slower
+     *        than its baseline
+     *
+     * @return the names of the benchmarks that regressed
+     */
+    public static List<String> compare(List<BenchmarkResult> results,
+        Map<String, Double> baseline, double thresholdPct) {
+
+        ArrayList<String> regressions = new ArrayList<String>();
+
+        System.out.println();
+        System.out.println(String.format("%-40s %14s %14s %9s",
+            "Benchmark", "Baseline", "Score", "Change"));
+
+        for (BenchmarkResult result : results) {
+            Double base = baseline.get(result.getName());
+            if (base == null || base.isNaN() || base <= 0)
+                continue;
+
+            double change = (result.getScore() - base) / base * 100;
+            boolean regressed = change > thresholdPct;
+            if (regressed)
+                regressions.add(result.getName());
+
+            System.out.println(String.format("%-40s %14.1f %14.1f %+8.1f%%%s",
+                result.getName(), base, result.getScore(), change,
+                regressed ? "  REGRESSION" : ""));
+        }
+
+        return regressions;
+    }
+
+
+    /** Prints a table of the results. */
+    private static void printResults(List<BenchmarkResult> results) {
+        System.out.println();
+        System.out.println(String.format("%-40s %6s %14s %12s  %s",
+            "Benchmark", "Cnt", "Score", "Error", "Units"));
+
+        for (BenchmarkResult result : results) {
+            double error = result.getScoreError();
+            System.out.println(String.format("%-40s %6d %14.1f %12s  ns/op",
+                result.getName(), result.getMeasurements().length,
+                result.getScore(),
+                Double.isNaN(error) ? "" : String.format("+- %.1f", error)));
+        }
+    }
+
+
+    public static void main(String[] args) throws Exception {
+        String filter = System.getProperty(PROP_FILTER);
+        if (filter != null && filter.trim().isEmpty())
+            filter = null;
+
+        BenchmarkRunner runner = new BenchmarkRunner(filter,
+            Integer.getInteger(PROP_WARMUP, DEFAULT_WARMUP),
+            Integer.getInteger(PROP_ITERATIONS, DEFAULT_ITERATIONS),
+            Integer.getInteger(PROP_TIME, DEFAULT_TIME));
+
+        // The suites that start a database keep its files here.
+        File dataDir = new File("bench_datafiles");
+        if (dataDir.exists())
+            FileUtils.cleanDirectory(dataDir);
+        else
+            dataDir.mkdirs();
+
+        List<BenchmarkResult> results;
+        try {
+            results = runner.runSuites(getSuites(dataDir));
+        }
+        finally {
+            FileUtils.deleteQuietly(dataDir);
+        }
+
+        printResults(results);
+
+        File output = new File(System.getProperty(PROP_OUTPUT, DEFAULT_OUTPUT));
+        writeResults(results, output);
+        System.out.println();
+        System.out.println("Wrote results to " + output);
+
+        boolean failed = !runner.getFailures().isEmpty();
+        if (failed)
+            System.out.println("Failed benchmarks:  " + runner.getFailures());
+
+        String baselineName = System.getProperty(PROP_BASELINE);
+        if (baselineName != null && !baselineName.trim().isEmpty()) {
+            List<String> regressions = compare(results,
+                readScores(new File(baselineName)),
+                Integer.getInteger(PROP_THRESHOLD, DEFAULT_THRESHOLD));
+
+            if (!regressions.isEmpty()) {
+                System.out.println("Regressed benchmarks:  " + regressions);
+                failed = true;
+            }
+        }
+
+        // Exit explicitly, since the database servers may leave threads.
+        System.exit(failed ? 1 : 0);
+    }
+}
@@ -0,0 +1,52 @@
+package edu.caltech.nanodb.bench;
+
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * A suite holds benchmarks that share a fixture, such as a database that is
+ * started with particular properties.  The runner starts the fixture before
+ * the suite's first benchmark, and stops it after the last one, even if a
+ * benchmark fails.
+ */
+public abstract class BenchmarkSuite {
+
+    /** The benchmarks of the suite, in the order they are run. */
+    private ArrayList<Benchmark> benchmarks = new ArrayList<Benchmark>();
+
+
+    /**
+     * Adds a benchmark to the suite.
+     *
+     * @param benchmark the benchmark to add
+     */
+    protected void add(Benchmark benchmark) {
+        benchmarks.add(benchmark);
+    }
+
+
+    public List<Benchmark> getBenchmarks() {
+        return benchmarks;
+    }
+
+
+    /**
+     * Starts the suite's fixture.  This is only called if at least one of the
+     * suite's benchmarks is going to be run.
+     *
+     * @throws Exception if the fixture can't be started
+     */
+    public void start() throws Exception {
+    }
+
+
+    /**
+     * Stops the suite's fixture.
+     *
+     * @throws Exception if the fixture can't be stopped cleanly
+     */
+    public void stop() throws Exception {
+    }
+}
@@ -0,0 +1,122 @@
+package edu.caltech.nanodb.bench;
+
+
+import java.io.File;
+
+import edu.caltech.nanodb.storage.BufferManager;
+import edu.caltech.nanodb.storage.DBFile;
+import edu.caltech.nanodb.storage.DBFileType;
+import edu.caltech.nanodb.storage.DBPage;
+import edu.caltech.nanodb.storage.StorageManager;
+
+
+/**
+ * These benchmarks measure loading pages through the storage manager with a
+ * small buffer manager, using one of the page replacement policies.  Pages
+ * that are cached are found without any I/O, while loading pages that
+ * aren't cached evicts other pages and reads the pages from their file,
+ * which the operating system will usually have cached.
+ */
+public class BufferManagerBenchmarks extends BenchmarkSuite {
+
+    /** The size of the page cache. */
+    private static final String CACHE_SIZE = "128k";
+
+
+    /** The number of pages in the file, which is more than the cache holds. */
+    private static final int NUM_PAGES = 64;
+
+
+    /** The number of pages that are accessed when every access hits. */
+    private static final int NUM_HOT_PAGES = 8;
+
+
+    /** The page replacement policy, <tt>lru</tt> or <tt>fifo</tt>. */
+    private String policy;
+
+
+    private BenchmarkDatabase database;
+
+
+    private StorageManager storageManager;
+
+
+    private DBFile dbFile;
+
+
+    public BufferManagerBenchmarks(File dataDir, String policy) {
+        this.policy = policy;
+
+        database = new BenchmarkDatabase(new File(dataDir, "bufmgr-" + policy));
+        database.setProperty(BufferManager.PROP_PAGECACHE_SIZE, CACHE_SIZE);
+        database.setProperty(BufferManager.PROP_PAGECACHE_POLICY, policy);
+
+        add(new Benchmark("bufmgr." + policy + ".loadPage.hit") {
+            public long run(int ops) throws Exception {
+                long sum = 0;
+                for (int i = 0; i < ops; i++)
+                    sum += loadPage(i % NUM_HOT_PAGES);
+                return sum;
+            }
+        });
+
+        add(new Benchmark("bufmgr." + policy + ".loadPage.miss") {
+            public long run(int ops) throws Exception {
+                long sum = 0;
+                for (int i = 0; i < ops; i++)
+                    sum += loadPage(i % NUM_PAGES);
+                return sum;
+            }
+        });
+
+        // Four of every five accesses are to the hot pages.
+        add(new Benchmark("bufmgr." + policy + ".loadPage.skewed") {
+            public long run(int ops) throws Exception {
+                long sum = 0;
+                for (int i = 0; i < ops; i++) {
+                    int pageNo = (i % 5 == 0) ?
+                        NUM_HOT_PAGES + (i / 5) % (NUM_PAGES - NUM_HOT_PAGES) :
+                        i % NUM_HOT_PAGES;
+                    sum += loadPage(pageNo);
+                }
+                return sum;
+            }
+        });
+    }
+
+
+    /**
+     * Loads a page of the file, and unpins it again so that it can be
+     * evicted.
+     */
+    private int loadPage(int pageNo) throws Exception {
+        DBPage dbPage = storageManager.loadDBPage(dbFile, pageNo);
+        int value = dbPage.readInt(0);
+        dbPage.unpin();
+        return value;
+    }
+
+
+    @Override
+    public void start() throws Exception {
+        database.start();
+        storageManager = database.getStorageManager();
+
+        dbFile = storageManager.createDBFile("bench_bufmgr_" + policy + ".dat",
+            DBFileType.HEAP_TUPLE_FILE);
+        for (int i = 0; i < NUM_PAGES; i++) {
+            DBPage dbPage = storageManager.loadDBPage(dbFile, i, true);
+            dbPage.writeInt(0, i);
+            dbPage.unpin();
+        }
+
+        // Start with a clean cache, so that evicted pages aren't written.
+        storageManager.flushAllData();
+    }
+
+
+    @Override
+    public void stop() throws Exception {
+        database.stop();
+    }
+}
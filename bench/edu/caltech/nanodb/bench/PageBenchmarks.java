@@ -0,0 +1,250 @@
+package edu.caltech.nanodb.bench;
+
+
+import java.io.File;
+
+import edu.caltech.nanodb.storage.BucketPage;
+import edu.caltech.nanodb.storage.BufferManager;
+import edu.caltech.nanodb.storage.DBFile;
+import edu.caltech.nanodb.storage.DBFileType;
+import edu.caltech.nanodb.storage.DBPage;
+import edu.caltech.nanodb.storage.FileManager;
+import edu.caltech.nanodb.storage.FileManagerImpl;
+import edu.caltech.nanodb.storage.heapfile.DataPage;
+
+
+/**
+ * These benchmarks measure the primitive operations on pages:  reading and
+ * writing values in a {@link DBPage}, and allocating, deleting and finding
+ * tuples in the slotted pages of heap files ({@link DataPage}) and hash files
+ * ({@link BucketPage}).  The pages aren't loaded through a storage manager,
+ * so no I/O is included.
+ */
+public class PageBenchmarks extends BenchmarkSuite {
+
+    /** The number of tuples that the slotted pages hold. */
+    private static final int NUM_TUPLES = 20;
+
+
+    /** The size of the tuples in the slotted pages. */
+    private static final int TUPLE_SIZE = 40;
+
+
+    /** The string that is written to and read from pages. */
+    private static final String STRING_VALUE = "The quick brown fox";
+
+
+    /** The directory that the pages' file is created in. */
+    private File dataDir;
+
+
+    private FileManager fileManager;
+
+
+    private BufferManager bufferManager;
+
+
+    private DBFile dbFile;
+
+
+    public PageBenchmarks(File dataDir) {
+        this.dataDir = new File(dataDir, "pages");
+
+        add(new Benchmark("dbpage.readInt") {
+            private DBPage dbPage;
+
+            public void setUp() {
+                dbPage = newPage(0);
+            }
+
+            public long run(int ops) {
+                int mask = dbPage.getPageSize() / 4 - 1;
+                long sum = 0;
+                for (int i = 0; i < ops; i++)
+                    sum += dbPage.readInt((i & mask) * 4);
+                return sum;
+            }
+        });
+
+        add(new Benchmark("dbpage.writeInt") {
+            private DBPage dbPage;
+
+            public void setUp() {
+                dbPage = newPage(0);
+            }
+
+            public long run(int ops) {
+                int mask = dbPage.getPageSize() / 4 - 1;
+                for (int i = 0; i < ops; i++)
+                    dbPage.writeInt((i & mask) * 4, i);
+                return dbPage.readInt(0);
+            }
+        });
+
+        add(new Benchmark("dbpage.readLong") {
+            private DBPage dbPage;
+
+            public void setUp() {
+                dbPage = newPage(0);
+            }
+
+            public long run(int ops) {
+                int mask = dbPage.getPageSize() / 8 - 1;
+                long sum = 0;
+                for (int i = 0; i < ops; i++)
+                    sum += dbPage.readLong((i & mask) * 8);
+                return sum;
+            }
+        });
+
+        add(new Benchmark("dbpage.writeVarString65535") {
+            private DBPage dbPage;
+
+            public void setUp() {
+                dbPage = newPage(0);
+            }
+
+            public long run(int ops) {
+                for (int i = 0; i < ops; i++)
+                    dbPage.writeVarString65535((i & 63) * 64, STRING_VALUE);
+                return dbPage.readUnsignedShort(0);
+            }
+        });
+
+        add(new Benchmark("dbpage.readVarString65535") {
+            private DBPage dbPage;
+
+            public void setUp() {
+                dbPage = newPage(0);
+                for (int i = 0; i < 64; i++)
+                    dbPage.writeVarString65535(i * 64, STRING_VALUE);
+            }
+
+            public long run(int ops) {
+                long sum = 0;
+                for (int i = 0; i < ops; i++)
+                    sum += dbPage.readVarString65535((i & 63) * 64).length();
+                return sum;
+            }
+        });
+
+        add(new Benchmark("datapage.allocDeleteTuple") {
+            private DBPage dbPage;
+
+            public void setUp() {
+                dbPage = newPage(1);
+                DataPage.initNewPage(dbPage);
+                for (int i = 0; i < NUM_TUPLES; i++)
+                    DataPage.allocNewTuple(dbPage, TUPLE_SIZE);
+            }
+
+            public long run(int ops) {
+                long sum = 0;
+                for (int i = 0; i < ops; i++) {
+                    int slot = DataPage.allocNewTuple(dbPage, TUPLE_SIZE);
+                    DataPage.deleteTuple(dbPage, slot);
+                    sum += slot;
+                }
+                return sum;
+            }
+        });
+
+        add(new Benchmark("datapage.getSlotValue") {
+            private DBPage dbPage;
+
+            public void setUp() {
+                dbPage = newPage(1);
+                DataPage.initNewPage(dbPage);
+                for (int i = 0; i < NUM_TUPLES; i++)
+                    DataPage.allocNewTuple(dbPage, TUPLE_SIZE);
+            }
+
+            public long run(int ops) {
+                long sum = 0;
+                for (int i = 0; i < ops; i++)
+                    sum += DataPage.getSlotValue(dbPage, i % NUM_TUPLES);
+                return sum;
+            }
+        });
+
+        add(new Benchmark("datapage.getFreeSpaceInPage") {
+            private DBPage dbPage;
+
+            public void setUp() {
+                dbPage = newPage(1);
+                DataPage.initNewPage(dbPage);
+                for (int i = 0; i < NUM_TUPLES; i++)
+                    DataPage.allocNewTuple(dbPage, TUPLE_SIZE);
+            }
+
+            public long run(int ops) {
+                long sum = 0;
+                for (int i = 0; i < ops; i++)
+                    sum += DataPage.getFreeSpaceInPage(dbPage);
+                return sum;
+            }
+        });
+
+        add(new Benchmark("bucketpage.allocDeleteTuple") {
+            private DBPage dbPage;
+
+            public void setUp() {
+                dbPage = newPage(1);
+                BucketPage.initNewPage(dbPage);
+                for (int i = 0; i < NUM_TUPLES; i++)
+                    BucketPage.allocNewTuple(dbPage, TUPLE_SIZE);
+            }
+
+            public long run(int ops) {
+                long sum = 0;
+                for (int i = 0; i < ops; i++) {
+                    int slot = BucketPage.allocNewTuple(dbPage, TUPLE_SIZE);
+                    BucketPage.deleteTuple(dbPage, slot);
+                    sum += slot;
+                }
+                return sum;
+            }
+        });
+
+        add(new Benchmark("bucketpage.getSlotValue") {
+            private DBPage dbPage;
+
+            public void setUp() {
+                dbPage = newPage(1);
+                BucketPage.initNewPage(dbPage);
+                for (int i = 0; i < NUM_TUPLES; i++)
+                    BucketPage.allocNewTuple(dbPage, TUPLE_SIZE);
+            }
+
+            public long run(int ops) {
+                long sum = 0;
+                for (int i = 0; i < ops; i++)
+                    sum += BucketPage.getSlotValue(dbPage, i % NUM_TUPLES);
+                return sum;
+            }
+        });
+    }
+
+
+    /** Returns a new page of the benchmarks' file, which is all zeros. */
+    private DBPage newPage(int pageNo) {
+        return new DBPage(bufferManager, dbFile, pageNo);
+    }
+
+
+    @Override
+    public void start() throws Exception {
+        dataDir.mkdirs();
+        fileManager = new FileManagerImpl(dataDir);
+        bufferManager = new BufferManager(fileManager);
+        dbFile = fileManager.createDBFile("pages.dat",
+            DBFileType.HEAP_TUPLE_FILE, DBFile.DEFAULT_PAGESIZE);
+    }
+
+
+    @Override
+    public void stop() throws Exception {
+        if (dbFile != null)
+            fileManager.deleteDBFile(dbFile);
+    }
+}
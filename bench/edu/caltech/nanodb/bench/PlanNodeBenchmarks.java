@@ -0,0 +1,400 @@
+package edu.caltech.nanodb.bench;
+
+
+import java.io.File;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import edu.caltech.nanodb.commands.SelectValue;
+import edu.caltech.nanodb.expressions.ColumnName;
+import edu.caltech.nanodb.expressions.ColumnValue;
+import edu.caltech.nanodb.expressions.Expression;
+import edu.caltech.nanodb.expressions.FunctionCall;
+import edu.caltech.nanodb.expressions.OrderByExpression;
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.functions.FunctionDirectory;
+import edu.caltech.nanodb.functions.TableFunction;
+import edu.caltech.nanodb.indexes.IndexInfo;
+import edu.caltech.nanodb.plans.FileScanNode;
+import edu.caltech.nanodb.plans.GatherNode;
+import edu.caltech.nanodb.plans.HashJoinNode;
+import edu.caltech.nanodb.plans.HashedGroupAggregateNode;
+import edu.caltech.nanodb.plans.IndexNestedLoopJoinNode;
+import edu.caltech.nanodb.plans.IndexScanNode;
+import edu.caltech.nanodb.plans.LimitOffsetNode;
+import edu.caltech.nanodb.plans.NestedLoopsJoinNode;
+import edu.caltech.nanodb.plans.PlanNode;
+import edu.caltech.nanodb.plans.ProjectNode;
+import edu.caltech.nanodb.plans.RenameNode;
+import edu.caltech.nanodb.plans.SimpleFilterNode;
+import edu.caltech.nanodb.plans.SortMergeJoinNode;
+import edu.caltech.nanodb.plans.SortNode;
+import edu.caltech.nanodb.plans.SortedGroupAggregateNode;
+import edu.caltech.nanodb.plans.TableFunctionScanNode;
+import edu.caltech.nanodb.qeval.AccessPathSelector;
+import edu.caltech.nanodb.qeval.QueryEvaluator;
+import edu.caltech.nanodb.qeval.TupleProcessor;
+import edu.caltech.nanodb.relations.JoinType;
+import edu.caltech.nanodb.relations.Schema;
+import edu.caltech.nanodb.relations.TableInfo;
+import edu.caltech.nanodb.relations.Tuple;
+import edu.caltech.nanodb.sqlparse.NanoSqlLexer;
+import edu.caltech.nanodb.sqlparse.NanoSqlParser;
+import edu.caltech.nanodb.storage.StorageManager;
+import edu.caltech.nanodb.storage.TupleFile;
+
+
+/**
+ * These benchmarks measure evaluating plans of each kind of plan node.  The
+ * plans are built directly, rather than by a planner, so that each benchmark
+ * measures the node it is named after, and are evaluated over tables whose
+ * pages stay in the buffer manager.  Each operation evaluates the whole plan.
+ * <p>
+ * Table <tt>bench_r</tt> has the rows (<em>a</em>, <em>a</em> % 50,
+ * <tt>'row <em>a</em>'</tt>) for <em>a</em> in [0, 5000), with an index on
+ * <em>a</em>, and <tt>bench_r_hash</tt> has the same rows in a linear-hash
+ * file hashed on <em>a</em>.  Table <tt>bench_s</tt> has the rows
+ * (10<em>i</em>, <em>i</em> % 10) for <em>i</em> in [0, 500), so each of its
+ * rows joins with one row of <tt>bench_r</tt>.
+ */
+public class PlanNodeBenchmarks extends BenchmarkSuite {
+
+    /** The number of rows in the large tables. */
+    private static final int R_ROWS = 5000;
+
+
+    /** The number of rows in the small table. */
+    private static final int S_ROWS = 500;
+
+
+    /** The number of workers of the gather node. */
+    private static final int GATHER_DEGREE = 4;
+
+
+    /** A tuple processor that only counts the tuples it is given. */
+    private static class TupleCounter implements TupleProcessor {
+        long count;
+
+        public void setSchema(Schema schema) {
+        }
+
+        public void process(Tuple tuple) {
+            count++;
+        }
+
+        public void finish() {
+        }
+    }
+
+
+    /**
+     * A benchmark that evaluates a plan, which is built and prepared before
+     * the benchmark's first iteration.
+     */
+    private abstract class PlanBenchmark extends Benchmark {
+        private PlanNode plan;
+
+        private boolean allowBatches;
+
+        PlanBenchmark(String name, boolean allowBatches) {
+            super(name);
+            this.allowBatches = allowBatches;
+        }
+
+        PlanBenchmark(String name) {
+            this(name, true);
+        }
+
+        /** Builds the plan that the benchmark evaluates. */
+        abstract PlanNode makePlan() throws Exception;
+
+        public void setUp() throws Exception {
+            plan = makePlan();
+            plan.prepare();
+        }
+
+        public long run(int ops) throws Exception {
+            TupleCounter counter = new TupleCounter();
+            for (int i = 0; i < ops; i++) {
+                QueryEvaluator.executePlan(plan, counter, allowBatches);
+
+                // Unpin the pages of the results, as the server does after
+                // each command.
+                storageManager.getBufferManager().unpinAllSessionPages();
+            }
+            return counter.count;
+        }
+    }
+
+
+    private BenchmarkDatabase database;
+
+
+    private StorageManager storageManager;
+
+
+    private TableInfo tableR;
+
+
+    private TableInfo tableRHash;
+
+
+    private TableInfo tableS;
+
+
+    public PlanNodeBenchmarks(File dataDir) {
+        database = new BenchmarkDatabase(new File(dataDir, "plans"));
+
+        add(new PlanBenchmark("plan.fileScan") {
+            PlanNode makePlan() {
+                return scan(tableR, null);
+            }
+        });
+
+        add(new PlanBenchmark("plan.fileScan.tupleAtATime", false) {
+            PlanNode makePlan() {
+                return scan(tableR, null);
+            }
+        });
+
+        add(new PlanBenchmark("plan.fileScan.predicate") {
+            PlanNode makePlan() throws Exception {
+                return scan(tableR, parse("b < 10"));
+            }
+        });
+
+        add(new PlanBenchmark("plan.fileScan.equals.heap") {
+            PlanNode makePlan() throws Exception {
+                return scan(tableR, parse("a = 1234"));
+            }
+        });
+
+        add(new PlanBenchmark("plan.fileScan.equals.lin-hash") {
+            PlanNode makePlan() throws Exception {
+                return scan(tableRHash, parse("a = 1234"));
+            }
+        });
+
+        add(new PlanBenchmark("plan.indexScan.equals") {
+            PlanNode makePlan() throws Exception {
+                IndexInfo indexInfo = storageManager.getIndexManager()
+                    .openIndex(tableR, "IDX_BENCH_R_A");
+                return new IndexScanNode(indexInfo,
+                    new TupleLiteral((Object) 1234));
+            }
+        });
+
+        add(new PlanBenchmark("plan.simpleFilter") {
+            PlanNode makePlan() throws Exception {
+                return new SimpleFilterNode(scan(tableR, null), parse("b < 10"));
+            }
+        });
+
+        add(new PlanBenchmark("plan.project") {
+            PlanNode makePlan() throws Exception {
+                List<SelectValue> values = new ArrayList<SelectValue>();
+                values.add(new SelectValue(parse("a + b"), "SUM_AB"));
+                values.add(new SelectValue(column("C"), null));
+                return new ProjectNode(scan(tableR, null), values);
+            }
+        });
+
+        add(new PlanBenchmark("plan.rename") {
+            PlanNode makePlan() {
+                return new RenameNode(scan(tableR, null), "X");
+            }
+        });
+
+        add(new PlanBenchmark("plan.sort") {
+            PlanNode makePlan() {
+                return sortBy(scan(tableR, null), "B", "A");
+            }
+        });
+
+        add(new PlanBenchmark("plan.limitOffset") {
+            PlanNode makePlan() {
+                return new LimitOffsetNode(scan(tableR, null), 100, 10);
+            }
+        });
+
+        add(new PlanBenchmark("plan.nestedLoopsJoin") {
+            PlanNode makePlan() throws Exception {
+                return new NestedLoopsJoinNode(prepared(scan(tableS, null)),
+                    prepared(scan(tableR, null)), JoinType.INNER,
+                    parse("d = a"));
+            }
+        });
+
+        add(new PlanBenchmark("plan.hashJoin") {
+            PlanNode makePlan() throws Exception {
+                return new HashJoinNode(prepared(scan(tableR, null)),
+                    prepared(scan(tableS, null)), JoinType.INNER,
+                    parse("a = d"));
+            }
+        });
+
+        add(new PlanBenchmark("plan.sortMergeJoin") {
+            PlanNode makePlan() throws Exception {
+                return new SortMergeJoinNode(
+                    prepared(sortBy(scan(tableR, null), "A")),
+                    prepared(sortBy(scan(tableS, null), "D")),
+                    JoinType.INNER, parse("a = d"));
+            }
+        });
+
+        add(new PlanBenchmark("plan.indexNestedLoopJoin.index") {
+            PlanNode makePlan() throws Exception {
+                return probeJoin(tableR);
+            }
+        });
+
+        add(new PlanBenchmark("plan.indexNestedLoopJoin.lin-hash") {
+            PlanNode makePlan() throws Exception {
+                return probeJoin(tableRHash);
+            }
+        });
+
+        add(new PlanBenchmark("plan.hashedGroupAggregate") {
+            PlanNode makePlan() {
+                return new HashedGroupAggregateNode(
+                    prepared(scan(tableR, null)), groupByB(), sumOfA());
+            }
+        });
+
+        add(new PlanBenchmark("plan.sortedGroupAggregate") {
+            PlanNode makePlan() {
+                return new SortedGroupAggregateNode(
+                    prepared(sortBy(scan(tableR, null), "B")), groupByB(),
+                    sumOfA());
+            }
+        });
+
+        add(new PlanBenchmark("plan.gather") {
+            PlanNode makePlan() throws Exception {
+                return new GatherNode(prepared(scan(tableR, parse("b < 10"))),
+                    GATHER_DEGREE);
+            }
+        });
+
+        add(new PlanBenchmark("plan.tableFunctionScan") {
+            PlanNode makePlan() {
+                TableFunction function = (TableFunction)
+                    FunctionDirectory.getInstance().getFunction("SYS_METRICS");
+                function.setStorageManager(storageManager);
+                return new TableFunctionScanNode("SYS_METRICS", function);
+            }
+        });
+    }
+
+
+    /** Parses an expression. */
+    private static Expression parse(String text) throws Exception {
+        NanoSqlParser parser =
+            new NanoSqlParser(new NanoSqlLexer(new StringReader(text)));
+        return parser.expression();
+    }
+
+
+    /** Prepares a plan, so that a node can be built on top of it. */
+    private static PlanNode prepared(PlanNode plan) {
+        plan.prepare();
+        return plan;
+    }
+
+
+    private static FileScanNode scan(TableInfo tableInfo, Expression predicate) {
+        return new FileScanNode(tableInfo, predicate);
+    }
+
+
+    /** Sorts a plan by the specified columns, in ascending order. */
+    private static SortNode sortBy(PlanNode plan, String... columns) {
+        List<OrderByExpression> order = new ArrayList<OrderByExpression>();
+        for (String column : columns)
+            order.add(new OrderByExpression(column(column)));
+
+        return new SortNode(plan, order);
+    }
+
+
+    private static ColumnValue column(String name) {
+        return new ColumnValue(new ColumnName(name));
+    }
+
+
+    private static List<Expression> groupByB() {
+        return Arrays.<Expression>asList(column("B"));
+    }
+
+
+    private static LinkedHashMap<String, FunctionCall> sumOfA() {
+        LinkedHashMap<String, FunctionCall> aggregates =
+            new LinkedHashMap<String, FunctionCall>();
+        aggregates.put("#AGG1", new FunctionCall("SUM", false, column("A")));
+        return aggregates;
+    }
+
+
+    /**
+     * Joins <tt>bench_s</tt> with a table by looking up the table's rows
+     * with each row's value of <em>d</em>, using the table's index or hash
+     * file.
+     */
+    private PlanNode probeJoin(TableInfo tableInfo) throws Exception {
+        PlanNode probePlan = AccessPathSelector.makeLookupPath(storageManager,
+            tableInfo, Arrays.asList(0));
+        if (probePlan == null) {
+            throw new IllegalStateException("Table " +
+                tableInfo.getTableName() + " can't be looked up by column A");
+        }
+
+        return new IndexNestedLoopJoinNode(prepared(scan(tableS, null)),
+            prepared(probePlan), JoinType.INNER, parse("d = a"));
+    }
+
+
+    @Override
+    public void start() throws Exception {
+        database.start();
+        storageManager = database.getStorageManager();
+
+        database.doCommand(
+            "CREATE TABLE bench_r (a INTEGER, b INTEGER, c VARCHAR(20))");
+        database.doCommand("CREATE TABLE bench_r_hash " +
+            "(a INTEGER, b INTEGER, c VARCHAR(20)) " +
+            "PROPERTIES (storage = 'lin-hash', hashkey = '0')");
+        database.doCommand("CREATE TABLE bench_s (d INTEGER, e INTEGER)");
+
+        TupleFile fileR = database.openTable("bench_r").getTupleFile();
+        TupleFile fileRHash = database.openTable("bench_r_hash").getTupleFile();
+        for (int i = 0; i < R_ROWS; i++) {
+            // The stride visits every key once, in a scattered order.
+            int a = (int) ((long) i * 7919 % R_ROWS);
+            TupleLiteral tuple = new TupleLiteral(a, a % 50, "row " + a);
+            fileR.addTuple(tuple);
+            fileRHash.addTuple(tuple);
+        }
+
+        TupleFile fileS = database.openTable("bench_s").getTupleFile();
+        for (int i = 0; i < S_ROWS; i++)
+            fileS.addTuple(new TupleLiteral(i * 10, i % 10));
+
+        storageManager.getBufferManager().unpinAllSessionPages();
+
+        database.doCommand("CREATE INDEX idx_bench_r_a ON bench_r (a)");
+        database.doCommand("ANALYZE bench_r, bench_r_hash, bench_s");
+
+        tableR = database.openTable("bench_r");
+        tableRHash = database.openTable("bench_r_hash");
+        tableS = database.openTable("bench_s");
+    }
+
+
+    @Override
+    public void stop() throws Exception {
+        database.stop();
+    }
+}
@@ -0,0 +1,308 @@
+package edu.caltech.nanodb.bench;
+
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.server.CommandResult;
+import edu.caltech.nanodb.storage.BufferManager;
+import edu.caltech.nanodb.storage.HashedTupleFile;
+import edu.caltech.nanodb.storage.PageTuple;
+import edu.caltech.nanodb.storage.SequentialTupleFile;
+import edu.caltech.nanodb.storage.TupleFile;
+import edu.caltech.nanodb.storage.linhash.LinHashTupleFile;
+import edu.caltech.nanodb.relations.Tuple;
+
+
+/**
+ * These benchmarks compare the storage formats of tables:  heap files,
+ * B<sup>+</sup> tree files and linear-hash files.  Each format is measured
+ * inserting tuples, finding the tuples with a key through the tuple file,
+ * and running an equality query through the server.  The queries are run the
+ * way a client runs them, so the data is flushed from the buffer manager
+ * after each one, which is the setting the hashed storage was compared with
+ * heap storage in.  Splitting the buckets of a linear-hash file is measured
+ * separately.
+ */
+public class TupleFileBenchmarks extends BenchmarkSuite {
+
+    /** The storage formats that are compared, as named in table properties. */
+    private static final String[] STORAGE_TYPES = { "heap", "btree", "lin-hash" };
+
+
+    /** The number of tuples in the tables that are searched. */
+    private static final int NUM_ROWS = 5000;
+
+
+    /** The number of tuples inserted in each iteration of an insert benchmark. */
+    private static final int NUM_INSERTS = 1000;
+
+
+    /** The number of buckets split in each iteration of the split benchmark. */
+    private static final int NUM_SPLITS = 8;
+
+
+    /**
+     * Keys are inserted in the order <em>i</em> * STRIDE % <em>n</em>, which
+     * visits every key once since the stride is a prime that doesn't divide
+     * the number of keys, so the keys don't arrive sorted.
+     */
+    private static final int STRIDE = 7919;
+
+
+    private BenchmarkDatabase database;
+
+
+    /**
+     * The number of tables that have been created, which numbers the tables
+     * that benchmarks create again for each iteration.  A new name is used
+     * for each table, since dropping a linear-hash table leaves its overflow
+     * file behind, and that file would stop the table from being created
+     * again with the same name.
+     */
+    private int numTables;
+
+
+    public TupleFileBenchmarks(File dataDir) {
+        database = new BenchmarkDatabase(new File(dataDir, "tuplefiles"));
+
+        for (String storage : STORAGE_TYPES)
+            addStorageBenchmarks(storage);
+
+        add(new Benchmark("tuplefile.lin-hash.splitBucket") {
+            private String tableName;
+
+            private LinHashTupleFile tupleFile;
+
+            public int getOpsPerIteration() {
+                return NUM_SPLITS;
+            }
+
+            public void setUpIteration() throws Exception {
+                dropTable(tableName);
+                tableName = newTableName("bench_split");
+                tupleFile = (LinHashTupleFile) createTable(tableName,
+                    "lin-hash", ", pagesize = 512");
+                load(tupleFile, NUM_ROWS);
+            }
+
+            public long run(int ops) throws Exception {
+                for (int i = 0; i < ops; i++)
+                    tupleFile.splitBucket();
+
+                unpinAll();
+                return tupleFile.getNumBuckets();
+            }
+        });
+    }
+
+
+    /** Adds the benchmarks of one storage format. */
+    private void addStorageBenchmarks(final String storage) {
+        final String table = "bench_" + storage.replace("-", "");
+
+        add(new Benchmark("tuplefile." + storage + ".addTuple") {
+            private String tableName;
+
+            private TupleFile tupleFile;
+
+            public int getOpsPerIteration() {
+                return NUM_INSERTS;
+            }
+
+            public void setUpIteration() throws Exception {
+                dropTable(tableName);
+                tableName = newTableName(table + "_ins");
+                tupleFile = createTable(tableName, storage, "");
+            }
+
+            public long run(int ops) throws Exception {
+                for (int i = 0; i < ops; i++) {
+                    int key = (int) ((long) i * STRIDE % ops);
+                    tupleFile.addTuple(new TupleLiteral(key, "value " + key));
+                }
+
+                unpinAll();
+                return tupleFile.getStats().numTuples;
+            }
+        });
+
+        add(new Benchmark("tuplefile." + storage + ".findEquals") {
+            private TupleFile tupleFile;
+
+            public void setUp() throws Exception {
+                tupleFile = createTable(table, storage, "");
+                load(tupleFile, NUM_ROWS);
+            }
+
+            public long run(int ops) throws Exception {
+                long sum = 0;
+                for (int i = 0; i < ops; i++) {
+                    int key = (int) ((long) i * STRIDE % NUM_ROWS);
+                    sum += findEquals(tupleFile, key);
+                }
+
+                unpinAll();
+                return sum;
+            }
+        });
+
+        add(new Benchmark("sql." + storage + ".selectEquals") {
+            private List<Object> params = new ArrayList<Object>();
+
+            public void setUp() throws Exception {
+                TupleFile tupleFile = createTable(table + "_sql", storage, "");
+                load(tupleFile, NUM_ROWS);
+                database.getStorageManager().flushAllData();
+                params.add(0);
+            }
+
+            public long run(int ops) throws Exception {
+                String query = "SELECT b FROM " + table + "_sql WHERE a = ?";
+
+                long sum = 0;
+                for (int i = 0; i < ops; i++) {
+                    params.set(0, (int) ((long) i * STRIDE % NUM_ROWS));
+                    CommandResult result =
+                        database.getServer().doCommand(query, params, true);
+                    if (result.failed()) {
+                        throw new Exception("Query failed:  " + query,
+                            result.getFailure());
+                    }
+
+                    sum += result.getTuples().size();
+                }
+                return sum;
+            }
+        });
+    }
+
+
+    /** Returns a table name that hasn't been used yet. */
+    private String newTableName(String prefix) {
+        numTables++;
+        return prefix + "_" + numTables;
+    }
+
+
+    /** Drops a table, if the name isn't null. */
+    private void dropTable(String table) throws Exception {
+        if (table != null)
+            database.doCommand("DROP TABLE " + table);
+    }
+
+
+    /**
+     * Creates an empty table with an integer key column <tt>a</tt> and a
+     * string column <tt>b</tt>.
+     *
+     * @param table the name of the table
+     * @param storage the storage format of the table
+     * @param moreProperties other properties of the table, starting with a
+     *        comma, or an empty string
+     *
+     * @return the table's tuple file
+     *
+     * @throws Exception if the table can't be created
+     */
+    private TupleFile createTable(String table, String storage,
+                                  String moreProperties) throws Exception {
+        String properties = "storage = '" + storage + "'";
+        if ("lin-hash".equals(storage))
+            properties += ", hashkey = '0'";
+
+        database.doCommand("CREATE TABLE " + table +
+            " (a INTEGER, b VARCHAR(30)) PROPERTIES (" + properties +
+            moreProperties + ")");
+
+        return database.openTable(table).getTupleFile();
+    }
+
+
+    /**
+     * Adds the keys 0 to <em>n</em> - 1 to a tuple file, in a scattered
+     * order.
+     */
+    private void load(TupleFile tupleFile, int n) throws Exception {
+        for (int i = 0; i < n; i++) {
+            int key = (int) ((long) i * STRIDE % n);
+            tupleFile.addTuple(new TupleLiteral(key, "value " + key));
+        }
+
+        unpinAll();
+    }
+
+
+    /**
+     * Counts the tuples of a file whose key equals a value, using the
+     * lookups that the file's format supports.  Heap files are scanned.
+     */
+    private int findEquals(TupleFile tupleFile, int key) throws Exception {
+        TupleLiteral searchKey = new TupleLiteral((Object) key);
+        int count = 0;
+
+        if (tupleFile instanceof HashedTupleFile) {
+            HashedTupleFile hashedFile = (HashedTupleFile) tupleFile;
+            Tuple tup = hashedFile.findFirstTupleEquals(searchKey);
+            while (tup != null) {
+                count++;
+                Tuple next = hashedFile.findNextTupleEquals(tup);
+                unpin(tup);
+                tup = next;
+            }
+        }
+        else if (tupleFile instanceof SequentialTupleFile) {
+            Tuple tup =
+                ((SequentialTupleFile) tupleFile).findFirstTupleEquals(searchKey);
+            if (tup != null) {
+                count++;
+                unpin(tup);
+            }
+        }
+        else {
+            Tuple tup = tupleFile.getFirstTuple();
+            while (tup != null) {
+                if (((Integer) tup.getColumnValue(0)) == key)
+                    count++;
+
+                Tuple next = tupleFile.getNextTuple(tup);
+                unpin(tup);
+                tup = next;
+            }
+        }
+
+        return count;
+    }
+
+
+    /** Unpins a tuple, unless the tuple file already unpinned it. */
+    private void unpin(Tuple tup) {
+        if (tup instanceof PageTuple && ((PageTuple) tup).isPinned())
+            ((PageTuple) tup).unpin();
+    }
+
+
+    /**
+     * Unpins the pages that the tuple files left pinned, as the server does
+     * after each command.
+     */
+    private void unpinAll() {
+        BufferManager bufferManager =
+            database.getStorageManager().getBufferManager();
+        bufferManager.unpinAllSessionPages();
+    }
+
+
+    @Override
+    public void start() throws Exception {
+        database.start();
+    }
+
+
+    @Override
+    public void stop() throws Exception {
+        database.stop();
+    }
+}
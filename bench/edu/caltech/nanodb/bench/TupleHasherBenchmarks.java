@@ -0,0 +1,69 @@
+package edu.caltech.nanodb.bench;
+
+
+import java.util.Arrays;
+import java.util.List;
+
+import edu.caltech.nanodb.expressions.TupleHasher;
+import edu.caltech.nanodb.expressions.TupleLiteral;
+
+
+/**
+ * These benchmarks measure {@link TupleHasher}, which computes the hash
+ * values that place tuples in the buckets of hash files and hash joins.
+ */
+public class TupleHasherBenchmarks extends BenchmarkSuite {
+
+    /** The number of different tuples that are hashed, in turn. */
+    private static final int NUM_TUPLES = 64;
+
+
+    /** Tuples with a single integer column. */
+    private TupleLiteral[] intTuples = new TupleLiteral[NUM_TUPLES];
+
+
+    /** Tuples with integer, string, double and long columns. */
+    private TupleLiteral[] mixedTuples = new TupleLiteral[NUM_TUPLES];
+
+
+    /** The key columns of the mixed tuples. */
+    private List<Integer> keyColumns = Arrays.asList(0, 1);
+
+
+    public TupleHasherBenchmarks() {
+        for (int i = 0; i < NUM_TUPLES; i++) {
+            intTuples[i] = new TupleLiteral((Object) (i * 7919));
+            mixedTuples[i] = new TupleLiteral(i, "name " + i, i * 1.5,
+                (long) i << 32);
+        }
+
+        add(new Benchmark("tuplehasher.hashTuple.int") {
+            public long run(int ops) {
+                long sum = 0;
+                for (int i = 0; i < ops; i++)
+                    sum += TupleHasher.hashTuple(intTuples[i % NUM_TUPLES]);
+                return sum;
+            }
+        });
+
+        add(new Benchmark("tuplehasher.hashTuple.mixed") {
+            public long run(int ops) {
+                long sum = 0;
+                for (int i = 0; i < ops; i++)
+                    sum += TupleHasher.hashTuple(mixedTuples[i % NUM_TUPLES]);
+                return sum;
+            }
+        });
+
+        add(new Benchmark("tuplehasher.hashTuple.keyColumns") {
+            public long run(int ops) {
+                long sum = 0;
+                for (int i = 0; i < ops; i++) {
+                    sum += TupleHasher.hashTuple(mixedTuples[i % NUM_TUPLES],
+                        keyColumns);
+                }
+                return sum;
+            }
+        });
+    }
+}
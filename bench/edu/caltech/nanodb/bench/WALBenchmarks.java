@@ -0,0 +1,116 @@
+package edu.caltech.nanodb.bench;
+
+
+import java.io.File;
+
+import edu.caltech.nanodb.client.SessionState;
+import edu.caltech.nanodb.storage.DBFile;
+import edu.caltech.nanodb.storage.DBFileType;
+import edu.caltech.nanodb.storage.DBPage;
+import edu.caltech.nanodb.storage.StorageManager;
+import edu.caltech.nanodb.transactions.TransactionManager;
+
+
+/**
+ * These benchmarks measure the write-ahead log:  recording the changes to a
+ * page within a transaction, and committing a transaction that changed a
+ * page, which forces the log to disk.
+ */
+public class WALBenchmarks extends BenchmarkSuite {
+
+    /** The number of different positions in the page that are changed. */
+    private static final int NUM_POSITIONS = 128;
+
+
+    private BenchmarkDatabase database;
+
+
+    private StorageManager storageManager;
+
+
+    private TransactionManager txnManager;
+
+
+    private DBFile dbFile;
+
+
+    /** The page that the transactions change. */
+    private DBPage dbPage;
+
+
+    /** The value written by the next change, so every change differs. */
+    private int nextValue;
+
+
+    public WALBenchmarks(File dataDir) {
+        database = new BenchmarkDatabase(new File(dataDir, "wal"));
+        database.setProperty(TransactionManager.PROP_TXNS, "on");
+
+        // Every call records its changes in one long transaction, which is
+        // committed before the next iteration.
+        add(new Benchmark("wal.recordPageUpdate") {
+            public void setUpIteration() throws Exception {
+                endTransaction();
+                txnManager.startTransaction(true);
+            }
+
+            public long run(int ops) throws Exception {
+                for (int i = 0; i < ops; i++)
+                    updatePage(i);
+                return nextValue;
+            }
+
+            public void tearDown() throws Exception {
+                endTransaction();
+            }
+        });
+
+        add(new Benchmark("wal.commitTransaction") {
+            public long run(int ops) throws Exception {
+                for (int i = 0; i < ops; i++) {
+                    txnManager.startTransaction(true);
+                    updatePage(i);
+                    txnManager.commitTransaction();
+                }
+                return nextValue;
+            }
+        });
+    }
+
+
+    /** Changes a value in the page, and records the change in the log. */
+    private void updatePage(int i) throws Exception {
+        dbPage.writeInt((i % NUM_POSITIONS) * 4, ++nextValue);
+        storageManager.logDBPageWrite(dbPage);
+    }
+
+
+    /** Commits the current transaction, if there is one. */
+    private void endTransaction() throws Exception {
+        if (SessionState.get().getTxnState().isTxnInProgress())
+            txnManager.commitTransaction();
+    }
+
+
+    @Override
+    public void start() throws Exception {
+        database.start();
+        storageManager = database.getStorageManager();
+        txnManager = storageManager.getTransactionManager();
+
+        dbFile = storageManager.createDBFile("bench_wal.dat",
+            DBFileType.HEAP_TUPLE_FILE);
+        dbPage = storageManager.loadDBPage(dbFile, 0, true);
+    }
+
+
+    @Override
+    public void stop() throws Exception {
+        if (dbPage != null) {
+            dbPage.unpin();
+            dbPage = null;
+        }
+
+        database.stop();
+    }
+}
@@ -11,6 +11,7 @@ header {
   import edu.caltech.nanodb.commands.*;
   import edu.caltech.nanodb.expressions.*;
   import edu.caltech.nanodb.relations.*;
+  import edu.caltech.nanodb.storage.TableSample;
 }
 
 /**
@@ -35,6 +36,7 @@ tokens {
   ANY         = "any";
   AS          = "as";
   ASC         = "asc";
+  BACKUP      = "backup";
   BEGIN       = "begin";
   BETWEEN     = "between";
   BY          = "by";
@@ -45,6 +47,7 @@ tokens {
   CRASH       = "crash";
   CREATE      = "create";
   CROSS       = "cross";
+  DEALLOCATE  = "deallocate";
   DEFAULT     = "default";
   DELETE      = "delete";
   DESC        = "desc";
@@ -52,6 +55,7 @@ tokens {
   DROP        = "drop";
   DUMP        = "dump";
   EXCEPT      = "except";
+  EXECUTE     = "execute";
   EXISTS      = "exists";
   EXIT        = "exit";
   EXPLAIN     = "explain";
@@ -66,6 +70,7 @@ tokens {
   HAVING      = "having";
   IF          = "if";
   IN          = "in";
+  INCREMENTAL = "incremental";
   INDEX       = "index";
   INNER       = "inner";
   INSERT      = "insert";
@@ -87,6 +92,9 @@ tokens {
   OR          = "or";
   ORDER       = "order";
   OUTER       = "outer";
+  PAGES       = "pages";
+  PERCENT     = "percent";
+  PREPARE     = "prepare";
   PRIMARY     = "primary";
   PROPERTIES  = "properties";
   QUIT        = "quit";
@@ -95,6 +103,7 @@ tokens {
   RESTRICT    = "restrict";
   RIGHT       = "right";
   ROLLBACK    = "rollback";
+  SAMPLE      = "sample";
   SELECT      = "select";
   SET         = "set";
   SHOW        = "show";
@@ -159,6 +168,52 @@ tokens {
   PERIOD;
 }
 
+{
+  /**
+   * The parameters (<tt>?</tt>) of the command being parsed, in the order
+   * they appear in the command.
+   */
+  private ArrayList<ParameterValue> parameters =
+    new ArrayList<ParameterValue>();
+
+  /**
+   * Returns the parameters of the last command that was parsed, in the order
+   * they appear in the command.
+   *
+   * @return the parameters of the last command that was parsed
+   */
+  public List<ParameterValue> getParameters() {
+    return parameters;
+  }
+
+  /**
+   * While a statement is being prepared, the text of its tokens is recorded
+   * here, so that the statement can be parsed again when it is planned
+   * again.
+   */
+  private StringBuilder recordedText = null;
+
+  /** Records the text of each token that is consumed while recording. */
+  @Override
+  public void consume() throws TokenStreamException {
+    if (recordedText != null && inputState.guessing == 0) {
+      Token token = LT(1);
+      if (recordedText.length() > 0)
+        recordedText.append(' ');
+
+      // The lexer drops the quotes of strings and quoted identifiers.
+      if (token.getType() == STRING_LITERAL)
+        recordedText.append('\'').append(token.getText()).append('\'');
+      else if (token.getType() == QUOTED_IDENT)
+        recordedText.append('"').append(token.getText()).append('"');
+      else
+        recordedText.append(token.getText());
+    }
+
+    super.consume();
+  }
+}
+
 /* A list of one or more statements, separated by semicolons.  Multiple
  * semicolons without statements are fine, as is a single statement with
  * a semicolon and no subsequent statement.
@@ -179,7 +234,11 @@ command_semicolon returns [Command c] { c = null; } : c=command SEMICOLON ;
  * this command is not followed by a semicolon, which allows it to be used in the
  * "commands" rule.
  */
-command returns [Command c] { c = null; } :
+command returns [Command c]
+  {
+    c = null;
+    parameters = new ArrayList<ParameterValue>();
+  } :
   ( c=create_stmt /* | alter_stmt */ | c=drop_stmt                 // DDL
   | c=select_stmt | c=insert_stmt | c=update_stmt | c=delete_stmt  // DML
   | c=begin_txn_stmt | c=commit_txn_stmt | c=rollback_txn_stmt     // Transactions
@@ -187,6 +246,8 @@ command returns [Command c] { c = null; } :
   | c=dump_table_stmt // | c=dump_index_stmt                          // Utility
   | c=flush_stmt | c=verify_stmt | c=optimize_stmt                 // Utility
   | c=showvars_stmt | c=setvar_stmt                                // Utility
+  | c=backup_stmt                                                  // Utility
+  | c=prepare_stmt | c=execute_stmt | c=deallocate_stmt            // Utility
   )
   ;
 
@@ -624,7 +685,8 @@ from_expr returns [FromClause fc]
   :
     name=dbobj_ident  // A table name, or a table-returning function.
       ( LPAREN        // This is a call to a table-returning function.
-        ( e=expression { args = new ArrayList<Expression>(); args.add(e); }
+          { args = new ArrayList<Expression>(); }
+        ( e=expression { args.add(e); }
           ( COMMA e=expression { args.add(e); } )* )?
         RPAREN )?
       ( (AS)? alias=dbobj_ident )?
@@ -729,23 +791,36 @@ analyze_stmt returns [AnalyzeCommand c]
     c = null;
     boolean verbose = false;
     String tblName = null;
+    float amount = 0;
+    TableSample.Unit unit = null;
   } :
   ANALYZE (VERBOSE { verbose = true; } )?
   tblName=dbobj_ident { c = new AnalyzeCommand(tblName, verbose); }
   ( COMMA tblName=dbobj_ident { c.addTable(tblName); } )*
+  ( SAMPLE
+    ( n:INT_LITERAL { amount = Float.parseFloat(n.getText()); }
+    | d:DEC_LITERAL { amount = Float.parseFloat(d.getText()); } )
+    ( PAGES { unit = TableSample.Unit.PAGES; }
+    | PERCENT { unit = TableSample.Unit.PERCENT; } )
+    { c.setSample(new TableSample(amount, unit)); }
+  )?
   ;
 
 
-/* EXPLAIN Statements */
+/* EXPLAIN Statements.  EXPLAIN ANALYZE also executes the command, and
+ * reports what each plan node actually did next to its estimated cost.
+ */
 
 explain_stmt returns [Command c]
   {
     c = null;
     QueryCommand cmdToExplain = null;
+    boolean analyze = false;
   } :
-  EXPLAIN ( cmdToExplain=select_stmt | cmdToExplain=insert_stmt
+  EXPLAIN ( ANALYZE { analyze = true; } )?
+          ( cmdToExplain=select_stmt | cmdToExplain=insert_stmt
           | cmdToExplain=update_stmt | cmdToExplain=delete_stmt )
-  { c = new ExplainCommand(cmdToExplain); }
+  { c = new ExplainCommand(cmdToExplain, analyze); }
   ;
 
 
@@ -780,6 +855,19 @@ dump_index_stmt returns [DumpIndexCommand c]
   ;
 
 
+/* BACKUP Statements */
+
+backup_stmt returns [BackupCommand c]
+  {
+    c = null;
+    String baseDir = null;
+  } :
+  BACKUP TO dir:STRING_LITERAL
+  ( INCREMENTAL FROM base:STRING_LITERAL { baseDir = base.getText(); } )?
+  { c = new BackupCommand(dir.getText(), baseDir); }
+  ;
+
+
 /* VERIFY Statements */
 
 verify_stmt returns [VerifyCommand c]
@@ -842,6 +930,47 @@ setvar_stmt returns [SetVariableCommand c]
   ;
 
 
+/* Prepared Statements */
+
+/**
+ * A statement can be prepared with parameters, written as <tt>?</tt>, and
+ * then executed many times with values for the parameters.
+ */
+prepare_stmt returns [PrepareCommand c]
+  {
+    c = null;
+    String name = null;
+    QueryCommand cmd = null;
+  } :
+  PREPARE name=dbobj_ident ( AS | FROM )
+  { recordedText = new StringBuilder(); }
+  ( cmd=select_stmt | cmd=insert_stmt | cmd=update_stmt | cmd=delete_stmt )
+  {
+    c = new PrepareCommand(name, cmd, parameters, recordedText.toString());
+    recordedText = null;
+  }
+  ;
+
+execute_stmt returns [ExecuteCommand c]
+  {
+    c = null;
+    String name = null;
+    ArrayList<Expression> values = null;
+  } :
+  EXECUTE name=dbobj_ident ( values=expr_list )?
+  { c = new ExecuteCommand(name, values); }
+  ;
+
+deallocate_stmt returns [DeallocateCommand c]
+  {
+    c = null;
+    String name = null;
+  } :
+  DEALLOCATE ( PREPARE )? name=dbobj_ident
+  { c = new DeallocateCommand(name); }
+  ;
+
+
 /**
  * The expression rule matches pretty much any possible logical and/or
  * mathematical expression that one might need.  Note that it will parse a lot
@@ -970,10 +1099,10 @@ relational_expr returns [Expression e]
   | IS ( NOT { invert = true; } )? NULL { e = new IsNullOperator(e, invert); }
   | (
       ( NOT { invert = true; } )?
-      (
-        ( LIKE       { matchType = StringMatchOperator.Type.LIKE;  }
-        | SIMILAR TO { matchType = StringMatchOperator.Type.REGEX; } )
-        e2=additive_expr { e = new StringMatchOperator(matchType, e, e2); } )
+      ( (
+          ( LIKE       { matchType = StringMatchOperator.Type.LIKE;  }
+          | SIMILAR TO { matchType = StringMatchOperator.Type.REGEX; } )
+          e2=additive_expr { e = new StringMatchOperator(matchType, e, e2); } )
       | ( BETWEEN e2=additive_expr AND e3=additive_expr
           {
             BooleanOperator b = new BooleanOperator(BooleanOperator.Type.AND_EXPR);
@@ -984,7 +1113,7 @@ relational_expr returns [Expression e]
         )
       | ( IN
           ( values=expr_list { e = new InOperator(e, values); }
-          | LPAREN sc=select_clause RPAREN { e = new InOperator(e, sc); } ) )
+          | LPAREN sc=select_clause RPAREN { e = new InOperator(e, sc); } ) ) )
     )
     {
       if (invert) {
@@ -1060,6 +1189,12 @@ base_expr returns [Expression e]
   }
   :
     e=literal_expr
+  | QUESTION
+    {
+      ParameterValue param = new ParameterValue(parameters.size());
+      parameters.add(param);
+      e = param;
+    }
   | cn=column_name { e = new ColumnValue(cn); }
   | e=function_call
   | LPAREN
@@ -1164,6 +1299,7 @@ options {
 
 COLON     : ':' ;
 COMMA     : ',' ;
+QUESTION  : '?' ;
 LPAREN    : '(' ;
 RPAREN    : ')' ;
 SEMICOLON : ';' ;
@@ -2,8 +2,14 @@ package edu.caltech.nanodb.client;
 
 
 import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import edu.caltech.nanodb.commands.PreparedStatement;
 import edu.caltech.nanodb.transactions.TransactionState;
 
 
@@ -30,11 +36,22 @@ public class SessionState {
     private static ThreadLocal<SessionState> threadLocalState =
         new ThreadLocal<SessionState>() {
             @Override protected SessionState initialValue() {
-                return new SessionState(nextSessionID.getAndIncrement());
+                SessionState state =
+                    new SessionState(nextSessionID.getAndIncrement());
+                allSessions.put(state.sessionID, state);
+                return state;
             }
         };
 
 
+    /**
+     * All of the sessions that haven't ended, keyed by session ID, so that
+     * they can be reported by the <tt>SYS_SESSIONS()</tt> system table.
+     */
+    private static ConcurrentSkipListMap<Integer, SessionState> allSessions =
+        new ConcurrentSkipListMap<Integer, SessionState>();
+
+
     /**
      * Returns the current session state, possibly initializing a new session
      * with its own unique ID in the process.  This value is stored in
@@ -49,13 +66,60 @@ public class SessionState {
 
 
     /**
-     * Removes the session-state from the thread's thread-local storage.
+     * Makes an existing session the current session of this thread.  This
+     * allows worker threads that evaluate part of a session's query to use
+     * the session's ID and transaction state, so that the pages they pin and
+     * the locks they acquire belong to the session.  The worker should call
+     * {@link #remove} when it is finished.  Since the session is then used
+     * by more than one thread, the workers must only read its state.
+     *
+     * @param state the session to use in this thread
+     */
+    public static void set(SessionState state) {
+        if (state == null)
+            throw new IllegalArgumentException("state cannot be null");
+
+        threadLocalState.set(state);
+    }
+
+
+    /**
+     * Removes the session-state from the thread's thread-local storage.  If
+     * this thread created the session, the session has ended, and is no
+     * longer reported by {@link #getSessions}.
      */
     public static void remove() {
+        SessionState state = threadLocalState.get();
+        if (state.ownerThread == Thread.currentThread())
+            allSessions.remove(state.sessionID);
+
         threadLocalState.remove();
     }
 
 
+    /**
+     * Returns the sessions that haven't ended, in the order of their IDs.
+     * Sessions whose threads have exited without calling {@link #remove} are
+     * treated as ended.
+     *
+     * @return a list of the sessions that haven't ended
+     */
+    public static List<SessionState> getSessions() {
+        ArrayList<SessionState> sessions = new ArrayList<SessionState>();
+
+        Iterator<SessionState> iter = allSessions.values().iterator();
+        while (iter.hasNext()) {
+            SessionState state = iter.next();
+            if (state.ownerThread.isAlive())
+                sessions.add(state);
+            else
+                iter.remove();
+        }
+
+        return sessions;
+    }
+
+
     /*========================================================================
      * NON-STATIC FIELDS AND METHODS
      */
@@ -65,6 +129,29 @@ public class SessionState {
     private int sessionID;
 
 
+    /** The thread that the session was created by. */
+    private Thread ownerThread;
+
+
+    /**
+     * The name of the kind of command the session is executing, or last
+     * executed, such as <tt>SELECT</tt>, or {@code null} if the session
+     * hasn't executed a command.
+     */
+    private volatile String commandName;
+
+
+    /** The time the current or last command started, from System.nanoTime. */
+    private volatile long commandStartNanos;
+
+
+    /**
+     * How long the last command took, in nanoseconds, or -1 if a command is
+     * executing.
+     */
+    private volatile long commandNanos;
+
+
     /**
      * This is the output stream for the current client.  If there are multiple
      * clients, writing to this stream will go to the client associated with
@@ -77,8 +164,14 @@ public class SessionState {
     private TransactionState txnState;
 
 
+    /** The statements this session has prepared, keyed by name. */
+    private HashMap<String, PreparedStatement> preparedStatements =
+        new HashMap<String, PreparedStatement>();
+
+
     private SessionState(int sessionID) {
         this.sessionID = sessionID;
+        ownerThread = Thread.currentThread();
         txnState = new TransactionState();
 
         // By default, we'll use the standard output stream for the session's
@@ -98,6 +191,74 @@ public class SessionState {
     }
 
 
+    public Thread getOwnerThread() {
+        return ownerThread;
+    }
+
+
+    /**
+     * Records that the session started executing a command.
+     *
+     * @param commandName the name of the kind of command, such as
+     *        <tt>SELECT</tt>
+     */
+    public void commandStarted(String commandName) {
+        this.commandName = commandName;
+        commandStartNanos = System.nanoTime();
+        commandNanos = -1;
+    }
+
+
+    /** Records that the session finished executing its command. */
+    public void commandFinished() {
+        commandNanos = System.nanoTime() - commandStartNanos;
+    }
+
+
+    public String getCommandName() {
+        return commandName;
+    }
+
+
+    /**
+     * Returns true if the session is currently executing a command.
+     *
+     * @return true if the session is currently executing a command
+     */
+    public boolean isExecutingCommand() {
+        return commandName != null && commandNanos < 0;
+    }
+
+
+    /**
+     * Returns how long the session's current command has been executing, or
+     * how long its last command took, in nanoseconds.
+     *
+     * @return the time of the current or last command, or 0 if the session
+     *         hasn't executed a command
+     */
+    public long getCommandNanos() {
+        if (commandName == null)
+            return 0;
+
+        long nanos = commandNanos;
+        if (nanos < 0)
+            nanos = System.nanoTime() - commandStartNanos;
+
+        return nanos;
+    }
+
+
+    /**
+     * Returns the number of statements this session has prepared.
+     *
+     * @return the number of statements this session has prepared
+     */
+    public int getNumPreparedStatements() {
+        return preparedStatements.size();
+    }
+
+
     public PrintStream getOutputStream() {
         return outputStream;
     }
@@ -116,6 +277,50 @@ public class SessionState {
     }
 
 
+    /**
+     * Returns the statement this session prepared with the specified name.
+     *
+     * @param name the name of the prepared statement
+     *
+     * @return the prepared statement, or {@code null} if the session hasn't
+     *         prepared a statement with the name
+     */
+    public PreparedStatement getPreparedStatement(String name) {
+        return preparedStatements.get(name);
+    }
+
+
+    /**
+     * Records a statement this session prepared, with the specified name.
+     *
+     * @param name the name of the prepared statement
+     * @param stmt the prepared statement
+     *
+     * @return true if the statement was added, or false if the session has
+     *         already prepared a statement with the name
+     */
+    public boolean addPreparedStatement(String name, PreparedStatement stmt) {
+        if (preparedStatements.containsKey(name))
+            return false;
+
+        preparedStatements.put(name, stmt);
+        return true;
+    }
+
+
+    /**
+     * Removes a statement this session prepared.
+     *
+     * @param name the name of the prepared statement
+     *
+     * @return the removed statement, or {@code null} if the session hasn't
+     *         prepared a statement with the name
+     */
+    public PreparedStatement removePreparedStatement(String name) {
+        return preparedStatements.remove(name);
+    }
+
+
     @Override
     public int hashCode() {
         return sessionID;
@@ -9,6 +9,7 @@ import java.util.LinkedHashSet;
 import edu.caltech.nanodb.storage.StorageManager;
 import edu.caltech.nanodb.relations.TableInfo;
 import edu.caltech.nanodb.storage.TableManager;
+import edu.caltech.nanodb.storage.TableSample;
 
 
 /**
@@ -29,6 +30,13 @@ public class AnalyzeCommand extends Command {
     private boolean verbose = false;
 
 
+    /**
+     * The part of each table to read, or {@code null} if the whole of each
+     * table is read.
+     */
+    private TableSample sample;
+
+
     /**
      * Construct a new <tt>ANALYZE</tt> command with an empty table list.
      * Tables can be added to the internal list using the {@link #addTable}
@@ -90,6 +98,23 @@ public class AnalyzeCommand extends Command {
     }
 
 
+    /**
+     * Sets the part of each table to read, as specified by a
+     * <tt>SAMPLE</tt> clause.
+     *
+     * @param sample the part of each table to read, or {@code null} to read
+     *        the whole of each table
+     */
+    public void setSample(TableSample sample) {
+        this.sample = sample;
+    }
+
+
+    public TableSample getSample() {
+        return sample;
+    }
+
+
     @Override
     public void execute(StorageManager storageManager)
         throws ExecutionException {
@@ -115,7 +140,7 @@ public class AnalyzeCommand extends Command {
         for (TableInfo tableInfo : tableInfos) {
             try {
                 out.println("Analyzing table " + tableInfo.getTableName());
-                tableManager.analyzeTable(tableInfo);
+                tableManager.analyzeTable(tableInfo, sample);
 
                 if (verbose) {
                     // TODO:  Implement
@@ -139,6 +164,7 @@ public class AnalyzeCommand extends Command {
      */
     @Override
     public String toString() {
-        return "Analyze[" + tableNames + "]";
+        return "Analyze[" + tableNames +
+            (sample != null ? ", " + sample : "") + "]";
     }
 }
@@ -0,0 +1,90 @@
+package edu.caltech.nanodb.commands;
+
+
+import java.io.File;
+import java.io.IOException;
+
+import edu.caltech.nanodb.storage.StorageManager;
+import edu.caltech.nanodb.storage.backup.BackupManager;
+import edu.caltech.nanodb.storage.backup.BackupManifest;
+
+
+/**
+ * This Command class represents the <tt>BACKUP</tt> SQL command, which takes
+ * an online backup of the database into a directory while other sessions
+ * continue to run.  An incremental backup can be taken by naming the
+ * directory of a previous backup to base it on.  This is not a standard SQL
+ * command.
+ *
+ * @see BackupManager
+ */
+public class BackupCommand extends Command {
+
+    /** The directory to write the backup into. */
+    private String backupDir;
+
+
+    /**
+     * The directory of the backup that an incremental backup is based on, or
+     * {@code null} for a full backup.
+     */
+    private String baseBackupDir;
+
+
+    /**
+     * Construct a new <tt>BACKUP</tt> command.
+     *
+     * @param backupDir the directory to write the backup into
+     * @param baseBackupDir the directory of the backup that an incremental
+     *        backup is based on, or {@code null} for a full backup
+     */
+    public BackupCommand(String backupDir, String baseBackupDir) {
+        super(Command.Type.UTILITY);
+
+        if (backupDir == null)
+            throw new NullPointerException("backupDir cannot be null");
+
+        this.backupDir = backupDir;
+        this.baseBackupDir = baseBackupDir;
+    }
+
+
+    @Override
+    public void execute(StorageManager storageManager)
+        throws ExecutionException {
+
+        File baseDir = (baseBackupDir != null) ? new File(baseBackupDir) : null;
+
+        BackupManifest manifest;
+        try {
+            BackupManager backupManager = new BackupManager(storageManager);
+            manifest = backupManager.backup(new File(backupDir), baseDir);
+        }
+        catch (IllegalStateException e) {
+            throw new ExecutionException(e.getMessage(), e);
+        }
+        catch (IOException e) {
+            throw new ExecutionException("Could not back up the database to " +
+                backupDir, e);
+        }
+
+        out.printf("%s backup to %s complete:  %d pages copied from %d " +
+            "files, WAL archived from %s to %s.%n",
+            manifest.isIncremental() ? "Incremental" : "Full", backupDir,
+            manifest.getNumPagesCopied(), manifest.getFiles().size(),
+            manifest.getRecoveryLSN(), manifest.getEndLSN());
+    }
+
+
+    /**
+     * Prints a simple representation of the backup command.
+     *
+     * @return a string representing this backup command
+     */
+    @Override
+    public String toString() {
+        return "Backup[" + backupDir +
+            (baseBackupDir != null ? ", incremental from " + baseBackupDir : "") +
+            "]";
+    }
+}
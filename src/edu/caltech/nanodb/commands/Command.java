@@ -63,6 +63,26 @@ public abstract class Command {
     }
 
 
+    public Type getType() {
+        return cmdType;
+    }
+
+
+    /**
+     * Sets the output stream of the command.  A command that is executed
+     * again, such as a prepared statement, uses this to send its output to
+     * the session that is executing it.
+     *
+     * @param out the output stream for the command's output
+     */
+    public void setOutputStream(PrintStream out) {
+        if (out == null)
+            throw new IllegalArgumentException("out cannot be null");
+
+        this.out = out;
+    }
+
+
     /**
      * Actually performs the command.
      *
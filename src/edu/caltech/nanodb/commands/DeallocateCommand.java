@@ -0,0 +1,45 @@
+package edu.caltech.nanodb.commands;
+
+
+import edu.caltech.nanodb.client.SessionState;
+import edu.caltech.nanodb.storage.StorageManager;
+
+
+/**
+ * This command removes a statement that was prepared with the
+ * {@link PrepareCommand <tt>PREPARE</tt>} command.
+ */
+public class DeallocateCommand extends Command {
+
+    /** The name of the prepared statement to remove. */
+    private String name;
+
+
+    public DeallocateCommand(String name) {
+        super(Command.Type.UTILITY);
+
+        if (name == null)
+            throw new IllegalArgumentException("name cannot be null");
+
+        this.name = name;
+    }
+
+
+    @Override
+    public void execute(StorageManager storageManager)
+        throws ExecutionException {
+
+        if (SessionState.get().removePreparedStatement(name) == null) {
+            throw new ExecutionException("There is no prepared statement " +
+                "named " + name);
+        }
+
+        out.println("Deallocated prepared statement " + name + ".");
+    }
+
+
+    @Override
+    public String toString() {
+        return "Deallocate[" + name + "]";
+    }
+}
@@ -0,0 +1,102 @@
+package edu.caltech.nanodb.commands;
+
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.caltech.nanodb.client.SessionState;
+import edu.caltech.nanodb.expressions.Expression;
+import edu.caltech.nanodb.expressions.ExpressionException;
+import edu.caltech.nanodb.qeval.TupleProcessor;
+import edu.caltech.nanodb.storage.StorageManager;
+
+
+/**
+ * This command executes a statement that was prepared with the
+ * {@link PrepareCommand <tt>PREPARE</tt>} command, with values for its
+ * parameters.  The values must be expressions without any column
+ * references, which are evaluated before the statement is executed.
+ */
+public class ExecuteCommand extends Command {
+
+    /** The name of the prepared statement to execute. */
+    private String name;
+
+
+    /** The expressions for the values of the statement's parameters. */
+    private List<Expression> values;
+
+
+    /**
+     * The tuple processor that receives the results of a prepared
+     * <tt>SELECT</tt> statement, or {@code null} if the results are printed.
+     */
+    private TupleProcessor tupleProcessor;
+
+
+    public ExecuteCommand(String name, List<Expression> values) {
+        super(Command.Type.DML);
+
+        if (name == null)
+            throw new IllegalArgumentException("name cannot be null");
+
+        if (values == null)
+            values = new ArrayList<Expression>();
+
+        this.name = name;
+        this.values = values;
+    }
+
+
+    /**
+     * Sets the tuple processor that receives the results of the statement,
+     * if it is a <tt>SELECT</tt> statement.
+     *
+     * @param tupleProcessor the tuple processor, or {@code null} to print the
+     *        results
+     */
+    public void setTupleProcessor(TupleProcessor tupleProcessor) {
+        this.tupleProcessor = tupleProcessor;
+    }
+
+
+    @Override
+    public void execute(StorageManager storageManager)
+        throws ExecutionException {
+
+        PreparedStatement stmt = SessionState.get().getPreparedStatement(name);
+        if (stmt == null) {
+            throw new ExecutionException("There is no prepared statement " +
+                "named " + name);
+        }
+
+        ArrayList<Object> paramValues = new ArrayList<Object>(values.size());
+        for (Expression expr : values) {
+            if (expr.hasSymbols()) {
+                throw new ExecutionException(
+                    "Parameter values cannot contain symbols!");
+            }
+
+            try {
+                paramValues.add(expr.evaluate());
+            }
+            catch (ExpressionException e) {
+                throw new ExecutionException(
+                    "Couldn't evaluate a parameter value.", e);
+            }
+        }
+        stmt.bind(paramValues);
+
+        Command command = stmt.getCommand();
+        if (command instanceof SelectCommand)
+            ((SelectCommand) command).setTupleProcessor(tupleProcessor);
+
+        stmt.execute(storageManager);
+    }
+
+
+    @Override
+    public String toString() {
+        return "Execute[" + name + ", " + values + "]";
+    }
+}
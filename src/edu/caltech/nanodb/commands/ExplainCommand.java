@@ -6,7 +6,11 @@ import edu.caltech.nanodb.storage.StorageManager;
 
 /**
  * This Command class represents the <tt>EXPLAIN</tt> SQL command, which prints
- * out details of how SQL DML statements will be evaluated.
+ * out details of how SQL DML statements will be evaluated.  The
+ * <tt>EXPLAIN ANALYZE</tt> form also evaluates the statement, and prints what
+ * each plan node actually did next to its estimated cost.  Note that this
+ * means <tt>EXPLAIN ANALYZE</tt> of an <tt>INSERT</tt>, <tt>UPDATE</tt> or
+ * <tt>DELETE</tt> statement modifies the table.
  */
 public class ExplainCommand extends Command {
 
@@ -14,15 +18,32 @@ public class ExplainCommand extends Command {
     private QueryCommand cmdToExplain;
 
 
+    /** True if the command is evaluated to report its actual metrics. */
+    private boolean analyze;
+
+
     /**
      * Construct an explain command.
      *
      * @param cmdToExplain the command that should be explained.
      */
     public ExplainCommand(QueryCommand cmdToExplain) {
+        this(cmdToExplain, false);
+    }
+
+
+    /**
+     * Construct an explain command.
+     *
+     * @param cmdToExplain the command that should be explained.
+     * @param analyze true if the command should also be evaluated, so that
+     *        the actual metrics of its plan are reported
+     */
+    public ExplainCommand(QueryCommand cmdToExplain, boolean analyze) {
         super(Command.Type.UTILITY);
 
         this.cmdToExplain = cmdToExplain;
+        this.analyze = analyze;
     }
 
 
@@ -31,6 +52,8 @@ public class ExplainCommand extends Command {
         throws ExecutionException {
 
         cmdToExplain.setExplain(true);
+        cmdToExplain.setAnalyze(analyze);
+        cmdToExplain.setOutputStream(out);
         cmdToExplain.execute(storageManager);
     }
 }
@@ -14,6 +14,9 @@ import edu.caltech.nanodb.expressions.ColumnValue;
 import edu.caltech.nanodb.expressions.CompareOperator;
 import edu.caltech.nanodb.expressions.Expression;
 import edu.caltech.nanodb.expressions.FunctionCall;
+import edu.caltech.nanodb.functions.Function;
+import edu.caltech.nanodb.functions.FunctionDirectory;
+import edu.caltech.nanodb.functions.TableFunction;
 import edu.caltech.nanodb.relations.ColumnInfo;
 import edu.caltech.nanodb.relations.JoinType;
 import edu.caltech.nanodb.relations.Schema;
@@ -145,6 +148,13 @@ public class FromClause {
     private List<Expression> args = null;
 
 
+    /**
+     * If the <tt>FROM</tt> clause is a table-returning function then this
+     * field holds the function, once the clause has been prepared.
+     */
+    private TableFunction preparedFunction = null;
+
+
     /**
      * If the <tt>FROM</tt> clause specifies a nested <tt>SELECT</tt> command
      * with an alias, this field holds the nested query.  This field will
@@ -267,6 +277,7 @@ public class FromClause {
         clauseType = ClauseType.TABLE_FUNCTION;
 
         this.tableName = functionName;
+        this.args = args;
         this.aliasName = aliasName;
     }
 
@@ -392,6 +403,44 @@ public class FromClause {
     }
 
 
+    /**
+     * Returns the name of a table-returning function.
+     *
+     * @return the name of the function
+     *
+     * @throws IllegalStateException if the from-clause's type is not a
+     *         {@link ClauseType#TABLE_FUNCTION}.
+     */
+    public String getFunctionName() {
+        if (clauseType != ClauseType.TABLE_FUNCTION) {
+            throw new IllegalStateException("From-clause is a " + clauseType +
+                " clause, not a TABLE_FUNCTION.");
+        }
+
+        return tableName;
+    }
+
+
+    /**
+     * Returns the table-returning function, with its arguments set, once the
+     * clause has been prepared.
+     *
+     * @return the function, or <tt>null</tt> if the clause hasn't been
+     *         prepared
+     *
+     * @throws IllegalStateException if the from-clause's type is not a
+     *         {@link ClauseType#TABLE_FUNCTION}.
+     */
+    public TableFunction getPreparedFunction() {
+        if (clauseType != ClauseType.TABLE_FUNCTION) {
+            throw new IllegalStateException("From-clause is a " + clauseType +
+                " clause, not a TABLE_FUNCTION.");
+        }
+
+        return preparedFunction;
+    }
+
+
     /**
      * Returns the select clause for a derived table. This value will be
      * null if this is not derived.
@@ -702,6 +751,15 @@ public class FromClause {
         case BASE_TABLE:
             logger.debug("Preparing BASE_TABLE from-clause.");
 
+            if (FunctionDirectory.getInstance().isSystemTable(tableName) &&
+                !tableManager.tableExists(tableName)) {
+                // A system table can be named like a table, without calling
+                // it, as in "SELECT * FROM sys_sessions".
+                clauseType = ClauseType.TABLE_FUNCTION;
+                args = new ArrayList<Expression>();
+                return prepare(tableManager);
+            }
+
             TableInfo tableInfo = tableManager.openTable(tableName);
             result = tableInfo.getSchema();
 
@@ -713,6 +771,29 @@ public class FromClause {
 
             break;
 
+        case TABLE_FUNCTION:
+            logger.debug("Preparing TABLE_FUNCTION from-clause.");
+
+            Function function =
+                FunctionDirectory.getInstance().getFunction(tableName);
+            if (!(function instanceof TableFunction)) {
+                throw new IllegalArgumentException("Function " + tableName +
+                    " doesn't return a table");
+            }
+
+            preparedFunction = (TableFunction) function;
+            preparedFunction.setArguments(args);
+            preparedFunction.prepare();
+            result = preparedFunction.getSchema();
+
+            if (aliasName != null) {
+                // Make a copy of the result schema and change the table names.
+                result = new Schema(result);
+                result.setTableName(aliasName);
+            }
+
+            break;
+
         case SELECT_SUBQUERY:
             logger.debug("Preparing SELECT_SUBQUERY from-clause.");
 
@@ -957,6 +1038,11 @@ public class FromClause {
             buf.append(", table=").append(tableName);
             break;
 
+        case TABLE_FUNCTION:
+            buf.append(", function=").append(tableName);
+            buf.append(", args=").append(args);
+            break;
+
         case JOIN_EXPR:
             buf.append(", joinType=").append(joinType);
             buf.append(", condType=").append(condType);
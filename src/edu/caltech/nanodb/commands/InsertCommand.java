@@ -19,6 +19,8 @@ import edu.caltech.nanodb.server.EventDispatcher;
 import edu.caltech.nanodb.storage.TableManager;
 import edu.caltech.nanodb.storage.TupleFile;
 import edu.caltech.nanodb.storage.StorageManager;
+import edu.caltech.nanodb.transactions.TransactionException;
+import edu.caltech.nanodb.transactions.TransactionManager;
 
 
 /**
@@ -169,8 +171,44 @@ public class InsertCommand extends QueryCommand {
                 out.println("Nothing to explain about INSERT ... VALUES");
         }
         else {
-            // Inserting the results of a SELECT query.
-            super.execute(storageManager);
+            // Inserting the results of a SELECT query.  This is done as a
+            // bulk load, so that each modified page is only logged once.
+            TransactionManager txnManager =
+                storageManager.getTransactionManager();
+            if (txnManager != null && !explain)
+                beginBulkLoad(storageManager, txnManager);
+
+            try {
+                super.execute(storageManager);
+            }
+            finally {
+                if (txnManager != null)
+                    txnManager.endBulkLoad();
+            }
+        }
+    }
+
+
+    /**
+     * Starts a bulk load of the query's results into the table, which
+     * defers logging of the inserted rows if the table is empty.
+     */
+    private void beginBulkLoad(StorageManager storageManager,
+                               TransactionManager txnManager)
+        throws ExecutionException {
+
+        try {
+            TableInfo info =
+                storageManager.getTableManager().openTable(tableName);
+            txnManager.beginBulkLoad(info);
+        }
+        catch (IOException ioe) {
+            throw new ExecutionException("Could not open table \"" +
+                tableName + "\".", ioe);
+        }
+        catch (TransactionException e) {
+            throw new ExecutionException("Couldn't lock table \"" +
+                tableName + "\" for bulk load.", e);
         }
     }
 
@@ -228,6 +266,10 @@ public class InsertCommand extends QueryCommand {
     protected void prepareQueryPlan(StorageManager storageManager)
         throws IOException, SchemaNameException {
 
+        // INSERT ... VALUES doesn't need a plan.
+        if (selClause == null)
+            return;
+
         // Open the table and save the TableInfo so that the
         // getTupleProcessor() method can use it.
         TableManager tableManager = storageManager.getTableManager();
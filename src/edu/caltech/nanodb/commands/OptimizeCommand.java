@@ -1,15 +1,22 @@
 package edu.caltech.nanodb.commands;
 
 
+import java.io.IOException;
+
+import java.util.ArrayList;
 import java.util.LinkedHashSet;
 
+import edu.caltech.nanodb.relations.TableInfo;
 import edu.caltech.nanodb.storage.StorageManager;
+import edu.caltech.nanodb.storage.TableManager;
 
 
 /**
  * This Command class represents the <tt>OPTIMIZE</tt> SQL command, which
  * optimizes a table's representation (along with any indexes) to improve access
  * performance and space utilization.  This is not a standard SQL command.
+ * For tables that store multiple versions of their tuples, optimizing a
+ * table removes the versions that no running transaction can see.
  */
 public class OptimizeCommand extends Command {
 
@@ -59,7 +66,40 @@ public class OptimizeCommand extends Command {
     @Override
     public void execute(StorageManager storageManager)
         throws ExecutionException {
-        throw new ExecutionException("Not yet implemented!");
+
+        // Make sure that all the tables are valid.
+
+        TableManager tableManager = storageManager.getTableManager();
+
+        ArrayList<TableInfo> tableInfos = new ArrayList<TableInfo>();
+
+        for (String table : tableNames) {
+            try {
+                TableInfo tableInfo = tableManager.openTable(table);
+                tableInfos.add(tableInfo);
+            }
+            catch (IOException ioe) {
+                throw new ExecutionException("Could not open table " + table, ioe);
+            }
+        }
+
+        // Now, optimize each table.
+
+        for (TableInfo tableInfo : tableInfos) {
+            try {
+                out.println("Optimizing table " + tableInfo.getTableName());
+                tableInfo.getTupleFile().optimize();
+            }
+            catch (UnsupportedOperationException e) {
+                throw new ExecutionException("Table " +
+                    tableInfo.getTableName() + " doesn't support optimization", e);
+            }
+            catch (IOException ioe) {
+                throw new ExecutionException("Could not optimize table " +
+                    tableInfo.getTableName(), ioe);
+            }
+        }
+        out.println("Optimization complete.");
     }
 
 
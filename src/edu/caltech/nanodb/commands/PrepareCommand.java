@@ -0,0 +1,75 @@
+package edu.caltech.nanodb.commands;
+
+
+import java.util.List;
+
+import edu.caltech.nanodb.client.SessionState;
+import edu.caltech.nanodb.expressions.ParameterValue;
+import edu.caltech.nanodb.storage.StorageManager;
+
+
+/**
+ * This command prepares a query command with parameters, written as
+ * <tt>?</tt>, so that it can be executed many times with the
+ * {@link ExecuteCommand <tt>EXECUTE</tt>} command.  The statement is kept by
+ * the session that prepared it, until it is removed with the
+ * {@link DeallocateCommand <tt>DEALLOCATE</tt>} command.  The command is
+ * planned the first time it is executed, since the types of the parameters
+ * aren't known until then.
+ */
+public class PrepareCommand extends Command {
+
+    /** The name of the prepared statement. */
+    private String name;
+
+
+    /** The command that is prepared. */
+    private QueryCommand command;
+
+
+    /** The parameters of the command, in the order they appear in it. */
+    private List<ParameterValue> parameters;
+
+
+    /** The text of the command, so that it can be parsed again. */
+    private String text;
+
+
+    public PrepareCommand(String name, QueryCommand command,
+                          List<ParameterValue> parameters, String text) {
+        super(Command.Type.UTILITY);
+
+        if (name == null)
+            throw new IllegalArgumentException("name cannot be null");
+
+        if (command == null)
+            throw new IllegalArgumentException("command cannot be null");
+
+        this.name = name;
+        this.command = command;
+        this.parameters = parameters;
+        this.text = text;
+    }
+
+
+    @Override
+    public void execute(StorageManager storageManager)
+        throws ExecutionException {
+
+        PreparedStatement stmt = new PreparedStatement(command, parameters,
+            text);
+        if (!SessionState.get().addPreparedStatement(name, stmt)) {
+            throw new ExecutionException("A prepared statement named " +
+                name + " already exists");
+        }
+
+        out.printf("Prepared statement %s with %d parameters.%n", name,
+            stmt.getNumParameters());
+    }
+
+
+    @Override
+    public String toString() {
+        return "Prepare[" + name + ", " + command + "]";
+    }
+}
@@ -0,0 +1,348 @@
+package edu.caltech.nanodb.commands;
+
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import edu.caltech.nanodb.client.SessionState;
+import edu.caltech.nanodb.expressions.ParameterValue;
+import edu.caltech.nanodb.plans.FileScanNode;
+import edu.caltech.nanodb.plans.IndexScanNode;
+import edu.caltech.nanodb.plans.PlanNode;
+import edu.caltech.nanodb.qeval.TableStats;
+import edu.caltech.nanodb.relations.SQLDataType;
+import edu.caltech.nanodb.relations.TableInfo;
+import edu.caltech.nanodb.sqlparse.NanoSqlLexer;
+import edu.caltech.nanodb.sqlparse.NanoSqlParser;
+import edu.caltech.nanodb.storage.StorageManager;
+import edu.caltech.nanodb.storage.TupleFile;
+
+
+/**
+ * This class holds a command that has been parsed once so that it can be
+ * executed many times, along with its parameters.  The plan of a query
+ * command is kept between executions, so executing the statement again only
+ * binds the values of the parameters, and doesn't parse or plan the command
+ * again.  The plan is made again when it may no longer be valid or good:
+ * <ul>
+ *   <li>when the schema has changed since the plan was made, as recorded by
+ *       the {@link #getSchemaVersion schema version}, since the plan may
+ *       refer to tables or indexes that have been dropped;</li>
+ *   <li>when a table that the plan reads has been analyzed again, or has
+ *       grown or shrunk by more than half of the tuples it had when the plan
+ *       was made, since the plan was chosen from the old stats of the
+ *       table;</li>
+ *   <li>when the values bound to the parameters have other types than the
+ *       values the plan was made with.</li>
+ * </ul>
+ * <p>
+ * Planning a command changes it, for example by replacing its aggregate
+ * function calls with references to the results of the aggregates, so the
+ * statement keeps the text of the command, and parses it again before it is
+ * planned again.
+ * <p>
+ * A prepared statement is not thread-safe, and may only be executed by one
+ * session at a time.
+ */
+public class PreparedStatement {
+    /** A logging object for reporting anything interesting that happens. */
+    private static Logger logger = Logger.getLogger(PreparedStatement.class);
+
+
+    /**
+     * The version of the database schema, which is incremented every time a
+     * DDL command changes the schema.
+     */
+    private static AtomicLong schemaVersion = new AtomicLong();
+
+
+    /**
+     * Returns the current version of the database schema.
+     *
+     * @return the current version of the database schema
+     */
+    public static long getSchemaVersion() {
+        return schemaVersion.get();
+    }
+
+
+    /**
+     * Records that the schema of the database has changed, so that the plans
+     * of all prepared statements are made again.
+     */
+    public static void schemaChanged() {
+        schemaVersion.incrementAndGet();
+    }
+
+
+    /**
+     * The stats of a table that a plan reads, as they were when the plan
+     * was made.
+     */
+    private static class TableSnapshot {
+        /** The table that the plan reads. */
+        TableInfo tableInfo;
+
+        /** The table's tuple file when the plan was made. */
+        TupleFile tupleFile;
+
+        /** The table's stats when the plan was made. */
+        TableStats stats;
+
+        /** The number of tuples in the table when the plan was made. */
+        int numTuples;
+
+        TableSnapshot(TableInfo tableInfo) {
+            this.tableInfo = tableInfo;
+            tupleFile = tableInfo.getTupleFile();
+            stats = tupleFile.getStats();
+            numTuples = stats.numTuples;
+        }
+    }
+
+
+    /** The command that is executed. */
+    private Command command;
+
+
+    /** The parameters of the command, in the order they appear in it. */
+    private List<ParameterValue> parameters;
+
+
+    /** The text of the command, which is parsed again to plan it again. */
+    private String text;
+
+
+    /** True if the command has been planned. */
+    private boolean planned;
+
+
+    /** The schema version when the command was last planned. */
+    private long planSchemaVersion;
+
+
+    /** The types of the parameters when the command was last planned. */
+    private SQLDataType[] planParamTypes;
+
+
+    /** The stats of the tables the plan reads, when it was made. */
+    private ArrayList<TableSnapshot> planTables;
+
+
+    public PreparedStatement(Command command, List<ParameterValue> parameters,
+                             String text) {
+        if (command == null)
+            throw new IllegalArgumentException("command cannot be null");
+
+        if (parameters == null)
+            throw new IllegalArgumentException("parameters cannot be null");
+
+        if (text == null)
+            throw new IllegalArgumentException("text cannot be null");
+
+        this.command = command;
+        this.parameters = parameters;
+        this.text = text;
+
+        if (command instanceof QueryCommand)
+            ((QueryCommand) command).setReusePlan(true);
+    }
+
+
+    public Command getCommand() {
+        return command;
+    }
+
+
+    public int getNumParameters() {
+        return parameters.size();
+    }
+
+
+    /**
+     * Binds values to the parameters of the statement, in order.
+     *
+     * @param values the values of the parameters
+     *
+     * @throws ExecutionException if the number of values doesn't match the
+     *         number of parameters
+     */
+    public void bind(List<?> values) throws ExecutionException {
+        int numValues = (values != null) ? values.size() : 0;
+        if (numValues != parameters.size()) {
+            throw new ExecutionException(String.format("The statement has " +
+                "%d parameters, but %d values were given", parameters.size(),
+                numValues));
+        }
+
+        for (int i = 0; i < numValues; i++)
+            parameters.get(i).bind(values.get(i));
+    }
+
+
+    /**
+     * Executes the statement with the values that are bound to its
+     * parameters.  The command's output is sent to the current session.  If
+     * the command is a query, it is planned if it hasn't been planned yet, or
+     * if its plan is out of date.
+     *
+     * @param storageManager the storage manager to execute the command
+     *        against
+     *
+     * @throws ExecutionException if the command couldn't be planned or
+     *         executed
+     */
+    public void execute(StorageManager storageManager)
+        throws ExecutionException {
+
+        if (command instanceof QueryCommand &&
+            (!planned || !isPlanCurrent(storageManager))) {
+            if (planned)
+                parseAgain();
+
+            // If planning fails, the command is planned again next time.
+            planned = true;
+            planTables = null;
+
+            QueryCommand queryCmd = (QueryCommand) command;
+            queryCmd.preparePlan(storageManager);
+            recordPlan(queryCmd.getPlan());
+        }
+
+        command.setOutputStream(SessionState.get().getOutputStream());
+        command.execute(storageManager);
+    }
+
+
+    /**
+     * Parses the text of the command again, so that it can be planned again.
+     * The new command is given the values that are bound to the parameters,
+     * and the tuple processor of a <tt>SELECT</tt> command.
+     */
+    private void parseAgain() throws ExecutionException {
+        NanoSqlParser parser =
+            new NanoSqlParser(new NanoSqlLexer(new StringReader(text)));
+
+        Command newCommand;
+        try {
+            newCommand = parser.command();
+        }
+        catch (Exception e) {
+            throw new ExecutionException(
+                "Couldn't parse the prepared statement again", e);
+        }
+
+        List<ParameterValue> newParameters = parser.getParameters();
+        if (newCommand.getClass() != command.getClass() ||
+            newParameters.size() != parameters.size()) {
+            throw new ExecutionException("Parsing the prepared statement " +
+                "again produced another command:  " + text);
+        }
+
+        for (int i = 0; i < parameters.size(); i++) {
+            ParameterValue param = parameters.get(i);
+            if (param.isBound())
+                newParameters.get(i).bind(param.getValue());
+        }
+
+        if (command instanceof SelectCommand) {
+            ((SelectCommand) newCommand).setTupleProcessor(
+                ((SelectCommand) command).getTupleProcessor());
+        }
+
+        ((QueryCommand) newCommand).setReusePlan(true);
+        command = newCommand;
+        parameters = newParameters;
+    }
+
+
+    /**
+     * Returns true if the statement's plan can still be used, or false if
+     * the statement should be planned again.
+     */
+    private boolean isPlanCurrent(StorageManager storageManager) {
+        if (planTables == null || planSchemaVersion != getSchemaVersion())
+            return false;
+
+        for (int i = 0; i < parameters.size(); i++) {
+            if (parameters.get(i).getBoundType() != planParamTypes[i])
+                return false;
+        }
+
+        for (TableSnapshot snapshot : planTables) {
+            TableInfo tableInfo;
+            try {
+                tableInfo = storageManager.getTableManager().openTable(
+                    snapshot.tableInfo.getTableName());
+            }
+            catch (IOException e) {
+                logger.debug("Couldn't open table " +
+                    snapshot.tableInfo.getTableName() + " of a cached plan", e);
+                return false;
+            }
+
+            TupleFile tupleFile = tableInfo.getTupleFile();
+            if (tupleFile != snapshot.tupleFile ||
+                tupleFile.getStats() != snapshot.stats) {
+                // The table was reopened or analyzed.
+                return false;
+            }
+
+            int change = Math.abs(snapshot.stats.numTuples - snapshot.numTuples);
+            if (change > snapshot.numTuples / 2) {
+                logger.debug(String.format("Table %s has changed from %d to " +
+                    "%d tuples since it was planned", tableInfo.getTableName(),
+                    snapshot.numTuples, snapshot.stats.numTuples));
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    /** Records what the new plan of the statement depends on. */
+    private void recordPlan(PlanNode plan) {
+        planSchemaVersion = getSchemaVersion();
+
+        planParamTypes = new SQLDataType[parameters.size()];
+        for (int i = 0; i < parameters.size(); i++)
+            planParamTypes[i] = parameters.get(i).getBoundType();
+
+        planTables = new ArrayList<TableSnapshot>();
+        if (plan != null)
+            findTables(plan, planTables);
+    }
+
+
+    /** Finds the tables that a plan scans. */
+    private static void findTables(PlanNode plan,
+                                   ArrayList<TableSnapshot> tables) {
+        TableInfo tableInfo = null;
+        if (plan instanceof FileScanNode)
+            tableInfo = ((FileScanNode) plan).getTableInfo();
+        else if (plan instanceof IndexScanNode)
+            tableInfo = ((IndexScanNode) plan).getTableInfo();
+
+        if (tableInfo != null)
+            tables.add(new TableSnapshot(tableInfo));
+
+        if (plan.getLeftChild() != null)
+            findTables(plan.getLeftChild(), tables);
+
+        if (plan.getRightChild() != null)
+            findTables(plan.getRightChild(), tables);
+    }
+
+
+    @Override
+    public String toString() {
+        return "PreparedStatement[" + command + ", " + parameters.size() +
+            " parameters]";
+    }
+}
@@ -6,11 +6,14 @@ import java.io.IOException;
 import edu.caltech.nanodb.qeval.PlanCost;
 import org.apache.log4j.Logger;
 
+import edu.caltech.nanodb.plans.PlanMetrics;
 import edu.caltech.nanodb.plans.PlanNode;
 import edu.caltech.nanodb.qeval.EvalStats;
 import edu.caltech.nanodb.qeval.QueryEvaluator;
 import edu.caltech.nanodb.qeval.TupleProcessor;
+import edu.caltech.nanodb.relations.Schema;
 import edu.caltech.nanodb.relations.SchemaNameException;
+import edu.caltech.nanodb.relations.Tuple;
 import edu.caltech.nanodb.storage.StorageManager;
 
 
@@ -55,6 +58,14 @@ public abstract class QueryCommand extends Command {
     protected PlanNode plan;
 
 
+    /**
+     * If this flag is true then the plan of the command is kept after the
+     * command is executed, and used again the next time the command is
+     * executed.  Otherwise the command is planned each time it is executed.
+     */
+    private boolean reusePlan = false;
+
+
     /**
      * If this flag is true then the command is to be explained only.  Otherwise
      * the command is to be executed normally.
@@ -62,6 +73,14 @@ public abstract class QueryCommand extends Command {
     protected boolean explain = false;
 
 
+    /**
+     * If this flag is true and the command is to be explained, then the
+     * command is also evaluated, and the actual metrics of its plan are
+     * reported along with the estimates.
+     */
+    protected boolean analyze = false;
+
+
     /**
      * Initializes a new query-command object.
      *
@@ -78,6 +97,51 @@ public abstract class QueryCommand extends Command {
     }
 
 
+    public void setAnalyze(boolean f) {
+        analyze = f;
+    }
+
+
+    public void setReusePlan(boolean reusePlan) {
+        this.reusePlan = reusePlan;
+    }
+
+
+    /**
+     * Returns the plan of the command, if it has been prepared.
+     *
+     * @return the plan of the command, or {@code null} if the command hasn't
+     *         been planned, or doesn't need a plan
+     */
+    public PlanNode getPlan() {
+        return plan;
+    }
+
+
+    /**
+     * Prepares the plan of the command without executing it.  If the command
+     * reuses its plan, this discards the plan it has, and the next execution
+     * uses the new plan.
+     *
+     * @param storageManager the storage manager to plan the command against
+     *
+     * @throws ExecutionException if the command couldn't be planned
+     */
+    public void preparePlan(StorageManager storageManager)
+        throws ExecutionException {
+
+        if (storageManager == null)
+            throw new IllegalArgumentException("storageManager cannot be null");
+
+        try {
+            prepareQueryPlan(storageManager);
+        }
+        catch (Exception e) {
+            throw new ExecutionException(e);
+        }
+    }
+
+
     @Override
     public void execute(StorageManager storageManager)
         throws ExecutionException {
@@ -86,7 +150,8 @@ public abstract class QueryCommand extends Command {
             throw new IllegalArgumentException("storageManager cannot be null");
 
         try {
-            prepareQueryPlan(storageManager);
+            if (plan == null || !reusePlan)
+                prepareQueryPlan(storageManager);
 
             if (!explain) {
                 // Debug:  print out the plan and its costing details.
@@ -105,9 +170,24 @@ public abstract class QueryCommand extends Command {
                 }
 
                 // Execute the query plan, then print out the evaluation stats.
-
-                TupleProcessor processor = getTupleProcessor();
-                EvalStats stats = QueryEvaluator.executePlan(plan, processor);
+                // The metrics of a sample of the queries are recorded and
+                // logged with their plans.
+                boolean sampled = PlanMetrics.sampleNextQuery();
+                EvalStats stats;
+                if (sampled)
+                    plan.setMetricsEnabled(true);
+                try {
+                    stats = evaluatePlan(getTupleProcessor());
+
+                    if (sampled) {
+                        logger.info("Metrics of sampled query plan:\n" +
+                            PlanNode.printNodeTreeToString(plan, true));
+                    }
+                }
+                finally {
+                    if (sampled)
+                        plan.setMetricsEnabled(false);
+                }
 
                 // Print out the evaluation statistics.
 
@@ -138,8 +218,25 @@ public abstract class QueryCommand extends Command {
                 out.println(desc + stats.getRowsProduced() + " rows.");
             }
             else {
-                out.println("Explain Plan:");
-                plan.printNodeTree(out, true, "    ");
+                EvalStats stats = null;
+                if (analyze)
+                    plan.setMetricsEnabled(true);
+                try {
+                    if (analyze) {
+                        // Evaluate the plan to find out what it actually
+                        // does.  The results of a SELECT are thrown away;
+                        // the other commands modify their tables as usual.
+                        stats = evaluatePlan((queryType == Type.SELECT) ?
+                            new ResultDiscarder() : getTupleProcessor());
+                    }
+
+                    out.println("Explain Plan:");
+                    plan.printNodeTree(out, true, "    ");
+                }
+                finally {
+                    if (analyze)
+                        plan.setMetricsEnabled(false);
+                }
 
                 out.println();
 
@@ -154,6 +251,11 @@ public abstract class QueryCommand extends Command {
                 else {
                     out.println("Plan cost is not available.");
                 }
+
+                if (stats != null) {
+                    out.printf("Actual %d tuples in %f sec%n",
+                        stats.getRowsProduced(), stats.getElapsedTimeSecs());
+                }
             }
         }
         catch (ExecutionException e) {
@@ -165,6 +267,46 @@ public abstract class QueryCommand extends Command {
     }
 
 
+    /**
+     * Evaluates the command's plan, feeding its results to the specified
+     * tuple processor.
+     *
+     * @param processor the tuple-processor to receive the results
+     *
+     * @return statistics about the plan evaluation
+     *
+     * @throws Exception if an error occurs during query evaluation or during
+     *         tuple-processing.
+     */
+    private EvalStats evaluatePlan(TupleProcessor processor) throws Exception {
+        // UPDATE and DELETE modify the tuples produced by the plan, so they
+        // can't be given copies of tuples from batches.
+        boolean allowBatches = (queryType == Type.SELECT ||
+                                queryType == Type.INSERT);
+
+        return QueryEvaluator.executePlan(plan, processor, allowBatches);
+    }
+
+
+    /**
+     * This tuple processor throws away the results of a <tt>SELECT</tt> that
+     * is evaluated by <tt>EXPLAIN ANALYZE</tt>.
+     */
+    private static class ResultDiscarder implements TupleProcessor {
+        public void setSchema(Schema schema) {
+            // Ignore.
+        }
+
+        public void process(Tuple tuple) {
+            // Ignore.
+        }
+
+        public void finish() {
+            // Ignore.
+        }
+    }
+
+
     protected abstract void prepareQueryPlan(StorageManager storageManager)
         throws IOException, SchemaNameException;
 
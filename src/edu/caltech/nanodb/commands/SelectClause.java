@@ -111,6 +111,15 @@ public class SelectClause {
     private Schema schema = null;
 
 
+    /**
+     * When preparing SQL commands for execution, this collection is filled
+     * in with the columns of enclosing queries that this clause refers to,
+     * directly or in its own subqueries.  If it is empty, the clause can be
+     * evaluated once, independently of the enclosing queries' rows.
+     */
+    private List<ColumnName> correlatedColumns = new ArrayList<ColumnName>();
+
+
     public void addWithClause(String name, SelectClause selClause) {
         withClauses.put(name, selClause);
     }
@@ -275,6 +284,36 @@ public class SelectClause {
      */
     public Schema computeSchema(TableManager tableManager)
         throws IOException, SchemaNameException {
+        return computeSchema(tableManager, new ArrayList<Schema>());
+    }
+
+
+    /**
+     * This method computes the resulting schema from this query when it is
+     * a subquery of other queries, and in the process it performs various
+     * semantic checks as well.  Column names that aren't found in this
+     * clause's <tt>FROM</tt> clause are resolved against the schemas of the
+     * enclosing queries, and are recorded as correlated columns.  The
+     * schemas of this clause's own subqueries are computed as well.
+     *
+     * @param tableManager the table manager to read table schemas from
+     *
+     * @param outerSchemas the schemas that the enclosing queries' expressions
+     *        are evaluated against, from the innermost query outwards
+     *
+     * @return the schema of this select clause's result
+     *
+     * @throws IOException if the database cannot read schema from the disk
+     *         along the way
+     *
+     * @throws SchemaNameException if the select clause contains some kind of
+     *         semantic error involving schemas that are referenced
+     */
+    public Schema computeSchema(TableManager tableManager,
+                                List<Schema> outerSchemas)
+        throws IOException, SchemaNameException {
+
+        correlatedColumns.clear();
 
         // This object holds the schema that expressions in the select-clause
         // will be evaluated against.
@@ -288,6 +327,25 @@ public class SelectClause {
             selectSchema.append(fromSchema);
         }
 
+        // Compute the schemas of subqueries in the expressions, since the
+        // type of a scalar subquery is needed for the results schema.  The
+        // subqueries' references to columns of queries enclosing this one
+        // are reported as symbols of the expressions holding them, so they
+        // make this clause correlated as well when they are resolved below.
+        ArrayList<Schema> subquerySchemas = new ArrayList<Schema>();
+        subquerySchemas.add(selectSchema);
+        subquerySchemas.addAll(outerSchemas);
+
+        for (SubqueryOperator op : findSubqueries()) {
+            SelectClause subquery = op.getSubquery();
+            Schema schema = subquery.computeSchema(tableManager, subquerySchemas);
+
+            if (!(op instanceof ExistsOperator) && schema.numColumns() != 1) {
+                throw new SchemaNameException("Subquery " + subquery +
+                    " must produce exactly one column.");
+            }
+        }
+
         // Make sure that all expressions in this SELECT clause reference
         // known and non-ambiguous names from the FROM clause.
 
@@ -309,7 +367,8 @@ public class SelectClause {
                 // Not a wildcard.  Get the list of column-values, and resolve
                 // each one.
                 Expression expr = selVal.getExpression();
-                resolveExpressionRefs("SELECT-value", expr, selectSchema);
+                resolveExpressionRefs("SELECT-value", expr, selectSchema,
+                    outerSchemas);
             }
 
             // Update the result-schema with this select-value's column-info(s).
@@ -323,19 +382,26 @@ public class SelectClause {
 
         // WHERE clause:
         if (whereExpr != null)
-            resolveExpressionRefs("WHERE clause", whereExpr, selectSchema);
+            resolveExpressionRefs("WHERE clause", whereExpr, selectSchema,
+                outerSchemas);
 
         // GROUP BY clauses:
-        for (Expression expr : groupByExprs)
-            resolveExpressionRefs("GROUP BY clause", expr, selectSchema);
+        for (Expression expr : groupByExprs) {
+            resolveExpressionRefs("GROUP BY clause", expr, selectSchema,
+                outerSchemas);
+        }
 
         // HAVING clause:
-        if (havingExpr != null)
-            resolveExpressionRefs("HAVING clause", havingExpr, selectSchema);
+        if (havingExpr != null) {
+            resolveExpressionRefs("HAVING clause", havingExpr, selectSchema,
+                outerSchemas);
+        }
 
         // ORDER BY clauses:
-        for (OrderByExpression expr : orderByExprs)
-            resolveExpressionRefs("ORDER BY clause", expr.getExpression(), selectSchema);
+        for (OrderByExpression expr : orderByExprs) {
+            resolveExpressionRefs("ORDER BY clause", expr.getExpression(),
+                selectSchema, outerSchemas);
+        }
 
         // All done!  Store and return the results.
 
@@ -355,6 +421,69 @@ public class SelectClause {
     }
 
 
+    /**
+     * Returns true if this select clause refers to columns of an enclosing
+     * query, so that its results depend on the enclosing query's current
+     * row.  This is only known once {@link #computeSchema} has been called.
+     *
+     * @return true if this select clause is a correlated subquery
+     */
+    public boolean isCorrelated() {
+        return !correlatedColumns.isEmpty();
+    }
+
+
+    /**
+     * Returns the columns of enclosing queries that this select clause or
+     * its subqueries refer to.  This is only known once
+     * {@link #computeSchema} has been called.
+     *
+     * @return the columns of enclosing queries that this clause refers to
+     */
+    public List<ColumnName> getCorrelatedColumns() {
+        return correlatedColumns;
+    }
+
+
+    /**
+     * Returns the subquery operators in this clause's <tt>SELECT</tt>
+     * values, <tt>WHERE</tt> clause and <tt>HAVING</tt> clause.  Subqueries
+     * nested within those subqueries aren't included.
+     *
+     * @return the subquery operators in this clause's expressions
+     */
+    public List<SubqueryOperator> findSubqueries() {
+        final ArrayList<SubqueryOperator> subqueries =
+            new ArrayList<SubqueryOperator>();
+
+        ExpressionProcessor finder = new ExpressionProcessor() {
+            public void enter(Expression node) {
+                if (node instanceof SubqueryOperator &&
+                    ((SubqueryOperator) node).getSubquery() != null) {
+                    subqueries.add((SubqueryOperator) node);
+                }
+            }
+
+            public Expression leave(Expression node) {
+                return node;
+            }
+        };
+
+        for (SelectValue selVal : selectValues) {
+            if (selVal.isExpression())
+                selVal.getExpression().traverse(finder);
+        }
+
+        if (whereExpr != null)
+            whereExpr.traverse(finder);
+
+        if (havingExpr != null)
+            havingExpr.traverse(finder);
+
+        return subqueries;
+    }
+
+
     /**
      * This helper function goes through the expression and verifies that every
      * symbol-reference corresponds to an actual value produced by the
@@ -370,13 +499,17 @@ public class SelectClause {
      *
      * @param s The schema against which the expression will be evaluated.
      *
+     * @param outerSchemas The schemas of the enclosing queries, from the
+     *        innermost outwards, which names not found in <tt>s</tt> are
+     *        resolved against.
+     *
      * @throws SchemaNameException if an expression-reference cannot be resolved
      *         against the specified schema, either because the named column
      *         or table doesn't appear in the schema, or if a column name is
      *         ambiguous.
      */
-    private void resolveExpressionRefs(String desc, Expression expr, Schema s)
-        throws SchemaNameException {
+    private void resolveExpressionRefs(String desc, Expression expr, Schema s,
+        List<Schema> outerSchemas) throws SchemaNameException {
 
         // Get the list of column-values in the expression, and resolve each one.
 
@@ -388,6 +521,18 @@ public class SelectClause {
 
             SortedMap<Integer, ColumnInfo> found = s.findColumns(colName);
 
+            // A name that isn't in this clause's schema may refer to a
+            // column of an enclosing query.
+            for (int i = 0; found.isEmpty() && i < outerSchemas.size(); i++) {
+                found = outerSchemas.get(i).findColumns(colName);
+                if (found.size() == 1) {
+                    ColumnInfo colInfo = found.get(found.firstKey());
+                    colName.setTableName(colInfo.getTableName());
+                    if (!correlatedColumns.contains(colName))
+                        correlatedColumns.add(colName);
+                }
+            }
+
             if (!colName.isTableSpecified()) {
                 // Try to resolve the table name using the column name.
 
@@ -77,6 +77,7 @@ public class SelectCommand extends QueryCommand {
 
         // Create a plan for executing the SQL query.
         Planner planner = PlannerFactory.getPlanner(storageManager);
+        planner.setParallelExecution(true);
         plan = planner.makePlan(selClause, null);
     }
 
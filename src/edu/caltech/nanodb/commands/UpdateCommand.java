@@ -127,8 +127,18 @@ public class UpdateCommand extends QueryCommand {
             }
 
             eventDispatch.fireBeforeRowUpdated(tableInfo, tuple, newTuple);
-            tupleFile.updateTuple(tuple, newValues);
-            eventDispatch.fireAfterRowUpdated(tableInfo, oldTuple, tuple);
+            if (tableInfo.getSchema().isVersioned()) {
+                // Other transactions may still need to see the old version,
+                // so it is marked as deleted and a new version is added.
+                tupleFile.deleteTuple(tuple);
+                Tuple newVersion = tupleFile.addTuple(newTuple);
+                eventDispatch.fireAfterRowUpdated(tableInfo, oldTuple,
+                    newVersion);
+            }
+            else {
+                tupleFile.updateTuple(tuple, newValues);
+                eventDispatch.fireAfterRowUpdated(tableInfo, oldTuple, tuple);
+            }
         }
 
         public void finish() {
@@ -81,6 +81,36 @@ public class ArithmeticOperator extends Expression {
     }
 
 
+    /**
+     * Returns the type of this arithmetic operator.
+     *
+     * @return the type of arithmetic operation
+     */
+    public Type getType() {
+        return type;
+    }
+
+
+    /**
+     * Returns the left expression.
+     *
+     * @return the left expression
+     */
+    public Expression getLeftExpression() {
+        return leftExpr;
+    }
+
+
+    /**
+     * Returns the right expression.
+     *
+     * @return the right expression
+     */
+    public Expression getRightExpression() {
+        return rightExpr;
+    }
+
+
     @Override
     public ColumnInfo getColumnInfo(Schema schema) throws SchemaNameException {
         ColumnInfo ltColInfo = leftExpr.getColumnInfo(schema);
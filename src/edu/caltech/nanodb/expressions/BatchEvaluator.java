@@ -0,0 +1,486 @@
+package edu.caltech.nanodb.expressions;
+
+
+import java.util.Arrays;
+import java.util.SortedMap;
+
+import edu.caltech.nanodb.relations.ColumnInfo;
+import edu.caltech.nanodb.relations.Schema;
+
+
+/**
+ * <p>
+ * Evaluates an expression against all of the rows of a {@link TupleBatch}
+ * at once.  Column references are resolved to column indexes once, when the
+ * evaluator is created, rather than being looked up by name for every row
+ * as an {@link Environment} does.  Column references and literals are
+ * evaluated without copying any values, and comparisons and Boolean
+ * connectives loop over whole column vectors.
+ * </p>
+ * <p>
+ * Any other kind of expression is compiled into a {@link CompiledExpression}
+ * and evaluated one row at a time, through an environment that refers to
+ * each row of the batch in turn, so every expression can be evaluated over
+ * batches.
+ * </p>
+ * <p>
+ * Evaluators keep state between calls, so each plan node must create its
+ * own evaluators.
+ * </p>
+ */
+public abstract class BatchEvaluator {
+
+    /**
+     * Creates an evaluator for an expression over batches of rows with the
+     * specified schema.
+     *
+     * @param expr the expression to evaluate
+     * @param schema the schema of the rows the expression is evaluated on
+     *
+     * @return an evaluator for the expression
+     */
+    public static BatchEvaluator create(Expression expr, Schema schema) {
+        return create(expr, schema, null);
+    }
+
+
+    /**
+     * Creates an evaluator for an expression over batches of rows with the
+     * specified schema, where column references that aren't to columns of
+     * the rows are resolved against a parent environment.  This is how
+     * expressions in the plan of a correlated subquery refer to the columns
+     * of the enclosing query.
+     *
+     * @param expr the expression to evaluate
+     * @param schema the schema of the rows the expression is evaluated on
+     * @param parent the environment to resolve other column references
+     *        against, or {@code null} for none
+     *
+     * @return an evaluator for the expression
+     */
+    public static BatchEvaluator create(Expression expr, Schema schema,
+                                        Environment parent) {
+        if (expr instanceof ColumnValue) {
+            int colIndex =
+                findColumn(((ColumnValue) expr).getColumnName(), schema);
+            if (colIndex != -1)
+                return new ColumnEvaluator(colIndex);
+        }
+        else if (expr instanceof LiteralValue) {
+            return new LiteralEvaluator(expr.evaluate());
+        }
+        else if (expr instanceof CompareOperator) {
+            CompareOperator cmp = (CompareOperator) expr;
+            return new CompareEvaluator(cmp.getType(),
+                create(cmp.getLeftExpression(), schema, parent),
+                create(cmp.getRightExpression(), schema, parent));
+        }
+        else if (expr instanceof BooleanOperator) {
+            BooleanOperator bool = (BooleanOperator) expr;
+            if (bool.getNumTerms() > 0) {
+                BatchEvaluator[] terms = new BatchEvaluator[bool.getNumTerms()];
+                for (int i = 0; i < terms.length; i++)
+                    terms[i] = create(bool.getTerm(i), schema, parent);
+
+                return new BooleanEvaluator(bool.getType(), terms);
+            }
+        }
+
+        return new RowEvaluator(expr, schema, parent);
+    }
+
+
+    /**
+     * Returns the index of the column that a column name refers to, or -1
+     * if the name doesn't refer to exactly one column of the schema.  Such
+     * names are left to an environment to resolve or to report.
+     */
+    private static int findColumn(ColumnName colName, Schema schema) {
+        if (colName.isColumnWildcard())
+            return -1;
+
+        SortedMap<Integer, ColumnInfo> found = schema.findColumns(colName);
+        if (found.size() != 1)
+            return -1;
+
+        return found.firstKey();
+    }
+
+
+    /**
+     * Evaluates the expression for every row of the batch.  The result is
+     * indexed by row position, like the batch's column vectors, and only
+     * the entries for the rows in the batch are set.  The result may be one
+     * of the batch's column vectors, or an array that is reused by the next
+     * call, so it must not be modified or kept.
+     *
+     * @param batch the rows to evaluate the expression on
+     *
+     * @return the value of the expression for each row, indexed by row
+     *         position
+     */
+    public abstract Object[] evaluate(TupleBatch batch);
+
+
+    /**
+     * Removes the rows from the batch that the expression isn't true for,
+     * treating <tt>NULL</tt> as false in the same way as
+     * {@link Expression#evaluatePredicate}.
+     *
+     * @param batch the rows to filter
+     */
+    public void filter(TupleBatch batch) {
+        Object[] values = evaluate(batch);
+
+        int n = batch.size();
+        int[] selected = new int[n];
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            int row = batch.getRowIndex(i);
+            Object value = values[row];
+            if (value != null && TypeConverter.getBooleanValue(value))
+                selected[count++] = row;
+        }
+
+        batch.setSelection(selected, count);
+    }
+
+
+    /**
+     * Returns an array of at least the batch's length, reusing the specified
+     * array if it is long enough.
+     */
+    static Object[] ensureCapacity(Object[] values, TupleBatch batch) {
+        if (values == null || values.length < batch.getRowCount())
+            values = new Object[batch.getCapacity()];
+
+        return values;
+    }
+
+
+    /**
+     * Returns a copy of the batch's selection vector, so that it can be
+     * restored after a term of a Boolean expression narrows it.  If all of
+     * the stored rows are selected, their positions are listed explicitly.
+     */
+    static int[] copySelection(TupleBatch batch) {
+        int n = batch.size();
+        int[] selection = new int[n];
+        for (int i = 0; i < n; i++)
+            selection[i] = batch.getRowIndex(i);
+
+        return selection;
+    }
+
+
+    /** Evaluates a column reference, by returning the column's vector. */
+    private static class ColumnEvaluator extends BatchEvaluator {
+        private int colIndex;
+
+        ColumnEvaluator(int colIndex) {
+            this.colIndex = colIndex;
+        }
+
+        public Object[] evaluate(TupleBatch batch) {
+            return batch.getColumn(colIndex);
+        }
+    }
+
+
+    /** Evaluates a literal, by returning a vector filled with its value. */
+    private static class LiteralEvaluator extends BatchEvaluator {
+        private Object value;
+
+        private Object[] values;
+
+        LiteralEvaluator(Object value) {
+            this.value = value;
+        }
+
+        public Object[] evaluate(TupleBatch batch) {
+            if (values == null || values.length < batch.getRowCount()) {
+                values = new Object[batch.getCapacity()];
+                Arrays.fill(values, value);
+            }
+            return values;
+        }
+    }
+
+
+    /**
+     * Evaluates a comparison, with the same semantics as
+     * {@link CompareOperator#evaluate}:  the result is <tt>NULL</tt> if
+     * either value is <tt>NULL</tt>.
+     */
+    private static class CompareEvaluator extends BatchEvaluator {
+        private CompareOperator.Type type;
+
+        private BatchEvaluator left;
+
+        private BatchEvaluator right;
+
+        private Object[] results;
+
+        CompareEvaluator(CompareOperator.Type type, BatchEvaluator left,
+                         BatchEvaluator right) {
+            this.type = type;
+            this.left = left;
+            this.right = right;
+        }
+
+        public Object[] evaluate(TupleBatch batch) {
+            Object[] lhs = left.evaluate(batch);
+            Object[] rhs = right.evaluate(batch);
+
+            results = ensureCapacity(results, batch);
+            int n = batch.size();
+            for (int i = 0; i < n; i++) {
+                int row = batch.getRowIndex(i);
+                if (lhs[row] == null || rhs[row] == null)
+                    results[row] = null;
+                else
+                    results[row] = Boolean.valueOf(compare(lhs[row], rhs[row]));
+            }
+
+            return results;
+        }
+
+        @Override
+        public void filter(TupleBatch batch) {
+            Object[] lhs = left.evaluate(batch);
+            Object[] rhs = right.evaluate(batch);
+
+            int n = batch.size();
+            int[] selected = new int[n];
+            int count = 0;
+            for (int i = 0; i < n; i++) {
+                int row = batch.getRowIndex(i);
+                if (lhs[row] != null && rhs[row] != null &&
+                    compare(lhs[row], rhs[row])) {
+                    selected[count++] = row;
+                }
+            }
+
+            batch.setSelection(selected, count);
+        }
+
+        @SuppressWarnings("unchecked")
+        private boolean compare(Object lhsValue, Object rhsValue) {
+            TypeConverter.Pair coerced =
+                TypeConverter.coerceComparison(lhsValue, rhsValue);
+
+            int compResult =
+                ((Comparable) coerced.value1).compareTo(coerced.value2);
+
+            switch (type) {
+            case EQUALS:
+                return compResult == 0;
+
+            case NOT_EQUALS:
+                return compResult != 0;
+
+            case LESS_THAN:
+                return compResult < 0;
+
+            case GREATER_THAN:
+                return compResult > 0;
+
+            case LESS_OR_EQUAL:
+                return compResult <= 0;
+
+            case GREATER_OR_EQUAL:
+                return compResult >= 0;
+
+            default:
+                throw new ExpressionException(
+                    "Unrecognized comparison type " + type);
+            }
+        }
+    }
+
+
+    /**
+     * Evaluates a Boolean expression, with the same three-valued semantics
+     * as {@link BooleanOperator#evaluate}.  When filtering, terms are only
+     * evaluated for the rows whose result they can still change.
+     */
+    private static class BooleanEvaluator extends BatchEvaluator {
+        private BooleanOperator.Type type;
+
+        private BatchEvaluator[] terms;
+
+        private Object[] results;
+
+        BooleanEvaluator(BooleanOperator.Type type, BatchEvaluator[] terms) {
+            this.type = type;
+            this.terms = terms;
+        }
+
+        public Object[] evaluate(TupleBatch batch) {
+            if (type == BooleanOperator.Type.NOT_EXPR && terms.length != 1) {
+                throw new ExpressionException(
+                    "NOT-expressions may have only one term.");
+            }
+
+            results = ensureCapacity(results, batch);
+            int n = batch.size();
+
+            if (type == BooleanOperator.Type.NOT_EXPR) {
+                // NOT UNKNOWN is still UNKNOWN.
+                Object[] values = terms[0].evaluate(batch);
+                for (int i = 0; i < n; i++) {
+                    int row = batch.getRowIndex(i);
+                    Object value = values[row];
+                    if (value == null) {
+                        results[row] = null;
+                    }
+                    else {
+                        results[row] = Boolean.valueOf(
+                            !TypeConverter.getBooleanValue(value));
+                    }
+                }
+                return results;
+            }
+
+            // An AND is false if any term is false, and an OR is true if any
+            // term is true.  Otherwise the result is UNKNOWN if any term is.
+            boolean isAnd = (type == BooleanOperator.Type.AND_EXPR);
+            Boolean decided = Boolean.valueOf(!isAnd);
+            for (int i = 0; i < n; i++)
+                results[batch.getRowIndex(i)] = Boolean.valueOf(isAnd);
+
+            for (BatchEvaluator term : terms) {
+                Object[] values = term.evaluate(batch);
+                for (int i = 0; i < n; i++) {
+                    int row = batch.getRowIndex(i);
+                    if (decided.equals(results[row]))
+                        continue;
+
+                    Object value = values[row];
+                    if (value == null)
+                        results[row] = null;
+                    else if (TypeConverter.getBooleanValue(value) != isAnd)
+                        results[row] = decided;
+                }
+            }
+
+            return results;
+        }
+
+        @Override
+        public void filter(TupleBatch batch) {
+            if (type == BooleanOperator.Type.AND_EXPR) {
+                // Each term only needs to see the rows that passed the
+                // previous terms.
+                for (BatchEvaluator term : terms) {
+                    term.filter(batch);
+                    if (batch.isEmpty())
+                        break;
+                }
+                return;
+            }
+
+            if (type == BooleanOperator.Type.NOT_EXPR) {
+                // A NOT is only true for the rows its term is false for, not
+                // the rows its term is UNKNOWN for.
+                super.filter(batch);
+                return;
+            }
+
+            // For OR, remember which of the input rows each term is true
+            // for.  Each term only sees the rows that no previous term was
+            // true for.
+            int[] rows = copySelection(batch);
+            int capacity = Math.max(batch.getRowCount(), 1);
+            boolean[] passed = new boolean[capacity];
+
+            int[] remaining = rows;
+            int numRemaining = rows.length;
+            for (BatchEvaluator term : terms) {
+                batch.setSelection(remaining, numRemaining);
+                term.filter(batch);
+
+                int n = batch.size();
+                for (int i = 0; i < n; i++)
+                    passed[batch.getRowIndex(i)] = true;
+
+                int[] next = new int[numRemaining];
+                int count = 0;
+                for (int i = 0; i < numRemaining; i++) {
+                    if (!passed[remaining[i]])
+                        next[count++] = remaining[i];
+                }
+                remaining = next;
+                numRemaining = count;
+                if (numRemaining == 0)
+                    break;
+            }
+
+            int count = 0;
+            for (int row : rows) {
+                if (passed[row])
+                    rows[count++] = row;
+            }
+
+            batch.setSelection(rows, count);
+        }
+    }
+
+
+    /**
+     * Evaluates any other expression one row at a time, through an
+     * environment that refers to each row of the batch in turn.  The
+     * expression is compiled, so that its column references are only
+     * resolved once.
+     */
+    private static class RowEvaluator extends BatchEvaluator {
+        private CompiledExpression expr;
+
+        private Schema schema;
+
+        private Environment environment;
+
+        private TupleBatch.RowView rowView = new TupleBatch.RowView();
+
+        private Object[] results;
+
+        RowEvaluator(Expression expr, Schema schema, Environment parent) {
+            this.expr = CompiledExpression.compile(expr, schema);
+            this.schema = schema;
+            environment = new Environment(parent);
+        }
+
+        public Object[] evaluate(TupleBatch batch) {
+            environment.clear();
+            environment.addTuple(schema, rowView);
+
+            results = ensureCapacity(results, batch);
+            int n = batch.size();
+            for (int i = 0; i < n; i++) {
+                int row = batch.getRowIndex(i);
+                rowView.setRow(batch, row);
+                results[row] = expr.evaluate(environment);
+            }
+
+            return results;
+        }
+
+        @Override
+        public void filter(TupleBatch batch) {
+            environment.clear();
+            environment.addTuple(schema, rowView);
+
+            int n = batch.size();
+            int[] selected = new int[n];
+            int count = 0;
+            for (int i = 0; i < n; i++) {
+                int row = batch.getRowIndex(i);
+                rowView.setRow(batch, row);
+                if (expr.evaluatePredicate(environment))
+                    selected[count++] = row;
+            }
+
+            batch.setSelection(selected, count);
+        }
+    }
+}
@@ -128,7 +128,6 @@ public class BooleanOperator extends Expression {
         }
 
         Object objResult;
-        boolean boolResult;
 
         if (type == Type.NOT_EXPR) {
             if (terms.size() != 1) {
@@ -138,54 +137,44 @@ public class BooleanOperator extends Expression {
 
             // Evaluate the term...
             objResult = terms.get(0).evaluate(env);
+
+            // ...then negate it.  NOT UNKNOWN is still UNKNOWN.
             if (objResult == null)
-                boolResult = false;  // TODO:  this is UNKNOWN, not FALSE.
-            else
-                boolResult = TypeConverter.getBooleanValue(objResult);
+                return null;
 
-            // ...then negate it.
-            boolResult = !boolResult;
+            return Boolean.valueOf(!TypeConverter.getBooleanValue(objResult));
         }
-        else {
-            // AND/OR expression.
 
-            if (terms.size() < 1) {
-                throw new ExpressionException(type.stringRep() +
-                    "-expressions must have at least one term.");
-            }
+        // AND/OR expression.
 
-            if (type == Type.AND_EXPR) {
-                boolResult = true;
-            }
-            else {
-                assert type == Type.OR_EXPR : "Unexpected type value " + type + "!";
-                boolResult = false;
-            }
+        if (terms.size() < 1) {
+            throw new ExpressionException(type.stringRep() +
+                "-expressions must have at least one term.");
+        }
 
-            for (Expression term : terms) {
-                // Evaluate the i-th term, and combine it with the current answer.
-                objResult = term.evaluate(env);
+        boolean isAnd = (type == Type.AND_EXPR);
+        assert isAnd || type == Type.OR_EXPR : "Unexpected type value " + type + "!";
 
-                boolean termValue;
-                if (objResult == null)
-                    termValue = false;  // TODO:  this is UNKNOWN, not FALSE.
-                else
-                    termValue = TypeConverter.getBooleanValue(objResult);
+        boolean unknown = false;
+        for (Expression term : terms) {
+            // Evaluate the i-th term, and combine it with the current answer.
+            objResult = term.evaluate(env);
 
-                if (type == Type.AND_EXPR && !termValue) {
-                    // AND term is false, so we are done.  Answer is false.
-                    boolResult = false;
-                    break;
-                }
-                else if (type == Type.OR_EXPR && termValue) {
-                    // OR term is true, so we are done.  Answer is true.
-                    boolResult = true;
-                    break;
-                }
+            if (objResult == null) {
+                // The term is UNKNOWN.  A later term may still decide the
+                // answer, but otherwise the answer is UNKNOWN too.
+                unknown = true;
+            }
+            else if (TypeConverter.getBooleanValue(objResult) != isAnd) {
+                // AND term is false, or OR term is true, so we are done.
+                return Boolean.valueOf(!isAnd);
             }
         }
 
-        return Boolean.valueOf(boolResult);
+        if (unknown)
+            return null;
+
+        return Boolean.valueOf(isAnd);
     }
 
 
@@ -53,8 +53,10 @@ public class ColumnName implements Comparable<ColumnName>, Cloneable {
         if (obj instanceof ColumnName) {
             ColumnName other = (ColumnName) obj;
 
-            return tableName.equals(other.tableName) &&
-                   columnName.equals(other.columnName);
+            // Either name may be null, e.g. for wildcards or for column
+            // references that haven't been resolved to a table yet.
+            return ObjectUtils.equals(tableName, other.tableName) &&
+                   ObjectUtils.equals(columnName, other.columnName);
         }
 
         return false;
@@ -0,0 +1,814 @@
+package edu.caltech.nanodb.expressions;
+
+
+import java.util.SortedMap;
+
+import edu.caltech.nanodb.relations.ColumnInfo;
+import edu.caltech.nanodb.relations.ColumnType;
+import edu.caltech.nanodb.relations.Schema;
+
+
+/**
+ * <p>
+ * An expression that has been compiled for evaluation against tuples with
+ * known schemas.  When an {@link Expression} is evaluated, every column
+ * reference is looked up by name in the environment, and every comparison
+ * and arithmetic operation coerces its operands to a common type.  A plan
+ * node evaluates the same expressions against every tuple it processes, so
+ * it compiles them once, after planning, into a tree of objects that does
+ * as much of that work as possible ahead of time:
+ * </p>
+ * <ul>
+ *   <li>Column references are bound to the position of the tuple in the
+ *       environment and the index of the column in that tuple.</li>
+ *   <li>Comparisons and arithmetic on columns of known types are
+ *       specialized to compare or compute primitive values directly.</li>
+ *   <li>Predicates are evaluated to a <tt>boolean</tt> without creating
+ *       intermediate <tt>Boolean</tt> values.</li>
+ *   <li>Subexpressions that only involve literals are computed once.</li>
+ * </ul>
+ * <p>
+ * A compiled expression is evaluated against an environment holding tuples
+ * with the schemas it was compiled against, in the same order.  Specialized
+ * operations check the types of their operands, and fall back to the same
+ * coercions as the interpreted operations if the values aren't of the
+ * expected types, so a compiled expression always produces the same results
+ * as the expression it was compiled from.  Expressions that can't be
+ * compiled, such as function calls, subqueries and references to columns of
+ * an enclosing query, are evaluated through the original expression.
+ * </p>
+ * <p>
+ * Compiled expressions hold no state between evaluations, so they may be
+ * shared between threads.
+ * </p>
+ */
+public abstract class CompiledExpression {
+
+    /**
+     * The Java class of the expression's non-<tt>NULL</tt> values, if it is
+     * known when the expression is compiled, or {@code null} otherwise.
+     */
+    private Class<?> valueClass;
+
+
+    CompiledExpression(Class<?> valueClass) {
+        this.valueClass = valueClass;
+    }
+
+
+    /**
+     * Compiles an expression for evaluation against an environment holding
+     * tuples with the specified schemas, in the same order.
+     *
+     * @param expr the expression to compile
+     * @param schemas the schemas of the tuples in the environment that the
+     *        expression will be evaluated against
+     *
+     * @return the compiled expression
+     */
+    public static CompiledExpression compile(Expression expr,
+                                             Schema... schemas) {
+        if (expr == null)
+            throw new IllegalArgumentException("expr cannot be null");
+
+        return compileExpr(expr, schemas);
+    }
+
+
+    private static CompiledExpression compileExpr(Expression expr,
+                                                  Schema[] schemas) {
+        CompiledExpression compiled = null;
+
+        if (expr instanceof LiteralValue) {
+            compiled = new Constant(expr.evaluate());
+        }
+        else if (expr instanceof ColumnValue) {
+            compiled = compileColumn((ColumnValue) expr, schemas);
+        }
+        else if (expr instanceof CompareOperator) {
+            compiled = compileCompare((CompareOperator) expr, schemas);
+        }
+        else if (expr instanceof ArithmeticOperator) {
+            compiled = compileArithmetic((ArithmeticOperator) expr, schemas);
+        }
+        else if (expr instanceof BooleanOperator) {
+            compiled = compileBoolean((BooleanOperator) expr, schemas);
+        }
+        else if (expr instanceof IsNullOperator) {
+            IsNullOperator isNull = (IsNullOperator) expr;
+            compiled = new IsNull(compileExpr(isNull.getExpression(), schemas),
+                isNull.isInverted());
+        }
+
+        if (compiled == null)
+            return new Interpreted(expr);
+
+        return compiled;
+    }
+
+
+    /**
+     * Binds a column reference to the tuple and the column it refers to.
+     * References that don't name exactly one column of the schemas are left
+     * to the environment to resolve or to report, since they may refer to a
+     * column of an enclosing query.
+     */
+    private static CompiledExpression compileColumn(ColumnValue colValue,
+                                                    Schema[] schemas) {
+        ColumnName colName = colValue.getColumnName();
+        if (colName.isColumnWildcard())
+            return null;
+
+        int tupleIndex = -1;
+        int colIndex = -1;
+        ColumnInfo colInfo = null;
+        for (int i = 0; i < schemas.length; i++) {
+            SortedMap<Integer, ColumnInfo> found =
+                schemas[i].findColumns(colName);
+            if (found.isEmpty())
+                continue;
+
+            if (tupleIndex != -1 || found.size() > 1)
+                return null;
+
+            tupleIndex = i;
+            colIndex = found.firstKey();
+            colInfo = found.get(colIndex);
+        }
+
+        if (tupleIndex == -1)
+            return null;
+
+        return new Column(tupleIndex, colIndex,
+            getValueClass(colInfo.getType()));
+    }
+
+
+    private static CompiledExpression compileCompare(CompareOperator cmp,
+                                                     Schema[] schemas) {
+        CompareOperator.Type type = cmp.getType();
+        CompiledExpression left = compileExpr(cmp.getLeftExpression(), schemas);
+        CompiledExpression right = compileExpr(cmp.getRightExpression(), schemas);
+
+        Class<?> leftClass = left.valueClass;
+        Class<?> rightClass = right.valueClass;
+
+        Compare compare;
+        if (leftClass == Integer.class && rightClass == Integer.class)
+            compare = new IntCompare(type, left, right);
+        else if (isIntegralClass(leftClass) && isIntegralClass(rightClass))
+            compare = new LongCompare(type, left, right);
+        else if ((leftClass == Double.class || rightClass == Double.class) &&
+                 isNumericClass(leftClass) && isNumericClass(rightClass))
+            compare = new DoubleCompare(type, left, right);
+        else if (leftClass == String.class && rightClass == String.class)
+            compare = new StringCompare(type, left, right);
+        else
+            compare = new Compare(type, left, right);
+
+        return fold(compare, left, right);
+    }
+
+
+    private static CompiledExpression compileArithmetic(ArithmeticOperator op,
+                                                        Schema[] schemas) {
+        ArithmeticOperator.Type type = op.getType();
+        CompiledExpression left = compileExpr(op.getLeftExpression(), schemas);
+        CompiledExpression right = compileExpr(op.getRightExpression(), schemas);
+
+        Class<?> resultClass =
+            getArithmeticClass(type, left.valueClass, right.valueClass);
+
+        Arithmetic arithmetic;
+        if (resultClass == Integer.class)
+            arithmetic = new IntArithmetic(type, left, right);
+        else if (resultClass == Long.class)
+            arithmetic = new LongArithmetic(type, left, right);
+        else if (resultClass == Double.class)
+            arithmetic = new DoubleArithmetic(type, left, right);
+        else
+            arithmetic = new Arithmetic(type, left, right, resultClass);
+
+        return fold(arithmetic, left, right);
+    }
+
+
+    private static CompiledExpression compileBoolean(BooleanOperator bool,
+                                                     Schema[] schemas) {
+        BooleanOperator.Type type = bool.getType();
+        int numTerms = bool.getNumTerms();
+
+        // Let the interpreted operator report malformed expressions.
+        if (numTerms == 0 ||
+            type == BooleanOperator.Type.NOT_EXPR && numTerms != 1) {
+            return null;
+        }
+
+        CompiledExpression[] terms = new CompiledExpression[numTerms];
+        for (int i = 0; i < numTerms; i++)
+            terms[i] = compileExpr(bool.getTerm(i), schemas);
+
+        return fold(new BooleanOp(type, terms), terms);
+    }
+
+
+    /**
+     * If all of the operands of an operation are constants, computes the
+     * operation's value once, and returns a constant holding it.  If the
+     * operation fails, it is left to fail when it is evaluated, since it
+     * might never be.
+     */
+    private static CompiledExpression fold(CompiledExpression compiled,
+                                           CompiledExpression... operands) {
+        for (CompiledExpression operand : operands) {
+            if (!(operand instanceof Constant))
+                return compiled;
+        }
+
+        try {
+            return new Constant(compiled.evaluate(null));
+        }
+        catch (RuntimeException e) {
+            return compiled;
+        }
+    }
+
+
+    /**
+     * Returns the Java class of the non-<tt>NULL</tt> values of the
+     * specified column type, for the types that have specialized
+     * operations.
+     *
+     * @param type the column type
+     *
+     * @return the Java class of the column's values, or {@code null} if the
+     *         values don't have a specialized representation
+     */
+    static Class<?> getValueClass(ColumnType type) {
+        switch (type.getBaseType()) {
+        case INTEGER:
+            return Integer.class;
+
+        case BIGINT:
+            return Long.class;
+
+        case FLOAT:
+            return Float.class;
+
+        case DOUBLE:
+            return Double.class;
+
+        case CHAR:
+        case VARCHAR:
+            return String.class;
+
+        default:
+            return null;
+        }
+    }
+
+
+    private static boolean isIntegralClass(Class<?> c) {
+        return c == Integer.class || c == Long.class;
+    }
+
+
+    private static boolean isNumericClass(Class<?> c) {
+        return isIntegralClass(c) || c == Double.class;
+    }
+
+
+    private static boolean isIntegral(Object value) {
+        return value instanceof Integer || value instanceof Long;
+    }
+
+
+    /**
+     * Returns the class of the result of an arithmetic operation, following
+     * the same coercions as {@link TypeConverter#coerceArithmetic}.
+     */
+    private static Class<?> getArithmeticClass(ArithmeticOperator.Type type,
+                                               Class<?> left, Class<?> right) {
+        if (left == null || right == null)
+            return null;
+
+        if (!Number.class.isAssignableFrom(left) ||
+            !Number.class.isAssignableFrom(right)) {
+            return null;
+        }
+
+        if (left == Double.class || right == Double.class)
+            return Double.class;
+
+        if (left == Float.class || right == Float.class)
+            return Float.class;
+
+        if (type == ArithmeticOperator.Type.DIVIDE)
+            return Double.class;
+
+        if (left == Long.class || right == Long.class)
+            return Long.class;
+
+        return Integer.class;
+    }
+
+
+    /**
+     * Returns the Java class of the expression's non-<tt>NULL</tt> values,
+     * if it is known when the expression is compiled.
+     *
+     * @return the class of the expression's values, or {@code null} if it
+     *         isn't known
+     */
+    public Class<?> getValueClass() {
+        return valueClass;
+    }
+
+
+    /**
+     * Evaluates the expression against the tuples in the environment.
+     *
+     * @param env the environment holding the tuples to evaluate the
+     *        expression against
+     *
+     * @return the value of the expression
+     *
+     * @throws ExpressionException if the expression can't be evaluated
+     */
+    public abstract Object evaluate(Environment env);
+
+
+    /**
+     * Evaluates the expression as a predicate against the tuples in the
+     * environment, treating <tt>NULL</tt> as false in the same way as
+     * {@link Expression#evaluatePredicate}.
+     *
+     * @param env the environment holding the tuples to evaluate the
+     *        expression against
+     *
+     * @return true if the expression is true for the tuples
+     *
+     * @throws ExpressionException if the expression can't be evaluated
+     */
+    public boolean evaluatePredicate(Environment env) {
+        Object value = evaluate(env);
+        return value != null && TypeConverter.getBooleanValue(value);
+    }
+
+
+    /** A literal value, or a subexpression computed from literal values. */
+    private static class Constant extends CompiledExpression {
+        private Object value;
+
+        Constant(Object value) {
+            super(value != null ? value.getClass() : null);
+            this.value = value;
+        }
+
+        public Object evaluate(Environment env) {
+            return value;
+        }
+    }
+
+
+    /** A column of one of the tuples in the environment. */
+    private static class Column extends CompiledExpression {
+        private int tupleIndex;
+
+        private int colIndex;
+
+        Column(int tupleIndex, int colIndex, Class<?> valueClass) {
+            super(valueClass);
+            this.tupleIndex = tupleIndex;
+            this.colIndex = colIndex;
+        }
+
+        public Object evaluate(Environment env) {
+            return env.getCurrentTuples().get(tupleIndex).getColumnValue(colIndex);
+        }
+    }
+
+
+    /**
+     * A comparison of two values of any types, with the same semantics as
+     * {@link CompareOperator#evaluate}:  the result is <tt>NULL</tt> if
+     * either value is <tt>NULL</tt>.  Subclasses specialize the comparison
+     * for particular types of values.
+     */
+    private static class Compare extends CompiledExpression {
+        private CompareOperator.Type type;
+
+        private CompiledExpression left;
+
+        private CompiledExpression right;
+
+        Compare(CompareOperator.Type type, CompiledExpression left,
+                CompiledExpression right) {
+            super(Boolean.class);
+            this.type = type;
+            this.left = left;
+            this.right = right;
+        }
+
+        public Object evaluate(Environment env) {
+            Object lhs = left.evaluate(env);
+            if (lhs == null)
+                return null;
+
+            Object rhs = right.evaluate(env);
+            if (rhs == null)
+                return null;
+
+            return Boolean.valueOf(test(compare(lhs, rhs)));
+        }
+
+        @Override
+        public boolean evaluatePredicate(Environment env) {
+            Object lhs = left.evaluate(env);
+            if (lhs == null)
+                return false;
+
+            Object rhs = right.evaluate(env);
+            return rhs != null && test(compare(lhs, rhs));
+        }
+
+        /** Compares two non-<tt>NULL</tt> values. */
+        int compare(Object lhs, Object rhs) {
+            return compareObjects(lhs, rhs);
+        }
+
+        private boolean test(int compResult) {
+            switch (type) {
+            case EQUALS:
+                return compResult == 0;
+
+            case NOT_EQUALS:
+                return compResult != 0;
+
+            case LESS_THAN:
+                return compResult < 0;
+
+            case GREATER_THAN:
+                return compResult > 0;
+
+            case LESS_OR_EQUAL:
+                return compResult <= 0;
+
+            case GREATER_OR_EQUAL:
+                return compResult >= 0;
+
+            default:
+                throw new ExpressionException(
+                    "Unrecognized comparison type " + type);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        static int compareObjects(Object lhs, Object rhs) {
+            TypeConverter.Pair coerced =
+                TypeConverter.coerceComparison(lhs, rhs);
+
+            return ((Comparable) coerced.value1).compareTo(coerced.value2);
+        }
+    }
+
+
+    private static class IntCompare extends Compare {
+        IntCompare(CompareOperator.Type type, CompiledExpression left,
+                   CompiledExpression right) {
+            super(type, left, right);
+        }
+
+        @Override
+        int compare(Object lhs, Object rhs) {
+            if (lhs instanceof Integer && rhs instanceof Integer)
+                return Integer.compare((Integer) lhs, (Integer) rhs);
+
+            return compareObjects(lhs, rhs);
+        }
+    }
+
+
+    private static class LongCompare extends Compare {
+        LongCompare(CompareOperator.Type type, CompiledExpression left,
+                    CompiledExpression right) {
+            super(type, left, right);
+        }
+
+        @Override
+        int compare(Object lhs, Object rhs) {
+            if (isIntegral(lhs) && isIntegral(rhs)) {
+                return Long.compare(((Number) lhs).longValue(),
+                                    ((Number) rhs).longValue());
+            }
+
+            return compareObjects(lhs, rhs);
+        }
+    }
+
+
+    private static class DoubleCompare extends Compare {
+        DoubleCompare(CompareOperator.Type type, CompiledExpression left,
+                      CompiledExpression right) {
+            super(type, left, right);
+        }
+
+        @Override
+        int compare(Object lhs, Object rhs) {
+            // Comparisons involving a Double are done on Doubles.
+            if ((lhs instanceof Double || rhs instanceof Double) &&
+                lhs instanceof Number && rhs instanceof Number) {
+                return Double.compare(((Number) lhs).doubleValue(),
+                                      ((Number) rhs).doubleValue());
+            }
+
+            return compareObjects(lhs, rhs);
+        }
+    }
+
+
+    private static class StringCompare extends Compare {
+        StringCompare(CompareOperator.Type type, CompiledExpression left,
+                      CompiledExpression right) {
+            super(type, left, right);
+        }
+
+        @Override
+        int compare(Object lhs, Object rhs) {
+            if (lhs instanceof String && rhs instanceof String)
+                return ((String) lhs).compareTo((String) rhs);
+
+            return compareObjects(lhs, rhs);
+        }
+    }
+
+
+    /**
+     * An arithmetic operation on two values of any types, with the same
+     * semantics as {@link ArithmeticOperator#evaluate}:  the result is
+     * <tt>NULL</tt> if either value is <tt>NULL</tt>.  Subclasses specialize
+     * the operation for particular types of values.
+     */
+    private static class Arithmetic extends CompiledExpression {
+        ArithmeticOperator.Type type;
+
+        private CompiledExpression left;
+
+        private CompiledExpression right;
+
+        Arithmetic(ArithmeticOperator.Type type, CompiledExpression left,
+                   CompiledExpression right, Class<?> resultClass) {
+            super(resultClass);
+            this.type = type;
+            this.left = left;
+            this.right = right;
+        }
+
+        public Object evaluate(Environment env) {
+            Object lhs = left.evaluate(env);
+            if (lhs == null)
+                return null;
+
+            Object rhs = right.evaluate(env);
+            if (rhs == null)
+                return null;
+
+            return compute(lhs, rhs);
+        }
+
+        /** Computes the operation on two non-<tt>NULL</tt> values. */
+        Object compute(Object lhs, Object rhs) {
+            return ArithmeticOperator.evalObjects(type, lhs, rhs);
+        }
+    }
+
+
+    private static class IntArithmetic extends Arithmetic {
+        IntArithmetic(ArithmeticOperator.Type type, CompiledExpression left,
+                      CompiledExpression right) {
+            super(type, left, right, Integer.class);
+        }
+
+        @Override
+        Object compute(Object lhs, Object rhs) {
+            if (lhs instanceof Integer && rhs instanceof Integer) {
+                int a = (Integer) lhs;
+                int b = (Integer) rhs;
+                switch (type) {
+                case ADD:
+                    return Integer.valueOf(a + b);
+
+                case SUBTRACT:
+                    return Integer.valueOf(a - b);
+
+                case MULTIPLY:
+                    return Integer.valueOf(a * b);
+
+                case REMAINDER:
+                    return Integer.valueOf(a % b);
+
+                default:
+                    // Division and powers are computed as usual.
+                }
+            }
+
+            return ArithmeticOperator.evalObjects(type, lhs, rhs);
+        }
+    }
+
+
+    private static class LongArithmetic extends Arithmetic {
+        LongArithmetic(ArithmeticOperator.Type type, CompiledExpression left,
+                       CompiledExpression right) {
+            super(type, left, right, Long.class);
+        }
+
+        @Override
+        Object compute(Object lhs, Object rhs) {
+            // Integers are only combined as Longs if one of them is a Long.
+            if (isIntegral(lhs) && isIntegral(rhs) &&
+                (lhs instanceof Long || rhs instanceof Long)) {
+                long a = ((Number) lhs).longValue();
+                long b = ((Number) rhs).longValue();
+                switch (type) {
+                case ADD:
+                    return Long.valueOf(a + b);
+
+                case SUBTRACT:
+                    return Long.valueOf(a - b);
+
+                case MULTIPLY:
+                    return Long.valueOf(a * b);
+
+                case REMAINDER:
+                    return Long.valueOf(a % b);
+
+                default:
+                    // Division and powers are computed as usual.
+                }
+            }
+
+            return ArithmeticOperator.evalObjects(type, lhs, rhs);
+        }
+    }
+
+
+    private static class DoubleArithmetic extends Arithmetic {
+        DoubleArithmetic(ArithmeticOperator.Type type, CompiledExpression left,
+                         CompiledExpression right) {
+            super(type, left, right, Double.class);
+        }
+
+        @Override
+        Object compute(Object lhs, Object rhs) {
+            // Operations involving a Double are done on Doubles, and so is
+            // division of integers.
+            boolean doubles = (lhs instanceof Double || rhs instanceof Double) &&
+                lhs instanceof Number && rhs instanceof Number;
+            if (!doubles && type == ArithmeticOperator.Type.DIVIDE)
+                doubles = isIntegral(lhs) && isIntegral(rhs);
+
+            if (doubles) {
+                double a = ((Number) lhs).doubleValue();
+                double b = ((Number) rhs).doubleValue();
+                switch (type) {
+                case ADD:
+                    return Double.valueOf(a + b);
+
+                case SUBTRACT:
+                    return Double.valueOf(a - b);
+
+                case MULTIPLY:
+                    return Double.valueOf(a * b);
+
+                case DIVIDE:
+                    return Double.valueOf(a / b);
+
+                case REMAINDER:
+                    return Double.valueOf(a % b);
+
+                case POWER:
+                    return Double.valueOf(Math.pow(a, b));
+
+                default:
+                    // Unrecognized types are reported as usual.
+                }
+            }
+
+            return ArithmeticOperator.evalObjects(type, lhs, rhs);
+        }
+    }
+
+
+    /**
+     * A Boolean expression, with the same three-valued semantics as
+     * {@link BooleanOperator#evaluate}:  the result is <tt>NULL</tt> when
+     * it depends on a <tt>NULL</tt> term.
+     */
+    private static class BooleanOp extends CompiledExpression {
+        private BooleanOperator.Type type;
+
+        private CompiledExpression[] terms;
+
+        BooleanOp(BooleanOperator.Type type, CompiledExpression[] terms) {
+            super(Boolean.class);
+            this.type = type;
+            this.terms = terms;
+        }
+
+        public Object evaluate(Environment env) {
+            if (type == BooleanOperator.Type.NOT_EXPR) {
+                Object value = terms[0].evaluate(env);
+                if (value == null)
+                    return null;
+
+                return Boolean.valueOf(!TypeConverter.getBooleanValue(value));
+            }
+
+            // An AND is false if any term is false, and an OR is true if any
+            // term is true.  Otherwise the result is UNKNOWN if any term is.
+            boolean isAnd = (type == BooleanOperator.Type.AND_EXPR);
+            boolean unknown = false;
+            for (CompiledExpression term : terms) {
+                Object value = term.evaluate(env);
+                if (value == null)
+                    unknown = true;
+                else if (TypeConverter.getBooleanValue(value) != isAnd)
+                    return Boolean.valueOf(!isAnd);
+            }
+
+            return unknown ? null : Boolean.valueOf(isAnd);
+        }
+
+        @Override
+        public boolean evaluatePredicate(Environment env) {
+            switch (type) {
+            case AND_EXPR:
+                for (CompiledExpression term : terms) {
+                    if (!term.evaluatePredicate(env))
+                        return false;
+                }
+                return true;
+
+            case OR_EXPR:
+                for (CompiledExpression term : terms) {
+                    if (term.evaluatePredicate(env))
+                        return true;
+                }
+                return false;
+
+            case NOT_EXPR:
+                // True only if the term is false, not if it is UNKNOWN.
+                Object value = terms[0].evaluate(env);
+                return value != null && !TypeConverter.getBooleanValue(value);
+
+            default:
+                throw new ExpressionException(
+                    "Unrecognized Boolean expression type " + type);
+            }
+        }
+    }
+
+
+    /** An <tt>IS NULL</tt> or <tt>IS NOT NULL</tt> test. */
+    private static class IsNull extends CompiledExpression {
+        private CompiledExpression expr;
+
+        private boolean invert;
+
+        IsNull(CompiledExpression expr, boolean invert) {
+            super(Boolean.class);
+            this.expr = expr;
+            this.invert = invert;
+        }
+
+        public Object evaluate(Environment env) {
+            return Boolean.valueOf(evaluatePredicate(env));
+        }
+
+        @Override
+        public boolean evaluatePredicate(Environment env) {
+            return (expr.evaluate(env) == null) != invert;
+        }
+    }
+
+
+    /** Any other expression, which is evaluated as usual. */
+    private static class Interpreted extends CompiledExpression {
+        private Expression expr;
+
+        Interpreted(Expression expr) {
+            super(null);
+            this.expr = expr;
+        }
+
+        public Object evaluate(Environment env) {
+            return expr.evaluate(env);
+        }
+
+        @Override
+        public boolean evaluatePredicate(Environment env) {
+            return expr.evaluatePredicate(env);
+        }
+    }
+}
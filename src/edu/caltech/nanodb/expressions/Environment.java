@@ -86,6 +86,30 @@ public class Environment {
     }
 
 
+    /**
+     * Returns the parent environment of this environment, or <tt>null</tt>
+     * if it has no parent.
+     *
+     * @return the parent environment, or <tt>null</tt>
+     */
+    public Environment getParent() {
+        return parent;
+    }
+
+
+    /**
+     * Sets the parent environment that symbols not found in this environment
+     * are resolved against.  A correlated subquery is evaluated against each
+     * row of its enclosing query by making that row's environment the
+     * parent of the environments the subquery's plan uses.
+     *
+     * @param parent the parent environment, or <tt>null</tt> for none
+     */
+    public void setParent(Environment parent) {
+        this.parent = parent;
+    }
+
+
     /** Reset the environment. */
     public void clear() {
         currentSchemas.clear();
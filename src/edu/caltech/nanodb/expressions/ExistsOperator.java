@@ -1,21 +1,20 @@
 package edu.caltech.nanodb.expressions;
 
 
-import java.io.IOException;
-
 import edu.caltech.nanodb.commands.SelectClause;
 import edu.caltech.nanodb.relations.ColumnInfo;
 import edu.caltech.nanodb.relations.ColumnType;
 import edu.caltech.nanodb.relations.Schema;
 import edu.caltech.nanodb.relations.SchemaNameException;
-import edu.caltech.nanodb.relations.Tuple;
 
 
 /**
  * <p>
- * This class implements the <tt>EXISTS (subquery)</tt> operator.  This
- * operation may be optimized out of a query, but if it is not, it can still be
- * evaluated although it will be slow.
+ * This class implements the <tt>EXISTS (subquery)</tt> operator.  The
+ * planner turns most correlated <tt>EXISTS</tt> subqueries into semijoins
+ * and antijoins, but if it can't, the operator can still be evaluated.  Only
+ * the first row of the subquery's results is read, and the result of an
+ * uncorrelated subquery is only computed once.
  * </p>
  * <p>
  * The <tt>NOT EXISTS (subquery)</tt> clause is translated into
@@ -24,6 +23,13 @@ import edu.caltech.nanodb.relations.Tuple;
  */
 public class ExistsOperator extends SubqueryOperator {
 
+    /**
+     * The result of an uncorrelated subquery, or {@code null} if it hasn't
+     * been computed yet.
+     */
+    private Boolean result;
+
+
     public ExistsOperator(SelectClause subquery) {
         if (subquery == null)
             throw new IllegalArgumentException("subquery must be specified");
@@ -42,7 +48,28 @@ public class ExistsOperator extends SubqueryOperator {
 
 
     public Object evaluate(Environment env) throws ExpressionException {
-        throw new UnsupportedOperationException("Not yet implemented!");
+        if (result != null)
+            return result;
+
+        boolean exists;
+        startSubquery(env);
+        try {
+            exists = (getNextSubqueryTuple() != null);
+        }
+        finally {
+            finishSubquery();
+        }
+
+        if (!isCorrelated())
+            result = exists;
+
+        return exists;
+    }
+
+
+    @Override
+    protected void clearResults() {
+        result = null;
     }
 
 
@@ -3,6 +3,8 @@ package edu.caltech.nanodb.expressions;
 
 import java.util.Collection;
 
+import edu.caltech.nanodb.commands.SelectClause;
+
 import edu.caltech.nanodb.relations.ColumnInfo;
 import edu.caltech.nanodb.relations.Schema;
 import edu.caltech.nanodb.relations.SchemaNameException;
@@ -20,7 +22,9 @@ import edu.caltech.nanodb.relations.SchemaNameException;
  * current values for symbols that appear within the expression.  The
  * {@link #hasSymbols} method reports whether the expression contains any
  * symbols that would require an environment for evaluation.  If the expression
- * does not contain symbols, it can be evaluated without an environment.
+ * does not contain symbols, it can be evaluated without an environment.  The
+ * columns of the enclosing query that a correlated subquery refers to are
+ * reported as symbols of the expression holding the subquery.
  */
 public abstract class Expression implements Cloneable {
 
@@ -47,6 +51,16 @@ public abstract class Expression implements Cloneable {
                     symbols.add(cv.getColumnName());
                 }
             }
+            else if (e instanceof SubqueryOperator) {
+                // A correlated subquery refers to columns of the enclosing
+                // query, although they aren't in this expression tree.
+                SelectClause subquery = ((SubqueryOperator) e).getSubquery();
+                if (subquery != null && subquery.isCorrelated()) {
+                    hasSymbols = true;
+                    if (symbols != null)
+                        symbols.addAll(subquery.getCorrelatedColumns());
+                }
+            }
         }
 
         public Expression leave(Expression e) {
@@ -8,15 +8,21 @@ import edu.caltech.nanodb.relations.Schema;
 import edu.caltech.nanodb.relations.SchemaNameException;
 import edu.caltech.nanodb.relations.Tuple;
 
-import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
 
 
 /**
  * <p>
  * This class implements the <tt>expr IN (values)</tt> or <tt>expr IN
- * (subquery)</tt> operator.  This operation may be optimized out of a query,
- * but if it is not, it can still be evaluated although it will be slow.
+ * (subquery)</tt> operator.  The planner turns most <tt>IN</tt> subqueries
+ * into semijoins, but if it can't, the operator can still be evaluated.
+ * </p>
+ * <p>
+ * A list of literal values, and the results of a subquery that doesn't
+ * refer to the enclosing query, are put into a hash set the first time the
+ * operator is evaluated, so that each later evaluation is a single lookup
+ * rather than a comparison against every value.
  * </p>
  * <p>
  * The <tt>expr NOT IN (...)</tt> operator is translated into <tt>NOT (expr IN
@@ -38,6 +44,14 @@ public class InOperator extends SubqueryOperator {
     ArrayList<Expression> values;
 
 
+    /**
+     * The set of values that the left-hand expression is looked up in, or
+     * {@code null} if it hasn't been built yet.  This is only built for a
+     * list of literal values or for an uncorrelated subquery.
+     */
+    private ValueSet valueSet;
+
+
     public InOperator(Expression expr, ArrayList<Expression> values) {
         if (expr == null)
             throw new IllegalArgumentException("expr must be specified");
@@ -76,16 +90,117 @@ public class InOperator extends SubqueryOperator {
 
     /**
      * Evaluates this IN expression and returns either
-     * {@link java.lang.Boolean#TRUE} or {@link java.lang.Boolean#FALSE}.  If
-     * either the left-hand or right-hand expression evaluates to
-     * <code>null</code> (representing the SQL <tt>NULL</tt> value), then the
-     * expression's result is always <code>FALSE</code>.
+     * {@link java.lang.Boolean#TRUE} or {@link java.lang.Boolean#FALSE}, or
+     * <code>null</code> (representing the SQL <tt>NULL</tt> value) if the
+     * left-hand expression evaluates to <code>null</code>, or if no value is
+     * equal to it but some value on the right-hand side is <code>null</code>.
      */
     public Object evaluate(Environment env) throws ExpressionException {
-        throw new UnsupportedOperationException("Not yet implemented!");
+        Object value = expr.evaluate(env);
+        if (value == null)
+            return null;
+
+        if (valueSet == null && (values != null ? isLiteralList() : !isCorrelated()))
+            valueSet = (values != null) ? evaluateValues(env) : evaluateSubquery(env);
+
+        if (valueSet != null)
+            return valueSet.contains(value);
+
+        // The values depend on the current row, so compare each of them
+        // until one is equal.
+        boolean sawNull = false;
+        if (values != null) {
+            for (Expression e : values) {
+                Object other = e.evaluate(env);
+                if (other == null)
+                    sawNull = true;
+                else if (CompareOperator.areObjectsEqual(value, other))
+                    return Boolean.TRUE;
+            }
+        }
+        else {
+            startSubquery(env);
+            try {
+                Tuple tuple;
+                while ((tuple = getNextSubqueryTuple()) != null) {
+                    Object other = tuple.getColumnValue(0);
+                    if (other == null)
+                        sawNull = true;
+                    else if (CompareOperator.areObjectsEqual(value, other))
+                        return Boolean.TRUE;
+                }
+            }
+            finally {
+                finishSubquery();
+            }
+        }
+
+        return sawNull ? null : Boolean.FALSE;
     }
 
 
+    /** Returns true if all of the values on the right are literals. */
+    private boolean isLiteralList() {
+        for (Expression e : values) {
+            if (!(e instanceof LiteralValue))
+                return false;
+        }
+        return true;
+    }
+
+
+    private ValueSet evaluateValues(Environment env) {
+        ValueSet set = new ValueSet();
+        for (Expression e : values)
+            set.add(e.evaluate(env));
+
+        return set;
+    }
+
+
+    private ValueSet evaluateSubquery(Environment env) {
+        ValueSet set = new ValueSet();
+        startSubquery(env);
+        try {
+            Tuple tuple;
+            while ((tuple = getNextSubqueryTuple()) != null)
+                set.add(tuple.getColumnValue(0));
+        }
+        finally {
+            finishSubquery();
+        }
+
+        return set;
+    }
+
+
+    /**
+     * Discards the results of an uncorrelated subquery.  The set of values
+     * built from a list of literals is kept, since it never changes.
+     */
+    @Override
+    protected void clearResults() {
+        if (subquery != null)
+            valueSet = null;
+    }
+
+
+    /**
+     * Returns true if the subquery refers to columns of the enclosing query.
+     * An <tt>IN</tt> operator with a list of values has no subquery, and is
+     * never correlated in that sense.
+     */
+    @Override
+    public boolean isCorrelated() {
+        return subquery != null && super.isCorrelated();
+    }
+
+
+    /**
+     * Traverses the left-hand expression and the list of values.  A subquery
+     * on the right-hand side is a separate query block, so it isn't
+     * traversed.
+     */
     @Override
     public Expression traverse(ExpressionProcessor p) {
         Expression r;
@@ -100,11 +215,7 @@ public class InOperator extends SubqueryOperator {
                 values.set(i, r);
             }
         }
-        else if (subquery != null) {
-            // TODO!
-            throw new UnsupportedOperationException("Not yet implemented.");
-        }
-        else {
+        else if (subquery == null) {
             throw new IllegalStateException(
                     "Either values or subquery must be specified");
         }
@@ -150,6 +261,18 @@ public class InOperator extends SubqueryOperator {
     }
 
 
+    /**
+     * Returns the expression on the lefthand side of the <tt>IN</tt>
+     * operation.
+     *
+     * @return the expression on the lefthand side of the <tt>IN</tt>
+     *         operation
+     */
+    public Expression getExpression() {
+        return expr;
+    }
+
+
     /**
      * If the <tt>IN</tt> operation has a list of values on the righthand side,
      * this will be the list of values.  Otherwise, this will be <tt>null</tt>.
@@ -245,4 +368,70 @@ public class InOperator extends SubqueryOperator {
 
         return op;
     }
+
+
+    /**
+     * A set of the values on the right-hand side of an <tt>IN</tt> operator.
+     * Numbers are stored in a single representation, so that values that
+     * compare as equal are also found by a hash lookup, e.g. an
+     * <tt>INTEGER</tt> 3 and a <tt>BIGINT</tt> 3.  Values of a kind that the
+     * set doesn't only hold are compared with each value in turn, since they
+     * may still be equal after type conversions.
+     */
+    private static class ValueSet {
+        /** The non-<tt>NULL</tt> values, in their hashed representation. */
+        private HashSet<Object> hashed = new HashSet<Object>();
+
+        /** The non-<tt>NULL</tt> values as they were added. */
+        private ArrayList<Object> values = new ArrayList<Object>();
+
+        /** True if all of the values are numbers. */
+        private boolean allNumbers = true;
+
+        /** True if all of the values are strings. */
+        private boolean allStrings = true;
+
+        /** True if one of the values is <tt>NULL</tt>. */
+        private boolean hasNull;
+
+        void add(Object value) {
+            if (value == null) {
+                hasNull = true;
+                return;
+            }
+
+            allNumbers &= value instanceof Number;
+            allStrings &= value instanceof String;
+
+            hashed.add(TupleHasher.normalizeValue(value));
+            values.add(value);
+        }
+
+        /**
+         * Returns {@link Boolean#TRUE} if the set contains a value equal to
+         * the specified non-<tt>NULL</tt> value, <tt>null</tt> if it doesn't
+         * but the set contains <tt>NULL</tt>, or {@link Boolean#FALSE}.
+         */
+        Boolean contains(Object value) {
+            boolean found;
+            if ((value instanceof Number && allNumbers) ||
+                (value instanceof String && allStrings)) {
+                found = hashed.contains(TupleHasher.normalizeValue(value));
+            }
+            else {
+                found = false;
+                for (Object other : values) {
+                    if (CompareOperator.areObjectsEqual(value, other)) {
+                        found = true;
+                        break;
+                    }
+                }
+            }
+
+            if (found)
+                return Boolean.TRUE;
+
+            return hasNull ? null : Boolean.FALSE;
+        }
+    }
 }
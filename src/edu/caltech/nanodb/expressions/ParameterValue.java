@@ -0,0 +1,143 @@
+package edu.caltech.nanodb.expressions;
+
+
+import edu.caltech.nanodb.relations.ColumnInfo;
+import edu.caltech.nanodb.relations.ColumnType;
+import edu.caltech.nanodb.relations.SQLDataType;
+import edu.caltech.nanodb.relations.Schema;
+import edu.caltech.nanodb.relations.SchemaNameException;
+
+
+/**
+ * This expression class represents a parameter of a prepared statement,
+ * written as <tt>?</tt> in the statement.  A value is bound to the parameter
+ * before each execution of the statement, and evaluating the parameter
+ * produces the bound value.  This allows a statement to be parsed and planned
+ * once, and then executed many times with different values.
+ * <p>
+ * Since the plan of the statement refers to the parameter objects that the
+ * parser created, a parameter is never copied:  cloning a parameter returns
+ * the parameter itself, so that every copy of an expression that the planner
+ * makes sees the values that are bound to the statement's parameters.  For
+ * the same reason, two parameters are only equal if they are the same object.
+ */
+public class ParameterValue extends Expression {
+
+    /** The position of the parameter in its statement, starting from 0. */
+    private int index;
+
+
+    /** The value that is bound to the parameter. */
+    private Object value;
+
+
+    /** True if a value has been bound to the parameter. */
+    private boolean bound;
+
+
+    public ParameterValue(int index) {
+        if (index < 0)
+            throw new IllegalArgumentException("index must be nonnegative");
+
+        this.index = index;
+    }
+
+
+    public int getIndex() {
+        return index;
+    }
+
+
+    /**
+     * Binds a value to the parameter, which is used until another value is
+     * bound.
+     *
+     * @param value the value of the parameter, which may be {@code null}
+     */
+    public void bind(Object value) {
+        this.value = value;
+        bound = true;
+    }
+
+
+    public boolean isBound() {
+        return bound;
+    }
+
+
+    public Object getValue() {
+        return value;
+    }
+
+
+    /**
+     * Returns the SQL type of the bound value.  This is the type the
+     * parameter has in the plan of the statement, so a statement is planned
+     * again if it is executed with values of other types.
+     *
+     * @return the SQL type of the bound value, or {@code null} if no value is
+     *         bound to the parameter
+     */
+    public SQLDataType getBoundType() {
+        if (!bound)
+            return null;
+
+        return TypeConverter.getSQLType(value);
+    }
+
+
+    /**
+     * The type of a parameter is the type of its bound value.  A parameter
+     * without a value is treated as a <tt>NULL</tt> literal.
+     */
+    public ColumnInfo getColumnInfo(Schema schema) throws SchemaNameException {
+        ColumnType colType = new ColumnType(TypeConverter.getSQLType(value));
+        return new ColumnInfo(toString(), colType);
+    }
+
+
+    /** Evaluating a parameter produces its bound value. */
+    public Object evaluate(Environment env) throws ExpressionException {
+        if (!bound) {
+            throw new ExpressionException("No value is bound to parameter " +
+                (index + 1));
+        }
+
+        return value;
+    }
+
+
+    @Override
+    public Expression traverse(ExpressionProcessor p) {
+        p.enter(this);
+        return p.leave(this);
+    }
+
+
+    @Override
+    public String toString() {
+        return "?";
+    }
+
+
+    /**
+     * Parameters are shared by all copies of an expression, so that the
+     * values bound to them are seen by every copy.
+     */
+    @Override
+    protected Object clone() throws CloneNotSupportedException {
+        return this;
+    }
+
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj == this;
+    }
+
+
+    @Override
+    public int hashCode() {
+        return System.identityHashCode(this);
+    }
+}
@@ -5,14 +5,25 @@ import edu.caltech.nanodb.commands.SelectClause;
 import edu.caltech.nanodb.relations.ColumnInfo;
 import edu.caltech.nanodb.relations.Schema;
 import edu.caltech.nanodb.relations.SchemaNameException;
+import edu.caltech.nanodb.relations.Tuple;
 
 
 /**
  * This class represents a scalar subquery embedded in another query's
- * predicate.
+ * predicate.  The value of an uncorrelated subquery is only computed once;
+ * a correlated subquery is evaluated again for every row of the enclosing
+ * query.
  */
 public class ScalarSubquery extends SubqueryOperator {
 
+    /** True if the value of an uncorrelated subquery has been computed. */
+    private boolean evaluated;
+
+
+    /** The value of an uncorrelated subquery, once it has been computed. */
+    private Object value;
+
+
     public ScalarSubquery(SelectClause subquery) {
         if (subquery == null)
             throw new IllegalArgumentException("subquery cannot be null");
@@ -21,18 +32,63 @@ public class ScalarSubquery extends SubqueryOperator {
     }
 
 
+    /**
+     * Returns the column-info of the subquery's only column.  The subquery's
+     * schema must already have been computed.
+     */
     public ColumnInfo getColumnInfo(Schema schema) throws SchemaNameException {
-        // TODO:  IMPLEMENT
-        return null;
+        Schema subquerySchema = subquery.geSchema();
+        if (subquerySchema == null) {
+            throw new IllegalStateException("The schema of subquery " +
+                subquery + " hasn't been computed");
+        }
+
+        ColumnInfo colInfo = subquerySchema.getColumnInfo(0);
+        return new ColumnInfo(colInfo.getName(), colInfo.getType());
     }
 
 
+    /**
+     * Evaluates the subquery, and returns the value of the only column of
+     * its only row, or <tt>null</tt> if the subquery produces no rows.
+     *
+     * @throws ExpressionException if the subquery produces more than one row
+     */
     public Object evaluate(Environment env) {
-        // TODO:  IMPLEMENT
+        if (evaluated)
+            return value;
+
+        Object result = null;
+        startSubquery(env);
+        try {
+            Tuple tuple = getNextSubqueryTuple();
+            if (tuple != null) {
+                result = tuple.getColumnValue(0);
+
+                // The subquery must only produce one row.
+                if (getNextSubqueryTuple() != null) {
+                    throw new ExpressionException("Scalar subquery " +
+                        subquery + " produced more than one row");
+                }
+            }
+        }
+        finally {
+            finishSubquery();
+        }
+
+        if (!isCorrelated()) {
+            value = result;
+            evaluated = true;
+        }
 
-        // TODO:  Don't forget to try to get *two* tuples from the subquery;
-        //        it should only return ONE tuple!
-        return null;
+        return result;
+    }
+
+
+    @Override
+    protected void clearResults() {
+        evaluated = false;
+        value = null;
     }
 
 
@@ -1,12 +1,27 @@
 package edu.caltech.nanodb.expressions;
 
+import java.io.IOException;
+
 import edu.caltech.nanodb.commands.SelectClause;
 import edu.caltech.nanodb.plans.PlanNode;
+import edu.caltech.nanodb.relations.Tuple;
 
 /**
+ * <p>
  * This class is the superclass of all expressions that can hold subqueries,
  * such as the <tt>IN</tt> operator, the <tt>EXISTS</tt> operator, and scalar
  * subqueries.
+ * </p>
+ * <p>
+ * The planner turns most <tt>IN</tt> and <tt>EXISTS</tt> subqueries into
+ * semijoins and antijoins, so the operators are only evaluated for the
+ * subqueries that it can't.  A subquery that doesn't refer to the enclosing
+ * query is only evaluated once, and its results are kept until the plan
+ * holding the operator is cleaned up; see {@link #cleanUp(Expression)}.  A
+ * correlated subquery is evaluated again for every row of the enclosing
+ * query, with the row's environment as the parent environment of the
+ * subquery's plan.
+ * </p>
  */
 public abstract class SubqueryOperator extends Expression {
 
@@ -24,12 +39,139 @@ public abstract class SubqueryOperator extends Expression {
     protected PlanNode subqueryPlan;
 
 
+    /**
+     * The parent environment of the subquery plan's nodes.  It has no tuples
+     * of its own; its parent is set to the environment the operator is
+     * evaluated in, so that the plan can refer to the enclosing query's
+     * columns.
+     */
+    private Environment outerEnvironment = new Environment();
+
+
     public SelectClause getSubquery() {
         return subquery;
     }
 
 
+    public PlanNode getSubqueryPlan() {
+        return subqueryPlan;
+    }
+
+
     public void setSubqueryPlan(PlanNode plan) {
         subqueryPlan = plan;
+        if (plan != null)
+            plan.setParentEnvironment(outerEnvironment);
+
+        clearResults();
+    }
+
+
+    /**
+     * Returns true if the subquery refers to columns of the enclosing query,
+     * so that it must be evaluated again for every row of the enclosing
+     * query.
+     *
+     * @return true if the subquery is correlated
+     */
+    public boolean isCorrelated() {
+        return subquery.isCorrelated();
+    }
+
+
+    /**
+     * Discards any results of the subquery that the operator has kept, so
+     * that the subquery is evaluated again the next time it is needed.
+     */
+    protected abstract void clearResults();
+
+
+    /**
+     * Starts evaluating the subquery plan against the specified environment
+     * of the enclosing query.  The caller must call {@link #finishSubquery}
+     * when it has read as many of the plan's tuples as it needs.
+     *
+     * @param env the environment the operator is being evaluated in
+     *
+     * @throws IllegalStateException if the subquery hasn't been planned
+     */
+    protected void startSubquery(Environment env) {
+        if (subqueryPlan == null) {
+            throw new IllegalStateException("Subquery " + subquery +
+                " hasn't been planned");
+        }
+
+        outerEnvironment.setParent(env);
+        subqueryPlan.initialize();
+    }
+
+
+    /**
+     * Returns the next tuple produced by the subquery plan, or {@code null}
+     * if the plan has no more tuples.
+     *
+     * @return the next tuple of the subquery's results, or {@code null}
+     *
+     * @throws ExpressionException if the plan can't be evaluated
+     */
+    protected Tuple getNextSubqueryTuple() {
+        try {
+            return subqueryPlan.getNextTuple();
+        }
+        catch (IOException e) {
+            throw new ExpressionException("Couldn't evaluate subquery " +
+                subquery, e);
+        }
+    }
+
+
+    /** Cleans up the subquery plan after it has been evaluated. */
+    protected void finishSubquery() {
+        subqueryPlan.cleanUp();
+        outerEnvironment.setParent(null);
+    }
+
+
+    /**
+     * Discards the results kept by all of the subquery operators in an
+     * expression.  Plan nodes call this on their expressions when they are
+     * cleaned up, so that the next evaluation of the plan evaluates the
+     * subqueries again.  The operators' own subqueries are cleaned up by
+     * their plans, so they aren't searched.
+     *
+     * @param expr the expression to search for subquery operators, or
+     *        {@code null}
+     */
+    public static void cleanUp(Expression expr) {
+        if (expr == null)
+            return;
+
+        expr.traverse(new ExpressionProcessor() {
+            public void enter(Expression node) {
+                if (node instanceof SubqueryOperator)
+                    ((SubqueryOperator) node).clearResults();
+            }
+
+            public Expression leave(Expression node) {
+                return node;
+            }
+        });
+    }
+
+
+    /**
+     * Copies the operator, giving the copy its own copy of the subquery plan
+     * and no results, so that the copy can be evaluated separately from the
+     * original, for example by another thread.  The subquery itself is
+     * shared, since it isn't changed once it has been planned.
+     */
+    @Override
+    protected Object clone() throws CloneNotSupportedException {
+        SubqueryOperator op = (SubqueryOperator) super.clone();
+
+        op.outerEnvironment = new Environment();
+        op.setSubqueryPlan(subqueryPlan != null ? subqueryPlan.duplicate() : null);
+
+        return op;
     }
 }
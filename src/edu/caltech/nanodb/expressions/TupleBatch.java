@@ -0,0 +1,406 @@
+package edu.caltech.nanodb.expressions;
+
+
+import java.util.Arrays;
+
+import edu.caltech.nanodb.relations.Tuple;
+import edu.caltech.nanodb.storage.FilePointer;
+
+
+/**
+ * <p>
+ * A batch of up to a fixed number of tuples, stored as one vector of values
+ * per column.  Plan nodes that support batch-at-a-time execution produce
+ * their results in batches, so that each column of a batch can be processed
+ * in a tight loop, rather than making several virtual calls and column-name
+ * lookups for every tuple.
+ * </p>
+ * <p>
+ * The vectors hold the values of the rows at positions 0 through
+ * {@link #getRowCount} - 1.  A batch also has a <em>selection vector</em>
+ * listing the positions of the rows that are actually in the batch, so that
+ * a filter can remove rows without copying the other rows' values.  The
+ * selected rows are numbered 0 through {@link #size} - 1, and
+ * {@link #getRowIndex} maps each of them to its position in the vectors.
+ * </p>
+ * <p>
+ * Column vectors may be shared between batches, for example when a
+ * projection passes a column through unchanged, so they must not be
+ * modified once a batch has been produced.  A batch produced by a plan node
+ * is only valid until the next batch is requested from the node.
+ * </p>
+ */
+public class TupleBatch {
+
+    /** The values of each column, indexed by row position. */
+    private Object[][] columns;
+
+
+    /** The maximum number of rows the batch can hold. */
+    private int capacity;
+
+
+    /** The number of rows whose values are stored in the column vectors. */
+    private int numRows;
+
+
+    /**
+     * The positions of the rows in the batch, in order, or {@code null} if
+     * all of the stored rows are in the batch.
+     */
+    private int[] selection;
+
+
+    /** The number of rows in the selection vector. */
+    private int numSelected;
+
+
+    /**
+     * Constructs an empty batch that can hold the specified number of rows.
+     *
+     * @param numColumns the number of columns of each row
+     * @param capacity the maximum number of rows the batch can hold
+     */
+    public TupleBatch(int numColumns, int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity must be positive");
+
+        columns = new Object[numColumns][];
+        for (int i = 0; i < numColumns; i++)
+            columns[i] = new Object[capacity];
+
+        this.capacity = capacity;
+    }
+
+
+    /**
+     * Constructs a batch over the specified column vectors, which already
+     * hold the values of the batch's rows.
+     *
+     * @param columns the column vectors, which must each be at least as
+     *        long as the capacity
+     * @param capacity the maximum number of rows the batch can hold
+     * @param numRows the number of rows whose values are in the vectors
+     */
+    public TupleBatch(Object[][] columns, int capacity, int numRows) {
+        if (numRows > capacity)
+            throw new IllegalArgumentException("numRows exceeds capacity");
+
+        this.columns = columns;
+        this.capacity = capacity;
+        this.numRows = numRows;
+    }
+
+
+    /**
+     * Constructs a batch over the specified column vectors, which holds the
+     * same rows as another batch.  This is used to produce the results of
+     * an operation over the other batch's rows without copying its
+     * selection vector into every result.
+     *
+     * @param columns the column vectors of the new batch, which must be at
+     *        least as long as the other batch's vectors
+     * @param rows the batch whose rows and selection the new batch uses
+     */
+    public TupleBatch(Object[][] columns, TupleBatch rows) {
+        this.columns = columns;
+        capacity = rows.capacity;
+        numRows = rows.numRows;
+        selection = rows.selection;
+        numSelected = rows.numSelected;
+    }
+
+
+    /**
+     * Returns the number of columns of each row in the batch.
+     *
+     * @return the number of columns of each row in the batch
+     */
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+
+    /**
+     * Returns the maximum number of rows the batch can hold.
+     *
+     * @return the maximum number of rows the batch can hold
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+
+    /**
+     * Returns the number of rows stored in the column vectors, including
+     * rows that aren't selected.
+     *
+     * @return the number of rows stored in the column vectors
+     */
+    public int getRowCount() {
+        return numRows;
+    }
+
+
+    /**
+     * Returns the number of rows in the batch.
+     *
+     * @return the number of rows in the batch
+     */
+    public int size() {
+        return (selection == null) ? numRows : numSelected;
+    }
+
+
+    /**
+     * Returns true if the batch has no rows.
+     *
+     * @return true if the batch has no rows
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+
+    /**
+     * Returns true if no more rows can be added to the batch.
+     *
+     * @return true if no more rows can be added to the batch
+     */
+    public boolean isFull() {
+        return numRows == capacity;
+    }
+
+
+    /**
+     * Returns the position in the column vectors of the <em>i</em><sup>th</sup>
+     * row of the batch.
+     *
+     * @param i the number of the row in the batch, from 0 to {@link #size} - 1
+     *
+     * @return the position of the row's values in the column vectors
+     */
+    public int getRowIndex(int i) {
+        return (selection == null) ? i : selection[i];
+    }
+
+
+    /**
+     * Returns the values of the specified column, indexed by row position.
+     * The vector must not be modified.
+     *
+     * @param colIndex the index of the column
+     *
+     * @return the values of the column
+     */
+    public Object[] getColumn(int colIndex) {
+        return columns[colIndex];
+    }
+
+
+    /**
+     * Returns the positions of the rows in the batch, or {@code null} if all
+     * of the rows stored in the column vectors are in the batch.  Only the
+     * first {@link #size} entries of the array are used.
+     *
+     * @return the selection vector of the batch, or {@code null}
+     */
+    public int[] getSelection() {
+        return selection;
+    }
+
+
+    /**
+     * Sets the positions of the rows in the batch.  The array is used
+     * directly rather than copied.
+     *
+     * @param selection the positions of the rows in the batch, in order, or
+     *        {@code null} to select all of the stored rows
+     *
+     * @param count the number of rows in the selection vector
+     */
+    public void setSelection(int[] selection, int count) {
+        this.selection = selection;
+        numSelected = (selection != null) ? count : 0;
+    }
+
+
+    /**
+     * Appends the values of a tuple to the batch, as a new selected row.
+     *
+     * @param tuple the tuple to add
+     *
+     * @throws IllegalStateException if the batch is full, or if some rows
+     *         have already been filtered out of the batch
+     */
+    public void addTuple(Tuple tuple) {
+        if (isFull())
+            throw new IllegalStateException("The batch is full");
+
+        if (selection != null)
+            throw new IllegalStateException("Can't add rows to a filtered batch");
+
+        for (int i = 0; i < columns.length; i++)
+            columns[i][numRows] = tuple.getColumnValue(i);
+
+        numRows++;
+    }
+
+
+    /**
+     * Returns a copy of the <em>i</em><sup>th</sup> row of the batch.
+     *
+     * @param i the number of the row in the batch, from 0 to {@link #size} - 1
+     *
+     * @return a tuple-literal holding the values of the row
+     */
+    public TupleLiteral getTuple(int i) {
+        int row = getRowIndex(i);
+
+        TupleLiteral tuple = new TupleLiteral(columns.length);
+        for (int c = 0; c < columns.length; c++)
+            tuple.setColumnValue(c, columns[c][row]);
+
+        return tuple;
+    }
+
+
+    /**
+     * Returns a copy of some of the rows of the batch, with column vectors
+     * of its own.  Unlike the batch itself, the copy stays valid after the
+     * batch's producer has moved on to its next batch, so it can be handed
+     * to another thread.
+     *
+     * @param start the number of the first row to copy, from 0 to
+     *        {@link #size} - 1
+     * @param count the number of rows to copy
+     *
+     * @return a new batch holding the values of the rows
+     */
+    public TupleBatch copyRows(int start, int count) {
+        if (start < 0 || count < 1 || start + count > size()) {
+            throw new IllegalArgumentException("Can't copy " + count +
+                " rows starting at row " + start + " of " + this);
+        }
+
+        Object[][] copy = new Object[columns.length][];
+        for (int c = 0; c < columns.length; c++) {
+            if (selection == null) {
+                copy[c] = Arrays.copyOfRange(columns[c], start, start + count);
+            }
+            else {
+                Object[] values = new Object[count];
+                for (int i = 0; i < count; i++)
+                    values[i] = columns[c][selection[start + i]];
+
+                copy[c] = values;
+            }
+        }
+
+        return new TupleBatch(copy, count, count);
+    }
+
+
+    /** Removes all rows from the batch, so that it can be filled again. */
+    public void clear() {
+        for (Object[] column : columns)
+            Arrays.fill(column, 0, numRows, null);
+
+        numRows = 0;
+        selection = null;
+        numSelected = 0;
+    }
+
+
+    @Override
+    public String toString() {
+        return "TupleBatch[columns=" + columns.length + ", rows=" +
+            numRows + ", selected=" + size() + "]";
+    }
+
+
+    /**
+     * A tuple that reads the values of one row of a batch in place.  This
+     * allows expressions that can't be evaluated over whole vectors to be
+     * evaluated one row at a time, without copying each row.  The row can be
+     * moved to another position with {@link #setRow}.
+     */
+    public static class RowView implements Tuple {
+
+        /** The batch the row belongs to. */
+        private TupleBatch batch;
+
+
+        /** The position of the row in the batch's column vectors. */
+        private int row;
+
+
+        /**
+         * Moves the view to the specified row position of a batch.
+         *
+         * @param batch the batch the row belongs to
+         * @param row the position of the row in the batch's column vectors
+         */
+        public void setRow(TupleBatch batch, int row) {
+            this.batch = batch;
+            this.row = row;
+        }
+
+
+        /** Rows of a batch are held in memory, so they aren't disk-backed. */
+        public boolean isDiskBacked() {
+            return false;
+        }
+
+
+        public int getColumnCount() {
+            return batch.getColumnCount();
+        }
+
+
+        public boolean isNullValue(int colIndex) {
+            return batch.columns[colIndex][row] == null;
+        }
+
+
+        public Object getColumnValue(int colIndex) {
+            return batch.columns[colIndex][row];
+        }
+
+
+        /** Batches can't be modified through a row view. */
+        public void setColumnValue(int colIndex, Object value) {
+            throw new UnsupportedOperationException(
+                "Rows of a batch can't be modified");
+        }
+
+
+        public FilePointer getExternalReference() {
+            throw new UnsupportedOperationException();
+        }
+
+
+        /** For in-memory tuples, pinning and unpinning is a no-op. */
+        public void pin() {
+            // No-op.
+        }
+
+
+        /** For in-memory tuples, pinning and unpinning is a no-op. */
+        public void unpin() {
+            // No-op.
+        }
+
+
+        /** For in-memory tuples, pinning and unpinning is a no-op. */
+        public int getPinCount() {
+            return 0;
+        }
+
+
+        /** For in-memory tuples, pinning and unpinning is a no-op. */
+        public boolean isPinned() {
+            return false;
+        }
+    }
+}
@@ -3,6 +3,7 @@ package edu.caltech.nanodb.expressions;
 import edu.caltech.nanodb.relations.Tuple;
 
 import java.lang.Object;
+import java.math.BigDecimal;
 import java.util.*;
 
 public class TupleHasher {
@@ -37,4 +38,38 @@ public class TupleHasher {
         }
         return values.hashCode();
     }
+
+    /**
+     * Converts numeric values to a single representation, so that values
+     * that compare as equal also hash the same, e.g. an <tt>INTEGER</tt> 3
+     * and a <tt>BIGINT</tt> 3.  Other values are returned unchanged.
+     *
+     * @param value the value to convert
+     * @return the value in the representation used for hashing
+     */
+    public static Object normalizeValue(Object value) {
+        if (!(value instanceof Number))
+            return value;
+
+        if (value instanceof Integer || value instanceof Long ||
+            value instanceof Short || value instanceof Byte) {
+            return ((Number) value).longValue();
+        }
+
+        if (value instanceof BigDecimal) {
+            BigDecimal d = (BigDecimal) value;
+            try {
+                return d.longValueExact();
+            }
+            catch (ArithmeticException e) {
+                return d.doubleValue();
+            }
+        }
+
+        double d = ((Number) value).doubleValue();
+        if (d == Math.rint(d) && Math.abs(d) < Long.MAX_VALUE)
+            return (long) d;
+
+        return d;
+    }
 }
\ No newline at end of file
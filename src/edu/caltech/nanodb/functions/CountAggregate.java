@@ -55,7 +55,7 @@ public class CountAggregate extends AggregateFunction {
 
     @Override
     public void clearResult() {
-        count = -1;
+        count = 0;
 
         if (distinct) {
             if (sortedInputs)
@@ -72,9 +72,6 @@ public class CountAggregate extends AggregateFunction {
         if (value == null)
             return;
 
-        if (count == -1)
-            count = 0;
-
         // Counting distinct values requires more checking than just counting
         // any value that comes through.
         if (distinct) {
@@ -100,10 +97,24 @@ public class CountAggregate extends AggregateFunction {
     }
 
 
+    /**
+     * Copies the function, giving the copy its own set of distinct values,
+     * so that copies computing different groups don't share their state.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public Object clone() throws CloneNotSupportedException {
+        CountAggregate agg = (CountAggregate) super.clone();
+        agg.valuesSeen = (HashSet<Object>) valuesSeen.clone();
+        return agg;
+    }
+
+
     @Override
     public Object getResult() {
-        // A value of -1 indicates a NULL result.
-        return (count == -1 ? null : Integer.valueOf(count));
+        // Unlike the other aggregates, COUNT is zero rather than NULL when
+        // there are no non-NULL values.
+        return Integer.valueOf(count);
     }
     
     
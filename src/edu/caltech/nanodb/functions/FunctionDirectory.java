@@ -67,6 +67,13 @@ public class FunctionDirectory {
         addFunction("PERF_COUNTER", ReadPerfCounter.class);
         addFunction("RESET_PERF_COUNTER", ResetPerfCounter.class);
 
+        // These are the table-returning functions:
+        addFunction("SYS_METRICS", SysMetrics.class);
+        addFunction("SYS_BUFFER_POOL", SysBufferPool.class);
+        addFunction("SYS_HASH_FILES", SysHashFiles.class);
+        addFunction("SYS_SESSIONS", SysSessions.class);
+        addFunction("SYS_IO_STATS", SysIOStats.class);
+
         // These are the aggregate functions:
         addFunction("AVG", Avg.class);
         addFunction("AVG#DISTINCT", AvgDistinct.class);
@@ -119,6 +126,23 @@ public class FunctionDirectory {
     }
 
 
+    /**
+     * Returns true if the specified name is the name of a system table, such
+     * as <tt>SYS_SESSIONS</tt>, which can be named in a <tt>FROM</tt> clause
+     * like a table, without calling it.
+     *
+     * @param funcName the name to check
+     *
+     * @return true if the name is the name of a {@link SystemTableFunction}
+     */
+    public boolean isSystemTable(String funcName) {
+        Class<? extends Function> impl =
+            functions.get(funcName.trim().toUpperCase());
+
+        return impl != null && SystemTableFunction.class.isAssignableFrom(impl);
+    }
+
+
     /**
      * If the specified function name corresponds to an existing function,
      * this method instantiates a new object that can compute the function,
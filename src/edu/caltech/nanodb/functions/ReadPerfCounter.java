@@ -11,14 +11,42 @@ import edu.caltech.nanodb.relations.ColumnType;
 import edu.caltech.nanodb.relations.SQLDataType;
 import edu.caltech.nanodb.relations.Schema;
 
-import edu.caltech.nanodb.server.performance.PerformanceCounters;
+import edu.caltech.nanodb.server.performance.Counter;
+import edu.caltech.nanodb.server.performance.Gauge;
+import edu.caltech.nanodb.server.performance.Histogram;
+import edu.caltech.nanodb.server.performance.Metric;
+import edu.caltech.nanodb.server.performance.MetricsRegistry;
 
 
-/** Returns the current value of the specified performance counter. */
+/**
+ * Returns the current value of the specified metric.  The value of a
+ * histogram is the number of values it has recorded, and the value of a gauge
+ * is rounded to the nearest integer.  Metrics that don't exist have the value
+ * 0.
+ */
 public class ReadPerfCounter extends SimpleFunction {
     @Override
     public ColumnType getReturnType(List<Expression> args, Schema schema) {
-        return new ColumnType(SQLDataType.INTEGER);
+        return new ColumnType(SQLDataType.BIGINT);
+    }
+
+
+    /**
+     * Returns the value of a metric as an integer.
+     *
+     * @param metric the metric, or <tt>null</tt> if it doesn't exist
+     *
+     * @return the value of the metric as an integer
+     */
+    static long getValue(Metric metric) {
+        if (metric instanceof Counter)
+            return ((Counter) metric).get();
+        else if (metric instanceof Histogram)
+            return ((Histogram) metric).getCount();
+        else if (metric instanceof Gauge)
+            return Math.round(((Gauge) metric).getValue());
+        else
+            return 0;
     }
 
 
@@ -34,6 +62,7 @@ public class ReadPerfCounter extends SimpleFunction {
         if (argVal == null)
             return null;
 
-        return PerformanceCounters.get(TypeConverter.getStringValue(argVal));
+        return getValue(MetricsRegistry.getInstance().getMetric(
+            TypeConverter.getStringValue(argVal)));
     }
 }
@@ -11,14 +11,19 @@ import edu.caltech.nanodb.relations.ColumnType;
 import edu.caltech.nanodb.relations.SQLDataType;
 import edu.caltech.nanodb.relations.Schema;
 
-import edu.caltech.nanodb.server.performance.PerformanceCounters;
+import edu.caltech.nanodb.server.performance.Counter;
+import edu.caltech.nanodb.server.performance.Metric;
+import edu.caltech.nanodb.server.performance.MetricsRegistry;
 
 
-/** Resets the specified performance counter, and returns the old value. */
+/**
+ * Resets the specified metric, and returns its old value, as
+ * <tt>PERF_COUNTER()</tt> would have returned it.
+ */
 public class ResetPerfCounter extends SimpleFunction {
     @Override
     public ColumnType getReturnType(List<Expression> args, Schema schema) {
-        return new ColumnType(SQLDataType.INTEGER);
+        return new ColumnType(SQLDataType.BIGINT);
     }
 
 
@@ -34,6 +39,16 @@ public class ResetPerfCounter extends SimpleFunction {
         if (argVal == null)
             return null;
 
-        return PerformanceCounters.clear(TypeConverter.getStringValue(argVal));
+        Metric metric = MetricsRegistry.getInstance().getMetric(
+            TypeConverter.getStringValue(argVal));
+
+        if (metric instanceof Counter)
+            return ((Counter) metric).getAndReset();
+
+        long value = ReadPerfCounter.getValue(metric);
+        if (metric != null)
+            metric.reset();
+
+        return value;
     }
 }
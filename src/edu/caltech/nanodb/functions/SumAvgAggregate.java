@@ -85,6 +85,20 @@ public class SumAvgAggregate extends AggregateFunction {
     }
 
 
+    /**
+     * Copies the function, giving the copy its own set of distinct values,
+     * so that copies computing different groups don't share their state.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public Object clone() throws CloneNotSupportedException {
+        SumAvgAggregate agg = (SumAvgAggregate) super.clone();
+        if (set != null)
+            agg.set = (HashSet<Object>) set.clone();
+        return agg;
+    }
+
+
     @Override
     public Object getResult() {
         if (sum == null) {
@@ -0,0 +1,61 @@
+package edu.caltech.nanodb.functions;
+
+
+import java.util.List;
+
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.relations.SQLDataType;
+import edu.caltech.nanodb.storage.BufferManager;
+
+
+/**
+ * The <tt>SYS_BUFFER_POOL()</tt> system table, which reports how the
+ * {@link BufferManager}'s cache is used by each open file:
+ * <ul>
+ *   <li><tt>FILE_NAME</tt> and <tt>FILE_TYPE</tt> - the file and its
+ *       type</li>
+ *   <li><tt>CACHED_PAGES</tt> - the number of the file's pages that are
+ *       cached</li>
+ *   <li><tt>DIRTY_PAGES</tt> - the number of cached pages that haven't been
+ *       written back to the file</li>
+ *   <li><tt>PINNED_PAGES</tt> and <tt>PINS</tt> - the number of cached pages
+ *       that are pinned, and their total pin-count</li>
+ *   <li><tt>CACHED_BYTES</tt> - the size of the cached pages</li>
+ *   <li><tt>PCT_OF_CACHE</tt> - the percentage of the maximum cache size
+ *       that the cached pages use</li>
+ * </ul>
+ */
+public class SysBufferPool extends SystemTableFunction {
+
+    public SysBufferPool() {
+        super("SYS_BUFFER_POOL");
+    }
+
+
+    @Override
+    protected void addColumns() {
+        addColumn("FILE_NAME", varchar(100));
+        addColumn("FILE_TYPE", varchar(30));
+        addColumn("CACHED_PAGES", SQLDataType.INTEGER);
+        addColumn("DIRTY_PAGES", SQLDataType.INTEGER);
+        addColumn("PINNED_PAGES", SQLDataType.INTEGER);
+        addColumn("PINS", SQLDataType.INTEGER);
+        addColumn("CACHED_BYTES", SQLDataType.BIGINT);
+        addColumn("PCT_OF_CACHE", SQLDataType.DOUBLE);
+    }
+
+
+    @Override
+    protected void addRows(List<TupleLiteral> rows) {
+        BufferManager bufferManager = getStorageManager().getBufferManager();
+        long maxCacheSize = bufferManager.getMaxCacheSize();
+
+        for (BufferManager.CachedFileStats stats :
+             bufferManager.getCachedFileStats()) {
+            rows.add(new TupleLiteral(stats.dbFile.toString(),
+                stats.dbFile.getType().toString(), stats.numPages,
+                stats.numDirtyPages, stats.numPinnedPages, stats.numPins,
+                stats.numBytes, 100.0 * stats.numBytes / maxCacheSize));
+        }
+    }
+}
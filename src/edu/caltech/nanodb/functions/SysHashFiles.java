@@ -0,0 +1,112 @@
+package edu.caltech.nanodb.functions;
+
+
+import java.io.IOException;
+import java.util.List;
+import java.util.TreeMap;
+
+import edu.caltech.nanodb.expressions.ExpressionException;
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.relations.SQLDataType;
+import edu.caltech.nanodb.relations.TableInfo;
+import edu.caltech.nanodb.storage.TupleFile;
+import edu.caltech.nanodb.storage.linhash.LinHashTupleFile;
+
+
+/**
+ * The <tt>SYS_HASH_FILES()</tt> system table, which reports the shape of
+ * each open table that is stored in a {@link LinHashTupleFile}:
+ * <ul>
+ *   <li><tt>TABLE_NAME</tt> - the name of the table</li>
+ *   <li><tt>LEVEL</tt> and <tt>NEXT</tt> - the file's level, and the next
+ *       bucket to split in the level</li>
+ *   <li><tt>BUCKETS</tt> - the number of buckets</li>
+ *   <li><tt>OVERFLOW_PAGES</tt> - the number of pages in the overflow
+ *       file</li>
+ *   <li><tt>MAX_CHAIN</tt> and <tt>AVG_CHAIN</tt> - the longest and the
+ *       average length of the buckets' chains of pages, counting the bucket
+ *       pages themselves</li>
+ *   <li><tt>CHAIN_LENGTHS</tt> - how many buckets have chains of each
+ *       length, as <tt><em>length</em>:<em>buckets</em></tt> pairs, such as
+ *       <tt>1:10 2:3</tt> for ten buckets without overflow pages and three
+ *       with one overflow page</li>
+ * </ul>
+ * Long chains concentrated in a few buckets indicate that the table's hash
+ * columns are distributed badly.  Reading the chain lengths loads the header
+ * of every page of the files, but not their tuples.
+ */
+public class SysHashFiles extends SystemTableFunction {
+
+    public SysHashFiles() {
+        super("SYS_HASH_FILES");
+    }
+
+
+    @Override
+    protected void addColumns() {
+        addColumn("TABLE_NAME", varchar(100));
+        addColumn("LEVEL", SQLDataType.INTEGER);
+        addColumn("NEXT", SQLDataType.INTEGER);
+        addColumn("BUCKETS", SQLDataType.INTEGER);
+        addColumn("OVERFLOW_PAGES", SQLDataType.INTEGER);
+        addColumn("MAX_CHAIN", SQLDataType.INTEGER);
+        addColumn("AVG_CHAIN", SQLDataType.DOUBLE);
+        addColumn("CHAIN_LENGTHS", varchar(200));
+    }
+
+
+    @Override
+    protected void addRows(List<TupleLiteral> rows) {
+        for (TableInfo tableInfo :
+             getStorageManager().getTableManager().getOpenTables()) {
+            TupleFile tupleFile = tableInfo.getTupleFile();
+            if (!(tupleFile instanceof LinHashTupleFile))
+                continue;
+
+            try {
+                rows.add(makeRow(tableInfo.getTableName(),
+                    (LinHashTupleFile) tupleFile));
+            }
+            catch (IOException e) {
+                throw new ExpressionException("Couldn't read the hash file " +
+                    "of table " + tableInfo.getTableName(), e);
+            }
+        }
+    }
+
+
+    private TupleLiteral makeRow(String tableName, LinHashTupleFile hashFile)
+        throws IOException {
+
+        int[] chainLengths = hashFile.getChainLengths();
+
+        // The number of buckets with each chain length, in order of length.
+        TreeMap<Integer, Integer> distribution = new TreeMap<Integer, Integer>();
+        int maxChain = 0;
+        long totalChain = 0;
+        for (int chainLength : chainLengths) {
+            Integer count = distribution.get(chainLength);
+            distribution.put(chainLength, (count != null) ? count + 1 : 1);
+
+            maxChain = Math.max(maxChain, chainLength);
+            totalChain += chainLength;
+        }
+
+        StringBuilder buf = new StringBuilder();
+        for (Integer chainLength : distribution.keySet()) {
+            if (buf.length() > 0)
+                buf.append(' ');
+
+            buf.append(chainLength).append(':')
+               .append(distribution.get(chainLength));
+        }
+
+        double avgChain = (chainLengths.length > 0) ?
+            (double) totalChain / chainLengths.length : 0;
+
+        return new TupleLiteral(tableName, hashFile.getLevel(),
+            hashFile.getNext(), chainLengths.length,
+            hashFile.getNumOverflowPages(), maxChain, avgChain,
+            buf.toString());
+    }
+}
@@ -0,0 +1,56 @@
+package edu.caltech.nanodb.functions;
+
+
+import java.util.List;
+
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.relations.SQLDataType;
+import edu.caltech.nanodb.storage.DBFile;
+
+
+/**
+ * The <tt>SYS_IO_STATS()</tt> system table, which reports the IO performed
+ * on each open file since it was opened:
+ * <ul>
+ *   <li><tt>FILE_NAME</tt> and <tt>FILE_TYPE</tt> - the file and its
+ *       type</li>
+ *   <li><tt>PAGES_READ</tt> and <tt>BYTES_READ</tt> - the pages read from
+ *       the file, and their size</li>
+ *   <li><tt>PAGES_WRITTEN</tt> and <tt>BYTES_WRITTEN</tt> - the pages
+ *       written to the file, and their size</li>
+ *   <li><tt>SYNCS</tt> - the number of times the file was synced to
+ *       disk</li>
+ * </ul>
+ * The totals across all files are reported by the <tt>storage.*</tt>
+ * metrics of {@link SysMetrics}.
+ */
+public class SysIOStats extends SystemTableFunction {
+
+    public SysIOStats() {
+        super("SYS_IO_STATS");
+    }
+
+
+    @Override
+    protected void addColumns() {
+        addColumn("FILE_NAME", varchar(100));
+        addColumn("FILE_TYPE", varchar(30));
+        addColumn("PAGES_READ", SQLDataType.BIGINT);
+        addColumn("BYTES_READ", SQLDataType.BIGINT);
+        addColumn("PAGES_WRITTEN", SQLDataType.BIGINT);
+        addColumn("BYTES_WRITTEN", SQLDataType.BIGINT);
+        addColumn("SYNCS", SQLDataType.BIGINT);
+    }
+
+
+    @Override
+    protected void addRows(List<TupleLiteral> rows) {
+        for (DBFile dbFile :
+             getStorageManager().getFileManager().getOpenFiles()) {
+            rows.add(new TupleLiteral(dbFile.toString(),
+                dbFile.getType().toString(), dbFile.getPagesRead(),
+                dbFile.getBytesRead(), dbFile.getPagesWritten(),
+                dbFile.getBytesWritten(), dbFile.getSyncs()));
+        }
+    }
+}
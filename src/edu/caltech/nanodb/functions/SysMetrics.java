@@ -0,0 +1,84 @@
+package edu.caltech.nanodb.functions;
+
+
+import java.util.List;
+
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.relations.SQLDataType;
+import edu.caltech.nanodb.server.performance.Counter;
+import edu.caltech.nanodb.server.performance.Gauge;
+import edu.caltech.nanodb.server.performance.Histogram;
+import edu.caltech.nanodb.server.performance.Metric;
+import edu.caltech.nanodb.server.performance.MetricsRegistry;
+
+
+/**
+ * The <tt>SYS_METRICS()</tt> system table, which has a row for each metric in
+ * the {@link MetricsRegistry}:
+ * <ul>
+ *   <li><tt>NAME</tt> - the name of the metric</li>
+ *   <li><tt>KIND</tt> - <tt>COUNTER</tt>, <tt>GAUGE</tt> or
+ *       <tt>HISTOGRAM</tt></li>
+ *   <li><tt>COUNT</tt> - the value of a counter, or the number of values a
+ *       histogram has recorded</li>
+ *   <li><tt>VALUE</tt> - the value of a counter or gauge, or the mean of a
+ *       histogram</li>
+ *   <li><tt>P50</tt>, <tt>P95</tt>, <tt>P99</tt> and <tt>MAX</tt> - the
+ *       percentiles and maximum of a histogram</li>
+ * </ul>
+ * Columns that don't apply to a kind of metric are <tt>NULL</tt>.
+ */
+public class SysMetrics extends SystemTableFunction {
+
+    public SysMetrics() {
+        super("SYS_METRICS");
+    }
+
+
+    @Override
+    protected void addColumns() {
+        addColumn("NAME", varchar(100));
+        addColumn("KIND", varchar(10));
+        addColumn("COUNT", SQLDataType.BIGINT);
+        addColumn("VALUE", SQLDataType.DOUBLE);
+        addColumn("P50", SQLDataType.BIGINT);
+        addColumn("P95", SQLDataType.BIGINT);
+        addColumn("P99", SQLDataType.BIGINT);
+        addColumn("MAX", SQLDataType.BIGINT);
+    }
+
+
+    @Override
+    protected void addRows(List<TupleLiteral> rows) {
+        for (Metric metric : MetricsRegistry.getInstance().getMetrics()) {
+            TupleLiteral row = new TupleLiteral(metric.getName(),
+                metric.getType().toString());
+
+            if (metric instanceof Histogram) {
+                Histogram histogram = (Histogram) metric;
+                row.addValue(histogram.getCount());
+                row.addValue(histogram.getMean());
+                row.addValue(histogram.getPercentile(50));
+                row.addValue(histogram.getPercentile(95));
+                row.addValue(histogram.getPercentile(99));
+                row.addValue(histogram.getMax());
+            }
+            else {
+                if (metric instanceof Counter) {
+                    long value = ((Counter) metric).get();
+                    row.addValue(value);
+                    row.addValue((double) value);
+                }
+                else {
+                    row.addValue(null);
+                    row.addValue(((Gauge) metric).getValue());
+                }
+
+                for (int i = 0; i < 4; i++)
+                    row.addValue(null);
+            }
+
+            rows.add(row);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package edu.caltech.nanodb.functions;
+
+
+import java.util.List;
+
+import edu.caltech.nanodb.client.SessionState;
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.relations.SQLDataType;
+import edu.caltech.nanodb.transactions.TransactionState;
+
+
+/**
+ * The <tt>SYS_SESSIONS()</tt> system table, which has a row for each client
+ * session that hasn't ended:
+ * <ul>
+ *   <li><tt>SESSION_ID</tt> - the ID of the session</li>
+ *   <li><tt>THREAD_NAME</tt> - the name of the thread that serves the
+ *       session</li>
+ *   <li><tt>STATE</tt> - <tt>ACTIVE</tt> if the session is executing a
+ *       command, or <tt>IDLE</tt> if it isn't</li>
+ *   <li><tt>COMMAND</tt> - the kind of command the session is executing, or
+ *       last executed, such as <tt>SELECT</tt></li>
+ *   <li><tt>COMMAND_MS</tt> - how long the current command has been
+ *       executing, or how long the last command took, in milliseconds</li>
+ *   <li><tt>TXN_ID</tt> - the ID of the session's transaction, or
+ *       <tt>NULL</tt> if it isn't in a transaction</li>
+ *   <li><tt>PREPARED_STATEMENTS</tt> - the number of statements the session
+ *       has prepared</li>
+ * </ul>
+ * The session that reads the table is always <tt>ACTIVE</tt>.
+ */
+public class SysSessions extends SystemTableFunction {
+
+    public SysSessions() {
+        super("SYS_SESSIONS");
+    }
+
+
+    @Override
+    protected void addColumns() {
+        addColumn("SESSION_ID", SQLDataType.INTEGER);
+        addColumn("THREAD_NAME", varchar(100));
+        addColumn("STATE", varchar(10));
+        addColumn("COMMAND", varchar(30));
+        addColumn("COMMAND_MS", SQLDataType.DOUBLE);
+        addColumn("TXN_ID", SQLDataType.INTEGER);
+        addColumn("PREPARED_STATEMENTS", SQLDataType.INTEGER);
+    }
+
+
+    @Override
+    protected void addRows(List<TupleLiteral> rows) {
+        for (SessionState session : SessionState.getSessions()) {
+            TransactionState txnState = session.getTxnState();
+            Integer txnID = null;
+            if (txnState.isTxnInProgress())
+                txnID = txnState.getTransactionID();
+
+            rows.add(new TupleLiteral(session.getSessionID(),
+                session.getOwnerThread().getName(),
+                session.isExecutingCommand() ? "ACTIVE" : "IDLE",
+                session.getCommandName(), session.getCommandNanos() / 1e6,
+                txnID, session.getNumPreparedStatements()));
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package edu.caltech.nanodb.functions;
+
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.caltech.nanodb.expressions.ExpressionException;
+import edu.caltech.nanodb.expressions.OrderByExpression;
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.qeval.ColumnStats;
+import edu.caltech.nanodb.qeval.PlanCost;
+import edu.caltech.nanodb.relations.ColumnInfo;
+import edu.caltech.nanodb.relations.ColumnType;
+import edu.caltech.nanodb.relations.SQLDataType;
+import edu.caltech.nanodb.relations.Schema;
+import edu.caltech.nanodb.relations.Tuple;
+import edu.caltech.nanodb.storage.StorageManager;
+
+
+/**
+ * This is the base class of the table functions that report the state of the
+ * database, such as <tt>SYS_METRICS()</tt>.  A system table takes a snapshot
+ * of its rows when it is initialized, so the rows don't change while a query
+ * reads them, and each execution of the query sees the current state.  A
+ * system table can also be named like a table, as in
+ * <tt>SELECT * FROM sys_sessions</tt>, unless a table has the same name.
+ * <p>
+ * Subclasses specify their columns in {@link #addColumns}, with
+ * {@link #addColumn}, and produce their rows in {@link #addRows}.
+ */
+public abstract class SystemTableFunction extends TableFunction {
+
+    /** The number of rows that system tables are estimated to have. */
+    private static final float ESTIMATED_ROWS = 100;
+
+
+    /** The estimated size of the rows of system tables. */
+    private static final float ESTIMATED_ROW_SIZE = 50;
+
+
+    /** The name of the table, which its columns are qualified with. */
+    private String tableName;
+
+
+    /** The schema of the table, which is computed by {@link #prepare}. */
+    private Schema schema;
+
+
+    /** The cost of reading the table, which is computed by {@link #prepare}. */
+    private PlanCost cost;
+
+
+    /** The stats of the table's columns, which are unknown. */
+    private ArrayList<ColumnStats> stats;
+
+
+    /** The snapshot of the table's rows, taken by {@link #initialize}. */
+    private ArrayList<TupleLiteral> rows;
+
+
+    /** The index of the next row to produce. */
+    private int nextRow;
+
+
+    protected SystemTableFunction(String tableName) {
+        if (tableName == null)
+            throw new IllegalArgumentException("tableName cannot be null");
+
+        this.tableName = tableName;
+    }
+
+
+    public String getTableName() {
+        return tableName;
+    }
+
+
+    /**
+     * Returns the storage manager of the database, for tables that report on
+     * the database's files.
+     *
+     * @return the storage manager of the database
+     *
+     * @throws IllegalStateException if the planner didn't set the storage
+     *         manager
+     */
+    protected StorageManager getStorageManager() {
+        if (storageManager == null) {
+            throw new IllegalStateException(tableName +
+                " wasn't given a storage manager");
+        }
+
+        return storageManager;
+    }
+
+
+    /**
+     * Adds the table's columns to its schema, with {@link #addColumn}.
+     */
+    protected abstract void addColumns();
+
+
+    /**
+     * Adds a column to the table's schema.
+     *
+     * @param name the name of the column
+     * @param type the type of the column
+     */
+    protected void addColumn(String name, SQLDataType type) {
+        addColumn(name, new ColumnType(type));
+    }
+
+
+    /**
+     * Adds a column to the table's schema.
+     *
+     * @param name the name of the column
+     * @param type the type of the column
+     */
+    protected void addColumn(String name, ColumnType type) {
+        schema.addColumnInfo(new ColumnInfo(name, tableName, type));
+        stats.add(new ColumnStats());
+    }
+
+
+    /**
+     * Returns the type of a <tt>VARCHAR</tt> column of the specified length.
+     *
+     * @param length the length of the column
+     *
+     * @return the type of the column
+     */
+    protected static ColumnType varchar(int length) {
+        ColumnType type = new ColumnType(SQLDataType.VARCHAR);
+        type.setLength(length);
+        return type;
+    }
+
+
+    /**
+     * Adds the current rows of the table to a list.  Each row must have a
+     * value for each of the table's columns, in order.
+     *
+     * @param rows the list to add the rows to
+     */
+    protected abstract void addRows(List<TupleLiteral> rows);
+
+
+    /** System tables aren't ordered. */
+    @Override
+    public List<OrderByExpression> resultsOrderedBy() {
+        return null;
+    }
+
+
+    /**
+     * Computes the table's schema.  System tables take no arguments, unless
+     * a subclass overrides this method to check them.
+     *
+     * @throws ExpressionException if the function was called with arguments
+     */
+    @Override
+    public void prepare() {
+        if (!args.isEmpty()) {
+            throw new ExpressionException(tableName +
+                " doesn't take any arguments");
+        }
+
+        schema = new Schema();
+        stats = new ArrayList<ColumnStats>();
+        addColumns();
+
+        cost = new PlanCost(ESTIMATED_ROWS, ESTIMATED_ROW_SIZE,
+            ESTIMATED_ROWS, 0);
+    }
+
+
+    @Override
+    public Schema getSchema() {
+        return schema;
+    }
+
+
+    @Override
+    public PlanCost getCost() {
+        return cost;
+    }
+
+
+    @Override
+    public ArrayList<ColumnStats> getStats() {
+        return stats;
+    }
+
+
+    /** Takes a snapshot of the table's rows. */
+    @Override
+    public void initialize() {
+        rows = new ArrayList<TupleLiteral>();
+        addRows(rows);
+        nextRow = 0;
+    }
+
+
+    @Override
+    public Tuple getNextTuple() {
+        if (rows == null)
+            throw new IllegalStateException(tableName + " isn't initialized");
+
+        if (nextRow >= rows.size())
+            return null;
+
+        return rows.get(nextRow++);
+    }
+
+
+    @Override
+    public void cleanUp() {
+        rows = null;
+    }
+}
@@ -1,11 +1,13 @@
 package edu.caltech.nanodb.functions;
 
 
+import edu.caltech.nanodb.expressions.Expression;
 import edu.caltech.nanodb.expressions.OrderByExpression;
 import edu.caltech.nanodb.qeval.ColumnStats;
 import edu.caltech.nanodb.qeval.PlanCost;
 import edu.caltech.nanodb.relations.Schema;
 import edu.caltech.nanodb.relations.Tuple;
+import edu.caltech.nanodb.storage.StorageManager;
 
 import java.io.IOException;
 import java.util.ArrayList;
@@ -17,6 +19,48 @@ import java.util.List;
  */
 public abstract class TableFunction extends Function {
 
+    /** The arguments that the function was called with. */
+    protected List<Expression> args = new ArrayList<Expression>();
+
+
+    /**
+     * The storage manager of the database that the function is evaluated
+     * against, for functions that report on the database's files.
+     */
+    protected StorageManager storageManager;
+
+
+    /**
+     * Sets the arguments that the function was called with.  This is called
+     * before the function is {@link #prepare prepared}.
+     *
+     * @param args the arguments of the function call
+     */
+    public void setArguments(List<Expression> args) {
+        if (args == null)
+            throw new IllegalArgumentException("args cannot be null");
+
+        this.args = args;
+    }
+
+
+    public List<Expression> getArguments() {
+        return args;
+    }
+
+
+    /**
+     * Sets the storage manager of the database that the function is
+     * evaluated against.  This is called by the planner before the function
+     * is {@link #initialize initialized}.
+     *
+     * @param storageManager the storage manager of the database
+     */
+    public void setStorageManager(StorageManager storageManager) {
+        this.storageManager = storageManager;
+    }
+
+
     /**
      * If the results are ordered in some way, this method returns a collection
      * of expressions specifying what columns or expressions the results are
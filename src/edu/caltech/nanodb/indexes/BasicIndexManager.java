@@ -23,6 +23,7 @@ import edu.caltech.nanodb.storage.SequentialTupleFile;
 import edu.caltech.nanodb.storage.TupleFile;
 import edu.caltech.nanodb.storage.StorageManager;
 import edu.caltech.nanodb.storage.TupleFileManager;
+import edu.caltech.nanodb.transactions.TransactionManager;
 
 
 public class BasicIndexManager implements IndexManager {
@@ -167,6 +168,12 @@ public class BasicIndexManager implements IndexManager {
         TupleFile tableTupleFile = srcTableInfo.getTupleFile();
         TupleFile indexTupleFile = newIndexInfo.getTupleFile();
 
+        // Index files aren't write-ahead logged, so the new index must be
+        // written out and synced before the transaction building it commits.
+        TransactionManager txnManager = storageManager.getTransactionManager();
+        if (txnManager != null)
+            txnManager.syncFileOnCommit(indexTupleFile.getDBFile());
+
         // Traverse the tuples in the table, so we can populate the index.
         PageTuple curTuple = (PageTuple) tableTupleFile.getFirstTuple();
         while (curTuple != null) {
@@ -3,14 +3,21 @@ package edu.caltech.nanodb.plans;
 
 import java.io.IOException;
 
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 
+import edu.caltech.nanodb.client.SessionState;
 import edu.caltech.nanodb.expressions.*;
 import edu.caltech.nanodb.relations.Tuple;
 import edu.caltech.nanodb.storage.*;
+import edu.caltech.nanodb.storage.heapfile.HeapTupleFile;
 import edu.caltech.nanodb.storage.linhash.LinHashTupleFile;
+import edu.caltech.nanodb.transactions.LockException;
+import edu.caltech.nanodb.transactions.LockManager;
+import edu.caltech.nanodb.transactions.LockMode;
+import edu.caltech.nanodb.transactions.LockResource;
+import edu.caltech.nanodb.transactions.Snapshot;
+import edu.caltech.nanodb.transactions.TransactionState;
+import org.apache.commons.lang.ObjectUtils;
 import org.apache.log4j.Logger;
 
 import edu.caltech.nanodb.indexes.IndexInfo;
@@ -24,9 +31,15 @@ import edu.caltech.nanodb.relations.TableInfo;
  * <p>
  * A select plan-node that scans a tuple file, checking the optional predicate
  * against each tuple in the file.  Note that there are no optimizations used
- * if the tuple file is a sequential tuple file. Hashed tuple files have some
- * optimization, provided that the predicate applied to the file-scan contains
- * equality comparisons on the hash key.
+ * if the tuple file is a sequential tuple file.  If the tuple file is hashed,
+ * the planner can give the node a hash key with {@link #setHashKey}, and the
+ * node then only examines the tuples with that key.  The predicate must still
+ * include the comparisons that the key was derived from.
+ * </p>
+ * <p>
+ * A scan of a heap file can also be restricted to a range of the file's
+ * data pages with {@link #setPageRange}, so that a {@link GatherNode} can
+ * split the scan among several threads.
  * </p>
  * <p>
  * This plan node can also be used with indexes, when a "file-scan" is to be
@@ -35,6 +48,17 @@ import edu.caltech.nanodb.relations.TableInfo;
  * ability to look up tuples based on various values, the {@link IndexScanNode}
  * should be used instead.
  * </p>
+ * <p>
+ * If a lock manager is specified, table scans acquire a shared lock on each
+ * tuple they produce.  Scans that probe a hashed tuple file for a key
+ * instead lock the key itself, so that tuples with that key cannot be
+ * inserted or deleted until the transaction completes.
+ * </p>
+ * <p>
+ * Tables that store multiple versions of their tuples are read without
+ * locks when the transaction has a {@link Snapshot}; tuple versions that
+ * aren't visible in the snapshot are skipped.
+ * </p>
  */
 public class FileScanNode extends SelectNode {
 
@@ -68,15 +92,33 @@ public class FileScanNode extends SelectNode {
 
     /**
      * The search key to use for scanning hash files, if applicable. This
-     * field will be null if no hash key can be used, otherwise it will be a
+     * field will be null if no hash key is used, otherwise it will be a
      * TupleLiteral of the key value.
      */
-    private Tuple key;
+    private TupleLiteral key;
+
+
+    /**
+     * The first data page to scan, if the scan is restricted to a range of
+     * pages of a heap file, or 0 if the whole file is scanned.
+     */
+    private int startPageNo;
+
+
+    /** The page after the last data page to scan, if {@link #startPageNo} is set. */
+    private int endPageNo;
 
 
     private boolean jumpToMarkedTuple;
 
 
+    /**
+     * The lock manager used to lock the tuples this node reads, or
+     * {@code null} if no locking is performed.
+     */
+    private LockManager lockManager;
+
+
     /**
      * Construct a file scan node that traverses a table file.
      *
@@ -114,9 +156,132 @@ public class FileScanNode extends SelectNode {
     }
 
 
+    /**
+     * Sets the lock manager that this node uses to lock the tuples it reads.
+     * Locking is only performed for scans over tables, not indexes.
+     *
+     * @param lockManager the lock manager, or {@code null} to disable locking
+     */
+    public void setLockManager(LockManager lockManager) {
+        this.lockManager = lockManager;
+    }
+
+
+    /**
+     * Sets the key that this node uses to probe a hashed tuple file, instead
+     * of scanning the whole file.  The key's values must be of the same
+     * types as the file's hash columns, in the order the hash columns are
+     * specified.
+     *
+     * @param key the hash key to probe for, or {@code null} to scan the whole
+     *        file
+     *
+     * @throws IllegalArgumentException if a key is specified and the tuple
+     *         file isn't a hashed table file with the same number of hash
+     *         columns as the key has values
+     */
+    public void setHashKey(TupleLiteral key) {
+        if (key != null) {
+            if (tableInfo == null || !(tupleFile instanceof LinHashTupleFile)) {
+                throw new IllegalArgumentException(
+                    "Hash keys can only be used with hashed tables");
+            }
+
+            LinHashTupleFile hashFile = (LinHashTupleFile) tupleFile;
+            if (hashFile.getHashColumns().size() != key.getColumnCount()) {
+                throw new IllegalArgumentException("Hash key " + key +
+                    " doesn't match the hash columns of table " +
+                    tableInfo.getTableName());
+            }
+        }
+
+        this.key = key;
+    }
+
+
+    /**
+     * Returns the key that this node uses to probe a hashed tuple file, or
+     * {@code null} if the node scans the whole file.
+     *
+     * @return the hash key, or {@code null} if the node scans the whole file
+     */
+    public TupleLiteral getHashKey() {
+        return key;
+    }
+
+
+    /**
+     * Returns true if this node's scan can be restricted to a range of data
+     * pages with {@link #setPageRange}.  This is only supported for scans
+     * of whole heap files.
+     *
+     * @return true if this node can scan a range of pages
+     */
+    public boolean supportsPageRanges() {
+        return tableInfo != null && tupleFile instanceof HeapTupleFile &&
+               key == null;
+    }
+
+
+    /**
+     * Restricts this node's scan to a range of the heap file's data pages,
+     * so that a table can be scanned by several plans at once, each over its
+     * own range of pages.
+     *
+     * @param startPageNo the first data page to scan, which must be at
+     *        least 1 since page 0 is the file's header page
+     * @param endPageNo the page after the last data page to scan; pages past
+     *        the end of the file are ignored
+     *
+     * @throws IllegalStateException if this node doesn't
+     *         {@link #supportsPageRanges support page ranges}
+     */
+    public void setPageRange(int startPageNo, int endPageNo) {
+        if (!supportsPageRanges()) {
+            throw new IllegalStateException(
+                "Only scans of whole heap files can use page ranges");
+        }
+
+        if (startPageNo < 1 || endPageNo < startPageNo) {
+            throw new IllegalArgumentException("Invalid page range " +
+                startPageNo + " to " + endPageNo);
+        }
+
+        this.startPageNo = startPageNo;
+        this.endPageNo = endPageNo;
+    }
+
+
+    /**
+     * Returns the number of data pages in the tuple file, according to the
+     * table's statistics, or according to the size of the file if the
+     * table hasn't been analyzed.
+     *
+     * @return the number of data pages in the tuple file
+     */
+    public long getNumDataPages() {
+        long numDataPages = tupleFile.getStats().numDataPages;
+        if (numDataPages == 0)
+            numDataPages = getNumFileDataPages();
+
+        return numDataPages;
+    }
+
+
+    /**
+     * Returns the information about the table being scanned.
+     *
+     * @return the table being scanned, or {@code null} if the node scans an
+     *         index
+     */
+    public TableInfo getTableInfo() {
+        return tableInfo;
+    }
+
+
     /**
      * Returns true if the passed-in object is a <tt>FileScanNode</tt> with
-     * the same predicate and table.
+     * the same predicate, table and hash key.
      *
      * @param obj the object to check for equality
      *
@@ -130,7 +295,10 @@ public class FileScanNode extends SelectNode {
             // We don't include the table-info or the index-info since each
             // table or index is in its own tuple file.
             return tupleFile.equals(other.tupleFile) &&
-                    predicate.equals(other.predicate);
+                    ObjectUtils.equals(predicate, other.predicate) &&
+                    ObjectUtils.equals(key, other.key) &&
+                    startPageNo == other.startPageNo &&
+                    endPageNo == other.endPageNo;
         }
 
         return false;
@@ -147,6 +315,8 @@ public class FileScanNode extends SelectNode {
         // We don't include the table-info or the index-info since each table
         // or index is in its own tuple file.
         hash = 31 * hash + tupleFile.hashCode();
+        hash = 31 * hash + ObjectUtils.hashCode(key);
+        hash = 31 * hash + startPageNo;
         return hash;
     }
 
@@ -187,6 +357,17 @@ public class FileScanNode extends SelectNode {
                     "are null!");
         }
 
+        if (key != null)
+            buf.append(", hash key:  ").append(key);
+
+        if (startPageNo != 0) {
+            buf.append(", pages:  ").append(startPageNo).append(" to ");
+            if (endPageNo == Integer.MAX_VALUE)
+                buf.append("end");
+            else
+                buf.append(endPageNo - 1);
+        }
+
         if (predicate != null)
             buf.append(", pred:  ").append(predicate.toString());
 
@@ -197,12 +378,14 @@ public class FileScanNode extends SelectNode {
 
 
     /**
-     * Currently we will always say that the file-scan node produces unsorted
-     * results.  In actuality, a file scan's results will be sorted if the table
-     * file uses a sequential format, but currently we don't have any sequential
-     * file formats.
+     * A file scan produces its results in the order of the tuple file, so
+     * they are sorted if the file uses a sequential format such as a
+     * B<sup>+</sup> tree, and unsorted otherwise.
      */
     public List<OrderByExpression> resultsOrderedBy() {
+        if (tupleFile instanceof SequentialTupleFile)
+            return ((SequentialTupleFile) tupleFile).getOrderSpec();
+
         return null;
     }
 
@@ -233,54 +416,8 @@ public class FileScanNode extends SelectNode {
 
     // Inherit javadocs from base class.
     public void prepare() {
-        // Grab the schema and DBFile
+        // Grab the schema
         schema = tupleFile.getSchema();
-        DBFile dbFile = tupleFile.getDBFile();
-
-        // If we have an extendable hash file, check if we can optimize
-        if (dbFile.getType() == DBFileType.LINEAR_HASH_FILE &&
-                predicate != null) {
-            LinHashTupleFile hashFile = (LinHashTupleFile) tupleFile;
-
-            // Get the hash key columns
-            ArrayList<ColumnName> keyColNames = new ArrayList<>();
-            for (int i : hashFile.getHashColumns()) {
-                keyColNames.add(schema.getColumnInfo(i).getColumnName());
-            }
-
-            // Get predicate conjuncts and check if the predicate is on the
-            // hash key
-            ArrayList<Expression> conjuncts = new ArrayList<>();
-            PredicateUtils.collectConjuncts(predicate, conjuncts);
-            HashMap<ColumnName, Object> predicateValues = new HashMap<>();
-            for (Expression c : conjuncts) {
-                // We only want to look at equality operators
-                if (c instanceof CompareOperator &&
-                        ((CompareOperator) c).getType() ==
-                                CompareOperator.Type.EQUALS) {
-                    // Get column on left and literal on right
-                    ((CompareOperator) c).normalize();
-                    Expression left = ((CompareOperator) c).getLeftExpression();
-                    Expression right = ((CompareOperator) c).getRightExpression();
-                    if (left instanceof ColumnValue &&
-                            right instanceof LiteralValue) {
-                        // If the predicate conjunct in the right format, record it
-                        predicateValues.put(((ColumnValue) left).getColumnName(),
-                                right.evaluate(null));
-                    }
-                }
-            }
-
-            // If our predicate uses the whole hash key, construct a search key
-            // to use
-            if (predicateValues.keySet().containsAll(keyColNames)) {
-                TupleLiteral newKey = new TupleLiteral();
-                for (ColumnName name : keyColNames) {
-                    newKey.addValue(predicateValues.get(name));
-                }
-                key = newKey;
-            }
-        }
 
         // Get table stats
         TableStats tableStats = tupleFile.getStats();
@@ -300,10 +437,24 @@ public class FileScanNode extends SelectNode {
         float numTuples = tableStats.numTuples;
         numTuples *= selectivity;
 
+        // If the table hasn't been analyzed, the size of the file is still a
+        // better estimate of the scan's IO cost than zero.
+        long numDataPages = getNumDataPages();
+
         // The CPU cost will be proportional to the total number of tuples, not
-        // the number of tuples we expect to output.
-        cost = new PlanCost(numTuples, tableStats.avgTupleSize,
-                tableStats.numTuples, tableStats.numDataPages);
+        // the number of tuples we expect to output.  A hash-key probe only
+        // examines the tuples with the key, which are in about the same
+        // fraction of the file's pages.
+        float cpuCost = tableStats.numTuples;
+        if (key != null) {
+            float keySelectivity = estimateHashKeySelectivity();
+            cpuCost *= keySelectivity;
+            numDataPages = Math.max(1,
+                (long) Math.ceil(numDataPages * keySelectivity));
+        }
+
+        cost = new PlanCost(numTuples, tableStats.avgTupleSize, cpuCost,
+                numDataPages);
 
         // TODO:  We should also update the table statistics based on the
         //        predicate, but that's too complicated, so we'll leave them
@@ -311,6 +462,49 @@ public class FileScanNode extends SelectNode {
     }
 
 
+    /**
+     * Estimates the fraction of the file's tuples that have the hash key, by
+     * building the equality comparisons that the key represents and passing
+     * them to the {@link SelectivityEstimator}.
+     *
+     * @return the estimated selectivity of the hash key
+     */
+    private float estimateHashKeySelectivity() {
+        List<Integer> hashColumns =
+            ((LinHashTupleFile) tupleFile).getHashColumns();
+
+        BooleanOperator keyPred =
+            new BooleanOperator(BooleanOperator.Type.AND_EXPR);
+        for (int i = 0; i < hashColumns.size(); i++) {
+            ColumnName colName =
+                schema.getColumnInfo(hashColumns.get(i)).getColumnName();
+            keyPred.addTerm(new CompareOperator(CompareOperator.Type.EQUALS,
+                new ColumnValue(colName), new LiteralValue(key.getColumnValue(i))));
+        }
+
+        return SelectivityEstimator.estimateSelectivity(keyPred, schema, stats);
+    }
+
+
+    /**
+     * Returns the number of data pages in the tuple file, or 0 if the number
+     * of pages can't be determined.
+     *
+     * @return the number of data pages in the tuple file
+     */
+    long getNumFileDataPages() {
+        try {
+            // The first page of the file is a header page.
+            return Math.max(0, tupleFile.getDBFile().getNumPages() - 1);
+        }
+        catch (IOException e) {
+            logger.warn("Couldn't get the size of file " +
+                tupleFile.getDBFile(), e);
+            return 0;
+        }
+    }
+
+
     public void initialize() {
         super.initialize();
 
@@ -321,7 +515,7 @@ public class FileScanNode extends SelectNode {
 
 
     public void cleanUp() {
-        // Nothing to do!
+        SubqueryOperator.cleanUp(predicate);
     }
 
 
@@ -347,22 +541,113 @@ public class FileScanNode extends SelectNode {
             return;
         }
 
+        do {
+            fetchNextTuple();
+        }
+        while (currentTuple != null && !isVisible(currentTuple));
+    }
+
+
+    /**
+     * Moves to the next tuple in the file, or the next tuple with the search
+     * key, regardless of whether it is visible to the current transaction.
+     *
+     * @throws IOException if the tuple file couldn't be read
+     */
+    private void fetchNextTuple() throws IOException {
         if (currentTuple == null)
             // Use optimized scan if possible
-            if (key == null) {
+            if (startPageNo != 0) {
+                currentTuple = ((HeapTupleFile)
+                        tupleFile).getFirstTupleInPages(startPageNo, endPageNo);
+            } else if (key == null) {
                 currentTuple = tupleFile.getFirstTuple();
             } else {
+                // Lock the key before probing, so that no matching tuples
+                // can appear or disappear while the transaction runs.
+                if (isLocking()) {
+                    acquireLock(LockResource.forHashKey(
+                        tableInfo.getTableName(), TupleHasher.hashTuple(key)));
+                }
+
                 currentTuple = ((LinHashTupleFile)
                         tupleFile).findFirstTupleEquals(key);
             }
         else
             // Use optimized scan if possible
-            if (key == null) {
+            if (startPageNo != 0) {
+                currentTuple = ((HeapTupleFile)
+                        tupleFile).getNextTupleInPages(currentTuple, endPageNo);
+            } else if (key == null) {
                 currentTuple = tupleFile.getNextTuple(currentTuple);
             } else {
                 currentTuple = ((LinHashTupleFile)
                         tupleFile).findNextTupleEquals(currentTuple);
             }
+
+        // Tuples found with a key probe are covered by the lock on the key.
+        if (currentTuple != null && key == null && isLocking())
+            acquireLock(LockResource.forTuple(tableInfo, currentTuple));
+    }
+
+
+    /**
+     * Returns true if the specified tuple is visible to the current
+     * transaction.  Unversioned tuples are always visible; versioned tuples
+     * are checked by {@link TransactionState#isVisible}.  Without a
+     * snapshot, the tuple has already been locked.
+     *
+     * @param tuple the tuple to check
+     *
+     * @return true if the tuple should be produced by the scan
+     */
+    private boolean isVisible(Tuple tuple) {
+        if (!(tuple instanceof PageTuple) || !((PageTuple) tuple).isVersioned())
+            return true;
+
+        return SessionState.get().getTxnState().isVisible((PageTuple) tuple);
+    }
+
+
+    /**
+     * Returns true if this node locks the tuples it reads:  it must have a
+     * lock manager, be scanning a table, and be running in a transaction.
+     * Versioned tables aren't locked when the transaction reads from a
+     * snapshot.
+     *
+     * @return true if this node should acquire locks
+     */
+    private boolean isLocking() {
+        if (lockManager == null || tableInfo == null)
+            return false;
+
+        TransactionState txnState = SessionState.get().getTxnState();
+        if (!txnState.isTxnInProgress())
+            return false;
+
+        return txnState.getSnapshot() == null ||
+               !tableInfo.getSchema().isVersioned();
+    }
+
+
+    /**
+     * Acquires a shared lock on the specified resource for the current
+     * transaction.
+     *
+     * @param resource the resource to lock
+     *
+     * @throws IOException if the lock couldn't be acquired; the cause is the
+     *         {@link LockException} reported by the lock manager
+     */
+    private void acquireLock(LockResource resource) throws IOException {
+        TransactionState txnState = SessionState.get().getTxnState();
+        try {
+            lockManager.acquireLock(txnState.getTransactionID(), resource,
+                LockMode.SHARED);
+        }
+        catch (LockException e) {
+            throw new IOException("Couldn't lock " + resource, e);
+        }
     }
 
 
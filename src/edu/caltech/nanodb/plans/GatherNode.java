@@ -0,0 +1,728 @@
+package edu.caltech.nanodb.plans;
+
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.log4j.Logger;
+
+import edu.caltech.nanodb.client.SessionState;
+import edu.caltech.nanodb.expressions.OrderByExpression;
+import edu.caltech.nanodb.expressions.TupleBatch;
+import edu.caltech.nanodb.qeval.PlanCost;
+import edu.caltech.nanodb.relations.JoinType;
+import edu.caltech.nanodb.relations.Tuple;
+import edu.caltech.nanodb.storage.PageAccessCounters;
+
+
+/**
+ * <p>
+ * An exchange plan node that evaluates several copies of its subplan in
+ * parallel, and gathers their results.  The subplan must read one table with
+ * a {@link FileScanNode} over a heap file; each copy of the subplan scans its
+ * own range of the file's data pages, in a worker thread of a shared
+ * {@link ForkJoinPool}.  Everything the subplan does with the scanned tuples,
+ * such as filtering, projecting and probing a hash join, is then also done
+ * in parallel.  {@link #findPartitionedScan} specifies the subplans that can
+ * be evaluated this way.
+ * </p>
+ * <p>
+ * The workers produce their results in batches, which are copied onto a
+ * bounded queue that this node reads from, so the results are in no
+ * particular order.  If the subplan is a {@link HashedGroupAggregateNode}
+ * instead, each worker computes partial aggregates over its part of the
+ * input, and this node merges the workers' groups and produces the combined
+ * groups.
+ * </p>
+ * <p>
+ * The workers use the session of the thread that evaluates this node, so that
+ * the pages they pin and the locks they acquire belong to the session's
+ * command and transaction.  The subplan must only read tables.
+ * </p>
+ */
+public class GatherNode extends PlanNode {
+
+    /** A logging object for reporting anything interesting that happens. */
+    private static Logger logger = Logger.getLogger(GatherNode.class);
+
+
+    /**
+     * This property can be used to specify the most copies of a subplan that
+     * the planner will evaluate in parallel.  A value of 1 disables parallel
+     * evaluation.
+     */
+    public static final String PROP_MAX_DEGREE = "nanodb.exec.parallelism";
+
+
+    /**
+     * This property can be used to specify the fewest data pages of a table
+     * that the planner will give each copy of a subplan to scan.  Smaller
+     * tables are scanned by fewer copies, or by just one.
+     */
+    public static final String PROP_MIN_PAGES = "nanodb.exec.parallel.minpages";
+
+
+    /** The default minimum number of data pages for each copy is 64. */
+    public static final int DEFAULT_MIN_PAGES = 64;
+
+
+    /** The number of result batches each worker may have waiting. */
+    private static final int BATCHES_PER_WORKER = 4;
+
+
+    /**
+     * A batch that a worker adds to the queue when it is finished, whether
+     * or not it succeeded.
+     */
+    private static final TupleBatch END_OF_RESULTS = new TupleBatch(0, 1);
+
+
+    /** The thread pool that all gather nodes' workers run in. */
+    private static ForkJoinPool workerPool;
+
+
+    /** The number of copies of the subplan to evaluate in parallel. */
+    private int degree;
+
+
+    /** The copies of the subplan that the workers are evaluating. */
+    private ArrayList<PlanNode> workerPlans;
+
+
+    /** The results the workers have produced but this node hasn't yet. */
+    private BlockingQueue<TupleBatch> results;
+
+
+    /** The number of workers that have finished. */
+    private int workersFinished;
+
+
+    /** The first error reported by a worker, if any. */
+    private AtomicReference<Throwable> failure;
+
+
+    /** Set when the workers should stop before producing all results. */
+    private volatile boolean cancelled;
+
+
+    /**
+     * The number of pages that finished workers found in the buffer manager,
+     * which haven't been counted by this node's thread yet.
+     */
+    private AtomicLong workerPagesHit;
+
+
+    /**
+     * The number of pages that finished workers read from their files, which
+     * haven't been counted by this node's thread yet.
+     */
+    private AtomicLong workerPagesRead;
+
+
+    /**
+     * The node that the workers' partial groups are merged into, if the
+     * subplan is a hashed grouping/aggregate node.
+     */
+    private HashedGroupAggregateNode mergedGroups;
+
+
+    /** The batch that results are currently being produced from. */
+    private TupleBatch currentBatch;
+
+
+    /** The next row of {@link #currentBatch} to produce. */
+    private int currentRow;
+
+
+    /**
+     * Constructs a gather node that evaluates copies of the specified
+     * subplan in parallel.
+     *
+     * @param subplan the subplan to evaluate in parallel, which must have a
+     *        scan that {@link #findPartitionedScan} can find
+     * @param degree the number of copies of the subplan to evaluate, which
+     *        must be at least 1
+     */
+    public GatherNode(PlanNode subplan, int degree) {
+        super(OperationType.EXCHANGE, subplan);
+
+        if (degree < 1)
+            throw new IllegalArgumentException("degree must be at least 1");
+
+        if (findPartitionedScan(subplan) == null) {
+            throw new IllegalArgumentException("Subplan " + subplan +
+                " doesn't have a scan that can be split into page ranges");
+        }
+
+        this.degree = degree;
+    }
+
+
+    /**
+     * Returns the scan that is split among the copies of a subplan when the
+     * subplan is evaluated in parallel, or {@code null} if the subplan can't
+     * be evaluated in parallel.  Each copy of the subplan must produce the
+     * results for the tuples in its part of the scan, regardless of the
+     * other copies, so the scan can only be reached through filters,
+     * projections, renames, and the outer input of nested-loop joins and
+     * hash joins that produce results for each outer tuple on its own.
+     * A hashed grouping/aggregate node whose aggregates can be combined may
+     * also be at the top of the subplan.
+     *
+     * @param plan the subplan to examine
+     *
+     * @return the scan that the subplan's copies divide among themselves,
+     *         or {@code null} if the subplan can't be evaluated in parallel
+     */
+    public static FileScanNode findPartitionedScan(PlanNode plan) {
+        if (plan instanceof HashedGroupAggregateNode) {
+            if (!((HashedGroupAggregateNode) plan).supportsPartialAggregation())
+                return null;
+
+            plan = plan.leftChild;
+        }
+
+        while (true) {
+            if (plan instanceof FileScanNode) {
+                FileScanNode scan = (FileScanNode) plan;
+                return scan.supportsPageRanges() ? scan : null;
+            }
+            else if (plan instanceof SimpleFilterNode ||
+                     plan instanceof ProjectNode ||
+                     plan instanceof RenameNode) {
+                plan = plan.leftChild;
+            }
+            else if (plan instanceof HashJoinNode ||
+                     plan instanceof NestedLoopsJoinNode) {
+                JoinType joinType = ((ThetaJoinNode) plan).joinType;
+                if (joinType != JoinType.CROSS && joinType != JoinType.INNER &&
+                    joinType != JoinType.LEFT_OUTER &&
+                    joinType != JoinType.SEMIJOIN &&
+                    joinType != JoinType.ANTIJOIN) {
+                    return null;
+                }
+
+                plan = plan.leftChild;
+            }
+            else {
+                return null;
+            }
+        }
+    }
+
+
+    /**
+     * Returns the thread pool that the workers of all gather nodes run in,
+     * creating it with one thread per processor if necessary.
+     *
+     * @return the thread pool for the workers
+     */
+    private static synchronized ForkJoinPool getWorkerPool() {
+        if (workerPool == null)
+            workerPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+        return workerPool;
+    }
+
+
+    /**
+     * Returns the most copies of a subplan that the planner will evaluate in
+     * parallel, as specified by the {@link #PROP_MAX_DEGREE} property.  By
+     * default this is the number of processors.
+     *
+     * @return the maximum degree of parallelism
+     */
+    public static int getMaxDegree() {
+        return Math.max(1, Integer.getInteger(PROP_MAX_DEGREE,
+            Runtime.getRuntime().availableProcessors()));
+    }
+
+
+    /**
+     * Returns the fewest data pages that the planner will give each copy of a
+     * subplan to scan, as specified by the {@link #PROP_MIN_PAGES} property.
+     *
+     * @return the minimum number of data pages for each copy of a subplan
+     */
+    public static int getMinPagesPerWorker() {
+        return Math.max(1, Integer.getInteger(PROP_MIN_PAGES,
+            DEFAULT_MIN_PAGES));
+    }
+
+
+    /**
+     * Returns the number of copies of the subplan that are evaluated in
+     * parallel.
+     *
+     * @return the number of copies of the subplan evaluated in parallel
+     */
+    public int getDegree() {
+        return degree;
+    }
+
+
+    /** The results of the workers are gathered in no particular order. */
+    public List<OrderByExpression> resultsOrderedBy() {
+        return null;
+    }
+
+
+    /** The gather node doesn't support marking. */
+    public boolean supportsMarking() {
+        return false;
+    }
+
+
+    /** The gather node doesn't require marking from its child. */
+    public boolean requiresLeftMarking() {
+        return false;
+    }
+
+
+    /** The gather node doesn't require marking from its child. */
+    public boolean requiresRightMarking() {
+        return false;
+    }
+
+
+    // Inherit javadocs from base class.
+    public void prepare() {
+        // Need to prepare the left child-node before we can do our own work.
+        leftChild.prepare();
+
+        // The schema and stats are the same as the child's.
+        schema = leftChild.getSchema();
+        stats = leftChild.getStats();
+
+        // The work of the subplan is divided among the workers, but each of
+        // the subplan's results must still be passed through this node.
+        PlanCost childCost = leftChild.getCost();
+        if (childCost != null) {
+            cost = new PlanCost(childCost);
+            cost.cpuCost = childCost.cpuCost / degree + childCost.numTuples;
+        }
+    }
+
+
+    public void initialize() {
+        super.initialize();
+
+        // Stop any workers that are still running from a previous
+        // evaluation of the subplan.
+        stopWorkers();
+
+        if (mergedGroups != null) {
+            addCopyMetrics(mergedGroups);
+            mergedGroups = null;
+        }
+
+        currentBatch = null;
+        currentRow = 0;
+    }
+
+
+    /**
+     * Starts evaluating the copies of the subplan.  The scanned file's data
+     * pages are split into one contiguous range per copy; the last range
+     * extends to the end of the file, in case the file grows.
+     */
+    private void startWorkers() {
+        FileScanNode scan = findPartitionedScan(leftChild);
+        long numPages = scan.getNumFileDataPages();
+
+        logger.debug(String.format("Scanning %d pages of %s with %d workers",
+            numPages, scan.getTableInfo().getTableName(), degree));
+
+        results = new ArrayBlockingQueue<TupleBatch>(degree * BATCHES_PER_WORKER);
+        workersFinished = 0;
+        failure = new AtomicReference<Throwable>();
+        workerPagesHit = new AtomicLong();
+        workerPagesRead = new AtomicLong();
+        cancelled = false;
+
+        SessionState session = SessionState.get();
+        int batchSize = getBatchSize();
+
+        workerPlans = new ArrayList<PlanNode>(degree);
+        for (int i = 0; i < degree; i++) {
+            // The header page is page 0, so the data pages start at page 1.
+            int startPageNo = (int) (1 + i * numPages / degree);
+            int endPageNo = (i == degree - 1) ? Integer.MAX_VALUE :
+                (int) (1 + (i + 1) * numPages / degree);
+
+            PlanNode plan = leftChild.duplicate();
+            findPartitionedScan(plan).setPageRange(startPageNo, endPageNo);
+            workerPlans.add(plan);
+        }
+
+        ForkJoinPool pool = getWorkerPool();
+        for (PlanNode plan : workerPlans)
+            pool.execute(new Worker(plan, session, batchSize));
+    }
+
+
+    /**
+     * Tells any running workers to stop, and waits until they have all
+     * finished, discarding their results.
+     */
+    private void stopWorkers() {
+        if (workerPlans == null)
+            return;
+
+        cancelled = true;
+
+        // Keep taking results off the queue, so that workers that are
+        // waiting for space on the queue can see that they must stop.
+        boolean interrupted = false;
+        while (workersFinished < degree) {
+            try {
+                if (results.take() == END_OF_RESULTS)
+                    workersFinished++;
+            }
+            catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        if (interrupted)
+            Thread.currentThread().interrupt();
+
+        claimWorkerPages();
+        for (PlanNode plan : workerPlans) {
+            plan.cleanUp();
+            addCopyMetrics(plan);
+        }
+
+        workerPlans = null;
+        results = null;
+    }
+
+
+    /**
+     * Adds the metrics of a finished copy of the subplan to the subplan's
+     * metrics, if metrics are being recorded.
+     *
+     * @param copy the copy of the subplan
+     */
+    private void addCopyMetrics(PlanNode copy) {
+        if (getMetrics() != null)
+            leftChild.addMetrics(copy);
+    }
+
+
+    /**
+     * Counts the pages that finished workers loaded as if this node's thread
+     * loaded them, so that they are included in the metrics of this node and
+     * of the nodes above it.
+     */
+    private void claimWorkerPages() {
+        PageAccessCounters.forCurrentThread().add(
+            workerPagesHit.getAndSet(0), workerPagesRead.getAndSet(0));
+    }
+
+
+    /**
+     * Returns the next batch of results from the workers, waiting for one
+     * if necessary.
+     *
+     * @return the next batch of results, or {@code null} if all workers have
+     *         finished
+     *
+     * @throws IOException if a worker failed with an {@code IOException}
+     */
+    private TupleBatch takeBatch() throws IOException {
+        if (workerPlans == null)
+            startWorkers();
+
+        while (workersFinished < degree) {
+            TupleBatch batch;
+            try {
+                batch = results.take();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for results", e);
+            }
+
+            if (batch != END_OF_RESULTS)
+                return batch;
+
+            workersFinished++;
+            claimWorkerPages();
+            checkFailure();
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Reports the error that a worker failed with, if any.
+     *
+     * @throws IOException if a worker failed with an {@code IOException}
+     */
+    private void checkFailure() throws IOException {
+        Throwable t = failure.get();
+        if (t == null)
+            return;
+
+        if (t instanceof IOException)
+            throw new IOException("A worker failed:  " + t.getMessage(), t);
+        else if (t instanceof RuntimeException)
+            throw (RuntimeException) t;
+        else if (t instanceof Error)
+            throw (Error) t;
+        else
+            throw new IOException("A worker failed", t);
+    }
+
+
+    /**
+     * Once all workers have computed their partial groups, merges the
+     * groups into one hashed grouping/aggregate node, which then produces
+     * this node's results.
+     *
+     * @throws IOException if a worker failed with an {@code IOException}
+     */
+    private void mergeGroups() throws IOException {
+        if (takeBatch() != null)
+            throw new IllegalStateException("Workers produced groups as results");
+
+        mergedGroups = (HashedGroupAggregateNode) leftChild.duplicate();
+        mergedGroups.initialize();
+        for (PlanNode plan : workerPlans)
+            mergedGroups.mergeGroups((HashedGroupAggregateNode) plan);
+
+        // The workers' groups are no longer needed.
+        stopWorkers();
+    }
+
+
+    protected Tuple produceNextTuple() throws IOException {
+        if (leftChild instanceof HashedGroupAggregateNode) {
+            if (mergedGroups == null)
+                mergeGroups();
+
+            return mergedGroups.getNextTuple();
+        }
+
+        if (currentBatch == null || currentRow == currentBatch.size()) {
+            currentBatch = takeBatch();
+            currentRow = 0;
+            if (currentBatch == null)
+                return null;
+        }
+
+        return currentBatch.getTuple(currentRow++);
+    }
+
+
+    /** The gather node produces the workers' results in batches. */
+    @Override
+    public boolean supportsBatchExecution() {
+        return true;
+    }
+
+
+    @Override
+    protected TupleBatch produceNextBatch(int maxRows) throws IOException {
+        if (leftChild instanceof HashedGroupAggregateNode) {
+            if (mergedGroups == null)
+                mergeGroups();
+
+            return mergedGroups.getNextBatch(maxRows);
+        }
+
+        if (currentBatch == null || currentRow == currentBatch.size()) {
+            currentBatch = takeBatch();
+            currentRow = 0;
+            if (currentBatch == null)
+                return null;
+        }
+
+        // Workers' batches are usually returned as they are, but they are
+        // split up if they have more rows than were requested.
+        TupleBatch batch;
+        if (currentRow == 0 && currentBatch.size() <= maxRows) {
+            batch = currentBatch;
+        }
+        else {
+            int count = Math.min(maxRows, currentBatch.size() - currentRow);
+            batch = currentBatch.copyRows(currentRow, count);
+        }
+
+        currentRow += batch.size();
+        return batch;
+    }
+
+
+    /** The gather node doesn't support marking. */
+    public void markCurrentPosition() {
+        throw new UnsupportedOperationException(
+            "Gather plan-node doesn't support marking.");
+    }
+
+
+    /** The gather node doesn't support marking. */
+    public void resetToLastMark() {
+        throw new UnsupportedOperationException(
+            "Gather plan-node doesn't support marking.");
+    }
+
+
+    public void cleanUp() {
+        stopWorkers();
+
+        if (mergedGroups != null) {
+            mergedGroups.cleanUp();
+            addCopyMetrics(mergedGroups);
+            mergedGroups = null;
+        }
+
+        currentBatch = null;
+    }
+
+
+    @Override
+    public String toString() {
+        return "Gather[degree:  " + degree + "]";
+    }
+
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj instanceof GatherNode) {
+            GatherNode other = (GatherNode) obj;
+
+            return degree == other.degree &&
+                   leftChild.equals(other.leftChild);
+        }
+        return false;
+    }
+
+
+    @Override
+    public int hashCode() {
+        int hash = 17;
+        hash = 31 * hash + degree;
+        hash = 31 * hash + leftChild.hashCode();
+        return hash;
+    }
+
+
+    /**
+     * Creates a copy of this gather node and its subtree.  This method is
+     * used by {@link PlanNode#duplicate} to copy a plan tree.
+     */
+    @Override
+    protected PlanNode clone() throws CloneNotSupportedException {
+        GatherNode node = (GatherNode) super.clone();
+
+        // The copy must not share any execution state with this node.
+        node.workerPlans = null;
+        node.results = null;
+        node.failure = null;
+        node.workerPagesHit = null;
+        node.workerPagesRead = null;
+        node.mergedGroups = null;
+        node.currentBatch = null;
+
+        return node;
+    }
+
+
+    /**
+     * Evaluates one copy of the subplan in a worker thread, adding copies of
+     * its result batches to the queue.  If the subplan is a hashed
+     * grouping/aggregate node, the worker only computes its groups, which
+     * are merged once all workers have finished.
+     */
+    private class Worker implements Runnable {
+        /** The copy of the subplan to evaluate. */
+        private PlanNode plan;
+
+
+        /** The session that the subplan is evaluated for. */
+        private SessionState session;
+
+
+        /** The number of tuples to request from the subplan at a time. */
+        private int batchSize;
+
+
+        Worker(PlanNode plan, SessionState session, int batchSize) {
+            this.plan = plan;
+            this.session = session;
+            this.batchSize = batchSize;
+        }
+
+
+        public void run() {
+            SessionState.set(session);
+
+            PageAccessCounters pages = PageAccessCounters.forCurrentThread();
+            long pagesHit = pages.getPagesHit();
+            long pagesRead = pages.getPagesRead();
+            try {
+                plan.initialize();
+
+                if (plan instanceof HashedGroupAggregateNode) {
+                    ((HashedGroupAggregateNode) plan).computePartialGroups();
+                }
+                else {
+                    while (!cancelled) {
+                        TupleBatch batch = plan.getNextBatch(batchSize);
+                        if (batch == null)
+                            break;
+
+                        // The subplan may reuse the batch's vectors, so a
+                        // copy is handed over.
+                        results.put(batch.copyRows(0, batch.size()));
+                    }
+                }
+            }
+            catch (Throwable t) {
+                if (!failure.compareAndSet(null, t))
+                    logger.debug("Another worker already failed", t);
+
+                cancelled = true;
+            }
+            finally {
+                SessionState.remove();
+
+                workerPagesHit.addAndGet(pages.getPagesHit() - pagesHit);
+                workerPagesRead.addAndGet(pages.getPagesRead() - pagesRead);
+                putEndOfResults();
+            }
+        }
+
+
+        /**
+         * Tells the gather node that this worker is finished.  This must
+         * succeed even if the thread is interrupted, or the gather node would
+         * wait forever.
+         */
+        private void putEndOfResults() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    results.put(END_OF_RESULTS);
+                    break;
+                }
+                catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,1044 @@
+package edu.caltech.nanodb.plans;
+
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import edu.caltech.nanodb.expressions.BatchEvaluator;
+import edu.caltech.nanodb.expressions.CompareOperator;
+import edu.caltech.nanodb.expressions.Expression;
+import edu.caltech.nanodb.expressions.OrderByExpression;
+import edu.caltech.nanodb.expressions.PredicateUtils;
+import edu.caltech.nanodb.expressions.SubqueryOperator;
+import edu.caltech.nanodb.expressions.TupleBatch;
+import edu.caltech.nanodb.expressions.TupleHasher;
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.qeval.ColumnStats;
+import edu.caltech.nanodb.qeval.PlanCost;
+import edu.caltech.nanodb.qeval.SelectivityEstimator;
+import edu.caltech.nanodb.relations.ColumnInfo;
+import edu.caltech.nanodb.relations.JoinType;
+import edu.caltech.nanodb.relations.SQLDataType;
+import edu.caltech.nanodb.relations.Schema;
+import edu.caltech.nanodb.relations.SchemaNameException;
+import edu.caltech.nanodb.relations.Tuple;
+import edu.caltech.nanodb.storage.DBFile;
+
+
+/**
+ * This plan node implements an equijoin using hashing.  The right child is
+ * the <em>build</em> input:  it is read into an in-memory hash table keyed on
+ * its join columns, and then the left child (the <em>probe</em> input) is
+ * read, with each tuple looked up in the hash table.  The join predicate must
+ * contain at least one conjunct of the form <tt>left-expr = right-expr</tt>
+ * to hash on; the entire predicate is still evaluated against each pair of
+ * tuples that hash to the same key, so other conjuncts are also allowed.
+ * <p>
+ * The hash table is split into {@link #NUM_PARTITIONS} partitions on the
+ * join key.  If the build input doesn't fit within the memory budget
+ * specified by {@link #PROP_MEMORY_BUDGET}, the largest in-memory partitions
+ * are spilled to temporary files until the rest fits (a hybrid hash join).
+ * Probe tuples that fall into a spilled partition are also written to a
+ * temporary file, and once the probe input is exhausted each spilled
+ * partition is joined in turn, partitioning it again with a different hash
+ * function if it still doesn't fit in memory.
+ * <p>
+ * Both children are read in batches, and the join keys are evaluated over
+ * each whole batch before its tuples are added to the hash table or looked
+ * up in it.
+ * <p>
+ * Since only the probe input is streamed, this node can evaluate inner joins,
+ * left outer joins, semijoins and antijoins.  A right outer join is evaluated
+ * as a left outer join with the children swapped.
+ */
+public class HashJoinNode extends ThetaJoinNode {
+    /** A logging object for reporting anything interesting that happens. */
+    private static Logger logger = Logger.getLogger(HashJoinNode.class);
+
+
+    /**
+     * This property can be used to specify the number of bytes of memory the
+     * hash table may use before partitions are spilled to disk.
+     */
+    public static final String PROP_MEMORY_BUDGET = "nanodb.hashjoin.memory";
+
+
+    /** The default memory budget for the hash table is 4MiB. */
+    public static final long DEFAULT_MEMORY_BUDGET = 4 * 1024 * 1024;
+
+
+    /** The number of partitions the build and probe inputs are split into. */
+    public static final int NUM_PARTITIONS = 32;
+
+
+    /**
+     * The maximum number of times a spilled partition is partitioned again.
+     * A partition that still doesn't fit in memory at this depth probably
+     * holds many tuples with the same key, so further partitioning won't
+     * help and it is simply loaded into memory.
+     */
+    private static final int MAX_PARTITION_LEVEL = 4;
+
+
+    /**
+     * This helper class holds one spilled partition that is waiting to be
+     * joined, along with how many times its tuples have been partitioned.
+     */
+    private static class SpilledPartition {
+        SpillFile buildFile;
+
+        SpillFile probeFile;
+
+        int level;
+
+        SpilledPartition(SpillFile buildFile, SpillFile probeFile, int level) {
+            this.buildFile = buildFile;
+            this.probeFile = probeFile;
+            this.level = level;
+        }
+    }
+
+
+    /** The join-key expressions evaluated against the probe (left) input. */
+    private ArrayList<Expression> probeKeyExprs;
+
+
+    /** The join-key expressions evaluated against the build (right) input. */
+    private ArrayList<Expression> buildKeyExprs;
+
+
+    /** The evaluators of the probe key expressions over probe batches. */
+    private BatchEvaluator[] probeKeyEvaluators;
+
+
+    /** The evaluators of the build key expressions over build batches. */
+    private BatchEvaluator[] buildKeyEvaluators;
+
+
+    /** The memory budget for the hash table, in bytes. */
+    private long memoryBudget;
+
+
+    /**
+     * The hash table for each partition of the current pass, or {@code null}
+     * for partitions that have been spilled.
+     */
+    private List<HashMap<TupleLiteral, ArrayList<TupleLiteral>>> partitionTables;
+
+
+    /** The estimated memory used by each in-memory partition. */
+    private long[] partitionSizes;
+
+
+    /** The estimated memory used by all in-memory partitions. */
+    private long memoryUsed;
+
+
+    /** The build tuples of each spilled partition of the current pass. */
+    private SpillFile[] buildSpills;
+
+
+    /** The probe tuples of each spilled partition of the current pass. */
+    private SpillFile[] probeSpills;
+
+
+    /** The number of times the current pass' tuples have been partitioned. */
+    private int level;
+
+
+    /**
+     * The spill file probe tuples are read from in the current pass, or
+     * {@code null} if they are read from the left child.
+     */
+    private SpillFile probeSource;
+
+
+    /** Spilled partitions waiting to be joined in a later pass. */
+    private ArrayDeque<SpilledPartition> pendingPartitions;
+
+
+    /** A tuple of all <tt>NULL</tt>s, for padding left outer join results. */
+    private TupleLiteral nullBuildTuple;
+
+
+    /**
+     * The current batch of probe tuples from the left child, or
+     * {@code null} if the next batch hasn't been read yet.
+     */
+    private TupleBatch probeBatch;
+
+
+    /** The number of the next tuple of the probe batch to join. */
+    private int probeBatchPos;
+
+
+    /** The values of the probe key expressions for the probe batch. */
+    private Object[][] probeKeyVectors;
+
+
+    /**
+     * The join key of the tuple most recently returned by
+     * {@link #nextProbeTuple}, or {@code null} if any part of it is
+     * <tt>NULL</tt>.
+     */
+    private TupleLiteral nextProbeKey;
+
+
+    /** The probe tuple currently being joined. */
+    private Tuple probeTuple;
+
+
+    /** Iterates over the build tuples with the same key as the probe tuple. */
+    private Iterator<TupleLiteral> matchIter;
+
+
+    /** True if the current probe tuple has joined with a build tuple. */
+    private boolean probeMatched;
+
+
+    /** Set to true when we have exhausted all tuples from our subplans. */
+    private boolean done;
+
+
+    /**
+     * Constructs a hash join node.
+     *
+     * @param leftChild the left relation, which is used as the probe input
+     * @param rightChild the right relation, which is used as the build input
+     * @param joinType the type of join to perform
+     * @param predicate the join condition, which must contain at least one
+     *        equijoin conjunct between the two relations
+     */
+    public HashJoinNode(PlanNode leftChild, PlanNode rightChild,
+                        JoinType joinType, Expression predicate) {
+
+        super(leftChild, rightChild, joinType, predicate);
+
+        if (joinType == JoinType.RIGHT_OUTER) {
+            // Probe with the right child so that its tuples are preserved.
+            this.joinType = JoinType.LEFT_OUTER;
+            super.swap();
+        }
+    }
+
+
+    /**
+     * Reports whether a hash join can be used to evaluate a join predicate,
+     * by checking whether it contains at least one equijoin conjunct between
+     * the two schemas.
+     *
+     * @param predicate the join predicate
+     * @param leftSchema the schema of the left relation
+     * @param rightSchema the schema of the right relation
+     *
+     * @return {@code true} if the predicate has at least one conjunct that
+     *         can be used as a hash key
+     */
+    public static boolean canHashJoin(Expression predicate, Schema leftSchema,
+                                      Schema rightSchema) {
+        ArrayList<Expression> leftKeys = new ArrayList<Expression>();
+        ArrayList<Expression> rightKeys = new ArrayList<Expression>();
+        findJoinKeys(predicate, leftSchema, rightSchema, leftKeys, rightKeys);
+        return !leftKeys.isEmpty();
+    }
+
+
+    /**
+     * Finds the conjuncts of the join predicate of the form
+     * <tt>left-expr = right-expr</tt>, where each side can be evaluated
+     * against one of the schemas, and the two sides have comparable types.
+     *
+     * @param predicate the join predicate
+     * @param leftSchema the schema of the left relation
+     * @param rightSchema the schema of the right relation
+     * @param leftKeys receives the key expressions for the left relation
+     * @param rightKeys receives the corresponding key expressions for the
+     *        right relation
+     */
+    static void findJoinKeys(Expression predicate, Schema leftSchema,
+        Schema rightSchema, List<Expression> leftKeys, List<Expression> rightKeys) {
+
+        if (predicate == null)
+            return;
+
+        ArrayList<Expression> conjuncts = new ArrayList<Expression>();
+        PredicateUtils.collectConjuncts(predicate, conjuncts);
+
+        for (Expression conjunct : conjuncts) {
+            if (!(conjunct instanceof CompareOperator))
+                continue;
+
+            CompareOperator cmp = (CompareOperator) conjunct;
+            if (cmp.getType() != CompareOperator.Type.EQUALS)
+                continue;
+
+            Expression lhs = cmp.getLeftExpression();
+            Expression rhs = cmp.getRightExpression();
+
+            if (isKeyPair(lhs, leftSchema, rhs, rightSchema)) {
+                leftKeys.add(lhs);
+                rightKeys.add(rhs);
+            }
+            else if (isKeyPair(rhs, leftSchema, lhs, rightSchema)) {
+                leftKeys.add(rhs);
+                rightKeys.add(lhs);
+            }
+        }
+    }
+
+
+    private static boolean isKeyPair(Expression leftExpr, Schema leftSchema,
+        Expression rightExpr, Schema rightSchema) {
+
+        if (!leftExpr.hasSymbols() || !rightExpr.hasSymbols())
+            return false;
+
+        List<Expression> exprs = Collections.singletonList(leftExpr);
+        ArrayList<Expression> found = new ArrayList<Expression>();
+        PredicateUtils.findExprsUsingSchemas(exprs, false, found, leftSchema);
+        if (found.isEmpty())
+            return false;
+
+        exprs = Collections.singletonList(rightExpr);
+        found.clear();
+        PredicateUtils.findExprsUsingSchemas(exprs, false, found, rightSchema);
+        if (found.isEmpty())
+            return false;
+
+        // Only hash on values that compare equal exactly when their
+        // normalized forms are equal.
+        SQLDataType leftType;
+        SQLDataType rightType;
+        try {
+            ColumnInfo leftInfo = leftExpr.getColumnInfo(leftSchema);
+            ColumnInfo rightInfo = rightExpr.getColumnInfo(rightSchema);
+            leftType = leftInfo.getType().getBaseType();
+            rightType = rightInfo.getType().getBaseType();
+        }
+        catch (SchemaNameException e) {
+            return false;
+        }
+
+        if (SQLDataType.isNumber(leftType) && SQLDataType.isNumber(rightType))
+            return true;
+
+        if (SQLDataType.isString(leftType) && SQLDataType.isString(rightType))
+            return true;
+
+        return leftType == rightType;
+    }
+
+
+    /**
+     * Checks if the argument is a plan node tree with the same structure, but not
+     * necessarily the same references.
+     *
+     * @param obj the object to which we are comparing
+     */
+    @Override
+    public boolean equals(Object obj) {
+
+        if (obj instanceof HashJoinNode) {
+            HashJoinNode other = (HashJoinNode) obj;
+
+            return joinType == other.joinType &&
+                predicate.equals(other.predicate) &&
+                leftChild.equals(other.leftChild) &&
+                rightChild.equals(other.rightChild);
+        }
+
+        return false;
+    }
+
+
+    /** Computes the hash-code of the hash-join plan node. */
+    @Override
+    public int hashCode() {
+        int hash = 11;
+        hash = 31 * hash + joinType.hashCode();
+        hash = 31 * hash + predicate.hashCode();
+        hash = 31 * hash + leftChild.hashCode();
+        hash = 31 * hash + rightChild.hashCode();
+        return hash;
+    }
+
+
+    /**
+     * Returns a string representing this hash join's vital information.
+     *
+     * @return a string representing this plan-node.
+     */
+    @Override
+    public String toString() {
+        StringBuilder buf = new StringBuilder();
+
+        buf.append("HashJoin[");
+
+        if (joinType != JoinType.INNER)
+            buf.append(joinType).append(", ");
+
+        buf.append("pred:  ").append(predicate);
+
+        if (schemaSwapped)
+            buf.append(" (schema swapped)");
+
+        buf.append(']');
+
+        return buf.toString();
+    }
+
+
+    /**
+     * Creates a copy of this plan node and its subtrees.
+     */
+    @Override
+    protected PlanNode clone() throws CloneNotSupportedException {
+        HashJoinNode node = (HashJoinNode) super.clone();
+
+        // Clone the predicate.
+        node.predicate = predicate.duplicate();
+
+        // The copy must not share any execution state with this node.
+        node.partitionTables = null;
+        node.partitionSizes = null;
+        node.buildSpills = null;
+        node.probeSpills = null;
+        node.probeSource = null;
+        node.pendingPartitions = null;
+        node.probeKeyEvaluators = null;
+        node.buildKeyEvaluators = null;
+        node.probeBatch = null;
+        node.probeKeyVectors = null;
+        node.probeTuple = null;
+        node.matchIter = null;
+
+        return node;
+    }
+
+
+    /**
+     * Only inner joins may be swapped, since for the other join types the
+     * two inputs play different roles.
+     *
+     * @throws IllegalStateException if this is not an inner join
+     */
+    @Override
+    public void swap() {
+        if (joinType != JoinType.INNER) {
+            throw new IllegalStateException(
+                "Can't swap the inputs of a " + joinType + " hash join");
+        }
+
+        super.swap();
+    }
+
+
+    /**
+     * Hash joins produce results in the order of the probe input when the
+     * build input fits in memory, but not once partitions are spilled, so we
+     * report that the results are not ordered.
+     */
+    @Override
+    public List<OrderByExpression> resultsOrderedBy() {
+        return null;
+    }
+
+
+    /** Hash joins don't support marking. */
+    public boolean supportsMarking() {
+        return false;
+    }
+
+
+    /** Hash joins don't require marking on either child. */
+    public boolean requiresLeftMarking() {
+        return false;
+    }
+
+
+    /** Hash joins don't require marking on either child. */
+    public boolean requiresRightMarking() {
+        return false;
+    }
+
+
+    @Override
+    public boolean supportsJoinType(JoinType type) {
+        return type == JoinType.INNER || type == JoinType.LEFT_OUTER ||
+            type == JoinType.SEMIJOIN || type == JoinType.ANTIJOIN;
+    }
+
+
+    @Override
+    public void prepare() {
+        // Need to prepare the left and right child-nodes before we can do
+        // our own work.
+        leftChild.prepare();
+        rightChild.prepare();
+
+        // Use the parent class' helper-function to prepare the schema.
+        prepareSchemaStats();
+
+        probeKeyExprs = new ArrayList<Expression>();
+        buildKeyExprs = new ArrayList<Expression>();
+        findJoinKeys(predicate, leftSchema, rightSchema, probeKeyExprs,
+            buildKeyExprs);
+
+        if (probeKeyExprs.isEmpty()) {
+            throw new IllegalStateException("Hash join predicate " +
+                predicate + " has no equijoin conjuncts to hash on");
+        }
+
+        float selectivity = SelectivityEstimator.estimateSelectivity(predicate,
+            schema, stats);
+
+        // Semijoins and antijoins only produce tuples from the left child.
+        if (joinType == JoinType.SEMIJOIN || joinType == JoinType.ANTIJOIN) {
+            schema = new Schema();
+            schema.append(leftSchema);
+            stats = new ArrayList<ColumnStats>(leftStats);
+        }
+
+        PlanCost leftCost = leftChild.getCost();
+        PlanCost rightCost = rightChild.getCost();
+
+        if (leftCost != null && rightCost != null) {
+            float numTuples = leftCost.numTuples * rightCost.numTuples *
+                selectivity;
+            float tupleSize = leftCost.tupleSize + rightCost.tupleSize;
+
+            // The fraction of left tuples estimated to have a match.
+            float matchFraction = Math.min(1.0f, rightCost.numTuples * selectivity);
+
+            switch (joinType) {
+            case LEFT_OUTER:
+                numTuples = Math.max(numTuples, leftCost.numTuples);
+                break;
+
+            case SEMIJOIN:
+                numTuples = leftCost.numTuples * matchFraction;
+                tupleSize = leftCost.tupleSize;
+                break;
+
+            case ANTIJOIN:
+                numTuples = leftCost.numTuples * (1.0f - matchFraction);
+                tupleSize = leftCost.tupleSize;
+                break;
+
+            default:
+                // Inner joins use the estimate computed above.
+            }
+
+            // Each input is read once, every tuple is hashed, and each probe
+            // tuple is compared against the tuples with the same key.
+            float cpuCost = leftCost.cpuCost + rightCost.cpuCost +
+                leftCost.numTuples + rightCost.numTuples + numTuples;
+            long numBlockIOs = leftCost.numBlockIOs + rightCost.numBlockIOs;
+
+            // If the build input doesn't fit in memory, the spilled fraction
+            // of both inputs is written out and read back once more.
+            float buildSize = rightCost.numTuples * rightCost.tupleSize;
+            long budget = getMemoryBudget();
+            if (buildSize > budget) {
+                float spilled = 1.0f - budget / buildSize;
+                float probeSize = leftCost.numTuples * leftCost.tupleSize;
+                float spillBlocks = spilled * (buildSize + probeSize) /
+                    DBFile.DEFAULT_PAGESIZE;
+
+                numBlockIOs += (long) Math.ceil(2 * spillBlocks);
+                cpuCost += spilled * (leftCost.numTuples + rightCost.numTuples);
+            }
+
+            cost = new PlanCost(numTuples, tupleSize, cpuCost, numBlockIOs);
+        }
+    }
+
+
+    /**
+     * Returns the memory budget for the hash table, as specified by the
+     * {@link #PROP_MEMORY_BUDGET} property.
+     *
+     * @return the memory budget for the hash table, in bytes
+     */
+    public static long getMemoryBudget() {
+        return Long.getLong(PROP_MEMORY_BUDGET, DEFAULT_MEMORY_BUDGET);
+    }
+
+
+    public void initialize() {
+        super.initialize();
+
+        deleteSpillFiles();
+
+        memoryBudget = getMemoryBudget();
+        nullBuildTuple = new TupleLiteral(rightSchema.numColumns());
+
+        partitionTables = null;
+        pendingPartitions = new ArrayDeque<SpilledPartition>();
+        level = 0;
+        probeSource = null;
+
+        probeKeyEvaluators = makeKeyEvaluators(probeKeyExprs, leftSchema);
+        buildKeyEvaluators = makeKeyEvaluators(buildKeyExprs, rightSchema);
+        probeBatch = null;
+        probeKeyVectors = new Object[probeKeyExprs.size()][];
+
+        probeTuple = null;
+        matchIter = null;
+        probeMatched = false;
+        done = false;
+    }
+
+
+    /**
+     * Returns the next joined tuple that satisfies the join condition.
+     *
+     * @return the next joined tuple that satisfies the join condition.
+     *
+     * @throws IOException if a db file failed to open at some point, or if a
+     *         spill file couldn't be read or written
+     */
+    protected Tuple produceNextTuple() throws IOException {
+        if (done)
+            return null;
+
+        if (partitionTables == null)
+            buildHashTable(null);
+
+        while (true) {
+            if (probeTuple != null) {
+                while (matchIter != null && matchIter.hasNext()) {
+                    TupleLiteral buildTuple = matchIter.next();
+                    if (!canJoinTuples(probeTuple, buildTuple))
+                        continue;
+
+                    probeMatched = true;
+
+                    if (joinType == JoinType.SEMIJOIN) {
+                        Tuple result = probeTuple;
+                        probeTuple = null;
+                        return result;
+                    }
+                    else if (joinType == JoinType.ANTIJOIN) {
+                        break;
+                    }
+
+                    return joinTuples(probeTuple, buildTuple);
+                }
+
+                // Done with this probe tuple.  Unmatched tuples still produce
+                // a result for left outer joins and antijoins.
+                Tuple result = null;
+                if (!probeMatched) {
+                    if (joinType == JoinType.LEFT_OUTER)
+                        result = joinTuples(probeTuple, nullBuildTuple);
+                    else if (joinType == JoinType.ANTIJOIN)
+                        result = probeTuple;
+                }
+
+                probeTuple = null;
+                matchIter = null;
+
+                if (result != null)
+                    return result;
+            }
+
+            Tuple tuple = nextProbeTuple();
+            if (tuple == null) {
+                done = true;
+                return null;
+            }
+
+            TupleLiteral key = nextProbeKey;
+            if (key == null) {
+                // A NULL key can't match anything.
+                matchIter = null;
+            }
+            else {
+                int partition = getPartition(key, level);
+                if (partitionTables.get(partition) == null) {
+                    // The partition was spilled, so the probe tuple must be
+                    // joined against it later.
+                    if (probeSpills[partition] == null)
+                        probeSpills[partition] = new SpillFile("hashjoin");
+
+                    probeSpills[partition].writeTuple(tuple);
+                    continue;
+                }
+
+                ArrayList<TupleLiteral> matches =
+                    partitionTables.get(partition).get(key);
+                matchIter = (matches != null) ? matches.iterator() : null;
+            }
+
+            probeTuple = tuple;
+            probeMatched = false;
+        }
+    }
+
+
+    /**
+     * Returns the next probe tuple of the current pass, moving on to the next
+     * spilled partition when the current pass' probe input is exhausted.
+     * The tuple's join key is stored in {@link #nextProbeKey}.
+     *
+     * @return the next probe tuple, or {@code null} if all passes are done
+     *
+     * @throws IOException if a tuple couldn't be read or written
+     */
+    private Tuple nextProbeTuple() throws IOException {
+        while (true) {
+            Tuple tuple = null;
+            if (probeSource == null) {
+                if (probeBatch == null || probeBatchPos == probeBatch.size()) {
+                    probeBatch = leftChild.getNextBatch(getBatchSize());
+                    probeBatchPos = 0;
+                    if (probeBatch != null)
+                        evaluateKeys(probeKeyEvaluators, probeBatch, probeKeyVectors);
+                }
+
+                if (probeBatch != null) {
+                    int row = probeBatch.getRowIndex(probeBatchPos);
+                    nextProbeKey = makeKey(probeKeyVectors, row);
+                    tuple = probeBatch.getTuple(probeBatchPos);
+                    probeBatchPos++;
+                }
+            }
+            else {
+                tuple = probeSource.readTuple();
+                if (tuple != null)
+                    nextProbeKey = computeKey(tuple, leftSchema, probeKeyExprs);
+            }
+
+            if (tuple != null)
+                return tuple;
+
+            // The current pass is finished.  Queue up the partitions it
+            // spilled, and start on the next one that needs to be joined.
+            finishPass();
+
+            SpilledPartition next = null;
+            while (!pendingPartitions.isEmpty()) {
+                SpilledPartition p = pendingPartitions.removeFirst();
+                if (p.probeFile == null) {
+                    // No probe tuples means no results from this partition.
+                    p.buildFile.delete();
+                    continue;
+                }
+
+                next = p;
+                break;
+            }
+
+            if (next == null)
+                return null;
+
+            logger.debug(String.format("Joining spilled partition at level " +
+                "%d:  %d build tuples, %d probe tuples", next.level,
+                next.buildFile.getTupleCount(), next.probeFile.getTupleCount()));
+
+            level = next.level;
+            next.buildFile.startReading();
+            buildHashTable(next.buildFile);
+            next.buildFile.delete();
+
+            probeSource = next.probeFile;
+            probeSource.startReading();
+        }
+    }
+
+
+    /**
+     * Reads the build input for a pass into the partitioned hash table,
+     * spilling partitions to disk as needed to stay within the memory budget.
+     *
+     * @param buildSource the spill file to read build tuples from, or
+     *        {@code null} to read them from the right child
+     *
+     * @throws IOException if a tuple couldn't be read or written
+     */
+    private void buildHashTable(SpillFile buildSource) throws IOException {
+        partitionTables = new ArrayList<HashMap<TupleLiteral, ArrayList<TupleLiteral>>>(NUM_PARTITIONS);
+        for (int i = 0; i < NUM_PARTITIONS; i++)
+            partitionTables.add(new HashMap<TupleLiteral, ArrayList<TupleLiteral>>());
+
+        partitionSizes = new long[NUM_PARTITIONS];
+        buildSpills = new SpillFile[NUM_PARTITIONS];
+        probeSpills = new SpillFile[NUM_PARTITIONS];
+        memoryUsed = 0;
+
+        if (buildSource == null) {
+            Object[][] keyVectors = new Object[buildKeyExprs.size()][];
+            while (true) {
+                TupleBatch batch = rightChild.getNextBatch(getBatchSize());
+                if (batch == null)
+                    break;
+
+                evaluateKeys(buildKeyEvaluators, batch, keyVectors);
+                for (int i = 0; i < batch.size(); i++) {
+                    TupleLiteral key =
+                        makeKey(keyVectors, batch.getRowIndex(i));
+
+                    // A NULL key can't match anything, and build tuples
+                    // never appear in the results on their own.
+                    if (key != null)
+                        addBuildTuple(batch.getTuple(i), key);
+                }
+            }
+        }
+        else {
+            while (true) {
+                TupleLiteral tuple = buildSource.readTuple();
+                if (tuple == null)
+                    break;
+
+                TupleLiteral key = computeKey(tuple, rightSchema, buildKeyExprs);
+                if (key != null)
+                    addBuildTuple(tuple, key);
+            }
+        }
+    }
+
+
+    /**
+     * Adds a build tuple to the hash table, or to its partition's spill file
+     * if the partition has been spilled.  Partitions are spilled as needed
+     * to stay within the memory budget.
+     *
+     * @param buildTuple the build tuple
+     * @param key the join key of the build tuple, which must not be
+     *        {@code null}
+     *
+     * @throws IOException if a partition couldn't be written
+     */
+    private void addBuildTuple(TupleLiteral buildTuple, TupleLiteral key)
+        throws IOException {
+
+        int partition = getPartition(key, level);
+        if (partitionTables.get(partition) == null) {
+            buildSpills[partition].writeTuple(buildTuple);
+            return;
+        }
+
+        ArrayList<TupleLiteral> bucket = partitionTables.get(partition).get(key);
+        if (bucket == null) {
+            bucket = new ArrayList<TupleLiteral>(1);
+            partitionTables.get(partition).put(key, bucket);
+        }
+        bucket.add(buildTuple);
+
+        long size = SpillFile.estimateTupleSize(buildTuple);
+        partitionSizes[partition] += size;
+        memoryUsed += size;
+        recordMemoryUsed(memoryUsed);
+
+        if (memoryUsed > memoryBudget && level < MAX_PARTITION_LEVEL)
+            spillPartitions();
+    }
+
+
+    /**
+     * Spills the largest in-memory partitions to disk until the hash table
+     * fits within the memory budget again.
+     *
+     * @throws IOException if a partition couldn't be written
+     */
+    private void spillPartitions() throws IOException {
+        while (memoryUsed > memoryBudget) {
+            int largest = -1;
+            for (int i = 0; i < NUM_PARTITIONS; i++) {
+                if (partitionTables.get(i) != null && partitionSizes[i] > 0 &&
+                    (largest == -1 || partitionSizes[i] > partitionSizes[largest])) {
+                    largest = i;
+                }
+            }
+
+            if (largest == -1)
+                break;
+
+            SpillFile spill = new SpillFile("hashjoin");
+            for (ArrayList<TupleLiteral> bucket :
+                 partitionTables.get(largest).values()) {
+                for (TupleLiteral tuple : bucket)
+                    spill.writeTuple(tuple);
+            }
+
+            logger.debug(String.format("Spilled hash-join partition %d at " +
+                "level %d:  %d tuples", largest, level, spill.getTupleCount()));
+
+            buildSpills[largest] = spill;
+            partitionTables.set(largest, null);
+            memoryUsed -= partitionSizes[largest];
+            partitionSizes[largest] = 0;
+        }
+    }
+
+
+    /**
+     * Finishes the current pass by queueing up the partitions it spilled,
+     * so that they are joined before any partitions spilled earlier.
+     */
+    private void finishPass() {
+        if (probeSource != null) {
+            probeSource.delete();
+            probeSource = null;
+        }
+
+        for (int i = NUM_PARTITIONS - 1; i >= 0; i--) {
+            if (buildSpills[i] != null) {
+                pendingPartitions.addFirst(new SpilledPartition(buildSpills[i],
+                    probeSpills[i], level + 1));
+            }
+        }
+
+        partitionTables = new ArrayList<HashMap<TupleLiteral, ArrayList<TupleLiteral>>>(0);
+        buildSpills = new SpillFile[0];
+        probeSpills = new SpillFile[0];
+    }
+
+
+    /**
+     * Evaluates the join-key expressions against a tuple.
+     *
+     * @return the join key, or {@code null} if any part of the key is
+     *         <tt>NULL</tt>
+     */
+    private TupleLiteral computeKey(Tuple tuple, Schema tupleSchema,
+                                    List<Expression> keyExprs) {
+        environment.clear();
+        environment.addTuple(tupleSchema, tuple);
+
+        TupleLiteral key = new TupleLiteral(keyExprs.size());
+        for (int i = 0; i < keyExprs.size(); i++) {
+            Object value = keyExprs.get(i).evaluate(environment);
+            if (value == null)
+                return null;
+
+            key.setColumnValue(i, TupleHasher.normalizeValue(value));
+        }
+
+        return key;
+    }
+
+
+    /** Creates the evaluators of join-key expressions over batches. */
+    private static BatchEvaluator[] makeKeyEvaluators(List<Expression> keyExprs,
+                                                      Schema batchSchema) {
+        BatchEvaluator[] evaluators = new BatchEvaluator[keyExprs.size()];
+        for (int i = 0; i < evaluators.length; i++)
+            evaluators[i] = BatchEvaluator.create(keyExprs.get(i), batchSchema);
+
+        return evaluators;
+    }
+
+
+    /**
+     * Evaluates the join-key expressions over a batch, storing the values of
+     * each expression in the corresponding entry of {@code keyVectors}.
+     */
+    private static void evaluateKeys(BatchEvaluator[] evaluators,
+                                     TupleBatch batch, Object[][] keyVectors) {
+        for (int i = 0; i < evaluators.length; i++)
+            keyVectors[i] = evaluators[i].evaluate(batch);
+    }
+
+
+    /**
+     * Assembles the join key of one row of a batch from the values of the
+     * join-key expressions.
+     *
+     * @return the join key, or {@code null} if any part of the key is
+     *         <tt>NULL</tt>
+     */
+    private static TupleLiteral makeKey(Object[][] keyVectors, int row) {
+        TupleLiteral key = new TupleLiteral(keyVectors.length);
+        for (int i = 0; i < keyVectors.length; i++) {
+            Object value = keyVectors[i][row];
+            if (value == null)
+                return null;
+
+            key.setColumnValue(i, TupleHasher.normalizeValue(value));
+        }
+
+        return key;
+    }
+
+
+    /**
+     * Maps a join key to a partition.  Each level of partitioning mixes the
+     * level into the hash, so that a partition that is split again spreads
+     * across all of the new partitions.
+     */
+    private static int getPartition(TupleLiteral key, int level) {
+        int h = key.hashCode() + level * 0x9e3779b9;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return (h & 0x7fffffff) % NUM_PARTITIONS;
+    }
+
+
+    private void deleteSpillFiles() {
+        if (buildSpills != null) {
+            for (SpillFile spill : buildSpills) {
+                if (spill != null)
+                    spill.delete();
+            }
+        }
+
+        if (probeSpills != null) {
+            for (SpillFile spill : probeSpills) {
+                if (spill != null)
+                    spill.delete();
+            }
+        }
+
+        if (pendingPartitions != null) {
+            for (SpilledPartition p : pendingPartitions) {
+                p.buildFile.delete();
+                if (p.probeFile != null)
+                    p.probeFile.delete();
+            }
+            pendingPartitions.clear();
+        }
+
+        if (probeSource != null)
+            probeSource.delete();
+
+        buildSpills = null;
+        probeSpills = null;
+        probeSource = null;
+    }
+
+
+    public void markCurrentPosition() {
+        throw new UnsupportedOperationException(
+            "Hash-join plan-node doesn't support marking.");
+    }
+
+
+    public void resetToLastMark() throws IllegalStateException {
+        throw new UnsupportedOperationException(
+            "Hash-join plan-node doesn't support marking.");
+    }
+
+
+    public void cleanUp() {
+        deleteSpillFiles();
+        partitionTables = null;
+        probeBatch = null;
+        SubqueryOperator.cleanUp(predicate);
+
+        leftChild.cleanUp();
+        rightChild.cleanUp();
+    }
+}
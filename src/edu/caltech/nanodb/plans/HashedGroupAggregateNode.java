@@ -3,25 +3,71 @@ package edu.caltech.nanodb.plans;
 
 import java.io.IOException;
 
-import java.util.Iterator;
-import java.util.LinkedHashMap;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
 import org.apache.log4j.Logger;
 
+import edu.caltech.nanodb.expressions.BatchEvaluator;
 import edu.caltech.nanodb.expressions.Expression;
+import edu.caltech.nanodb.expressions.ExpressionException;
 import edu.caltech.nanodb.expressions.FunctionCall;
 import edu.caltech.nanodb.expressions.OrderByExpression;
+import edu.caltech.nanodb.expressions.TupleBatch;
 import edu.caltech.nanodb.expressions.TupleLiteral;
 
+import edu.caltech.nanodb.functions.AggregateFunction;
+import edu.caltech.nanodb.functions.Avg;
+import edu.caltech.nanodb.functions.Count;
+import edu.caltech.nanodb.functions.CountStar;
+import edu.caltech.nanodb.functions.Max;
+import edu.caltech.nanodb.functions.Min;
+import edu.caltech.nanodb.functions.ScalarFunction;
+import edu.caltech.nanodb.functions.Sum;
+
 import edu.caltech.nanodb.qeval.PlanCost;
 import edu.caltech.nanodb.relations.Tuple;
+import edu.caltech.nanodb.storage.DBFile;
 
 
 /**
+ * <p>
  * Implements grouping and aggregation by using hashing as a method to
  * identify groups.
+ * </p>
+ * <p>
+ * Groups are numbered in the order they are found.  The group-by values of
+ * all groups are kept in one flat array, and an open-addressing hash table
+ * maps the hash of the group-by values to the group number, so that looking
+ * up the group of an input tuple doesn't allocate any objects.  The state of
+ * each aggregate is likewise kept in flat arrays indexed by group number:
+ * <tt>COUNT</tt>, <tt>SUM</tt> and <tt>AVG</tt> use primitive counters and
+ * sums, and <tt>MIN</tt> and <tt>MAX</tt> keep one value per group.  Other
+ * aggregate functions are computed with a copy of the function per group.
+ * </p>
+ * <p>
+ * The input is read in batches, and the group-by values and aggregate
+ * arguments are evaluated over each whole batch before its tuples are
+ * added to their groups.  The results are also produced in batches.
+ * </p>
+ * <p>
+ * If the groups don't fit within the memory budget specified by
+ * {@link #PROP_MEMORY_BUDGET}, no more groups are added to the hash table.
+ * Input tuples of the groups already in the table are still aggregated in
+ * memory, but the other input tuples are partitioned by the hash of their
+ * group-by values and written to {@link SpillFile}s.  Once the groups in
+ * memory have been produced, each partition is aggregated in the same way,
+ * with a different hash function for partitioning its overflow.
+ * </p>
+ * <p>
+ * When the aggregates can be combined, several copies of this node can
+ * compute <em>partial</em> aggregates over separate parts of the input in
+ * parallel with {@link #computePartialGroups}, and a {@link GatherNode} then
+ * combines their groups with {@link #mergeGroups}.  Partial groups are
+ * always kept in memory.
+ * </p>
  */
 public class HashedGroupAggregateNode extends GroupAggregateNode {
 
@@ -29,9 +75,117 @@ public class HashedGroupAggregateNode extends GroupAggregateNode {
     private static Logger logger = Logger.getLogger(HashedGroupAggregateNode.class);
 
 
-    private LinkedHashMap<TupleLiteral, Map<String, FunctionCall>> computedAggregates;
+    /**
+     * This property can be used to specify the number of bytes of group
+     * state the node may hold in memory.  When there are more groups than
+     * this allows, input tuples of the other groups are spilled to disk.
+     */
+    public static final String PROP_MEMORY_BUDGET = "nanodb.hashagg.memory";
+
+
+    /** The default memory budget for the groups is 4MiB. */
+    public static final long DEFAULT_MEMORY_BUDGET = 4 * 1024 * 1024;
+
+
+    /** The number of partitions that overflowing input tuples are split into. */
+    private static final int NUM_PARTITIONS = 16;
+
+
+    /**
+     * The number of times a partition may be partitioned again.  If the
+     * groups of a partition at this level don't fit in memory, the budget
+     * is exceeded rather than spilling again.
+     */
+    private static final int MAX_PARTITION_LEVEL = 4;
+
+
+    /** The initial number of groups the hash table has room for. */
+    private static final int INITIAL_CAPACITY = 64;
+
+
+    /**
+     * A spill file holding input tuples of groups that didn't fit in memory,
+     * along with how many times those tuples have been partitioned.
+     */
+    private static class Partition {
+        SpillFile file;
+
+        int level;
+
+        Partition(SpillFile file, int level) {
+            this.file = file;
+            this.level = level;
+        }
+    }
+
 
-    private Iterator<TupleLiteral> groupIterator;
+    /** The argument of each aggregate, in the order of the output columns. */
+    private Expression[] aggregateArgs;
+
+
+    /** The number of group-by values of each group. */
+    private int numKeyColumns;
+
+
+    /** The state of each aggregate for the groups in the hash table. */
+    private Accumulator[] accumulators;
+
+
+    /**
+     * The group-by values of the groups in the hash table.  The values of
+     * group <em>g</em> start at index <tt>g * numKeyColumns</tt>.
+     */
+    private Object[] groupKeys;
+
+
+    /** The hash of each group's group-by values. */
+    private int[] groupHashes;
+
+
+    /**
+     * The open-addressing hash table.  Each slot holds one more than the
+     * number of a group, or 0 if the slot is empty.
+     */
+    private int[] slots;
+
+
+    /** The number of groups in the hash table. */
+    private int numGroups;
+
+
+    /** The group-by values of the current input tuple. */
+    private Object[] probeKey;
+
+
+    /** The evaluators of the group-by expressions over input batches. */
+    private BatchEvaluator[] keyEvaluators;
+
+
+    /**
+     * The evaluators of the aggregates' arguments over input batches, or
+     * {@code null} for aggregates without an argument to evaluate.
+     */
+    private BatchEvaluator[] argEvaluators;
+
+
+    /** The estimated size of the groups in the hash table. */
+    private long memoryUsed;
+
+
+    /** The memory budget for the groups in the hash table. */
+    private long memoryBudget;
+
+
+    /** True once the input has been read, and the first groups computed. */
+    private boolean computed;
+
+
+    /** The number of the next group to produce from the hash table. */
+    private int currentGroup;
+
+
+    /** The partitions that haven't been aggregated yet. */
+    private ArrayDeque<Partition> pendingPartitions;
 
 
     private boolean done;
@@ -66,6 +220,30 @@ public class HashedGroupAggregateNode extends GroupAggregateNode {
     }
 
 
+    /**
+     * Creates a copy of this hashed grouping/aggregate node and its subtree.
+     * This method is used by {@link PlanNode#duplicate} to copy a plan tree.
+     */
+    @Override
+    protected PlanNode clone() throws CloneNotSupportedException {
+        HashedGroupAggregateNode node = (HashedGroupAggregateNode) super.clone();
+
+        // The copy must not share any execution state with this node.
+        node.accumulators = null;
+        node.groupKeys = null;
+        node.groupHashes = null;
+        node.slots = null;
+        node.numGroups = 0;
+        node.currentGroup = 0;
+        node.probeKey = null;
+        node.keyEvaluators = null;
+        node.argEvaluators = null;
+        node.pendingPartitions = null;
+
+        return node;
+    }
+
+
     // Use parent javadocs.
     @Override
     public String toString() {
@@ -108,6 +286,17 @@ public class HashedGroupAggregateNode extends GroupAggregateNode {
     }
 
 
+    /**
+     * Returns the memory budget for the groups, as specified by the
+     * {@link #PROP_MEMORY_BUDGET} property.
+     *
+     * @return the memory budget for the groups, in bytes
+     */
+    public static long getMemoryBudget() {
+        return Long.getLong(PROP_MEMORY_BUDGET, DEFAULT_MEMORY_BUDGET);
+    }
+
+
     /**
      * Gets the next tuple that fulfills the conditions for this plan node.
      * If the node has a child, it should call getNextTuple() on the child.
@@ -120,79 +309,510 @@ public class HashedGroupAggregateNode extends GroupAggregateNode {
      * @throws java.io.IOException if table data cannot be read from the filesystem
      * @throws IllegalStateException if a plan node is not properly initialized
      */
-    public Tuple getNextTuple() throws IllegalStateException, IOException {
-        if (done)
+    protected Tuple produceNextTuple() throws IllegalStateException, IOException {
+        if (!findNextGroup())
             return null;
 
-        TupleLiteral result = null;
+        TupleLiteral result = generateOutputTuple(currentGroup);
+        currentGroup++;
+
+        return result;
+    }
+
+
+    /** The hashed grouping/aggregate node produces its groups in batches. */
+    @Override
+    public boolean supportsBatchExecution() {
+        return true;
+    }
+
+
+    /**
+     * Gets the next batch of groups, writing the groups' values straight
+     * into the batch's column vectors.
+     *
+     * @param maxRows the maximum number of groups to return
+     *
+     * @return the next batch of groups, or <tt>null</tt> if there are no
+     *         more groups
+     *
+     * @throws java.io.IOException if table data cannot be read from the filesystem
+     * @throws IllegalStateException if a plan node is not properly initialized
+     */
+    @Override
+    protected TupleBatch produceNextBatch(int maxRows)
+        throws IllegalStateException, IOException {
+
+        Object[][] columns = null;
+        int count = 0;
+        while (count < maxRows && findNextGroup()) {
+            if (columns == null) {
+                columns = new Object[numKeyColumns + accumulators.length][];
+                for (int i = 0; i < columns.length; i++)
+                    columns[i] = new Object[maxRows];
+            }
+
+            int start = currentGroup * numKeyColumns;
+            for (int i = 0; i < numKeyColumns; i++)
+                columns[i][count] = groupKeys[start + i];
 
-        if (computedAggregates == null) {
-            computeAggregates();
-            groupIterator = computedAggregates.keySet().iterator();
+            for (int i = 0; i < accumulators.length; i++) {
+                columns[numKeyColumns + i][count] =
+                    accumulators[i].getResult(currentGroup);
+            }
+
+            currentGroup++;
+            count++;
         }
 
-        if (groupIterator.hasNext()) {
-            // Construct the result tuple from the group, and from the
-            // computed aggregate values.
+        return (count > 0) ? new TupleBatch(columns, maxRows, count) : null;
+    }
+
+
+    /**
+     * Makes sure that {@link #currentGroup} refers to a group in the hash
+     * table that hasn't been produced yet, computing the aggregates of the
+     * input or of the next spilled partition as needed.
+     *
+     * @return true if there is another group, or false if all groups have
+     *         been produced
+     *
+     * @throws IOException if the input can't be read, or a partition can't
+     *         be read or written
+     */
+    private boolean findNextGroup() throws IOException {
+        if (done)
+            return false;
 
-            TupleLiteral group = groupIterator.next();
-            Map<String, FunctionCall> groupAggregates = computedAggregates.get(group);
-            result = generateOutputTuple(group, groupAggregates);
+        if (!computed) {
+            computeAggregates(null, 0);
+            computed = true;
         }
-        else {
-            // No more groups.
-            done = true;
+
+        // Aggregating without grouping always produces one row, even if
+        // there are no input tuples; for example, COUNT(*) is then 0.
+        if (numKeyColumns == 0 && numGroups == 0)
+            addGroup(hashKey(probeKey));
+
+        // Once the groups in the hash table have been produced, move on to
+        // the next partition of spilled input tuples.
+        while (currentGroup == numGroups) {
+            Partition partition = pendingPartitions.poll();
+            if (partition == null) {
+                // No more groups.
+                releaseState();
+                done = true;
+                return false;
+            }
+
+            try {
+                partition.file.startReading();
+                computeAggregates(partition.file, partition.level);
+            }
+            finally {
+                partition.file.delete();
+            }
         }
 
-        return result;
+        return true;
     }
 
 
     /**
-     * This helper function iterates through <u>all</u> tuples generated by
-     * the subplan, using an internal hash table to compute the grouping and
-     * aggregate results that this plan-node will output.
+     * This helper function iterates through <u>all</u> tuples of its input,
+     * using an internal hash table to compute the grouping and aggregate
+     * results that this plan-node will output.  Input tuples of groups that
+     * don't fit in memory are written to new partitions.
+     *
+     * @param input the spill file to read the input tuples from, or
+     *        {@code null} to read them from the child plan
+     *
+     * @param level the number of times the input has been partitioned
      *
-     * @throws IOException
+     * @throws IOException if the input can't be read, or the overflowing
+     *         tuples can't be written
      */
-    private void computeAggregates() throws IOException {
-        Tuple input;
+    private void computeAggregates(SpillFile input, int level)
+        throws IOException {
+
+        clearGroups();
+
+        // Grouping on no values produces one group, so it never overflows.
+        boolean canSpill = numKeyColumns > 0 && level < MAX_PARTITION_LEVEL;
+        boolean tableFull = false;
+        SpillFile[] partitions = null;
+
+        int batchSize = getBatchSize();
+        Object[][] keyVectors = new Object[numKeyColumns][];
+        Object[][] argVectors = new Object[accumulators.length][];
+
+        while (true) {
+            TupleBatch batch = (input != null) ?
+                readBatch(input, batchSize) : leftChild.getNextBatch(batchSize);
+            if (batch == null)
+                break;
+
+            // Evaluate the group values and the aggregates' arguments for
+            // the whole batch.
+            for (int i = 0; i < numKeyColumns; i++)
+                keyVectors[i] = keyEvaluators[i].evaluate(batch);
+
+            for (int i = 0; i < accumulators.length; i++) {
+                if (argEvaluators[i] != null)
+                    argVectors[i] = argEvaluators[i].evaluate(batch);
+            }
 
-        computedAggregates = new LinkedHashMap<TupleLiteral, Map<String, FunctionCall>>();
+            int n = batch.size();
+            for (int r = 0; r < n; r++) {
+                int row = batch.getRowIndex(r);
+
+                // Get the group values for the current row, and look up its
+                // group.
+                for (int i = 0; i < numKeyColumns; i++)
+                    probeKey[i] = keyVectors[i][row];
+
+                int hash = hashKey(probeKey);
+                int group = findGroup(hash);
+                if (group == -1) {
+                    if (tableFull) {
+                        // Save the tuple for when its partition is aggregated.
+                        int p = getPartition(hash, level);
+                        if (partitions == null)
+                            partitions = new SpillFile[NUM_PARTITIONS];
+
+                        if (partitions[p] == null)
+                            partitions[p] = new SpillFile("hashagg");
+
+                        partitions[p].writeTuple(batch.getTuple(r));
+                        continue;
+                    }
+
+                    group = addGroup(hash);
+                    if (canSpill && memoryUsed > memoryBudget) {
+                        logger.debug(String.format("%d groups exceed the " +
+                            "memory budget; spilling the input tuples of " +
+                            "other groups", numGroups));
+                        tableFull = true;
+                    }
+                }
 
-        // Pull tuples from the left child until we run out.
-        while ((input = leftChild.getNextTuple()) != null) {
-            environment.clear();
-            environment.addTuple(inputSchema, input);
+                // Now that we know the group, update each aggregate with the
+                // tuple's current value.
+                for (int i = 0; i < accumulators.length; i++) {
+                    Object value =
+                        (argVectors[i] != null) ? argVectors[i][row] : null;
+                    accumulators[i].addValue(group, value);
+                }
+            }
+        }
 
-            // Get the group values for the current row.
-            TupleLiteral groupValues = evaluateGroupByExprs();
+        if (partitions != null) {
+            for (SpillFile partition : partitions) {
+                if (partition != null) {
+                    logger.debug("Spilled partition:  " + partition);
+                    pendingPartitions.add(new Partition(partition, level + 1));
+                }
+            }
+        }
+    }
 
-            // logger.debug("Group values = " + groupValues);
 
-            // Look up the collection of aggregate functions for this group,
-            // or create one if it doesn't already exist.
-            Map<String, FunctionCall> groupAggregates = computedAggregates.get(groupValues);
-            if (groupAggregates == null) {
-                groupAggregates = new LinkedHashMap<String, FunctionCall>();
+    /**
+     * Returns true if this node's aggregates can be computed over separate
+     * parts of the input and then combined, using
+     * {@link #computePartialGroups} and {@link #mergeGroups}.  This is the
+     * case for non-distinct <tt>COUNT</tt>, <tt>MIN</tt> and <tt>MAX</tt>,
+     * and <tt>SUM</tt> and <tt>AVG</tt> of the primitive numeric types.
+     * The node must have been prepared.
+     *
+     * @return true if partial aggregates can be combined
+     */
+    public boolean supportsPartialAggregation() {
+        int i = 0;
+        for (FunctionCall call : aggregates.values()) {
+            if (makeAccumulator(call, aggregateArgs[i]) instanceof
+                FunctionAccumulator) {
+                return false;
+            }
 
-                // logger.debug(" * Creating new computed aggregates for this group");
+            i++;
+        }
 
-                // Clone each aggregate function, since aggregates keep some
-                // internal scratch space for computation.
-                for (String name : aggregates.keySet()) {
-                    FunctionCall fnCall = aggregates.get(name);
-                    groupAggregates.put(name, (FunctionCall) fnCall.duplicate());
-                }
+        return true;
+    }
 
-                computedAggregates.put(groupValues, groupAggregates);
+
+    /**
+     * Computes the groups of all of this node's input, without producing
+     * them, so that they can be merged into another node's groups with
+     * {@link #mergeGroups}.  All of the groups are kept in memory, even if
+     * they exceed the memory budget.
+     *
+     * @throws IOException if the input can't be read
+     */
+    void computePartialGroups() throws IOException {
+        // Input that has been partitioned the maximum number of times isn't
+        // partitioned again, so all of the groups stay in the hash table.
+        computeAggregates(null, MAX_PARTITION_LEVEL);
+        computed = true;
+    }
+
+
+    /**
+     * Adds the groups that another node computed with
+     * {@link #computePartialGroups} to this node's groups, combining the
+     * aggregates of groups that both nodes have.  The other node must have
+     * the same grouping and aggregates as this node, which must support
+     * {@link #supportsPartialAggregation partial aggregation}.  Once all
+     * partial groups have been merged, the groups are produced as this
+     * node's results without reading its input.
+     *
+     * @param partial the node whose groups are added to this node's groups
+     */
+    void mergeGroups(HashedGroupAggregateNode partial) {
+        if (!computed) {
+            clearGroups();
+            computed = true;
+        }
+
+        for (int g = 0; g < partial.numGroups; g++) {
+            System.arraycopy(partial.groupKeys, g * numKeyColumns, probeKey, 0,
+                numKeyColumns);
+
+            int hash = partial.groupHashes[g];
+            int group = findGroup(hash);
+            if (group == -1)
+                group = addGroup(hash);
+
+            for (int i = 0; i < accumulators.length; i++)
+                accumulators[i].mergeGroup(group, partial.accumulators[i], g);
+        }
+    }
+
+
+    /**
+     * Reads the next batch of tuples from a spilled partition.
+     *
+     * @param input the spill file to read from
+     * @param maxRows the maximum number of tuples to read
+     *
+     * @return the next batch of tuples, or {@code null} if the file has no
+     *         more tuples
+     *
+     * @throws IOException if the spill file can't be read
+     */
+    private TupleBatch readBatch(SpillFile input, int maxRows)
+        throws IOException {
+
+        TupleBatch batch = new TupleBatch(inputSchema.numColumns(), maxRows);
+        while (!batch.isFull()) {
+            Tuple tuple = input.readTuple();
+            if (tuple == null)
+                break;
+
+            batch.addTuple(tuple);
+        }
+
+        return batch.isEmpty() ? null : batch;
+    }
+
+
+    /** Empties the hash table, and creates new aggregate state for it. */
+    private void clearGroups() {
+        int i = 0;
+        for (FunctionCall call : aggregates.values()) {
+            accumulators[i] = makeAccumulator(call, aggregateArgs[i]);
+            accumulators[i].ensureCapacity(INITIAL_CAPACITY);
+            i++;
+        }
+
+        groupKeys = new Object[INITIAL_CAPACITY * numKeyColumns];
+        groupHashes = new int[INITIAL_CAPACITY];
+        slots = new int[INITIAL_CAPACITY * 2];
+        numGroups = 0;
+        currentGroup = 0;
+        memoryUsed = 0;
+    }
+
+
+    /**
+     * Returns the accumulator that computes an aggregate function for each
+     * group.  Non-distinct <tt>COUNT</tt>, <tt>MIN</tt> and <tt>MAX</tt>, and
+     * <tt>SUM</tt> and <tt>AVG</tt> of the primitive numeric types, have
+     * compact accumulators that give the same results as the functions.
+     */
+    private Accumulator makeAccumulator(FunctionCall call, Expression arg) {
+        ScalarFunction fn = call.getFunction();
+        Class<?> fnClass = fn.getClass();
+
+        if (fnClass == CountStar.class)
+            return new CountAccumulator(true);
+
+        if (fnClass == Count.class)
+            return new CountAccumulator(false);
+
+        if (fnClass == Min.class || fnClass == Max.class)
+            return new MinMaxAccumulator(fnClass == Min.class);
+
+        if (fnClass == Sum.class || fnClass == Avg.class) {
+            switch (arg.getColumnInfo(inputSchema).getType().getBaseType()) {
+            case TINYINT:
+            case SMALLINT:
+            case INTEGER:
+            case BIGINT:
+            case FLOAT:
+            case DOUBLE:
+                return new SumAccumulator(fnClass == Avg.class);
+
+            default:
+                // Other types are handled by the function itself.
             }
+        }
+
+        return new FunctionAccumulator(call);
+    }
+
+
+    /**
+     * Returns the hash of a group's values, which is the same as the hash of
+     * a list of the values.
+     */
+    private static int hashKey(Object[] key) {
+        int hash = 1;
+        for (Object value : key)
+            hash = 31 * hash + (value != null ? value.hashCode() : 0);
+
+        return hash;
+    }
 
-            // Now that we know the group, and we have aggregate functions to
-            // do the computation, update each aggregate with the tuple's
-            // current value.
-            updateAggregates(groupAggregates);
+
+    /** Spreads the bits of a hash value, so that its low bits are usable. */
+    private static int mix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+
+
+    /**
+     * Returns the partition that an input tuple is spilled to.  Each level
+     * of partitioning uses a different hash function, so that the tuples of
+     * a partition are split up when it is partitioned again.
+     */
+    private static int getPartition(int hash, int level) {
+        return (mix(hash + (level + 1) * 0x9e3779b9) >>> 1) % NUM_PARTITIONS;
+    }
+
+
+    /**
+     * Returns the number of the group whose values are in {@link #probeKey},
+     * or -1 if there is no such group in the hash table.
+     */
+    private int findGroup(int hash) {
+        int mask = slots.length - 1;
+        for (int slot = mix(hash) & mask; ; slot = (slot + 1) & mask) {
+            int group = slots[slot] - 1;
+            if (group == -1)
+                return -1;
+
+            if (groupHashes[group] == hash && keyEquals(group))
+                return group;
+        }
+    }
+
+
+    private boolean keyEquals(int group) {
+        int start = group * numKeyColumns;
+        for (int i = 0; i < numKeyColumns; i++) {
+            Object value = groupKeys[start + i];
+            if (value == null ? probeKey[i] != null : !value.equals(probeKey[i]))
+                return false;
         }
+        return true;
+    }
+
+
+    /**
+     * Adds a group with the values in {@link #probeKey} to the hash table,
+     * growing the table if necessary.
+     *
+     * @return the number of the new group
+     */
+    private int addGroup(int hash) {
+        int group = numGroups;
+        if (group == groupHashes.length) {
+            int capacity = group * 2;
+            groupKeys = Arrays.copyOf(groupKeys, capacity * numKeyColumns);
+            groupHashes = Arrays.copyOf(groupHashes, capacity);
+            for (Accumulator accumulator : accumulators)
+                accumulator.ensureCapacity(capacity);
+        }
+
+        System.arraycopy(probeKey, 0, groupKeys, group * numKeyColumns,
+            numKeyColumns);
+        groupHashes[group] = hash;
+        numGroups++;
+
+        // Keep the hash table at most half full.  When it grows, all groups
+        // must be reinserted.
+        if (numGroups * 2 > slots.length) {
+            slots = new int[slots.length * 2];
+            for (int g = 0; g < numGroups; g++)
+                insertSlot(g);
+        }
+        else {
+            insertSlot(group);
+        }
+
+        // Each group takes a slot in the group arrays and two hash-table
+        // slots, plus the group-by values and the aggregate state.
+        memoryUsed += 12 + 8 * numKeyColumns;
+        for (Object value : probeKey) {
+            if (value instanceof String)
+                memoryUsed += 40 + 2 * ((String) value).length();
+            else if (value != null)
+                memoryUsed += 16;
+        }
+        for (Accumulator accumulator : accumulators)
+            memoryUsed += accumulator.getGroupSize();
+
+        recordMemoryUsed(memoryUsed);
+
+        for (Accumulator accumulator : accumulators)
+            accumulator.addGroup(group);
+
+        return group;
+    }
+
+
+    private void insertSlot(int group) {
+        int mask = slots.length - 1;
+        int slot = mix(groupHashes[group]) & mask;
+        while (slots[slot] != 0)
+            slot = (slot + 1) & mask;
+
+        slots[slot] = group + 1;
+    }
+
+
+    /**
+     * Constructs the result tuple for a group, from the group's values and
+     * its computed aggregate values.
+     */
+    private TupleLiteral generateOutputTuple(int group) {
+        TupleLiteral result = new TupleLiteral();
+
+        int start = group * numKeyColumns;
+        for (int i = 0; i < numKeyColumns; i++)
+            result.addValue(groupKeys[start + i]);
+
+        for (Accumulator accumulator : accumulators)
+            result.addValue(accumulator.getResult(group));
+
+        return result;
     }
 
 
@@ -204,6 +824,24 @@ public class HashedGroupAggregateNode extends GroupAggregateNode {
         // plan-node, since it is a complicated operation.
         prepareSchemaStats();
 
+        // Find the argument of each aggregate, in the order of the output
+        // columns.  COUNT(*) doesn't need its argument evaluated.
+        aggregateArgs = new Expression[aggregates.size()];
+        int i = 0;
+        for (FunctionCall call : aggregates.values()) {
+            List<Expression> args = call.getArguments();
+            if (args.size() != 1) {
+                throw new ExpressionException("Aggregate functions " +
+                    "currently require exactly one argument.");
+            }
+
+            if (!(call.getFunction() instanceof CountStar))
+                aggregateArgs[i] = args.get(0);
+
+            i++;
+        }
+        numKeyColumns = groupByExprs.size();
+
         // Grab the left child's cost, then update the cost based on the cost
         // of hashing and computing aggregates.
         PlanCost childCost = leftChild.getCost();
@@ -220,6 +858,19 @@ public class HashedGroupAggregateNode extends GroupAggregateNode {
 
             // Assume that computing each aggregate value costs one unit.
             cost.cpuCost += estimatedNumTuples * aggregates.size();
+
+            // If the groups don't fit in memory, the input tuples of the
+            // groups that don't fit are written out and read back once more.
+            float groupsSize = estimatedNumTuples * childCost.tupleSize;
+            long budget = getMemoryBudget();
+            if (numKeyColumns > 0 && groupsSize > budget) {
+                float spilled = 1.0f - budget / groupsSize;
+                float inputSize = childCost.numTuples * childCost.tupleSize;
+                float spillBlocks = spilled * inputSize / DBFile.DEFAULT_PAGESIZE;
+
+                cost.numBlockIOs += (long) Math.ceil(2 * spillBlocks);
+                cost.cpuCost += spilled * childCost.numTuples;
+            }
         }
         else {
             logger.info(
@@ -239,14 +890,52 @@ public class HashedGroupAggregateNode extends GroupAggregateNode {
         super.initialize();
 
         // Clear our state.
-        computedAggregates = null;
-        groupIterator = null;
+        releaseState();
+        accumulators = new Accumulator[aggregates.size()];
+        probeKey = new Object[numKeyColumns];
+
+        keyEvaluators = new BatchEvaluator[numKeyColumns];
+        for (int i = 0; i < numKeyColumns; i++)
+            keyEvaluators[i] = BatchEvaluator.create(groupByExprs.get(i),
+                inputSchema, parentEnvironment);
+
+        argEvaluators = new BatchEvaluator[aggregateArgs.length];
+        for (int i = 0; i < aggregateArgs.length; i++) {
+            if (aggregateArgs[i] != null)
+                argEvaluators[i] = BatchEvaluator.create(aggregateArgs[i],
+                    inputSchema, parentEnvironment);
+        }
+        pendingPartitions = new ArrayDeque<Partition>();
+        memoryBudget = getMemoryBudget();
+        computed = false;
         done = false;
 
         leftChild.initialize();
     }
 
 
+    /**
+     * Deletes any partitions that haven't been aggregated, and allows the
+     * hash table to be garbage-collected.
+     */
+    private void releaseState() {
+        if (pendingPartitions != null) {
+            for (Partition partition : pendingPartitions)
+                partition.file.delete();
+
+            pendingPartitions.clear();
+        }
+
+        groupKeys = null;
+        groupHashes = null;
+        slots = null;
+        numGroups = 0;
+        currentGroup = 0;
+        if (accumulators != null)
+            Arrays.fill(accumulators, null);
+    }
+
+
     /**
      * The hashed grouping/aggregate plan node doesn't support marking.
      *
@@ -275,8 +964,345 @@ public class HashedGroupAggregateNode extends GroupAggregateNode {
      */
     public void cleanUp() {
         // Clear our state.
-        computedAggregates = null;
-        groupIterator = null;
+        releaseState();
         leftChild.cleanUp();
     }
+
+
+    /**
+     * The state of one aggregate for every group in the hash table, kept in
+     * arrays indexed by group number.
+     */
+    private abstract static class Accumulator {
+        /** Grows the state arrays to hold at least the specified groups. */
+        abstract void ensureCapacity(int capacity);
+
+        /** Initializes the state of a new group, if necessary. */
+        void addGroup(int group) {
+        }
+
+        /** Updates the state of a group with another input value. */
+        abstract void addValue(int group, Object value);
+
+        /** Returns the aggregate's result for a group. */
+        abstract Object getResult(int group);
+
+        /**
+         * Combines the state of a group of another accumulator for the same
+         * aggregate into the state of a group of this accumulator.
+         */
+        abstract void mergeGroup(int group, Accumulator partial,
+                                 int partialGroup);
+
+        /** Returns the estimated size of a group's state, in bytes. */
+        abstract int getGroupSize();
+    }
+
+
+    /**
+     * Computes <tt>COUNT(*)</tt>, which counts every input tuple, or
+     * <tt>COUNT(...)</tt>, which counts non-<tt>NULL</tt> values.
+     */
+    private static class CountAccumulator extends Accumulator {
+        private boolean countNulls;
+
+        private int[] counts;
+
+        CountAccumulator(boolean countNulls) {
+            this.countNulls = countNulls;
+        }
+
+        void ensureCapacity(int capacity) {
+            counts = (counts == null) ?
+                new int[capacity] : Arrays.copyOf(counts, capacity);
+        }
+
+        void addValue(int group, Object value) {
+            if (value != null || countNulls)
+                counts[group]++;
+        }
+
+        Object getResult(int group) {
+            return Integer.valueOf(counts[group]);
+        }
+
+        void mergeGroup(int group, Accumulator partial, int partialGroup) {
+            counts[group] += ((CountAccumulator) partial).counts[partialGroup];
+        }
+
+        int getGroupSize() {
+            return 4;
+        }
+    }
+
+
+    /** Computes <tt>MIN(...)</tt> or <tt>MAX(...)</tt>. */
+    private static class MinMaxAccumulator extends Accumulator {
+        /**
+         * 1 if the minimum is being computed, or -1 if the maximum is being
+         * computed, as in {@link edu.caltech.nanodb.functions.MinMaxAggregate}.
+         */
+        private int minimumSwitch;
+
+        private Comparable[] results;
+
+        MinMaxAccumulator(boolean minimum) {
+            minimumSwitch = minimum ? 1 : -1;
+        }
+
+        void ensureCapacity(int capacity) {
+            results = (results == null) ?
+                new Comparable[capacity] : Arrays.copyOf(results, capacity);
+        }
+
+        @SuppressWarnings("unchecked")
+        void addValue(int group, Object value) {
+            // NULL values are ignored by aggregate functions.
+            if (value == null)
+                return;
+
+            Comparable comparable = (Comparable) value;
+            Comparable result = results[group];
+            if (result == null || minimumSwitch * result.compareTo(comparable) > 0)
+                results[group] = comparable;
+        }
+
+        Object getResult(int group) {
+            return results[group];
+        }
+
+        void mergeGroup(int group, Accumulator partial, int partialGroup) {
+            addValue(group, ((MinMaxAccumulator) partial).results[partialGroup]);
+        }
+
+        int getGroupSize() {
+            return 24;
+        }
+    }
+
+
+    /**
+     * Computes <tt>SUM(...)</tt> or <tt>AVG(...)</tt> of primitive numeric
+     * values.  As with {@link edu.caltech.nanodb.functions.SumAvgAggregate},
+     * the sum has the widest type of the values added to it, and
+     * <tt>INTEGER</tt> and <tt>BIGINT</tt> averages are <tt>DOUBLE</tt>s.
+     */
+    private static class SumAccumulator extends Accumulator {
+        private static final byte NO_VALUES = 0;
+        private static final byte INT_SUM = 1;
+        private static final byte LONG_SUM = 2;
+        private static final byte FLOAT_SUM = 3;
+        private static final byte DOUBLE_SUM = 4;
+
+        private boolean computeAverage;
+
+        /** The type of each group's sum, or {@link #NO_VALUES}. */
+        private byte[] sumTypes;
+
+        /** The sums of groups whose sum is an integer type. */
+        private long[] longSums;
+
+        /** The sums of groups whose sum is a floating-point type. */
+        private double[] doubleSums;
+
+        /** The number of values added to each group, for averages. */
+        private int[] counts;
+
+        SumAccumulator(boolean computeAverage) {
+            this.computeAverage = computeAverage;
+        }
+
+        void ensureCapacity(int capacity) {
+            if (sumTypes == null) {
+                sumTypes = new byte[capacity];
+                longSums = new long[capacity];
+                doubleSums = new double[capacity];
+                if (computeAverage)
+                    counts = new int[capacity];
+            }
+            else {
+                sumTypes = Arrays.copyOf(sumTypes, capacity);
+                longSums = Arrays.copyOf(longSums, capacity);
+                doubleSums = Arrays.copyOf(doubleSums, capacity);
+                if (computeAverage)
+                    counts = Arrays.copyOf(counts, capacity);
+            }
+        }
+
+        private static byte getSumType(Object value) {
+            if (value instanceof Double)
+                return DOUBLE_SUM;
+            else if (value instanceof Float)
+                return FLOAT_SUM;
+            else if (value instanceof Long)
+                return LONG_SUM;
+            else
+                return INT_SUM;
+        }
+
+        void addValue(int group, Object value) {
+            // NULL values are ignored by aggregate functions.
+            if (value == null)
+                return;
+
+            addToSum(group, (Number) value);
+
+            if (computeAverage)
+                counts[group]++;
+        }
+
+        /** Adds a value to a group's sum, without counting it. */
+        private void addToSum(int group, Number number) {
+            byte valueType = getSumType(number);
+            byte sumType = sumTypes[group];
+
+            if (sumType == NO_VALUES) {
+                // This is the first value.  Store it.
+                if (valueType == INT_SUM || valueType == LONG_SUM)
+                    longSums[group] = number.longValue();
+                else
+                    doubleSums[group] = number.doubleValue();
+
+                sumTypes[group] = valueType;
+            }
+            else {
+                // Coerce the sum to the wider of the two types, then add.
+                if (valueType > sumType) {
+                    if (valueType == FLOAT_SUM && sumType != FLOAT_SUM)
+                        doubleSums[group] = (float) longSums[group];
+                    else if (valueType == DOUBLE_SUM && sumType != FLOAT_SUM)
+                        doubleSums[group] = (double) longSums[group];
+
+                    sumType = valueType;
+                    sumTypes[group] = sumType;
+                }
+
+                switch (sumType) {
+                case INT_SUM:
+                    longSums[group] = (int) longSums[group] + number.intValue();
+                    break;
+
+                case LONG_SUM:
+                    longSums[group] += number.longValue();
+                    break;
+
+                case FLOAT_SUM:
+                    doubleSums[group] =
+                        (float) doubleSums[group] + number.floatValue();
+                    break;
+
+                default:
+                    doubleSums[group] += number.doubleValue();
+                }
+            }
+        }
+
+        void mergeGroup(int group, Accumulator partial, int partialGroup) {
+            SumAccumulator other = (SumAccumulator) partial;
+            if (other.sumTypes[partialGroup] == NO_VALUES)
+                return;
+
+            // The other sum is added as a value of its own type, so that the
+            // combined sum has the widest type of all the values.
+            long longSum = other.longSums[partialGroup];
+            double doubleSum = other.doubleSums[partialGroup];
+            switch (other.sumTypes[partialGroup]) {
+            case INT_SUM:
+                addToSum(group, Integer.valueOf((int) longSum));
+                break;
+
+            case LONG_SUM:
+                addToSum(group, Long.valueOf(longSum));
+                break;
+
+            case FLOAT_SUM:
+                addToSum(group, Float.valueOf((float) doubleSum));
+                break;
+
+            default:
+                addToSum(group, Double.valueOf(doubleSum));
+            }
+
+            if (computeAverage)
+                counts[group] += other.counts[partialGroup];
+        }
+
+        Object getResult(int group) {
+            switch (sumTypes[group]) {
+            case NO_VALUES:
+                return null;
+
+            case INT_SUM:
+            case LONG_SUM:
+                if (computeAverage)
+                    return Double.valueOf((double) longSums[group] / counts[group]);
+                else if (sumTypes[group] == INT_SUM)
+                    return Integer.valueOf((int) longSums[group]);
+                else
+                    return Long.valueOf(longSums[group]);
+
+            case FLOAT_SUM:
+                float floatSum = (float) doubleSums[group];
+                if (computeAverage)
+                    return Float.valueOf(floatSum / counts[group]);
+                else
+                    return Float.valueOf(floatSum);
+
+            default:
+                if (computeAverage)
+                    return Double.valueOf(doubleSums[group] / counts[group]);
+                else
+                    return Double.valueOf(doubleSums[group]);
+            }
+        }
+
+        int getGroupSize() {
+            return computeAverage ? 21 : 17;
+        }
+    }
+
+
+    /**
+     * Computes any other aggregate function by keeping a copy of the
+     * function for each group.
+     */
+    private static class FunctionAccumulator extends Accumulator {
+        private FunctionCall call;
+
+        private AggregateFunction[] functions;
+
+        FunctionAccumulator(FunctionCall call) {
+            this.call = call;
+        }
+
+        void ensureCapacity(int capacity) {
+            functions = (functions == null) ? new AggregateFunction[capacity] :
+                Arrays.copyOf(functions, capacity);
+        }
+
+        void addGroup(int group) {
+            // Copy the aggregate function, since aggregates keep some
+            // internal scratch space for computation.
+            FunctionCall groupCall = (FunctionCall) call.duplicate();
+            functions[group] = (AggregateFunction) groupCall.getFunction();
+        }
+
+        void addValue(int group, Object value) {
+            functions[group].addValue(value);
+        }
+
+        Object getResult(int group) {
+            return functions[group].getResult();
+        }
+
+        /** Aggregate functions can't be combined in general. */
+        void mergeGroup(int group, Accumulator partial, int partialGroup) {
+            throw new UnsupportedOperationException(
+                "Can't combine partial results of " + call);
+        }
+
+        int getGroupSize() {
+            return 64;
+        }
+    }
 }
@@ -0,0 +1,803 @@
+package edu.caltech.nanodb.plans;
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import edu.caltech.nanodb.expressions.ColumnValue;
+import edu.caltech.nanodb.expressions.Expression;
+import edu.caltech.nanodb.expressions.OrderByExpression;
+import edu.caltech.nanodb.expressions.SubqueryOperator;
+import edu.caltech.nanodb.expressions.TupleComparator;
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.qeval.AccessPathSelector;
+import edu.caltech.nanodb.qeval.ColumnStats;
+import edu.caltech.nanodb.qeval.PlanCost;
+import edu.caltech.nanodb.qeval.SelectivityEstimator;
+import edu.caltech.nanodb.qeval.TableStats;
+import edu.caltech.nanodb.relations.ColumnRefs;
+import edu.caltech.nanodb.relations.ColumnType;
+import edu.caltech.nanodb.relations.JoinType;
+import edu.caltech.nanodb.relations.SQLDataType;
+import edu.caltech.nanodb.relations.Schema;
+import edu.caltech.nanodb.relations.TableInfo;
+import edu.caltech.nanodb.relations.Tuple;
+import edu.caltech.nanodb.storage.linhash.LinHashTupleFile;
+
+
+/**
+ * This plan node implements an equijoin by probing the right child for the
+ * join key of each tuple from the left child, rather than scanning the
+ * whole right child for every left tuple.  The right child must be a
+ * <em>probe plan</em>:  a hash-key probe of a hashed table (a
+ * {@link FileScanNode} with a hash key) or an equality lookup on an index (an
+ * {@link IndexScanNode}), optionally beneath {@link RenameNode}s and
+ * {@link SimpleFilterNode}s.  The key that the probe plan was prepared with
+ * is only a placeholder; before each probe it is replaced with the values
+ * of the join key, and the probe plan is initialized again.
+ * <p>
+ * The join predicate must equate every column of the probe key with an
+ * expression over the left child.  The entire predicate is still evaluated
+ * against each pair of tuples, so other conjuncts are also allowed.
+ * <p>
+ * Left tuples are read in batches of {@link #PROP_BATCH_SIZE} tuples, and
+ * each batch is sorted on the probe key (and on the key's bucket, for hashed
+ * tables) before it is probed, so that probes touch the index and table
+ * pages in order, and left tuples with the same key share a single probe.
+ * As a result, the join's output is not in the order of the left child.
+ * <p>
+ * Since only the left child is streamed, this node can evaluate inner joins,
+ * left outer joins, semijoins and antijoins.
+ */
+public class IndexNestedLoopJoinNode extends ThetaJoinNode {
+    /** A logging object for reporting anything interesting that happens. */
+    private static Logger logger =
+        Logger.getLogger(IndexNestedLoopJoinNode.class);
+
+
+    /**
+     * This property can be used to specify the number of left tuples that
+     * are read and sorted before they are probed for.
+     */
+    public static final String PROP_BATCH_SIZE = "nanodb.indexjoin.batchsize";
+
+
+    /** The default number of left tuples in each batch of probes. */
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+
+    /**
+     * This helper class holds one left tuple that is waiting to be joined,
+     * along with its probe key.
+     */
+    private static class ProbeEntry {
+        /** A copy of the left tuple. */
+        TupleLiteral tuple;
+
+        /** The probe key, or {@code null} if the tuple can't match. */
+        TupleLiteral key;
+
+        /** The bucket the key is in, for probes of a hashed table. */
+        int bucket;
+
+        ProbeEntry(TupleLiteral tuple, TupleLiteral key, int bucket) {
+            this.tuple = tuple;
+            this.key = key;
+            this.bucket = bucket;
+        }
+    }
+
+
+    /**
+     * Orders probe entries so that the keys of each bucket are together and
+     * sorted, with the entries that can't match anything at the end.
+     */
+    private static final Comparator<ProbeEntry> PROBE_ORDER =
+        new Comparator<ProbeEntry>() {
+            @Override
+            public int compare(ProbeEntry a, ProbeEntry b) {
+                if (a.key == null || b.key == null) {
+                    if (a.key != null)
+                        return -1;
+                    else if (b.key != null)
+                        return 1;
+                    return 0;
+                }
+
+                if (a.bucket != b.bucket)
+                    return a.bucket < b.bucket ? -1 : 1;
+
+                return TupleComparator.compareTuples(a.key, b.key);
+            }
+        };
+
+
+    /**
+     * The leaf of the right child that the probe key is set on; either a
+     * {@link FileScanNode} with a hash key or an equality
+     * {@link IndexScanNode}.
+     */
+    private PlanNode probeNode;
+
+
+    /**
+     * The expressions evaluated against the left tuples to compute the probe
+     * key, in the order of the probe key's columns.
+     */
+    private ArrayList<Expression> keyExprs;
+
+
+    /** The types of the probe key's columns. */
+    private ArrayList<ColumnType> keyTypes;
+
+
+    /** The number of left tuples in each batch of probes. */
+    private int batchSize;
+
+
+    /** The current batch of left tuples, in the order they are probed. */
+    private ArrayList<ProbeEntry> batch;
+
+
+    /** The index of the next entry of the current batch to probe for. */
+    private int batchPos;
+
+
+    /** The entry whose left tuple is currently being joined. */
+    private ProbeEntry currentEntry;
+
+
+    /** The key that {@link #matches} were probed for. */
+    private TupleLiteral matchesKey;
+
+
+    /** Copies of the right tuples that the last probe produced. */
+    private ArrayList<TupleLiteral> matches;
+
+
+    /** The index of the next tuple in {@link #matches} to join. */
+    private int matchPos;
+
+
+    /** True if the current left tuple has joined with a right tuple. */
+    private boolean entryMatched;
+
+
+    /** A tuple of all <tt>NULL</tt>s, for padding left outer join results. */
+    private TupleLiteral nullRightTuple;
+
+
+    /** Set to true when the left child has been exhausted. */
+    private boolean leftDone;
+
+
+    /** Set to true when we have exhausted all tuples from our subplans. */
+    private boolean done;
+
+
+    /**
+     * Constructs an index nested-loops join node.
+     *
+     * @param leftChild the left relation, whose tuples are probed for
+     * @param rightChild the right relation, which must be a probe plan
+     * @param joinType the type of join to perform
+     * @param predicate the join condition, which must equate every column of
+     *        the right child's probe key with an expression over the left
+     *        child
+     */
+    public IndexNestedLoopJoinNode(PlanNode leftChild, PlanNode rightChild,
+                                   JoinType joinType, Expression predicate) {
+        super(leftChild, rightChild, joinType, predicate);
+    }
+
+
+    /**
+     * Finds the columns of the right relation that the join predicate
+     * equates with expressions over the left relation.  A probe plan for the
+     * right relation may look up any of these columns.  Only numeric and
+     * string columns are reported, since the join key's values must be
+     * converted to the types of the columns they are looked up in.
+     *
+     * @param predicate the join predicate
+     * @param leftSchema the schema of the left relation
+     * @param rightSchema the schema of the right relation
+     *
+     * @return the indexes of the right relation's columns that can be looked
+     *         up with the join key
+     */
+    public static List<Integer> findProbeColumns(Expression predicate,
+        Schema leftSchema, Schema rightSchema) {
+
+        ArrayList<Expression> leftKeys = new ArrayList<Expression>();
+        ArrayList<Expression> rightKeys = new ArrayList<Expression>();
+        HashJoinNode.findJoinKeys(predicate, leftSchema, rightSchema,
+            leftKeys, rightKeys);
+
+        ArrayList<Integer> columns = new ArrayList<Integer>();
+        for (Expression rightKey : rightKeys) {
+            if (!(rightKey instanceof ColumnValue))
+                continue;
+
+            int colIndex = rightSchema.getColumnIndex(
+                ((ColumnValue) rightKey).getColumnName());
+            if (colIndex < 0 || columns.contains(colIndex))
+                continue;
+
+            SQLDataType type =
+                rightSchema.getColumnInfo(colIndex).getType().getBaseType();
+            if (SQLDataType.isNumber(type) || SQLDataType.isString(type))
+                columns.add(colIndex);
+        }
+
+        return columns;
+    }
+
+
+    /**
+     * Finds the leaf of a probe plan that the probe key is set on.
+     *
+     * @param plan the plan to examine
+     *
+     * @return the hash-key {@link FileScanNode} or equality
+     *         {@link IndexScanNode} at the bottom of the plan, or
+     *         {@code null} if the plan isn't a probe plan
+     */
+    public static PlanNode findProbeNode(PlanNode plan) {
+        while (plan instanceof RenameNode || plan instanceof SimpleFilterNode)
+            plan = plan.getLeftChild();
+
+        if (plan instanceof FileScanNode) {
+            FileScanNode fileScan = (FileScanNode) plan;
+            if (fileScan.getHashKey() != null)
+                return plan;
+        }
+        else if (plan instanceof IndexScanNode) {
+            IndexScanNode indexScan = (IndexScanNode) plan;
+            if (indexScan.getScanType() == IndexScanNode.ScanType.EQUALITY)
+                return plan;
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Checks if the argument is a plan node tree with the same structure, but not
+     * necessarily the same references.
+     *
+     * @param obj the object to which we are comparing
+     */
+    @Override
+    public boolean equals(Object obj) {
+
+        if (obj instanceof IndexNestedLoopJoinNode) {
+            IndexNestedLoopJoinNode other = (IndexNestedLoopJoinNode) obj;
+
+            return joinType == other.joinType &&
+                predicate.equals(other.predicate) &&
+                leftChild.equals(other.leftChild) &&
+                rightChild.equals(other.rightChild);
+        }
+
+        return false;
+    }
+
+
+    /** Computes the hash-code of the index nested-loops join plan node. */
+    @Override
+    public int hashCode() {
+        int hash = 13;
+        hash = 31 * hash + joinType.hashCode();
+        hash = 31 * hash + predicate.hashCode();
+        hash = 31 * hash + leftChild.hashCode();
+        hash = 31 * hash + rightChild.hashCode();
+        return hash;
+    }
+
+
+    /**
+     * Returns a string representing this join's vital information.
+     *
+     * @return a string representing this plan-node.
+     */
+    @Override
+    public String toString() {
+        StringBuilder buf = new StringBuilder();
+
+        buf.append("IndexNestedLoopJoin[");
+
+        if (joinType != JoinType.INNER)
+            buf.append(joinType).append(", ");
+
+        buf.append("pred:  ").append(predicate);
+
+        if (keyExprs != null)
+            buf.append(", probe key:  ").append(keyExprs);
+
+        if (schemaSwapped)
+            buf.append(" (schema swapped)");
+
+        buf.append(']');
+
+        return buf.toString();
+    }
+
+
+    /**
+     * Creates a copy of this plan node and its subtrees.
+     */
+    @Override
+    protected PlanNode clone() throws CloneNotSupportedException {
+        IndexNestedLoopJoinNode node = (IndexNestedLoopJoinNode) super.clone();
+
+        // Clone the predicate.
+        node.predicate = predicate.duplicate();
+
+        // The probe node is in the copy's own right subtree, so it is found
+        // again when the copy is prepared.
+        node.probeNode = null;
+        node.keyExprs = null;
+        node.keyTypes = null;
+
+        // The copy must not share any execution state with this node.
+        node.batch = null;
+        node.currentEntry = null;
+        node.matchesKey = null;
+        node.matches = null;
+
+        return node;
+    }
+
+
+    /**
+     * Only inner joins may be swapped, since for the other join types the
+     * two inputs play different roles.  Swapping only produces a valid plan
+     * if the new right child is also a probe plan.
+     *
+     * @throws IllegalStateException if this is not an inner join
+     */
+    @Override
+    public void swap() {
+        if (joinType != JoinType.INNER) {
+            throw new IllegalStateException(
+                "Can't swap the inputs of a " + joinType + " index join");
+        }
+
+        super.swap();
+    }
+
+
+    /**
+     * Since each batch of left tuples is reordered by its probe keys, the
+     * results are not ordered.
+     */
+    @Override
+    public List<OrderByExpression> resultsOrderedBy() {
+        return null;
+    }
+
+
+    /** Index nested-loops joins don't support marking. */
+    public boolean supportsMarking() {
+        return false;
+    }
+
+
+    /** Index nested-loops joins don't require marking on either child. */
+    public boolean requiresLeftMarking() {
+        return false;
+    }
+
+
+    /** Index nested-loops joins don't require marking on either child. */
+    public boolean requiresRightMarking() {
+        return false;
+    }
+
+
+    @Override
+    public boolean supportsJoinType(JoinType type) {
+        return type == JoinType.INNER || type == JoinType.LEFT_OUTER ||
+            type == JoinType.SEMIJOIN || type == JoinType.ANTIJOIN;
+    }
+
+
+    @Override
+    public void prepare() {
+        // Need to prepare the left and right child-nodes before we can do
+        // our own work.
+        leftChild.prepare();
+        rightChild.prepare();
+
+        // Use the parent class' helper-function to prepare the schema.
+        prepareSchemaStats();
+
+        probeNode = findProbeNode(rightChild);
+        if (probeNode == null) {
+            throw new IllegalStateException("The right child of an index " +
+                "join must probe a hashed table or an index; got " +
+                rightChild);
+        }
+
+        List<Integer> keyColumns = getProbeKeyColumns();
+        findKeyExprs(keyColumns);
+
+        float selectivity = SelectivityEstimator.estimateSelectivity(predicate,
+            schema, stats);
+
+        // Semijoins and antijoins only produce tuples from the left child.
+        if (joinType == JoinType.SEMIJOIN || joinType == JoinType.ANTIJOIN) {
+            schema = new Schema();
+            schema.append(leftSchema);
+            stats = new ArrayList<ColumnStats>(leftStats);
+        }
+
+        // The right child's cost is the cost of a single probe.
+        PlanCost leftCost = leftChild.getCost();
+        PlanCost probeCost = rightChild.getCost();
+
+        if (leftCost != null && probeCost != null) {
+            TableStats rightTableStats =
+                getProbeTable().getTupleFile().getStats();
+
+            float numTuples = leftCost.numTuples * rightTableStats.numTuples *
+                selectivity;
+            float tupleSize = leftCost.tupleSize + probeCost.tupleSize;
+
+            // The fraction of left tuples estimated to have a match.
+            float matchFraction =
+                Math.min(1.0f, rightTableStats.numTuples * selectivity);
+
+            switch (joinType) {
+            case LEFT_OUTER:
+                numTuples = Math.max(numTuples, leftCost.numTuples);
+                break;
+
+            case SEMIJOIN:
+                numTuples = leftCost.numTuples * matchFraction;
+                tupleSize = leftCost.tupleSize;
+                break;
+
+            case ANTIJOIN:
+                numTuples = leftCost.numTuples * (1.0f - matchFraction);
+                tupleSize = leftCost.tupleSize;
+                break;
+
+            default:
+                // Inner joins use the estimate computed above.
+            }
+
+            // The left input is read once and sorted in batches, and then
+            // each left tuple is probed for.
+            int probeBatchSize = getBatchSize();
+            float numProbes = leftCost.numTuples;
+            float probesPerBatch = Math.min(numProbes, probeBatchSize);
+            float sortCost =
+                (float) (Math.log(probesPerBatch + 1) / Math.log(2));
+
+            float cpuCost = leftCost.cpuCost +
+                numProbes * (probeCost.cpuCost + sortCost) + numTuples;
+
+            // Since each batch is probed in key order, a batch never reads a
+            // page of the right table more than once.
+            float numBatches = (float) Math.ceil(numProbes / probeBatchSize);
+            float batchBlockIOs = probesPerBatch * probeCost.numBlockIOs;
+            if (rightTableStats.numDataPages > 0) {
+                batchBlockIOs = Math.min(batchBlockIOs,
+                    rightTableStats.numDataPages);
+            }
+
+            long numBlockIOs = leftCost.numBlockIOs +
+                (long) Math.ceil(numBatches * batchBlockIOs);
+
+            cost = new PlanCost(numTuples, tupleSize, cpuCost, numBlockIOs);
+        }
+    }
+
+
+    /**
+     * Returns the table that the probe node reads.
+     *
+     * @return the table that the probe node reads
+     */
+    private TableInfo getProbeTable() {
+        if (probeNode instanceof FileScanNode)
+            return ((FileScanNode) probeNode).getTableInfo();
+
+        return ((IndexScanNode) probeNode).getIndexInfo().getTableInfo();
+    }
+
+
+    /**
+     * Returns the columns of the right child that the probe node's key
+     * specifies, in the order of the key's values.  Probe plans don't
+     * reorder columns, so these are also the indexes of the columns in the
+     * probed table.
+     *
+     * @return the indexes of the probe key's columns
+     */
+    private List<Integer> getProbeKeyColumns() {
+        if (probeNode instanceof FileScanNode) {
+            TableInfo tableInfo = ((FileScanNode) probeNode).getTableInfo();
+            return ((LinHashTupleFile) tableInfo.getTupleFile()).getHashColumns();
+        }
+
+        IndexScanNode indexScan = (IndexScanNode) probeNode;
+        ColumnRefs indexColRefs = indexScan.getIndexInfo().getTableColumnRefs();
+
+        ArrayList<Integer> columns = new ArrayList<Integer>();
+        for (int i = 0; i < indexScan.getSearchKey().getColumnCount(); i++)
+            columns.add(indexColRefs.getCol(i));
+
+        return columns;
+    }
+
+
+    /**
+     * Finds the expressions over the left child that compute the probe key,
+     * from the equijoin conjuncts of the join predicate.
+     *
+     * @param keyColumns the indexes of the probe key's columns in the right
+     *        child's schema
+     *
+     * @throws IllegalStateException if some column of the probe key isn't
+     *         equated with an expression over the left child
+     */
+    private void findKeyExprs(List<Integer> keyColumns) {
+        ArrayList<Expression> leftKeys = new ArrayList<Expression>();
+        ArrayList<Expression> rightKeys = new ArrayList<Expression>();
+        HashJoinNode.findJoinKeys(predicate, leftSchema, rightSchema,
+            leftKeys, rightKeys);
+
+        keyExprs = new ArrayList<Expression>();
+        keyTypes = new ArrayList<ColumnType>();
+        for (int colIndex : keyColumns) {
+            Expression keyExpr = null;
+            for (int i = 0; i < rightKeys.size(); i++) {
+                Expression rightKey = rightKeys.get(i);
+                if (rightKey instanceof ColumnValue && colIndex ==
+                    rightSchema.getColumnIndex(((ColumnValue) rightKey).getColumnName())) {
+                    keyExpr = leftKeys.get(i);
+                    break;
+                }
+            }
+
+            if (keyExpr == null) {
+                throw new IllegalStateException("Join predicate " + predicate +
+                    " doesn't specify a value for probe column " +
+                    rightSchema.getColumnInfo(colIndex));
+            }
+
+            keyExprs.add(keyExpr);
+            keyTypes.add(rightSchema.getColumnInfo(colIndex).getType());
+        }
+    }
+
+
+    /**
+     * Returns the number of left tuples in each batch of probes, as
+     * specified by the {@link #PROP_BATCH_SIZE} property.
+     *
+     * @return the number of left tuples in each batch of probes
+     */
+    public static int getBatchSize() {
+        return Math.max(1, Integer.getInteger(PROP_BATCH_SIZE,
+            DEFAULT_BATCH_SIZE));
+    }
+
+
+    public void initialize() {
+        super.initialize();
+
+        batchSize = getBatchSize();
+        nullRightTuple = new TupleLiteral(rightSchema.numColumns());
+
+        batch = new ArrayList<ProbeEntry>();
+        batchPos = 0;
+        currentEntry = null;
+
+        matchesKey = null;
+        matches = new ArrayList<TupleLiteral>();
+        matchPos = 0;
+        entryMatched = false;
+
+        leftDone = false;
+        done = false;
+    }
+
+
+    /**
+     * Returns the next joined tuple that satisfies the join condition.
+     *
+     * @return the next joined tuple that satisfies the join condition.
+     *
+     * @throws IOException if a db file failed to open at some point
+     */
+    protected Tuple produceNextTuple() throws IOException {
+        if (done)
+            return null;
+
+        while (true) {
+            if (currentEntry != null) {
+                Tuple leftTuple = currentEntry.tuple;
+                while (matchPos < matches.size()) {
+                    TupleLiteral rightTuple = matches.get(matchPos++);
+                    if (!canJoinTuples(leftTuple, rightTuple))
+                        continue;
+
+                    entryMatched = true;
+
+                    if (joinType == JoinType.SEMIJOIN) {
+                        currentEntry = null;
+                        return leftTuple;
+                    }
+                    else if (joinType == JoinType.ANTIJOIN) {
+                        break;
+                    }
+
+                    return joinTuples(leftTuple, rightTuple);
+                }
+
+                // Done with this left tuple.  Unmatched tuples still produce
+                // a result for left outer joins and antijoins.
+                Tuple result = null;
+                if (!entryMatched) {
+                    if (joinType == JoinType.LEFT_OUTER)
+                        result = joinTuples(leftTuple, nullRightTuple);
+                    else if (joinType == JoinType.ANTIJOIN)
+                        result = leftTuple;
+                }
+
+                currentEntry = null;
+
+                if (result != null)
+                    return result;
+            }
+
+            if (batchPos == batch.size() && !readBatch()) {
+                done = true;
+                return null;
+            }
+
+            currentEntry = batch.get(batchPos++);
+            entryMatched = false;
+            matchPos = 0;
+
+            // Consecutive entries with the same key reuse the same matches.
+            if (currentEntry.key == null) {
+                matchesKey = null;
+                matches.clear();
+            }
+            else if (!currentEntry.key.equals(matchesKey)) {
+                probe(currentEntry.key);
+            }
+        }
+    }
+
+
+    /**
+     * Reads the next batch of left tuples, computes their probe keys, and
+     * sorts the batch into the order it will be probed in.
+     *
+     * @return true if a batch was read, or false if the left child has been
+     *         exhausted
+     *
+     * @throws IOException if the left child couldn't be read
+     */
+    private boolean readBatch() throws IOException {
+        batch.clear();
+        batchPos = 0;
+
+        LinHashTupleFile hashFile = null;
+        if (probeNode instanceof FileScanNode) {
+            hashFile = (LinHashTupleFile)
+                ((FileScanNode) probeNode).getTableInfo().getTupleFile();
+        }
+
+        while (!leftDone && batch.size() < batchSize) {
+            Tuple tuple = leftChild.getNextTuple();
+            if (tuple == null) {
+                leftDone = true;
+                break;
+            }
+
+            TupleLiteral key = computeKey(tuple);
+            int bucket = 0;
+            if (key != null && hashFile != null)
+                bucket = hashFile.getKeyBucket(key);
+
+            batch.add(new ProbeEntry(new TupleLiteral(tuple), key, bucket));
+        }
+
+        // The sort is stable, so tuples with the same key stay in the order
+        // the left child produced them.
+        Collections.sort(batch, PROBE_ORDER);
+
+        logger.debug("Read a batch of " + batch.size() + " tuples to probe for");
+
+        return !batch.isEmpty();
+    }
+
+
+    /**
+     * Evaluates the probe key against a left tuple, converting each value to
+     * the type of the column it is looked up in.
+     *
+     * @return the probe key, or {@code null} if any part of the key is
+     *         <tt>NULL</tt> or has no equal value in the column's type, so
+     *         that the tuple can't match anything
+     */
+    private TupleLiteral computeKey(Tuple tuple) {
+        environment.clear();
+        environment.addTuple(leftSchema, tuple);
+
+        TupleLiteral key = new TupleLiteral(keyExprs.size());
+        for (int i = 0; i < keyExprs.size(); i++) {
+            Object value = AccessPathSelector.coerceValue(
+                keyExprs.get(i).evaluate(environment), keyTypes.get(i));
+            if (value == null)
+                return null;
+
+            key.setColumnValue(i, value);
+        }
+
+        return key;
+    }
+
+
+    /**
+     * Runs the right child for the specified probe key, and collects copies
+     * of the tuples it produces into {@link #matches}.
+     *
+     * @param key the probe key
+     *
+     * @throws IOException if the right child couldn't be read
+     */
+    private void probe(TupleLiteral key) throws IOException {
+        if (probeNode instanceof FileScanNode)
+            ((FileScanNode) probeNode).setHashKey(key);
+        else
+            ((IndexScanNode) probeNode).setSearchKey(key);
+
+        rightChild.initialize();
+
+        matches.clear();
+        while (true) {
+            Tuple tuple = rightChild.getNextTuple();
+            if (tuple == null)
+                break;
+
+            matches.add(new TupleLiteral(tuple));
+        }
+
+        matchesKey = key;
+    }
+
+
+    public void markCurrentPosition() {
+        throw new UnsupportedOperationException(
+            "Index nested-loops join plan-node doesn't support marking.");
+    }
+
+
+    public void resetToLastMark() throws IllegalStateException {
+        throw new UnsupportedOperationException(
+            "Index nested-loops join plan-node doesn't support marking.");
+    }
+
+
+    public void cleanUp() {
+        batch = null;
+        matches = null;
+        currentEntry = null;
+        SubqueryOperator.cleanUp(predicate);
+
+        leftChild.cleanUp();
+        rightChild.cleanUp();
+    }
+}
@@ -2,28 +2,68 @@ package edu.caltech.nanodb.plans;
 
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.commons.lang.ObjectUtils;
 import org.apache.log4j.Logger;
 
+import edu.caltech.nanodb.client.SessionState;
+import edu.caltech.nanodb.expressions.BooleanOperator;
+import edu.caltech.nanodb.expressions.ColumnValue;
+import edu.caltech.nanodb.expressions.CompareOperator;
+import edu.caltech.nanodb.expressions.LiteralValue;
 import edu.caltech.nanodb.expressions.OrderByExpression;
 import edu.caltech.nanodb.expressions.TupleComparator;
 import edu.caltech.nanodb.expressions.TupleLiteral;
 import edu.caltech.nanodb.indexes.IndexInfo;
 import edu.caltech.nanodb.indexes.IndexManager;
 import edu.caltech.nanodb.indexes.IndexUtils;
+import edu.caltech.nanodb.qeval.PlanCost;
+import edu.caltech.nanodb.qeval.SelectivityEstimator;
 import edu.caltech.nanodb.qeval.TableStats;
+import edu.caltech.nanodb.relations.ColumnInfo;
+import edu.caltech.nanodb.relations.ColumnRefs;
 import edu.caltech.nanodb.relations.Schema;
+import edu.caltech.nanodb.relations.TableConstraintType;
+import edu.caltech.nanodb.relations.TableInfo;
 import edu.caltech.nanodb.relations.Tuple;
 import edu.caltech.nanodb.storage.FilePointer;
+import edu.caltech.nanodb.storage.HashedTupleFile;
 import edu.caltech.nanodb.storage.InvalidFilePointerException;
+import edu.caltech.nanodb.storage.PageTuple;
 import edu.caltech.nanodb.storage.SequentialTupleFile;
 import edu.caltech.nanodb.storage.TupleFile;
+import edu.caltech.nanodb.transactions.LockException;
+import edu.caltech.nanodb.transactions.LockManager;
+import edu.caltech.nanodb.transactions.LockMode;
+import edu.caltech.nanodb.transactions.LockResource;
+import edu.caltech.nanodb.transactions.TransactionState;
 
 
 /**
- * Created by donnie on 3/9/15.
+ * <p>
+ * A plan-node that uses an index to find the tuples of a table, rather than
+ * scanning the whole table.  An equality scan produces the tuples whose
+ * indexed columns are equal to a search key; the key may specify a prefix of
+ * the index's columns if the index is ordered.  A range scan produces the
+ * tuples whose indexed columns fall between optional lower and upper bounds,
+ * and requires an ordered index.
+ * </p>
+ * <p>
+ * The node doesn't apply any other predicate to the tuples it produces, so
+ * the planner is responsible for filtering them.  If a lock manager is
+ * specified, the node acquires a shared lock on each table tuple it
+ * produces.
+ * </p>
+ * <p>
+ * For tables that store multiple versions of their tuples, the node skips
+ * the versions that aren't visible to the current transaction, just as
+ * {@link FileScanNode} does, and doesn't lock versioned tuples when the
+ * transaction reads from a snapshot.  However, deleting a versioned tuple
+ * removes its index entries while other snapshots may still see it, so the
+ * planner doesn't use indexes to read versioned tables.
+ * </p>
  */
 public class IndexScanNode extends PlanNode {
 
@@ -31,6 +71,13 @@ public class IndexScanNode extends PlanNode {
     private static Logger logger = Logger.getLogger(IndexScanNode.class);
 
 
+    /**
+     * The estimated number of entries in each page of an index, used to
+     * estimate how many pages must be read to descend an ordered index.
+     */
+    private static final int INDEX_FANOUT = 100;
+
+
     /** The type of the index scan. */
     public static enum ScanType {
         /** The scan type is an equality scan. */
@@ -56,6 +103,17 @@ public class IndexScanNode extends PlanNode {
     private TupleFile tableTupleFile;
 
 
+    /** The table-info for the table that the index is built against. */
+    private TableInfo tableInfo;
+
+
+    /**
+     * The lock manager used to lock the tuples this node reads, or
+     * {@code null} if no locking is performed.
+     */
+    private LockManager lockManager;
+
+
     private ScanType scanType;
 
 
@@ -106,7 +164,8 @@ public class IndexScanNode extends PlanNode {
      *
      * @param indexInfo the information about the index being used
      * @param searchKey the search key to use for equality-based lookup on the
-     *        index
+     *        index; for ordered indexes, it may specify a prefix of the
+     *        index's columns
      */
     public IndexScanNode(IndexInfo indexInfo, TupleLiteral searchKey) {
         super(OperationType.SELECT);
@@ -116,7 +175,8 @@ public class IndexScanNode extends PlanNode {
 
         this.indexInfo = indexInfo;
         indexTupleFile = indexInfo.getTupleFile();
-        tableTupleFile = indexInfo.getTableInfo().getTupleFile();
+        tableInfo = indexInfo.getTableInfo();
+        tableTupleFile = tableInfo.getTupleFile();
 
         Schema idxSchema = indexTupleFile.getSchema();
         idxTuplePtr = idxSchema.getColumnIndex(IndexManager.COLNAME_TUPLEPTR);
@@ -131,6 +191,21 @@ public class IndexScanNode extends PlanNode {
     }
 
 
+    /**
+     * Construct an index scan node that performs a range scan on an ordered
+     * index.  Either bound may be omitted, in which case the scan starts at
+     * the beginning of the index or continues to its end.
+     *
+     * @param indexInfo the information about the index being used
+     * @param lowerValue the lower bound of the scan, or {@code null} if the
+     *        scan has no lower bound
+     * @param includeLower true if index entries equal to the lower bound are
+     *        included in the scan
+     * @param upperValue the upper bound of the scan, or {@code null} if the
+     *        scan has no upper bound
+     * @param includeUpper true if index entries equal to the upper bound are
+     *        included in the scan
+     */
     public IndexScanNode(IndexInfo indexInfo, TupleLiteral lowerValue,
                          boolean includeLower, TupleLiteral upperValue,
                          boolean includeUpper) {
@@ -147,7 +222,8 @@ public class IndexScanNode extends PlanNode {
                 "must use a sequential tuple file.");
         }
 
-        tableTupleFile = indexInfo.getTableInfo().getTupleFile();
+        tableInfo = indexInfo.getTableInfo();
+        tableTupleFile = tableInfo.getTupleFile();
 
         Schema idxSchema = indexTupleFile.getSchema();
         idxTuplePtr = idxSchema.getColumnIndex(IndexManager.COLNAME_TUPLEPTR);
@@ -167,8 +243,88 @@ public class IndexScanNode extends PlanNode {
 
 
     /**
-     * Returns true if the passed-in object is a <tt>FileScanNode</tt> with
-     * the same predicate and table.
+     * Sets the lock manager that this node uses to lock the tuples it reads.
+     *
+     * @param lockManager the lock manager, or {@code null} to disable locking
+     */
+    public void setLockManager(LockManager lockManager) {
+        this.lockManager = lockManager;
+    }
+
+
+    /**
+     * Returns the information about the index being scanned.
+     *
+     * @return the information about the index being scanned
+     */
+    public IndexInfo getIndexInfo() {
+        return indexInfo;
+    }
+
+
+    /**
+     * Returns the information about the table that the index is built
+     * against.
+     *
+     * @return the table that the index is built against
+     */
+    public TableInfo getTableInfo() {
+        return tableInfo;
+    }
+
+
+    /**
+     * Returns the type of this index scan.
+     *
+     * @return the type of this index scan
+     */
+    public ScanType getScanType() {
+        return scanType;
+    }
+
+
+    /**
+     * Returns the search key of an equality scan.
+     *
+     * @return the search key of an equality scan, or the lower bound of a
+     *         range scan
+     */
+    public TupleLiteral getSearchKey() {
+        return value1;
+    }
+
+
+    /**
+     * Replaces the search key of an equality scan, so that the scan can be
+     * run again for a different key, e.g. once for each outer tuple of an
+     * {@link IndexNestedLoopJoinNode}.  The new key takes effect the next
+     * time the node is initialized, and must specify the same index columns
+     * as the key that the node was prepared with.
+     *
+     * @param searchKey the new search key
+     *
+     * @throws IllegalStateException if this is not an equality scan
+     * @throws IllegalArgumentException if the new key has a different number
+     *         of values than the current key
+     */
+    public void setSearchKey(TupleLiteral searchKey) {
+        if (scanType != ScanType.EQUALITY) {
+            throw new IllegalStateException(
+                "Only equality scans have a search key");
+        }
+
+        if (searchKey.getColumnCount() != value1.getColumnCount()) {
+            throw new IllegalArgumentException("Search key " + searchKey +
+                " doesn't specify the same columns as " + value1);
+        }
+
+        value1 = searchKey;
+    }
+
+
+    /**
+     * Returns true if the passed-in object is an <tt>IndexScanNode</tt> with
+     * the same index and search values.
      *
      * @param obj the object to check for equality
      *
@@ -261,13 +417,24 @@ public class IndexScanNode extends PlanNode {
 
 
     /**
-     * Currently we will always say that the file-scan node produces unsorted
-     * results.  In actuality, a file scan's results will be sorted if the table
-     * file uses a sequential format, but currently we don't have any sequential
-     * file formats.
+     * Scans of an ordered index produce tuples in the order of the indexed
+     * columns; scans of a hash index produce unsorted results.
      */
     public List<OrderByExpression> resultsOrderedBy() {
-        return null;
+        if (!(indexTupleFile instanceof SequentialTupleFile))
+            return null;
+
+        Schema tableSchema = tableTupleFile.getSchema();
+        ColumnRefs indexColRefs = indexInfo.getTableColumnRefs();
+
+        ArrayList<OrderByExpression> ordering = new ArrayList<OrderByExpression>();
+        for (int i = 0; i < indexColRefs.size(); i++) {
+            ColumnInfo colInfo = tableSchema.getColumnInfo(indexColRefs.getCol(i));
+            ordering.add(
+                new OrderByExpression(new ColumnValue(colInfo.getColumnName())));
+        }
+
+        return ordering;
     }
 
 
@@ -307,8 +474,118 @@ public class IndexScanNode extends PlanNode {
         TableStats tableStats = tableTupleFile.getStats();
         stats = tableStats.getAllColumnStats();
 
-        // TODO:  Cost the plan node
-        cost = null;
+        float selectivity = estimateSelectivity();
+        float numTuples = tableStats.numTuples * selectivity;
+
+        // An equality lookup on all columns of a unique index finds at most
+        // one tuple.
+        ColumnRefs indexColRefs = indexInfo.getTableColumnRefs();
+        TableConstraintType constraintType = indexColRefs.getConstraintType();
+        if (scanType == ScanType.EQUALITY && constraintType != null &&
+            constraintType.isUnique() &&
+            value1.getColumnCount() >= indexColRefs.size()) {
+            numTuples = Math.min(numTuples, 1);
+            if (tableStats.numTuples > 0)
+                selectivity = 1.0f / tableStats.numTuples;
+        }
+
+        // Descending the index reads one page per level, then the scan reads
+        // the index pages holding the matching entries.  Each table tuple is
+        // fetched separately, but no more pages can be read than the table
+        // has.
+        long indexPages = getNumIndexPages();
+        long numBlockIOs = 1;
+        if (indexTupleFile instanceof SequentialTupleFile) {
+            for (long n = indexPages; n > INDEX_FANOUT; n /= INDEX_FANOUT)
+                numBlockIOs++;
+        }
+        numBlockIOs += (long) Math.ceil(indexPages * selectivity);
+
+        long tablePages = (long) Math.ceil(numTuples);
+        if (tableStats.numDataPages > 0)
+            tablePages = Math.min(tablePages, tableStats.numDataPages);
+        numBlockIOs += tablePages;
+
+        // The CPU cost is proportional to the number of index entries and
+        // table tuples that are examined.
+        cost = new PlanCost(numTuples, tableStats.avgTupleSize,
+            2 * numTuples, numBlockIOs);
+    }
+
+
+    /**
+     * Estimates the fraction of the table's tuples that the scan produces,
+     * by building the comparisons that the search values represent and
+     * passing them to the {@link SelectivityEstimator}.
+     *
+     * @return the estimated selectivity of the scan
+     */
+    private float estimateSelectivity() {
+        ColumnRefs indexColRefs = indexInfo.getTableColumnRefs();
+
+        if (scanType == ScanType.EQUALITY) {
+            BooleanOperator pred =
+                new BooleanOperator(BooleanOperator.Type.AND_EXPR);
+            for (int i = 0; i < value1.getColumnCount(); i++) {
+                pred.addTerm(makeComparison(indexColRefs.getCol(i),
+                    CompareOperator.Type.EQUALS, value1.getColumnValue(i)));
+            }
+
+            return SelectivityEstimator.estimateSelectivity(pred, schema, stats);
+        }
+
+        // Only the first column of a range's bounds can be estimated.  The
+        // bounds are on the same column, so they aren't independent; the
+        // fraction of values between them is the sum of the fractions above
+        // the lower bound and below the upper bound, less one.
+        int colIndex = indexColRefs.getCol(0);
+        float selectivity = 1.0f;
+        if (value1 != null) {
+            selectivity = SelectivityEstimator.estimateSelectivity(
+                makeComparison(colIndex, includeValue1 ?
+                    CompareOperator.Type.GREATER_OR_EQUAL :
+                    CompareOperator.Type.GREATER_THAN,
+                    value1.getColumnValue(0)), schema, stats);
+        }
+
+        if (value2 != null) {
+            float upperSelectivity = SelectivityEstimator.estimateSelectivity(
+                makeComparison(colIndex, includeValue2 ?
+                    CompareOperator.Type.LESS_OR_EQUAL :
+                    CompareOperator.Type.LESS_THAN,
+                    value2.getColumnValue(0)), schema, stats);
+
+            selectivity = Math.max(0, selectivity + upperSelectivity - 1);
+        }
+
+        return selectivity;
+    }
+
+
+    private CompareOperator makeComparison(int colIndex,
+        CompareOperator.Type type, Object value) {
+        ColumnValue column =
+            new ColumnValue(schema.getColumnInfo(colIndex).getColumnName());
+        return new CompareOperator(type, column, new LiteralValue(value));
+    }
+
+
+    /**
+     * Returns the number of data pages in the index file, or 1 if the number
+     * of pages can't be determined.
+     *
+     * @return the number of data pages in the index file
+     */
+    private long getNumIndexPages() {
+        try {
+            // The first page of the file is a header page.
+            return Math.max(1, indexTupleFile.getDBFile().getNumPages() - 1);
+        }
+        catch (IOException e) {
+            logger.warn("Couldn't get the size of index " +
+                indexInfo.getIndexName(), e);
+            return 1;
+        }
     }
 
 
@@ -326,47 +603,76 @@ public class IndexScanNode extends PlanNode {
 
 
     @Override
-    public Tuple getNextTuple() throws IllegalStateException, IOException {
+    protected Tuple produceNextTuple() throws IllegalStateException, IOException {
 
         if (done)
             return null;
 
-        if (jumpToMarkedTuple) {
-            logger.debug("Resuming at previously marked tuple.");
+        while (true) {
+            if (jumpToMarkedTuple) {
+                logger.debug("Resuming at previously marked tuple.");
+                try {
+                    currentIndexTuple = indexTupleFile.getTuple(markedTuple);
+                }
+                catch (InvalidFilePointerException e) {
+                    throw new IOException(
+                        "Couldn't resume at previously marked tuple!", e);
+                }
+                jumpToMarkedTuple = false;
+            }
+            else if (currentIndexTuple == null) {
+                // Navigate to the first tuple.
+                currentIndexTuple = findFirstTuple();
+            }
+            else {
+                // Go ahead and navigate to the next tuple.
+                currentIndexTuple = findNextTuple(currentIndexTuple);
+            }
+
+            if (currentIndexTuple == null) {
+                done = true;
+                return null;
+            }
+
+            // Now, look up the table tuple based on the index tuple's
+            // file-pointer.
+            FilePointer tuplePtr =
+                (FilePointer) currentIndexTuple.getColumnValue(idxTuplePtr);
+            Tuple tableTuple;
             try {
-                currentIndexTuple = indexTupleFile.getTuple(markedTuple);
+                tableTuple = tableTupleFile.getTuple(tuplePtr);
             }
             catch (InvalidFilePointerException e) {
                 throw new IOException(
-                    "Couldn't resume at previously marked tuple!", e);
+                    "Couldn't retrieve table-tuple referenced by index!", e);
             }
-            jumpToMarkedTuple = false;
-        }
-        else if (currentIndexTuple == null) {
-            // Navigate to the first tuple.
-            currentIndexTuple = findFirstTuple();
-        }
-        else {
-            // Go ahead and navigate to the next tuple.
-            currentIndexTuple = findNextTuple(currentIndexTuple);
-            if (currentIndexTuple == null)
-                done = true;
-        }
 
-        // Now, look up the table tuple based on the index tuple's
-        // file-pointer.
-        FilePointer tuplePtr =
-            (FilePointer) currentIndexTuple.getColumnValue(idxTuplePtr);
-        Tuple tableTuple;
-        try {
-            tableTuple = tableTupleFile.getTuple(tuplePtr);
-        }
-        catch (InvalidFilePointerException e) {
-            throw new IOException(
-                "Couldn't retrieve table-tuple referenced by index!", e);
+            if (isLocking())
+                acquireLock(LockResource.forTuple(tableInfo, tableTuple));
+
+            if (isVisible(tableTuple))
+                return tableTuple;
+
+            // Skip tuple versions that the transaction can't see.
+            tableTuple.unpin();
         }
+    }
+
+
+    /**
+     * Returns true if the specified table tuple is visible to the current
+     * transaction, using the same check as {@link FileScanNode}.
+     * Unversioned tuples are always visible.
+     *
+     * @param tuple the table tuple to check
+     *
+     * @return true if the tuple should be produced by the scan
+     */
+    private boolean isVisible(Tuple tuple) {
+        if (!(tuple instanceof PageTuple) || !((PageTuple) tuple).isVersioned())
+            return true;
 
-        return tableTuple;
+        return SessionState.get().getTxnState().isVisible((PageTuple) tuple);
     }
 
 
@@ -378,10 +684,25 @@ public class IndexScanNode extends PlanNode {
         }
         else if (scanType == ScanType.RANGE) {
             SequentialTupleFile seqTupleFile = (SequentialTupleFile) indexTupleFile;
-            if (includeValue1)
+            if (value1 == null)
+                firstTuple = seqTupleFile.getFirstTuple();
+            else if (includeValue1)
                 firstTuple = seqTupleFile.findFirstTupleEquals(value1);
             else
                 firstTuple = seqTupleFile.findFirstTupleGreaterThan(value1);
+
+            // If no index entry equals the lower bound, the scan starts at
+            // the first entry greater than it.
+            if (firstTuple == null && value1 != null && includeValue1)
+                firstTuple = seqTupleFile.findFirstTupleGreaterThan(value1);
+
+            // Tuples with a NULL in the first indexed column are never in a
+            // range, and they sort before all other values.
+            while (firstTuple != null && firstTuple.isNullValue(0))
+                firstTuple = seqTupleFile.getNextTuple(firstTuple);
+
+            if (firstTuple != null && isPastUpperBound(firstTuple))
+                firstTuple = null;
         }
         else {
             throw new IllegalStateException(
@@ -393,30 +714,95 @@ public class IndexScanNode extends PlanNode {
 
 
     private Tuple findNextTuple(Tuple tuple) throws IOException {
-        Tuple nextTuple = indexTupleFile.getNextTuple(tuple);
-        if (nextTuple != null) {
-            if (scanType == ScanType.EQUALITY) {
+        Tuple nextTuple;
+        if (scanType == ScanType.EQUALITY) {
+            if (indexTupleFile instanceof HashedTupleFile) {
+                nextTuple = ((HashedTupleFile)
+                    indexTupleFile).findNextTupleEquals(tuple);
+            }
+            else {
                 // Make sure the next tuple is equal to the search-key
                 // value.
-                int cmp = TupleComparator.comparePartialTuples(nextTuple, value1);
-                if (cmp != 0)
-                    nextTuple = null;
-            }
-            else if (scanType == ScanType.RANGE) {
-                int cmp = TupleComparator.comparePartialTuples(nextTuple, value2);
-                if (cmp > 0 || (cmp == 0 && !includeValue2))
+                nextTuple = indexTupleFile.getNextTuple(tuple);
+                if (nextTuple != null &&
+                    TupleComparator.comparePartialTuples(nextTuple, value1) != 0) {
                     nextTuple = null;
+                }
             }
-            else {
-                throw new IllegalStateException(
-                    "scanType must be EQUALITY or RANGE!  Got " + scanType);
-            }
+        }
+        else if (scanType == ScanType.RANGE) {
+            nextTuple = indexTupleFile.getNextTuple(tuple);
+            if (nextTuple != null && isPastUpperBound(nextTuple))
+                nextTuple = null;
+        }
+        else {
+            throw new IllegalStateException(
+                "scanType must be EQUALITY or RANGE!  Got " + scanType);
         }
 
         return nextTuple;
     }
 
 
+    /**
+     * Returns true if the specified index tuple is beyond the upper bound of
+     * a range scan.
+     *
+     * @param tuple the index tuple to check
+     *
+     * @return true if the tuple is beyond the upper bound of the scan, or
+     *         false if it is within the bound or the scan has no upper bound
+     */
+    private boolean isPastUpperBound(Tuple tuple) {
+        if (value2 == null)
+            return false;
+
+        int cmp = TupleComparator.comparePartialTuples(tuple, value2);
+        return cmp > 0 || (cmp == 0 && !includeValue2);
+    }
+
+
+    /**
+     * Returns true if this node locks the tuples it reads:  it must have a
+     * lock manager and be running in a transaction.  Versioned tables aren't
+     * locked when the transaction reads from a snapshot.
+     *
+     * @return true if this node should acquire locks
+     */
+    private boolean isLocking() {
+        if (lockManager == null)
+            return false;
+
+        TransactionState txnState = SessionState.get().getTxnState();
+        if (!txnState.isTxnInProgress())
+            return false;
+
+        return txnState.getSnapshot() == null ||
+               !tableInfo.getSchema().isVersioned();
+    }
+
+
+    /**
+     * Acquires a shared lock on the specified resource for the current
+     * transaction.
+     *
+     * @param resource the resource to lock
+     *
+     * @throws IOException if the lock couldn't be acquired; the cause is the
+     *         {@link LockException} reported by the lock manager
+     */
+    private void acquireLock(LockResource resource) throws IOException {
+        TransactionState txnState = SessionState.get().getTxnState();
+        try {
+            lockManager.acquireLock(txnState.getTransactionID(), resource,
+                LockMode.SHARED);
+        }
+        catch (LockException e) {
+            throw new IOException("Couldn't lock " + resource, e);
+        }
+    }
+
+
     public void cleanUp() {
         // Nothing to do!
     }
@@ -0,0 +1,227 @@
+package edu.caltech.nanodb.plans;
+
+
+import java.io.IOException;
+
+import java.util.List;
+
+import edu.caltech.nanodb.expressions.OrderByExpression;
+
+import edu.caltech.nanodb.qeval.PlanCost;
+
+import edu.caltech.nanodb.relations.Tuple;
+
+
+/**
+ * This plan node implements the <tt>LIMIT</tt> and <tt>OFFSET</tt> clauses
+ * of a <tt>SELECT</tt> statement.  The first <tt>offset</tt> tuples of the
+ * subplan are skipped, and then at most <tt>limit</tt> tuples are produced.
+ * Once the limit has been reached, no more tuples are requested from the
+ * subplan.
+ */
+public class LimitOffsetNode extends PlanNode {
+
+    /**
+     * The maximum number of tuples to produce, or 0 if there is no limit.
+     */
+    private int limit;
+
+
+    /** The number of tuples of the subplan to skip. */
+    private int offset;
+
+
+    /** The number of tuples produced so far. */
+    private int tuplesReturned;
+
+
+    /** True once the offset tuples have been skipped. */
+    private boolean skipped;
+
+
+    /**
+     * Constructs a limit/offset node over the specified subplan.
+     *
+     * @param subplan the subplan whose results are limited
+     * @param limit the maximum number of tuples to produce, or 0 if there is
+     *        no limit
+     * @param offset the number of tuples of the subplan to skip
+     */
+    public LimitOffsetNode(PlanNode subplan, int limit, int offset) {
+        super(OperationType.LIMIT, subplan);
+
+        if (limit < 0)
+            throw new IllegalArgumentException("limit cannot be negative");
+
+        if (offset < 0)
+            throw new IllegalArgumentException("offset cannot be negative");
+
+        this.limit = limit;
+        this.offset = offset;
+    }
+
+
+    /**
+     * Returns the maximum number of tuples to produce, or 0 if there is no
+     * limit.
+     *
+     * @return the maximum number of tuples to produce
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+
+    /**
+     * Returns the number of tuples of the subplan that are skipped.
+     *
+     * @return the number of tuples of the subplan that are skipped
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+
+    /**
+     * This node's results are sorted if its subplan produces sorted results.
+     */
+    public List<OrderByExpression> resultsOrderedBy() {
+        return leftChild.resultsOrderedBy();
+    }
+
+
+    /**
+     * The limit/offset node doesn't support marking, since resetting would
+     * also have to reset the count of tuples produced.
+     */
+    public boolean supportsMarking() {
+        return false;
+    }
+
+
+    /** The limit/offset node doesn't require marking from its child. */
+    public boolean requiresLeftMarking() {
+        return false;
+    }
+
+
+    /** The limit/offset node doesn't require marking from its child. */
+    public boolean requiresRightMarking() {
+        return false;
+    }
+
+
+    // Inherit javadocs from base class.
+    public void prepare() {
+        // Need to prepare the left child-node before we can do our own work.
+        leftChild.prepare();
+
+        // The schema and stats are the same as the child's.
+        schema = leftChild.getSchema();
+        stats = leftChild.getStats();
+
+        PlanCost childCost = leftChild.getCost();
+        if (childCost != null) {
+            cost = new PlanCost(childCost);
+
+            float numTuples = Math.max(0, childCost.numTuples - offset);
+            if (limit > 0)
+                numTuples = Math.min(numTuples, limit);
+
+            cost.numTuples = numTuples;
+            cost.cpuCost += Math.min(childCost.numTuples, offset) + numTuples;
+        }
+    }
+
+
+    public void initialize() {
+        super.initialize();
+
+        tuplesReturned = 0;
+        skipped = false;
+
+        leftChild.initialize();
+    }
+
+
+    protected Tuple produceNextTuple() throws IOException {
+        if (limit > 0 && tuplesReturned >= limit)
+            return null;
+
+        if (!skipped) {
+            for (int i = 0; i < offset; i++) {
+                if (leftChild.getNextTuple() == null)
+                    break;
+            }
+            skipped = true;
+        }
+
+        Tuple tup = leftChild.getNextTuple();
+        if (tup != null)
+            tuplesReturned++;
+
+        return tup;
+    }
+
+
+    /** The limit/offset node doesn't support marking. */
+    public void markCurrentPosition() {
+        throw new UnsupportedOperationException(
+            "Limit/offset plan-node doesn't support marking.");
+    }
+
+
+    /** The limit/offset node doesn't support marking. */
+    public void resetToLastMark() {
+        throw new UnsupportedOperationException(
+            "Limit/offset plan-node doesn't support marking.");
+    }
+
+
+    public void cleanUp() {
+        leftChild.cleanUp();
+    }
+
+
+    @Override
+    public String toString() {
+        return "LimitOffset[limit:  " + limit + ", offset:  " + offset + "]";
+    }
+
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj instanceof LimitOffsetNode) {
+            LimitOffsetNode other = (LimitOffsetNode) obj;
+
+            return limit == other.limit && offset == other.offset &&
+                   leftChild.equals(other.leftChild);
+        }
+        return false;
+    }
+
+
+    @Override
+    public int hashCode() {
+        int hash = 17;
+        hash = 31 * hash + limit;
+        hash = 31 * hash + offset;
+        hash = 31 * hash + leftChild.hashCode();
+        return hash;
+    }
+
+
+    /**
+     * Creates a copy of this limit/offset node and its subtree.  This method
+     * is used by {@link PlanNode#duplicate} to copy a plan tree.
+     */
+    @Override
+    protected PlanNode clone() throws CloneNotSupportedException {
+        LimitOffsetNode node = (LimitOffsetNode) super.clone();
+
+        // Copy the subtree.
+        node.leftChild = leftChild.duplicate();
+
+        return node;
+    }
+}
@@ -8,6 +8,7 @@ import org.apache.log4j.Logger;
 
 import edu.caltech.nanodb.expressions.Expression;
 import edu.caltech.nanodb.expressions.OrderByExpression;
+import edu.caltech.nanodb.expressions.SubqueryOperator;
 import edu.caltech.nanodb.qeval.ColumnStats;
 import edu.caltech.nanodb.qeval.PlanCost;
 import edu.caltech.nanodb.qeval.SelectivityEstimator;
@@ -209,12 +210,12 @@ public class NestedLoopsJoinNode extends ThetaJoinNode {
      *
      * @throws IOException if a db file failed to open at some point
      */
-    public Tuple getNextTuple() throws IOException {
+    protected Tuple produceNextTuple() throws IOException {
         if (done)
             return null;
 
         while (getTuplesToJoin()) {
-            if (canJoinTuples())
+            if (canJoinTuples(leftTuple, rightTuple))
                 return joinTuples(leftTuple, rightTuple);
         }
 
@@ -264,19 +265,6 @@ public class NestedLoopsJoinNode extends ThetaJoinNode {
     }
 
 
-    private boolean canJoinTuples() {
-        // If the predicate was not set, we can always join them!
-        if (predicate == null)
-            return true;
-
-        environment.clear();
-        environment.addTuple(leftSchema, leftTuple);
-        environment.addTuple(rightSchema, rightTuple);
-
-        return predicate.evaluatePredicate(environment);
-    }
-
-
     public void markCurrentPosition() {
         leftChild.markCurrentPosition();
         rightChild.markCurrentPosition();
@@ -293,6 +281,8 @@ public class NestedLoopsJoinNode extends ThetaJoinNode {
 
 
     public void cleanUp() {
+        SubqueryOperator.cleanUp(predicate);
+
         leftChild.cleanUp();
         rightChild.cleanUp();
     }
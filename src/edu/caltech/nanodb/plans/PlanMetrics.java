@@ -0,0 +1,171 @@
+package edu.caltech.nanodb.plans;
+
+
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * This class holds what a plan node actually did while it was evaluated, so
+ * that it can be compared with the node's estimated {@link
+ * edu.caltech.nanodb.qeval.PlanCost cost}.  The rows, time and pages of a node
+ * include the work done by its children while producing the node's results,
+ * and the number of loops is the number of times the node was initialized,
+ * which is more than one for the inner side of a nested-loop join.  The
+ * memory is the most memory the node held at once, as estimated by nodes
+ * that hold tuples in memory, such as sorts and hash joins.
+ * <p>
+ * Plan nodes only record metrics when they are enabled with
+ * {@link PlanNode#setMetricsEnabled}, which <tt>EXPLAIN ANALYZE</tt> does.
+ * Recording them costs two calls to {@link System#nanoTime} for each tuple or
+ * batch a node produces, so they can also be recorded for a sample of the
+ * queries that are executed normally, as specified by the
+ * {@link #PROP_SAMPLE_INTERVAL} property.
+ */
+public class PlanMetrics {
+
+    /**
+     * This property can be used to record the metrics of every
+     * <em>n</em><sup>th</sup> query that is executed, and log them with its
+     * plan.  An interval of 0 records no metrics.
+     */
+    public static final String PROP_SAMPLE_INTERVAL = "nanodb.exec.metrics.sample";
+
+
+    /** The default is to not record the metrics of queries. */
+    public static final int DEFAULT_SAMPLE_INTERVAL = 0;
+
+
+    /** The number of queries that have been considered for sampling. */
+    private static AtomicLong numQueries = new AtomicLong();
+
+
+    /**
+     * Returns true if the metrics of the query that is about to be executed
+     * should be recorded, as specified by the {@link #PROP_SAMPLE_INTERVAL}
+     * property.
+     *
+     * @return true if the next query's metrics should be recorded
+     */
+    public static boolean sampleNextQuery() {
+        int interval = Integer.getInteger(PROP_SAMPLE_INTERVAL,
+            DEFAULT_SAMPLE_INTERVAL);
+        if (interval <= 0)
+            return false;
+
+        return numQueries.incrementAndGet() % interval == 0;
+    }
+
+
+    /** The number of times the node was initialized. */
+    private long loops;
+
+
+    /** The number of rows the node produced. */
+    private long rows;
+
+
+    /** The time spent producing the node's results, in nanoseconds. */
+    private long elapsedNanos;
+
+
+    /** The number of pages that were found in the buffer manager. */
+    private long pagesHit;
+
+
+    /** The number of pages that were read from their files. */
+    private long pagesRead;
+
+
+    /** The most memory the node held at once, in bytes. */
+    private long peakMemory;
+
+
+    public long getLoops() {
+        return loops;
+    }
+
+
+    public long getRows() {
+        return rows;
+    }
+
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+
+    public long getPagesHit() {
+        return pagesHit;
+    }
+
+
+    public long getPagesRead() {
+        return pagesRead;
+    }
+
+
+    public long getPeakMemory() {
+        return peakMemory;
+    }
+
+
+    /** Records that the node was initialized. */
+    void recordLoop() {
+        loops++;
+    }
+
+
+    /**
+     * Records one call to produce the node's results.
+     *
+     * @param rows the number of rows that were produced
+     * @param elapsedNanos the time the call took, in nanoseconds
+     * @param pagesHit the number of pages found in the buffer manager
+     * @param pagesRead the number of pages read from their files
+     */
+    void recordCall(long rows, long elapsedNanos, long pagesHit,
+                    long pagesRead) {
+        this.rows += rows;
+        this.elapsedNanos += elapsedNanos;
+        this.pagesHit += pagesHit;
+        this.pagesRead += pagesRead;
+    }
+
+
+    /**
+     * Records how much memory the node holds, if it is more than it held
+     * before.
+     *
+     * @param bytes the estimated number of bytes the node holds
+     */
+    void recordMemory(long bytes) {
+        if (bytes > peakMemory)
+            peakMemory = bytes;
+    }
+
+
+    /**
+     * Adds the metrics of a copy of the node, such as a copy that was
+     * evaluated by a worker thread, to these metrics.  The copies ran at the
+     * same time, so their memory is added together too.
+     *
+     * @param other the metrics of the copy
+     */
+    void add(PlanMetrics other) {
+        loops += other.loops;
+        rows += other.rows;
+        elapsedNanos += other.elapsedNanos;
+        pagesHit += other.pagesHit;
+        pagesRead += other.pagesRead;
+        peakMemory += other.peakMemory;
+    }
+
+
+    @Override
+    public String toString() {
+        return String.format("[rows=%d, loops=%d, time=%.3fms, pagesHit=%d, " +
+            "pagesRead=%d, memory=%d]", rows, loops, elapsedNanos / 1e6,
+            pagesHit, pagesRead, peakMemory);
+    }
+}
@@ -11,6 +11,7 @@ import java.util.List;
 
 import edu.caltech.nanodb.expressions.Environment;
 import edu.caltech.nanodb.expressions.OrderByExpression;
+import edu.caltech.nanodb.expressions.TupleBatch;
 
 import edu.caltech.nanodb.qeval.ColumnStats;
 import edu.caltech.nanodb.qeval.PlanCost;
@@ -18,7 +19,7 @@ import edu.caltech.nanodb.qeval.PlanCost;
 import edu.caltech.nanodb.relations.Schema;
 import edu.caltech.nanodb.relations.Tuple;
 
-import edu.caltech.nanodb.storage.DBPage;
+import edu.caltech.nanodb.storage.PageAccessCounters;
 
 
 /**
@@ -47,11 +48,31 @@ public abstract class PlanNode implements Cloneable {
         /** Sorting operator. */
         SORT,
 
+        /** An operator that skips and limits the number of rows produced. */
+        LIMIT,
+
         /** A materialize plan-node. */
-        MATERIALIZE
+        MATERIALIZE,
+
+        /**
+         * An exchange operator, which evaluates copies of its subplan in
+         * parallel and gathers their results.
+         */
+        EXCHANGE
     }
 
 
+    /**
+     * This property can be used to specify the number of tuples that plan
+     * nodes process in each batch.
+     */
+    public static final String PROP_BATCH_SIZE = "nanodb.exec.batchsize";
+
+
+    /** The default number of tuples in each batch is 1024. */
+    public static final int DEFAULT_BATCH_SIZE = 1024;
+
+
     /** The type of this plan node. */
     protected OperationType nodeType;
 
@@ -99,6 +120,14 @@ public abstract class PlanNode implements Cloneable {
     protected ArrayList<ColumnStats> stats;
 
 
+    /**
+     * What this node actually did while it was evaluated, or <tt>null</tt>
+     * if the node doesn't record its metrics.  This is set by
+     * {@link #setMetricsEnabled}.
+     */
+    private PlanMetrics metrics;
+
+
     /**
      * The environment used to evaluate expressions against tuples being
      * processed.
@@ -106,6 +135,15 @@ public abstract class PlanNode implements Cloneable {
     protected Environment environment;
 
 
+    /**
+     * If not {@code null}, the environment that column references not found
+     * in this node's own tuples are resolved against.  This is set on the
+     * plans of correlated subqueries, so that they can refer to columns of
+     * the enclosing query.
+     */
+    protected Environment parentEnvironment;
+
+
     /**
      * Constructs a PlanNode with a given operation type.  This method will be
      * called by subclass constructors.
@@ -183,18 +221,20 @@ public abstract class PlanNode implements Cloneable {
 
 
     /**
-     * This method reports whether this plan node supports producing its
-     * results in blocks (i.e. {@link DBPage} objects) of tuples, as opposed
-     * to by individual tuples.
+     * This method reports whether this plan node implements
+     * {@link #getNextBatch} itself, producing its results a batch at a time
+     * without going through {@link #getNextTuple} for each tuple.  Callers
+     * can use this to decide whether to consume the node's results in
+     * batches or one tuple at a time.
      *
      * The default implementation provided in this base-class <em>does not</em>
-     * support block-level traversal, but subclasses can provide such support
-     * if they so desire.
+     * support batch-at-a-time execution, but subclasses can provide such
+     * support if they so desire.
      *
-     * @return {@code true} if the plan node supports block-level traversal
-     *         of its contents, or {@code false} otherwise.
+     * @return {@code true} if the plan node produces its results in batches
+     *         natively, or {@code false} otherwise.
      */
-    public boolean supportsBlockLevelTraversal() {
+    public boolean supportsBatchExecution() {
         return false;
     }
 
@@ -238,6 +278,29 @@ public abstract class PlanNode implements Cloneable {
     public abstract void prepare();
 
 
+    /**
+     * Returns the left child of this plan node, which is the only child of
+     * nodes that have one child.
+     *
+     * @return the left child of this plan node, or <tt>null</tt> if the node
+     *         is a leaf
+     */
+    public final PlanNode getLeftChild() {
+        return leftChild;
+    }
+
+
+    /**
+     * Returns the right child of this plan node.
+     *
+     * @return the right child of this plan node, or <tt>null</tt> if the
+     *         node has fewer than two children
+     */
+    public final PlanNode getRightChild() {
+        return rightChild;
+    }
+
+
     /**
      * Returns the schema of the results that this node produces.  Some nodes
      * such as Select will not change the input schema but others, such as
@@ -292,15 +355,137 @@ public abstract class PlanNode implements Cloneable {
      */
     public void initialize() {
         if (environment == null)
-            environment = new Environment();
+            environment = new Environment(parentEnvironment);
+
+        if (metrics != null)
+            metrics.recordLoop();
+    }
+
+
+    /**
+     * Turns the recording of metrics on or off for this node and its
+     * subtree.  Turning them on starts them over from zero.
+     *
+     * @param enabled true to record the metrics of the subtree, or false to
+     *        stop recording them
+     */
+    public void setMetricsEnabled(boolean enabled) {
+        metrics = enabled ? new PlanMetrics() : null;
+
+        if (leftChild != null)
+            leftChild.setMetricsEnabled(enabled);
+
+        if (rightChild != null)
+            rightChild.setMetricsEnabled(enabled);
+    }
+
+
+    /**
+     * Returns what this node actually did while it was evaluated.
+     *
+     * @return the metrics of this node, or <tt>null</tt> if the node doesn't
+     *         record its metrics
+     */
+    public final PlanMetrics getMetrics() {
+        return metrics;
+    }
+
+
+    /**
+     * Records how much memory the node holds.  Nodes that hold tuples in
+     * memory call this as the memory they hold grows, so that the most
+     * memory they held is reported.
+     *
+     * @param bytes the estimated number of bytes the node holds
+     */
+    protected final void recordMemoryUsed(long bytes) {
+        if (metrics != null)
+            metrics.recordMemory(bytes);
+    }
+
+
+    /**
+     * Adds the metrics of a copy of this subtree to the metrics of this
+     * subtree, node by node.  This is used by nodes that evaluate copies of
+     * their subplans, so that the copies' work is reported with the subplan.
+     *
+     * @param copy a copy of this subtree, made by {@link #duplicate}
+     */
+    protected void addMetrics(PlanNode copy) {
+        if (metrics != null && copy.metrics != null)
+            metrics.add(copy.metrics);
+
+        if (leftChild != null && copy.leftChild != null)
+            leftChild.addMetrics(copy.leftChild);
+
+        if (rightChild != null && copy.rightChild != null)
+            rightChild.addMetrics(copy.rightChild);
+    }
+
+
+    /**
+     * Sets the environment that this node and its subtree resolve column
+     * references against when the references aren't to columns of the
+     * tuples being processed.  This is used for the plans of subqueries,
+     * which can refer to columns of the enclosing query.
+     *
+     * @param parent the parent environment, or {@code null} for none
+     */
+    public void setParentEnvironment(Environment parent) {
+        parentEnvironment = parent;
+        if (environment != null)
+            environment.setParent(parent);
+
+        if (leftChild != null)
+            leftChild.setParentEnvironment(parent);
+
+        if (rightChild != null)
+            rightChild.setParentEnvironment(parent);
     }
 
 
     /**
      * Gets the next tuple that fulfills the conditions for this plan node.
-     * If the node has a child, it should call getNextTuple() on the child.
-     * If the node is a leaf, the tuple comes from some external source such
-     * as a table file, the network, etc.
+     * The tuple is produced by {@link #produceNextTuple}, and recorded in the
+     * node's metrics if they are enabled.
+     *
+     * @return the next tuple to be generated by this plan, or <tt>null</tt>
+     *         if the plan has finished generating plan nodes.
+     *
+     * @throws IOException if table data cannot be read from the filesystem
+     * @throws IllegalStateException if a plan node is not properly initialized
+     */
+    public final Tuple getNextTuple()
+        throws IllegalStateException, IOException {
+
+        if (metrics == null)
+            return produceNextTuple();
+
+        PageAccessCounters pages = PageAccessCounters.forCurrentThread();
+        long pagesHit = pages.getPagesHit();
+        long pagesRead = pages.getPagesRead();
+        long startTime = System.nanoTime();
+
+        Tuple tuple = null;
+        try {
+            tuple = produceNextTuple();
+        }
+        finally {
+            metrics.recordCall((tuple != null) ? 1 : 0,
+                System.nanoTime() - startTime,
+                pages.getPagesHit() - pagesHit,
+                pages.getPagesRead() - pagesRead);
+        }
+
+        return tuple;
+    }
+
+
+    /**
+     * Produces the next tuple that fulfills the conditions for this plan
+     * node.  If the node has a child, it should call getNextTuple() on the
+     * child.  If the node is a leaf, the tuple comes from some external
+     * source such as a table file, the network, etc.
      *
      * @return the next tuple to be generated by this plan, or <tt>null</tt>
      *         if the plan has finished generating plan nodes.
@@ -308,10 +493,101 @@ public abstract class PlanNode implements Cloneable {
      * @throws IOException if table data cannot be read from the filesystem
      * @throws IllegalStateException if a plan node is not properly initialized
      */
-    public abstract Tuple getNextTuple()
+    protected abstract Tuple produceNextTuple()
         throws IllegalStateException, IOException;
 
 
+    /**
+     * Returns the number of tuples that plan nodes request from their
+     * children in each batch, as specified by the {@link #PROP_BATCH_SIZE}
+     * property.
+     *
+     * @return the number of tuples in each batch
+     */
+    public static int getBatchSize() {
+        return Math.max(1, Integer.getInteger(PROP_BATCH_SIZE,
+            DEFAULT_BATCH_SIZE));
+    }
+
+
+    /**
+     * Gets the next batch of tuples produced by this plan node.  A node's
+     * results should be consumed either with this method or with
+     * {@link #getNextTuple}, but not both, since nodes may read ahead of
+     * the tuples they have produced.  The returned batch, and the vectors
+     * in it, are only valid until the next call to this method.  The batch
+     * is produced by {@link #produceNextBatch}, and recorded in the node's
+     * metrics if they are enabled.
+     *
+     * @param maxRows the maximum number of tuples to return
+     *
+     * @return the next batch of tuples, which holds at least one tuple, or
+     *         <tt>null</tt> if the plan has finished generating tuples.
+     *
+     * @throws IOException if table data cannot be read from the filesystem
+     * @throws IllegalStateException if a plan node is not properly initialized
+     */
+    public final TupleBatch getNextBatch(int maxRows)
+        throws IllegalStateException, IOException {
+
+        if (metrics == null)
+            return produceNextBatch(maxRows);
+
+        PageAccessCounters pages = PageAccessCounters.forCurrentThread();
+        long pagesHit = pages.getPagesHit();
+        long pagesRead = pages.getPagesRead();
+        long startTime = System.nanoTime();
+
+        TupleBatch batch = null;
+        try {
+            batch = produceNextBatch(maxRows);
+        }
+        finally {
+            metrics.recordCall((batch != null) ? batch.size() : 0,
+                System.nanoTime() - startTime,
+                pages.getPagesHit() - pagesHit,
+                pages.getPagesRead() - pagesRead);
+        }
+
+        return batch;
+    }
+
+
+    /**
+     * Produces the next batch of tuples of this plan node.
+     * <p>
+     * The default implementation fills a batch by calling
+     * {@link #produceNextTuple}, so that nodes that don't support batches
+     * can still be used as the children of nodes that do.  Nodes that report
+     * {@link #supportsBatchExecution} override this method.
+     *
+     * @param maxRows the maximum number of tuples to return
+     *
+     * @return the next batch of tuples, which holds at least one tuple, or
+     *         <tt>null</tt> if the plan has finished generating tuples.
+     *
+     * @throws IOException if table data cannot be read from the filesystem
+     * @throws IllegalStateException if a plan node is not properly initialized
+     */
+    protected TupleBatch produceNextBatch(int maxRows)
+        throws IllegalStateException, IOException {
+
+        TupleBatch batch = null;
+        while (batch == null || !batch.isFull()) {
+            Tuple tuple = produceNextTuple();
+            if (tuple == null)
+                break;
+
+            if (batch == null)
+                batch = new TupleBatch(schema.numColumns(), maxRows);
+
+            batch.addTuple(tuple);
+        }
+
+        return batch;
+    }
+
+
     /**
      * Marks the current tuple in the tuple-stream produced by this node.  The
      * {@link #resetToLastMark} method can be used to return to this tuple.
@@ -377,6 +653,9 @@ public abstract class PlanNode implements Cloneable {
                 buf.append(" cost is unknown");
         }
 
+        if (metrics != null)
+            buf.append(" actual=").append(metrics);
+
         out.println(buf.toString());
 
         if (leftChild != null)
@@ -494,6 +773,10 @@ public abstract class PlanNode implements Cloneable {
         // Environment is used for execution.
         node.environment = null;
 
+        // The copy records its own metrics, if this node records metrics.
+        if (metrics != null)
+            node.metrics = new PlanMetrics();
+
         // Copy the children if applicable.
         if (this.leftChild != null)
             node.leftChild = this.leftChild.clone();
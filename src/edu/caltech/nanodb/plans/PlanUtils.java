@@ -1,8 +1,14 @@
 package edu.caltech.nanodb.plans;
 
 
+import java.util.List;
+
 import edu.caltech.nanodb.expressions.BooleanOperator;
+import edu.caltech.nanodb.expressions.ColumnValue;
 import edu.caltech.nanodb.expressions.Expression;
+import edu.caltech.nanodb.expressions.OrderByExpression;
+import edu.caltech.nanodb.relations.Schema;
+import edu.caltech.nanodb.relations.SchemaNameException;
 
 /**
  * A collection of helpful utilities that can be used for generating,
@@ -89,4 +95,130 @@ public class PlanUtils {
 
         return plan;
     }
+
+    /**
+     * Returns the index of the column in a schema that an expression refers
+     * to, if the expression is a simple column reference.
+     *
+     * @param expr the expression to resolve
+     *
+     * @param schema the schema to resolve the expression against
+     *
+     * @return the index of the column that the expression refers to, or -1
+     *         if the expression isn't a column reference, or doesn't refer to
+     *         exactly one column of the schema
+     */
+    public static int getColumnIndex(Expression expr, Schema schema) {
+        if (!(expr instanceof ColumnValue))
+            return -1;
+
+        try {
+            return schema.getColumnIndex(((ColumnValue) expr).getColumnName());
+        }
+        catch (SchemaNameException e) {
+            // The column name is ambiguous.
+            return -1;
+        }
+    }
+
+
+    /**
+     * Reports whether two expressions are known to produce the same value
+     * for every tuple of a schema.  This is the case if the expressions are
+     * equal, or if they are column references that resolve to the same
+     * column, e.g. <tt>t.a</tt> and <tt>a</tt>.
+     *
+     * @param expr1 the first expression
+     *
+     * @param expr2 the second expression
+     *
+     * @param schema the schema of the tuples the expressions are evaluated
+     *        against
+     *
+     * @return true if the expressions always produce the same value
+     */
+    public static boolean isSameValue(Expression expr1, Expression expr2,
+                                      Schema schema) {
+        if (expr1.equals(expr2))
+            return true;
+
+        int index = getColumnIndex(expr1, schema);
+        return index != -1 && index == getColumnIndex(expr2, schema);
+    }
+
+
+    /**
+     * Reports whether tuples in the order described by <tt>ordering</tt> are
+     * also in the order that <tt>required</tt> describes; that is, whether
+     * the required ordering is a prefix of the actual ordering, with the
+     * same directions.
+     *
+     * @param ordering the order of the tuples, as reported by
+     *        {@link PlanNode#resultsOrderedBy}; may be {@code null}
+     *
+     * @param required the order that the tuples must be in
+     *
+     * @param schema the schema of the tuples
+     *
+     * @return true if the tuples are in the required order
+     */
+    public static boolean isOrderedBy(List<OrderByExpression> ordering,
+        List<OrderByExpression> required, Schema schema) {
+
+        if (ordering == null || ordering.size() < required.size())
+            return false;
+
+        for (int i = 0; i < required.size(); i++) {
+            OrderByExpression have = ordering.get(i);
+            OrderByExpression want = required.get(i);
+
+            if (have.isAscending() != want.isAscending() ||
+                !isSameValue(have.getExpression(), want.getExpression(), schema)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Reports whether tuples in the order described by <tt>ordering</tt>
+     * arrive grouped by the specified expressions, so that all tuples with
+     * the same grouping values are next to each other.  This is the case if
+     * the first entries of the ordering are the grouping expressions, in any
+     * order and in either direction.
+     *
+     * @param ordering the order of the tuples, as reported by
+     *        {@link PlanNode#resultsOrderedBy}; may be {@code null}
+     *
+     * @param groupByExprs the grouping expressions
+     *
+     * @param schema the schema of the tuples
+     *
+     * @return true if the tuples arrive grouped by the expressions
+     */
+    public static boolean isGroupedBy(List<OrderByExpression> ordering,
+        List<Expression> groupByExprs, Schema schema) {
+
+        if (ordering == null || ordering.size() < groupByExprs.size())
+            return false;
+
+        for (int i = 0; i < groupByExprs.size(); i++) {
+            Expression orderExpr = ordering.get(i).getExpression();
+
+            boolean found = false;
+            for (Expression groupExpr : groupByExprs) {
+                if (isSameValue(orderExpr, groupExpr, schema)) {
+                    found = true;
+                    break;
+                }
+            }
+
+            if (!found)
+                return false;
+        }
+
+        return true;
+    }
 }
\ No newline at end of file
@@ -52,6 +52,32 @@ public class ProjectNode extends PlanNode {
     private List<ColumnInfo> nonWildcardColumnInfos;
 
 
+    /**
+     * For each column of this node's schema, the index of the input column
+     * that it is a copy of, or -1 if the column is computed from an
+     * expression.  This allows the ordering of the input to be carried over
+     * to the results.
+     */
+    private List<Integer> inputColumnIndexes;
+
+
+    /**
+     * For each column of this node's schema that is computed from an
+     * expression, the evaluator used to compute the column over batches of
+     * input tuples.  This is {@code null} until the first batch is
+     * projected.
+     */
+    private BatchEvaluator[] columnEvaluators;
+
+
+    /**
+     * For each value of the projection spec that is an expression, the
+     * expression compiled for evaluation against individual input tuples.
+     * This is {@code null} until the first tuple is projected.
+     */
+    private CompiledExpression[] compiledValues;
+
+
     /** Current tuple the node is projecting (in NON-projected form). */
     private Tuple currentTuple;
 
@@ -143,9 +169,12 @@ public class ProjectNode extends PlanNode {
     protected void prepareSchemaStats(Schema inputSchema,
                                       ArrayList<ColumnStats> inputStats) {
         this.inputSchema = inputSchema;
+        columnEvaluators = null;
+        compiledValues = null;
 
         schema = new Schema();
         nonWildcardColumnInfos = new ArrayList<ColumnInfo>();
+        inputColumnIndexes = new ArrayList<Integer>();
 
         stats = new ArrayList<ColumnStats>();
 
@@ -160,14 +189,18 @@ public class ProjectNode extends PlanNode {
 
                     // Add each column that was found, as well as its stats.
                     schema.append(found.values());
-                    for (Integer idx : found.keySet())
+                    for (Integer idx : found.keySet()) {
                         stats.add(inputStats.get(idx));
+                        inputColumnIndexes.add(idx);
+                    }
                 }
                 else {
                     // No table is specified, so this is all columns in the
                     // child schema.
                     schema.append(inputSchema);
                     stats.addAll(inputStats);
+                    for (int i = 0; i < inputSchema.numColumns(); i++)
+                        inputColumnIndexes.add(i);
                 }
             }
             else if (selVal.isExpression()) {
@@ -187,6 +220,7 @@ public class ProjectNode extends PlanNode {
                     int colIndex = inputSchema.getColumnIndex(colValue.getColumnName());
                     colInfo = inputSchema.getColumnInfo(colIndex);
                     stats.add(inputStats.get(colIndex));
+                    inputColumnIndexes.add(colIndex);
                 }
                 else {
                     // This is a more complicated expression.  Guess the schema,
@@ -208,6 +242,7 @@ public class ProjectNode extends PlanNode {
                     }
 
                     stats.add(colStat);
+                    inputColumnIndexes.add(-1);
                 }
 
                 // Apply any aliases here...
@@ -228,9 +263,33 @@ public class ProjectNode extends PlanNode {
 
     /** Determines whether the results of the node are sorted. */
     public List<OrderByExpression> resultsOrderedBy() {
-        // TODO:  if subplan is ordered and projected results include the same
-        //        columns, then this node's results are also ordered.
-        return null;
+        // If the subplan is ordered and the projected results include the
+        // same columns, then this node's results are also ordered.  The
+        // ordering is cut off at the first column that isn't projected.
+        if (leftChild == null || inputColumnIndexes == null)
+            return null;
+
+        List<OrderByExpression> inputOrder = leftChild.resultsOrderedBy();
+        if (inputOrder == null)
+            return null;
+
+        ArrayList<OrderByExpression> ordering = new ArrayList<OrderByExpression>();
+        for (OrderByExpression entry : inputOrder) {
+            int inputIndex =
+                PlanUtils.getColumnIndex(entry.getExpression(), inputSchema);
+            int outputIndex = -1;
+            if (inputIndex != -1)
+                outputIndex = inputColumnIndexes.indexOf(inputIndex);
+
+            if (outputIndex == -1)
+                break;
+
+            ColumnInfo colInfo = schema.getColumnInfo(outputIndex);
+            ordering.add(new OrderByExpression(
+                new ColumnValue(colInfo.getColumnName()), entry.isAscending()));
+        }
+
+        return ordering.isEmpty() ? null : ordering;
     }
 
 
@@ -252,6 +311,109 @@ public class ProjectNode extends PlanNode {
     }
 
 
+    /**
+     * The project node produces batches natively if its subplan does;
+     * otherwise it is cheaper to project the subplan's tuples one at a time.
+     */
+    @Override
+    public boolean supportsBatchExecution() {
+        return leftChild != null && leftChild.supportsBatchExecution();
+    }
+
+
+    /**
+     * Gets the next batch of tuples from the subplan and projects it.
+     * Columns that are passed through unchanged share the subplan's column
+     * vectors, and other expressions are evaluated over the whole batch.
+     *
+     * @param maxRows the maximum number of tuples to return
+     *
+     * @return the next batch of projected tuples, or <tt>null</tt> if there
+     *         are no more tuples
+     *
+     * @throws java.io.IOException if a db file failed to open at some point
+     */
+    @Override
+    protected TupleBatch produceNextBatch(int maxRows) throws IOException {
+        if (leftChild == null)
+            return super.produceNextBatch(maxRows);
+
+        if (done)
+            return null;
+
+        TupleBatch batch = leftChild.getNextBatch(maxRows);
+        if (batch == null) {
+            done = true;
+            return null;
+        }
+
+        if (isTrivial())
+            return batch;
+
+        if (columnEvaluators == null)
+            prepareColumnEvaluators();
+
+        Object[][] columns = new Object[inputColumnIndexes.size()][];
+        for (int i = 0; i < columns.length; i++) {
+            int inputIndex = inputColumnIndexes.get(i);
+            if (inputIndex != -1)
+                columns[i] = batch.getColumn(inputIndex);
+            else
+                columns[i] = columnEvaluators[i].evaluate(batch);
+        }
+
+        return new TupleBatch(columns, batch);
+    }
+
+
+    /**
+     * Creates the evaluators for the projected expressions that aren't
+     * simply columns of the input.
+     */
+    private void prepareColumnEvaluators() {
+        columnEvaluators = new BatchEvaluator[inputColumnIndexes.size()];
+
+        int i = 0;
+        for (SelectValue selVal : projectionSpec) {
+            if (selVal.isWildcard()) {
+                // Wildcard columns are always passed through from the input.
+                ColumnName wildcard = selVal.getWildcard();
+                if (wildcard.isTableSpecified())
+                    i += inputSchema.findColumns(wildcard).size();
+                else
+                    i += inputSchema.numColumns();
+            }
+            else if (selVal.isExpression()) {
+                if (inputColumnIndexes.get(i) == -1) {
+                    columnEvaluators[i] = BatchEvaluator.create(
+                        selVal.getExpression(), inputSchema, parentEnvironment);
+                }
+                i++;
+            }
+            else {
+                throw new UnsupportedOperationException(
+                    "Scalar subquery support is currently incomplete");
+            }
+        }
+    }
+
+
+    /**
+     * Compiles the expressions of the projection spec for evaluation against
+     * individual input tuples.
+     */
+    private void compileValues() {
+        compiledValues = new CompiledExpression[projectionSpec.size()];
+        for (int i = 0; i < compiledValues.length; i++) {
+            SelectValue selVal = projectionSpec.get(i);
+            if (selVal.isExpression()) {
+                compiledValues[i] = CompiledExpression.compile(
+                    selVal.getExpression(), inputSchema);
+            }
+        }
+    }
+
+
     /**
      * Gets the next tuple and projects it.
      *
@@ -259,7 +421,7 @@ public class ProjectNode extends PlanNode {
      *
      * @throws java.io.IOException if a db file failed to open at some point
      */
-    public Tuple getNextTuple() throws IOException {
+    protected Tuple produceNextTuple() throws IOException {
 
         // If this node is finished finding tuples, return null until it is
         // re-initialized.
@@ -315,6 +477,9 @@ public class ProjectNode extends PlanNode {
 
         // The projection is *not* trivial, so we need to do some evaluatin'.
 
+        if (compiledValues == null)
+            compileValues();
+
         environment.clear();
         environment.addTuple(inputSchema, tuple);
 
@@ -326,7 +491,8 @@ public class ProjectNode extends PlanNode {
         Iterator<ColumnInfo> iterNonWildcardCols =
             nonWildcardColumnInfos.iterator();
 
-        for (SelectValue selVal : projectionSpec) {
+        for (int i = 0; i < projectionSpec.size(); i++) {
+            SelectValue selVal = projectionSpec.get(i);
             if (selVal.isWildcard()) {
                 // This value is a wildcard.  Find the columns that match the
                 // wildcard, then add their values one by one.
@@ -357,12 +523,14 @@ public class ProjectNode extends PlanNode {
 
                 // Get the result of the projection for this value.
 
-                Object result = expr.evaluate(environment);
+                Object result = compiledValues[i].evaluate(environment);
                 ColumnInfo colInfo = iterNonWildcardCols.next();
 
-                logger.debug(String.format(
-                    "Expression:  %s \tColInfo:  %s\tAlias:  %s",
-                    expr, colInfo, alias));
+                if (logger.isDebugEnabled()) {
+                    logger.debug(String.format(
+                        "Expression:  %s \tColInfo:  %s\tAlias:  %s",
+                        expr, colInfo, alias));
+                }
 
                 // Add the result to the tuple.
 
@@ -419,6 +587,9 @@ public class ProjectNode extends PlanNode {
 
 
     public void cleanUp() {
+        for (SelectValue selVal : projectionSpec)
+            SubqueryOperator.cleanUp(selVal.getExpression());
+
         if (leftChild != null)
             leftChild.cleanUp();
     }
@@ -480,6 +651,8 @@ public class ProjectNode extends PlanNode {
             newList.add(newSel);
         }
         node.projectionSpec = newList;
+        node.columnEvaluators = null;
+        node.compiledValues = null;
 
         return node;
     }
@@ -39,23 +39,44 @@ public class RenameNode extends PlanNode {
         this.resultTableName = resultTableName;
     }
 
+    /**
+     * Returns the table-name that this node assigns to its results.
+     *
+     * @return the result table-name
+     */
+    public String getResultTableName() {
+        return resultTableName;
+    }
+
+    /**
+     * The rename node produces its subplan's results in the same order, but
+     * the column references in the ordering must use the new table-name.
+     * Only the leading column references of the subplan's ordering can be
+     * renamed, so the ordering is cut off at the first other expression.
+     */
     @Override
     public List<OrderByExpression> resultsOrderedBy() {
+        List<OrderByExpression> childOrder = leftChild.resultsOrderedBy();
+        if (childOrder == null)
+            return null;
+
         List<OrderByExpression> resultsOrderedBy = new ArrayList<OrderByExpression>();
         
         logger.debug("Renaming table name in ORDER BY expression");
         
-        for (OrderByExpression orderByExpr : leftChild.resultsOrderedBy()) {
-            Expression expr = orderByExpr.getExpression().duplicate();
-            
-            ((ColumnValue) expr).setColumnName(new ColumnName(
-                    resultTableName,
-                    expr.getColumnInfo(leftChild.getSchema()).getName()));
+        for (OrderByExpression orderByExpr : childOrder) {
+            Expression expr = orderByExpr.getExpression();
+            if (PlanUtils.getColumnIndex(expr, leftChild.getSchema()) == -1)
+                break;
+
+            expr = new ColumnValue(new ColumnName(resultTableName,
+                expr.getColumnInfo(leftChild.getSchema()).getName()));
             
-            resultsOrderedBy.add(new OrderByExpression(expr));
+            resultsOrderedBy.add(
+                new OrderByExpression(expr, orderByExpr.isAscending()));
         }
         
-        return resultsOrderedBy;
+        return resultsOrderedBy.isEmpty() ? null : resultsOrderedBy;
     }
 
     @Override
@@ -94,7 +115,7 @@ public class RenameNode extends PlanNode {
     }
 
     @Override
-    public Tuple getNextTuple() throws IOException {
+    protected Tuple produceNextTuple() throws IOException {
         return leftChild.getNextTuple();
     }
 
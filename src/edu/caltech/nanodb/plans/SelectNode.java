@@ -5,7 +5,10 @@ import java.io.IOException;
 
 import edu.caltech.nanodb.relations.Tuple;
 
+import edu.caltech.nanodb.expressions.BatchEvaluator;
+import edu.caltech.nanodb.expressions.CompiledExpression;
 import edu.caltech.nanodb.expressions.Expression;
+import edu.caltech.nanodb.expressions.TupleBatch;
 
 
 /**
@@ -26,6 +29,20 @@ public abstract class SelectNode extends PlanNode {
     private boolean done;
 
 
+    /**
+     * The evaluator used to filter batches of tuples with the predicate, or
+     * {@code null} if it hasn't been created yet.
+     */
+    private BatchEvaluator batchPredicate;
+
+
+    /**
+     * The predicate compiled for evaluation against individual tuples, or
+     * {@code null} if it hasn't been compiled yet.
+     */
+    private CompiledExpression compiledPredicate;
+
+
     /**
      * Constructs a SelectNode that scans a file for tuples.
      *
@@ -57,6 +74,9 @@ public abstract class SelectNode extends PlanNode {
         else
             node.predicate = null;
 
+        node.batchPredicate = null;
+        node.compiledPredicate = null;
+
         return node;
     }
 
@@ -82,7 +102,7 @@ public abstract class SelectNode extends PlanNode {
      *
      * @throws java.io.IOException if a db file failed to open at some point
      */
-    public Tuple getNextTuple() throws IllegalStateException, IOException {
+    protected Tuple produceNextTuple() throws IllegalStateException, IOException {
 
         // If this node is finished finding tuples, return null until it is
         // re-initialized.
@@ -109,6 +129,84 @@ public abstract class SelectNode extends PlanNode {
     }
 
 
+    /**
+     * Select nodes filter whole batches of tuples with the predicate, so
+     * they support batch-at-a-time execution.
+     */
+    @Override
+    public boolean supportsBatchExecution() {
+        return true;
+    }
+
+
+    /**
+     * Gets the next batch of tuples selected by the predicate.  The
+     * predicate is evaluated over the whole batch at once, and batches that
+     * no tuples pass are skipped.
+     *
+     * @param maxRows the maximum number of tuples to return
+     *
+     * @return the next batch of selected tuples, or <tt>null</tt> if there
+     *         are no more tuples
+     *
+     * @throws java.io.IOException if a db file failed to open at some point
+     */
+    @Override
+    protected TupleBatch produceNextBatch(int maxRows)
+        throws IllegalStateException, IOException {
+
+        while (!done) {
+            TupleBatch batch = fetchBatch(maxRows);
+            if (batch == null) {
+                done = true;
+                break;
+            }
+
+            if (predicate != null) {
+                if (batchPredicate == null)
+                    batchPredicate = BatchEvaluator.create(predicate, schema,
+                        parentEnvironment);
+
+                batchPredicate.filter(batch);
+            }
+
+            if (!batch.isEmpty())
+                return batch;
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Helper function that gets the next batch of tuples to filter.  The
+     * default implementation fills a batch by advancing the current tuple,
+     * and subclasses can override it to read batches more directly.
+     *
+     * @param maxRows the maximum number of tuples to return
+     *
+     * @return the next batch of tuples, or <tt>null</tt> if there are no
+     *         more tuples
+     *
+     * @throws java.io.IOException if a db file failed to open at some point
+     */
+    protected TupleBatch fetchBatch(int maxRows) throws IOException {
+        TupleBatch batch = new TupleBatch(schema.numColumns(), maxRows);
+        while (!batch.isFull()) {
+            advanceCurrentTuple();
+            if (currentTuple == null) {
+                // Don't advance past the end again; that would start over.
+                done = true;
+                break;
+            }
+
+            batch.addTuple(currentTuple);
+        }
+
+        return batch.isEmpty() ? null : batch;
+    }
+
+
     /** Helper function that advances the current tuple reference in the node.
      *
      * @throws java.lang.IllegalStateException if this is a node with no
@@ -124,10 +222,13 @@ public abstract class SelectNode extends PlanNode {
         if (predicate == null)
             return true;
 
+        if (compiledPredicate == null)
+            compiledPredicate = CompiledExpression.compile(predicate, schema);
+
         // Set up the environment and then evaluate the predicate!
 
         environment.clear();
         environment.addTuple(schema, tuple);
-        return predicate.evaluatePredicate(environment);
+        return compiledPredicate.evaluatePredicate(environment);
     }
 }
@@ -8,6 +8,8 @@ import java.util.List;
 
 import edu.caltech.nanodb.expressions.Expression;
 import edu.caltech.nanodb.expressions.OrderByExpression;
+import edu.caltech.nanodb.expressions.SubqueryOperator;
+import edu.caltech.nanodb.expressions.TupleBatch;
 import edu.caltech.nanodb.qeval.ColumnStats;
 import edu.caltech.nanodb.qeval.PlanCost;
 import edu.caltech.nanodb.qeval.SelectivityEstimator;
@@ -150,6 +152,7 @@ public class SimpleFilterNode extends SelectNode {
 
 
     public void cleanUp() {
+        SubqueryOperator.cleanUp(predicate);
         leftChild.cleanUp();
     }
 
@@ -159,6 +162,23 @@ public class SimpleFilterNode extends SelectNode {
     }
 
 
+    /**
+     * The filter only produces batches natively if its subplan does;
+     * otherwise it is cheaper to filter the subplan's tuples one at a time.
+     */
+    @Override
+    public boolean supportsBatchExecution() {
+        return leftChild.supportsBatchExecution();
+    }
+
+
+    /** Batches of tuples to filter come straight from the subplan. */
+    @Override
+    protected TupleBatch fetchBatch(int maxRows) throws IOException {
+        return leftChild.getNextBatch(maxRows);
+    }
+
+
     /**
      * The simple filter node relies on marking/reset support in its subplan.
      */
@@ -2,12 +2,19 @@ package edu.caltech.nanodb.plans;
 
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.apache.log4j.Logger;
 
 import edu.caltech.nanodb.expressions.Expression;
 import edu.caltech.nanodb.expressions.OrderByExpression;
+import edu.caltech.nanodb.expressions.SubqueryOperator;
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.expressions.TypeConverter;
+import edu.caltech.nanodb.qeval.PlanCost;
+import edu.caltech.nanodb.qeval.SelectivityEstimator;
 import edu.caltech.nanodb.relations.JoinType;
 import edu.caltech.nanodb.relations.Schema;
 import edu.caltech.nanodb.relations.Tuple;
@@ -18,6 +25,20 @@ import edu.caltech.nanodb.relations.Tuple;
  * evaluation.  This join node is only useful for equijoins, but it has the
  * benefit that it can compute full outer joins easily, where the nested-loops
  * join algorithm is unable to do so.
+ * <p>
+ * The children must already produce their tuples in sorted order; this node
+ * doesn't sort them itself.  The join predicate must contain conjuncts of the
+ * form <tt>left-expr = right-expr</tt> whose expressions are a prefix of the
+ * left and right children's orderings, at the same positions and in the same
+ * directions; these are the <em>merge keys</em>.  The entire predicate is
+ * still evaluated against each pair of tuples with the same merge key, so
+ * other conjuncts are also allowed.
+ * <p>
+ * Rather than marking the right child and rewinding it for each left tuple
+ * with the same key, the right tuples with the current key are buffered in
+ * memory.  This allows the right child to be any sorted plan, including a
+ * {@link SortNode}, at the cost of holding the largest group of right tuples
+ * with equal keys in memory.
  */
 public class SortMergeJoinNode extends ThetaJoinNode {
 
@@ -25,14 +46,99 @@ public class SortMergeJoinNode extends ThetaJoinNode {
     private static Logger logger = Logger.getLogger(SortMergeJoinNode.class);
 
 
-    /** Most recently retrieved tuple of the left relation. */
+    /** The merge-key expressions evaluated against the left child's tuples. */
+    private ArrayList<Expression> leftKeyExprs;
+
+
+    /** The merge-key expressions evaluated against the right child's tuples. */
+    private ArrayList<Expression> rightKeyExprs;
+
+
+    /**
+     * For each merge key, true if the children are sorted on the key in
+     * ascending order, or false if they are sorted in descending order.
+     */
+    private boolean[] keyAscending;
+
+
+    /**
+     * The left tuple currently being joined with the tuples of
+     * {@link #rightGroup}, or {@code null} if there is none.
+     */
     private Tuple leftTuple;
 
 
-    /** Most recently retrieved tuple of the right relation. */
+    /** True if {@link #leftTuple} has been joined with any right tuple. */
+    private boolean leftMatched;
+
+
+    /** The next left tuple to join, which has been read ahead. */
+    private Tuple nextLeftTuple;
+
+
+    /**
+     * The merge key of {@link #nextLeftTuple}, or {@code null} if any part of
+     * the key is <tt>NULL</tt>.
+     */
+    private TupleLiteral nextLeftKey;
+
+
+    /** Set to true when the left child has run out of tuples. */
+    private boolean leftDone;
+
+
+    /**
+     * The next right tuple that hasn't been added to {@link #rightGroup}, or
+     * {@code null} if the right child has run out of tuples.
+     */
     private Tuple rightTuple;
 
 
+    /**
+     * The merge key of {@link #rightTuple}, or {@code null} if any part of
+     * the key is <tt>NULL</tt>.
+     */
+    private TupleLiteral rightKey;
+
+
+    /** Set to true once the first right tuple has been read. */
+    private boolean rightStarted;
+
+
+    /** The right tuples whose merge key is {@link #groupKey}. */
+    private ArrayList<TupleLiteral> rightGroup;
+
+
+    /**
+     * The merge key of the tuples in {@link #rightGroup}, or {@code null} if
+     * there is no current group.
+     */
+    private TupleLiteral groupKey;
+
+
+    /** For each tuple of {@link #rightGroup}, true if it has been joined. */
+    private boolean[] groupMatched;
+
+
+    /** The next tuple of {@link #rightGroup} to join with the left tuple. */
+    private int groupIndex;
+
+
+    /**
+     * The next tuple of {@link #rightGroup} to check for whether it must be
+     * padded with <tt>NULL</tt>s, once the group is finished.
+     */
+    private int flushIndex;
+
+
+    /** A tuple of <tt>NULL</tt>s to pad unmatched right tuples with. */
+    private TupleLiteral nullLeftTuple;
+
+
+    /** A tuple of <tt>NULL</tt>s to pad unmatched left tuples with. */
+    private TupleLiteral nullRightTuple;
+
+
     /** Set to true when we have exhausted all tuples from our subplans. */
     private boolean done;
 
@@ -53,6 +159,117 @@ public class SortMergeJoinNode extends ThetaJoinNode {
     }
 
 
+    /**
+     * Reports whether a sort-merge join can be used to join two subplans
+     * without sorting them, because the join predicate has equijoin
+     * conjuncts on a prefix of both subplans' orderings.
+     *
+     * @param leftPlan the left subplan, which must already be prepared
+     * @param rightPlan the right subplan, which must already be prepared
+     * @param predicate the join predicate
+     *
+     * @return {@code true} if the subplans can be merged on at least one
+     *         key
+     */
+    public static boolean canMergeJoin(PlanNode leftPlan, PlanNode rightPlan,
+                                       Expression predicate) {
+        ArrayList<Expression> leftKeys = new ArrayList<Expression>();
+        ArrayList<Expression> rightKeys = new ArrayList<Expression>();
+        ArrayList<Boolean> ascending = new ArrayList<Boolean>();
+
+        findMergeKeys(predicate, leftPlan.getSchema(),
+            leftPlan.resultsOrderedBy(), rightPlan.getSchema(),
+            rightPlan.resultsOrderedBy(), leftKeys, rightKeys, ascending);
+
+        return !leftKeys.isEmpty();
+    }
+
+
+    /**
+     * Computes the orderings that two subplans must be sorted in so that a
+     * sort-merge join can join them on all of the equijoin conjuncts of the
+     * join predicate.  Both orderings are ascending.
+     *
+     * @param predicate the join predicate
+     * @param leftSchema the schema of the left subplan
+     * @param rightSchema the schema of the right subplan
+     * @param leftOrder receives the ordering for the left subplan
+     * @param rightOrder receives the corresponding ordering for the right
+     *        subplan
+     */
+    public static void getMergeOrders(Expression predicate, Schema leftSchema,
+        Schema rightSchema, List<OrderByExpression> leftOrder,
+        List<OrderByExpression> rightOrder) {
+
+        ArrayList<Expression> leftKeys = new ArrayList<Expression>();
+        ArrayList<Expression> rightKeys = new ArrayList<Expression>();
+        HashJoinNode.findJoinKeys(predicate, leftSchema, rightSchema,
+            leftKeys, rightKeys);
+
+        for (int i = 0; i < leftKeys.size(); i++) {
+            leftOrder.add(new OrderByExpression(leftKeys.get(i)));
+            rightOrder.add(new OrderByExpression(rightKeys.get(i)));
+        }
+    }
+
+
+    /**
+     * Finds the merge keys of a join:  the equijoin conjuncts of the
+     * predicate whose expressions appear at the same positions at the start
+     * of both children's orderings, in the same directions.
+     *
+     * @param predicate the join predicate
+     * @param leftSchema the schema of the left child
+     * @param leftOrder the ordering of the left child, or {@code null}
+     * @param rightSchema the schema of the right child
+     * @param rightOrder the ordering of the right child, or {@code null}
+     * @param leftKeys receives the merge-key expressions for the left child
+     * @param rightKeys receives the corresponding merge-key expressions for
+     *        the right child
+     * @param ascending receives the direction of each merge key
+     */
+    private static void findMergeKeys(Expression predicate,
+        Schema leftSchema, List<OrderByExpression> leftOrder,
+        Schema rightSchema, List<OrderByExpression> rightOrder,
+        List<Expression> leftKeys, List<Expression> rightKeys,
+        List<Boolean> ascending) {
+
+        if (leftOrder == null || rightOrder == null)
+            return;
+
+        ArrayList<Expression> leftCandidates = new ArrayList<Expression>();
+        ArrayList<Expression> rightCandidates = new ArrayList<Expression>();
+        HashJoinNode.findJoinKeys(predicate, leftSchema, rightSchema,
+            leftCandidates, rightCandidates);
+
+        int numOrders = Math.min(leftOrder.size(), rightOrder.size());
+        for (int i = 0; i < numOrders; i++) {
+            OrderByExpression leftEntry = leftOrder.get(i);
+            OrderByExpression rightEntry = rightOrder.get(i);
+            if (leftEntry.isAscending() != rightEntry.isAscending())
+                break;
+
+            int found = -1;
+            for (int j = 0; j < leftCandidates.size(); j++) {
+                if (PlanUtils.isSameValue(leftCandidates.get(j),
+                        leftEntry.getExpression(), leftSchema) &&
+                    PlanUtils.isSameValue(rightCandidates.get(j),
+                        rightEntry.getExpression(), rightSchema)) {
+                    found = j;
+                    break;
+                }
+            }
+
+            if (found == -1)
+                break;
+
+            leftKeys.add(leftCandidates.get(found));
+            rightKeys.add(rightCandidates.get(found));
+            ascending.add(leftEntry.isAscending());
+        }
+    }
+
+
     /**
      * Checks if the argument is a plan node tree with the same structure,
      * but not necessarily the same references.
@@ -65,7 +282,8 @@ public class SortMergeJoinNode extends ThetaJoinNode {
         if (obj instanceof SortMergeJoinNode) {
             SortMergeJoinNode other = (SortMergeJoinNode) obj;
 
-            return predicate.equals(other.predicate) &&
+            return joinType == other.joinType &&
+                predicate.equals(other.predicate) &&
                 leftChild.equals(other.leftChild) &&
                 rightChild.equals(other.rightChild);
         }
@@ -78,6 +296,7 @@ public class SortMergeJoinNode extends ThetaJoinNode {
     @Override
     public int hashCode() {
         int hash = 7;
+        hash = 31 * hash + joinType.hashCode();
         hash = 31 * hash + predicate.hashCode();
         hash = 31 * hash + leftChild.hashCode();
         hash = 31 * hash + rightChild.hashCode();
@@ -96,6 +315,9 @@ public class SortMergeJoinNode extends ThetaJoinNode {
 
         buf.append("SortMergeJoin[");
 
+        if (joinType != JoinType.INNER)
+            buf.append(joinType).append(", ");
+
         // The predicate is expected to be non-null.
         buf.append("pred:  ").append(predicate);
 
@@ -116,18 +338,49 @@ public class SortMergeJoinNode extends ThetaJoinNode {
         // Clone the predicate.
         node.predicate = predicate.duplicate();
 
+        // The copy must not share any execution state with this node.
+        node.leftTuple = null;
+        node.nextLeftTuple = null;
+        node.rightTuple = null;
+        node.rightGroup = null;
+        node.groupMatched = null;
+
         return node;
     }
 
 
+    /**
+     * Only inner joins may be swapped, since for the other join types the
+     * two inputs play different roles.
+     *
+     * @throws IllegalStateException if this is not an inner join
+     */
+    @Override
+    public void swap() {
+        if (joinType != JoinType.INNER) {
+            throw new IllegalStateException(
+                "Can't swap the inputs of a " + joinType + " sort-merge join");
+        }
+
+        super.swap();
+    }
+
+
     /**
      * Sort-merge join produces results in the same order as the children.
-     * (That's kinda the point.)
+     * (That's kinda the point.)  Right outer and full outer joins also
+     * produce unmatched right tuples padded with <tt>NULL</tt>s, which are
+     * not in the order of the left child, so their results are reported as
+     * unordered.
      *
-     * @return true always
+     * @return the ordering of the left child, or {@code null} for right and
+     *         full outer joins
      */
     @Override
     public List<OrderByExpression> resultsOrderedBy() {
+        if (joinType == JoinType.RIGHT_OUTER || joinType == JoinType.FULL_OUTER)
+            return null;
+
         return leftChild.resultsOrderedBy();
     }
 
@@ -146,10 +399,20 @@ public class SortMergeJoinNode extends ThetaJoinNode {
     }
 
 
-    /** This plan-node requires marking on the right child-plan. */
+    /**
+     * This plan-node does not require marking on the right child-plan, since
+     * it buffers the right tuples that have the same key.
+     */
     @Override
     public boolean requiresRightMarking() {
-        return true;
+        return false;
+    }
+
+
+    @Override
+    public boolean supportsJoinType(JoinType type) {
+        return type == JoinType.INNER || type == JoinType.LEFT_OUTER ||
+            type == JoinType.RIGHT_OUTER || type == JoinType.FULL_OUTER;
     }
 
 
@@ -158,34 +421,72 @@ public class SortMergeJoinNode extends ThetaJoinNode {
         leftChild.prepare();
         rightChild.prepare();
 
-        if (!rightChild.supportsMarking()) {
-            throw new IllegalStateException("Sort-merge join requires the " +
-                "right child-plan to support marking.");
-        }
+        // Use the parent class' helper-function to prepare the schema.
+        prepareSchemaStats();
 
-        // Get the schemas and the result-orderings so that we can analyze the
-        // join-expressions.
+        // Analyze the predicate and the result ordering of the child plans,
+        // to find the equijoin conjuncts that both children are sorted on.
 
-        Schema leftSchema = leftChild.getSchema();
         List<OrderByExpression> leftOrder = leftChild.resultsOrderedBy();
-
-        Schema rightSchema = rightChild.getSchema();
         List<OrderByExpression> rightOrder = rightChild.resultsOrderedBy();
 
-        /* TODO:  Analyze the predicate and the result ordering of the child
-         *        plans.  The constraints are as follows:
-         *
-         *        1)  The predicate must be a series of ANDed equality
-         *            conditions.
-         *
-         *        2)  The columns in the predicate that reference the left
-         *            child should be a prefix of the left child's order-by
-         *            expression.  The same should hold for the right child.
-         *            Further, each pair of values compared <c1> == <c2>
-         *            should appear at the same index in the order-by lists.
-         */
+        leftKeyExprs = new ArrayList<Expression>();
+        rightKeyExprs = new ArrayList<Expression>();
+        ArrayList<Boolean> ascending = new ArrayList<Boolean>();
+        findMergeKeys(predicate, leftSchema, leftOrder, rightSchema,
+            rightOrder, leftKeyExprs, rightKeyExprs, ascending);
+
+        if (leftKeyExprs.isEmpty()) {
+            throw new IllegalStateException("Sort-merge join predicate " +
+                predicate + " has no equijoin conjuncts on the children's " +
+                "orderings " + leftOrder + " and " + rightOrder);
+        }
+
+        keyAscending = new boolean[ascending.size()];
+        for (int i = 0; i < keyAscending.length; i++)
+            keyAscending[i] = ascending.get(i);
+
+        logger.debug("Merging on left keys " + leftKeyExprs +
+            " and right keys " + rightKeyExprs);
+
+        float selectivity = SelectivityEstimator.estimateSelectivity(predicate,
+            schema, stats);
+
+        PlanCost leftCost = leftChild.getCost();
+        PlanCost rightCost = rightChild.getCost();
+
+        if (leftCost != null && rightCost != null) {
+            float numTuples = leftCost.numTuples * rightCost.numTuples *
+                selectivity;
+            float tupleSize = leftCost.tupleSize + rightCost.tupleSize;
+
+            switch (joinType) {
+            case LEFT_OUTER:
+                numTuples = Math.max(numTuples, leftCost.numTuples);
+                break;
 
-        throw new UnsupportedOperationException("Not yet implemented!");
+            case RIGHT_OUTER:
+                numTuples = Math.max(numTuples, rightCost.numTuples);
+                break;
+
+            case FULL_OUTER:
+                numTuples = Math.max(numTuples,
+                    Math.max(leftCost.numTuples, rightCost.numTuples));
+                break;
+
+            default:
+                // Inner joins use the estimate computed above.
+            }
+
+            // Each input is read once, and each tuple's key is compared
+            // against the other input's current key.  Each left tuple is
+            // also compared against the right tuples with the same key.
+            float cpuCost = leftCost.cpuCost + rightCost.cpuCost +
+                leftCost.numTuples + rightCost.numTuples + numTuples;
+            long numBlockIOs = leftCost.numBlockIOs + rightCost.numBlockIOs;
+
+            cost = new PlanCost(numTuples, tupleSize, cpuCost, numBlockIOs);
+        }
     }
 
 
@@ -195,14 +496,224 @@ public class SortMergeJoinNode extends ThetaJoinNode {
 
         done = false;
         leftTuple = null;
+        leftMatched = false;
+        nextLeftTuple = null;
+        nextLeftKey = null;
+        leftDone = false;
+
         rightTuple = null;
+        rightKey = null;
+        rightStarted = false;
+
+        rightGroup = new ArrayList<TupleLiteral>();
+        groupKey = null;
+        groupMatched = new boolean[0];
+        groupIndex = 0;
+        flushIndex = 0;
+
+        nullLeftTuple = new TupleLiteral(leftSchema.numColumns());
+        nullRightTuple = new TupleLiteral(rightSchema.numColumns());
     }
 
 
+    /**
+     * Returns the next joined tuple that satisfies the join condition.
+     *
+     * @return the next joined tuple that satisfies the join condition.
+     *
+     * @throws IOException if a db file failed to open at some point
+     */
     @Override
-    public Tuple getNextTuple() throws IllegalStateException, IOException {
-        // TODO:  Implement
-        return null;
+    protected Tuple produceNextTuple() throws IllegalStateException, IOException {
+        if (done)
+            return null;
+
+        if (!rightStarted) {
+            advanceRight();
+            rightStarted = true;
+        }
+
+        boolean preserveLeft =
+            joinType == JoinType.LEFT_OUTER || joinType == JoinType.FULL_OUTER;
+        boolean preserveRight =
+            joinType == JoinType.RIGHT_OUTER || joinType == JoinType.FULL_OUTER;
+
+        while (true) {
+            // Join the current left tuple with the right tuples that have
+            // the same key.
+            if (leftTuple != null) {
+                while (groupIndex < rightGroup.size()) {
+                    int i = groupIndex++;
+                    TupleLiteral groupTuple = rightGroup.get(i);
+                    if (canJoinTuples(leftTuple, groupTuple)) {
+                        leftMatched = true;
+                        groupMatched[i] = true;
+                        return joinTuples(leftTuple, groupTuple);
+                    }
+                }
+
+                Tuple result = null;
+                if (!leftMatched && preserveLeft)
+                    result = joinTuples(leftTuple, nullRightTuple);
+
+                leftTuple = null;
+
+                if (result != null)
+                    return result;
+            }
+
+            if (nextLeftTuple == null && !leftDone) {
+                nextLeftTuple = leftChild.getNextTuple();
+                if (nextLeftTuple != null) {
+                    nextLeftKey =
+                        computeKey(nextLeftTuple, leftSchema, leftKeyExprs);
+                }
+                else {
+                    leftDone = true;
+                }
+            }
+
+            // If the next left tuple has the same key as the current group,
+            // it is joined with the same right tuples.
+            if (nextLeftTuple != null && nextLeftKey != null &&
+                groupKey != null && compareKeys(nextLeftKey, groupKey) == 0) {
+                startLeftTuple();
+                continue;
+            }
+
+            // No more left tuples can join with the current group, since the
+            // left tuples are sorted.  Unmatched right tuples of the group
+            // are output for right and full outer joins.
+            if (preserveRight) {
+                while (flushIndex < rightGroup.size()) {
+                    int i = flushIndex++;
+                    if (!groupMatched[i])
+                        return joinTuples(nullLeftTuple, rightGroup.get(i));
+                }
+            }
+
+            rightGroup.clear();
+            groupKey = null;
+            flushIndex = 0;
+
+            if (nextLeftTuple == null) {
+                // The left child is exhausted, so none of the remaining right
+                // tuples can join with anything.
+                if (preserveRight && rightTuple != null) {
+                    Tuple result = joinTuples(nullLeftTuple, rightTuple);
+                    advanceRight();
+                    return result;
+                }
+
+                done = true;
+                return null;
+            }
+
+            if (nextLeftKey != null) {
+                // Skip the right tuples whose keys are smaller than the left
+                // key, or which can never join because their keys are NULL.
+                while (rightTuple != null && (rightKey == null ||
+                       compareKeys(rightKey, nextLeftKey) < 0)) {
+                    Tuple result = null;
+                    if (preserveRight)
+                        result = joinTuples(nullLeftTuple, rightTuple);
+
+                    advanceRight();
+
+                    if (result != null)
+                        return result;
+                }
+
+                // Buffer the right tuples with the same key as the left
+                // tuple.  The group may be empty.
+                groupKey = nextLeftKey;
+                while (rightTuple != null && rightKey != null &&
+                       compareKeys(rightKey, groupKey) == 0) {
+                    rightGroup.add(new TupleLiteral(rightTuple));
+                    advanceRight();
+                }
+
+                if (groupMatched.length < rightGroup.size())
+                    groupMatched = new boolean[rightGroup.size()];
+                else
+                    Arrays.fill(groupMatched, false);
+            }
+
+            // A left tuple with a NULL key is started with an empty group,
+            // so that it doesn't join with anything.
+            startLeftTuple();
+        }
+    }
+
+
+    /** Makes the read-ahead left tuple the one to join with the group. */
+    private void startLeftTuple() {
+        leftTuple = nextLeftTuple;
+        leftMatched = false;
+        groupIndex = 0;
+
+        nextLeftTuple = null;
+        nextLeftKey = null;
+    }
+
+
+    /**
+     * Reads the next tuple from the right child, and computes its key.
+     *
+     * @throws IOException if the tuple couldn't be read
+     */
+    private void advanceRight() throws IOException {
+        rightTuple = rightChild.getNextTuple();
+        rightKey = null;
+        if (rightTuple != null)
+            rightKey = computeKey(rightTuple, rightSchema, rightKeyExprs);
+    }
+
+
+    /**
+     * Evaluates the merge-key expressions against a tuple.
+     *
+     * @return the merge key, or {@code null} if any part of the key is
+     *         <tt>NULL</tt>
+     */
+    private TupleLiteral computeKey(Tuple tuple, Schema tupleSchema,
+                                    List<Expression> keyExprs) {
+        environment.clear();
+        environment.addTuple(tupleSchema, tuple);
+
+        TupleLiteral key = new TupleLiteral(keyExprs.size());
+        for (int i = 0; i < keyExprs.size(); i++) {
+            Object value = keyExprs.get(i).evaluate(environment);
+            if (value == null)
+                return null;
+
+            key.setColumnValue(i, value);
+        }
+
+        return key;
+    }
+
+
+    /**
+     * Compares two merge keys in the order that the children are sorted in.
+     * The values are coerced to the same type first, so that e.g. an
+     * <tt>INTEGER</tt> key can be merged with a <tt>FLOAT</tt> key.
+     *
+     * @return a negative, zero, or positive value, corresponding to whether
+     *         the first key comes before, with, or after the second key
+     */
+    @SuppressWarnings("unchecked")
+    private int compareKeys(TupleLiteral key1, TupleLiteral key2) {
+        for (int i = 0; i < keyAscending.length; i++) {
+            TypeConverter.Pair p = TypeConverter.coerceComparison(
+                key1.getColumnValue(i), key2.getColumnValue(i));
+
+            int cmp = ((Comparable) p.value1).compareTo(p.value2);
+            if (cmp != 0)
+                return keyAscending[i] ? cmp : -cmp;
+        }
+
+        return 0;
     }
 
 
@@ -222,6 +733,9 @@ public class SortMergeJoinNode extends ThetaJoinNode {
 
     @Override
     public void cleanUp() {
+        rightGroup = null;
+        SubqueryOperator.cleanUp(predicate);
+
         leftChild.cleanUp();
         rightChild.cleanUp();
     }
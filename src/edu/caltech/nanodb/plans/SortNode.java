@@ -4,8 +4,12 @@ package edu.caltech.nanodb.plans;
 import java.io.IOException;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
+import java.util.PriorityQueue;
 
 import org.apache.log4j.Logger;
 
@@ -17,32 +21,104 @@ import edu.caltech.nanodb.qeval.PlanCost;
 
 import edu.caltech.nanodb.relations.Tuple;
 
+import edu.caltech.nanodb.storage.DBFile;
+
 
 /**
- * This plan node provides a simple in-memory sort operation for use in
- * ORDER BY clauses.
+ * This plan node sorts its input for use in <tt>ORDER BY</tt> clauses.  If
+ * the input fits within the memory budget specified by
+ * {@link #PROP_MEMORY_BUDGET}, it is simply sorted in memory.  Otherwise,
+ * the node performs an external merge sort:  the input is split into sorted
+ * runs that each fit within the budget, all but the last run are written to
+ * {@link SpillFile}s, and the runs are merged with a loser tree.  If there
+ * are more runs than can be merged at once, groups of runs are merged into
+ * longer runs first.
+ * <p>
+ * If only the first few tuples of the sorted results are needed, as with
+ * <tt>ORDER BY ... LIMIT</tt>, the {@link #setLimit limit} can be set on the
+ * node.  The node then keeps just the smallest tuples seen so far in a
+ * bounded heap, and only falls back to the external sort if those tuples
+ * don't fit within the budget.
  */
 public class SortNode extends PlanNode {
     /** A logging object for reporting anything interesting that happens. */
     private static Logger logger = Logger.getLogger(SortNode.class);
 
+
+    /**
+     * This property can be used to specify the number of bytes of tuple data
+     * the sort node may hold in memory.  When more tuples than this are
+     * sorted, sorted runs are written to spill files and merged.
+     */
+    public static final String PROP_MEMORY_BUDGET = "nanodb.sort.memory";
+
+
+    /** The default memory budget for sorting is 4MiB. */
+    public static final long DEFAULT_MEMORY_BUDGET = 4 * 1024 * 1024;
+
+
+    /**
+     * The largest number of runs that are merged at once.  Each run being
+     * merged holds an open file and its read buffer.
+     */
+    public static final int MAX_MERGE_ORDER = 64;
+
+
     /** A specification of the ordering of the results of this plan node. */
     private List<OrderByExpression> orderByExprs;
 
+
     /**
-     * This array receives all tuples from the child plan node, and then they
-     * are sorted and passed along to the parent from this array.
+     * The maximum number of tuples the sort node produces, or 0 if all
+     * tuples are produced.
      */
-    private ArrayList<Tuple> sortedResults;
+    private int limit;
+
 
     /**
      * The comparator that imposes the ordering specification of the sort node.
      */
     private TupleComparator comparator;
 
-    /** The index of the current tuple in the sorted results. */
+
+    /** True once the input has been read and sorted. */
+    private boolean sorted;
+
+
+    /**
+     * The tuples that are currently held in memory.  While the input is being
+     * read, this is the run being built.  Once the input has been read, this
+     * is the last sorted run.
+     */
+    private ArrayList<TupleLiteral> memoryRun;
+
+
+    /** The estimated size of the tuples in {@link #memoryRun}. */
+    private long memoryUsed;
+
+
+    /** The sorted runs that have been written to spill files. */
+    private ArrayList<SpillFile> spilledRuns;
+
+
+    /**
+     * If sorted runs were spilled, this merges them with the in-memory run to
+     * produce the sorted results.
+     */
+    private RunMerger merger;
+
+
+    /**
+     * The index of the current tuple in the in-memory run, when all tuples
+     * fit in memory.
+     */
     private int currentTupleIndex;
 
+
+    /** The number of tuples the sort node has produced so far. */
+    private int tuplesReturned;
+
+
     /**
      * A flag indicating whether the sort node has generate all of its output or not.
      */
@@ -71,6 +147,33 @@ public class SortNode extends PlanNode {
     }
 
 
+    /**
+     * Returns the maximum number of tuples the sort node produces, or 0 if
+     * all tuples are produced.
+     *
+     * @return the maximum number of tuples the sort node produces
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+
+    /**
+     * Sets the maximum number of tuples the sort node produces, so that it
+     * only needs to keep the smallest tuples of its input.  For a query with
+     * both <tt>LIMIT</tt> and <tt>OFFSET</tt>, this is the sum of the two.
+     *
+     * @param limit the maximum number of tuples to produce, or 0 to produce
+     *        all tuples
+     */
+    public void setLimit(int limit) {
+        if (limit < 0)
+            throw new IllegalArgumentException("limit cannot be negative");
+
+        this.limit = limit;
+    }
+
+
     public List<OrderByExpression> resultsOrderedBy() {
         return orderByExprs;
     }
@@ -98,6 +201,17 @@ public class SortNode extends PlanNode {
     }
 
 
+    /**
+     * Returns the memory budget for sorting, as specified by the
+     * {@link #PROP_MEMORY_BUDGET} property.
+     *
+     * @return the memory budget for sorting, in bytes
+     */
+    public static long getMemoryBudget() {
+        return Long.getLong(PROP_MEMORY_BUDGET, DEFAULT_MEMORY_BUDGET);
+    }
+
+
     /**
      * The sort plan-node produces the same schema as its child plan-node, so
      * this method simply caches the subplan's schema object.
@@ -117,8 +231,34 @@ public class SortNode extends PlanNode {
         if (childCost != null) {
             cost = new PlanCost(childCost);
 
-            // Sorting in memory is an N*log(N) operation.
-            cost.cpuCost += cost.numTuples * (float) Math.log(cost.numTuples);
+            float inputTuples = cost.numTuples;
+            float keptTuples = inputTuples;
+            if (limit > 0 && limit < inputTuples)
+                keptTuples = limit;
+
+            // Sorting in memory is an N*log(N) operation; keeping the
+            // smallest K tuples in a heap is an N*log(K) operation.
+            cost.numTuples = keptTuples;
+            cost.cpuCost += inputTuples * (float) Math.log(Math.max(keptTuples, 2));
+
+            // If the kept tuples don't fit in memory, the input is written
+            // out in sorted runs, and read and written again for each merge
+            // pass but the last one.
+            long budget = getMemoryBudget();
+            float inputSize = inputTuples * cost.tupleSize;
+            if (keptTuples * cost.tupleSize > budget) {
+                float numRuns = (float) Math.ceil(inputSize / budget);
+                int numPasses = 1;
+                while (numRuns > MAX_MERGE_ORDER) {
+                    numRuns = (float) Math.ceil(numRuns / MAX_MERGE_ORDER);
+                    numPasses++;
+                }
+
+                float spillBlocks = inputSize / DBFile.DEFAULT_PAGESIZE;
+                cost.numBlockIOs +=
+                    (long) Math.ceil((2 * numPasses - 1) * spillBlocks);
+                cost.cpuCost += numPasses * inputTuples;
+            }
         }
         else {
             logger.info(
@@ -139,7 +279,9 @@ public class SortNode extends PlanNode {
     public void initialize() {
         super.initialize();
 
-        sortedResults = null;
+        releaseRuns();
+        sorted = false;
+        tuplesReturned = 0;
         done = false;
 
         leftChild.initialize();
@@ -158,19 +300,30 @@ public class SortNode extends PlanNode {
      * @throws java.io.IOException if table data cannot be read from the filesystem
      * @throws IllegalStateException if a plan node is not properly initialized
      */
-    public Tuple getNextTuple() throws IllegalStateException, IOException {
+    protected Tuple produceNextTuple() throws IllegalStateException, IOException {
         if (done)
             return null;
 
-        if (sortedResults == null)
-            prepareSortedResults();
+        if (!sorted)
+            sortInput();
 
         Tuple tup = null;
-        if (currentTupleIndex < sortedResults.size()) {
-            tup = sortedResults.get(currentTupleIndex);
-            currentTupleIndex++;
+        if (limit == 0 || tuplesReturned < limit) {
+            if (merger != null) {
+                tup = merger.next();
+            }
+            else if (currentTupleIndex < memoryRun.size()) {
+                tup = memoryRun.get(currentTupleIndex);
+                currentTupleIndex++;
+            }
+        }
+
+        if (tup != null) {
+            tuplesReturned++;
         }
         else {
+            // The spill files aren't needed anymore.
+            releaseRuns();
             done = true;
         }
 
@@ -178,25 +331,212 @@ public class SortNode extends PlanNode {
     }
 
 
-    private void prepareSortedResults() throws IOException {
-        sortedResults = new ArrayList<Tuple>();
+    /**
+     * Reads all tuples from the child plan, and sorts them into the
+     * in-memory run and any spilled runs.  If the tuples didn't all fit in
+     * memory, the runs are prepared for merging.
+     *
+     * @throws IOException if the input can't be read, or the runs can't be
+     *         written to spill files
+     */
+    private void sortInput() throws IOException {
+        long budget = getMemoryBudget();
+
+        memoryRun = new ArrayList<TupleLiteral>();
+        memoryUsed = 0;
+        spilledRuns = new ArrayList<SpillFile>();
+        merger = null;
+        currentTupleIndex = 0;
+        sorted = true;
+
+        if (limit > 0 && collectTopTuples(budget))
+            return;
+
         while (true) {
-            // Get the next tuple.  If it's not cacheable then make a copy of it
-            // before storing it away.
+            Tuple tup = leftChild.getNextTuple();
+            if (tup == null)
+                break;
+
+            addToRun(new TupleLiteral(tup));
+            if (memoryUsed > budget)
+                spillRun();
+        }
+
+        Collections.sort(memoryRun, comparator);
+
+        if (!spilledRuns.isEmpty()) {
+            // Merge groups of spilled runs until the remaining runs and the
+            // in-memory run can all be merged at once.
+            int numMerged = 0;
+            while (spilledRuns.size() - numMerged >= MAX_MERGE_ORDER) {
+                List<SpillFile> group =
+                    spilledRuns.subList(numMerged, numMerged + MAX_MERGE_ORDER);
+                spilledRuns.add(mergeRuns(new ArrayList<SpillFile>(group)));
+                numMerged += MAX_MERGE_ORDER;
+            }
+            spilledRuns.subList(0, numMerged).clear();
+
+            logger.debug(String.format("Merging %d spilled runs and %d " +
+                "tuples in memory", spilledRuns.size(), memoryRun.size()));
+
+            merger = new RunMerger(spilledRuns, memoryRun, comparator);
+        }
+    }
+
 
+    /**
+     * Reads tuples from the child plan into a bounded heap that holds the
+     * smallest {@link #limit} tuples seen so far.  If the heap fits within
+     * the memory budget, the in-memory run is set to its tuples in sorted
+     * order.  Otherwise, the heap's tuples are moved into the in-memory run
+     * so that the external sort can continue from there.
+     *
+     * @param budget the memory budget for sorting
+     *
+     * @return true if the smallest tuples were found within the budget, or
+     *         false if the rest of the input must be sorted externally
+     *
+     * @throws IOException if the input can't be read
+     */
+    private boolean collectTopTuples(long budget) throws IOException {
+        // The heap's head is its largest tuple, so that it can be replaced
+        // by a smaller one.  Ties are broken by the order the tuples were
+        // read in, so that the results are the same as for a full sort.
+        Comparator<SequencedTuple> largestFirst =
+            new Comparator<SequencedTuple>() {
+                public int compare(SequencedTuple a, SequencedTuple b) {
+                    int result = comparator.compare(b.tuple, a.tuple);
+                    if (result == 0)
+                        result = Long.compare(b.sequence, a.sequence);
+
+                    return result;
+                }
+            };
+
+        PriorityQueue<SequencedTuple> heap = new PriorityQueue<SequencedTuple>(
+            Math.min(limit, 1024), largestFirst);
+
+        long sequence = 0;
+        while (true) {
             Tuple tup = leftChild.getNextTuple();
             if (tup == null)
                 break;
 
-            if (!tup.isDiskBacked())
-                tup = new TupleLiteral(tup);
+            if (heap.size() == limit) {
+                // Skip tuples that wouldn't be in the results.  Since the
+                // new tuple was read last, it only displaces a larger tuple.
+                if (comparator.compare(tup, heap.peek().tuple) >= 0)
+                    continue;
+
+                memoryUsed -= SpillFile.estimateTupleSize(heap.poll().tuple);
+            }
 
-            sortedResults.add(tup);
+            TupleLiteral copy = new TupleLiteral(tup);
+            heap.add(new SequencedTuple(copy, sequence));
+            memoryUsed += SpillFile.estimateTupleSize(copy);
+            recordMemoryUsed(memoryUsed);
+            sequence++;
+
+            if (memoryUsed > budget) {
+                logger.debug("Smallest tuples don't fit in memory; " +
+                    "falling back to an external sort");
+
+                // The order of the tuples in the run doesn't matter yet.
+                for (SequencedTuple entry : heap)
+                    memoryRun.add(entry.tuple);
+
+                spillRun();
+                return false;
+            }
         }
 
-        Collections.sort(sortedResults, comparator);
+        SequencedTuple[] entries = heap.toArray(new SequencedTuple[heap.size()]);
+        Arrays.sort(entries, Collections.reverseOrder(largestFirst));
+        for (SequencedTuple entry : entries)
+            memoryRun.add(entry.tuple);
 
-        currentTupleIndex = 0;
+        return true;
+    }
+
+
+    private void addToRun(TupleLiteral tuple) {
+        memoryRun.add(tuple);
+        memoryUsed += SpillFile.estimateTupleSize(tuple);
+        recordMemoryUsed(memoryUsed);
+    }
+
+
+    /**
+     * Sorts the in-memory run and writes it to a new spill file.  If the
+     * node has a limit, tuples past the limit are dropped, since they can't
+     * be in the results.
+     *
+     * @throws IOException if the spill file can't be written
+     */
+    private void spillRun() throws IOException {
+        Collections.sort(memoryRun, comparator);
+
+        int count = memoryRun.size();
+        if (limit > 0 && limit < count)
+            count = limit;
+
+        SpillFile run = new SpillFile("sort");
+        spilledRuns.add(run);
+        for (int i = 0; i < count; i++)
+            run.writeTuple(memoryRun.get(i));
+
+        logger.debug("Spilled sorted run of " + count + " tuples to " + run);
+
+        memoryRun.clear();
+        memoryUsed = 0;
+    }
+
+
+    /**
+     * Merges a group of spilled runs into a single, longer run, and deletes
+     * the runs that were merged.
+     *
+     * @param runs the spilled runs to merge
+     *
+     * @return a new spill file holding the merged run
+     *
+     * @throws IOException if the runs can't be read, or the merged run can't
+     *         be written
+     */
+    private SpillFile mergeRuns(List<SpillFile> runs) throws IOException {
+        SpillFile merged = new SpillFile("sort");
+        try {
+            RunMerger groupMerger = new RunMerger(runs, null, comparator);
+            int count = 0;
+            while (limit == 0 || count < limit) {
+                TupleLiteral tup = groupMerger.next();
+                if (tup == null)
+                    break;
+
+                merged.writeTuple(tup);
+                count++;
+            }
+        }
+        finally {
+            for (SpillFile run : runs)
+                run.delete();
+        }
+
+        return merged;
+    }
+
+
+    /** Deletes any spilled runs, and releases the in-memory run. */
+    private void releaseRuns() {
+        if (spilledRuns != null) {
+            for (SpillFile run : spilledRuns)
+                run.delete();
+        }
+
+        spilledRuns = null;
+        merger = null;
+        memoryRun = null;
+        memoryUsed = 0;
     }
 
 
@@ -216,8 +556,9 @@ public class SortNode extends PlanNode {
 
     /** Clean up after evaluation of the sort plan-node. */
     public void cleanUp() {
-        // Allow this collection to be garbage-collected.
-        sortedResults = null;
+        // Delete any spill files, and allow the in-memory run to be
+        // garbage-collected.
+        releaseRuns();
 
         leftChild.cleanUp();
     }
@@ -225,6 +566,9 @@ public class SortNode extends PlanNode {
 
     @Override
     public String toString() {
+        if (limit > 0)
+            return "Sort[" + orderByExprs + ", limit:  " + limit + "]";
+
         return "Sort[" + orderByExprs + "]";
     }
 
@@ -243,6 +587,7 @@ public class SortNode extends PlanNode {
             SortNode other = (SortNode) obj;
 
             return orderByExprs.equals(other.orderByExprs) &&
+                   limit == other.limit &&
                    leftChild.equals(other.leftChild);
         }
         return false;
@@ -260,7 +605,144 @@ public class SortNode extends PlanNode {
     public int hashCode() {
         int hash = 17;
         hash = 31 * hash + orderByExprs.hashCode();
+        hash = 31 * hash + limit;
         hash = 31 * hash + leftChild.hashCode();
         return hash;
     }
+
+
+    /** A tuple kept by the top-N heap, with the order it was read in. */
+    private static class SequencedTuple {
+        TupleLiteral tuple;
+
+        long sequence;
+
+        SequencedTuple(TupleLiteral tuple, long sequence) {
+            this.tuple = tuple;
+            this.sequence = sequence;
+        }
+    }
+
+
+    /**
+     * This class merges sorted runs with a loser tree.  Each internal node of
+     * the tree records the run that lost the comparison at that node, and
+     * entry 0 records the overall winner, so that producing each tuple
+     * takes one comparison per level of the tree.  When runs have equal
+     * tuples, the earlier run wins, so the merge is stable.
+     */
+    private static class RunMerger {
+        /** The spilled runs being merged. */
+        private List<SpillFile> spilledRuns;
+
+        /**
+         * The tuples of the in-memory run, which is merged after all spilled
+         * runs, or {@code null} if there is no in-memory run.
+         */
+        private Iterator<TupleLiteral> memoryRun;
+
+        /** The comparator that imposes the sort order. */
+        private Comparator<Tuple> comparator;
+
+        /** The number of runs being merged. */
+        private int numRuns;
+
+        /**
+         * The current tuple of each run, or {@code null} for runs that have
+         * been completely merged.
+         */
+        private TupleLiteral[] current;
+
+        /**
+         * The loser tree.  Runs are the leaves of the tree, and the parent of
+         * run <em>i</em> is node <tt>(i + numRuns) / 2</tt>.  The value
+         * <tt>numRuns</tt> stands for a run that beats all others, and is
+         * only used while the tree is being built.
+         */
+        private int[] tree;
+
+
+        RunMerger(List<SpillFile> spilledRuns, List<TupleLiteral> memoryRun,
+                  Comparator<Tuple> comparator) throws IOException {
+            this.spilledRuns = spilledRuns;
+            this.comparator = comparator;
+
+            numRuns = spilledRuns.size();
+            if (memoryRun != null) {
+                this.memoryRun = memoryRun.iterator();
+                numRuns++;
+            }
+
+            current = new TupleLiteral[numRuns];
+            for (int i = 0; i < spilledRuns.size(); i++)
+                spilledRuns.get(i).startReading();
+
+            for (int i = 0; i < numRuns; i++)
+                current[i] = readNext(i);
+
+            tree = new int[numRuns];
+            Arrays.fill(tree, numRuns);
+            for (int i = numRuns - 1; i >= 0; i--)
+                replay(i);
+        }
+
+
+        /**
+         * Returns the next tuple in sorted order, or {@code null} once all
+         * runs have been merged.
+         */
+        TupleLiteral next() throws IOException {
+            int winner = tree[0];
+            TupleLiteral tup = current[winner];
+            if (tup != null) {
+                current[winner] = readNext(winner);
+                replay(winner);
+            }
+            return tup;
+        }
+
+
+        private TupleLiteral readNext(int run) throws IOException {
+            if (run < spilledRuns.size())
+                return spilledRuns.get(run).readTuple();
+
+            return memoryRun.hasNext() ? memoryRun.next() : null;
+        }
+
+
+        /**
+         * Replays the comparisons from a run's leaf up to the root, after the
+         * run's current tuple has changed.
+         */
+        private void replay(int run) {
+            int winner = run;
+            for (int node = (run + numRuns) / 2; node > 0; node /= 2) {
+                if (beats(tree[node], winner)) {
+                    int loser = winner;
+                    winner = tree[node];
+                    tree[node] = loser;
+                }
+            }
+            tree[0] = winner;
+        }
+
+
+        /** Returns true if run <tt>a</tt> should be merged before run <tt>b</tt>. */
+        private boolean beats(int a, int b) {
+            if (a == numRuns)
+                return true;
+
+            if (b == numRuns)
+                return false;
+
+            if (current[a] == null)
+                return false;
+
+            if (current[b] == null)
+                return true;
+
+            int result = comparator.compare(current[a], current[b]);
+            return result < 0 || (result == 0 && a < b);
+        }
+    }
 }
@@ -21,14 +21,15 @@ import edu.caltech.nanodb.relations.Tuple;
 
 /**
  * Implements grouping and aggregation by using sorting as a method to find
- * groups.
+ * groups.  The subplan must produce its tuples grouped by the grouping
+ * expressions, e.g. because it is sorted on them; this node doesn't sort its
+ * input itself.  Each group is aggregated as its tuples arrive, so only one
+ * group is held in memory at a time.
  */
 public class SortedGroupAggregateNode extends GroupAggregateNode {
     /** A logging object for reporting anything interesting that happens. */
     private static Logger logger = Logger.getLogger(SortedGroupAggregateNode.class);
 
-    private List<OrderByExpression> orderByExprs;
-
     private boolean done;
 
 
@@ -45,16 +46,14 @@ public class SortedGroupAggregateNode extends GroupAggregateNode {
         List<Expression> groupByExprs, Map<String, FunctionCall> aggregates) {
         super(subplan, groupByExprs, aggregates);
 
-        // Compute the order-by expressions based on the grouping expressions.
-        orderByExprs = new ArrayList<OrderByExpression>();
-        for (Expression expr : groupByExprs)
-            orderByExprs.add(new OrderByExpression(expr));
+        if (groupByExprs.isEmpty()) {
+            throw new IllegalArgumentException(
+                "Sorted grouping requires at least one grouping expression");
+        }
 
-        // TODO:  Verify that this node's order-by expressions are compatible
-        //        with the subplan's order-by expressions!  In other words, if
-        //        the subplan isn't ordered on the same expressions, we can't
-        //        successfully use this plan node; a hashing group/aggregate
-        //        plan node must be used instead.
+        // The planner only uses this node if the subplan's results are
+        // grouped by the same expressions (see PlanUtils.isGroupedBy);
+        // otherwise a hashing group/aggregate plan node must be used.
     }
 
 
@@ -90,11 +89,21 @@ public class SortedGroupAggregateNode extends GroupAggregateNode {
 
 
     /**
-     * The sorted grouping/aggregate operation orders its results according
-     * to the columns in the GROUP BY clause.
+     * The sorted grouping/aggregate operation produces its groups in the
+     * order of its input, so its results are ordered by the columns in the
+     * GROUP BY clause, in the order and directions that the subplan is
+     * sorted on them.
      */
     public List<OrderByExpression> resultsOrderedBy() {
-        return orderByExprs;
+        List<OrderByExpression> inputOrder = leftChild.resultsOrderedBy();
+        if (inputSchema == null ||
+            !PlanUtils.isGroupedBy(inputOrder, groupByExprs, inputSchema)) {
+            return null;
+        }
+
+        // The grouping columns keep the input's column names.
+        return new ArrayList<OrderByExpression>(
+            inputOrder.subList(0, groupByExprs.size()));
     }
 
 
@@ -135,7 +144,7 @@ public class SortedGroupAggregateNode extends GroupAggregateNode {
      * @throws java.io.IOException if table data cannot be read from the filesystem
      * @throws IllegalStateException if a plan node is not properly initialized
      */
-    public Tuple getNextTuple() throws IllegalStateException, IOException {
+    protected Tuple produceNextTuple() throws IllegalStateException, IOException {
         if (done)
             return null;
 
@@ -169,7 +178,9 @@ public class SortedGroupAggregateNode extends GroupAggregateNode {
                 clearAggregates(aggregates);
                 updateAggregates(aggregates);
 
-                return result;
+                // The first group has no previous group to output.
+                if (result != null)
+                    return result;
             }
         }
 
@@ -233,7 +244,6 @@ public class SortedGroupAggregateNode extends GroupAggregateNode {
     public void initialize() {
         super.initialize();
 
-        orderByExprs = null;
         done = false;
         currentGroupValues = null;
 
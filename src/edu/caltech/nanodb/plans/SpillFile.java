@@ -0,0 +1,355 @@
+package edu.caltech.nanodb.plans;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import org.apache.log4j.Logger;
+
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.relations.Tuple;
+
+
+/**
+ * A temporary file that plan nodes use to hold tuples that don't fit in
+ * memory.  Tuples are appended to the file with {@link #writeTuple}, and once
+ * all tuples have been written, {@link #startReading} switches the file over
+ * to reading, after which {@link #readTuple} returns the tuples in the order
+ * they were written.  Spill files are not part of the database; they are
+ * created in the directory named by the {@link #PROP_SPILL_DIR} property, and
+ * are deleted by {@link #delete} when the plan node is finished with them.
+ * <p>
+ * The values of the common SQL types are written with a one-byte type tag
+ * followed by their binary representation.  Any other value is written with
+ * Java serialization.
+ */
+public class SpillFile {
+    /** A logging object for reporting anything interesting that happens. */
+    private static Logger logger = Logger.getLogger(SpillFile.class);
+
+
+    /**
+     * This property can be used to specify the directory where spill files
+     * are created.  If it is not set, the JVM's temporary directory is used.
+     */
+    public static final String PROP_SPILL_DIR = "nanodb.spill.dir";
+
+
+    /**
+     * The number of tuples written between resets of the object stream, so
+     * that its table of previously written objects doesn't grow without
+     * bound.
+     */
+    private static final int RESET_INTERVAL = 1000;
+
+
+    /**
+     * The longest string that is guaranteed to fit in the 65535-byte limit of
+     * {@link ObjectOutputStream#writeUTF}; longer strings are serialized.
+     */
+    private static final int MAX_UTF_STRING_LENGTH = 65535 / 3;
+
+
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_INTEGER = 1;
+    private static final byte TYPE_LONG = 2;
+    private static final byte TYPE_SHORT = 3;
+    private static final byte TYPE_BYTE = 4;
+    private static final byte TYPE_FLOAT = 5;
+    private static final byte TYPE_DOUBLE = 6;
+    private static final byte TYPE_STRING = 7;
+    private static final byte TYPE_OBJECT = 8;
+
+
+    /** The temporary file itself. */
+    private File file;
+
+
+    /** The stream tuples are written to, or {@code null} once reading. */
+    private ObjectOutputStream output;
+
+
+    /** The stream tuples are read from, or {@code null} while writing. */
+    private ObjectInputStream input;
+
+
+    /** The number of tuples written to the file. */
+    private int tupleCount;
+
+
+    /** The number of tuples read back from the file so far. */
+    private int tuplesRead;
+
+
+    /** The total estimated in-memory size of the tuples written. */
+    private long estimatedSize;
+
+
+    /**
+     * Creates a new, empty spill file.
+     *
+     * @param prefix a prefix for the spill file's name, to identify which
+     *        kind of plan node created it
+     *
+     * @throws IOException if the file can't be created
+     */
+    public SpillFile(String prefix) throws IOException {
+        File dir = null;
+        String dirName = System.getProperty(PROP_SPILL_DIR);
+        if (dirName != null) {
+            dir = new File(dirName);
+            if (!dir.isDirectory() && !dir.mkdirs())
+                throw new IOException("Couldn't create spill directory " + dir);
+        }
+
+        file = File.createTempFile("nanodb-" + prefix + "-", ".spill", dir);
+        file.deleteOnExit();
+
+        output = new ObjectOutputStream(new BufferedOutputStream(
+            new FileOutputStream(file)));
+
+        logger.debug("Created spill file " + file);
+    }
+
+
+    /**
+     * Returns the number of tuples that have been written to the file.
+     *
+     * @return the number of tuples that have been written to the file
+     */
+    public int getTupleCount() {
+        return tupleCount;
+    }
+
+
+    /**
+     * Returns the total estimated in-memory size of the tuples written to the
+     * file, as computed by {@link #estimateTupleSize}.
+     *
+     * @return the total estimated in-memory size of the tuples in the file
+     */
+    public long getEstimatedSize() {
+        return estimatedSize;
+    }
+
+
+    /**
+     * Appends a tuple to the end of the spill file.
+     *
+     * @param tuple the tuple to write
+     *
+     * @throws IOException if the tuple can't be written
+     * @throws IllegalStateException if the file has already been switched
+     *         over to reading
+     */
+    public void writeTuple(Tuple tuple) throws IOException {
+        if (output == null)
+            throw new IllegalStateException("Spill file is not being written");
+
+        int numCols = tuple.getColumnCount();
+        output.writeShort(numCols);
+        for (int i = 0; i < numCols; i++)
+            writeValue(tuple.getColumnValue(i));
+
+        tupleCount++;
+        estimatedSize += estimateTupleSize(tuple);
+
+        if (tupleCount % RESET_INTERVAL == 0)
+            output.reset();
+    }
+
+
+    private void writeValue(Object value) throws IOException {
+        if (value == null) {
+            output.writeByte(TYPE_NULL);
+        }
+        else if (value instanceof Integer) {
+            output.writeByte(TYPE_INTEGER);
+            output.writeInt((Integer) value);
+        }
+        else if (value instanceof Long) {
+            output.writeByte(TYPE_LONG);
+            output.writeLong((Long) value);
+        }
+        else if (value instanceof Short) {
+            output.writeByte(TYPE_SHORT);
+            output.writeShort((Short) value);
+        }
+        else if (value instanceof Byte) {
+            output.writeByte(TYPE_BYTE);
+            output.writeByte((Byte) value);
+        }
+        else if (value instanceof Float) {
+            output.writeByte(TYPE_FLOAT);
+            output.writeFloat((Float) value);
+        }
+        else if (value instanceof Double) {
+            output.writeByte(TYPE_DOUBLE);
+            output.writeDouble((Double) value);
+        }
+        else if (value instanceof String &&
+                 ((String) value).length() <= MAX_UTF_STRING_LENGTH) {
+            output.writeByte(TYPE_STRING);
+            output.writeUTF((String) value);
+        }
+        else {
+            output.writeByte(TYPE_OBJECT);
+            output.writeObject(value);
+        }
+    }
+
+
+    /**
+     * Finishes writing the spill file, and positions it at the first tuple
+     * so that the tuples can be read back.
+     *
+     * @throws IOException if the file can't be flushed or reopened
+     */
+    public void startReading() throws IOException {
+        if (output != null) {
+            output.close();
+            output = null;
+        }
+
+        if (input != null)
+            input.close();
+
+        input = new ObjectInputStream(new BufferedInputStream(
+            new FileInputStream(file)));
+        tuplesRead = 0;
+    }
+
+
+    /**
+     * Returns the next tuple from the spill file, or {@code null} once all
+     * tuples have been read.
+     *
+     * @return the next tuple from the spill file, or {@code null} if there
+     *         are no more tuples
+     *
+     * @throws IOException if the tuple can't be read
+     * @throws IllegalStateException if {@link #startReading} hasn't been
+     *         called
+     */
+    public TupleLiteral readTuple() throws IOException {
+        if (input == null)
+            throw new IllegalStateException("Spill file is not being read");
+
+        if (tuplesRead == tupleCount)
+            return null;
+
+        int numCols = input.readShort();
+        TupleLiteral tuple = new TupleLiteral(numCols);
+        for (int i = 0; i < numCols; i++)
+            tuple.setColumnValue(i, readValue());
+
+        tuplesRead++;
+        return tuple;
+    }
+
+
+    private Object readValue() throws IOException {
+        byte type = input.readByte();
+        switch (type) {
+        case TYPE_NULL:
+            return null;
+
+        case TYPE_INTEGER:
+            return input.readInt();
+
+        case TYPE_LONG:
+            return input.readLong();
+
+        case TYPE_SHORT:
+            return input.readShort();
+
+        case TYPE_BYTE:
+            return input.readByte();
+
+        case TYPE_FLOAT:
+            return input.readFloat();
+
+        case TYPE_DOUBLE:
+            return input.readDouble();
+
+        case TYPE_STRING:
+            return input.readUTF();
+
+        case TYPE_OBJECT:
+            try {
+                return input.readObject();
+            }
+            catch (ClassNotFoundException e) {
+                throw new IOException("Couldn't read value from spill file " +
+                    file, e);
+            }
+
+        default:
+            throw new IOException("Unrecognized value type " + type +
+                " in spill file " + file);
+        }
+    }
+
+
+    /**
+     * Closes and deletes the spill file.  This method may be called more
+     * than once.
+     */
+    public void delete() {
+        try {
+            if (output != null)
+                output.close();
+
+            if (input != null)
+                input.close();
+        }
+        catch (IOException e) {
+            logger.warn("Couldn't close spill file " + file, e);
+        }
+
+        output = null;
+        input = null;
+
+        if (file.exists() && !file.delete())
+            logger.warn("Couldn't delete spill file " + file);
+    }
+
+
+    @Override
+    public String toString() {
+        return "SpillFile[" + file + ", " + tupleCount + " tuples]";
+    }
+
+
+    /**
+     * Returns a rough estimate of how much memory a copy of the tuple
+     * occupies, for plan nodes that must keep their in-memory state within a
+     * budget.
+     *
+     * @param tuple the tuple to estimate the size of
+     *
+     * @return an estimate of the tuple's in-memory size in bytes
+     */
+    public static long estimateTupleSize(Tuple tuple) {
+        // Object header and value list, plus a reference for each value.
+        long size = 48;
+
+        int numCols = tuple.getColumnCount();
+        for (int i = 0; i < numCols; i++) {
+            Object value = tuple.getColumnValue(i);
+            size += 8;
+            if (value instanceof String)
+                size += 40 + 2 * ((String) value).length();
+            else if (value != null)
+                size += 16;
+        }
+
+        return size;
+    }
+}
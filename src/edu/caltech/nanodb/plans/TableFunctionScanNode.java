@@ -0,0 +1,177 @@
+package edu.caltech.nanodb.plans;
+
+
+import java.io.IOException;
+import java.util.List;
+
+import edu.caltech.nanodb.expressions.OrderByExpression;
+import edu.caltech.nanodb.functions.TableFunction;
+import edu.caltech.nanodb.relations.Tuple;
+
+
+/**
+ * A leaf plan node that produces the rows of a table-returning function,
+ * such as a system table.  The node's schema, cost and stats are those that
+ * the function reports.
+ */
+public class TableFunctionScanNode extends PlanNode {
+
+    /** The name that the function was called with. */
+    private String functionName;
+
+
+    /** The function that produces the rows. */
+    private TableFunction function;
+
+
+    /**
+     * Constructs a node that produces the rows of a table function.
+     *
+     * @param functionName the name that the function was called with
+     * @param function the function, with its arguments set
+     */
+    public TableFunctionScanNode(String functionName, TableFunction function) {
+        super(OperationType.SELECT);
+
+        if (functionName == null)
+            throw new IllegalArgumentException("functionName cannot be null");
+
+        if (function == null)
+            throw new IllegalArgumentException("function cannot be null");
+
+        this.functionName = functionName;
+        this.function = function;
+    }
+
+
+    public TableFunction getFunction() {
+        return function;
+    }
+
+
+    @Override
+    public List<OrderByExpression> resultsOrderedBy() {
+        return function.resultsOrderedBy();
+    }
+
+
+    /** Table functions can't be rewound, so this node doesn't support marking. */
+    @Override
+    public boolean supportsMarking() {
+        return false;
+    }
+
+
+    /** This node has no children so of course it doesn't require marking. */
+    @Override
+    public boolean requiresLeftMarking() {
+        return false;
+    }
+
+
+    /** This node has no children so of course it doesn't require marking. */
+    @Override
+    public boolean requiresRightMarking() {
+        return false;
+    }
+
+
+    @Override
+    public void prepare() {
+        function.prepare();
+
+        schema = function.getSchema();
+        cost = function.getCost();
+        stats = function.getStats();
+    }
+
+
+    @Override
+    public void initialize() {
+        super.initialize();
+        function.initialize();
+    }
+
+
+    @Override
+    protected Tuple produceNextTuple() throws IOException {
+        return function.getNextTuple();
+    }
+
+
+    @Override
+    public void markCurrentPosition() {
+        throw new UnsupportedOperationException(
+            "Table-function scans don't support marking");
+    }
+
+
+    @Override
+    public void resetToLastMark() {
+        throw new UnsupportedOperationException(
+            "Table-function scans don't support marking");
+    }
+
+
+    @Override
+    public void cleanUp() {
+        function.cleanUp();
+    }
+
+
+    @Override
+    public String toString() {
+        StringBuilder buf = new StringBuilder();
+        buf.append("TableFunctionScan[").append(functionName).append('(');
+
+        boolean first = true;
+        for (Object arg : function.getArguments()) {
+            if (!first)
+                buf.append(", ");
+
+            buf.append(arg);
+            first = false;
+        }
+
+        buf.append(")]");
+        return buf.toString();
+    }
+
+
+    /**
+     * Returns true if the passed-in object is a
+     * <tt>TableFunctionScanNode</tt> that calls the same function with the
+     * same arguments.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (obj instanceof TableFunctionScanNode) {
+            TableFunctionScanNode other = (TableFunctionScanNode) obj;
+            return functionName.equals(other.functionName) &&
+                   function.getArguments().equals(other.function.getArguments());
+        }
+
+        return false;
+    }
+
+
+    @Override
+    public int hashCode() {
+        int hash = 7;
+        hash = 31 * hash + functionName.hashCode();
+        hash = 31 * hash + function.getArguments().hashCode();
+        return hash;
+    }
+
+
+    /**
+     * Creates a copy of this node, with its own copy of the function, since
+     * functions keep the state of their results.
+     */
+    @Override
+    protected PlanNode clone() throws CloneNotSupportedException {
+        TableFunctionScanNode node = (TableFunctionScanNode) super.clone();
+        node.function = (TableFunction) function.clone();
+        return node;
+    }
+}
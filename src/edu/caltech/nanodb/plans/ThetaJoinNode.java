@@ -1,6 +1,7 @@
 package edu.caltech.nanodb.plans;
 
 
+import edu.caltech.nanodb.expressions.CompiledExpression;
 import edu.caltech.nanodb.expressions.Expression;
 import edu.caltech.nanodb.expressions.TupleLiteral;
 
@@ -59,6 +60,13 @@ public abstract class ThetaJoinNode extends PlanNode {
     protected boolean schemaSwapped = false;
 
 
+    /**
+     * The join predicate compiled for evaluation against pairs of left and
+     * right tuples, or {@code null} if it hasn't been compiled yet.
+     */
+    private CompiledExpression compiledPredicate;
+
+
     /**
      * Constructs a ThetaJoinNode that joins the tuples from the left and right
      * subplans, using the specified join type and join predicate.
@@ -112,6 +120,51 @@ public abstract class ThetaJoinNode extends PlanNode {
     }
 
 
+    /**
+     * Creates a copy of this join node and its subtree.  Subclasses copy the
+     * predicate, so the copy compiles its own predicate.
+     */
+    @Override
+    protected PlanNode clone() throws CloneNotSupportedException {
+        ThetaJoinNode node = (ThetaJoinNode) super.clone();
+
+        // Copy the predicate, since it may hold subqueries that keep state.
+        if (predicate != null)
+            node.predicate = predicate.duplicate();
+
+        node.compiledPredicate = null;
+        return node;
+    }
+
+
+    /**
+     * Returns true if a left tuple and a right tuple satisfy the join
+     * predicate, or if there is no predicate.  The predicate is compiled
+     * against the children's schemas the first time it is evaluated.
+     *
+     * @param left the tuple from the left child
+     * @param right the tuple from the right child
+     *
+     * @return true if the tuples can be joined
+     */
+    protected boolean canJoinTuples(Tuple left, Tuple right) {
+        // If the predicate was not set, we can always join them!
+        if (predicate == null)
+            return true;
+
+        if (compiledPredicate == null) {
+            compiledPredicate =
+                CompiledExpression.compile(predicate, leftSchema, rightSchema);
+        }
+
+        environment.clear();
+        environment.addTuple(leftSchema, left);
+        environment.addTuple(rightSchema, right);
+
+        return compiledPredicate.evaluatePredicate(environment);
+    }
+
+
     /**
      * Do initialization for the join operation. Resets state variables.
      * Initialize both children.
@@ -119,7 +172,7 @@ public abstract class ThetaJoinNode extends PlanNode {
     public void initialize() {
         super.initialize();
 
-        if (joinType != JoinType.CROSS && joinType != JoinType.INNER) {
+        if (!supportsJoinType(joinType)) {
             throw new UnsupportedOperationException(
                 "We don't support joins of type " + joinType + " yet!");
         }
@@ -129,6 +182,21 @@ public abstract class ThetaJoinNode extends PlanNode {
     }
 
 
+    /**
+     * Reports whether this join implementation can evaluate the specified
+     * type of join.  The default implementation only supports inner joins
+     * and cross joins; subclasses that can do more should override it.
+     *
+     * @param type the type of join to check
+     *
+     * @return {@code true} if this node can evaluate joins of the specified
+     *         type, or {@code false} otherwise
+     */
+    public boolean supportsJoinType(JoinType type) {
+        return type == JoinType.CROSS || type == JoinType.INNER;
+    }
+
+
     /**
      * This helper method can be used by the {@link #prepare} method in
      * subclasses, to compute the output schema and initial stats of the
@@ -140,6 +208,10 @@ public abstract class ThetaJoinNode extends PlanNode {
         leftSchema = leftChild.getSchema();
         rightSchema = rightChild.getSchema();
 
+        // The children's schemas may have changed, so the predicate must be
+        // compiled again.
+        compiledPredicate = null;
+
         leftStats = leftChild.getStats();
         rightStats = rightChild.getStats();
 
@@ -1,6 +1,7 @@
 package edu.caltech.nanodb.qeval;
 
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -12,9 +13,15 @@ import edu.caltech.nanodb.commands.SelectValue;
 import edu.caltech.nanodb.expressions.BooleanOperator;
 import edu.caltech.nanodb.expressions.Expression;
 import edu.caltech.nanodb.expressions.FunctionCall;
+import edu.caltech.nanodb.expressions.OrderByExpression;
+import edu.caltech.nanodb.plans.FileScanNode;
+import edu.caltech.nanodb.plans.GatherNode;
+import edu.caltech.nanodb.plans.LimitOffsetNode;
 import edu.caltech.nanodb.plans.PlanNode;
+import edu.caltech.nanodb.plans.PlanUtils;
 import edu.caltech.nanodb.plans.SelectNode;
 import edu.caltech.nanodb.plans.SimpleFilterNode;
+import edu.caltech.nanodb.plans.SortNode;
 import edu.caltech.nanodb.storage.StorageManager;
 
 
@@ -29,11 +36,56 @@ public abstract class AbstractPlannerImpl implements Planner {
     protected StorageManager storageManager;
 
 
+    /** True if the planner may produce plans that run in parallel. */
+    protected boolean parallelExecution;
+
+
     public void setStorageManager(StorageManager storageManager) {
         this.storageManager = storageManager;
     }
 
 
+    public void setParallelExecution(boolean parallelExecution) {
+        this.parallelExecution = parallelExecution;
+    }
+
+
+    /**
+     * Chooses how many copies of a subplan to evaluate in parallel, based on
+     * the size of the table the subplan scans and the number of processors.
+     * Each copy scans at least {@link GatherNode#getMinPagesPerWorker} of the
+     * table's data pages, and there are at most
+     * {@link GatherNode#getMaxDegree} copies.
+     *
+     * @param plan the subplan to evaluate, which must have been prepared
+     *
+     * @return the number of copies to evaluate, or 1 if the subplan should
+     *         not be evaluated in parallel
+     */
+    protected int chooseParallelism(PlanNode plan) {
+        // Parallel results come in no particular order, so plans that were
+        // chosen for the order of their results are left alone.
+        List<OrderByExpression> order = plan.resultsOrderedBy();
+        if (order != null && !order.isEmpty())
+            return 1;
+
+        FileScanNode scan = GatherNode.findPartitionedScan(plan);
+        if (scan == null)
+            return 1;
+
+        long degree = Math.min(GatherNode.getMaxDegree(),
+            scan.getNumDataPages() / GatherNode.getMinPagesPerWorker());
+
+        if (degree < 2)
+            return 1;
+
+        logger.debug(String.format("Evaluating %s with %d copies",
+            scan.getTableInfo().getTableName(), degree));
+
+        return (int) degree;
+    }
+
+
     protected AggregateFunctionExtractor prepareAggregates(SelectClause selClause) {
         // Analyze all expressions in the SELECT, WHERE and HAVING clauses for
         // aggregate function calls.  (Obviously, if the WHERE clause contains
@@ -198,4 +250,53 @@ public abstract class AbstractPlannerImpl implements Planner {
 
         return plan;
     }
+
+
+    /**
+     * This helper function applies the <tt>ORDER BY</tt>, <tt>LIMIT</tt> and
+     * <tt>OFFSET</tt> clauses of a <tt>SELECT</tt> statement to the top of a
+     * plan.  When the results are both sorted and limited, the sort node is
+     * told how many tuples are needed, so that it only has to keep the
+     * smallest ones.  If the plan already produces its results in the
+     * <tt>ORDER BY</tt> order, e.g. from a scan of a B<sup>+</sup> tree file,
+     * no sort is added.
+     *
+     * @param plan the plan to sort and limit the results of
+     *
+     * @param selClause the <tt>SELECT</tt> clause the plan is for
+     *
+     * @return the (possibly new) top plan-node for the plan with the ordering
+     *         and limits applied
+     */
+    protected PlanNode addOrderingAndLimitToPlan(PlanNode plan,
+                                                 SelectClause selClause) {
+        int limit = selClause.getLimit();
+        int offset = selClause.getOffset();
+
+        List<OrderByExpression> orderByExprs = selClause.getOrderByExprs();
+        if (!orderByExprs.isEmpty()) {
+            plan.prepare();
+            if (PlanUtils.isOrderedBy(plan.resultsOrderedBy(), orderByExprs,
+                                      plan.getSchema())) {
+                logger.debug("Plan results are already ordered by " +
+                    orderByExprs + "; not sorting them.");
+                orderByExprs = Collections.emptyList();
+            }
+        }
+
+        if (!orderByExprs.isEmpty()) {
+            SortNode sortNode = new SortNode(plan, orderByExprs);
+            if (limit > 0) {
+                long needed = (long) limit + offset;
+                sortNode.setLimit((int) Math.min(needed, Integer.MAX_VALUE));
+            }
+
+            plan = sortNode;
+        }
+
+        if (limit > 0 || offset > 0)
+            plan = new LimitOffsetNode(plan, limit, offset);
+
+        return plan;
+    }
 }
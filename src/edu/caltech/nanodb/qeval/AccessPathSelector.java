@@ -0,0 +1,574 @@
+package edu.caltech.nanodb.qeval;
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import edu.caltech.nanodb.expressions.ColumnValue;
+import edu.caltech.nanodb.expressions.CompareOperator;
+import edu.caltech.nanodb.expressions.Expression;
+import edu.caltech.nanodb.expressions.LiteralValue;
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.expressions.TypeCastException;
+import edu.caltech.nanodb.expressions.TypeConverter;
+import edu.caltech.nanodb.indexes.IndexInfo;
+import edu.caltech.nanodb.plans.FileScanNode;
+import edu.caltech.nanodb.plans.IndexScanNode;
+import edu.caltech.nanodb.plans.PlanNode;
+import edu.caltech.nanodb.relations.ColumnRefs;
+import edu.caltech.nanodb.relations.ColumnType;
+import edu.caltech.nanodb.relations.Schema;
+import edu.caltech.nanodb.relations.TableInfo;
+import edu.caltech.nanodb.relations.TableSchema;
+import edu.caltech.nanodb.storage.SequentialTupleFile;
+import edu.caltech.nanodb.storage.StorageManager;
+import edu.caltech.nanodb.storage.linhash.LinHashTupleFile;
+import edu.caltech.nanodb.transactions.LockManager;
+import edu.caltech.nanodb.transactions.TransactionManager;
+
+
+/**
+ * This utility class chooses how a table is read, given the conjuncts of the
+ * predicate that will be applied to its tuples.  Conjuncts of the form
+ * <tt>column op literal</tt> are used to build the possible access paths:
+ * <ul>
+ *   <li>a scan of the whole table file,</li>
+ *   <li>a probe of a hashed table file, when every hash column is compared
+ *       for equality,</li>
+ *   <li>an equality lookup on an index, when a prefix of the index's columns
+ *       is compared for equality, and</li>
+ *   <li>a range scan on an ordered index, when the index's first column is
+ *       bounded above or below.</li>
+ * </ul>
+ * The access paths are costed by their plan nodes using the
+ * {@link SelectivityEstimator}, and the one with the fewest estimated block
+ * IOs is chosen, with ties broken on CPU cost.  The chosen plan node doesn't
+ * apply the conjuncts itself; the caller must still filter its tuples with
+ * the full predicate.
+ */
+public class AccessPathSelector {
+
+    /** A logging object for reporting anything interesting that happens. */
+    private static Logger logger = Logger.getLogger(AccessPathSelector.class);
+
+
+    /**
+     * The values that the conjuncts of a predicate constrain a single column
+     * to.
+     */
+    private static class ColumnBounds {
+        /** The value the column must equal, or {@code null} if none. */
+        Object equalValue;
+
+        /** The lower bound on the column, or {@code null} if none. */
+        Object lowerValue;
+
+        /** True if the lower bound is inclusive. */
+        boolean includeLower;
+
+        /** The upper bound on the column, or {@code null} if none. */
+        Object upperValue;
+
+        /** True if the upper bound is inclusive. */
+        boolean includeUpper;
+
+
+        /**
+         * Records the constraint that a comparison places on the column,
+         * keeping the tightest of the bounds seen so far.
+         *
+         * @param type the type of the comparison, with the column on the left
+         *
+         * @param value the value the column is compared to, coerced to the
+         *        column's type
+         */
+        @SuppressWarnings("unchecked")
+        void addComparison(CompareOperator.Type type, Object value) {
+            Comparable cmpValue = (Comparable) value;
+
+            switch (type) {
+            case EQUALS:
+                equalValue = value;
+                break;
+
+            case GREATER_THAN:
+            case GREATER_OR_EQUAL:
+                boolean inclusive = (type == CompareOperator.Type.GREATER_OR_EQUAL);
+                int cmp = (lowerValue == null) ? 1 : cmpValue.compareTo(lowerValue);
+                if (cmp > 0 || (cmp == 0 && !inclusive)) {
+                    lowerValue = value;
+                    includeLower = inclusive;
+                }
+                break;
+
+            case LESS_THAN:
+            case LESS_OR_EQUAL:
+                inclusive = (type == CompareOperator.Type.LESS_OR_EQUAL);
+                cmp = (upperValue == null) ? -1 : cmpValue.compareTo(upperValue);
+                if (cmp < 0 || (cmp == 0 && !inclusive)) {
+                    upperValue = value;
+                    includeUpper = inclusive;
+                }
+                break;
+
+            default:
+                // Other comparisons don't constrain the column to a range.
+            }
+        }
+    }
+
+
+    /** This class should not be instantiated. */
+    private AccessPathSelector() {
+        throw new IllegalArgumentException("This class should not be instantiated.");
+    }
+
+
+    /**
+     * Chooses the cheapest way to read the tuples of a table that may satisfy
+     * the specified conjuncts.  The returned plan node has been prepared, and
+     * locks the tuples it reads if transactions are enabled.
+     *
+     * @param storageManager the storage manager, used to open the table's
+     *        indexes
+     *
+     * @param tableInfo the table to read
+     *
+     * @param schema the schema that the conjuncts refer to the table's columns
+     *        through; this is the table's schema, unless the table has been
+     *        renamed, but the columns must be in the same order
+     *
+     * @param conjuncts the conjuncts of the predicate that will be applied to
+     *        the table's tuples
+     *
+     * @return a prepared plan node that produces every tuple of the table
+     *         that may satisfy the conjuncts
+     *
+     * @throws IOException if an index of the table can't be opened
+     */
+    public static PlanNode makeAccessPath(StorageManager storageManager,
+        TableInfo tableInfo, Schema schema, Collection<Expression> conjuncts)
+        throws IOException {
+
+        TableSchema tableSchema = tableInfo.getSchema();
+        Map<Integer, ColumnBounds> bounds =
+            findColumnBounds(tableSchema, schema, conjuncts);
+
+        LockManager lockManager = null;
+        TransactionManager txnManager = storageManager.getTransactionManager();
+        if (txnManager != null)
+            lockManager = txnManager.getLockManager();
+
+        ArrayList<PlanNode> candidates = new ArrayList<PlanNode>();
+
+        FileScanNode fileScan = new FileScanNode(tableInfo, null);
+        fileScan.setLockManager(lockManager);
+        candidates.add(fileScan);
+
+        TupleLiteral hashKey = makeHashKey(tableInfo, bounds);
+        if (hashKey != null) {
+            FileScanNode hashProbe = new FileScanNode(tableInfo, null);
+            hashProbe.setHashKey(hashKey);
+            hashProbe.setLockManager(lockManager);
+            candidates.add(hashProbe);
+        }
+
+        // Indexes don't record which versions of a tuple are visible to a
+        // transaction, so they can't be used to read versioned tables.
+        if (!bounds.isEmpty() && !tableSchema.isVersioned()) {
+            for (ColumnRefs indexDef : tableSchema.getIndexes().values()) {
+                IndexScanNode indexScan = makeIndexScan(storageManager,
+                    tableInfo, indexDef, bounds);
+
+                if (indexScan != null) {
+                    indexScan.setLockManager(lockManager);
+                    candidates.add(indexScan);
+                }
+            }
+        }
+
+        PlanNode best = null;
+        for (PlanNode candidate : candidates) {
+            candidate.prepare();
+            if (best == null || isCheaper(candidate.getCost(), best.getCost()))
+                best = candidate;
+        }
+
+        logger.debug("Chose access path " + best + " with cost " +
+            best.getCost() + " for table " + tableInfo.getTableName());
+
+        return best;
+    }
+
+
+    /**
+     * Returns the key to probe a hashed table file with, if the conjuncts
+     * compare every hash column of the table for equality.  This allows
+     * plans that must scan the table file itself, such as those for
+     * <tt>UPDATE</tt> and <tt>DELETE</tt> commands, to avoid scanning the
+     * whole file.
+     *
+     * @param tableInfo the table to read
+     *
+     * @param schema the schema that the conjuncts refer to the table's columns
+     *        through
+     *
+     * @param conjuncts the conjuncts of the predicate that will be applied to
+     *        the table's tuples
+     *
+     * @return the hash key to probe the table file for, or {@code null} if
+     *         the table isn't hashed or the conjuncts don't specify a key
+     */
+    public static TupleLiteral findHashKey(TableInfo tableInfo, Schema schema,
+                                           Collection<Expression> conjuncts) {
+        if (!(tableInfo.getTupleFile() instanceof LinHashTupleFile))
+            return null;
+
+        return makeHashKey(tableInfo,
+            findColumnBounds(tableInfo.getSchema(), schema, conjuncts));
+    }
+
+
+    /**
+     * Chooses the cheapest way to look up the tuples of a table by the
+     * values of some of its columns, for the right child of an
+     * {@link edu.caltech.nanodb.plans.IndexNestedLoopJoinNode}.  The
+     * candidates are a probe of the table's hash key, if every hash column
+     * can be looked up, and an equality lookup on each index whose leading
+     * columns can be looked up; hashed indexes require all of their columns.
+     * The returned node's key only holds <tt>NULL</tt> placeholders, so its
+     * cost is that of an average lookup; the join replaces the key before
+     * each probe.
+     *
+     * @param storageManager the storage manager, used to open the table's
+     *        indexes
+     *
+     * @param tableInfo the table to read
+     *
+     * @param lookupColumns the indexes of the columns whose values are known
+     *
+     * @return a prepared plan node that looks up tuples of the table, or
+     *         {@code null} if the table can't be looked up by those columns
+     *
+     * @throws IOException if an index of the table can't be opened
+     */
+    public static PlanNode makeLookupPath(StorageManager storageManager,
+        TableInfo tableInfo, Collection<Integer> lookupColumns)
+        throws IOException {
+
+        TableSchema tableSchema = tableInfo.getSchema();
+
+        LockManager lockManager = null;
+        TransactionManager txnManager = storageManager.getTransactionManager();
+        if (txnManager != null)
+            lockManager = txnManager.getLockManager();
+
+        ArrayList<PlanNode> candidates = new ArrayList<PlanNode>();
+
+        if (tableInfo.getTupleFile() instanceof LinHashTupleFile) {
+            List<Integer> hashColumns =
+                ((LinHashTupleFile) tableInfo.getTupleFile()).getHashColumns();
+
+            if (lookupColumns.containsAll(hashColumns)) {
+                FileScanNode hashProbe = new FileScanNode(tableInfo, null);
+                hashProbe.setHashKey(new TupleLiteral(hashColumns.size()));
+                hashProbe.setLockManager(lockManager);
+                candidates.add(hashProbe);
+            }
+        }
+
+        // As in makeAccessPath(), indexes can't be used for versioned tables.
+        if (!tableSchema.isVersioned()) {
+            for (ColumnRefs indexDef : tableSchema.getIndexes().values()) {
+                int numKeyCols = 0;
+                while (numKeyCols < indexDef.size() &&
+                       lookupColumns.contains(indexDef.getCol(numKeyCols))) {
+                    numKeyCols++;
+                }
+
+                if (numKeyCols == 0)
+                    continue;
+
+                IndexInfo indexInfo = storageManager.getIndexManager().openIndex(
+                    tableInfo, indexDef.getIndexName());
+                if (!(indexInfo.getTupleFile() instanceof SequentialTupleFile) &&
+                    numKeyCols < indexDef.size()) {
+                    continue;
+                }
+
+                IndexScanNode indexScan = new IndexScanNode(indexInfo,
+                    new TupleLiteral(numKeyCols));
+                indexScan.setLockManager(lockManager);
+                candidates.add(indexScan);
+            }
+        }
+
+        PlanNode best = null;
+        for (PlanNode candidate : candidates) {
+            candidate.prepare();
+            if (best == null || isCheaper(candidate.getCost(), best.getCost()))
+                best = candidate;
+        }
+
+        if (best != null) {
+            logger.debug("Chose lookup path " + best + " with cost " +
+                best.getCost() + " for table " + tableInfo.getTableName());
+        }
+
+        return best;
+    }
+
+
+    /**
+     * Returns true if the first cost is cheaper than the second.  Block IOs
+     * are compared first, since they dominate the cost of reading a table,
+     * and CPU cost breaks ties.
+     */
+    private static boolean isCheaper(PlanCost cost, PlanCost other) {
+        if (cost.numBlockIOs != other.numBlockIOs)
+            return cost.numBlockIOs < other.numBlockIOs;
+
+        return cost.cpuCost < other.cpuCost;
+    }
+
+
+    /**
+     * Collects the constraints that <tt>column op literal</tt> conjuncts
+     * place on the table's columns.  Literal values are coerced to the types
+     * of the columns they are compared with; conjuncts whose values can't be
+     * represented exactly in the column's type are ignored.
+     *
+     * @param tableSchema the schema of the table
+     *
+     * @param schema the schema that the conjuncts refer to the table's columns
+     *        through
+     *
+     * @param conjuncts the conjuncts to examine
+     *
+     * @return a map from column indexes to the constraints on the columns
+     */
+    private static Map<Integer, ColumnBounds> findColumnBounds(
+        TableSchema tableSchema, Schema schema,
+        Collection<Expression> conjuncts) {
+
+        HashMap<Integer, ColumnBounds> bounds =
+            new HashMap<Integer, ColumnBounds>();
+
+        if (conjuncts == null)
+            return bounds;
+
+        for (Expression conjunct : conjuncts) {
+            if (!(conjunct instanceof CompareOperator))
+                continue;
+
+            // Normalize a copy of the comparison, since the conjunct may be
+            // in a hash-set.
+            CompareOperator comp = (CompareOperator) conjunct.duplicate();
+            comp.normalize();
+
+            Expression left = comp.getLeftExpression();
+            Expression right = comp.getRightExpression();
+            if (!(left instanceof ColumnValue) || !(right instanceof LiteralValue))
+                continue;
+
+            int colIndex =
+                schema.getColumnIndex(((ColumnValue) left).getColumnName());
+            if (colIndex < 0)
+                continue;
+
+            Object value = coerceValue(right.evaluate(),
+                tableSchema.getColumnInfo(colIndex).getType());
+            if (value == null)
+                continue;
+
+            ColumnBounds colBounds = bounds.get(colIndex);
+            if (colBounds == null) {
+                colBounds = new ColumnBounds();
+                bounds.put(colIndex, colBounds);
+            }
+            colBounds.addComparison(comp.getType(), value);
+        }
+
+        return bounds;
+    }
+
+
+    /**
+     * Converts a value to the type of the column it is compared with, so
+     * that it can be compared against the values stored in table and index
+     * files, or used as a search key.
+     *
+     * @param value the value to convert
+     *
+     * @param colType the type of the column
+     *
+     * @return the converted value, or {@code null} if the value is
+     *         {@code NULL}, or can't be represented exactly in the column's
+     *         type
+     */
+    public static Object coerceValue(Object value, ColumnType colType) {
+        if (value == null)
+            return null;
+
+        Object result;
+        try {
+            switch (colType.getBaseType()) {
+            case INTEGER:
+                result = TypeConverter.getIntegerValue(value);
+                break;
+
+            case BIGINT:
+                result = TypeConverter.getLongValue(value);
+                break;
+
+            case SMALLINT:
+                result = TypeConverter.getShortValue(value);
+                break;
+
+            case TINYINT:
+                result = TypeConverter.getByteValue(value);
+                break;
+
+            case FLOAT:
+                result = TypeConverter.getFloatValue(value);
+                break;
+
+            case DOUBLE:
+                result = TypeConverter.getDoubleValue(value);
+                break;
+
+            case CHAR:
+            case VARCHAR:
+                if (!(value instanceof String))
+                    return null;
+                result = value;
+                break;
+
+            default:
+                return null;
+            }
+        }
+        catch (TypeCastException e) {
+            return null;
+        }
+
+        // Make sure the conversion didn't change the value, e.g. by
+        // truncating a fraction or overflowing.
+        TypeConverter.Pair p = TypeConverter.coerceComparison(value, result);
+        if (!p.value1.equals(p.value2))
+            return null;
+
+        return result;
+    }
+
+
+    /**
+     * Builds the key for probing a hashed table file, if every hash column
+     * of the table must equal a value.
+     *
+     * @param tableInfo the table to read
+     *
+     * @param bounds the constraints on the table's columns
+     *
+     * @return the hash key, or {@code null} if the table isn't hashed or some
+     *         hash column isn't compared for equality
+     */
+    private static TupleLiteral makeHashKey(TableInfo tableInfo,
+                                            Map<Integer, ColumnBounds> bounds) {
+        if (!(tableInfo.getTupleFile() instanceof LinHashTupleFile))
+            return null;
+
+        LinHashTupleFile hashFile = (LinHashTupleFile) tableInfo.getTupleFile();
+
+        TupleLiteral key = new TupleLiteral();
+        for (int colIndex : hashFile.getHashColumns()) {
+            ColumnBounds colBounds = bounds.get(colIndex);
+            if (colBounds == null || colBounds.equalValue == null)
+                return null;
+
+            key.addValue(colBounds.equalValue);
+        }
+
+        return key;
+    }
+
+
+    /**
+     * Builds an index scan over the specified index, if the constraints on
+     * the table's columns allow it to be used.  An equality lookup is made if
+     * a prefix of the index's columns must equal values; hashed indexes
+     * require all of their columns.  Otherwise, a range scan is made if the
+     * index is ordered and its first column is bounded.
+     *
+     * @param storageManager the storage manager, used to open the index
+     *
+     * @param tableInfo the table the index is on
+     *
+     * @param indexDef the definition of the index
+     *
+     * @param bounds the constraints on the table's columns
+     *
+     * @return an index scan node, or {@code null} if the index can't be used
+     *
+     * @throws IOException if the index can't be opened
+     */
+    private static IndexScanNode makeIndexScan(StorageManager storageManager,
+        TableInfo tableInfo, ColumnRefs indexDef,
+        Map<Integer, ColumnBounds> bounds) throws IOException {
+
+        // Find the prefix of the index's columns that have equality values.
+        List<Object> equalValues = new ArrayList<Object>();
+        for (int i = 0; i < indexDef.size(); i++) {
+            ColumnBounds colBounds = bounds.get(indexDef.getCol(i));
+            if (colBounds == null || colBounds.equalValue == null)
+                break;
+
+            equalValues.add(colBounds.equalValue);
+        }
+
+        ColumnBounds firstBounds = bounds.get(indexDef.getCol(0));
+        boolean hasRange = firstBounds != null &&
+            (firstBounds.lowerValue != null || firstBounds.upperValue != null);
+
+        if (equalValues.isEmpty() && !hasRange)
+            return null;
+
+        IndexInfo indexInfo = storageManager.getIndexManager().openIndex(
+            tableInfo, indexDef.getIndexName());
+        boolean ordered = indexInfo.getTupleFile() instanceof SequentialTupleFile;
+
+        if (!equalValues.isEmpty() &&
+            (ordered || equalValues.size() == indexDef.size())) {
+            TupleLiteral searchKey = new TupleLiteral();
+            for (Object value : equalValues)
+                searchKey.addValue(value);
+
+            return new IndexScanNode(indexInfo, searchKey);
+        }
+
+        if (ordered && hasRange) {
+            TupleLiteral lower = null;
+            if (firstBounds.lowerValue != null) {
+                lower = new TupleLiteral();
+                lower.addValue(firstBounds.lowerValue);
+            }
+
+            TupleLiteral upper = null;
+            if (firstBounds.upperValue != null) {
+                upper = new TupleLiteral();
+                upper.addValue(firstBounds.upperValue);
+            }
+
+            return new IndexScanNode(indexInfo, lower, firstBounds.includeLower,
+                upper, firstBounds.includeUpper);
+        }
+
+        return null;
+    }
+}
@@ -10,6 +10,9 @@ package edu.caltech.nanodb.qeval;
  *   <li>the number of <tt>NULL</tt> values in the column</li>
  *   <li>the minimum value for the column</li>
  *   <li>the maximum value for the column</li>
+ *   <li>the column's most common values, and the fraction of the column's
+ *       non-<tt>NULL</tt> values that each of them makes up</li>
+ *   <li>an equi-depth histogram of the column's other values</li>
  * </ul>
  * The {@link ColumnStatsCollector} class can be used to easily collect these
  * statistics for a particular column of a table.
@@ -43,6 +46,30 @@ public class ColumnStats {
     private Object maxValue;
 
 
+    /**
+     * The most common values of this column, in decreasing order of
+     * frequency, or <tt>null</tt> if they are unknown.
+     */
+    private Object[] mostCommonValues;
+
+
+    /**
+     * For each of the {@link #mostCommonValues}, the fraction of the
+     * column's non-<tt>NULL</tt> values that are equal to it.
+     */
+    private float[] mostCommonFrequencies;
+
+
+    /**
+     * The bounds of an equi-depth histogram of the column's non-<tt>NULL</tt>
+     * values that aren't among the {@link #mostCommonValues}, in increasing
+     * order, or <tt>null</tt> if there is no histogram.  About the same
+     * number of values falls between each pair of adjacent bounds; the first
+     * and last bounds are the smallest and largest of the values.
+     */
+    private Object[] histogramBounds;
+
+
     /** Initializes a column-stats object to all "unknown" values. */
     public ColumnStats() {
         numUniqueValues = -1;
@@ -192,4 +219,110 @@ public class ColumnStats {
     public boolean hasDifferentMinMaxValues() {
         return hasMinMaxValues() && (!minValue.equals(maxValue));
     }
+
+
+    /**
+     * Returns the most common values of the column, in decreasing order of
+     * frequency, or <tt>null</tt> if they are unknown.
+     *
+     * @return the most common values of the column, or <tt>null</tt> if they
+     *         are unknown
+     */
+    public Object[] getMostCommonValues() {
+        return mostCommonValues;
+    }
+
+
+    /**
+     * Returns the fraction of the column's non-<tt>NULL</tt> values that
+     * each of the {@link #getMostCommonValues most common values} makes up,
+     * or <tt>null</tt> if the most common values are unknown.
+     *
+     * @return the frequencies of the most common values, or <tt>null</tt> if
+     *         they are unknown
+     */
+    public float[] getMostCommonFrequencies() {
+        return mostCommonFrequencies;
+    }
+
+
+    /**
+     * Sets the most common values of the column.
+     *
+     * @param values the most common values, in decreasing order of
+     *        frequency, or <tt>null</tt> if they are unknown
+     * @param frequencies the fraction of the column's non-<tt>NULL</tt>
+     *        values that each value makes up, or <tt>null</tt> if the values
+     *        are unknown
+     *
+     * @throws IllegalArgumentException if only one of the arrays is
+     *         <tt>null</tt>, or if they have different lengths
+     */
+    public void setMostCommonValues(Object[] values, float[] frequencies) {
+        if ((values == null) != (frequencies == null) ||
+            (values != null && values.length != frequencies.length)) {
+            throw new IllegalArgumentException(
+                "Each most common value must have a frequency");
+        }
+
+        mostCommonValues = values;
+        mostCommonFrequencies = frequencies;
+    }
+
+
+    /**
+     * Returns <tt>true</tt> if this column-stats object has a list of the
+     * column's most common values.
+     *
+     * @return <tt>true</tt> if this column-stats object has a list of the
+     *         column's most common values
+     */
+    public boolean hasMostCommonValues() {
+        return mostCommonValues != null && mostCommonValues.length > 0;
+    }
+
+
+    /**
+     * Returns the bounds of the equi-depth histogram of the column's values
+     * that aren't among the most common values, or <tt>null</tt> if there is
+     * no histogram.
+     *
+     * @return the bounds of the column's histogram, in increasing order
+     */
+    public Object[] getHistogramBounds() {
+        return histogramBounds;
+    }
+
+
+    /**
+     * Sets the bounds of the equi-depth histogram of the column's values
+     * that aren't among the most common values.
+     *
+     * @param bounds the histogram's bounds in increasing order, or
+     *        <tt>null</tt> if there is no histogram
+     *
+     * @throws IllegalArgumentException if fewer than two bounds are
+     *         specified
+     */
+    public void setHistogramBounds(Object[] bounds) {
+        if (bounds != null && bounds.length < 2) {
+            throw new IllegalArgumentException(
+                "A histogram must have at least two bounds; got " +
+                bounds.length);
+        }
+
+        histogramBounds = bounds;
+    }
+
+
+    /**
+     * Returns <tt>true</tt> if this column-stats object has a histogram of
+     * the column's values.
+     *
+     * @return <tt>true</tt> if this column-stats object has a histogram of
+     *         the column's values
+     */
+    public boolean hasHistogram() {
+        return histogramBounds != null;
+    }
 }
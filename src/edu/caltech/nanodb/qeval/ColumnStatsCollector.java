@@ -1,11 +1,16 @@
 package edu.caltech.nanodb.qeval;
 
 
+import java.nio.charset.StandardCharsets;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
 import edu.caltech.nanodb.relations.SQLDataType;
 import edu.caltech.nanodb.storage.TableManager;
 
-import java.util.HashSet;
-
 
 /**
  * This class facilitates the collection of statistics for a single column of a
@@ -16,23 +21,86 @@ import java.util.HashSet;
  * <p>
  * The class also makes it very easy to construct a {@link ColumnStats} object
  * from the result of the analysis.
- *
- * @design (Donnie) This class is limited in its ability to efficiently compute
- *         the number of unique values for very large tables.  An
- *         external-memory approach would have to be used to support extremely
- *         large tables.
+ * <p>
+ * The number of distinct values is estimated with a {@link HyperLogLog}
+ * sketch, so a collector uses the same small amount of memory no matter how
+ * large the table is, and the collectors of separately analyzed parts of a
+ * table can be {@link #merge merged}.  Values can be added as primitives,
+ * using {@link #addLong}, {@link #addDouble} and {@link #addString}, so that
+ * a table file can pass them straight from its pages without creating an
+ * object for every value; {@link #addValue} takes any value.
+ * <p>
+ * For the numeric and string types, the collector also keeps a random
+ * sample of up to {@link #SAMPLE_SIZE} of the column's values, with reservoir
+ * sampling, so that only the values that go into the sample are turned into
+ * objects.  The sample gives the column's most common values and an
+ * equi-depth histogram of its other values, which let the
+ * {@link SelectivityEstimator} make good estimates for skewed columns.
  */
 public class ColumnStatsCollector {
 
+    /** The largest number of values kept in the sample of a column. */
+    public static final int SAMPLE_SIZE = 3000;
+
+
+    /** The largest number of most common values kept for a column. */
+    public static final int MAX_MOST_COMMON_VALUES = 10;
+
+
+    /** The number of buckets in the histogram of a column. */
+    public static final int NUM_HISTOGRAM_BUCKETS = 20;
+
+
+    /**
+     * The longest string kept in the stats of a column, since the stats are
+     * stored in the table's header page.  Longer strings are never among the
+     * most common values, and are cut short when used as histogram bounds.
+     */
+    public static final int MAX_STRING_LENGTH = 32;
+
+
     /** The SQL data-type for the column that stats are being collected for. */
     private SQLDataType sqlType;
 
 
+    /** True if the column's type is one of the integer types. */
+    private boolean integerType;
+
+
+    /** True if the column's type is one of the floating-point types. */
+    private boolean floatType;
+
+
+    /** True if the minimum and maximum values are computed for the column. */
+    private boolean computeMinMax;
+
+
+    /** True if a sample of the column's values is kept. */
+    private boolean keepSample;
+
+
     /**
-     * The set of all values seen in this column.  This set could obviously
-     * occupy a large amount of memory for large tables.
+     * A random sample of the column's non-<tt>NULL</tt> values.  Until
+     * {@link #SAMPLE_SIZE} values have been seen, it holds every value.
      */
-    private HashSet<Object> uniqueValues;
+    private Object[] sample;
+
+
+    /** The number of values in {@link #sample}. */
+    private int sampleCount;
+
+
+    /** The source of the random choices of values to sample. */
+    private Random random;
+
+
+    /** A sketch of the distinct values seen in this column. */
+    private HyperLogLog distinctValues;
+
+
+    /** The number of non-<tt>NULL</tt> values seen in the column. */
+    private long numValues;
+
 
     /**
      * A count of the number of <tt>NULL</tt> values seen in the column-values.
@@ -40,16 +108,41 @@ public class ColumnStatsCollector {
     private int numNullValues;
 
 
+    /**
+     * True if the primitive minimum and maximum below hold values.  They are
+     * used for columns of the integer and floating-point types.
+     */
+    private boolean hasMinMax;
+
+
+    /** The minimum value of an integer column. */
+    private long minLong;
+
+
+    /** The maximum value of an integer column. */
+    private long maxLong;
+
+
+    /** The minimum value of a floating-point column. */
+    private double minDouble;
+
+
+    /** The maximum value of a floating-point column. */
+    private double maxDouble;
+
+
     /**
      * The minimum value seen in the column's values, or <tt>null</tt> if the
-     * minimum is unknown or won't be computed.
+     * minimum is unknown or won't be computed.  This is only used for columns
+     * of types other than the numeric types.
      */
     Comparable minValue;
 
 
     /**
      * The maximum value seen in the column's values, or <tt>null</tt> if the
-     * maximum is unknown or won't be computed.
+     * maximum is unknown or won't be computed.  This is only used for columns
+     * of types other than the numeric types.
      */
     Comparable maxValue;
 
@@ -62,7 +155,25 @@ public class ColumnStatsCollector {
      */
     public ColumnStatsCollector(SQLDataType sqlType) {
         this.sqlType = sqlType;
-        uniqueValues = new HashSet<Object>();
+
+        integerType = (sqlType == SQLDataType.INTEGER ||
+            sqlType == SQLDataType.SMALLINT || sqlType == SQLDataType.BIGINT ||
+            sqlType == SQLDataType.TINYINT);
+        floatType = (sqlType == SQLDataType.FLOAT ||
+            sqlType == SQLDataType.DOUBLE);
+        computeMinMax = SelectivityEstimator.typeSupportsCompareEstimates(sqlType);
+        keepSample = computeMinMax ||
+            sqlType == SQLDataType.CHAR || sqlType == SQLDataType.VARCHAR;
+
+        if (keepSample) {
+            sample = new Object[SAMPLE_SIZE];
+
+            // A fixed seed makes analyzing the same data give the same stats.
+            random = new Random(SAMPLE_SIZE);
+        }
+
+        distinctValues = new HyperLogLog();
+        numValues = 0;
         numNullValues = 0;
         minValue = null;
         maxValue = null;
@@ -83,14 +194,21 @@ public class ColumnStatsCollector {
     @SuppressWarnings("unchecked")
     public void addValue(Object value) {
         if (value == null) {
-            numNullValues++;
+            addNull();
+        }
+        else if (integerType && value instanceof Number) {
+            addLong(((Number) value).longValue());
+        }
+        else if (floatType && value instanceof Number) {
+            addDouble(((Number) value).doubleValue());
+        }
+        else if (value instanceof String) {
+            addString((String) value);
         }
         else {
             // If the value implements the Comparable interface, use it to
             // update the minimum and maximum values.
-            if (SelectivityEstimator.typeSupportsCompareEstimates(sqlType) &&
-                value instanceof Comparable) {
-
+            if (computeMinMax && value instanceof Comparable) {
                 Comparable comp = (Comparable) value;
 
                 if (minValue == null || comp.compareTo(minValue) < 0)
@@ -100,8 +218,223 @@ public class ColumnStatsCollector {
                     maxValue = comp;
             }
 
-            // Update the set of unique values.
-            uniqueValues.add(value);
+            distinctValues.add(HyperLogLog.hash(value.hashCode()));
+            numValues++;
+        }
+    }
+
+
+    /** Records a <tt>NULL</tt> value of the column. */
+    public void addNull() {
+        numNullValues++;
+    }
+
+
+    /**
+     * Adds a value of an integer column, of any size.
+     *
+     * @param value the value from the column being analyzed
+     */
+    public void addLong(long value) {
+        if (computeMinMax) {
+            if (!hasMinMax || value < minLong)
+                minLong = value;
+
+            if (!hasMinMax || value > maxLong)
+                maxLong = value;
+
+            hasMinMax = true;
+        }
+
+        int slot = chooseSampleSlot();
+        if (slot != -1)
+            sample[slot] = toIntegerValue(value);
+
+        distinctValues.add(HyperLogLog.hash(value));
+        numValues++;
+    }
+
+
+    /**
+     * Adds a value of a floating-point column.
+     *
+     * @param value the value from the column being analyzed
+     */
+    public void addDouble(double value) {
+        // NaN isn't ordered with respect to the other values.
+        if (computeMinMax && !Double.isNaN(value)) {
+            if (!hasMinMax || value < minDouble)
+                minDouble = value;
+
+            if (!hasMinMax || value > maxDouble)
+                maxDouble = value;
+
+            hasMinMax = true;
+        }
+
+        int slot = chooseSampleSlot();
+        if (slot != -1)
+            sample[slot] = toFloatValue(value);
+
+        distinctValues.add(HyperLogLog.hash(value));
+        numValues++;
+    }
+
+
+    /**
+     * Adds a value of a string column.
+     *
+     * @param value the value from the column being analyzed
+     */
+    public void addString(String value) {
+        int slot = chooseSampleSlot();
+        if (slot != -1)
+            sample[slot] = value;
+
+        distinctValues.add(HyperLogLog.hash(value));
+        numValues++;
+    }
+
+
+    /**
+     * Adds a value of a string column that is stored as US-ASCII bytes,
+     * without decoding it.
+     *
+     * @param bytes the array holding the value's bytes
+     * @param offset the index of the value's first byte
+     * @param length the number of bytes in the value
+     */
+    public void addString(byte[] bytes, int offset, int length) {
+        int slot = chooseSampleSlot();
+        if (slot != -1)
+            sample[slot] =
+                new String(bytes, offset, length, StandardCharsets.US_ASCII);
+
+        distinctValues.add(HyperLogLog.hash(bytes, offset, length));
+        numValues++;
+    }
+
+
+    /**
+     * Adds the statistics of another collector for the same column to this
+     * collector, so that this collector holds the statistics of both
+     * collectors' values.
+     *
+     * @param other the collector to merge into this one
+     *
+     * @throws IllegalArgumentException if the collectors' column types differ
+     */
+    @SuppressWarnings("unchecked")
+    public void merge(ColumnStatsCollector other) {
+        if (other.sqlType != sqlType) {
+            throw new IllegalArgumentException("Can't merge the stats of a " +
+                other.sqlType + " column into those of a " + sqlType +
+                " column");
+        }
+
+        mergeSample(other);
+        distinctValues.merge(other.distinctValues);
+        numValues += other.numValues;
+        numNullValues += other.numNullValues;
+
+        if (other.hasMinMax) {
+            if (!hasMinMax) {
+                minLong = other.minLong;
+                maxLong = other.maxLong;
+                minDouble = other.minDouble;
+                maxDouble = other.maxDouble;
+                hasMinMax = true;
+            }
+            else {
+                minLong = Math.min(minLong, other.minLong);
+                maxLong = Math.max(maxLong, other.maxLong);
+                minDouble = Math.min(minDouble, other.minDouble);
+                maxDouble = Math.max(maxDouble, other.maxDouble);
+            }
+        }
+
+        if (other.minValue != null &&
+            (minValue == null || other.minValue.compareTo(minValue) < 0)) {
+            minValue = other.minValue;
+        }
+
+        if (other.maxValue != null &&
+            (maxValue == null || other.maxValue.compareTo(maxValue) > 0)) {
+            maxValue = other.maxValue;
+        }
+    }
+
+
+    /**
+     * Chooses where the next value of the column goes in the sample, using
+     * reservoir sampling:  the <em>n</em>th value replaces a random value of
+     * a full sample with probability {@link #SAMPLE_SIZE} / <em>n</em>.
+     * This must be called before {@link #numValues} is incremented.
+     *
+     * @return the index in the sample to store the value at, or -1 if the
+     *         value isn't sampled
+     */
+    private int chooseSampleSlot() {
+        if (!keepSample)
+            return -1;
+
+        if (numValues < SAMPLE_SIZE) {
+            sampleCount++;
+            return (int) numValues;
+        }
+
+        long i = (long) (random.nextDouble() * (numValues + 1));
+        return (i < SAMPLE_SIZE) ? (int) i : -1;
+    }
+
+
+    /**
+     * Merges the sample of another collector into this collector's sample,
+     * so that it is a sample of both collectors' values.  Each slot of a
+     * full merged sample is filled from one of the two samples, chosen in
+     * proportion to the number of values that each collector has seen.
+     */
+    private void mergeSample(ColumnStatsCollector other) {
+        if (!keepSample || other.sampleCount == 0)
+            return;
+
+        if (sampleCount + other.sampleCount <= SAMPLE_SIZE &&
+            numValues == sampleCount && other.numValues == other.sampleCount) {
+            // Both samples hold all of their collectors' values.
+            System.arraycopy(other.sample, 0, sample, sampleCount,
+                other.sampleCount);
+            sampleCount += other.sampleCount;
+            return;
+        }
+
+        Object[] mine = Arrays.copyOf(sample, sampleCount);
+        Object[] theirs = Arrays.copyOf(other.sample, other.sampleCount);
+        shuffle(mine);
+        shuffle(theirs);
+
+        int size = Math.min(SAMPLE_SIZE, mine.length + theirs.length);
+        double myShare = (double) numValues / (numValues + other.numValues);
+
+        int iMine = 0;
+        int iTheirs = 0;
+        for (int i = 0; i < size; i++) {
+            boolean takeMine = (iTheirs == theirs.length) ||
+                (iMine < mine.length && random.nextDouble() < myShare);
+
+            sample[i] = takeMine ? mine[iMine++] : theirs[iTheirs++];
+        }
+
+        sampleCount = size;
+    }
+
+
+    /** Randomly reorders the values in an array. */
+    private void shuffle(Object[] values) {
+        for (int i = values.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            Object tmp = values[i];
+            values[i] = values[j];
+            values[j] = tmp;
         }
     }
 
@@ -118,13 +451,16 @@ public class ColumnStatsCollector {
 
     /**
      * Returns the number of unique (and non-<tt>NULL</tt>) values seen for the
-     * column.
+     * column.  This is exact for columns with a few hundred distinct values,
+     * and an estimate otherwise.
      *
      * @return the number of unique (and non-<tt>NULL</tt>) values seen for the
      *         column
      */
     public int getNumUniqueValues() {
-        return uniqueValues.size();
+        // The estimate can't be more than the number of values.
+        long estimate = Math.min(distinctValues.estimate(), numValues);
+        return (int) Math.min(estimate, Integer.MAX_VALUE);
     }
 
 
@@ -136,6 +472,9 @@ public class ColumnStatsCollector {
      * @return the minimum value in the table for the column
      */
     public Object getMinValue() {
+        if (hasMinMax)
+            return integerType ? toIntegerValue(minLong) : toFloatValue(minDouble);
+
         return minValue;
     }
 
@@ -148,10 +487,40 @@ public class ColumnStatsCollector {
      * @return the maximum value in the table for the column
      */
     public Object getMaxValue() {
+        if (hasMinMax)
+            return integerType ? toIntegerValue(maxLong) : toFloatValue(maxDouble);
+
         return maxValue;
     }
 
 
+    /** Returns an integer value as an object of the column's type. */
+    private Object toIntegerValue(long value) {
+        switch (sqlType) {
+        case TINYINT:
+            return Byte.valueOf((byte) value);
+
+        case SMALLINT:
+            return Short.valueOf((short) value);
+
+        case INTEGER:
+            return Integer.valueOf((int) value);
+
+        default:
+            return Long.valueOf(value);
+        }
+    }
+
+
+    /** Returns a floating-point value as an object of the column's type. */
+    private Object toFloatValue(double value) {
+        if (sqlType == SQLDataType.FLOAT)
+            return Float.valueOf((float) value);
+
+        return Double.valueOf(value);
+    }
+
+
     /**
      * This helper method constructs and returns a new column-statistics object
      * containing the stats collected by this object.
@@ -160,7 +529,205 @@ public class ColumnStatsCollector {
      *         collected by this object
      */
     public ColumnStats getColumnStats() {
-        return new ColumnStats(getNumUniqueValues(), numNullValues,
-            minValue, maxValue);
+        ColumnStats stats = new ColumnStats(getNumUniqueValues(),
+            numNullValues, getMinValue(), getMaxValue());
+        addDistribution(stats);
+        return stats;
+    }
+
+
+    /**
+     * Constructs a new column-statistics object for the whole column, from
+     * the stats collected by this object for a random sample of the column's
+     * values.  The counts are scaled up to the whole column, and the minimum
+     * and maximum values are those of the sample.
+     *
+     * @param sampleFraction the fraction of the column's values that were
+     *        added to this collector, in the range (0, 1]
+     *
+     * @return a new column-stats object estimating the stats of the column
+     */
+    public ColumnStats getColumnStats(double sampleFraction) {
+        if (sampleFraction >= 1)
+            return getColumnStats();
+
+        long totalValues = Math.round(numValues / sampleFraction);
+        long numDistinct =
+            estimateDistinct(getNumUniqueValues(), numValues, totalValues);
+
+        ColumnStats stats = new ColumnStats(
+            (int) Math.min(numDistinct, Integer.MAX_VALUE),
+            (int) Math.min(Math.round(numNullValues / sampleFraction),
+                           Integer.MAX_VALUE),
+            getMinValue(), getMaxValue());
+        addDistribution(stats);
+        return stats;
+    }
+
+
+    /**
+     * Frees the sample of the column's values, after the column's stats have
+     * been constructed.  The collector still counts values and updates the
+     * distinct-value sketch and the minimum and maximum, so that it can keep
+     * the stats of a table current as tuples are added, without holding on
+     * to thousands of values for every column of every open table.
+     */
+    void discardSample() {
+        keepSample = false;
+        sample = null;
+        sampleCount = 0;
+    }
+
+
+    /**
+     * Computes the most common values and the histogram of the column from
+     * the sample of its values, and stores them in a column-stats object
+     * whose number of unique values has already been set.
+     * <p>
+     * If the column has no more distinct values than can be kept, all of
+     * them are most common values.  Otherwise, a value is one of the most
+     * common values if it appears in the sample more than once, and more
+     * often than the average value; the most frequent such values are kept.
+     * The histogram's bounds divide the sample's other values into
+     * {@link #NUM_HISTOGRAM_BUCKETS} groups of the same size.
+     *
+     * @param stats the column-stats object to store the distribution in
+     */
+    @SuppressWarnings("unchecked")
+    private void addDistribution(ColumnStats stats) {
+        if (sampleCount == 0)
+            return;
+
+        Object[] values = Arrays.copyOf(sample, sampleCount);
+        Arrays.sort(values);
+
+        // Find the runs of equal values in the sorted sample.
+        ArrayList<Integer> runStarts = new ArrayList<Integer>();
+        for (int i = 0; i < values.length; i++) {
+            if (i == 0 || ((Comparable) values[i]).compareTo(values[i - 1]) != 0)
+                runStarts.add(i);
+        }
+        runStarts.add(values.length);
+        int numRuns = runStarts.size() - 1;
+
+        int numUnique = Math.max(stats.getNumUniqueValues(), numRuns);
+        boolean keepAll = (numUnique <= MAX_MOST_COMMON_VALUES);
+        double avgCount = (double) values.length / numUnique;
+
+        // Choose the most common values, as the indexes of their runs.
+        Integer[] candidates = new Integer[numRuns];
+        int numCandidates = 0;
+        for (int r = 0; r < numRuns; r++) {
+            int count = runStarts.get(r + 1) - runStarts.get(r);
+            Object value = values[runStarts.get(r)];
+            if (value instanceof String &&
+                ((String) value).length() > MAX_STRING_LENGTH) {
+                continue;
+            }
+
+            if (keepAll || (count > 1 && count > 1.25 * avgCount))
+                candidates[numCandidates++] = r;
+        }
+
+        final ArrayList<Integer> starts = runStarts;
+        Arrays.sort(candidates, 0, numCandidates,
+            new Comparator<Integer>() {
+                @Override
+                public int compare(Integer r1, Integer r2) {
+                    int count1 = starts.get(r1 + 1) - starts.get(r1);
+                    int count2 = starts.get(r2 + 1) - starts.get(r2);
+                    return count2 - count1;
+                }
+            });
+
+        int numCommon = Math.min(numCandidates, MAX_MOST_COMMON_VALUES);
+        boolean[] isCommon = new boolean[numRuns];
+        if (numCommon > 0) {
+            Object[] common = new Object[numCommon];
+            float[] frequencies = new float[numCommon];
+            for (int i = 0; i < numCommon; i++) {
+                int r = candidates[i];
+                isCommon[r] = true;
+                common[i] = values[runStarts.get(r)];
+                frequencies[i] = (float) (runStarts.get(r + 1) -
+                    runStarts.get(r)) / values.length;
+            }
+            stats.setMostCommonValues(common, frequencies);
+        }
+
+        // Build the histogram from the rest of the sample, which is still in
+        // sorted order.
+        ArrayList<Object> rest = new ArrayList<Object>();
+        int numRestRuns = 0;
+        for (int r = 0; r < numRuns; r++) {
+            if (isCommon[r])
+                continue;
+
+            numRestRuns++;
+            for (int i = runStarts.get(r); i < runStarts.get(r + 1); i++)
+                rest.add(values[i]);
+        }
+
+        if (numRestRuns < 2)
+            return;
+
+        int numBounds = Math.min(NUM_HISTOGRAM_BUCKETS, rest.size() - 1) + 1;
+        Object[] bounds = new Object[numBounds];
+        for (int i = 0; i < numBounds; i++) {
+            Object bound =
+                rest.get((int) ((long) i * (rest.size() - 1) / (numBounds - 1)));
+
+            // A prefix of a string sorts no later than the string itself.
+            if (bound instanceof String &&
+                ((String) bound).length() > MAX_STRING_LENGTH) {
+                bound = ((String) bound).substring(0, MAX_STRING_LENGTH);
+            }
+
+            bounds[i] = bound;
+        }
+        stats.setHistogramBounds(bounds);
+    }
+
+
+    /**
+     * Estimates the number of distinct values in a column, from the number
+     * of distinct values in a random sample of the column's values.  The
+     * estimate assumes that each distinct value appears equally often, so
+     * that a column of <em>D</em> distinct values is expected to have
+     * <em>D</em> (1 - (1 - <em>q</em>)<sup><em>N</em>/<em>D</em></sup>)
+     * distinct values in a sample of a fraction <em>q</em> of its <em>N</em>
+     * values, and solves for <em>D</em>.  A sample whose values are all
+     * different gives <em>N</em>, and a sample that repeats a few values
+     * many times gives about as many values as the sample has.
+     *
+     * @param sampleDistinct the number of distinct values in the sample
+     * @param sampleSize the number of values in the sample
+     * @param totalSize the number of values in the column
+     *
+     * @return the estimated number of distinct values in the column
+     */
+    public static long estimateDistinct(long sampleDistinct, long sampleSize,
+                                        long totalSize) {
+        if (sampleDistinct == 0 || sampleSize >= totalSize)
+            return sampleDistinct;
+
+        double q = (double) sampleSize / totalSize;
+
+        // The expected number of distinct values in the sample grows with
+        // the number of distinct values in the column, from at most
+        // sampleDistinct to sampleSize, so the solution can be found by
+        // bisection.
+        double low = sampleDistinct;
+        double high = totalSize;
+        for (int i = 0; i < 64 && high - low > 0.5; i++) {
+            double mid = (low + high) / 2;
+            double expected = mid * (1 - Math.pow(1 - q, totalSize / mid));
+            if (expected < sampleDistinct)
+                low = mid;
+            else
+                high = mid;
+        }
+
+        return Math.round((low + high) / 2);
     }
 }
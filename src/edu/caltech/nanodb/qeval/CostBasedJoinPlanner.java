@@ -7,6 +7,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -17,22 +18,42 @@ import edu.caltech.nanodb.commands.FromClause;
 import edu.caltech.nanodb.commands.SelectClause;
 import edu.caltech.nanodb.commands.SelectValue;
 import edu.caltech.nanodb.expressions.BooleanOperator;
+import edu.caltech.nanodb.expressions.ColumnName;
+import edu.caltech.nanodb.expressions.ColumnValue;
+import edu.caltech.nanodb.expressions.CompareOperator;
+import edu.caltech.nanodb.expressions.ExistsOperator;
 import edu.caltech.nanodb.expressions.Expression;
+import edu.caltech.nanodb.expressions.ExpressionProcessor;
 import edu.caltech.nanodb.expressions.FunctionCall;
+import edu.caltech.nanodb.expressions.InOperator;
 import edu.caltech.nanodb.expressions.OrderByExpression;
 import edu.caltech.nanodb.expressions.PredicateUtils;
+import edu.caltech.nanodb.expressions.SubqueryOperator;
+import edu.caltech.nanodb.functions.AggregateFunction;
+import edu.caltech.nanodb.functions.TableFunction;
 import edu.caltech.nanodb.plans.FileScanNode;
+import edu.caltech.nanodb.plans.GatherNode;
+import edu.caltech.nanodb.plans.HashJoinNode;
 import edu.caltech.nanodb.plans.HashedGroupAggregateNode;
+import edu.caltech.nanodb.plans.IndexNestedLoopJoinNode;
+import edu.caltech.nanodb.plans.IndexScanNode;
 import edu.caltech.nanodb.plans.NestedLoopsJoinNode;
 import edu.caltech.nanodb.plans.PlanNode;
+import edu.caltech.nanodb.plans.PlanUtils;
 import edu.caltech.nanodb.plans.ProjectNode;
 import edu.caltech.nanodb.plans.RenameNode;
 import edu.caltech.nanodb.plans.SelectNode;
+import edu.caltech.nanodb.plans.SimpleFilterNode;
+import edu.caltech.nanodb.plans.SortMergeJoinNode;
 import edu.caltech.nanodb.plans.SortNode;
+import edu.caltech.nanodb.plans.SortedGroupAggregateNode;
+import edu.caltech.nanodb.plans.TableFunctionScanNode;
+import edu.caltech.nanodb.relations.ColumnInfo;
 import edu.caltech.nanodb.relations.JoinType;
 import edu.caltech.nanodb.relations.Schema;
 import edu.caltech.nanodb.relations.TableInfo;
 import edu.caltech.nanodb.storage.StorageManager;
+import edu.caltech.nanodb.transactions.TransactionManager;
 
 
 /**
@@ -40,6 +61,21 @@ import edu.caltech.nanodb.storage.StorageManager;
  * join strategy for the query.  As always, queries are optimized in units of
  * <tt>SELECT</tt>-<tt>FROM</tt>-<tt>WHERE</tt> subqueries; optimizations
  * don't currently span multiple subqueries.
+ * <p>
+ * The planner tracks one <em>interesting order</em> for each query:  the
+ * grouping of the <tt>GROUP BY</tt> expressions if there are any, or else
+ * the <tt>ORDER BY</tt> ordering.  Besides the cheapest plan for each set of
+ * leaves, the cheapest plan whose results are in the interesting order is
+ * kept, since it may avoid a sort or a hash table later on.  Orderings come
+ * from scans of B<sup>+</sup> tree files and ordered indexes, from sorts in
+ * subqueries, and from sort-merge joins, as reported by
+ * {@link PlanNode#resultsOrderedBy}.
+ * <p>
+ * <tt>IN</tt> and <tt>EXISTS</tt> subqueries that are conjuncts of the
+ * <tt>WHERE</tt> clause are turned into semijoins, and <tt>NOT EXISTS</tt>
+ * subqueries into antijoins, when the subquery and the enclosing query can
+ * be joined on an equality.  Other subqueries are planned separately, and
+ * evaluated by their operators; see {@link SubqueryOperator}.
  */
 public class CostBasedJoinPlanner extends AbstractPlannerImpl {
 
@@ -47,6 +83,26 @@ public class CostBasedJoinPlanner extends AbstractPlannerImpl {
     private static Logger logger = Logger.getLogger(CostBasedJoinPlanner.class);
 
 
+    /**
+     * This property can be set to <tt>true</tt> to make the planner consider
+     * bushy join plans, in which both children of a join may be joins.  By
+     * default only left-deep plans are considered.
+     */
+    public static final String PROP_BUSHY_PLANS = "nanodb.planner.bushy";
+
+
+    /**
+     * This property can be used to specify the most leaves that a query may
+     * have for its joins to be planned with dynamic programming.  Queries
+     * with more leaves are planned greedily.
+     */
+    public static final String PROP_MAX_DP_LEAVES = "nanodb.planner.dp.maxleaves";
+
+
+    /** The default is to plan joins of up to 12 leaves exhaustively. */
+    public static final int DEFAULT_MAX_DP_LEAVES = 12;
+
+
     private StorageManager storageManager;
 
 
@@ -55,6 +111,37 @@ public class CostBasedJoinPlanner extends AbstractPlannerImpl {
     }
 
 
+    /**
+     * The number of uncorrelated subqueries that have been turned into
+     * semijoins, used to give each subquery's results a unique table name.
+     */
+    private int numSemiJoinSubqueries = 0;
+
+
+    /**
+     * This helper class describes a semijoin or antijoin that replaces an
+     * <tt>IN</tt> or <tt>EXISTS</tt> subquery in a query's <tt>WHERE</tt>
+     * clause.  The join is applied to the plan of the query's <tt>FROM</tt>
+     * clause.
+     */
+    private static class SemiJoin {
+        /** The plan that produces the subquery's rows. */
+        public PlanNode plan;
+
+        /** {@link JoinType#SEMIJOIN} or {@link JoinType#ANTIJOIN}. */
+        public JoinType joinType;
+
+        /** The predicate joining the query's rows to the subquery's rows. */
+        public Expression predicate;
+
+        public SemiJoin(PlanNode plan, JoinType joinType, Expression predicate) {
+            this.plan = plan;
+            this.joinType = joinType;
+            this.predicate = predicate;
+        }
+    }
+
+
     /**
      * This helper class is used to keep track of one "join component" in the
      * dynamic programming algorithm.  A join component is simply a query plan
@@ -131,6 +218,72 @@ public class CostBasedJoinPlanner extends AbstractPlannerImpl {
     }
 
 
+    /**
+     * This helper class describes the interesting order of a query:  the
+     * order that join plans' results should be in if that is cheap, because
+     * it avoids work later on.  If the query has grouping expressions, the
+     * results only need to be grouped by them, so they may be sorted on the
+     * expressions in any order and direction.  Otherwise, the results should
+     * be in the order that the <tt>ORDER BY</tt> clause specifies.
+     */
+    private static class InterestingOrder {
+        /** The grouping expressions of the query, which may be empty. */
+        public List<Expression> groupByExprs;
+
+        /** An ordering that puts results in the interesting order. */
+        public List<OrderByExpression> orderSpec;
+
+        /**
+         * Returns the interesting order of a query, if it has one.  Queries
+         * with aggregates but no grouping don't have one, and neither do
+         * queries whose results must only be in the <tt>ORDER BY</tt> order
+         * after grouping.
+         *
+         * @param selClause the query
+         *
+         * @param hasAggregates true if the query computes aggregates
+         *
+         * @return the interesting order, or {@code null} if there is none
+         */
+        public static InterestingOrder forQuery(SelectClause selClause,
+                                                boolean hasAggregates) {
+            InterestingOrder order = new InterestingOrder();
+            order.groupByExprs = selClause.getGroupByExprs();
+
+            if (!order.groupByExprs.isEmpty()) {
+                order.orderSpec = new ArrayList<OrderByExpression>();
+                for (Expression expr : order.groupByExprs)
+                    order.orderSpec.add(new OrderByExpression(expr));
+            }
+            else if (!hasAggregates && !selClause.getOrderByExprs().isEmpty()) {
+                order.orderSpec = selClause.getOrderByExprs();
+            }
+            else {
+                return null;
+            }
+
+            return order;
+        }
+
+        /**
+         * Reports whether a plan's results are in this order.
+         *
+         * @param plan the plan, which must already be prepared
+         *
+         * @return true if the plan's results are in this order
+         */
+        public boolean isSatisfiedBy(PlanNode plan) {
+            if (!groupByExprs.isEmpty()) {
+                return PlanUtils.isGroupedBy(plan.resultsOrderedBy(),
+                    groupByExprs, plan.getSchema());
+            }
+
+            return PlanUtils.isOrderedBy(plan.resultsOrderedBy(), orderSpec,
+                plan.getSchema());
+        }
+    }
+
+
     /**
      * Returns the root of a plan tree suitable for executing the specified
      * query.
@@ -145,6 +298,33 @@ public class CostBasedJoinPlanner extends AbstractPlannerImpl {
     public PlanNode makePlan(SelectClause selClause,
         List<SelectClause> enclosingSelects) throws IOException {
 
+        // Only the outermost query block is evaluated in parallel, since
+        // nested queries may be evaluated many times.
+        boolean parallel = parallelExecution &&
+            (enclosingSelects == null || enclosingSelects.isEmpty());
+
+        return makePlan(selClause, enclosingSelects, parallel);
+    }
+
+
+    /**
+     * Returns the root of a plan tree suitable for executing the specified
+     * query, which may evaluate the query's scan, filters, joins and
+     * aggregates in parallel if {@code parallel} is true.
+     *
+     * @param selClause an object describing the query to be performed
+     * @param enclosingSelects the enclosing queries, if any
+     * @param parallel true if parts of the plan may be evaluated in parallel
+     *
+     * @return a plan tree for executing the specified query
+     *
+     * @throws IOException if an IO error occurs when the planner attempts to
+     *         load schema and indexing information.
+     */
+    private PlanNode makePlan(SelectClause selClause,
+        List<SelectClause> enclosingSelects, boolean parallel)
+        throws IOException {
+
         PlanNode plan = null;
         boolean handledProjectEarly = false;
 
@@ -182,6 +362,17 @@ public class CostBasedJoinPlanner extends AbstractPlannerImpl {
         // aggregate plan node.
         AggregateFunctionExtractor extractor = prepareAggregates(selClause);
 
+        // Subqueries are planned with this query as their innermost
+        // enclosing query.  The ones that are turned into semijoins are
+        // recorded, so that they aren't also planned on their own.
+        ArrayList<SelectClause> subqueryEnclosing = new ArrayList<SelectClause>();
+        subqueryEnclosing.add(selClause);
+        if (enclosingSelects != null)
+            subqueryEnclosing.addAll(enclosingSelects);
+
+        Set<SubqueryOperator> planned = Collections.newSetFromMap(
+            new IdentityHashMap<SubqueryOperator, Boolean>());
+
         if (fromClause != null) {
             // Pull out the top-level conjuncts from the WHERE clause on the
             // query, since we will handle them in special ways if we have
@@ -190,11 +381,30 @@ public class CostBasedJoinPlanner extends AbstractPlannerImpl {
             HashSet<Expression> whereConjuncts = new HashSet<Expression>();
             PredicateUtils.collectConjuncts(selClause.getWhereExpr(), whereConjuncts);
 
+            // Replace the IN and EXISTS subqueries that can be joined with
+            // the FROM clause by semijoins and antijoins.
+            ArrayList<SemiJoin> semiJoins = new ArrayList<SemiJoin>();
+            for (Expression conjunct : new ArrayList<Expression>(whereConjuncts)) {
+                SemiJoin semiJoin = makeSemiJoin(conjunct,
+                    fromClause.getPreparedSchema(), subqueryEnclosing, planned);
+                if (semiJoin != null) {
+                    semiJoins.add(semiJoin);
+                    whereConjuncts.remove(conjunct);
+                }
+            }
+
             // Create an optimal join plan from the top-level from-clause and the
             // top-level conjuncts.
-            JoinComponent joinComp = makeJoinPlan(fromClause, whereConjuncts);
+            JoinComponent joinComp = makeJoinPlan(fromClause, whereConjuncts,
+                InterestingOrder.forQuery(selClause, extractor.foundAggregates()));
             plan = joinComp.joinPlan;
 
+            for (SemiJoin semiJoin : semiJoins) {
+                plan.prepare();
+                plan = makeJoinNode(plan, semiJoin.plan, semiJoin.joinType,
+                    semiJoin.predicate);
+            }
+
             HashSet<Expression> unusedConjuncts =
                 new HashSet<Expression>(whereConjuncts);
             unusedConjuncts.removeAll(joinComp.conjunctsUsed);
@@ -202,8 +412,15 @@ public class CostBasedJoinPlanner extends AbstractPlannerImpl {
             Expression finalPredicate = PredicateUtils.makePredicate(unusedConjuncts);
             if (finalPredicate != null)
                 plan = addPredicateToPlan(plan, finalPredicate);
+
+            // The join plan may join the tables in any order, but SELECT *
+            // must produce the columns in the order of the FROM clause.
+            if (selClause.isTrivialProject())
+                plan = restoreColumnOrder(plan, fromClause.getPreparedSchema());
         }
 
+        planSubqueries(selClause, subqueryEnclosing, planned);
+
         // Handle grouping and aggregation next, if there are any grouping
         // specifications or aggregate operations.
         List<Expression> groupByExprs = selClause.getGroupByExprs();
@@ -211,10 +428,21 @@ public class CostBasedJoinPlanner extends AbstractPlannerImpl {
             // Get the aggregates, if present.
             Map<String, FunctionCall> aggregates = extractor.getAggregateCalls();
 
-            // By default, use a hash-based grouping/aggregate node.  Later
-            // we can replace with a sort-based grouping/aggregate node if
-            // it would be more efficient.
-            plan = new HashedGroupAggregateNode(plan, groupByExprs, aggregates);
+            // If the input already arrives grouped, e.g. from a scan of a
+            // B+ tree file or a sort-merge join, the groups can be computed
+            // one after another without a hash table.  Otherwise, use a
+            // hash-based grouping/aggregate node.
+            plan.prepare();
+            if (!groupByExprs.isEmpty() && PlanUtils.isGroupedBy(
+                plan.resultsOrderedBy(), groupByExprs, plan.getSchema())) {
+                plan = new SortedGroupAggregateNode(plan, groupByExprs,
+                    aggregates);
+            }
+            else {
+                int degree = parallel ? chooseParallelism(plan) : 1;
+                plan = makeHashedAggregate(plan, groupByExprs, aggregates,
+                    degree);
+            }
 
             // Apply the HAVING predicate, if one is present.
             Expression havingExpr = selClause.getHavingExpr();
@@ -222,16 +450,20 @@ public class CostBasedJoinPlanner extends AbstractPlannerImpl {
                 plan = addPredicateToPlan(plan, havingExpr);
             }
         }
+        else if (parallel && fromClause != null) {
+            plan.prepare();
+            int degree = chooseParallelism(plan);
+            if (degree > 1)
+                plan = new GatherNode(plan, degree);
+        }
 
         // Depending on the SELECT clause, create a project node at the top of
         // the tree.
         if (!selClause.isTrivialProject())
             plan = new ProjectNode(plan, selClause.getSelectValues());
 
-        // Finally, apply any sorting at the end.
-        List<OrderByExpression> orderByExprs = selClause.getOrderByExprs();
-        if (!orderByExprs.isEmpty())
-            plan = new SortNode(plan, orderByExprs);
+        // Finally, apply any sorting and limits at the end.
+        plan = addOrderingAndLimitToPlan(plan, selClause);
 
         plan.prepare();
 
@@ -239,6 +471,294 @@ public class CostBasedJoinPlanner extends AbstractPlannerImpl {
     }
 
 
+    /**
+     * Plans the subqueries in a query's expressions that haven't been
+     * planned yet, so that their operators can evaluate them.
+     *
+     * @param selClause the query whose subqueries are planned
+     * @param enclosingSelects the query and the queries enclosing it
+     * @param planned the subquery operators that have already been planned
+     *        or replaced by joins; the newly planned operators are added
+     *
+     * @throws IOException if an IO error occurs when the planner attempts to
+     *         load schema and indexing information.
+     */
+    private void planSubqueries(SelectClause selClause,
+        List<SelectClause> enclosingSelects, Set<SubqueryOperator> planned)
+        throws IOException {
+
+        for (SubqueryOperator op : selClause.findSubqueries()) {
+            if (planned.add(op))
+                op.setSubqueryPlan(makePlan(op.getSubquery(), enclosingSelects));
+        }
+    }
+
+
+    /**
+     * Tries to replace a conjunct of a query's <tt>WHERE</tt> clause by a
+     * semijoin or antijoin with the query's <tt>FROM</tt> clause.  This is
+     * done for these kinds of conjuncts:
+     * <ul>
+     *   <li><tt>expr IN (subquery)</tt> where the subquery doesn't refer to
+     *     the enclosing query; the subquery's results are planned as a whole
+     *     and joined on <tt>expr</tt>.</li>
+     *   <li><tt>expr IN (subquery)</tt>, <tt>EXISTS (subquery)</tt> and
+     *     <tt>NOT EXISTS (subquery)</tt> where the subquery is a simple
+     *     select-from-where query that refers to the enclosing query.  The
+     *     subquery's <tt>FROM</tt> clause is joined using the conjuncts of
+     *     its <tt>WHERE</tt> clause that refer to the enclosing query.</li>
+     * </ul>
+     * The join predicate must have an equality that the join can hash on;
+     * otherwise the subquery is left to its operator to evaluate.
+     * <tt>NOT IN</tt> isn't turned into an antijoin, because it isn't true
+     * when the subquery's results include <tt>NULL</tt>.
+     *
+     * @param conjunct the conjunct of the <tt>WHERE</tt> clause
+     * @param fromSchema the schema of the query's <tt>FROM</tt> clause
+     * @param enclosingSelects the query and the queries enclosing it
+     * @param planned the subquery operators that have already been planned
+     *        or replaced by joins; the replaced operator is added
+     *
+     * @return the semijoin or antijoin to apply to the <tt>FROM</tt>
+     *         clause's plan, or {@code null} if the conjunct can't be
+     *         replaced
+     *
+     * @throws IOException if an IO error occurs when the planner attempts to
+     *         load schema and indexing information.
+     */
+    private SemiJoin makeSemiJoin(Expression conjunct, Schema fromSchema,
+        List<SelectClause> enclosingSelects, Set<SubqueryOperator> planned)
+        throws IOException {
+
+        JoinType joinType = JoinType.SEMIJOIN;
+        if (conjunct instanceof BooleanOperator) {
+            BooleanOperator bool = (BooleanOperator) conjunct;
+            if (bool.getType() == BooleanOperator.Type.NOT_EXPR &&
+                bool.getTerm(0) instanceof ExistsOperator) {
+                conjunct = bool.getTerm(0);
+                joinType = JoinType.ANTIJOIN;
+            }
+        }
+
+        if (!(conjunct instanceof SubqueryOperator))
+            return null;
+
+        SubqueryOperator op = (SubqueryOperator) conjunct;
+        SelectClause subquery = op.getSubquery();
+        if (subquery == null || fromSchema == null)
+            return null;
+
+        if (op instanceof InOperator && !op.isCorrelated()) {
+            // Plan the subquery as a whole, and give its results a table
+            // name of their own so that they can't clash with the query's.
+            PlanNode subPlan = makePlan(subquery, enclosingSelects);
+            planned.add(op);
+
+            numSemiJoinSubqueries++;
+            PlanNode renamed =
+                new RenameNode(subPlan, "#subquery" + numSemiJoinSubqueries);
+            renamed.prepare();
+
+            Expression predicate = new CompareOperator(
+                CompareOperator.Type.EQUALS, ((InOperator) op).getExpression(),
+                new ColumnValue(renamed.getSchema().getColumnInfo(0).getColumnName()));
+
+            if (!HashJoinNode.canHashJoin(predicate, fromSchema,
+                                          renamed.getSchema())) {
+                // Leave the subquery to the IN operator.
+                op.setSubqueryPlan(subPlan);
+                return null;
+            }
+
+            logger.debug("Planning " + op + " as a semijoin");
+            return new SemiJoin(renamed, joinType, predicate);
+        }
+
+        if (!(op instanceof InOperator || op instanceof ExistsOperator) ||
+            !isSimpleSubquery(subquery))
+            return null;
+
+        // The subquery's tables are joined with the query's tables, so their
+        // names must be different.
+        FromClause subFrom = subquery.getFromClause();
+        Schema subSchema = subFrom.getPreparedSchema();
+        for (String tableName : subSchema.getTableNames()) {
+            if (fromSchema.getTableNames().contains(tableName))
+                return null;
+        }
+
+        // Split the subquery's conjuncts into the ones that only refer to
+        // the subquery's tables, and the ones that join the subquery with
+        // the enclosing query.
+        ArrayList<Expression> joinConjuncts = new ArrayList<Expression>();
+        PredicateUtils.collectConjuncts(subquery.getWhereExpr(), joinConjuncts);
+
+        ArrayList<Expression> subConjuncts = new ArrayList<Expression>();
+        PredicateUtils.findExprsUsingSchemas(joinConjuncts, true, subConjuncts,
+            subSchema);
+
+        if (op instanceof InOperator) {
+            SelectValue selVal = subquery.getSelectValues().get(0);
+            if (!selVal.isExpression())
+                return null;
+
+            Expression selectExpr = selVal.getExpression();
+            ArrayList<Expression> found = new ArrayList<Expression>();
+            PredicateUtils.findExprsUsingSchemas(
+                Collections.singletonList(selectExpr), false, found, subSchema);
+            if (found.isEmpty())
+                return null;
+
+            joinConjuncts.add(new CompareOperator(CompareOperator.Type.EQUALS,
+                ((InOperator) op).getExpression(), selectExpr));
+        }
+
+        Expression predicate = PredicateUtils.makePredicate(joinConjuncts);
+        if (predicate == null ||
+            !HashJoinNode.canHashJoin(predicate, fromSchema, subSchema)) {
+            return null;
+        }
+
+        planned.add(op);
+        ArrayList<SelectClause> subEnclosing = new ArrayList<SelectClause>();
+        subEnclosing.add(subquery);
+        subEnclosing.addAll(enclosingSelects);
+        planSubqueries(subquery, subEnclosing,
+            Collections.newSetFromMap(new IdentityHashMap<SubqueryOperator, Boolean>()));
+
+        JoinComponent joinComp = makeJoinPlan(subFrom, subConjuncts, null);
+        PlanNode subPlan = joinComp.joinPlan;
+
+        HashSet<Expression> unusedConjuncts = new HashSet<Expression>(subConjuncts);
+        unusedConjuncts.removeAll(joinComp.conjunctsUsed);
+        Expression subPredicate = PredicateUtils.makePredicate(unusedConjuncts);
+        if (subPredicate != null)
+            subPlan = addPredicateToPlan(subPlan, subPredicate);
+
+        subPlan.prepare();
+
+        logger.debug("Planning " + op + " as a " + joinType);
+        return new SemiJoin(subPlan, joinType, predicate);
+    }
+
+
+    /**
+     * Returns true if a subquery is a simple select-from-where query, whose
+     * <tt>FROM</tt> clause can be joined directly with the enclosing query:
+     * it has no grouping, aggregates or limits.
+     */
+    private static boolean isSimpleSubquery(SelectClause subquery) {
+        if (subquery.getFromClause() == null ||
+            !subquery.getGroupByExprs().isEmpty() ||
+            subquery.getHavingExpr() != null ||
+            subquery.getLimit() != 0 || subquery.getOffset() != 0) {
+            return false;
+        }
+
+        final boolean[] hasAggregates = { false };
+        ExpressionProcessor finder = new ExpressionProcessor() {
+            public void enter(Expression e) {
+                if (e instanceof FunctionCall &&
+                    ((FunctionCall) e).getFunction() instanceof AggregateFunction) {
+                    hasAggregates[0] = true;
+                }
+            }
+
+            public Expression leave(Expression e) {
+                return e;
+            }
+        };
+
+        for (SelectValue selVal : subquery.getSelectValues()) {
+            if (selVal.isExpression())
+                selVal.getExpression().traverse(finder);
+        }
+
+        return !hasAggregates[0];
+    }
+
+
+    /**
+     * Puts the columns of a join plan back into the order of the FROM
+     * clause's schema, if the planner joined the tables in a different
+     * order.  The plan is returned unchanged if its columns are already in
+     * order, or if they can't be matched up with the schema's columns.
+     *
+     * @param plan the join plan
+     * @param schema the schema of the FROM clause
+     *
+     * @return a plan that produces the columns in the schema's order
+     */
+    private PlanNode restoreColumnOrder(PlanNode plan, Schema schema) {
+        plan.prepare();
+        Schema planSchema = plan.getSchema();
+        if (schema == null || schema.numColumns() != planSchema.numColumns())
+            return plan;
+
+        boolean reordered = false;
+        ArrayList<SelectValue> values = new ArrayList<SelectValue>();
+        for (int i = 0; i < schema.numColumns(); i++) {
+            ColumnInfo colInfo = schema.getColumnInfo(i);
+
+            // Only columns that can be found unambiguously can be projected.
+            if (colInfo.getTableName() == null ||
+                planSchema.getColumnIndex(colInfo) < 0) {
+                return plan;
+            }
+
+            if (planSchema.getColumnIndex(colInfo) != i)
+                reordered = true;
+
+            values.add(new SelectValue(
+                new ColumnValue(colInfo.getColumnName()), null));
+        }
+
+        if (!reordered)
+            return plan;
+
+        return new ProjectNode(plan, values);
+    }
+
+
+    /**
+     * Returns a hashed grouping/aggregate node over the specified subplan.
+     * If the subplan is to be evaluated in parallel, the groups are computed
+     * by each copy of the subplan and then merged, as long as the aggregates
+     * can be combined and the groups are expected to fit in memory.
+     * Otherwise the copies' results are gathered and grouped by one node.
+     *
+     * @param plan the subplan producing the tuples to group, which must have
+     *        been prepared
+     * @param groupByExprs the expressions to group the tuples by
+     * @param aggregates the aggregates to compute for each group
+     * @param degree the number of copies of the subplan to evaluate in
+     *        parallel, or 1 if it should not be evaluated in parallel
+     *
+     * @return the plan that computes the groups
+     */
+    private PlanNode makeHashedAggregate(PlanNode plan,
+        List<Expression> groupByExprs, Map<String, FunctionCall> aggregates,
+        int degree) {
+
+        HashedGroupAggregateNode aggNode =
+            new HashedGroupAggregateNode(plan, groupByExprs, aggregates);
+
+        if (degree < 2)
+            return aggNode;
+
+        aggNode.prepare();
+        PlanCost cost = aggNode.getCost();
+        if (GatherNode.findPartitionedScan(aggNode) != null &&
+            cost.numTuples * cost.tupleSize <=
+            HashedGroupAggregateNode.getMemoryBudget()) {
+            return new GatherNode(aggNode, degree);
+        }
+
+        return new HashedGroupAggregateNode(new GatherNode(plan, degree),
+            groupByExprs, aggregates);
+    }
+
+
     /**
      * Given the top-level {@code FromClause} for a SELECT-FROM-WHERE block,
      * this helper generates an optimal join plan for the {@code FromClause}.
@@ -247,12 +767,16 @@ public class CostBasedJoinPlanner extends AbstractPlannerImpl {
      *        SELECT-FROM-WHERE block.
      * @param extraConjuncts any extra conjuncts (e.g. from the WHERE clause,
      *        or HAVING clause)
+     * @param order the order that the join plan's results should be in if
+     *        that is cheaper overall, or {@code null} if the order of the
+     *        results doesn't matter
      * @return a {@code JoinComponent} object that represents the optimal plan
      *         corresponding to the FROM-clause
      * @throws IOException if an IO error occurs during planning.
      */
     private JoinComponent makeJoinPlan(FromClause fromClause,
-        Collection<Expression> extraConjuncts) throws IOException {
+        Collection<Expression> extraConjuncts, InterestingOrder order)
+        throws IOException {
 
         // These variables receive the leaf-clauses and join conjuncts found
         // from scanning the sub-clauses.  Initially, we put the extra conjuncts
@@ -292,7 +816,7 @@ public class CostBasedJoinPlanner extends AbstractPlannerImpl {
         // Build up the full query-plan using a dynamic programming approach.
 
         JoinComponent optimalJoin =
-            generateOptimalJoin(leafComponents, roConjuncts);
+            generateOptimalJoin(leafComponents, roConjuncts, order);
 
         PlanNode plan = optimalJoin.joinPlan;
         logger.info("Optimal join plan generated:\n" +
@@ -391,8 +915,9 @@ public class CostBasedJoinPlanner extends AbstractPlannerImpl {
      * <ul>
      *   <li>
      *     {@link edu.caltech.nanodb.commands.FromClause.ClauseType#BASE_TABLE} -
-     *     the clause is a simple table reference, so a simple select operation
-     *     is constructed via {@link #makeSimpleSelect}.
+     *     the clause is a simple table reference, so the table is read with
+     *     the access path that {@link AccessPathSelector} chooses for the
+     *     conjuncts that apply to it.
      *   </li>
      *   <li>
      *     {@link edu.caltech.nanodb.commands.FromClause.ClauseType#SELECT_SUBQUERY} -
@@ -400,6 +925,11 @@ public class CostBasedJoinPlanner extends AbstractPlannerImpl {
      *     constructed by a recursive call to {@link #makePlan}.
      *   </li>
      *   <li>
+     *     {@link edu.caltech.nanodb.commands.FromClause.ClauseType#TABLE_FUNCTION} -
+     *     the clause calls a table-returning function, so the function's
+     *     rows are produced by a {@link TableFunctionScanNode}.
+     *   </li>
+     *   <li>
      *     {@link edu.caltech.nanodb.commands.FromClause.ClauseType#JOIN_EXPR}
      *     <b>(outer joins only!)</b> - the clause is an outer join of two
      *     relations.  Because outer joins are so constrained in what conjuncts
@@ -438,11 +968,20 @@ public class CostBasedJoinPlanner extends AbstractPlannerImpl {
         switch (clauseType) {
         case BASE_TABLE:
         case SELECT_SUBQUERY:
+        case TABLE_FUNCTION:
 
             if (clauseType == FromClause.ClauseType.SELECT_SUBQUERY) {
                 // This clause is a SQL subquery, so generate a plan from the
                 // subquery and return it.
-                plan = makePlan(fromClause.getSelectClause(), null);
+                plan = makePlan(fromClause.getSelectClause(), null, false);
+            }
+            else if (clauseType == FromClause.ClauseType.TABLE_FUNCTION) {
+                // This clause is a table-returning function, which was
+                // looked up when the clause was prepared.
+                TableFunction function = fromClause.getPreparedFunction();
+                function.setStorageManager(storageManager);
+                plan = new TableFunctionScanNode(fromClause.getFunctionName(),
+                    function);
             }
             else {
                 // This clause is a base-table, so we just generate a file-scan
@@ -465,6 +1004,21 @@ public class CostBasedJoinPlanner extends AbstractPlannerImpl {
             PredicateUtils.findExprsUsingSchemas(conjuncts, false,
                 leafConjuncts, schema);
 
+            // The conjuncts may allow a base table to be read with an index
+            // lookup or a hash-key probe, instead of a scan of the whole
+            // table.
+            if (clauseType == FromClause.ClauseType.BASE_TABLE &&
+                !leafConjuncts.isEmpty()) {
+                TableInfo tableInfo = storageManager.getTableManager().openTable(
+                    fromClause.getTableName());
+
+                plan = AccessPathSelector.makeAccessPath(storageManager,
+                    tableInfo, schema, leafConjuncts);
+
+                if (fromClause.isRenamed())
+                    plan = new RenameNode(plan, fromClause.getResultName());
+            }
+
             Expression leafPredicate = PredicateUtils.makePredicate(leafConjuncts);
             if (leafPredicate != null) {
                 plan = addPredicateToPlan(plan, leafPredicate);
@@ -485,15 +1039,15 @@ public class CostBasedJoinPlanner extends AbstractPlannerImpl {
             if (fromClause.hasOuterJoinOnRight())
                 childConjuncts = null;
             JoinComponent leftComp =
-                makeJoinPlan(fromClause.getLeftChild(), childConjuncts);
+                makeJoinPlan(fromClause.getLeftChild(), childConjuncts, null);
 
             childConjuncts = conjuncts;
             if (fromClause.hasOuterJoinOnLeft())
                 childConjuncts = null;
             JoinComponent rightComp =
-                makeJoinPlan(fromClause.getRightChild(), childConjuncts);
+                makeJoinPlan(fromClause.getRightChild(), childConjuncts, null);
 
-            plan = new NestedLoopsJoinNode(leftComp.joinPlan, rightComp.joinPlan,
+            plan = makeJoinNode(leftComp.joinPlan, rightComp.joinPlan,
                 fromClause.getJoinType(), fromClause.getPreparedJoinExpr());
 
             leafConjuncts.addAll(leftComp.conjunctsUsed);
@@ -514,147 +1068,605 @@ public class CostBasedJoinPlanner extends AbstractPlannerImpl {
 
     /**
      * This helper method builds up a full join-plan using a dynamic programming
-     * approach.  The implementation maintains a collection of optimal
-     * intermediate plans that join <em>n</em> of the leaf nodes, each with its
-     * own associated cost, and then uses that collection to generate a new
-     * collection of optimal intermediate plans that join <em>n+1</em> of the
-     * leaf nodes.  This process completes when all leaf plans are joined
-     * together; there will be <em>one</em> plan, and it will be the optimal
-     * join plan (as far as our limited estimates can determine, anyway).
+     * approach.  The leaves and the join conjuncts that reference them form a
+     * {@link JoinGraph}, and the graph produces every pair of connected sets
+     * of leaves that are connected to each other, so that plans are only
+     * built for joins that have a join predicate (unless the query has a
+     * cross product).  The cheapest plan for each set of leaves is kept in a
+     * memo table keyed by the set's bitmask, and is built from the cheapest
+     * plans of the two sets in a pair.  When all pairs have been produced,
+     * the memo table holds the optimal join plan for all of the leaves (as
+     * far as our limited estimates can determine, anyway).
+     * <p>
+     * By default only left-deep plans are built, where the right child of
+     * every join is a leaf; if the {@link #PROP_BUSHY_PLANS} property is set
+     * to <tt>true</tt>, bushy plans that join the results of two joins are
+     * also considered.  Queries with more leaves than the
+     * {@link #PROP_MAX_DP_LEAVES} property specifies are planned greedily by
+     * {@link #generateGreedyJoin} instead, since the number of pairs grows
+     * exponentially with the number of leaves.
+     * <p>
+     * If the query has an interesting order, the cheapest plan for each set
+     * of leaves whose results are in that order is also kept, and extended
+     * along with the cheapest plans.  At the end, the cheapest ordered plan
+     * is chosen if it costs no more than sorting the cheapest plan.
      *
      * @param leafComponents the collection of leaf join-components, generated
      *        by the {@link #generateLeafJoinComponents} method.
      *
      * @param conjuncts the collection of all conjuncts found in the query
      *
+     * @param order the interesting order to track, or {@code null} if the
+     *        order of the results doesn't matter
+     *
      * @return a single {@link JoinComponent} object that joins all leaf
      *         components together in an optimal way.
+     *
+     * @throws IOException if an index of a table couldn't be opened
      */
     private JoinComponent generateOptimalJoin(
-        ArrayList<JoinComponent> leafComponents, Set<Expression> conjuncts) {
+        final ArrayList<JoinComponent> leafComponents,
+        final Set<Expression> conjuncts, final InterestingOrder order)
+        throws IOException {
 
-        // This object maps a collection of leaf-plans (represented as a
-        // hash-set) to the optimal join-plan for that collection of leaf plans.
-        //
-        // This collection starts out only containing the leaf plans themselves,
-        // and on each iteration of the loop below, join-plans are grown by one
-        // leaf.  For example:
-        //   * In the first iteration, all plans joining 2 leaves are created.
-        //   * In the second iteration, all plans joining 3 leaves are created.
-        //   * etc.
-        // At the end, the collection will contain ONE entry, which is the
-        // optimal way to join all N leaves.  Go Go Gadget Dynamic Programming!
-        HashMap<HashSet<PlanNode>, JoinComponent> joinPlans =
-            new HashMap<HashSet<PlanNode>, JoinComponent>();
-
-        // Initially populate joinPlans with just the N leaf plans.
-        for (JoinComponent leaf : leafComponents)
-            joinPlans.put(leaf.leavesUsed, leaf);
-
-        while (joinPlans.size() > 1) {
-            logger.debug("Current set of join-plans has " + joinPlans.size() +
-                " plans in it.");
-
-            // This is the set of "next plans" we will generate.  Plans only
-            // get stored if they are the first plan that joins together the
-            // specified leaves, or if they are better than the current plan.
-            HashMap<HashSet<PlanNode>, JoinComponent> nextJoinPlans =
-                new HashMap<HashSet<PlanNode>, JoinComponent>();
-
-            // Iterate over each plan in the current set.  Those plans already
-            // join n leaf-plans together.  We will generate more plans that
-            // join n+1 leaves together.
-            for (JoinComponent prevComponent : joinPlans.values()) {
-                HashSet<PlanNode> prevLeavesUsed = prevComponent.leavesUsed;
-                PlanNode prevPlan = prevComponent.joinPlan;
-                HashSet<Expression> prevConjunctsUsed = prevComponent.conjunctsUsed;
-                Schema prevSchema = prevPlan.getSchema();
-
-                // Iterate over the leaf plans; try to add each leaf-plan to
-                // this join-plan, to produce new plans that join n+1 leaves.
-                for (JoinComponent leaf : leafComponents) {
-                    PlanNode leafPlan = leaf.joinPlan;
-
-                    // If the leaf-plan already appears in this join, skip it!
-                    if (prevLeavesUsed.contains(leafPlan))
+        if (leafComponents.size() == 1)
+            return leafComponents.get(0);
+
+        JoinGraph graph = makeJoinGraph(leafComponents, conjuncts);
+        final boolean bushy = Boolean.getBoolean(PROP_BUSHY_PLANS);
+
+        if (leafComponents.size() > getMaxDPLeaves()) {
+            logger.debug("Planning a join of " + leafComponents.size() +
+                " leaves greedily.");
+            return generateGreedyJoin(leafComponents, conjuncts, graph, bushy);
+        }
+
+        // These memo tables map each set of leaves, as a bitmask, to the
+        // cheapest plan that joins them, and to the cheapest plan whose
+        // results are in the query's interesting order.
+        final HashMap<Long, JoinComponent> joinPlans =
+            new HashMap<Long, JoinComponent>();
+        final HashMap<Long, JoinComponent> orderedPlans =
+            new HashMap<Long, JoinComponent>();
+
+        for (int i = 0; i < leafComponents.size(); i++) {
+            JoinComponent leaf = leafComponents.get(i);
+            joinPlans.put(1L << i, leaf);
+            if (order != null && order.isSatisfiedBy(leaf.joinPlan))
+                orderedPlans.put(1L << i, leaf);
+        }
+
+        graph.enumeratePairs(new JoinGraph.PairVisitor() {
+            @Override
+            public void visitPair(long leaves1, long leaves2)
+                throws IOException {
+
+                // Both the cheapest plans and the cheapest ordered plans are
+                // extended, since a more expensive ordered plan may still
+                // lead to the best overall plan.
+                JoinComponent[] comps1 = { joinPlans.get(leaves1),
+                    orderedPlans.get(leaves1) };
+                JoinComponent[] comps2 = { joinPlans.get(leaves2),
+                    orderedPlans.get(leaves2) };
+                if (comps1[1] == comps1[0])
+                    comps1[1] = null;
+                if (comps2[1] == comps2[0])
+                    comps2[1] = null;
+
+                // Left-deep plans must have a leaf on the right.
+                boolean oneRight = bushy || Long.bitCount(leaves2) == 1;
+                boolean twoRight = bushy || Long.bitCount(leaves1) == 1;
+
+                long newLeaves = leaves1 | leaves2;
+                for (JoinComponent comp1 : comps1) {
+                    for (JoinComponent comp2 : comps2) {
+                        if (comp1 == null || comp2 == null ||
+                            (comp1 != comps1[0] && comp2 != comps2[0])) {
+                            continue;
+                        }
+
+                        if (oneRight) {
+                            addJoin(comp1, comp2, newLeaves, conjuncts,
+                                order, joinPlans, orderedPlans);
+                        }
+
+                        if (twoRight) {
+                            addJoin(comp2, comp1, newLeaves, conjuncts,
+                                order, joinPlans, orderedPlans);
+                        }
+                    }
+                }
+            }
+        });
+
+        long allLeaves = graph.getAllLeaves();
+        JoinComponent best = joinPlans.get(allLeaves);
+        assert best != null : "No plan joins all of the leaves!";
+
+        // Use the best ordered plan instead if it is no more expensive than
+        // sorting the best plan's results into the interesting order.
+        JoinComponent bestOrdered = orderedPlans.get(allLeaves);
+        if (bestOrdered != null && bestOrdered != best) {
+            SortNode sortNode = new SortNode(best.joinPlan, order.orderSpec);
+            sortNode.prepare();
+
+            if (bestOrdered.joinPlan.getCost().cpuCost <=
+                sortNode.getCost().cpuCost) {
+                logger.info("Using ordered join plan instead of best plan.");
+                best = bestOrdered;
+            }
+        }
+
+        return best;
+    }
+
+
+    /**
+     * Joins two join components, with the first on the left, and records
+     * the join in the memo tables if it is cheaper than the plans they hold
+     * for the same leaves.
+     */
+    private void addJoin(JoinComponent leftComp, JoinComponent rightComp,
+        long leaves, Set<Expression> conjuncts, InterestingOrder order,
+        HashMap<Long, JoinComponent> joinPlans,
+        HashMap<Long, JoinComponent> orderedPlans) throws IOException {
+
+        JoinComponent joinComponent =
+            makeJoinComponent(leftComp, rightComp, conjuncts);
+
+        if (addIfCheaper(joinPlans, leaves, joinComponent))
+            logger.debug("Setting current best-plan.");
+
+        if (order != null && order.isSatisfiedBy(joinComponent.joinPlan) &&
+            addIfCheaper(orderedPlans, leaves, joinComponent)) {
+            logger.debug("Setting current best ordered plan.");
+        }
+    }
+
+
+    /**
+     * Joins two join components with the cheapest join node, using the
+     * conjuncts that reference both of them and that neither of them uses
+     * yet as the join predicate.
+     *
+     * @param leftComp the join component for the left side of the join
+     *
+     * @param rightComp the join component for the right side of the join
+     *
+     * @param conjuncts the collection of all conjuncts found in the query
+     *
+     * @return a join component that joins the leaves of both components
+     *
+     * @throws IOException if an index of a table couldn't be opened
+     */
+    private JoinComponent makeJoinComponent(JoinComponent leftComp,
+        JoinComponent rightComp, Set<Expression> conjuncts)
+        throws IOException {
+
+        // These are the conjuncts already used by the subplans.
+        HashSet<Expression> subplanConjuncts =
+            new HashSet<Expression>(leftComp.conjunctsUsed);
+        subplanConjuncts.addAll(rightComp.conjunctsUsed);
+
+        // These are the conjuncts still unused for this join pair.
+        HashSet<Expression> unusedConjuncts = new HashSet<Expression>(conjuncts);
+        unusedConjuncts.removeAll(subplanConjuncts);
+
+        // These are the conjuncts relevant for the join pair.
+        HashSet<Expression> joinConjuncts = new HashSet<Expression>();
+        PredicateUtils.findExprsUsingSchemas(unusedConjuncts, true,
+            joinConjuncts, leftComp.joinPlan.getSchema(),
+            rightComp.joinPlan.getSchema());
+
+        Expression joinPredicate = PredicateUtils.makePredicate(joinConjuncts);
+
+        PlanNode joinPlan = makeJoinNode(leftComp.joinPlan, rightComp.joinPlan,
+            JoinType.INNER, joinPredicate);
+
+        HashSet<PlanNode> leavesUsed =
+            new HashSet<PlanNode>(leftComp.leavesUsed);
+        leavesUsed.addAll(rightComp.leavesUsed);
+
+        joinConjuncts.addAll(subplanConjuncts);
+        return new JoinComponent(joinPlan, leavesUsed, joinConjuncts);
+    }
+
+
+    /**
+     * Builds a full join-plan greedily, for queries with too many leaves to
+     * plan with dynamic programming.  Starting with the leaves, the two
+     * connected join components whose join is cheapest are repeatedly
+     * replaced by their join, until one component joins all of the leaves.
+     * For left-deep plans, once two leaves have been joined, the cheapest
+     * leaf to join to that component is chosen each time.
+     *
+     * @param leafComponents the collection of leaf join-components
+     *
+     * @param conjuncts the collection of all conjuncts found in the query
+     *
+     * @param graph the join graph of the leaves, which must be connected
+     *
+     * @param bushy true if two joins may be joined together
+     *
+     * @return a single {@link JoinComponent} object that joins all leaf
+     *         components together
+     *
+     * @throws IOException if an index of a table couldn't be opened
+     */
+    private JoinComponent generateGreedyJoin(
+        ArrayList<JoinComponent> leafComponents, Set<Expression> conjuncts,
+        JoinGraph graph, boolean bushy) throws IOException {
+
+        ArrayList<Long> leafSets = new ArrayList<Long>();
+        ArrayList<JoinComponent> components = new ArrayList<JoinComponent>();
+        for (int i = 0; i < leafComponents.size(); i++) {
+            leafSets.add(1L << i);
+            components.add(leafComponents.get(i));
+        }
+
+        while (components.size() > 1) {
+            // For left-deep plans, the join of several leaves is the only
+            // component that isn't a leaf, and it must be on the left.
+            int growing = -1;
+            if (!bushy) {
+                for (int i = 0; i < leafSets.size(); i++) {
+                    if (Long.bitCount(leafSets.get(i)) > 1)
+                        growing = i;
+                }
+            }
+
+            JoinComponent best = null;
+            int bestLeft = -1;
+            int bestRight = -1;
+            for (int i = 0; i < components.size(); i++) {
+                if (growing != -1 && i != growing)
+                    continue;
+
+                for (int j = 0; j < components.size(); j++) {
+                    if (i == j || (!bushy && Long.bitCount(leafSets.get(j)) > 1) ||
+                        !graph.isConnected(leafSets.get(i), leafSets.get(j))) {
                         continue;
+                    }
 
-                    // The new plan we generate will involve everything from the
-                    // old plan, plus the leaf-plan we are joining in.
-                    // Of course, we could join in different orders, so consider
-                    // both join-orderings.
-
-                    HashSet<PlanNode> newLeavesUsed =
-                        new HashSet<PlanNode>(prevLeavesUsed);
-                    newLeavesUsed.add(leafPlan);
-
-                    // Compute the join predicate between these two subplans.
-                    // (We presume that the subplans have both been prepared.)
-
-                    Schema leafSchema = leafPlan.getSchema();
-
-                    // Find the conjuncts that reference both subplans' schemas.
-                    // Also remove those predicates from the original set of all
-                    // conjuncts.
-
-                    // These are the conjuncts already used by the subplans.
-                    HashSet<Expression> subplanConjuncts =
-                        new HashSet<Expression>(prevConjunctsUsed);
-                    subplanConjuncts.addAll(leaf.conjunctsUsed);
-
-                    // These are the conjuncts still unused for this join pair.
-                    HashSet<Expression> unusedConjuncts =
-                        new HashSet<Expression>(conjuncts);
-                    unusedConjuncts.removeAll(subplanConjuncts);
-
-                    // These are the conjuncts relevant for the join pair.
-                    HashSet<Expression> joinConjuncts = new HashSet<Expression>();
-                    PredicateUtils.findExprsUsingSchemas(unusedConjuncts, true,
-                        joinConjuncts, leafSchema, prevSchema);
-
-                    Expression joinPredicate =
-                        PredicateUtils.makePredicate(joinConjuncts);
-
-                    // Join the leaf-plan with the previous optimal plan, and
-                    // see if it's better than whatever we currently have.
-                    // We only build LEFT-DEEP join plans; the leaf node goes
-                    // on the right!
-
-                    NestedLoopsJoinNode newJoinPlan =
-                        new NestedLoopsJoinNode(prevPlan, leafPlan,
-                        JoinType.INNER, joinPredicate);
-                    newJoinPlan.prepare();
-                    PlanCost newJoinCost = newJoinPlan.getCost();
-
-                    joinConjuncts.addAll(subplanConjuncts);
-                    JoinComponent joinComponent = new JoinComponent(newJoinPlan,
-                        newLeavesUsed, joinConjuncts);
-
-                    JoinComponent currentBest = nextJoinPlans.get(newLeavesUsed);
-                    if (currentBest == null) {
-                        logger.info("Setting current best-plan.");
-                        nextJoinPlans.put(newLeavesUsed, joinComponent);
+                    JoinComponent joinComponent = makeJoinComponent(
+                        components.get(i), components.get(j), conjuncts);
+
+                    if (best == null || joinComponent.joinPlan.getCost().cpuCost <
+                                        best.joinPlan.getCost().cpuCost) {
+                        best = joinComponent;
+                        bestLeft = i;
+                        bestRight = j;
                     }
-                    else {
-                        PlanCost bestCost = currentBest.joinPlan.getCost();
-                        if (newJoinCost.cpuCost < bestCost.cpuCost) {
-                            logger.info("Replacing current best-plan with new plan!");
-                            nextJoinPlans.put(newLeavesUsed, joinComponent);
-                        }
+                }
+            }
+
+            assert best != null : "The join graph isn't connected!";
+
+            leafSets.set(bestLeft, leafSets.get(bestLeft) | leafSets.get(bestRight));
+            components.set(bestLeft, best);
+            leafSets.remove(bestRight);
+            components.remove(bestRight);
+        }
+
+        return components.get(0);
+    }
+
+
+    /**
+     * Constructs the join graph of the leaves of a query, in which two leaves
+     * are adjacent if a conjunct that neither of their plans uses references
+     * them both.  If the graph isn't connected, it is made connected so that
+     * the query's cross products can be planned.
+     *
+     * @param leafComponents the collection of leaf join-components
+     *
+     * @param conjuncts the collection of all conjuncts found in the query
+     *
+     * @return the join graph of the leaves
+     */
+    private static JoinGraph makeJoinGraph(
+        ArrayList<JoinComponent> leafComponents, Set<Expression> conjuncts) {
+
+        JoinGraph graph = new JoinGraph(leafComponents.size());
+
+        HashSet<Expression> leafConjuncts = new HashSet<Expression>();
+        for (JoinComponent leaf : leafComponents)
+            leafConjuncts.addAll(leaf.conjunctsUsed);
+
+        ArrayList<ColumnName> symbols = new ArrayList<ColumnName>();
+        for (Expression conjunct : conjuncts) {
+            if (leafConjuncts.contains(conjunct))
+                continue;
+
+            symbols.clear();
+            conjunct.getAllSymbols(symbols);
+
+            long leaves = 0;
+            for (int i = 0; i < leafComponents.size(); i++) {
+                Schema schema = leafComponents.get(i).joinPlan.getSchema();
+                for (ColumnName colName : symbols) {
+                    if (schema.getColumnIndex(colName) != -1) {
+                        leaves |= 1L << i;
+                        break;
                     }
                 }
             }
 
-            // Now that we have generated all plans joining N leaves, time to
-            // create all plans joining N + 1 leaves.
-            joinPlans = nextJoinPlans;
+            graph.addEdge(leaves);
         }
 
-        // At this point, the set of join plans should only contain one plan,
-        // and it should be the optimal plan.
+        int numComponents = graph.connectComponents();
+        if (numComponents > 1) {
+            logger.debug("Join graph has " + numComponents +
+                " components; cross products will be considered.");
+        }
 
-        assert joinPlans.size() == 1 : "There can be only one optimal join plan!";
-        return joinPlans.values().iterator().next();
+        return graph;
+    }
+
+
+    /**
+     * Returns the most leaves that a query may have for its joins to be
+     * planned with dynamic programming, as specified by the
+     * {@link #PROP_MAX_DP_LEAVES} property.
+     *
+     * @return the most leaves that are planned with dynamic programming
+     */
+    public static int getMaxDPLeaves() {
+        return Math.max(2, Math.min(JoinGraph.MAX_LEAVES,
+            Integer.getInteger(PROP_MAX_DP_LEAVES, DEFAULT_MAX_DP_LEAVES)));
+    }
+
+
+    /**
+     * Adds a join component to a collection of optimal join plans, if there
+     * is no plan for the same leaves yet, or if it is cheaper than the
+     * current plan.
+     *
+     * @param joinPlans the optimal plans for each set of leaves
+     *
+     * @param leaves the set of leaves the component joins, as a bitmask
+     *
+     * @param component the join component to add
+     *
+     * @return true if the component was added
+     */
+    private static boolean addIfCheaper(HashMap<Long, JoinComponent> joinPlans,
+        long leaves, JoinComponent component) {
+
+        JoinComponent currentBest = joinPlans.get(leaves);
+        if (currentBest != null && component.joinPlan.getCost().cpuCost >=
+            currentBest.joinPlan.getCost().cpuCost) {
+            return false;
+        }
+
+        joinPlans.put(leaves, component);
+        return true;
+    }
+
+
+    /**
+     * Constructs the cheapest plan-node for joining two subplans.  A nested
+     * loops join is always considered for inner joins.  If the join predicate
+     * has an equijoin conjunct then a hash join is also considered, with the
+     * build input on either side for inner joins.  If the right subplan reads
+     * a base table that can be looked up by its join columns, an index
+     * nested-loops join that probes the table for each left tuple is also
+     * considered, as is the reverse for inner joins.  Finally, a sort-merge
+     * join is considered; if the subplans aren't already sorted on the join
+     * columns, they are sorted first.  The candidate nodes are prepared, and
+     * the one with the lowest CPU cost is returned.  Since a sort-merge join
+     * of presorted subplans keeps their order, it wins ties.
+     *
+     * @param leftPlan the left subplan, which must already be prepared
+     *
+     * @param rightPlan the right subplan, which must already be prepared
+     *
+     * @param joinType the type of join to perform
+     *
+     * @param predicate the join predicate, or {@code null} if there is none
+     *
+     * @return the cheapest prepared plan-node for the join
+     *
+     * @throws IOException if an index of a table couldn't be opened
+     */
+    private PlanNode makeJoinNode(PlanNode leftPlan, PlanNode rightPlan,
+        JoinType joinType, Expression predicate) throws IOException {
+
+        ArrayList<PlanNode> candidates = new ArrayList<PlanNode>();
+
+        if (predicate != null && HashJoinNode.canHashJoin(predicate,
+            leftPlan.getSchema(), rightPlan.getSchema())) {
+
+            if (joinType == JoinType.INNER || joinType == JoinType.LEFT_OUTER ||
+                joinType == JoinType.RIGHT_OUTER ||
+                joinType == JoinType.FULL_OUTER) {
+                candidates.add(makeMergeJoinNode(leftPlan, rightPlan,
+                    joinType, predicate));
+            }
+
+            // Hash joins and index joins can't pad unmatched tuples of both
+            // sides, so full outer joins are left to the merge join.
+            if (joinType != JoinType.FULL_OUTER) {
+                candidates.add(new HashJoinNode(leftPlan, rightPlan, joinType,
+                    predicate));
+            }
+
+            if (joinType == JoinType.INNER) {
+                HashJoinNode swapped = new HashJoinNode(leftPlan, rightPlan,
+                    joinType, predicate);
+                swapped.swap();
+                candidates.add(swapped);
+            }
+
+            if (joinType != JoinType.RIGHT_OUTER &&
+                joinType != JoinType.FULL_OUTER) {
+                PlanNode probePlan = makeProbePlan(rightPlan,
+                    IndexNestedLoopJoinNode.findProbeColumns(predicate,
+                        leftPlan.getSchema(), rightPlan.getSchema()));
+
+                if (probePlan != null) {
+                    candidates.add(new IndexNestedLoopJoinNode(leftPlan,
+                        probePlan, joinType, predicate));
+                }
+            }
+
+            if (joinType == JoinType.INNER) {
+                PlanNode probePlan = makeProbePlan(leftPlan,
+                    IndexNestedLoopJoinNode.findProbeColumns(predicate,
+                        rightPlan.getSchema(), leftPlan.getSchema()));
+
+                if (probePlan != null) {
+                    IndexNestedLoopJoinNode swapped = new IndexNestedLoopJoinNode(
+                        probePlan, rightPlan, joinType, predicate);
+                    swapped.swap();
+                    candidates.add(swapped);
+                }
+            }
+        }
+
+        // Nested-loops joins only support inner joins, so only fall back on
+        // them for other join types if nothing else can be used.
+        if (joinType == JoinType.INNER || joinType == JoinType.CROSS ||
+            candidates.isEmpty()) {
+            candidates.add(new NestedLoopsJoinNode(leftPlan, rightPlan,
+                joinType, predicate));
+        }
+
+        PlanNode best = null;
+        for (PlanNode candidate : candidates) {
+            candidate.prepare();
+            if (best == null ||
+                candidate.getCost().cpuCost < best.getCost().cpuCost) {
+                best = candidate;
+            }
+        }
+
+        logger.debug("Chose join plan " + best + " with cost " +
+            best.getCost());
+
+        return best;
+    }
+
+
+    /**
+     * Constructs a sort-merge join of two subplans.  If the subplans are
+     * already sorted on a prefix of the join columns, they are merged as
+     * they are; otherwise, the subplans that aren't sorted on all of the
+     * join columns are sorted on them first.
+     *
+     * @param leftPlan the left subplan, which must already be prepared
+     *
+     * @param rightPlan the right subplan, which must already be prepared
+     *
+     * @param joinType the type of join to perform
+     *
+     * @param predicate the join predicate, which must have at least one
+     *        equijoin conjunct
+     *
+     * @return the sort-merge join node
+     */
+    private PlanNode makeMergeJoinNode(PlanNode leftPlan, PlanNode rightPlan,
+        JoinType joinType, Expression predicate) {
+
+        if (!SortMergeJoinNode.canMergeJoin(leftPlan, rightPlan, predicate)) {
+            ArrayList<OrderByExpression> leftOrder =
+                new ArrayList<OrderByExpression>();
+            ArrayList<OrderByExpression> rightOrder =
+                new ArrayList<OrderByExpression>();
+            SortMergeJoinNode.getMergeOrders(predicate, leftPlan.getSchema(),
+                rightPlan.getSchema(), leftOrder, rightOrder);
+
+            if (!PlanUtils.isOrderedBy(leftPlan.resultsOrderedBy(), leftOrder,
+                                       leftPlan.getSchema())) {
+                leftPlan = new SortNode(leftPlan, leftOrder);
+                leftPlan.prepare();
+            }
+
+            if (!PlanUtils.isOrderedBy(rightPlan.resultsOrderedBy(),
+                                       rightOrder, rightPlan.getSchema())) {
+                rightPlan = new SortNode(rightPlan, rightOrder);
+                rightPlan.prepare();
+            }
+        }
+
+        return new SortMergeJoinNode(leftPlan, rightPlan, joinType, predicate);
+    }
+
+
+    /**
+     * Makes a copy of a leaf plan that reads a base table, in which the
+     * table is looked up by the specified columns instead of being read
+     * with its current access path.  The copy can be used as the right child
+     * of an {@link IndexNestedLoopJoinNode}.  Renames and filters in the leaf
+     * plan are copied, and so is the predicate of a file scan.
+     *
+     * @param plan the leaf plan to copy
+     *
+     * @param lookupColumns the indexes of the plan's columns that the join
+     *        supplies values for
+     *
+     * @return a prepared copy of the plan that looks up the table, or
+     *         {@code null} if the plan doesn't read a base table, or the
+     *         table can't be looked up by the specified columns
+     *
+     * @throws IOException if an index of the table couldn't be opened
+     */
+    private PlanNode makeProbePlan(PlanNode plan, List<Integer> lookupColumns)
+        throws IOException {
+
+        if (lookupColumns.isEmpty())
+            return null;
+
+        PlanNode probePlan;
+        if (plan instanceof RenameNode) {
+            probePlan = makeProbePlan(plan.getLeftChild(), lookupColumns);
+            if (probePlan == null)
+                return null;
+
+            probePlan = new RenameNode(probePlan,
+                ((RenameNode) plan).getResultTableName());
+        }
+        else if (plan instanceof SimpleFilterNode) {
+            probePlan = makeProbePlan(plan.getLeftChild(), lookupColumns);
+            if (probePlan == null)
+                return null;
+
+            probePlan = new SimpleFilterNode(probePlan,
+                ((SimpleFilterNode) plan).predicate.duplicate());
+        }
+        else {
+            TableInfo tableInfo;
+            Expression predicate = null;
+            if (plan instanceof FileScanNode) {
+                FileScanNode fileScan = (FileScanNode) plan;
+                tableInfo = fileScan.getTableInfo();
+                if (fileScan.predicate != null)
+                    predicate = fileScan.predicate.duplicate();
+            }
+            else if (plan instanceof IndexScanNode) {
+                tableInfo = ((IndexScanNode) plan).getIndexInfo().getTableInfo();
+            }
+            else {
+                return null;
+            }
+
+            if (tableInfo == null)
+                return null;
+
+            // Probe plans don't reorder columns, so the plan's column indexes
+            // are also the table's column indexes.
+            probePlan = AccessPathSelector.makeLookupPath(storageManager,
+                tableInfo, lookupColumns);
+            if (probePlan == null)
+                return null;
+
+            if (predicate != null)
+                probePlan = addPredicateToPlan(probePlan, predicate);
+        }
+
+        probePlan.prepare();
+        return probePlan;
     }
 
 
@@ -697,8 +1709,21 @@ public class CostBasedJoinPlanner extends AbstractPlannerImpl {
         TableInfo tableInfo = storageManager.getTableManager().openTable(tableName);
 
         // Make a SelectNode to read rows from the table, with the specified
-        // predicate.
-        SelectNode selectNode = new FileScanNode(tableInfo, predicate);
+        // predicate.  If the table is hashed, the predicate may specify a
+        // key that limits the rows that must be read.
+        FileScanNode selectNode = new FileScanNode(tableInfo, predicate);
+        if (predicate != null) {
+            ArrayList<Expression> conjuncts = new ArrayList<Expression>();
+            PredicateUtils.collectConjuncts(predicate, conjuncts);
+            selectNode.setHashKey(AccessPathSelector.findHashKey(tableInfo,
+                tableInfo.getSchema(), conjuncts));
+        }
+
+        // When transactions are enabled, the scan must lock what it reads.
+        TransactionManager txnManager = storageManager.getTransactionManager();
+        if (txnManager != null)
+            selectNode.setLockManager(txnManager.getLockManager());
+
         selectNode.prepare();
         return selectNode;
     }
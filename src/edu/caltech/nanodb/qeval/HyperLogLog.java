@@ -0,0 +1,332 @@
+package edu.caltech.nanodb.qeval;
+
+
+/**
+ * <p>
+ * A HyperLogLog sketch, which estimates the number of distinct values in a
+ * stream of values using a fixed amount of memory, no matter how many values
+ * the stream holds.  Values are added to the sketch as 64-bit hashes; the
+ * static <tt>hash</tt> methods compute suitable hashes of the values that
+ * are stored in tables.
+ * </p>
+ * <p>
+ * The sketch divides the hashes into 2<sup><em>p</em></sup> buckets by their
+ * first <em>p</em> bits, and keeps the largest number of leading zero bits
+ * seen in the rest of the hashes of each bucket.  With the default precision
+ * of 12, the sketch takes 4KB and its estimates have a standard error of
+ * about 1.6%.  Since small numbers of distinct values are common and their
+ * estimates matter the most, the sketch starts out by keeping the distinct
+ * hashes themselves, which take no more memory than the buckets, and only
+ * switches to the buckets when there are too many hashes.  Until then its
+ * counts are exact, apart from hash collisions.
+ * </p>
+ * <p>
+ * Two sketches with the same precision can be merged, giving the sketch of
+ * the union of their streams, so that parts of a table can be analyzed
+ * separately and their sketches combined.
+ * </p>
+ */
+public class HyperLogLog {
+
+    /** The default precision of a sketch. */
+    public static final int DEFAULT_PRECISION = 12;
+
+
+    /** The smallest supported precision. */
+    public static final int MIN_PRECISION = 4;
+
+
+    /** The largest supported precision. */
+    public static final int MAX_PRECISION = 18;
+
+
+    /** The number of bits of each hash that select its bucket. */
+    private int precision;
+
+
+    /**
+     * For each bucket, the largest rank seen in the hashes of the bucket,
+     * where the rank of a hash is one more than the number of leading zero
+     * bits after the bucket bits.  This is {@code null} while the sketch is
+     * still keeping the distinct hashes.
+     */
+    private byte[] registers;
+
+
+    /**
+     * An open-addressing hash set of the distinct hashes added so far, or
+     * {@code null} once the sketch has switched to its buckets.  The hash 0
+     * marks an empty slot, so it is kept separately in {@link #hasZero}.
+     */
+    private long[] hashes;
+
+
+    /** The number of nonzero hashes in {@link #hashes}. */
+    private int numHashes;
+
+
+    /** True if the hash 0 has been added while keeping the hashes. */
+    private boolean hasZero;
+
+
+    /** Creates an empty sketch with the default precision. */
+    public HyperLogLog() {
+        this(DEFAULT_PRECISION);
+    }
+
+
+    /**
+     * Creates an empty sketch with the specified precision.
+     *
+     * @param precision the number of bits of each hash that select its
+     *        bucket, from {@link #MIN_PRECISION} to {@link #MAX_PRECISION}
+     */
+    public HyperLogLog(int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("precision must be in the " +
+                "range [" + MIN_PRECISION + ", " + MAX_PRECISION + "]; got " +
+                precision);
+        }
+
+        this.precision = precision;
+
+        // The set of hashes is kept at most half full, and switches to the
+        // buckets before it takes more memory than they do.
+        hashes = new long[(1 << precision) / 8];
+    }
+
+
+    /**
+     * Returns the precision of the sketch.
+     *
+     * @return the number of bits of each hash that select its bucket
+     */
+    public int getPrecision() {
+        return precision;
+    }
+
+
+    /**
+     * Adds a value's hash to the sketch.
+     *
+     * @param hash a 64-bit hash of the value, such as one computed by the
+     *        <tt>hash</tt> methods of this class
+     */
+    public void add(long hash) {
+        if (registers != null) {
+            addToRegisters(hash);
+        }
+        else if (hash == 0) {
+            hasZero = true;
+        }
+        else if (insertHash(hash) && numHashes * 2 > hashes.length) {
+            switchToRegisters();
+        }
+    }
+
+
+    /**
+     * Adds all of the values of another sketch to this sketch, so that this
+     * sketch estimates the number of distinct values in both sketches'
+     * streams.
+     *
+     * @param other the sketch to merge into this one, which must have the
+     *        same precision
+     *
+     * @throws IllegalArgumentException if the sketches' precisions differ
+     */
+    public void merge(HyperLogLog other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("Can't merge a sketch with " +
+                "precision " + other.precision + " into one with precision " +
+                precision);
+        }
+
+        if (other.registers == null) {
+            if (other.hasZero)
+                add(0);
+
+            for (long hash : other.hashes) {
+                if (hash != 0)
+                    add(hash);
+            }
+        }
+        else {
+            if (registers == null)
+                switchToRegisters();
+
+            for (int i = 0; i < registers.length; i++) {
+                if (other.registers[i] > registers[i])
+                    registers[i] = other.registers[i];
+            }
+        }
+    }
+
+
+    /**
+     * Returns the estimated number of distinct values added to the sketch.
+     *
+     * @return the estimated number of distinct values
+     */
+    public long estimate() {
+        if (registers == null)
+            return numHashes + (hasZero ? 1 : 0);
+
+        int m = registers.length;
+        double sum = 0;
+        int numZeros = 0;
+        for (byte rank : registers) {
+            sum += 1.0 / (1L << rank);
+            if (rank == 0)
+                numZeros++;
+        }
+
+        double alpha = 0.7213 / (1 + 1.079 / m);
+        double estimate = alpha * m * m / sum;
+
+        // The raw estimate is biased for small cardinalities, where linear
+        // counting over the empty buckets is more accurate.  With 64-bit
+        // hashes, no correction is needed for large cardinalities.
+        if (estimate <= 2.5 * m && numZeros > 0)
+            estimate = m * Math.log((double) m / numZeros);
+
+        return Math.round(estimate);
+    }
+
+
+    /**
+     * Adds a hash to the set of distinct hashes.
+     *
+     * @return true if the hash wasn't already in the set
+     */
+    private boolean insertHash(long hash) {
+        int mask = hashes.length - 1;
+        int slot = (int) hash & mask;
+        while (hashes[slot] != 0) {
+            if (hashes[slot] == hash)
+                return false;
+
+            slot = (slot + 1) & mask;
+        }
+
+        hashes[slot] = hash;
+        numHashes++;
+        return true;
+    }
+
+
+    /** Moves the distinct hashes kept so far into the buckets. */
+    private void switchToRegisters() {
+        registers = new byte[1 << precision];
+
+        if (hasZero)
+            addToRegisters(0);
+
+        for (long hash : hashes) {
+            if (hash != 0)
+                addToRegisters(hash);
+        }
+
+        hashes = null;
+        numHashes = 0;
+        hasZero = false;
+    }
+
+
+    private void addToRegisters(long hash) {
+        int bucket = (int) (hash >>> (64 - precision));
+
+        // A sentinel bit keeps the rank from exceeding the number of bits
+        // after the bucket bits.
+        long rest = (hash << precision) | (1L << (precision - 1));
+        byte rank = (byte) (Long.numberOfLeadingZeros(rest) + 1);
+
+        if (rank > registers[bucket])
+            registers[bucket] = rank;
+    }
+
+
+    @Override
+    public String toString() {
+        return "HyperLogLog[precision=" + precision + ", estimate=" +
+            estimate() + (registers == null ? ", exact" : "") + "]";
+    }
+
+
+    /**
+     * Returns a 64-bit hash of an integer value.  Integer values of all
+     * sizes have the same hash as the same value stored as a <tt>long</tt>.
+     *
+     * @param value the value to hash
+     *
+     * @return a 64-bit hash of the value
+     */
+    public static long hash(long value) {
+        // The finalization step of the 64-bit MurmurHash3, which mixes every
+        // bit of the value into every bit of the hash.
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+
+
+    /**
+     * Returns a 64-bit hash of a floating-point value.  A <tt>float</tt>
+     * value has the same hash as the same value stored as a <tt>double</tt>.
+     *
+     * @param value the value to hash
+     *
+     * @return a 64-bit hash of the value
+     */
+    public static long hash(double value) {
+        // Make 0.0 and -0.0 the same value, as they are when compared.
+        if (value == 0.0)
+            value = 0.0;
+
+        return hash(Double.doubleToLongBits(value));
+    }
+
+
+    /**
+     * Returns a 64-bit hash of a string.  Since strings are stored in
+     * tables in US-ASCII, a string has the same hash as its stored bytes;
+     * see {@link #hash(byte[], int, int)}.
+     *
+     * @param value the value to hash
+     *
+     * @return a 64-bit hash of the value
+     */
+    public static long hash(String value) {
+        // A 64-bit FNV-1a hash of the characters, mixed again so that the
+        // bucket bits depend on all of the characters.
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return hash(h);
+    }
+
+
+    /**
+     * Returns a 64-bit hash of a string stored in US-ASCII bytes, without
+     * decoding the string.
+     *
+     * @param bytes the array holding the string's bytes
+     * @param offset the index of the string's first byte
+     * @param length the number of bytes in the string
+     *
+     * @return a 64-bit hash of the string
+     */
+    public static long hash(byte[] bytes, int offset, int length) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = offset; i < offset + length; i++) {
+            h ^= bytes[i] & 0xFF;
+            h *= 0x100000001b3L;
+        }
+        return hash(h);
+    }
+}
@@ -0,0 +1,284 @@
+package edu.caltech.nanodb.qeval;
+
+
+import java.io.IOException;
+
+
+/**
+ * This class is the join graph of a query's leaves, which the join planner
+ * uses to enumerate the ways the leaves can be joined.  Leaves are numbered
+ * from 0, and sets of leaves are represented as bitmasks, with bit <em>i</em>
+ * set if leaf <em>i</em> is in the set; this allows at most 64 leaves.  Two
+ * leaves are adjacent if a join conjunct references both of them.  A
+ * conjunct that references more than two leaves makes all of them adjacent
+ * to each other, which is a simplification of the hypergraph it defines.
+ * <p>
+ * The pairs of sets of leaves that can be joined are enumerated with the
+ * DPccp algorithm of Moerkotte and Neumann, "Analysis of Two Existing and
+ * One New Dynamic Programming Algorithm for the Generation of Optimal Bushy
+ * Join Trees without Cross Products."  It only produces pairs of disjoint,
+ * connected sets that are connected to each other, so no cross products are
+ * considered, and it produces each pair only once, in an order where the
+ * pairs that make up each set are produced before the set is used in a pair.
+ * A graph with more than one connected component must be made connected
+ * with {@link #connectComponents} first, which allows cross products between
+ * the components.
+ */
+public class JoinGraph {
+
+    /**
+     * This interface is implemented by the receiver of the pairs of sets of
+     * leaves that {@link #enumeratePairs} produces.
+     */
+    public interface PairVisitor {
+        /**
+         * Receives a pair of disjoint, connected sets of leaves that are
+         * connected to each other.  Each pair is produced once, in one of
+         * its two orders.
+         *
+         * @param leaves1 the first set of leaves
+         * @param leaves2 the second set of leaves
+         *
+         * @throws IOException if the visitor fails to plan the join of the
+         *         sets
+         */
+        void visitPair(long leaves1, long leaves2) throws IOException;
+    }
+
+
+    /** The largest number of leaves a join graph can have. */
+    public static final int MAX_LEAVES = 64;
+
+
+    /** The number of leaves in the graph. */
+    private int numLeaves;
+
+
+    /** For each leaf, the set of leaves adjacent to it. */
+    private long[] neighbors;
+
+
+    /**
+     * Creates a join graph of the specified number of leaves, without any
+     * edges.
+     *
+     * @param numLeaves the number of leaves in the graph
+     *
+     * @throws IllegalArgumentException if the number of leaves isn't in the
+     *         range [1, {@link #MAX_LEAVES}]
+     */
+    public JoinGraph(int numLeaves) {
+        if (numLeaves < 1 || numLeaves > MAX_LEAVES) {
+            throw new IllegalArgumentException("A join graph must have " +
+                "between 1 and " + MAX_LEAVES + " leaves; got " + numLeaves);
+        }
+
+        this.numLeaves = numLeaves;
+        neighbors = new long[numLeaves];
+    }
+
+
+    public int getNumLeaves() {
+        return numLeaves;
+    }
+
+
+    /**
+     * Returns the set of all of the graph's leaves.
+     *
+     * @return the set of all of the graph's leaves
+     */
+    public long getAllLeaves() {
+        return (numLeaves == 64) ? -1L : (1L << numLeaves) - 1;
+    }
+
+
+    /**
+     * Records a join conjunct that references the specified leaves, making
+     * them all adjacent to each other.  Conjuncts that reference fewer than
+     * two leaves don't change the graph.
+     *
+     * @param leaves the set of leaves the conjunct references
+     */
+    public void addEdge(long leaves) {
+        leaves &= getAllLeaves();
+        if (Long.bitCount(leaves) < 2)
+            return;
+
+        for (long rest = leaves; rest != 0; rest &= rest - 1) {
+            int i = Long.numberOfTrailingZeros(rest);
+            neighbors[i] |= leaves & ~(1L << i);
+        }
+    }
+
+
+    /**
+     * Returns the set of leaves that are adjacent to some leaf of the
+     * specified set, and that aren't in the set.
+     *
+     * @param leaves the set of leaves to find the neighbors of
+     *
+     * @return the neighbors of the set of leaves
+     */
+    public long getNeighbors(long leaves) {
+        long result = 0;
+        for (long rest = leaves; rest != 0; rest &= rest - 1)
+            result |= neighbors[Long.numberOfTrailingZeros(rest)];
+
+        return result & ~leaves;
+    }
+
+
+    /**
+     * Returns true if two disjoint sets of leaves are connected by an edge.
+     *
+     * @param leaves1 the first set of leaves
+     * @param leaves2 the second set of leaves
+     *
+     * @return true if some leaf of the first set is adjacent to some leaf of
+     *         the second set
+     */
+    public boolean isConnected(long leaves1, long leaves2) {
+        return (getNeighbors(leaves1) & leaves2) != 0;
+    }
+
+
+    /**
+     * Makes the graph connected if it isn't, by making every leaf adjacent
+     * to all of the leaves in the other connected components.  This allows
+     * the components to be joined with cross products, in any order.
+     *
+     * @return the number of connected components the graph had
+     */
+    public int connectComponents() {
+        long[] components = new long[numLeaves];
+        int numComponents = 0;
+
+        long remaining = getAllLeaves();
+        while (remaining != 0) {
+            long component = Long.lowestOneBit(remaining);
+            while (true) {
+                long grown = component | getNeighbors(component);
+                if (grown == component)
+                    break;
+
+                component = grown;
+            }
+
+            components[numComponents++] = component;
+            remaining &= ~component;
+        }
+
+        if (numComponents > 1) {
+            for (int c = 0; c < numComponents; c++) {
+                long others = getAllLeaves() & ~components[c];
+                for (long rest = components[c]; rest != 0; rest &= rest - 1)
+                    neighbors[Long.numberOfTrailingZeros(rest)] |= others;
+            }
+        }
+
+        return numComponents;
+    }
+
+
+    /**
+     * Produces every pair of disjoint, connected sets of leaves that are
+     * connected to each other, once each.  Every pair that makes up a set
+     * of leaves is produced before that set is first used in a pair.
+     *
+     * @param visitor the receiver of the pairs
+     *
+     * @throws IOException if the visitor fails
+     */
+    public void enumeratePairs(PairVisitor visitor) throws IOException {
+        for (int i = numLeaves - 1; i >= 0; i--) {
+            long leaf = 1L << i;
+            emitSubgraph(leaf, visitor);
+            enumerateSubgraphs(leaf, lowerLeaves(i), visitor);
+        }
+    }
+
+
+    /** Returns the set of the leaves numbered up to and including leaf i. */
+    private static long lowerLeaves(int i) {
+        return (i == 63) ? -1L : (1L << (i + 1)) - 1;
+    }
+
+
+    /**
+     * Extends a connected set with every nonempty subset of its neighbors
+     * that aren't excluded, and then extends each of the resulting sets in
+     * turn.
+     */
+    private void enumerateSubgraphs(long subgraph, long excluded,
+        PairVisitor visitor) throws IOException {
+
+        long neighborhood = getNeighbors(subgraph) & ~excluded;
+        if (neighborhood == 0)
+            return;
+
+        // The subsets are produced in increasing order, so that the sets
+        // that a larger set is built from are emitted before it.
+        for (long subset = neighborhood & -neighborhood; subset != 0;
+             subset = (subset - neighborhood) & neighborhood) {
+            emitSubgraph(subgraph | subset, visitor);
+        }
+
+        for (long subset = neighborhood & -neighborhood; subset != 0;
+             subset = (subset - neighborhood) & neighborhood) {
+            enumerateSubgraphs(subgraph | subset, excluded | neighborhood,
+                visitor);
+        }
+    }
+
+
+    /**
+     * Produces every pair of a connected set with a connected complement,
+     * where the complement's leaves are numbered higher than the set's
+     * lowest leaf.
+     */
+    private void emitSubgraph(long subgraph, PairVisitor visitor)
+        throws IOException {
+
+        long excluded = subgraph |
+            lowerLeaves(Long.numberOfTrailingZeros(subgraph));
+        long neighborhood = getNeighbors(subgraph) & ~excluded;
+
+        // Each neighbor starts complements that don't contain the neighbors
+        // numbered below it, so that each complement is produced once.
+        for (int i = 63 - Long.numberOfLeadingZeros(neighborhood); i >= 0; i--) {
+            long neighbor = 1L << i;
+            if ((neighborhood & neighbor) == 0)
+                continue;
+
+            visitor.visitPair(subgraph, neighbor);
+            enumerateComplements(subgraph, neighbor,
+                excluded | (lowerLeaves(i) & neighborhood), visitor);
+        }
+    }
+
+
+    /**
+     * Extends a complement of a connected set with every nonempty subset of
+     * its neighbors that aren't excluded, producing the pairs of the set
+     * with the extended complements.
+     */
+    private void enumerateComplements(long subgraph, long complement,
+        long excluded, PairVisitor visitor) throws IOException {
+
+        long neighborhood = getNeighbors(complement) & ~excluded;
+        if (neighborhood == 0)
+            return;
+
+        for (long subset = neighborhood & -neighborhood; subset != 0;
+             subset = (subset - neighborhood) & neighborhood) {
+            visitor.visitPair(subgraph, complement | subset);
+        }
+
+        for (long subset = neighborhood & -neighborhood; subset != 0;
+             subset = (subset - neighborhood) & neighborhood) {
+            enumerateComplements(subgraph, complement | subset,
+                excluded | neighborhood, visitor);
+        }
+    }
+}
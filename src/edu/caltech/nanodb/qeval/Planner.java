@@ -36,6 +36,17 @@ public interface Planner {
      */
     void setStorageManager(StorageManager storageManager);
 
+    /**
+     * Specifies whether the planner may produce plans that evaluate parts of
+     * the query in parallel.  This is off by default, and should only be
+     * turned on for queries whose results are only read, since the parallel
+     * parts of the plan are evaluated by other threads while the results are
+     * consumed.
+     *
+     * @param parallelExecution true if the planner may produce parallel plans
+     */
+    void setParallelExecution(boolean parallelExecution);
+
     /**
      * Returns the root of a plan tree suitable for executing the specified
      * query.  There is no requirement that tuples produced by the returned plan
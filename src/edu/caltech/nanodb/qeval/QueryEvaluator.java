@@ -1,6 +1,8 @@
 package edu.caltech.nanodb.qeval;
 
 
+import edu.caltech.nanodb.expressions.TupleBatch;
+
 import edu.caltech.nanodb.plans.PlanNode;
 
 import edu.caltech.nanodb.relations.Schema;
@@ -24,6 +26,31 @@ public class QueryEvaluator {
      */
     public static EvalStats executePlan(PlanNode plan, TupleProcessor processor)
         throws Exception {
+        return executePlan(plan, processor, true);
+    }
+
+
+    /**
+     * Executes the specified query plan, and feeds the results to the specified
+     * tuple processor.  If the plan supports batch-at-a-time execution and
+     * batches are allowed, the results are pulled from the plan in batches,
+     * and the processor is given a copy of each tuple.
+     *
+     * @param plan the query plan to execute
+     *
+     * @param processor the tuple-processor to receive the results
+     *
+     * @param allowBatches true if the results may be pulled in batches, or
+     *        false if the processor needs the tuples the plan produces
+     *        itself, for example to modify them in place
+     *
+     * @return An object containing statistics about the plan evaluation.
+     *
+     * @throws Exception if an error occurs during query evaluation or during
+     *         tuple-processing.
+     */
+    public static EvalStats executePlan(PlanNode plan, TupleProcessor processor,
+                                        boolean allowBatches) throws Exception {
 
         // Execute the plan, and record some basic statistics as we go.
 
@@ -36,17 +63,33 @@ public class QueryEvaluator {
 
         int rowsProduced = 0;
         try {
-            Tuple tuple;
-            while (true) {
-                // Get the next tuple.  If there aren't anymore, we're done!
-                tuple = plan.getNextTuple();
-                if (tuple == null)
-                    break;
-
-                rowsProduced++;
-
-                // Do whatever we're supposed to do with the tuple.
-                processor.process(tuple);
+            if (allowBatches && plan.supportsBatchExecution()) {
+                // Pull the results a batch at a time, so that the plan can
+                // process each batch in tight loops.
+                int batchSize = PlanNode.getBatchSize();
+                while (true) {
+                    TupleBatch batch = plan.getNextBatch(batchSize);
+                    if (batch == null)
+                        break;
+
+                    rowsProduced += batch.size();
+                    for (int i = 0; i < batch.size(); i++)
+                        processor.process(batch.getTuple(i));
+                }
+            }
+            else {
+                Tuple tuple;
+                while (true) {
+                    // Get the next tuple.  If there aren't anymore, we're done!
+                    tuple = plan.getNextTuple();
+                    if (tuple == null)
+                        break;
+
+                    rowsProduced++;
+
+                    // Do whatever we're supposed to do with the tuple.
+                    processor.process(tuple);
+                }
             }
         }
         finally {
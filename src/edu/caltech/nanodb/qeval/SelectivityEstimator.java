@@ -3,6 +3,8 @@ package edu.caltech.nanodb.qeval;
 
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import edu.caltech.nanodb.expressions.ArithmeticOperator;
 import edu.caltech.nanodb.expressions.BooleanOperator;
@@ -10,6 +12,8 @@ import edu.caltech.nanodb.expressions.ColumnValue;
 import edu.caltech.nanodb.expressions.CompareOperator;
 import edu.caltech.nanodb.expressions.Expression;
 import edu.caltech.nanodb.expressions.LiteralValue;
+import edu.caltech.nanodb.expressions.StringMatchOperator;
+import edu.caltech.nanodb.expressions.TypeCastException;
 import edu.caltech.nanodb.expressions.TypeConverter;
 
 import edu.caltech.nanodb.relations.ColumnInfo;
@@ -22,6 +26,11 @@ import org.apache.log4j.Logger;
 /**
  * This utility class is used to estimate the selectivity of predicates that
  * appear on Select and Theta-Join plan-nodes.
+ * <p>
+ * When a column's stats include its most common values and a histogram of
+ * its other values, comparisons and string matches against the column are
+ * estimated from them; otherwise, values are assumed to be spread uniformly
+ * between the column's minimum and maximum values.
  */
 public class SelectivityEstimator {
 
@@ -67,6 +76,14 @@ public class SelectivityEstimator {
     public static final float DEFAULT_SELECTIVITY = 0.25f;
 
 
+    /**
+     * The smallest number of histogram bounds that string-match estimates
+     * are made from.  With fewer bounds, the fraction of the bounds that
+     * match a pattern says too little about the column.
+     */
+    private static final int MIN_BOUNDS_FOR_MATCH_ESTIMATES = 10;
+
+
     /** This class should not be instantiated. */
     private SelectivityEstimator() {
         throw new IllegalArgumentException("This class should not be instantiated.");
@@ -117,6 +134,12 @@ public class SelectivityEstimator {
             CompareOperator comp = (CompareOperator) expr;
             selectivity = estimateCompareSelectivity(comp, exprSchema, stats);
         }
+        else if (expr instanceof StringMatchOperator) {
+            // This is a LIKE or SIMILAR TO match.
+            StringMatchOperator match = (StringMatchOperator) expr;
+            selectivity = estimateStringMatchSelectivity(match, exprSchema,
+                stats);
+        }
 
         return selectivity;
     }
@@ -274,11 +297,18 @@ public class SelectivityEstimator {
         // Pull out the critical values for making the estimates.
 
         int colIndex = exprSchema.getColumnIndex(columnValue.getColumnName());
+        if (colIndex == -1) {
+            // The column belongs to an enclosing query, so it has no stats.
+            return selectivity;
+        }
+
         ColumnInfo colInfo = exprSchema.getColumnInfo(colIndex);
         SQLDataType sqlType = colInfo.getType().getBaseType();
         ColumnStats colStats = stats.get(colIndex);
 
         Object value = literalValue.evaluate();
+        float equal;
+        float less;
 
         switch (compType) {
         case EQUALS:
@@ -290,9 +320,9 @@ public class SelectivityEstimator {
             // column's type, as long as we have a count of the distinct
             // values that appear in the column.
 
-            int numUnique = colStats.getNumUniqueValues();
-            if (numUnique > 0) {
-                selectivity = 1.0f / (float) numUnique;
+            equal = estimateEqualsFraction(colStats, value);
+            if (equal >= 0) {
+                selectivity = equal;
                 if (compType == CompareOperator.Type.NOT_EQUALS)
                     selectivity = 1.0f - selectivity;
             }
@@ -301,6 +331,14 @@ public class SelectivityEstimator {
 
         case GREATER_OR_EQUAL:
         case LESS_THAN:
+            // If the column has a distribution, use it.
+            less = estimateLessThanFraction(colStats, value, sqlType);
+            if (less >= 0) {
+                selectivity = (compType == CompareOperator.Type.LESS_THAN) ?
+                    less : 1.0f - less;
+                break;
+            }
+
             // Compute the greater-or-equal value.  Then, if less-than,
             // invert the result.
 
@@ -322,6 +360,16 @@ public class SelectivityEstimator {
 
         case LESS_OR_EQUAL:
         case GREATER_THAN:
+            // If the column has a distribution, use it.
+            less = estimateLessThanFraction(colStats, value, sqlType);
+            if (less >= 0) {
+                equal = Math.max(0.0f, estimateEqualsFraction(colStats, value));
+                float lessOrEqual = Math.min(1.0f, less + equal);
+                selectivity = (compType == CompareOperator.Type.LESS_OR_EQUAL) ?
+                    lessOrEqual : 1.0f - lessOrEqual;
+                break;
+            }
+
             // Compute the less-or-equal value.  Then, if greater-than,
             // invert the result.
 
@@ -350,6 +398,281 @@ public class SelectivityEstimator {
     }
 
 
+    /**
+     * Estimates the fraction of a column's non-<tt>NULL</tt> values that are
+     * equal to a value.  If the value is one of the column's most common
+     * values, its frequency is used; otherwise, the values that aren't among
+     * the most common values are assumed to appear equally often.
+     *
+     * @param colStats the column's stats
+     * @param value the value that the column is compared to
+     *
+     * @return the estimated fraction, or -1 if the column's stats don't
+     *         allow an estimate
+     */
+    private static float estimateEqualsFraction(ColumnStats colStats,
+                                                Object value) {
+        int numUnique = colStats.getNumUniqueValues();
+        if (!colStats.hasMostCommonValues()) {
+            if (numUnique > 0)
+                return 1.0f / (float) numUnique;
+
+            return -1;
+        }
+
+        Object[] common = colStats.getMostCommonValues();
+        float[] frequencies = colStats.getMostCommonFrequencies();
+
+        float total = 0;
+        for (int i = 0; i < common.length; i++) {
+            Integer cmp = compareValues(common[i], value);
+            if (cmp == null)
+                return -1;
+
+            if (cmp == 0)
+                return frequencies[i];
+
+            total += frequencies[i];
+        }
+
+        // The value isn't among the most common values.  If the most common
+        // values are all of the column's values, it doesn't appear at all.
+        int numOthers = numUnique - common.length;
+        if (numOthers <= 0)
+            return 0;
+
+        return Math.max(0.0f, 1.0f - total) / numOthers;
+    }
+
+
+    /**
+     * Estimates the fraction of a column's non-<tt>NULL</tt> values that are
+     * less than a value, from the column's most common values and histogram.
+     * Within a bucket of the histogram, numeric values are assumed to be
+     * spread uniformly, and other values to be less than the value half of
+     * the time.
+     *
+     * @param colStats the column's stats
+     * @param value the value that the column is compared to
+     * @param sqlType the column's type
+     *
+     * @return the estimated fraction, or -1 if the column has neither most
+     *         common values nor a histogram, or if its stats don't allow an
+     *         estimate
+     */
+    private static float estimateLessThanFraction(ColumnStats colStats,
+        Object value, SQLDataType sqlType) {
+
+        if (!colStats.hasMostCommonValues() && !colStats.hasHistogram())
+            return -1;
+
+        // The most common values that are less than the value.
+        float commonTotal = 0;
+        float commonLess = 0;
+        if (colStats.hasMostCommonValues()) {
+            Object[] common = colStats.getMostCommonValues();
+            float[] frequencies = colStats.getMostCommonFrequencies();
+            for (int i = 0; i < common.length; i++) {
+                Integer cmp = compareValues(common[i], value);
+                if (cmp == null)
+                    return -1;
+
+                if (cmp < 0)
+                    commonLess += frequencies[i];
+
+                commonTotal += frequencies[i];
+            }
+        }
+
+        float othersTotal = Math.max(0.0f, 1.0f - commonTotal);
+        if (!colStats.hasHistogram()) {
+            // If the most common values aren't all of the column's values,
+            // guess that half of the others are less than the value.
+            return Math.min(1.0f, commonLess + othersTotal / 2);
+        }
+
+        // The values in the histogram that are less than the value.
+        Object[] bounds = colStats.getHistogramBounds();
+        int numBuckets = bounds.length - 1;
+        float histLess;
+
+        Integer cmp = compareValues(bounds[0], value);
+        if (cmp == null)
+            return -1;
+
+        if (cmp >= 0) {
+            histLess = 0;
+        }
+        else if (compareValues(bounds[numBuckets], value) < 0) {
+            histLess = 1;
+        }
+        else {
+            // Find the bucket that holds the value:  the last bucket whose
+            // lower bound is less than the value.
+            int bucket = 0;
+            while (bucket + 1 < numBuckets &&
+                   compareValues(bounds[bucket + 1], value) < 0) {
+                bucket++;
+            }
+
+            Object low = bounds[bucket];
+            Object high = bounds[bucket + 1];
+            float withinBucket = 0.5f;
+            if (typeSupportsCompareEstimates(sqlType) &&
+                compareValues(low, high) < 0) {
+                withinBucket = computeRatio(low, value, low, high);
+            }
+
+            histLess = (bucket + withinBucket) / numBuckets;
+        }
+
+        return Math.min(1.0f, commonLess + othersTotal * histLess);
+    }
+
+
+    /**
+     * Compares two values, converting them to the same type first.
+     *
+     * @return a negative number, zero or a positive number if the first
+     *         value is less than, equal to or greater than the second, or
+     *         <tt>null</tt> if the values can't be compared
+     */
+    @SuppressWarnings("unchecked")
+    private static Integer compareValues(Object value1, Object value2) {
+        if (value1 == null || value2 == null)
+            return null;
+
+        try {
+            TypeConverter.Pair coerced =
+                TypeConverter.coerceComparison(value1, value2);
+
+            return ((Comparable) coerced.value1).compareTo(coerced.value2);
+        }
+        catch (TypeCastException e) {
+            return null;
+        }
+    }
+
+
+    /**
+     * This function computes a selectivity estimate for a <tt>LIKE</tt> or
+     * <tt>SIMILAR TO</tt> match of a column against a literal pattern.  The
+     * estimate is the total frequency of the column's most common values
+     * that match the pattern, plus the fraction of its histogram bounds that
+     * match, scaled by the fraction of the column's values that aren't most
+     * common values.  If the column has no such stats, the default
+     * selectivity is used.
+     *
+     * @param match the string-match expression
+     *
+     * @param exprSchema a schema specifying the environment that the expression
+     *        will be evaluated within
+     *
+     * @param stats a collection of column-statistics to use in making
+     *        selectivity estimates
+     *
+     * @return a selectivity estimate in the range [0, 1].
+     */
+    public static float estimateStringMatchSelectivity(
+        StringMatchOperator match, Schema exprSchema,
+        ArrayList<ColumnStats> stats) {
+
+        float selectivity = DEFAULT_SELECTIVITY;
+
+        Expression left = match.getLeftExpression();
+        Expression right = match.getRightExpression();
+        if (!(left instanceof ColumnValue && right instanceof LiteralValue))
+            return selectivity;
+
+        int colIndex = exprSchema.getColumnIndex(
+            ((ColumnValue) left).getColumnName());
+        Object patternValue = ((LiteralValue) right).evaluate();
+        if (colIndex == -1 || !(patternValue instanceof String))
+            return selectivity;
+
+        ColumnStats colStats = stats.get(colIndex);
+        Object[] bounds = colStats.getHistogramBounds();
+        boolean useHistogram = colStats.hasHistogram() &&
+            bounds.length >= MIN_BOUNDS_FOR_MATCH_ESTIMATES;
+
+        if (!colStats.hasMostCommonValues() && !useHistogram)
+            return selectivity;
+
+        Pattern pattern;
+        try {
+            String patternStr = (String) patternValue;
+            if (match.getType() == StringMatchOperator.Type.LIKE)
+                patternStr = likeToRegex(patternStr);
+
+            pattern = Pattern.compile(patternStr);
+        }
+        catch (PatternSyntaxException e) {
+            return selectivity;
+        }
+
+        float commonTotal = 0;
+        float commonMatched = 0;
+        if (colStats.hasMostCommonValues()) {
+            Object[] common = colStats.getMostCommonValues();
+            float[] frequencies = colStats.getMostCommonFrequencies();
+            for (int i = 0; i < common.length; i++) {
+                if (pattern.matcher(common[i].toString()).matches())
+                    commonMatched += frequencies[i];
+
+                commonTotal += frequencies[i];
+            }
+        }
+
+        float othersTotal = Math.max(0.0f, 1.0f - commonTotal);
+        float othersMatched = DEFAULT_SELECTIVITY;
+        if (useHistogram) {
+            int numMatched = 0;
+            for (Object bound : bounds) {
+                if (pattern.matcher(bound.toString()).matches())
+                    numMatched++;
+            }
+            othersMatched = (float) numMatched / bounds.length;
+        }
+        else if (othersTotal == 0) {
+            othersMatched = 0;
+        }
+
+        selectivity =
+            Math.min(1.0f, commonMatched + othersTotal * othersMatched);
+
+        logger.debug("Estimated selectivity of string-match operator \"" +
+            match + "\" as " + selectivity);
+
+        return selectivity;
+    }
+
+
+    /**
+     * Converts a <tt>LIKE</tt> pattern into the equivalent regular
+     * expression, where <tt>%</tt> matches any sequence of characters and
+     * <tt>_</tt> matches any one character.
+     */
+    private static String likeToRegex(String pattern) {
+        StringBuilder buf = new StringBuilder();
+        int start = 0;
+        for (int i = 0; i < pattern.length(); i++) {
+            char ch = pattern.charAt(i);
+            if (ch == '%' || ch == '_') {
+                if (i > start)
+                    buf.append(Pattern.quote(pattern.substring(start, i)));
+
+                buf.append(ch == '%' ? ".*" : ".");
+                start = i + 1;
+            }
+        }
+
+        if (start < pattern.length())
+            buf.append(Pattern.quote(pattern.substring(start)));
+
+        return buf.toString();
+    }
+
+
     /**
      * This helper function computes a selectivity estimate for a comparison
      * between two columns.  Examples would be <tt>T1.A = T2.A</tt>.
@@ -380,6 +703,10 @@ public class SelectivityEstimator {
 
         int colOneIndex = exprSchema.getColumnIndex(columnOne.getColumnName());
         int colTwoIndex = exprSchema.getColumnIndex(columnTwo.getColumnName());
+        if (colOneIndex == -1 || colTwoIndex == -1) {
+            // A column belongs to an enclosing query, so it has no stats.
+            return selectivity;
+        }
 
         ColumnStats colOneStats = stats.get(colOneIndex);
         ColumnStats colTwoStats = stats.get(colTwoIndex);
@@ -2,6 +2,7 @@ package edu.caltech.nanodb.qeval;
 
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -15,7 +16,8 @@ import edu.caltech.nanodb.expressions.BooleanOperator;
 import edu.caltech.nanodb.expressions.Expression;
 
 import edu.caltech.nanodb.expressions.FunctionCall;
-import edu.caltech.nanodb.expressions.OrderByExpression;
+import edu.caltech.nanodb.expressions.PredicateUtils;
+import edu.caltech.nanodb.functions.TableFunction;
 import edu.caltech.nanodb.plans.FileScanNode;
 import edu.caltech.nanodb.plans.HashedGroupAggregateNode;
 import edu.caltech.nanodb.plans.NestedLoopsJoinNode;
@@ -25,9 +27,10 @@ import edu.caltech.nanodb.plans.RenameNode;
 import edu.caltech.nanodb.plans.SelectNode;
 
 import edu.caltech.nanodb.plans.SimpleFilterNode;
-import edu.caltech.nanodb.plans.SortNode;
+import edu.caltech.nanodb.plans.TableFunctionScanNode;
 import edu.caltech.nanodb.relations.TableInfo;
 import edu.caltech.nanodb.storage.StorageManager;
+import edu.caltech.nanodb.transactions.TransactionManager;
 
 
 /**
@@ -111,6 +114,20 @@ public class SimplePlanner extends AbstractPlannerImpl {
         // Otherwise, put a select node above the current plan.
         Expression whereExpr = selClause.getWhereExpr();
         if (whereExpr != null) {
+            // If the query reads a single table, the predicate may allow the
+            // table to be read with an index lookup or a hash-key probe.
+            if (fromClause != null &&
+                fromClause.getClauseType() == FromClause.ClauseType.BASE_TABLE &&
+                !fromClause.isRenamed()) {
+                TableInfo tableInfo = storageManager.getTableManager().openTable(
+                    fromClause.getTableName());
+
+                ArrayList<Expression> conjuncts = new ArrayList<Expression>();
+                PredicateUtils.collectConjuncts(whereExpr, conjuncts);
+                plan = AccessPathSelector.makeAccessPath(storageManager,
+                    tableInfo, tableInfo.getSchema(), conjuncts);
+            }
+
             if (plan instanceof FileScanNode) {
                 FileScanNode fileScan = (FileScanNode) plan;
 
@@ -180,10 +197,8 @@ public class SimplePlanner extends AbstractPlannerImpl {
             plan = new ProjectNode(plan, selectValues);
         }
 
-        // Finally, apply any sorting at the end.
-        List<OrderByExpression> orderByExprs = selClause.getOrderByExprs();
-        if (!orderByExprs.isEmpty())
-            plan = new SortNode(plan, orderByExprs);
+        // Finally, apply any sorting and limits at the end.
+        plan = addOrderingAndLimitToPlan(plan, selClause);
 
         plan.prepare();
 
@@ -207,6 +222,11 @@ public class SimplePlanner extends AbstractPlannerImpl {
      *     constructed by a recursive call to {@link #makePlan}.
      *   </li>
      *   <li>
+     *     {@link edu.caltech.nanodb.commands.FromClause.ClauseType#TABLE_FUNCTION} -
+     *     the clause calls a table-returning function, so the function's
+     *     rows are produced by a {@link TableFunctionScanNode}.
+     *   </li>
+     *   <li>
      *     {@link edu.caltech.nanodb.commands.FromClause.ClauseType#JOIN_EXPR} -
      *     the clause is a join of two relations, so a join operation is created
      *     between the left and right children of the from-clause.  Plans for
@@ -231,12 +251,21 @@ public class SimplePlanner extends AbstractPlannerImpl {
         switch (clauseType) {
         case BASE_TABLE:
         case SELECT_SUBQUERY:
+        case TABLE_FUNCTION:
 
             if (clauseType == FromClause.ClauseType.SELECT_SUBQUERY) {
                 // This clause is a SQL subquery, so generate a plan from the
                 // subquery and return it.
                 plan = makePlan(fromClause.getSelectClause(), null);
             }
+            else if (clauseType == FromClause.ClauseType.TABLE_FUNCTION) {
+                // This clause is a table-returning function, which was
+                // looked up when the clause was prepared.
+                TableFunction function = fromClause.getPreparedFunction();
+                function.setStorageManager(storageManager);
+                plan = new TableFunctionScanNode(fromClause.getFunctionName(),
+                    function);
+            }
             else {
                 // This clause is a base-table, so we just generate a file-scan
                 // plan node for the table.
@@ -317,7 +346,13 @@ public class SimplePlanner extends AbstractPlannerImpl {
 
         // Make a SelectNode to read rows from the table, with the specified
         // predicate.
-        SelectNode selectNode = new FileScanNode(tableInfo, predicate);
+        FileScanNode selectNode = new FileScanNode(tableInfo, predicate);
+
+        // When transactions are enabled, the scan must lock what it reads.
+        TransactionManager txnManager = storageManager.getTransactionManager();
+        if (txnManager != null)
+            selectNode.setLockManager(txnManager.getLockManager());
+
         selectNode.prepare();
         return selectNode;
     }
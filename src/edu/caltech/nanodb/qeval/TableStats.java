@@ -3,8 +3,21 @@ package edu.caltech.nanodb.qeval;
 
 import java.util.ArrayList;
 
+import edu.caltech.nanodb.relations.Tuple;
 
-/** This class is a simple wrapper for table-file statistics. */
+
+/**
+ * This class is a simple wrapper for table-file statistics.
+ * <p>
+ * The stats are collected when the table is analyzed, and then kept current
+ * by the table file as tuples are added and removed:  the tuple and page
+ * counts are adjusted on every write, and if the whole table was analyzed,
+ * the distinct-value sketches of its columns are kept and updated with the
+ * values of new tuples.  The number of modifications since the table was
+ * analyzed is also counted, so that the table can be analyzed again once
+ * the incremental stats have drifted too far.  The update methods are
+ * synchronized, since tuples may be added by several sessions at once.
+ */
 public class TableStats {
 
     /**
@@ -28,12 +41,47 @@ public class TableStats {
     public float avgTupleSize;
 
 
+    /**
+     * The average fraction of the bytes of each data page that hold tuple
+     * data or slots, in the range [0, 1].  For hash files, this is the fill
+     * factor of the bucket pages.  This value isn't saved in the table file,
+     * so it is 0 unless the table has been analyzed since it was opened.
+     */
+    public float avgPageFill;
+
+
+    /**
+     * The average number of pages in each bucket's chain of pages, for hash
+     * files; 1 means that no bucket has overflowed.  This is 0 for other
+     * kinds of files.  This value isn't saved in the table file, so it is
+     * also 0 unless the table has been analyzed since it was opened.
+     */
+    public float avgChainLength;
+
+
     /**
      * This collection holds statistics about individual columns in the table.
      */
     private ArrayList<ColumnStats> columnStats;
 
 
+    /**
+     * The collectors that produced the column stats, which are kept so that
+     * their distinct-value sketches and minimum and maximum values can be
+     * updated as tuples are added.  This is <tt>null</tt> unless the whole
+     * table was analyzed since it was opened, since a sketch of a sample
+     * doesn't describe the rest of the table.
+     */
+    private ColumnStatsCollector[] sketches;
+
+
+    /**
+     * The number of tuples that have been added, changed or removed since the
+     * table was analyzed.  This value isn't saved in the table file.
+     */
+    private int numModifications;
+
+
     /**
      * Create a new table-statistics object with the stats set to the specified
      * values.  The array of column-statistics objects must have the same number
@@ -96,9 +144,115 @@ public class TableStats {
     }
 
 
+    /**
+     * Keeps the collectors that produced the column stats, so that the stats
+     * can be updated as tuples are added.  The collectors' samples are
+     * discarded, since they are only needed to construct the stats.
+     *
+     * @param sketches the collectors of the table's columns, in the same
+     *        order as the column stats
+     */
+    void setSketches(ColumnStatsCollector[] sketches) {
+        if (sketches.length != columnStats.size()) {
+            throw new IllegalArgumentException("Expected " +
+                columnStats.size() + " column collectors; got " +
+                sketches.length);
+        }
+
+        for (ColumnStatsCollector sketch : sketches)
+            sketch.discardSample();
+
+        this.sketches = sketches;
+    }
+
+
+    /**
+     * Returns the number of tuples that have been added, changed or removed
+     * since the table was analyzed, or since it was opened if it hasn't been
+     * analyzed since then.
+     *
+     * @return the number of modifications since the stats were collected
+     */
+    public synchronized int getNumModifications() {
+        return numModifications;
+    }
+
+
+    /**
+     * Updates the stats for a tuple that was added to the table file.
+     *
+     * @param tup the tuple that was added
+     * @param tupSize the number of bytes the tuple takes in the file
+     */
+    public synchronized void tupleAdded(Tuple tup, int tupSize) {
+        avgTupleSize = (avgTupleSize * numTuples + tupSize) / (numTuples + 1);
+        if (numTuples < Integer.MAX_VALUE)
+            numTuples++;
+
+        numModifications++;
+
+        for (int i = 0; i < columnStats.size(); i++) {
+            ColumnStats colStats = columnStats.get(i);
+            Object value = tup.getColumnValue(i);
+
+            if (value == null) {
+                if (colStats.getNumNullValues() >= 0)
+                    colStats.setNumNullValues(colStats.getNumNullValues() + 1);
+            }
+            else if (sketches != null) {
+                ColumnStatsCollector sketch = sketches[i];
+                sketch.addValue(value);
+                colStats.setNumUniqueValues(sketch.getNumUniqueValues());
+                colStats.setMinValue(sketch.getMinValue());
+                colStats.setMaxValue(sketch.getMaxValue());
+            }
+        }
+    }
+
+
+    /**
+     * Updates the stats for a tuple that was removed from the table file.
+     * The distinct-value counts and the minimum and maximum values can't be
+     * reduced, so they are left as they are until the table is analyzed
+     * again.
+     *
+     * @param tup the tuple that was removed
+     * @param tupSize the number of bytes the tuple took in the file
+     */
+    public synchronized void tupleRemoved(Tuple tup, int tupSize) {
+        if (numTuples > 1)
+            avgTupleSize = (avgTupleSize * numTuples - tupSize) / (numTuples - 1);
+
+        if (numTuples > 0)
+            numTuples--;
+
+        numModifications++;
+
+        for (int i = 0; i < columnStats.size(); i++) {
+            ColumnStats colStats = columnStats.get(i);
+            if (tup.isNullValue(i) && colStats.getNumNullValues() > 0)
+                colStats.setNumNullValues(colStats.getNumNullValues() - 1);
+        }
+    }
+
+
+    /** Records that a tuple of the table file was changed in place. */
+    public synchronized void tupleUpdated() {
+        numModifications++;
+    }
+
+
+    /** Records that a data page was added to the table file. */
+    public synchronized void pageAdded() {
+        numDataPages++;
+    }
+
+
     @Override
     public String toString() {
       return "TableStats[numDataPages=" + numDataPages + ", numTuples=" +
-        numTuples + ", avgTupleSize=" + avgTupleSize + "]";
+        numTuples + ", avgTupleSize=" + avgTupleSize + ", avgPageFill=" +
+        avgPageFill + ", avgChainLength=" + avgChainLength +
+        ", numModifications=" + numModifications + "]";
     }
 }
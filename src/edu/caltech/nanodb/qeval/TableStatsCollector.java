@@ -0,0 +1,224 @@
+package edu.caltech.nanodb.qeval;
+
+
+import java.util.ArrayList;
+
+import edu.caltech.nanodb.relations.ColumnType;
+import edu.caltech.nanodb.relations.Schema;
+import edu.caltech.nanodb.storage.DBPage;
+import edu.caltech.nanodb.storage.PageTuple;
+import edu.caltech.nanodb.storage.TableSample;
+
+
+/**
+ * This class collects the statistics of a table file while the file is
+ * analyzed, using a {@link ColumnStatsCollector} for each column.  Table
+ * files pass it the tuples, pages and (for hash files) bucket chains that
+ * they read, and it then constructs the {@link TableStats} of the file.
+ * If only a {@link TableSample sample} of the file was read, the stats are
+ * scaled up to the whole file.
+ */
+public class TableStatsCollector {
+
+    /** The types of the table's columns. */
+    private ColumnType[] colTypes;
+
+
+    /** The stats collectors of the table's columns. */
+    private ColumnStatsCollector[] collectors;
+
+
+    /** The number of tuples read. */
+    private int numTuples;
+
+
+    /** The total size of the tuples read, in bytes. */
+    private long totalTupleSize;
+
+
+    /** The number of data pages read. */
+    private int numPages;
+
+
+    /** The total number of bytes in the data pages read. */
+    private long totalPageBytes;
+
+
+    /** The number of bytes of the data pages read that are in use. */
+    private long usedPageBytes;
+
+
+    /** The number of bucket chains read. */
+    private int numChains;
+
+
+    /** The number of pages in the bucket chains read. */
+    private int numChainPages;
+
+
+    /**
+     * Initializes a new stats collector for a table with the specified
+     * schema.
+     *
+     * @param schema the schema of the table being analyzed
+     */
+    public TableStatsCollector(Schema schema) {
+        int numCols = schema.numColumns();
+        colTypes = new ColumnType[numCols];
+        collectors = new ColumnStatsCollector[numCols];
+        for (int i = 0; i < numCols; i++) {
+            colTypes[i] = schema.getColumnInfo(i).getType();
+            collectors[i] = new ColumnStatsCollector(colTypes[i].getBaseType());
+        }
+    }
+
+
+    /**
+     * Adds a tuple of the table to the stats.  Values of the numeric and
+     * string types are read straight from the tuple's page, so that
+     * analyzing a table doesn't create an object for every value.
+     *
+     * @param tup the tuple to add
+     */
+    public void addTuple(PageTuple tup) {
+        for (int iCol = 0; iCol < colTypes.length; iCol++)
+            addColumnValue(collectors[iCol], tup, iCol, colTypes[iCol]);
+
+        numTuples++;
+        totalTupleSize += tup.getSize();
+    }
+
+
+    /**
+     * Adds a data page of the table to the stats.
+     *
+     * @param pageSize the size of the page in bytes
+     * @param freeSpace the number of bytes in the page that aren't used
+     */
+    public void addPage(int pageSize, int freeSpace) {
+        numPages++;
+        totalPageBytes += pageSize;
+        usedPageBytes += pageSize - freeSpace;
+    }
+
+
+    /**
+     * Adds a bucket of a hash file to the stats.  The bucket's pages must be
+     * added separately with {@link #addPage}.
+     *
+     * @param chainLength the number of pages in the bucket's chain of pages
+     */
+    public void addChain(int chainLength) {
+        numChains++;
+        numChainPages += chainLength;
+    }
+
+
+    /**
+     * Returns the number of tuples that have been added to the stats.
+     *
+     * @return the number of tuples that have been added to the stats
+     */
+    public int getNumTuples() {
+        return numTuples;
+    }
+
+
+    /**
+     * Constructs the stats of the table file.  This may only be called
+     * once, since the stats of a whole file take over its column collectors.
+     *
+     * @param numDataPages the number of data pages in the whole file
+     *
+     * @param sampleFraction the fraction of the file's tuples that were
+     *        added to this collector, in the range (0, 1]; this is 1 if the
+     *        whole file was read
+     *
+     * @return the stats of the table file
+     */
+    public TableStats getTableStats(int numDataPages, double sampleFraction) {
+        ArrayList<ColumnStats> colStats = new ArrayList<ColumnStats>();
+        for (ColumnStatsCollector collector : collectors)
+            colStats.add(collector.getColumnStats(sampleFraction));
+
+        long totalTuples = Math.round(numTuples / sampleFraction);
+        float avgTupleSize =
+            (numTuples > 0) ? (float) totalTupleSize / numTuples : 0;
+
+        TableStats stats = new TableStats(numDataPages,
+            (int) Math.min(totalTuples, Integer.MAX_VALUE), avgTupleSize,
+            colStats);
+
+        if (numPages > 0)
+            stats.avgPageFill = (float) usedPageBytes / totalPageBytes;
+
+        if (numChains > 0)
+            stats.avgChainLength = (float) numChainPages / numChains;
+
+        // The sketches of the whole file can be kept up to date as tuples
+        // are added.
+        if (sampleFraction >= 1)
+            stats.setSketches(collectors);
+
+        return stats;
+    }
+
+
+    /** Adds a column value of a tuple to the column's stats collector. */
+    private static void addColumnValue(ColumnStatsCollector collector,
+        PageTuple tup, int iCol, ColumnType colType) {
+
+        int offset = tup.getColumnOffset(iCol);
+        if (offset == PageTuple.NULL_OFFSET) {
+            collector.addNull();
+            return;
+        }
+
+        DBPage dbPage = tup.getDBPage();
+        switch (colType.getBaseType()) {
+        case INTEGER:
+            collector.addLong(dbPage.readInt(offset));
+            break;
+
+        case SMALLINT:
+            collector.addLong(dbPage.readShort(offset));
+            break;
+
+        case BIGINT:
+            collector.addLong(dbPage.readLong(offset));
+            break;
+
+        case TINYINT:
+            collector.addLong(dbPage.readByte(offset));
+            break;
+
+        case FLOAT:
+            collector.addDouble(dbPage.readFloat(offset));
+            break;
+
+        case DOUBLE:
+            collector.addDouble(dbPage.readDouble(offset));
+            break;
+
+        case CHAR: {
+            // Fixed-size strings are padded with 0-bytes, which aren't part
+            // of the value.
+            byte[] data = dbPage.getPageData();
+            int len = colType.getLength();
+            while (len > 0 && data[offset + len - 1] == 0)
+                len--;
+
+            collector.addString(data, offset, len);
+            break;
+        }
+
+        case VARCHAR:
+            collector.addString(dbPage.getPageData(), offset + 2,
+                dbPage.readUnsignedShort(offset));
+            break;
+
+        default:
+            collector.addValue(tup.getColumnValue(iCol));
+        }
+    }
+}
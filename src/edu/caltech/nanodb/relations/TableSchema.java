@@ -54,6 +54,37 @@ public class TableSchema extends Schema {
         new HashMap<String, ColumnRefs>();
 
 
+    /**
+     * This flag is true if the table's tuples carry version information for
+     * multi-version concurrency control.  Each stored tuple then records the
+     * IDs of the transactions that created and deleted it.
+     */
+    private boolean versioned;
+
+
+    /**
+     * Returns true if the table's tuples carry version information for
+     * multi-version concurrency control.
+     *
+     * @return true if the table's tuples are versioned
+     */
+    public boolean isVersioned() {
+        return versioned;
+    }
+
+
+    /**
+     * Specifies whether the table's tuples carry version information.  This
+     * must be set before any tuples are stored in the table, since it
+     * changes the storage layout of every tuple.
+     *
+     * @param versioned true if the table's tuples are versioned
+     */
+    public void setVersioned(boolean versioned) {
+        this.versioned = versioned;
+    }
+
+
     /**
      * Adds a column with given index to list of NOT NULL constrained columns.
      *
@@ -16,12 +16,16 @@ import edu.caltech.nanodb.client.SessionState;
 import org.apache.log4j.Logger;
 
 import edu.caltech.nanodb.commands.Command;
+import edu.caltech.nanodb.commands.ExecuteCommand;
 import edu.caltech.nanodb.commands.ExitCommand;
 import edu.caltech.nanodb.commands.SelectCommand;
 
 import edu.caltech.nanodb.sqlparse.NanoSqlLexer;
 import edu.caltech.nanodb.sqlparse.NanoSqlParser;
 
+import edu.caltech.nanodb.transactions.TransactionException;
+import edu.caltech.nanodb.transactions.TransactionManager;
+
 
 /**
  * This class handles a connection from a single client to the database
@@ -158,6 +162,39 @@ public class ClientHandler implements Runnable {
             logger.error(String.format(
                 "Couldn't establish communication with client %d!%n", id), e);
         }
+        finally {
+            rollbackOpenTransaction();
+            SessionState.remove();
+        }
+    }
+
+
+    /**
+     * Rolls back any transaction the client left open when it disconnected,
+     * so that its locks are released.
+     */
+    private void rollbackOpenTransaction() {
+        TransactionManager txnManager =
+            server.getStorageManager().getTransactionManager();
+
+        if (txnManager == null ||
+            !SessionState.get().getTxnState().isTxnInProgress()) {
+            return;
+        }
+
+        logger.info(String.format(
+            "Client %d left a transaction open; rolling it back.", id));
+
+        try {
+            txnManager.rollbackTransaction();
+        }
+        catch (TransactionException e) {
+            logger.error(String.format("Couldn't roll back transaction of " +
+                "client %d!", id), e);
+        }
+        finally {
+            server.getStorageManager().getBufferManager().unpinAllSessionPages();
+        }
     }
 
 
@@ -178,13 +215,18 @@ public class ClientHandler implements Runnable {
             SelectCommand selCmd = (SelectCommand) cmd;
             selCmd.setTupleProcessor(tupleSender);
         }
-
-        try {
-            cmd.execute(server.getStorageManager());
+        else if (cmd instanceof ExecuteCommand) {
+            // A prepared SELECT statement also sends its tuples back.
+            ((ExecuteCommand) cmd).setTupleProcessor(tupleSender);
         }
-        catch (Exception e) {
-            logger.error("Encountered error during command execution", e);
-            objectOutput.writeObject(e);
+
+        // Run the command through the server so that the command-event
+        // listeners manage the transaction (and its locks) around it.
+        CommandResult result = server.doCommand(cmd, false);
+        if (result.failed()) {
+            logger.error("Encountered error during command execution",
+                result.getFailure());
+            objectOutput.writeObject(result.getFailure());
         }
 
         objectOutput.flush();
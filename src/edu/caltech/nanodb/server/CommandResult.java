@@ -1,6 +1,7 @@
 package edu.caltech.nanodb.server;
 
 
+import edu.caltech.nanodb.commands.ExecuteCommand;
 import edu.caltech.nanodb.commands.SelectCommand;
 import edu.caltech.nanodb.expressions.TupleLiteral;
 import edu.caltech.nanodb.qeval.TupleProcessor;
@@ -91,6 +92,18 @@ public class CommandResult implements Serializable {
     }
 
 
+    /**
+     * Collects the results of a prepared statement, if it is a
+     * <tt>SELECT</tt> statement.
+     *
+     * @param command the command that executes the prepared statement
+     */
+    public void collectSelectResults(ExecuteCommand command) {
+        tuples = new ArrayList<TupleLiteral>();
+        command.setTupleProcessor(new ResultCollector());
+    }
+
+
     public void recordFailure(Exception e) {
         if (e == null)
             throw new IllegalArgumentException("t cannot be null");
@@ -45,6 +45,11 @@ public class EventDispatcher {
     }
 
 
+    public void removeCommandEventListener(CommandEventListener listener) {
+        commandEventListeners.remove(listener);
+    }
+
+
     /**
      *
      * @param cmd the command that is about to be executed
@@ -70,6 +75,11 @@ public class EventDispatcher {
     }
 
 
+    public void removeRowEventListener(RowEventListener listener) {
+        rowEventListeners.remove(listener);
+    }
+
+
     public void fireBeforeRowInserted(TableInfo tblFileInfo,
                                       Tuple newValues) {
         logger.debug("Firing beforeRowInserted");
@@ -7,17 +7,26 @@ import java.util.ArrayList;
 import java.util.List;
 
 import edu.caltech.nanodb.qeval.PlannerFactory;
+import edu.caltech.nanodb.server.performance.MetricsDumper;
+import edu.caltech.nanodb.server.performance.MetricsRegistry;
 import edu.caltech.nanodb.server.properties.PropertyRegistry;
 import org.apache.log4j.Logger;
 
 import antlr.RecognitionException;
 import antlr.TokenStreamException;
 
+import edu.caltech.nanodb.client.SessionState;
 import edu.caltech.nanodb.commands.Command;
+import edu.caltech.nanodb.commands.ExecuteCommand;
+import edu.caltech.nanodb.commands.ExecutionException;
+import edu.caltech.nanodb.commands.PreparedStatement;
+import edu.caltech.nanodb.commands.QueryCommand;
 import edu.caltech.nanodb.commands.SelectCommand;
+import edu.caltech.nanodb.expressions.ParameterValue;
 import edu.caltech.nanodb.sqlparse.NanoSqlLexer;
 import edu.caltech.nanodb.sqlparse.NanoSqlParser;
 import edu.caltech.nanodb.storage.StorageManager;
+import edu.caltech.nanodb.transactions.TransactionManager;
 
 
 /**
@@ -37,6 +46,14 @@ public class NanoDBServer {
     private StorageManager storageManager;
 
 
+    /** The cache of the query commands run from their text. */
+    private PlanCache planCache;
+
+
+    /** Writes the metrics to the log periodically, if configured to. */
+    private MetricsDumper metricsDumper;
+
+
     /**
      * This static method encapsulates all of the operations necessary for
      * cleanly starting the NanoDB server.
@@ -50,6 +67,9 @@ public class NanoDBServer {
         storageManager = new StorageManager();
         storageManager.initialize(null);  // Use default base directory.
 
+        planCache = new PlanCache();
+        EventDispatcher.getInstance().addCommandEventListener(planCache);
+
         // Register properties that are in parts of NanoDB that don't get
         // specifically initialized.
 
@@ -58,6 +78,9 @@ public class NanoDBServer {
         propReg.registerProperties(
             new PlannerFactory.PlannerFactoryPropertyHandler(),
             PlannerFactory.PROP_PLANNER_CLASS);
+
+        metricsDumper = new MetricsDumper();
+        metricsDumper.start();
     }
 
 
@@ -66,6 +89,11 @@ public class NanoDBServer {
     }
 
 
+    public PlanCache getPlanCache() {
+        return planCache;
+    }
+
+
     public Command parseCommand(String command)
         throws RecognitionException, TokenStreamException {
 
@@ -93,8 +121,79 @@ public class NanoDBServer {
     public CommandResult doCommand(String command, boolean includeTuples)
         throws RecognitionException, TokenStreamException {
 
-        Command parsedCommand = parseCommand(command);
-        return doCommand(parsedCommand, includeTuples);
+        return doCommand(command, null, includeTuples);
+    }
+
+
+    /**
+     * Runs a command with values for its parameters, which are written as
+     * <tt>?</tt> in the command.  <tt>SELECT</tt> commands and commands with
+     * parameters are kept in the plan cache, so running the same command
+     * text again only binds the values of the parameters, without parsing
+     * or planning the command again.  Other commands, such as
+     * <tt>INSERT</tt>s of literal values, are rarely run again, so they are
+     * executed without being cached.
+     *
+     * @param command the text of the command
+     * @param params the values of the command's parameters, in order, or
+     *        {@code null} if the command has no parameters
+     * @param includeTuples true if the results of a <tt>SELECT</tt> command
+     *        should be collected in the command result
+     *
+     * @return the result of the command
+     *
+     * @throws RecognitionException if the command couldn't be parsed
+     * @throws TokenStreamException if the command couldn't be parsed
+     */
+    public CommandResult doCommand(String command, List<?> params,
+        boolean includeTuples) throws RecognitionException, TokenStreamException {
+
+        String key = PlanCache.normalize(command);
+        PreparedStatement stmt = planCache.acquire(key);
+        if (stmt == null) {
+            StringReader strReader = new StringReader(command);
+            NanoSqlLexer lexer = new NanoSqlLexer(strReader);
+            NanoSqlParser parser = new NanoSqlParser(lexer);
+
+            Command parsedCommand = parser.command();
+            if (!(parsedCommand instanceof QueryCommand)) {
+                // Only query commands are worth caching, and only they can
+                // be given values for parameters.
+                if (params != null && !params.isEmpty()) {
+                    CommandResult result = new CommandResult();
+                    result.recordFailure(new ExecutionException(
+                        "Only query commands can have parameters"));
+                    return result;
+                }
+
+                return doCommand(parsedCommand, includeTuples);
+            }
+
+            List<ParameterValue> paramValues = parser.getParameters();
+            if (!(parsedCommand instanceof SelectCommand) &&
+                paramValues.isEmpty()) {
+                // Caching one-off commands would only push the plans that
+                // are run again out of the cache.
+                if (params == null || params.isEmpty())
+                    return doCommand(parsedCommand, includeTuples);
+
+                // Let the statement report the wrong number of values.
+                return doCommand(new PreparedStatement(parsedCommand,
+                    paramValues, command), params, includeTuples);
+            }
+
+            stmt = new PreparedStatement(parsedCommand, paramValues, command);
+        }
+        else {
+            logger.debug("Using the cached plan of command:  " + key);
+        }
+
+        try {
+            return doCommand(stmt, params, includeTuples);
+        }
+        finally {
+            planCache.release(key, stmt);
+        }
     }
 
 
@@ -120,26 +219,75 @@ public class NanoDBServer {
 
 
     public CommandResult doCommand(Command command, boolean includeTuples) {
+        return doCommand(command, null, null, includeTuples);
+    }
+
+
+    /**
+     * Executes a prepared statement with values for its parameters.
+     *
+     * @param stmt the prepared statement
+     * @param params the values of the statement's parameters, in order, or
+     *        {@code null} if the statement has no parameters
+     * @param includeTuples true if the results of a <tt>SELECT</tt> statement
+     *        should be collected in the command result
+     *
+     * @return the result of the statement
+     */
+    public CommandResult doCommand(PreparedStatement stmt, List<?> params,
+                                   boolean includeTuples) {
+        Command command = stmt.getCommand();
+        if (!includeTuples && command instanceof SelectCommand) {
+            // Don't send the results to the collector of an earlier run.
+            ((SelectCommand) command).setTupleProcessor(null);
+        }
+
+        return doCommand(command, stmt, params, includeTuples);
+    }
+
+
+    private CommandResult doCommand(Command command, PreparedStatement stmt,
+                                    List<?> params, boolean includeTuples) {
         CommandResult result = new CommandResult();
 
         if (includeTuples && command instanceof SelectCommand)
             result.collectSelectResults((SelectCommand) command);
+        else if (includeTuples && command instanceof ExecuteCommand)
+            result.collectSelectResults((ExecuteCommand) command);
 
         EventDispatcher eventDispatch = EventDispatcher.getInstance();
+        SessionState session = SessionState.get();
+        session.commandStarted(getCommandName(command));
+        long start = System.nanoTime();
         result.startExecution();
         try {
             // Execute the command, but fire before- and after-command handlers
             // when we execute it.
 
             eventDispatch.fireBeforeCommandExecuted(command);
-            command.execute(storageManager);
+            if (stmt != null) {
+                stmt.bind(params);
+                stmt.execute(storageManager);
+            }
+            else {
+                command.execute(storageManager);
+            }
             eventDispatch.fireAfterCommandExecuted(command);
         }
         catch (Exception e) {
             logger.error("Command threw an exception!", e);
             result.recordFailure(e);
+
+            // The failed command's transaction may still be open, holding
+            // locks that other sessions are waiting on.
+            TransactionManager txnManager = storageManager.getTransactionManager();
+            if (txnManager != null)
+                txnManager.handleCommandFailure(e);
         }
         result.endExecution();
+        session.commandFinished();
+        MetricsRegistry.getInstance().histogram(
+            getLatencyMetricName(command)).recordSince(start);
 
         // Post-command cleanup:
         storageManager.getBufferManager().unpinAllSessionPages();
@@ -158,6 +306,28 @@ public class NanoDBServer {
     }
 
 
+    /**
+     * Returns the name of the histogram of the latencies of a kind of
+     * command, such as <tt>command.select.latency</tt>.
+     */
+    private static String getLatencyMetricName(Command command) {
+        return "command." + getCommandName(command).toLowerCase() + ".latency";
+    }
+
+
+    /**
+     * Returns the name of the kind of a command, such as <tt>SELECT</tt>,
+     * which is the name of its class without the <tt>Command</tt> suffix.
+     */
+    private static String getCommandName(Command command) {
+        String name = command.getClass().getSimpleName();
+        if (name.endsWith("Command"))
+            name = name.substring(0, name.length() - "Command".length());
+
+        return name.toUpperCase();
+    }
+
+
     /**
      * This method encapsulates all of the operations necessary for cleanly
      * shutting down the NanoDB server.
@@ -170,6 +340,11 @@ public class NanoDBServer {
 
         PropertyRegistry.getInstance().unregisterAllProperties();
 
+        EventDispatcher.getInstance().removeCommandEventListener(planCache);
+
+        if (metricsDumper != null)
+            metricsDumper.stop();
+
         try {
             storageManager.shutdown();
         }
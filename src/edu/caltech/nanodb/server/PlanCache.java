@@ -0,0 +1,181 @@
+package edu.caltech.nanodb.server;
+
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import edu.caltech.nanodb.commands.Command;
+import edu.caltech.nanodb.commands.PreparedStatement;
+
+
+/**
+ * This class caches the parsed and planned <tt>SELECT</tt> commands and
+ * commands with parameters that are run through
+ * {@link NanoDBServer#doCommand(String, boolean)}, so that running the same
+ * command text again neither parses nor plans it.  Commands are
+ * keyed by their {@link #normalize normalized} text, and are kept as
+ * {@link PreparedStatement}s, which plan the command again when the schema
+ * version or the stats of the tables they read have changed significantly.
+ * The least recently used commands are evicted once the cache holds more
+ * than {@link #PROP_SIZE} commands.
+ * <p>
+ * A cached command can only be executed by one session at a time, so it is
+ * removed from the cache with {@link #acquire} while it is executing, and
+ * put back with {@link #release} afterward.  A session that runs the same
+ * text in the meantime parses and plans its own copy.
+ * <p>
+ * This class is also a {@link CommandEventListener}, which records that the
+ * schema changed and empties the cache after every DDL command.  It is
+ * installed by {@link NanoDBServer#startup}.
+ */
+public class PlanCache implements CommandEventListener {
+
+    /**
+     * This property can be used to specify the largest number of commands
+     * that are cached.  A size of 0 turns the cache off.
+     */
+    public static final String PROP_SIZE = "nanodb.plancache.size";
+
+
+    /** The default is to cache up to 1000 commands. */
+    public static final int DEFAULT_SIZE = 1000;
+
+
+    /** The cached commands, from least to most recently used. */
+    private LinkedHashMap<String, PreparedStatement> statements =
+        new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                Map.Entry<String, PreparedStatement> eldest) {
+                return size() > getMaxSize();
+            }
+        };
+
+
+    /**
+     * Returns the largest number of commands the cache holds, as specified by
+     * the {@link #PROP_SIZE} property.
+     *
+     * @return the largest number of commands the cache holds
+     */
+    public static int getMaxSize() {
+        return Math.max(0, Integer.getInteger(PROP_SIZE, DEFAULT_SIZE));
+    }
+
+
+    /**
+     * Normalizes the text of a command, so that texts that only differ in
+     * whitespace, in the case of keywords and unquoted identifiers, or in
+     * trailing semicolons have the same key.  The contents of string
+     * literals, quoted identifiers and comments are kept as they are, and so
+     * is the newline that ends a comment.
+     *
+     * @param command the text of a command
+     *
+     * @return the normalized text of the command
+     */
+    public static String normalize(String command) {
+        StringBuilder buf = new StringBuilder(command.length());
+        char quote = 0;
+        boolean comment = false;
+        boolean space = false;
+
+        for (int i = 0; i < command.length(); i++) {
+            char ch = command.charAt(i);
+
+            if (quote != 0) {
+                buf.append(ch);
+                if (ch == quote)
+                    quote = 0;
+            }
+            else if (comment) {
+                buf.append(ch);
+                if (ch == '\n')
+                    comment = false;
+            }
+            else if (Character.isWhitespace(ch)) {
+                space = true;
+            }
+            else {
+                if (space && buf.length() > 0)
+                    buf.append(' ');
+                space = false;
+
+                if (ch == '\'' || ch == '"')
+                    quote = ch;
+                else if (ch == '-' && i + 1 < command.length() &&
+                         command.charAt(i + 1) == '-')
+                    comment = true;
+
+                buf.append(Character.toLowerCase(ch));
+            }
+        }
+
+        // Trailing semicolons don't change the command.
+        int end = buf.length();
+        while (end > 0 && (buf.charAt(end - 1) == ';' ||
+                           buf.charAt(end - 1) == ' ')) {
+            end--;
+        }
+        buf.setLength(end);
+
+        return buf.toString();
+    }
+
+
+    /**
+     * Removes the command with the specified key from the cache, so that the
+     * caller can execute it.  The command should be put back with
+     * {@link #release} after it is executed.
+     *
+     * @param key the normalized text of the command
+     *
+     * @return the cached command, or {@code null} if the command isn't cached
+     */
+    public synchronized PreparedStatement acquire(String key) {
+        return statements.remove(key);
+    }
+
+
+    /**
+     * Puts a command into the cache after it has been executed.
+     *
+     * @param key the normalized text of the command
+     * @param stmt the command
+     */
+    public synchronized void release(String key, PreparedStatement stmt) {
+        if (getMaxSize() > 0)
+            statements.put(key, stmt);
+    }
+
+
+    /**
+     * Returns the number of commands in the cache.
+     *
+     * @return the number of commands in the cache
+     */
+    public synchronized int size() {
+        return statements.size();
+    }
+
+
+    /** Empties the cache. */
+    public synchronized void clear() {
+        statements.clear();
+    }
+
+
+    @Override
+    public void beforeCommandExecuted(Command cmd) throws EventDispatchException {
+        // Ignore.
+    }
+
+
+    @Override
+    public void afterCommandExecuted(Command cmd) throws EventDispatchException {
+        if (cmd.getType() == Command.Type.DDL) {
+            PreparedStatement.schemaChanged();
+            clear();
+        }
+    }
+}
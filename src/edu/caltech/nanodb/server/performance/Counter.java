@@ -0,0 +1,79 @@
+package edu.caltech.nanodb.server.performance;
+
+
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * A counter of events, such as pages read or bytes written.  Counters are
+ * 64 bits, and are updated with a {@link LongAdder}, so that threads that
+ * update the same counter at once don't contend on one memory location.
+ * Code that updates a counter should look it up in the
+ * {@link MetricsRegistry} once and keep it, rather than looking it up by
+ * name for every update.
+ */
+public class Counter extends Metric {
+
+    /** The count of events. */
+    private LongAdder count = new LongAdder();
+
+
+    public Counter(String name) {
+        super(name);
+    }
+
+
+    @Override
+    public Type getType() {
+        return Type.COUNTER;
+    }
+
+
+    /** Adds one to the counter. */
+    public void inc() {
+        count.increment();
+    }
+
+
+    /**
+     * Adds a value to the counter.
+     *
+     * @param value the value to add
+     */
+    public void add(long value) {
+        count.add(value);
+    }
+
+
+    /**
+     * Returns the current value of the counter.  Updates that are made
+     * while the counter is read may or may not be included.
+     *
+     * @return the current value of the counter
+     */
+    public long get() {
+        return count.sum();
+    }
+
+
+    /**
+     * Returns the current value of the counter and sets it to zero.
+     *
+     * @return the value of the counter before it was reset
+     */
+    public long getAndReset() {
+        return count.sumThenReset();
+    }
+
+
+    @Override
+    public void reset() {
+        count.reset();
+    }
+
+
+    @Override
+    public String describeValue() {
+        return Long.toString(get());
+    }
+}
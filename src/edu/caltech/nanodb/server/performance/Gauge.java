@@ -0,0 +1,42 @@
+package edu.caltech.nanodb.server.performance;
+
+
+/**
+ * A metric whose value is computed when it is read, such as the hit ratio
+ * of the buffer manager or the number of bytes it holds.  Gauges are
+ * registered with {@link MetricsRegistry#addGauge}, usually as anonymous
+ * subclasses that implement {@link #getValue}.
+ */
+public abstract class Gauge extends Metric {
+
+    protected Gauge(String name) {
+        super(name);
+    }
+
+
+    @Override
+    public Type getType() {
+        return Type.GAUGE;
+    }
+
+
+    /**
+     * Computes the current value of the gauge.
+     *
+     * @return the current value of the gauge
+     */
+    public abstract double getValue();
+
+
+    /** A gauge doesn't accumulate anything, so it can't be reset. */
+    @Override
+    public void reset() {
+        // Nothing to reset.
+    }
+
+
+    @Override
+    public String describeValue() {
+        return String.format("%.4f", getValue());
+    }
+}
@@ -0,0 +1,215 @@
+package edu.caltech.nanodb.server.performance;
+
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * A histogram of non-negative values, such as latencies in nanoseconds or the
+ * lengths of bucket chains.  Like an HDR histogram, it keeps a fixed number
+ * of buckets whose width grows with the values they hold, so that any
+ * percentile it reports is within about 3% of the actual value, no matter
+ * how large the values are.
+ * <p>
+ * Values less than {@link #SUB_BUCKETS} * 2 each have their own bucket.
+ * Above that, each power of two is divided into {@link #SUB_BUCKETS} buckets
+ * of equal width.  Recording a value only finds its bucket with a few shifts
+ * and increments it, so histograms can be updated from many threads at once
+ * without locking.
+ */
+public class Histogram extends Metric {
+
+    /** The number of buckets that each power of two is divided into. */
+    public static final int SUB_BUCKETS = 32;
+
+
+    /** The log base 2 of {@link #SUB_BUCKETS}. */
+    private static final int SUB_BUCKET_BITS = 5;
+
+
+    /**
+     * The number of buckets, which is enough for every non-negative
+     * <tt>long</tt> value.
+     */
+    private static final int NUM_BUCKETS =
+        (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+
+    /** The count of values in each bucket. */
+    private AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+
+
+    /** The number of values that were recorded. */
+    private LongAdder count = new LongAdder();
+
+
+    /** The sum of the values that were recorded. */
+    private LongAdder sum = new LongAdder();
+
+
+    /** The largest value that was recorded. */
+    private AtomicLong max = new AtomicLong();
+
+
+    public Histogram(String name) {
+        super(name);
+    }
+
+
+    @Override
+    public Type getType() {
+        return Type.HISTOGRAM;
+    }
+
+
+    /**
+     * Returns the index of the bucket that holds a value.
+     *
+     * @param value a non-negative value
+     *
+     * @return the index of the bucket that holds the value
+     */
+    static int getBucketIndex(long value) {
+        if (value < 2 * SUB_BUCKETS)
+            return (int) value;
+
+        // The position of the highest 1 bit, which is at least 6.
+        int exp = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exp - SUB_BUCKET_BITS)) - SUB_BUCKETS;
+        return (exp - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+
+    /**
+     * Returns the largest value that a bucket holds.
+     *
+     * @param index the index of the bucket
+     *
+     * @return the largest value that the bucket holds
+     */
+    static long getBucketUpperBound(int index) {
+        if (index < 2 * SUB_BUCKETS)
+            return index;
+
+        int exp = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = index % SUB_BUCKETS + SUB_BUCKETS;
+        int shift = exp - SUB_BUCKET_BITS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+
+    /**
+     * Records a value.  Negative values are recorded as zero.
+     *
+     * @param value the value to record
+     */
+    public void record(long value) {
+        if (value < 0)
+            value = 0;
+
+        buckets.incrementAndGet(getBucketIndex(value));
+        count.increment();
+        sum.add(value);
+
+        long oldMax = max.get();
+        while (value > oldMax && !max.compareAndSet(oldMax, value))
+            oldMax = max.get();
+    }
+
+
+    /**
+     * Records the time since a call to {@link System#nanoTime}, in
+     * nanoseconds.
+     *
+     * @param startNanos the value that {@link System#nanoTime} returned at
+     *        the start of what is being timed
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+
+    public long getCount() {
+        return count.sum();
+    }
+
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+
+    public long getMax() {
+        return max.get();
+    }
+
+
+    /**
+     * Returns the mean of the values that were recorded.
+     *
+     * @return the mean of the values, or 0 if no values were recorded
+     */
+    public double getMean() {
+        long n = getCount();
+        return (n == 0) ? 0 : (double) getSum() / n;
+    }
+
+
+    /**
+     * Returns an approximation of a percentile of the values that were
+     * recorded.  The approximation is the largest value in the bucket that
+     * holds the percentile, but no more than the largest value that was
+     * recorded.
+     *
+     * @param percentile the percentile, from 0 to 100
+     *
+     * @return an approximation of the percentile, or 0 if no values were
+     *         recorded
+     */
+    public long getPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException(
+                "percentile must be in the range [0, 100]; got " + percentile);
+        }
+
+        // The count is read separately from the buckets, so values that are
+        // recorded meanwhile may make them disagree slightly.
+        long n = getCount();
+        if (n == 0)
+            return 0;
+
+        long rank = (long) Math.ceil(percentile / 100.0 * n);
+        if (rank < 1)
+            rank = 1;
+
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank)
+                return Math.min(getBucketUpperBound(i), getMax());
+        }
+
+        return getMax();
+    }
+
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < NUM_BUCKETS; i++)
+            buckets.set(i, 0);
+
+        count.reset();
+        sum.reset();
+        max.set(0);
+    }
+
+
+    @Override
+    public String describeValue() {
+        return String.format("count=%d, mean=%.1f, p50=%d, p95=%d, p99=%d, " +
+            "max=%d", getCount(), getMean(), getPercentile(50),
+            getPercentile(95), getPercentile(99), getMax());
+    }
+}
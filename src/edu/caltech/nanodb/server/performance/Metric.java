@@ -0,0 +1,66 @@
+package edu.caltech.nanodb.server.performance;
+
+
+/**
+ * This is the base class of the metrics kept in the {@link MetricsRegistry}.
+ * Each metric has a dotted name, such as <tt>storage.pagesRead</tt>, whose
+ * first part names the part of the database that updates it.
+ */
+public abstract class Metric {
+
+    /** The kinds of metrics. */
+    public enum Type {
+        /** A count of events, which only goes up until it is reset. */
+        COUNTER,
+
+        /** A value that is computed when it is read. */
+        GAUGE,
+
+        /** A distribution of values, such as latencies. */
+        HISTOGRAM
+    }
+
+
+    /** The name of the metric. */
+    private String name;
+
+
+    protected Metric(String name) {
+        if (name == null)
+            throw new IllegalArgumentException("name cannot be null");
+
+        this.name = name;
+    }
+
+
+    public String getName() {
+        return name;
+    }
+
+
+    /**
+     * Returns the kind of this metric.
+     *
+     * @return the kind of this metric
+     */
+    public abstract Type getType();
+
+
+    /** Starts the metric over, if it accumulates values. */
+    public abstract void reset();
+
+
+    /**
+     * Returns a description of the metric's current value, which is used
+     * when the metrics are dumped as text.
+     *
+     * @return a description of the metric's current value
+     */
+    public abstract String describeValue();
+
+
+    @Override
+    public String toString() {
+        return name + " = " + describeValue();
+    }
+}
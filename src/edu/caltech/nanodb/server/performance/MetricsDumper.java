@@ -0,0 +1,129 @@
+package edu.caltech.nanodb.server.performance;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import org.apache.log4j.Logger;
+
+
+/**
+ * This class writes the current value of every metric in the
+ * {@link MetricsRegistry} to the log periodically, as specified by the
+ * {@link #PROP_DUMP_INTERVAL} property, so that the metrics of a server can
+ * be followed over time.  The dump runs on a daemon thread, and is logged at
+ * the <tt>INFO</tt> level.
+ */
+public class MetricsDumper implements Runnable {
+    /** A logging object for reporting anything interesting that happens. */
+    private static Logger logger = Logger.getLogger(MetricsDumper.class);
+
+
+    /**
+     * This property specifies how often the metrics are dumped, in seconds.
+     * An interval of 0 doesn't dump them.
+     */
+    public static final String PROP_DUMP_INTERVAL = "nanodb.metrics.dumpInterval";
+
+
+    /** The default is to not dump the metrics. */
+    public static final int DEFAULT_DUMP_INTERVAL = 0;
+
+
+    /** The interval between dumps, in milliseconds. */
+    private long intervalMillis;
+
+
+    /** The thread that dumps the metrics, or <tt>null</tt> if not started. */
+    private Thread thread;
+
+
+    /** Set to true to make the thread stop. */
+    private volatile boolean stopping;
+
+
+    /**
+     * Creates a dumper with the interval specified by the
+     * {@link #PROP_DUMP_INTERVAL} property.
+     */
+    public MetricsDumper() {
+        this(1000L * Integer.getInteger(PROP_DUMP_INTERVAL,
+            DEFAULT_DUMP_INTERVAL));
+    }
+
+
+    /**
+     * Creates a dumper with the specified interval.
+     *
+     * @param intervalMillis the interval between dumps, in milliseconds, or
+     *        0 to not dump the metrics
+     */
+    public MetricsDumper(long intervalMillis) {
+        this.intervalMillis = intervalMillis;
+    }
+
+
+    /**
+     * Starts the thread that dumps the metrics, unless the interval is 0.
+     */
+    public synchronized void start() {
+        if (intervalMillis <= 0 || thread != null)
+            return;
+
+        logger.info("Dumping metrics every " + intervalMillis + " ms");
+        stopping = false;
+        thread = new Thread(this, "MetricsDumper");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+
+    /**
+     * Stops the thread that dumps the metrics, if it was started, and waits
+     * for it to finish.
+     */
+    public synchronized void stop() {
+        if (thread == null)
+            return;
+
+        stopping = true;
+        thread.interrupt();
+        try {
+            thread.join();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+
+    @Override
+    public void run() {
+        while (!stopping) {
+            try {
+                Thread.sleep(intervalMillis);
+            }
+            catch (InterruptedException e) {
+                // Woken up to stop.
+                break;
+            }
+
+            logger.info("Metrics:\n" + dumpToString());
+        }
+    }
+
+
+    /**
+     * Returns the current value of every metric as text, one per line.
+     *
+     * @return the current value of every metric
+     */
+    public static String dumpToString() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(baos);
+        MetricsRegistry.getInstance().dump(out);
+        out.flush();
+        return baos.toString();
+    }
+}
@@ -0,0 +1,172 @@
+package edu.caltech.nanodb.server.performance;
+
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * This class holds the metrics of the database, by name.  Code that updates
+ * a metric should look it up once, usually into a <tt>static final</tt>
+ * field, and then update the metric object directly, so that updating it
+ * doesn't cost a map lookup:
+ *
+ * <pre>
+ *     private static final Counter pagesRead =
+ *         MetricsRegistry.getInstance().counter("storage.pagesRead");
+ * </pre>
+ *
+ * The metrics can be read with the <tt>SYS_METRICS()</tt> table function
+ * and the <tt>PERF_COUNTER()</tt> function, and can be written to the log
+ * periodically by the {@link MetricsDumper}.
+ */
+public class MetricsRegistry {
+
+    /** The singleton instance of the registry. */
+    private static MetricsRegistry instance = new MetricsRegistry();
+
+
+    /**
+     * Returns the singleton instance of the metrics registry.
+     *
+     * @return the singleton instance of the metrics registry
+     */
+    public static MetricsRegistry getInstance() {
+        return instance;
+    }
+
+
+    /** The metrics, by name. */
+    private ConcurrentHashMap<String, Metric> metrics =
+        new ConcurrentHashMap<String, Metric>();
+
+
+    private MetricsRegistry() {
+        // Only the singleton instance is created.
+    }
+
+
+    /**
+     * Returns the counter with the specified name, creating it if it doesn't
+     * exist yet.
+     *
+     * @param name the name of the counter
+     *
+     * @return the counter with the specified name
+     *
+     * @throws IllegalArgumentException if another kind of metric has the
+     *         name
+     */
+    public Counter counter(String name) {
+        Metric metric = metrics.get(name);
+        if (metric == null) {
+            metrics.putIfAbsent(name, new Counter(name));
+            metric = metrics.get(name);
+        }
+
+        if (!(metric instanceof Counter)) {
+            throw new IllegalArgumentException("Metric " + name +
+                " is not a counter");
+        }
+
+        return (Counter) metric;
+    }
+
+
+    /**
+     * Returns the histogram with the specified name, creating it if it
+     * doesn't exist yet.
+     *
+     * @param name the name of the histogram
+     *
+     * @return the histogram with the specified name
+     *
+     * @throws IllegalArgumentException if another kind of metric has the
+     *         name
+     */
+    public Histogram histogram(String name) {
+        Metric metric = metrics.get(name);
+        if (metric == null) {
+            metrics.putIfAbsent(name, new Histogram(name));
+            metric = metrics.get(name);
+        }
+
+        if (!(metric instanceof Histogram)) {
+            throw new IllegalArgumentException("Metric " + name +
+                " is not a histogram");
+        }
+
+        return (Histogram) metric;
+    }
+
+
+    /**
+     * Adds a gauge to the registry, replacing any gauge with the same name.
+     * Gauges usually refer to the object they measure, such as the buffer
+     * manager, so a gauge is replaced when its object is created again.
+     *
+     * @param gauge the gauge to add
+     *
+     * @throws IllegalArgumentException if another kind of metric has the
+     *         gauge's name
+     */
+    public void addGauge(Gauge gauge) {
+        Metric old = metrics.put(gauge.getName(), gauge);
+        if (old != null && !(old instanceof Gauge)) {
+            metrics.put(old.getName(), old);
+            throw new IllegalArgumentException("Metric " + old.getName() +
+                " is not a gauge");
+        }
+    }
+
+
+    /**
+     * Returns the metric with the specified name.
+     *
+     * @param name the name of the metric
+     *
+     * @return the metric with the specified name, or <tt>null</tt> if there
+     *         is no such metric
+     */
+    public Metric getMetric(String name) {
+        return metrics.get(name);
+    }
+
+
+    /**
+     * Returns all of the metrics, ordered by name.
+     *
+     * @return all of the metrics, ordered by name
+     */
+    public List<Metric> getMetrics() {
+        ArrayList<Metric> list = new ArrayList<Metric>(metrics.values());
+        Collections.sort(list, new Comparator<Metric>() {
+            public int compare(Metric m1, Metric m2) {
+                return m1.getName().compareTo(m2.getName());
+            }
+        });
+        return list;
+    }
+
+
+    /** Resets all of the counters and histograms. */
+    public void resetAll() {
+        for (Metric metric : metrics.values())
+            metric.reset();
+    }
+
+
+    /**
+     * Writes the current value of every metric to a stream, one per line.
+     *
+     * @param out the stream to write the metrics to
+     */
+    public void dump(PrintStream out) {
+        for (Metric metric : getMetrics())
+            out.println(metric);
+    }
+}
@@ -12,6 +12,7 @@
   import edu.caltech.nanodb.commands.*;
   import edu.caltech.nanodb.expressions.*;
   import edu.caltech.nanodb.relations.*;
+  import edu.caltech.nanodb.storage.TableSample;
 
 import antlr.TokenBuffer;
 import antlr.TokenStreamException;
@@ -35,6 +36,50 @@ import antlr.collections.impl.BitSet;
  */
 public class NanoSqlParser extends antlr.LLkParser       implements NanoSqlParserTokenTypes
  {
+
+  /**
+   * The parameters (<tt>?</tt>) of the command being parsed, in the order
+   * they appear in the command.
+   */
+  private ArrayList<ParameterValue> parameters =
+    new ArrayList<ParameterValue>();
+
+  /**
+   * Returns the parameters of the last command that was parsed, in the order
+   * they appear in the command.
+   *
+   * @return the parameters of the last command that was parsed
+   */
+  public List<ParameterValue> getParameters() {
+    return parameters;
+  }
+
+  /**
+   * While a statement is being prepared, the text of its tokens is recorded
+   * here, so that the statement can be parsed again when it is planned
+   * again.
+   */
+  private StringBuilder recordedText = null;
+
+  /** Records the text of each token that is consumed while recording. */
+  @Override
+  public void consume() throws TokenStreamException {
+    if (recordedText != null && inputState.guessing == 0) {
+      Token token = LT(1);
+      if (recordedText.length() > 0)
+        recordedText.append(' ');
+
+      // The lexer drops the quotes of strings and quoted identifiers.
+      if (token.getType() == STRING_LITERAL)
+        recordedText.append('\'').append(token.getText()).append('\'');
+      else if (token.getType() == QUOTED_IDENT)
+        recordedText.append('"').append(token.getText()).append('"');
+      else
+        recordedText.append(token.getText());
+    }
+
+    super.consume();
+  }
 
 protected NanoSqlParser(TokenBuffer tokenBuf, int k) {
   super(tokenBuf,k);
@@ -78,18 +123,22 @@ public NanoSqlParser(ParserSharedInputState state) {
 					{
 					switch ( LA(1)) {
 					case ANALYZE:
+					case BACKUP:
 					case BEGIN:
 					case COMMIT:
 					case CRASH:
 					case CREATE:
+					case DEALLOCATE:
 					case DELETE:
 					case DROP:
 					case DUMP:
+					case EXECUTE:
 					case EXIT:
 					case EXPLAIN:
 					case FLUSH:
 					case INSERT:
 					case OPTIMIZE:
+					case PREPARE:
 					case QUIT:
 					case ROLLBACK:
 					case SELECT:
@@ -138,7 +187,10 @@ public NanoSqlParser(ParserSharedInputState state) {
 	public final Command  command() throws RecognitionException, TokenStreamException {
 		Command c;
 		
+		
 		c = null;
+		parameters = new ArrayList<ParameterValue>();
+		
 		
 		try {      // for error handling
 			{
@@ -241,6 +293,26 @@ public NanoSqlParser(ParserSharedInputState state) {
 				c=setvar_stmt();
 				break;
 			}
+			case BACKUP:
+			{
+				c=backup_stmt();
+				break;
+			}
+			case PREPARE:
+			{
+				c=prepare_stmt();
+				break;
+			}
+			case EXECUTE:
+			{
+				c=execute_stmt();
+				break;
+			}
+			case DEALLOCATE:
+			{
+				c=deallocate_stmt();
+				break;
+			}
 			default:
 			{
 				throw new NoViableAltException(LT(1), getFilename());
@@ -616,10 +688,14 @@ public NanoSqlParser(ParserSharedInputState state) {
 	public final AnalyzeCommand  analyze_stmt() throws RecognitionException, TokenStreamException {
 		AnalyzeCommand c;
 		
+		Token  n = null;
+		Token  d = null;
 		
 		c = null;
 		boolean verbose = false;
 		String tblName = null;
+		float amount = 0;
+		TableSample.Unit unit = null;
 		
 		
 		try {      // for error handling
@@ -659,6 +735,67 @@ public NanoSqlParser(ParserSharedInputState state) {
 				
 			} while (true);
 			}
+			{
+			switch ( LA(1)) {
+			case SAMPLE:
+			{
+				match(SAMPLE);
+				{
+				switch ( LA(1)) {
+				case INT_LITERAL:
+				{
+					n = LT(1);
+					match(INT_LITERAL);
+					amount = Float.parseFloat(n.getText());
+					break;
+				}
+				case DEC_LITERAL:
+				{
+					d = LT(1);
+					match(DEC_LITERAL);
+					amount = Float.parseFloat(d.getText());
+					break;
+				}
+				default:
+				{
+					throw new NoViableAltException(LT(1), getFilename());
+				}
+				}
+				}
+				{
+				switch ( LA(1)) {
+				case PAGES:
+				{
+					match(PAGES);
+					unit = TableSample.Unit.PAGES;
+					break;
+				}
+				case PERCENT:
+				{
+					match(PERCENT);
+					unit = TableSample.Unit.PERCENT;
+					break;
+				}
+				default:
+				{
+					throw new NoViableAltException(LT(1), getFilename());
+				}
+				}
+				}
+				c.setSample(new TableSample(amount, unit));
+				break;
+			}
+			case EOF:
+			case SEMICOLON:
+			{
+				break;
+			}
+			default:
+			{
+				throw new NoViableAltException(LT(1), getFilename());
+			}
+			}
+			}
 		}
 		catch (RecognitionException ex) {
 			reportError(ex);
@@ -673,12 +810,35 @@ public NanoSqlParser(ParserSharedInputState state) {
 		
 		c = null;
 		QueryCommand cmdToExplain = null;
+		boolean analyze = false;
 		
 		
 		try {      // for error handling
 			match(EXPLAIN);
 			{
 			switch ( LA(1)) {
+			case ANALYZE:
+			{
+				match(ANALYZE);
+				analyze = true;
+				break;
+			}
+			case DELETE:
+			case INSERT:
+			case SELECT:
+			case UPDATE:
+			case WITH:
+			{
+				break;
+			}
+			default:
+			{
+				throw new NoViableAltException(LT(1), getFilename());
+			}
+			}
+			}
+			{
+			switch ( LA(1)) {
 			case SELECT:
 			case WITH:
 			{
@@ -706,7 +866,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 			}
 			}
 			}
-			c = new ExplainCommand(cmdToExplain);
+			c = new ExplainCommand(cmdToExplain, analyze);
 		}
 		catch (RecognitionException ex) {
 			reportError(ex);
@@ -887,7 +1047,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 			tblName=dbobj_ident();
 			c = new VerifyCommand(tblName);
 			{
-			_loop148:
+			_loop154:
 			do {
 				if ((LA(1)==COMMA)) {
 					match(COMMA);
@@ -895,7 +1055,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 					c.addTable(tblName);
 				}
 				else {
-					break _loop148;
+					break _loop154;
 				}
 				
 			} while (true);
@@ -921,7 +1081,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 			tblName=dbobj_ident();
 			c = new OptimizeCommand(tblName);
 			{
-			_loop151:
+			_loop157:
 			do {
 				if ((LA(1)==COMMA)) {
 					match(COMMA);
@@ -929,7 +1089,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 					c.addTable(tblName);
 				}
 				else {
-					break _loop151;
+					break _loop157;
 				}
 				
 			} while (true);
@@ -1006,6 +1166,205 @@ public NanoSqlParser(ParserSharedInputState state) {
 		return c;
 	}
 	
+	public final BackupCommand  backup_stmt() throws RecognitionException, TokenStreamException {
+		BackupCommand c;
+		
+		Token  dir = null;
+		Token  base = null;
+		
+		c = null;
+		String baseDir = null;
+		
+		
+		try {      // for error handling
+			match(BACKUP);
+			match(TO);
+			dir = LT(1);
+			match(STRING_LITERAL);
+			{
+			switch ( LA(1)) {
+			case INCREMENTAL:
+			{
+				match(INCREMENTAL);
+				match(FROM);
+				base = LT(1);
+				match(STRING_LITERAL);
+				baseDir = base.getText();
+				break;
+			}
+			case EOF:
+			case SEMICOLON:
+			{
+				break;
+			}
+			default:
+			{
+				throw new NoViableAltException(LT(1), getFilename());
+			}
+			}
+			}
+			c = new BackupCommand(dir.getText(), baseDir);
+		}
+		catch (RecognitionException ex) {
+			reportError(ex);
+			recover(ex,_tokenSet_1);
+		}
+		return c;
+	}
+	
+/**
+ * A statement can be prepared with parameters, written as <tt>?</tt>, and
+ * then executed many times with values for the parameters.
+ */
+	public final PrepareCommand  prepare_stmt() throws RecognitionException, TokenStreamException {
+		PrepareCommand c;
+		
+		
+		c = null;
+		String name = null;
+		QueryCommand cmd = null;
+		
+		
+		try {      // for error handling
+			match(PREPARE);
+			name=dbobj_ident();
+			{
+			switch ( LA(1)) {
+			case AS:
+			{
+				match(AS);
+				break;
+			}
+			case FROM:
+			{
+				match(FROM);
+				break;
+			}
+			default:
+			{
+				throw new NoViableAltException(LT(1), getFilename());
+			}
+			}
+			}
+			recordedText = new StringBuilder();
+			{
+			switch ( LA(1)) {
+			case SELECT:
+			case WITH:
+			{
+				cmd=select_stmt();
+				break;
+			}
+			case INSERT:
+			{
+				cmd=insert_stmt();
+				break;
+			}
+			case UPDATE:
+			{
+				cmd=update_stmt();
+				break;
+			}
+			case DELETE:
+			{
+				cmd=delete_stmt();
+				break;
+			}
+			default:
+			{
+				throw new NoViableAltException(LT(1), getFilename());
+			}
+			}
+			}
+			
+			c = new PrepareCommand(name, cmd, parameters, recordedText.toString());
+			recordedText = null;
+			
+		}
+		catch (RecognitionException ex) {
+			reportError(ex);
+			recover(ex,_tokenSet_1);
+		}
+		return c;
+	}
+	
+	public final ExecuteCommand  execute_stmt() throws RecognitionException, TokenStreamException {
+		ExecuteCommand c;
+		
+		
+		c = null;
+		String name = null;
+		ArrayList<Expression> values = null;
+		
+		
+		try {      // for error handling
+			match(EXECUTE);
+			name=dbobj_ident();
+			{
+			switch ( LA(1)) {
+			case LPAREN:
+			{
+				values=expr_list();
+				break;
+			}
+			case EOF:
+			case SEMICOLON:
+			{
+				break;
+			}
+			default:
+			{
+				throw new NoViableAltException(LT(1), getFilename());
+			}
+			}
+			}
+			c = new ExecuteCommand(name, values);
+		}
+		catch (RecognitionException ex) {
+			reportError(ex);
+			recover(ex,_tokenSet_1);
+		}
+		return c;
+	}
+	
+	public final DeallocateCommand  deallocate_stmt() throws RecognitionException, TokenStreamException {
+		DeallocateCommand c;
+		
+		
+		c = null;
+		String name = null;
+		
+		
+		try {      // for error handling
+			match(DEALLOCATE);
+			{
+			switch ( LA(1)) {
+			case PREPARE:
+			{
+				match(PREPARE);
+				break;
+			}
+			case IDENT:
+			case QUOTED_IDENT:
+			{
+				break;
+			}
+			default:
+			{
+				throw new NoViableAltException(LT(1), getFilename());
+			}
+			}
+			}
+			name=dbobj_ident();
+			c = new DeallocateCommand(name);
+		}
+		catch (RecognitionException ex) {
+			reportError(ex);
+			recover(ex,_tokenSet_1);
+		}
+		return c;
+	}
+	
 /**
  * An UNQUALIFIED identifier for a "database object" - a table or column.
  */
@@ -1094,6 +1453,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 			case OFFSET:
 			case OR:
 			case ORDER:
+			case PERCENT:
 			case RIGHT:
 			case SIMILAR:
 			case WHERE:
@@ -1111,7 +1471,6 @@ public NanoSqlParser(ParserSharedInputState state) {
 			case LESS_EQUAL:
 			case PLUS:
 			case SLASH:
-			case PERCENT:
 			{
 				break;
 			}
@@ -2241,6 +2600,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 			case STAR:
 			case STRING_LITERAL:
 			case PLUS:
+			case QUESTION:
 			{
 				break;
 			}
@@ -2628,6 +2988,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 			case LPAREN:
 			case STRING_LITERAL:
 			case PLUS:
+			case QUESTION:
 			{
 				e=expression();
 				{
@@ -2987,6 +3348,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 				case LPAREN:
 				{
 					match(LPAREN);
+					args = new ArrayList<Expression>();
 					{
 					switch ( LA(1)) {
 					case EXISTS:
@@ -3004,9 +3366,10 @@ public NanoSqlParser(ParserSharedInputState state) {
 					case LPAREN:
 					case STRING_LITERAL:
 					case PLUS:
+					case QUESTION:
 					{
 						e=expression();
-						args = new ArrayList<Expression>(); args.add(e);
+						args.add(e);
 						{
 						_loop108:
 						do {
@@ -3325,51 +3688,6 @@ public NanoSqlParser(ParserSharedInputState state) {
 		return c;
 	}
 	
-	public final Expression  logical_or_expr() throws RecognitionException, TokenStreamException {
-		Expression e;
-		
-		
-		e = null;
-		Expression e2 = null;
-		BooleanOperator boolExpr = null;
-		
-		
-		try {      // for error handling
-			e=logical_and_expr();
-			{
-			_loop165:
-			do {
-				if ((LA(1)==OR)) {
-					match(OR);
-					e2=logical_and_expr();
-					
-					if (e instanceof BooleanOperator &&
-					((BooleanOperator) e).getType() == BooleanOperator.Type.OR_EXPR) {
-					boolExpr = (BooleanOperator) e;
-					boolExpr.addTerm(e2);
-					}
-					else {
-					boolExpr = new BooleanOperator(BooleanOperator.Type.OR_EXPR);
-					boolExpr.addTerm(e);
-					boolExpr.addTerm(e2);
-					e = boolExpr;
-					}
-					
-				}
-				else {
-					break _loop165;
-				}
-				
-			} while (true);
-			}
-		}
-		catch (RecognitionException ex) {
-			reportError(ex);
-			recover(ex,_tokenSet_12);
-		}
-		return e;
-	}
-	
 	public final ArrayList<Expression>  expr_list() throws RecognitionException, TokenStreamException {
 		ArrayList<Expression> exprs;
 		
@@ -3397,11 +3715,12 @@ public NanoSqlParser(ParserSharedInputState state) {
 			case LPAREN:
 			case STRING_LITERAL:
 			case PLUS:
+			case QUESTION:
 			{
 				e=expression();
 				exprs.add(e);
 				{
-				_loop162:
+				_loop175:
 				do {
 					if ((LA(1)==COMMA)) {
 						match(COMMA);
@@ -3409,7 +3728,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 						exprs.add(e);
 					}
 					else {
-						break _loop162;
+						break _loop175;
 					}
 					
 				} while (true);
@@ -3435,6 +3754,51 @@ public NanoSqlParser(ParserSharedInputState state) {
 		return exprs;
 	}
 	
+	public final Expression  logical_or_expr() throws RecognitionException, TokenStreamException {
+		Expression e;
+		
+		
+		e = null;
+		Expression e2 = null;
+		BooleanOperator boolExpr = null;
+		
+		
+		try {      // for error handling
+			e=logical_and_expr();
+			{
+			_loop178:
+			do {
+				if ((LA(1)==OR)) {
+					match(OR);
+					e2=logical_and_expr();
+					
+					if (e instanceof BooleanOperator &&
+					((BooleanOperator) e).getType() == BooleanOperator.Type.OR_EXPR) {
+					boolExpr = (BooleanOperator) e;
+					boolExpr.addTerm(e2);
+					}
+					else {
+					boolExpr = new BooleanOperator(BooleanOperator.Type.OR_EXPR);
+					boolExpr.addTerm(e);
+					boolExpr.addTerm(e2);
+					e = boolExpr;
+					}
+					
+				}
+				else {
+					break _loop178;
+				}
+				
+			} while (true);
+			}
+		}
+		catch (RecognitionException ex) {
+			reportError(ex);
+			recover(ex,_tokenSet_12);
+		}
+		return e;
+	}
+	
 	public final Expression  logical_and_expr() throws RecognitionException, TokenStreamException {
 		Expression e;
 		
@@ -3447,7 +3811,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 		try {      // for error handling
 			e=logical_not_expr();
 			{
-			_loop168:
+			_loop181:
 			do {
 				if ((LA(1)==AND)) {
 					match(AND);
@@ -3467,7 +3831,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 					
 				}
 				else {
-					break _loop168;
+					break _loop181;
 				}
 				
 			} while (true);
@@ -3512,6 +3876,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 			case LPAREN:
 			case STRING_LITERAL:
 			case PLUS:
+			case QUESTION:
 			{
 				break;
 			}
@@ -3536,6 +3901,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 			case LPAREN:
 			case STRING_LITERAL:
 			case PLUS:
+			case QUESTION:
 			{
 				e=relational_expr();
 				break;
@@ -3680,31 +4046,33 @@ public NanoSqlParser(ParserSharedInputState state) {
 			case NOT:
 			case SIMILAR:
 			{
+				{
 				{
 				switch ( LA(1)) {
-				case LIKE:
 				case NOT:
+				{
+					match(NOT);
+					invert = true;
+					break;
+				}
+				case BETWEEN:
+				case IN:
+				case LIKE:
+				case SIMILAR:
+				{
+					break;
+				}
+				default:
+				{
+					throw new NoViableAltException(LT(1), getFilename());
+				}
+				}
+				}
+				{
+				switch ( LA(1)) {
+				case LIKE:
 				case SIMILAR:
 				{
-					{
-					switch ( LA(1)) {
-					case NOT:
-					{
-						match(NOT);
-						invert = true;
-						break;
-					}
-					case LIKE:
-					case SIMILAR:
-					{
-						break;
-					}
-					default:
-					{
-						throw new NoViableAltException(LT(1), getFilename());
-					}
-					}
-					}
 					{
 					{
 					switch ( LA(1)) {
@@ -3777,6 +4145,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 				}
 				}
 				}
+				}
 				
 				if (invert) {
 				// Wrap the comparison in a NOT expression.
@@ -3864,7 +4233,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 		try {      // for error handling
 			e=mult_expr();
 			{
-			_loop188:
+			_loop202:
 			do {
 				if ((LA(1)==MINUS||LA(1)==PLUS)) {
 					{
@@ -3891,7 +4260,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 					e = new ArithmeticOperator(mathType, e, e2);
 				}
 				else {
-					break _loop188;
+					break _loop202;
 				}
 				
 			} while (true);
@@ -3920,9 +4289,9 @@ public NanoSqlParser(ParserSharedInputState state) {
 		try {      // for error handling
 			e=unary_op_expr();
 			{
-			_loop192:
+			_loop206:
 			do {
-				if ((LA(1)==STAR||LA(1)==SLASH||LA(1)==PERCENT)) {
+				if ((LA(1)==PERCENT||LA(1)==STAR||LA(1)==SLASH)) {
 					{
 					switch ( LA(1)) {
 					case STAR:
@@ -3953,7 +4322,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 					e = new ArithmeticOperator(mathType, e, e2);
 				}
 				else {
-					break _loop192;
+					break _loop206;
 				}
 				
 			} while (true);
@@ -4003,6 +4372,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 			case QUOTED_IDENT:
 			case LPAREN:
 			case STRING_LITERAL:
+			case QUESTION:
 			{
 				e=base_expr();
 				break;
@@ -4043,6 +4413,16 @@ public NanoSqlParser(ParserSharedInputState state) {
 				e=literal_expr();
 				break;
 			}
+			case QUESTION:
+			{
+				match(QUESTION);
+				
+				ParameterValue param = new ParameterValue(parameters.size());
+				parameters.add(param);
+				e = param;
+				
+				break;
+			}
 			case LPAREN:
 			{
 				match(LPAREN);
@@ -4063,6 +4443,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 				case LPAREN:
 				case STRING_LITERAL:
 				case PLUS:
+				case QUESTION:
 				{
 					e=logical_or_expr();
 					break;
@@ -4144,6 +4525,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 			case STAR:
 			case STRING_LITERAL:
 			case PLUS:
+			case QUESTION:
 			{
 				{
 				switch ( LA(1)) {
@@ -4163,6 +4545,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 				case LPAREN:
 				case STRING_LITERAL:
 				case PLUS:
+				case QUESTION:
 				{
 					{
 					switch ( LA(1)) {
@@ -4187,6 +4570,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 					case LPAREN:
 					case STRING_LITERAL:
 					case PLUS:
+					case QUESTION:
 					{
 						break;
 					}
@@ -4199,7 +4583,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 					e=expression();
 					args.add(e);
 					{
-					_loop203:
+					_loop217:
 					do {
 						if ((LA(1)==COMMA)) {
 							match(COMMA);
@@ -4207,7 +4591,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 							args.add(e);
 						}
 						else {
-							break _loop203;
+							break _loop217;
 						}
 						
 					} while (true);
@@ -4276,6 +4660,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 		"\"any\"",
 		"\"as\"",
 		"\"asc\"",
+		"\"backup\"",
 		"\"begin\"",
 		"\"between\"",
 		"\"by\"",
@@ -4286,6 +4671,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 		"\"crash\"",
 		"\"create\"",
 		"\"cross\"",
+		"\"deallocate\"",
 		"\"default\"",
 		"\"delete\"",
 		"\"desc\"",
@@ -4293,6 +4679,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 		"\"drop\"",
 		"\"dump\"",
 		"\"except\"",
+		"\"execute\"",
 		"\"exists\"",
 		"\"exit\"",
 		"\"explain\"",
@@ -4307,6 +4694,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 		"\"having\"",
 		"\"if\"",
 		"\"in\"",
+		"\"incremental\"",
 		"\"index\"",
 		"\"inner\"",
 		"\"insert\"",
@@ -4328,6 +4716,9 @@ public NanoSqlParser(ParserSharedInputState state) {
 		"\"or\"",
 		"\"order\"",
 		"\"outer\"",
+		"\"pages\"",
+		"\"percent\"",
+		"\"prepare\"",
 		"\"primary\"",
 		"\"properties\"",
 		"\"quit\"",
@@ -4336,6 +4727,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 		"\"restrict\"",
 		"\"right\"",
 		"\"rollback\"",
+		"\"sample\"",
 		"\"select\"",
 		"\"set\"",
 		"\"show\"",
@@ -4400,7 +4792,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 		"LESS_EQUAL",
 		"PLUS",
 		"SLASH",
-		"PERCENT",
+		"QUESTION",
 		"COLON",
 		"NEWLINE",
 		"WS",
@@ -4415,112 +4807,112 @@ public NanoSqlParser(ParserSharedInputState state) {
 	}
 	public static final BitSet _tokenSet_0 = new BitSet(mk_tokenSet_0());
 	private static final long[] mk_tokenSet_1() {
-		long[] data = { 2L, 36028797018963968L, 0L, 0L};
+		long[] data = { 2L, -9223372036854775808L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_1 = new BitSet(mk_tokenSet_1());
 	private static final long[] mk_tokenSet_2() {
-		long[] data = { 7924952089843739906L, -306244771414766784L, 510L, 0L, 0L, 0L};
+		long[] data = { -2328027305500193534L, -4611685187342065626L, 65275L, 0L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_2 = new BitSet(mk_tokenSet_2());
 	private static final long[] mk_tokenSet_3() {
-		long[] data = { 7348491268820839682L, -900719924400355264L, 510L, 0L, 0L, 0L};
+		long[] data = { 6895344181598768386L, -9223371761976336346L, 65267L, 0L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_3 = new BitSet(mk_tokenSet_3());
 	private static final long[] mk_tokenSet_4() {
-		long[] data = { 2L, 36028797018963970L, 0L, 0L};
+		long[] data = { 2L, -9223372036854775552L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_4 = new BitSet(mk_tokenSet_4());
 	private static final long[] mk_tokenSet_5() {
-		long[] data = { 72057594038190080L, 1048585L, 0L, 0L};
+		long[] data = { 1152921504607371264L, 268436608L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_5 = new BitSet(mk_tokenSet_5());
 	private static final long[] mk_tokenSet_6() {
-		long[] data = { 0L, 3458764513820540928L, 0L, 0L};
+		long[] data = { 0L, 0L, 48L, 0L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_6 = new BitSet(mk_tokenSet_6());
 	private static final long[] mk_tokenSet_7() {
-		long[] data = { 34360000514L, 108086391062134787L, 0L, 0L};
+		long[] data = { 274878431234L, -9223372035512598144L, 1L, 0L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_7 = new BitSet(mk_tokenSet_7());
 	private static final long[] mk_tokenSet_8() {
-		long[] data = { 72057594038190080L, 3458764513821589513L, 0L, 0L};
+		long[] data = { 1152921504607371264L, 268436608L, 48L, 0L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_8 = new BitSet(mk_tokenSet_8());
 	private static final long[] mk_tokenSet_9() {
-		long[] data = { 2L, 2341871806232657920L, 0L, 0L};
+		long[] data = { 2L, -9223372036854775808L, 32L, 0L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_9 = new BitSet(mk_tokenSet_9());
 	private static final long[] mk_tokenSet_10() {
-		long[] data = { 4908924281028608002L, 3494793311913246720L, 0L, 0L};
+		long[] data = { 4755806704061382658L, -9223371761976868860L, 48L, 0L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_10 = new BitSet(mk_tokenSet_10());
 	private static final long[] mk_tokenSet_11() {
-		long[] data = { 4908924143589654530L, 2341871807306399744L, 0L, 0L};
+		long[] data = { 4755805604549754882L, -9223371761976868860L, 32L, 0L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_11 = new BitSet(mk_tokenSet_11());
 	private static final long[] mk_tokenSet_12() {
-		long[] data = { 4947786794409135106L, 3710966094027030592L, 0L, 0L};
+		long[] data = { 5377595922802805762L, -9223371761976860668L, 51L, 0L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_12 = new BitSet(mk_tokenSet_12());
 	private static final long[] mk_tokenSet_13() {
-		long[] data = { 38861413852119040L, 64L, 0L, 0L};
+		long[] data = { 621780422581288960L, 8192L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_13 = new BitSet(mk_tokenSet_13());
 	private static final long[] mk_tokenSet_14() {
-		long[] data = { 4908924143589654530L, 3494793311913246720L, 0L, 0L};
+		long[] data = { 4755805604549754882L, -9223371761976868860L, 48L, 0L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_14 = new BitSet(mk_tokenSet_14());
 	private static final long[] mk_tokenSet_15() {
-		long[] data = { 5524246309745197058L, 3494793311921635392L, 0L, 0L};
+		long[] data = { -3845786009723731966L, -9223371759829377020L, 48L, 0L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_15 = new BitSet(mk_tokenSet_15());
 	private static final long[] mk_tokenSet_16() {
-		long[] data = { 0L, 2164261120L, 0L, 0L};
+		long[] data = { 0L, 554050846720L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_16 = new BitSet(mk_tokenSet_16());
 	private static final long[] mk_tokenSet_17() {
-		long[] data = { 7253629803622829314L, 3710966094027030592L, 0L, 0L};
+		long[] data = { 5377595922802806018L, -9223371761976860666L, 51L, 0L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_17 = new BitSet(mk_tokenSet_17());
 	private static final long[] mk_tokenSet_18() {
-		long[] data = { 7253629803622829058L, 3710966094027030592L, 0L, 0L};
+		long[] data = { 5377595922802805762L, -9223371761976860666L, 51L, 0L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_18 = new BitSet(mk_tokenSet_18());
 	private static final long[] mk_tokenSet_19() {
-		long[] data = { 234187185455104000L, 3115365042233671680L, 65L, 0L, 0L, 0L};
+		long[] data = { 3746994928626958336L, 4323455642309230592L, 82219L, 0L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_19 = new BitSet(mk_tokenSet_19());
 	private static final long[] mk_tokenSet_20() {
-		long[] data = { 7330476870311357698L, 8322652112454420544L, 62L, 0L, 0L, 0L};
+		long[] data = { 6607113805447056642L, -9223371761976336378L, 15987L, 0L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_20 = new BitSet(mk_tokenSet_20());
 	private static final long[] mk_tokenSet_21() {
-		long[] data = { 7348491268820839682L, 8322652112454420544L, 126L, 0L, 0L, 0L};
+		long[] data = { 6895344181598768386L, -9223371761976336378L, 32371L, 0L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_21 = new BitSet(mk_tokenSet_21());
 	private static final long[] mk_tokenSet_22() {
-		long[] data = { 7348491268820839682L, -882705525890873280L, 510L, 0L, 0L, 0L};
+		long[] data = { 6895344181598768386L, -4611685743548948442L, 65267L, 0L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_22 = new BitSet(mk_tokenSet_22());
@@ -12,6 +12,7 @@
   import edu.caltech.nanodb.commands.*;
   import edu.caltech.nanodb.expressions.*;
   import edu.caltech.nanodb.relations.*;
+  import edu.caltech.nanodb.storage.TableSample;
 
 public interface NanoSqlParserTokenTypes {
 	int EOF = 1;
@@ -24,135 +25,143 @@ public interface NanoSqlParserTokenTypes {
 	int ANY = 9;
 	int AS = 10;
 	int ASC = 11;
-	int BEGIN = 12;
-	int BETWEEN = 13;
-	int BY = 14;
-	int CASCADE = 15;
-	int COLUMN = 16;
-	int COMMIT = 17;
-	int CONSTRAINT = 18;
-	int CRASH = 19;
-	int CREATE = 20;
-	int CROSS = 21;
-	int DEFAULT = 22;
-	int DELETE = 23;
-	int DESC = 24;
-	int DISTINCT = 25;
-	int DROP = 26;
-	int DUMP = 27;
-	int EXCEPT = 28;
-	int EXISTS = 29;
-	int EXIT = 30;
-	int EXPLAIN = 31;
-	int FALSE = 32;
-	int FILE = 33;
-	int FLUSH = 34;
-	int FOREIGN = 35;
-	int FORMAT = 36;
-	int FROM = 37;
-	int FULL = 38;
-	int GROUP = 39;
-	int HAVING = 40;
-	int IF = 41;
-	int IN = 42;
-	int INDEX = 43;
-	int INNER = 44;
-	int INSERT = 45;
-	int INTERSECT = 46;
-	int INTO = 47;
-	int IS = 48;
-	int JOIN = 49;
-	int KEY = 50;
-	int LEFT = 51;
-	int LIKE = 52;
-	int LIMIT = 53;
-	int MINUS = 54;
-	int NATURAL = 55;
-	int NOT = 56;
-	int NULL = 57;
-	int OFFSET = 58;
-	int ON = 59;
-	int OPTIMIZE = 60;
-	int OR = 61;
-	int ORDER = 62;
-	int OUTER = 63;
-	int PRIMARY = 64;
-	int PROPERTIES = 65;
-	int QUIT = 66;
-	int REFERENCES = 67;
-	int RENAME = 68;
-	int RESTRICT = 69;
-	int RIGHT = 70;
-	int ROLLBACK = 71;
-	int SELECT = 72;
-	int SET = 73;
-	int SHOW = 74;
-	int SIMILAR = 75;
-	int SOME = 76;
-	int START = 77;
-	int TABLE = 78;
-	int TO = 79;
-	int TRANSACTION = 80;
-	int TRUE = 81;
-	int TYPE = 82;
-	int UNION = 83;
-	int UNIQUE = 84;
-	int UNKNOWN = 85;
-	int UPDATE = 86;
-	int USING = 87;
-	int VALUES = 88;
-	int VARIABLE = 89;
-	int VARIABLES = 90;
-	int VERBOSE = 91;
-	int VERIFY = 92;
-	int VIEW = 93;
-	int WHERE = 94;
-	int WITH = 95;
-	int WORK = 96;
-	int TYPE_BIGINT = 97;
-	int TYPE_BLOB = 98;
-	int TYPE_CHAR = 99;
-	int TYPE_CHARACTER = 100;
-	int TYPE_DATE = 101;
-	int TYPE_DATETIME = 102;
-	int TYPE_DECIMAL = 103;
-	int TYPE_FLOAT = 104;
-	int TYPE_DOUBLE = 105;
-	int TYPE_INT = 106;
-	int TYPE_INTEGER = 107;
-	int TYPE_NUMERIC = 108;
-	int TYPE_TEXT = 109;
-	int TYPE_TIME = 110;
-	int TYPE_TIMESTAMP = 111;
-	int TYPE_VARCHAR = 112;
-	int TYPE_VARYING = 113;
-	int INT_LITERAL = 114;
-	int LONG_LITERAL = 115;
-	int FLOAT_LITERAL = 116;
-	int DEC_LITERAL = 117;
-	int PERIOD = 118;
-	int SEMICOLON = 119;
-	int IDENT = 120;
-	int QUOTED_IDENT = 121;
-	int TEMPORARY = 122;
-	int LPAREN = 123;
-	int COMMA = 124;
-	int RPAREN = 125;
-	int EQUALS = 126;
-	int STAR = 127;
-	int STRING_LITERAL = 128;
-	int NOT_EQUALS = 129;
-	int GRTR_THAN = 130;
-	int LESS_THAN = 131;
-	int GRTR_EQUAL = 132;
-	int LESS_EQUAL = 133;
-	int PLUS = 134;
-	int SLASH = 135;
-	int PERCENT = 136;
-	int COLON = 137;
-	int NEWLINE = 138;
-	int WS = 139;
-	int COMMENT = 140;
-	int COMPARE_OPERATOR = 141;
-	int NUM_LITERAL_OR_SYMBOL = 142;
+	int BACKUP = 12;
+	int BEGIN = 13;
+	int BETWEEN = 14;
+	int BY = 15;
+	int CASCADE = 16;
+	int COLUMN = 17;
+	int COMMIT = 18;
+	int CONSTRAINT = 19;
+	int CRASH = 20;
+	int CREATE = 21;
+	int CROSS = 22;
+	int DEALLOCATE = 23;
+	int DEFAULT = 24;
+	int DELETE = 25;
+	int DESC = 26;
+	int DISTINCT = 27;
+	int DROP = 28;
+	int DUMP = 29;
+	int EXCEPT = 30;
+	int EXECUTE = 31;
+	int EXISTS = 32;
+	int EXIT = 33;
+	int EXPLAIN = 34;
+	int FALSE = 35;
+	int FILE = 36;
+	int FLUSH = 37;
+	int FOREIGN = 38;
+	int FORMAT = 39;
+	int FROM = 40;
+	int FULL = 41;
+	int GROUP = 42;
+	int HAVING = 43;
+	int IF = 44;
+	int IN = 45;
+	int INCREMENTAL = 46;
+	int INDEX = 47;
+	int INNER = 48;
+	int INSERT = 49;
+	int INTERSECT = 50;
+	int INTO = 51;
+	int IS = 52;
+	int JOIN = 53;
+	int KEY = 54;
+	int LEFT = 55;
+	int LIKE = 56;
+	int LIMIT = 57;
+	int MINUS = 58;
+	int NATURAL = 59;
+	int NOT = 60;
+	int NULL = 61;
+	int OFFSET = 62;
+	int ON = 63;
+	int OPTIMIZE = 64;
+	int OR = 65;
+	int ORDER = 66;
+	int OUTER = 67;
+	int PAGES = 68;
+	int PERCENT = 69;
+	int PREPARE = 70;
+	int PRIMARY = 71;
+	int PROPERTIES = 72;
+	int QUIT = 73;
+	int REFERENCES = 74;
+	int RENAME = 75;
+	int RESTRICT = 76;
+	int RIGHT = 77;
+	int ROLLBACK = 78;
+	int SAMPLE = 79;
+	int SELECT = 80;
+	int SET = 81;
+	int SHOW = 82;
+	int SIMILAR = 83;
+	int SOME = 84;
+	int START = 85;
+	int TABLE = 86;
+	int TO = 87;
+	int TRANSACTION = 88;
+	int TRUE = 89;
+	int TYPE = 90;
+	int UNION = 91;
+	int UNIQUE = 92;
+	int UNKNOWN = 93;
+	int UPDATE = 94;
+	int USING = 95;
+	int VALUES = 96;
+	int VARIABLE = 97;
+	int VARIABLES = 98;
+	int VERBOSE = 99;
+	int VERIFY = 100;
+	int VIEW = 101;
+	int WHERE = 102;
+	int WITH = 103;
+	int WORK = 104;
+	int TYPE_BIGINT = 105;
+	int TYPE_BLOB = 106;
+	int TYPE_CHAR = 107;
+	int TYPE_CHARACTER = 108;
+	int TYPE_DATE = 109;
+	int TYPE_DATETIME = 110;
+	int TYPE_DECIMAL = 111;
+	int TYPE_FLOAT = 112;
+	int TYPE_DOUBLE = 113;
+	int TYPE_INT = 114;
+	int TYPE_INTEGER = 115;
+	int TYPE_NUMERIC = 116;
+	int TYPE_TEXT = 117;
+	int TYPE_TIME = 118;
+	int TYPE_TIMESTAMP = 119;
+	int TYPE_VARCHAR = 120;
+	int TYPE_VARYING = 121;
+	int INT_LITERAL = 122;
+	int LONG_LITERAL = 123;
+	int FLOAT_LITERAL = 124;
+	int DEC_LITERAL = 125;
+	int PERIOD = 126;
+	int SEMICOLON = 127;
+	int IDENT = 128;
+	int QUOTED_IDENT = 129;
+	int TEMPORARY = 130;
+	int LPAREN = 131;
+	int COMMA = 132;
+	int RPAREN = 133;
+	int EQUALS = 134;
+	int STAR = 135;
+	int STRING_LITERAL = 136;
+	int NOT_EQUALS = 137;
+	int GRTR_THAN = 138;
+	int LESS_THAN = 139;
+	int GRTR_EQUAL = 140;
+	int LESS_EQUAL = 141;
+	int PLUS = 142;
+	int SLASH = 143;
+	int QUESTION = 144;
+	int COLON = 145;
+	int NEWLINE = 146;
+	int WS = 147;
+	int COMMENT = 148;
+	int COMPARE_OPERATOR = 149;
+	int NUM_LITERAL_OR_SYMBOL = 150;
 }
@@ -0,0 +1,195 @@
+package edu.caltech.nanodb.storage;
+
+
+import org.apache.log4j.Logger;
+
+import edu.caltech.nanodb.client.SessionState;
+import edu.caltech.nanodb.commands.AnalyzeCommand;
+import edu.caltech.nanodb.commands.Command;
+import edu.caltech.nanodb.qeval.TableStats;
+import edu.caltech.nanodb.relations.TableInfo;
+import edu.caltech.nanodb.server.CommandEventListener;
+import edu.caltech.nanodb.server.EventDispatchException;
+import edu.caltech.nanodb.transactions.TransactionException;
+import edu.caltech.nanodb.transactions.TransactionManager;
+
+
+/**
+ * This implementation of the {@link CommandEventListener} interface analyzes
+ * tables again once they have changed enough since they were last analyzed.
+ * Table files keep their tuple and page counts current as tuples are added
+ * and removed, but other stats such as the histograms of the columns drift
+ * as the table changes, so a table is analyzed once the number of tuples
+ * that have been added, changed or removed exceeds
+ * <tt>{@link #PROP_THRESHOLD} + {@link #PROP_SCALE_PERCENT}% &times;
+ * (number of tuples)</tt>.
+ * <p>
+ * Tables are analyzed after the command that changed them, rather than by a
+ * separate thread, since table files don't latch their pages against
+ * concurrent readers and writers.  If the command ran in a transaction that
+ * the user started, the tables are analyzed after the transaction ends, so
+ * that the analysis doesn't become part of the user's transaction.  This
+ * handler is installed by the {@link StorageManager#initialize} setup
+ * method.
+ */
+public class AutoAnalyzer implements CommandEventListener {
+
+    /** A logging object for reporting anything interesting that happens. */
+    private static Logger logger = Logger.getLogger(AutoAnalyzer.class);
+
+
+    /**
+     * This property can be used to turn automatic analysis of tables on or
+     * off.  It is on unless the property is set to <tt>false</tt>.
+     */
+    public static final String PROP_ENABLED = "nanodb.autoanalyze";
+
+
+    /**
+     * This property can be used to specify the number of modifications a
+     * table needs, on top of those in proportion to its size, before it is
+     * analyzed again.
+     */
+    public static final String PROP_THRESHOLD = "nanodb.autoanalyze.threshold";
+
+
+    /** The default threshold is 50 modifications. */
+    public static final int DEFAULT_THRESHOLD = 50;
+
+
+    /**
+     * This property can be used to specify the percentage of a table's tuples
+     * that must be modified, on top of the threshold, before the table is
+     * analyzed again.
+     */
+    public static final String PROP_SCALE_PERCENT =
+        "nanodb.autoanalyze.scalepercent";
+
+
+    /** The default scale is 10% of the table's tuples. */
+    public static final int DEFAULT_SCALE_PERCENT = 10;
+
+
+    /**
+     * This property can be used to specify the most data pages that are read
+     * when a table is analyzed automatically.  Larger tables are analyzed
+     * from a sample of this many pages.
+     */
+    public static final String PROP_MAX_PAGES = "nanodb.autoanalyze.maxpages";
+
+
+    /** The default is to read at most 1000 data pages of a table. */
+    public static final int DEFAULT_MAX_PAGES = 1000;
+
+
+    private StorageManager storageManager;
+
+
+    public AutoAnalyzer(StorageManager storageManager) {
+        if (storageManager == null)
+            throw new IllegalArgumentException("storageManager cannot be null");
+
+        this.storageManager = storageManager;
+    }
+
+
+    /**
+     * Returns true if tables are analyzed automatically, as specified by the
+     * {@link #PROP_ENABLED} property.
+     *
+     * @return true if tables are analyzed automatically
+     */
+    public static boolean isEnabled() {
+        return !"false".equalsIgnoreCase(System.getProperty(PROP_ENABLED));
+    }
+
+
+    /**
+     * Returns true if a table with the specified stats has been modified
+     * enough since it was analyzed that it should be analyzed again.
+     *
+     * @param stats the stats of the table
+     *
+     * @return true if the table should be analyzed again
+     */
+    public static boolean needsAnalyze(TableStats stats) {
+        int threshold = Math.max(0,
+            Integer.getInteger(PROP_THRESHOLD, DEFAULT_THRESHOLD));
+        int scalePercent = Math.max(0,
+            Integer.getInteger(PROP_SCALE_PERCENT, DEFAULT_SCALE_PERCENT));
+
+        int numModifications = stats.getNumModifications();
+        return numModifications > 0 && numModifications >
+            threshold + (long) stats.numTuples * scalePercent / 100;
+    }
+
+
+    @Override
+    public void beforeCommandExecuted(Command cmd) throws EventDispatchException {
+        // Ignore.
+    }
+
+
+    @Override
+    public void afterCommandExecuted(Command cmd) throws EventDispatchException {
+        if (!isEnabled() || cmd instanceof AnalyzeCommand)
+            return;
+
+        TransactionManager txnManager = storageManager.getTransactionManager();
+        if (txnManager != null &&
+            SessionState.get().getTxnState().isTxnInProgress()) {
+            // Wait until the user's transaction ends.
+            return;
+        }
+
+        TableManager tableManager = storageManager.getTableManager();
+        for (TableInfo tableInfo : tableManager.getOpenTables()) {
+            TableStats stats = tableInfo.getTupleFile().getStats();
+            if (needsAnalyze(stats))
+                analyzeTable(tableInfo, stats, txnManager);
+        }
+    }
+
+
+    /**
+     * Analyzes a table in a transaction of its own.  Failures are logged
+     * rather than reported, since the command that triggered the analysis
+     * has already succeeded.
+     */
+    private void analyzeTable(TableInfo tableInfo, TableStats stats,
+                              TransactionManager txnManager) {
+
+        int maxPages = Math.max(1,
+            Integer.getInteger(PROP_MAX_PAGES, DEFAULT_MAX_PAGES));
+        TableSample sample = null;
+        if (stats.numDataPages > maxPages)
+            sample = new TableSample(maxPages, TableSample.Unit.PAGES);
+
+        logger.debug(String.format("Analyzing table %s after %d modifications.",
+            tableInfo.getTableName(), stats.getNumModifications()));
+
+        try {
+            if (txnManager != null)
+                txnManager.startTransaction(false);
+
+            storageManager.getTableManager().analyzeTable(tableInfo, sample);
+
+            if (txnManager != null)
+                txnManager.commitTransaction();
+        }
+        catch (Exception e) {
+            logger.warn("Couldn't analyze table " + tableInfo.getTableName(), e);
+
+            if (txnManager != null &&
+                SessionState.get().getTxnState().isTxnInProgress()) {
+                try {
+                    txnManager.rollbackTransaction();
+                }
+                catch (TransactionException te) {
+                    logger.error("Couldn't roll back failed analysis of table " +
+                        tableInfo.getTableName(), te);
+                }
+            }
+        }
+    }
+}
@@ -18,6 +18,9 @@ import edu.caltech.nanodb.client.SessionState;
 
 import edu.caltech.nanodb.expressions.TypeCastException;
 
+import edu.caltech.nanodb.server.performance.Counter;
+import edu.caltech.nanodb.server.performance.Gauge;
+import edu.caltech.nanodb.server.performance.MetricsRegistry;
 import edu.caltech.nanodb.server.properties.PropertyHandler;
 import edu.caltech.nanodb.server.properties.PropertyRegistry;
 import edu.caltech.nanodb.server.properties.ReadOnlyPropertyException;
@@ -28,6 +31,11 @@ import edu.caltech.nanodb.server.properties.UnrecognizedPropertyException;
  * The buffer manager reduces the number of disk IO operations by managing an
  * in-memory cache of data pages.  It also imposes a limit on the maximum
  * amount of space that can be used for data pages in the database.
+ * <p>
+ * All of the buffer manager's public operations are synchronized, so that
+ * pages can be loaded, pinned and unpinned by several threads at once, as
+ * when a query is evaluated in parallel.  A {@link DBPage}'s pin-count is
+ * also only changed while holding the buffer manager's lock.
  *
  * @todo Eventually add integrity checks, e.g. to make sure every cached
  *       page's file appears in the collection of cached files.
@@ -141,6 +149,38 @@ public class BufferManager {
     }
 
 
+    /**
+     * This class reports how much of the cache is used by the pages of one
+     * file, as returned by {@link #getCachedFileStats}.
+     */
+    public static class CachedFileStats {
+        /** The file whose pages are cached. */
+        public DBFile dbFile;
+
+        /** The number of the file's pages that are cached. */
+        public int numPages;
+
+        /** The number of the cached pages that are dirty. */
+        public int numDirtyPages;
+
+        /** The number of the cached pages that are pinned. */
+        public int numPinnedPages;
+
+        /** The total pin-count of the cached pages. */
+        public int numPins;
+
+        /** The number of bytes of the cached pages. */
+        public long numBytes;
+
+        public CachedFileStats(DBFile dbFile) {
+            if (dbFile == null)
+                throw new IllegalArgumentException("dbFile cannot be null");
+
+            this.dbFile = dbFile;
+        }
+    }
+
+
     private class BufferManagerPropertyHandler implements PropertyHandler {
 
         @Override
@@ -184,6 +224,19 @@ public class BufferManager {
     private static Logger logger = Logger.getLogger(BufferManager.class);
 
 
+    /** The number of pages evicted to make room for other pages. */
+    private static final Counter evictions =
+        MetricsRegistry.getInstance().counter("bufmgr.evictions");
+
+
+    /**
+     * The number of evicted pages that were dirty, and had to be written
+     * before they were evicted.
+     */
+    private static final Counter dirtyEvictions =
+        MetricsRegistry.getInstance().counter("bufmgr.dirtyEvictions");
+
+
     private FileManager fileManager;
 
 
@@ -260,6 +313,18 @@ public class BufferManager {
         PropertyRegistry.getInstance().registerProperties(
             new BufferManagerPropertyHandler(),
             PROP_PAGECACHE_POLICY, PROP_PAGECACHE_SIZE);
+
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        metrics.addGauge(new Gauge("bufmgr.bytesCached") {
+            public double getValue() {
+                return getTotalBytesCached();
+            }
+        });
+        metrics.addGauge(new Gauge("bufmgr.pagesCached") {
+            public double getValue() {
+                return getNumCachedPages();
+            }
+        });
     }
 
 
@@ -322,12 +387,42 @@ public class BufferManager {
     }
 
 
+    /**
+     * Returns the number of bytes of pages and buffers currently cached.
+     *
+     * @return the number of bytes currently cached
+     */
+    public synchronized long getTotalBytesCached() {
+        return totalBytesCached;
+    }
+
+
+    /**
+     * Returns the most bytes that the buffer manager will cache.
+     *
+     * @return the maximum size of the cache, in bytes
+     */
+    public synchronized long getMaxCacheSize() {
+        return maxCacheSize;
+    }
+
+
+    /**
+     * Returns the number of pages currently cached.
+     *
+     * @return the number of pages currently cached
+     */
+    public synchronized int getNumCachedPages() {
+        return cachedPages.size();
+    }
+
+
     /**
      * Add another observer to the buffer manager.
      *
      * @param obs the observer to add to the buffer manager
      */
-    public void addObserver(BufferManagerObserver obs) {
+    public synchronized void addObserver(BufferManagerObserver obs) {
         if (obs == null)
             throw new IllegalArgumentException("obs cannot be null");
 
@@ -347,7 +442,7 @@ public class BufferManager {
      *         manager, and an IO error occurred while writing the page to
      *         persistent storage.
      */
-    public byte[] allocBuffer(int size) throws IOException {
+    public synchronized byte[] allocBuffer(int size) throws IOException {
         if (size <= 0)
             throw new IllegalArgumentException("size must be > 0, got " + size);
 
@@ -371,7 +466,7 @@ public class BufferManager {
     }
 
 
-    public void releaseBuffer(byte[] buffer) {
+    public synchronized void releaseBuffer(byte[] buffer) {
         // Verify that this was a buffer we allocated?
         if (!allocatedBuffers.remove(System.identityHashCode(buffer))) {
             throw new IllegalArgumentException("Received a buffer that " +
@@ -395,7 +490,7 @@ public class BufferManager {
      *         already been opened, or <tt>null</tt> if the file isn't currently
      *         open.
      */
-    public DBFile getFile(String filename) {
+    public synchronized DBFile getFile(String filename) {
         DBFile dbFile = cachedFiles.get(filename);
 
         logger.debug(String.format(
@@ -406,7 +501,7 @@ public class BufferManager {
     }
 
 
-    public void addFile(DBFile dbFile) {
+    public synchronized void addFile(DBFile dbFile) {
         if (dbFile == null)
             throw new IllegalArgumentException("dbFile cannot be null");
 
@@ -425,6 +520,43 @@ public class BufferManager {
     }
 
 
+    /**
+     * Reports how many pages of each open file are cached, dirty and pinned.
+     * Every open file is reported, in the order the files were opened, even
+     * if none of its pages are cached.
+     *
+     * @return a list of the stats of each open file
+     */
+    public synchronized List<CachedFileStats> getCachedFileStats() {
+        LinkedHashMap<DBFile, CachedFileStats> fileStats =
+            new LinkedHashMap<DBFile, CachedFileStats>();
+
+        for (DBFile dbFile : fileManager.getOpenFiles())
+            fileStats.put(dbFile, new CachedFileStats(dbFile));
+
+        for (DBPage dbPage : cachedPages.values()) {
+            CachedFileStats stats = fileStats.get(dbPage.getDBFile());
+            if (stats == null) {
+                stats = new CachedFileStats(dbPage.getDBFile());
+                fileStats.put(dbPage.getDBFile(), stats);
+            }
+
+            stats.numPages++;
+            stats.numBytes += dbPage.getPageSize();
+
+            if (dbPage.isDirty())
+                stats.numDirtyPages++;
+
+            if (dbPage.isPinned()) {
+                stats.numPinnedPages++;
+                stats.numPins += dbPage.getPinCount();
+            }
+        }
+
+        return new ArrayList<CachedFileStats>(fileStats.values());
+    }
+
+
     /**
      * Records that the page was pinned by the current session.  This method
      * does not actually pin the page; it is presumed that the page is already
@@ -432,7 +564,7 @@ public class BufferManager {
      *
      * @param dbPage the page that was pinned by the session
      */
-    public void recordPagePinned(DBPage dbPage) {
+    public synchronized void recordPagePinned(DBPage dbPage) {
         int sessionID = SessionState.get().getSessionID();
 
         // Retrieve the set of pages pinned by the current session.
@@ -462,7 +594,7 @@ public class BufferManager {
      *
      * @param dbPage the page that was unpinned
      */
-    public void recordPageUnpinned(DBPage dbPage) {
+    public synchronized void recordPageUnpinned(DBPage dbPage) {
         int sessionID = SessionState.get().getSessionID();
 
         // Retrieve the set of pages pinned by the current session.
@@ -505,7 +637,7 @@ public class BufferManager {
      * generally done at the end of each transaction so that pages aren't
      * pinned forever, and can actually be evicted from the buffer manager.
      */
-    public void unpinAllSessionPages() {
+    public synchronized void unpinAllSessionPages() {
         // Unpin all pages pinned by this session.
         int sessionID = SessionState.get().getSessionID();
 
@@ -539,7 +671,7 @@ public class BufferManager {
     }
 
 
-    public void recordPageInvalidated(DBPage dbPage) {
+    public synchronized void recordPageInvalidated(DBPage dbPage) {
         if (dbPage == null)
             throw new IllegalArgumentException("dbPage cannot be null");
 
@@ -573,7 +705,7 @@ public class BufferManager {
      * @param pageNo the page number in the {@code DBFile} to retrieve
      * @return the requested {@code DBPage}, or {@code null} if not found
      */
-    public DBPage getPage(DBFile dbFile, int pageNo) {
+    public synchronized DBPage getPage(DBFile dbFile, int pageNo) {
         DBPage dbPage = cachedPages.get(new CachedPageInfo(dbFile, pageNo));
 
         logger.debug(String.format(
@@ -605,7 +737,7 @@ public class BufferManager {
      * @throws IllegalStateException if the page already appears in the Buffer
      *         Manager.
      */
-    public void addPage(DBPage dbPage) throws IOException {
+    public synchronized void addPage(DBPage dbPage) throws IOException {
         if (dbPage == null)
             throw new IllegalArgumentException("dbPage cannot be null");
 
@@ -676,12 +808,14 @@ public class BufferManager {
 
                 entries.remove();
                 totalBytesCached -= oldPage.getPageSize();
+                evictions.inc();
 
                 // If the page is dirty, we need to write its data to disk before
                 // invalidating it.  Otherwise, just invalidate it.
                 if (oldPage.isDirty()) {
                     logger.debug("    Evicted page is dirty; must save to disk.");
                     dirtyPages.add(oldPage);
+                    dirtyEvictions.inc();
                 }
                 else {
                     oldPage.invalidate();
@@ -712,25 +846,60 @@ public class BufferManager {
         throws IOException {
 
         if (!dirtyPages.isEmpty()) {
+            // The observers may append to the write-ahead log, e.g. to log
+            // changes deferred by a bulk load.  If a log page is among the
+            // pages being evicted, the log would then reload it from disk,
+            // so the log and transaction-state pages are written first.
+            // They aren't subject to the write-ahead logging rule.
+            ArrayList<DBPage> dataPages = new ArrayList<DBPage>();
+            for (DBPage dbPage : dirtyPages) {
+                DBFileType type = dbPage.getDBFile().getType();
+                if (type == DBFileType.WRITE_AHEAD_LOG_FILE ||
+                    type == DBFileType.TXNSTATE_FILE) {
+                    savePage(dbPage, invalidate);
+                }
+                else {
+                    dataPages.add(dbPage);
+                }
+            }
+
+            if (dataPages.isEmpty())
+                return;
+
             // Pass the observers a read-only version of the pages so they
             // can't change things.
             List<DBPage> readOnlyPages =
-                Collections.unmodifiableList(dirtyPages);
+                Collections.unmodifiableList(dataPages);
 
             for (BufferManagerObserver obs : observers)
                 obs.beforeWriteDirtyPages(readOnlyPages);
 
             // Finally, we can write out each dirty page.
-            for (DBPage dbPage : dirtyPages) {
-                fileManager.savePage(dbPage.getDBFile(), dbPage.getPageNo(),
-                                     dbPage.getPageData());
+            for (DBPage dbPage : dataPages)
+                savePage(dbPage, invalidate);
+        }
+    }
 
-                dbPage.setDirty(false);
 
-                if (invalidate)
-                    dbPage.invalidate();
-            }
-        }
+    /**
+     * Writes a dirty page to disk, and marks it as clean.
+     *
+     * @param dbPage the page to write
+     * @param invalidate if true then the page is invalidated so that it must
+     *        be reloaded from disk
+     *
+     * @throws IOException if an IO error occurs while writing the page
+     */
+    private void savePage(DBPage dbPage, boolean invalidate)
+        throws IOException {
+
+        fileManager.savePage(dbPage.getDBFile(), dbPage.getPageNo(),
+                             dbPage.getPageData());
+
+        dbPage.setDirty(false);
+
+        if (invalidate)
+            dbPage.invalidate();
     }
 
 
@@ -756,7 +925,7 @@ public class BufferManager {
      * @throws IOException if an IO error occurs while updating the write-ahead
      *         log, or while writing the file's contents.
      */
-    public void writeDBFile(DBFile dbFile, int minPageNo, int maxPageNo,
+    public synchronized void writeDBFile(DBFile dbFile, int minPageNo, int maxPageNo,
                             boolean sync) throws IOException {
 
         logger.info(String.format("Writing all dirty pages for file %s to disk%s.",
@@ -812,7 +981,7 @@ public class BufferManager {
      * @throws IOException if an IO error occurs while updating the write-ahead
      *         log, or while writing the file's contents.
      */
-    public void writeDBFile(DBFile dbFile, boolean sync) throws IOException {
+    public synchronized void writeDBFile(DBFile dbFile, boolean sync) throws IOException {
         writeDBFile(dbFile, 0, Integer.MAX_VALUE, sync);
     }
 
@@ -830,7 +999,7 @@ public class BufferManager {
      * @throws IOException if an IO error occurs while updating the write-ahead
      *         log, or while writing the file's contents.
      */
-    public void writeAll(boolean sync) throws IOException {
+    public synchronized void writeAll(boolean sync) throws IOException {
         logger.info("Writing ALL dirty pages in the Buffer Manager to disk.");
 
         Iterator<Map.Entry<CachedPageInfo, DBPage>> entries =
@@ -882,7 +1051,7 @@ public class BufferManager {
      * @throws IOException if an IO error occurs while updating the write-ahead
      *         log, or the file's contents
      */
-    public void flushDBFile(DBFile dbFile) throws IOException {
+    public synchronized void flushDBFile(DBFile dbFile) throws IOException {
         logger.info("Flushing all pages for file " + dbFile +
             " from the Buffer Manager.");
 
@@ -935,7 +1104,7 @@ public class BufferManager {
      * @throws IOException if an IO error occurs while updating the write-ahead
      *         log, or the file's contents
      */
-    public void flushAll() throws IOException {
+    public synchronized void flushAll() throws IOException {
         logger.info("Flushing ALL database pages from the Buffer Manager.");
 
         Iterator<Map.Entry<CachedPageInfo, DBPage>> entries =
@@ -980,7 +1149,7 @@ public class BufferManager {
      *
      * @throws IOException if an IO error occurs while writing out dirty pages
      */
-    public void removeDBFile(DBFile dbFile) throws IOException {
+    public synchronized void removeDBFile(DBFile dbFile) throws IOException {
         logger.info("Removing DBFile " + dbFile + " from buffer manager");
         flushDBFile(dbFile);
         cachedFiles.remove(dbFile.getDataFile().getName());
@@ -998,7 +1167,7 @@ public class BufferManager {
      *
      * @throws IOException if an IO error occurs while writing out dirty pages
      */
-    public List<DBFile> removeAll() throws IOException {
+    public synchronized List<DBFile> removeAll() throws IOException {
         logger.info("Removing ALL DBFiles from buffer manager");
 
         // Flush all pages, ensuring that dirty pages will be written too.
@@ -4,6 +4,7 @@ package edu.caltech.nanodb.storage;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
@@ -72,6 +73,26 @@ public class DBFile {
     private RandomAccessFile fileContents;
 
 
+    /** The number of pages read from the file since it was opened. */
+    private AtomicLong pagesRead = new AtomicLong();
+
+
+    /** The number of pages written to the file since it was opened. */
+    private AtomicLong pagesWritten = new AtomicLong();
+
+
+    /** The number of bytes read from the file since it was opened. */
+    private AtomicLong bytesRead = new AtomicLong();
+
+
+    /** The number of bytes written to the file since it was opened. */
+    private AtomicLong bytesWritten = new AtomicLong();
+
+
+    /** The number of times the file was synced to disk since it was opened. */
+    private AtomicLong syncs = new AtomicLong();
+
+
     /**
      * This static helper method returns true if the specified page size is
      * valid; i.e. it must be within the minimum and maximum page sizes, and
@@ -308,4 +329,57 @@ public class DBFile {
     public RandomAccessFile getFileContents() {
         return fileContents;
     }
+
+
+    public long getPagesRead() {
+        return pagesRead.get();
+    }
+
+
+    public long getPagesWritten() {
+        return pagesWritten.get();
+    }
+
+
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+
+    public long getSyncs() {
+        return syncs.get();
+    }
+
+
+    /**
+     * Records that a page was read from or written to the file.  This is
+     * called by the {@link FileManager}.
+     *
+     * @param read true if the page was read, or false if it was written
+     * @param numBytes the number of bytes read or written
+     */
+    void recordPageIO(boolean read, int numBytes) {
+        if (read) {
+            pagesRead.incrementAndGet();
+            bytesRead.addAndGet(numBytes);
+        }
+        else {
+            pagesWritten.incrementAndGet();
+            bytesWritten.addAndGet(numBytes);
+        }
+    }
+
+
+    /**
+     * Records that the file was synced to disk.  This is called by the
+     * {@link FileManager}.
+     */
+    void recordSync() {
+        syncs.incrementAndGet();
+    }
 }
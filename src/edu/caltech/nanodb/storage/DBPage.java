@@ -187,24 +187,30 @@ public class DBPage implements Pinnable {
 
     @Override
     public void pin() {
-        pinCount++;
+        // The pin-count is only changed while holding the buffer manager's
+        // lock, since pages may be pinned and unpinned by several threads.
+        synchronized (bufferManager) {
+            pinCount++;
 
-        // To facilitate debugging of pinned-page leaks!
-        bufferManager.recordPagePinned(this);
+            // To facilitate debugging of pinned-page leaks!
+            bufferManager.recordPagePinned(this);
+        }
     }
 
 
     @Override
     public void unpin() {
-        if (pinCount <= 0) {
-            throw new IllegalStateException(
-                "pinCount is not positive (value is " + pinCount + ")");
-        }
+        synchronized (bufferManager) {
+            if (pinCount <= 0) {
+                throw new IllegalStateException(
+                    "pinCount is not positive (value is " + pinCount + ")");
+            }
 
-        // To facilitate debugging of pinned-page leaks!
-        bufferManager.recordPageUnpinned(this);
+            // To facilitate debugging of pinned-page leaks!
+            bufferManager.recordPageUnpinned(this);
 
-        pinCount--;
+            pinCount--;
+        }
     }
 
 
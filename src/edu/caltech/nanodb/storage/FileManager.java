@@ -4,6 +4,7 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.util.List;
 
 
 /**
@@ -63,6 +64,15 @@ public interface FileManager {
      */
     DBFile openDBFile(String filename) throws IOException;
 
+    /**
+     * Returns the database files that are currently open, in the order they
+     * were opened.  If a file has been opened more than once, only the most
+     * recently opened {@link DBFile} is returned.
+     *
+     * @return a list of the files that are currently open
+     */
+    List<DBFile> getOpenFiles();
+
     /**
      * Loads a page from the underlying data file, and returns a new
      * {@link DBPage} object containing the data.  The <tt>create</tt> flag
@@ -8,8 +8,13 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 
-import edu.caltech.nanodb.server.performance.PerformanceCounters;
+import edu.caltech.nanodb.server.performance.Counter;
+import edu.caltech.nanodb.server.performance.Histogram;
+import edu.caltech.nanodb.server.performance.MetricsRegistry;
 
 
 /**
@@ -44,6 +49,36 @@ public class FileManagerImpl implements FileManager {
     public static final int LARGE_SEEK_THRESHOLD = 500;
 
 
+    /** The number of seeks of more than {@link #LARGE_SEEK_THRESHOLD}. */
+    private static final Counter largeSeeks =
+        MetricsRegistry.getInstance().counter("storage.largeSeeks");
+
+
+    /** The number of pages read from data files. */
+    private static final Counter pagesRead =
+        MetricsRegistry.getInstance().counter("storage.pagesRead");
+
+
+    /** The number of pages written to data files. */
+    private static final Counter pagesWritten =
+        MetricsRegistry.getInstance().counter("storage.pagesWritten");
+
+
+    /** The number of bytes read from data files. */
+    private static final Counter bytesRead =
+        MetricsRegistry.getInstance().counter("storage.bytesRead");
+
+
+    /** The number of bytes written to data files. */
+    private static final Counter bytesWritten =
+        MetricsRegistry.getInstance().counter("storage.bytesWritten");
+
+
+    /** The time taken to sync data files to disk, in nanoseconds. */
+    private static final Histogram fsyncLatency =
+        MetricsRegistry.getInstance().histogram("storage.fsyncLatency");
+
+
     /**
      * The base directory that the file-manager should use for creating and
      * opening files.
@@ -65,6 +100,14 @@ public class FileManagerImpl implements FileManager {
     private int lastPageNoAccessed;
 
 
+    /**
+     * The files that are currently open, keyed by filename, so that their IO
+     * can be reported.  This map is also used as the lock for accessing it.
+     */
+    private final LinkedHashMap<String, DBFile> openFiles =
+        new LinkedHashMap<String, DBFile>();
+
+
     /**
      * Create a file-manager instance that uses the specified base directory.
      *
@@ -87,7 +130,7 @@ public class FileManagerImpl implements FileManager {
     void updateFileIOPerfStats(DBFile dbFile, int pageNo, boolean read,
                                int bufSize) {
         if (lastFileAccessed == null || !dbFile.equals(lastFileAccessed)) {
-            PerformanceCounters.inc(PerformanceCounters.STORAGE_LARGE_SEEKS);
+            largeSeeks.inc();
         }
         else {
             // Compute the "number of sectors difference" between the last
@@ -98,14 +141,18 @@ public class FileManagerImpl implements FileManager {
             diff /= 512;
 
             if (Math.abs(diff) > LARGE_SEEK_THRESHOLD)
-                PerformanceCounters.inc(PerformanceCounters.STORAGE_LARGE_SEEKS);
+                largeSeeks.inc();
         }
 
-        PerformanceCounters.inc(read ? PerformanceCounters.STORAGE_PAGES_READ :
-            PerformanceCounters.STORAGE_PAGES_WRITTEN);
-
-        PerformanceCounters.add(read ? PerformanceCounters.STORAGE_BYTES_READ :
-            PerformanceCounters.STORAGE_BYTES_WRITTEN, bufSize);
+        if (read) {
+            pagesRead.inc();
+            bytesRead.add(bufSize);
+        }
+        else {
+            pagesWritten.inc();
+            bytesWritten.add(bufSize);
+        }
+        dbFile.recordPageIO(read, bufSize);
 
         lastFileAccessed = dbFile;
         lastPageNoAccessed = pageNo;
@@ -158,6 +205,7 @@ public class FileManagerImpl implements FileManager {
         buffer[1] = (byte) DBFile.encodePageSize(pageSize);
 
         savePage(dbFile, 0, buffer);
+        recordFileOpened(dbFile);
 
         return dbFile;
     }
@@ -169,7 +217,9 @@ public class FileManagerImpl implements FileManager {
         File newDataFile = new File(baseDir, newFilename);
         if (dataFile.renameTo(newDataFile)) {
             // Rename succeeded!
+            recordFileClosed(dbFile);
             dbFile.setDataFile(newDataFile);
+            recordFileOpened(dbFile);
             return true;
         }
 
@@ -206,10 +256,39 @@ public class FileManagerImpl implements FileManager {
         logger.debug(String.format("Opened existing database file %s; " +
             "type is %s, page size is %d.", f, type, pageSize));
 
+        recordFileOpened(dbFile);
         return dbFile;
     }
 
 
+    @Override
+    public List<DBFile> getOpenFiles() {
+        synchronized (openFiles) {
+            return new ArrayList<DBFile>(openFiles.values());
+        }
+    }
+
+
+    /** Records that a file was opened, replacing any older copy of it. */
+    private void recordFileOpened(DBFile dbFile) {
+        synchronized (openFiles) {
+            String filename = dbFile.getDataFile().getName();
+            openFiles.remove(filename);
+            openFiles.put(filename, dbFile);
+        }
+    }
+
+
+    /** Records that a file was closed, unless a newer copy of it is open. */
+    private void recordFileClosed(DBFile dbFile) {
+        synchronized (openFiles) {
+            String filename = dbFile.getDataFile().getName();
+            if (openFiles.get(filename) == dbFile)
+                openFiles.remove(filename);
+        }
+    }
+
+
     @Override
     public void loadPage(DBFile dbFile, int pageNo, byte[] buffer,
                          boolean create) throws IOException {
@@ -308,7 +387,10 @@ public class FileManagerImpl implements FileManager {
     @Override
     public void syncDBFile(DBFile dbFile) throws IOException {
         logger.info("Synchronizing database file to disk:  " + dbFile);
+        long start = System.nanoTime();
         dbFile.getFileContents().getFD().sync();
+        fsyncLatency.recordSince(start);
+        dbFile.recordSync();
     }
 
 
@@ -320,6 +402,7 @@ public class FileManagerImpl implements FileManager {
 
         logger.info("Closing database file:  " + dbFile);
         dbFile.getFileContents().close();
+        recordFileClosed(dbFile);
     }
 
 
@@ -335,6 +418,10 @@ public class FileManagerImpl implements FileManager {
     public void deleteDBFile(File f) throws IOException {
         if (!f.delete())
             throw new IOException("Couldn't delete file \"" + f.getName() + "\".");
+
+        synchronized (openFiles) {
+            openFiles.remove(f.getName());
+        }
     }
 
 
@@ -13,6 +13,7 @@ import edu.caltech.nanodb.relations.ForeignKeyColumnRefs;
 import edu.caltech.nanodb.relations.KeyColumnRefs;
 import edu.caltech.nanodb.relations.TableInfo;
 import edu.caltech.nanodb.relations.TableSchema;
+import edu.caltech.nanodb.transactions.TransactionManager;
 
 
 /**
@@ -114,6 +115,13 @@ public class IndexedTableManager implements TableManager {
         }
         TupleFileManager tupleFileManager = storageManager.getTupleFileManager(type);
 
+        // Tables created while multi-version concurrency control is enabled
+        // store version information in every tuple.  B+ tree files don't
+        // write-ahead log their changes, so versions left by an aborted
+        // transaction couldn't be undone; they remain unversioned.
+        schema.setVersioned(TransactionManager.isMVCCEnabled() &&
+            type != DBFileType.BTREE_TUPLE_FILE);
+
         // First, create a new DBFile that the tuple file will go into.
         FileManager fileManager = storageManager.getFileManager();
         DBFile dbFile = fileManager.createDBFile(tblFileName, type, pageSize);
@@ -176,9 +184,17 @@ public class IndexedTableManager implements TableManager {
 
     // Inherit interface docs.
     @Override
-    public void analyzeTable(TableInfo tableInfo) throws IOException {
+    public List<TableInfo> getOpenTables() {
+        return new ArrayList<TableInfo>(openTables.values());
+    }
+
+
+    // Inherit interface docs.
+    @Override
+    public void analyzeTable(TableInfo tableInfo, TableSample sample)
+        throws IOException {
         // Analyze the table's tuple-file.
-        tableInfo.getTupleFile().analyze();
+        tableInfo.getTupleFile().analyze(sample);
 
         // TODO:  Probably want to analyze all the indexes associated with
         //        the table as well...
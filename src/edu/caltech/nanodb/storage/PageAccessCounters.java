@@ -0,0 +1,80 @@
+package edu.caltech.nanodb.storage;
+
+
+/**
+ * This class counts the pages that a thread loads through the
+ * {@link StorageManager}, separated into the pages that were found in the
+ * buffer manager and the pages that had to be read from their files.  Each
+ * thread has its own counters, so they can be updated without any
+ * synchronization, and a plan node can find out how many pages it loaded by
+ * comparing the counters before and after it produces its results.
+ */
+public class PageAccessCounters {
+
+    /** The counters of each thread. */
+    private static final ThreadLocal<PageAccessCounters> threadCounters =
+        new ThreadLocal<PageAccessCounters>() {
+            @Override
+            protected PageAccessCounters initialValue() {
+                return new PageAccessCounters();
+            }
+        };
+
+
+    /**
+     * Returns the counters of the current thread.
+     *
+     * @return the counters of the current thread
+     */
+    public static PageAccessCounters forCurrentThread() {
+        return threadCounters.get();
+    }
+
+
+    /** The number of pages that were found in the buffer manager. */
+    private long pagesHit;
+
+
+    /** The number of pages that were read from their files. */
+    private long pagesRead;
+
+
+    private PageAccessCounters() {
+        // Only created for threads by threadCounters.
+    }
+
+
+    public long getPagesHit() {
+        return pagesHit;
+    }
+
+
+    public long getPagesRead() {
+        return pagesRead;
+    }
+
+
+    /**
+     * Records pages that another thread loaded on behalf of this thread, such
+     * as a worker thread that evaluated part of this thread's query.
+     *
+     * @param pagesHit the number of pages found in the buffer manager
+     * @param pagesRead the number of pages read from their files
+     */
+    public void add(long pagesHit, long pagesRead) {
+        this.pagesHit += pagesHit;
+        this.pagesRead += pagesRead;
+    }
+
+
+    /** Records that a page was found in the buffer manager. */
+    void recordHit() {
+        pagesHit++;
+    }
+
+
+    /** Records that a page was read from its file. */
+    void recordRead() {
+        pagesRead++;
+    }
+}
@@ -4,14 +4,19 @@ package edu.caltech.nanodb.storage;
 import java.util.Collections;
 import java.util.List;
 
+import edu.caltech.nanodb.client.SessionState;
+
 import edu.caltech.nanodb.expressions.TypeConverter;
 
 import edu.caltech.nanodb.relations.ColumnInfo;
 import edu.caltech.nanodb.relations.ColumnType;
 import edu.caltech.nanodb.relations.Schema;
 import edu.caltech.nanodb.relations.SQLDataType;
+import edu.caltech.nanodb.relations.TableSchema;
 import edu.caltech.nanodb.relations.Tuple;
 
+import edu.caltech.nanodb.transactions.TransactionState;
+
 
 /**
  * <p>
@@ -26,7 +31,13 @@ import edu.caltech.nanodb.relations.Tuple;
  * Each tuple is stored in a layout like this:
  * </p>
  * <ul>
- *   <li>The first one or more bytes are dedicated to a <tt>NULL</tt>-bitmap,
+ *   <li>If the tuple's schema is a {@link TableSchema} whose tuples are
+ *       versioned, the first {@link #VERSION_HEADER_SIZE} bytes hold the
+ *       tuple's version information:  the ID of the inserting transaction,
+ *       the ID of the deleting transaction (0 if the tuple hasn't been
+ *       deleted), and the ID of the inserting command within its
+ *       transaction.</li>
+ *   <li>The next one or more bytes are dedicated to a <tt>NULL</tt>-bitmap,
  *       which records columns that are currently <tt>NULL</tt>.</li>
  *   <li>The remaining bytes are dedicated to storing the non-<tt>NULL</tt>
  *       values for the columns in the tuple.</li>
@@ -51,6 +62,22 @@ public abstract class PageTuple implements Tuple {
     public static final int NULL_OFFSET = 0;
 
 
+    /** The size of the version header stored in versioned tuples. */
+    public static final int VERSION_HEADER_SIZE = 12;
+
+
+    /** The offset in the version header of the inserting transaction's ID. */
+    private static final int OFFSET_XMIN = 0;
+
+
+    /** The offset in the version header of the deleting transaction's ID. */
+    private static final int OFFSET_XMAX = 4;
+
+
+    /** The offset in the version header of the inserting command's ID. */
+    private static final int OFFSET_CMIN = 8;
+
+
     /**
      * The pin-count of this tuple.  Note that this tuple's pin-count will
      * likely be different from the backing {@code DBPage}'s pin-count,
@@ -71,6 +98,13 @@ public abstract class PageTuple implements Tuple {
     private Schema schema;
 
 
+    /**
+     * The number of bytes before the <tt>NULL</tt>-bitmap; this is either 0
+     * or {@link #VERSION_HEADER_SIZE}.
+     */
+    private int headerSize;
+
+
     /**
      * This array contains the cached offsets of each value in this tuple.
      * The array is populated when a tuple is constructed.  For columns with
@@ -113,6 +147,7 @@ public abstract class PageTuple implements Tuple {
         this.dbPage = dbPage;
         this.pageOffset = pageOffset;
         this.schema = schema;
+        this.headerSize = getVersionHeaderSize(schema);
 
         pin();  // Pin ourselves immediately so that we don't lose the DBPage.
 
@@ -220,6 +255,116 @@ public abstract class PageTuple implements Tuple {
     }
 
 
+    /**
+     * Returns true if this tuple carries version information for
+     * multi-version concurrency control.
+     *
+     * @return true if the tuple is versioned
+     */
+    public boolean isVersioned() {
+        return headerSize != 0;
+    }
+
+
+    private void checkVersioned() {
+        if (headerSize == 0)
+            throw new IllegalStateException("Tuple is not versioned");
+    }
+
+
+    /**
+     * Returns the ID of the transaction that inserted this tuple version, or
+     * 0 if the version predates all transactions that are still running.
+     *
+     * @return the ID of the inserting transaction
+     *
+     * @throws IllegalStateException if the tuple is not versioned
+     */
+    public int getInsertingTxnID() {
+        checkVersioned();
+        return dbPage.readInt(pageOffset + OFFSET_XMIN);
+    }
+
+
+    /**
+     * Returns the ID of the transaction that deleted this tuple version, or
+     * 0 if the version hasn't been deleted.
+     *
+     * @return the ID of the deleting transaction
+     *
+     * @throws IllegalStateException if the tuple is not versioned
+     */
+    public int getDeletingTxnID() {
+        checkVersioned();
+        return dbPage.readInt(pageOffset + OFFSET_XMAX);
+    }
+
+
+    /**
+     * Records the ID of the transaction that deleted this tuple version.
+     * The caller is responsible for logging the page write.
+     *
+     * @param txnID the ID of the deleting transaction, or 0 to clear it
+     *
+     * @throws IllegalStateException if the tuple is not versioned
+     */
+    public void setDeletingTxnID(int txnID) {
+        checkVersioned();
+        dbPage.writeInt(pageOffset + OFFSET_XMAX, txnID);
+    }
+
+
+    /**
+     * Marks this tuple version as deleted by the current transaction, rather
+     * than removing it from the page.  The version remains visible to other
+     * transactions until the current transaction commits, and is physically
+     * removed once no running transaction can see it.  The caller is
+     * responsible for logging the page write.
+     *
+     * @throws IllegalStateException if the tuple is not versioned
+     */
+    public void markDeleted() {
+        setDeletingTxnID(getCurrentTxnID());
+    }
+
+
+    /**
+     * Returns the ID of the command within the inserting transaction that
+     * inserted this tuple version.  This allows a command to ignore the
+     * versions it has inserted itself.
+     *
+     * @return the ID of the inserting command
+     *
+     * @throws IllegalStateException if the tuple is not versioned
+     */
+    public int getInsertingCommandID() {
+        checkVersioned();
+        return dbPage.readInt(pageOffset + OFFSET_CMIN);
+    }
+
+
+    /**
+     * Overwrites the version information of this tuple.  This is used when a
+     * storage format physically moves a tuple, so that the moved tuple
+     * remains the same version.  The caller is responsible for logging the
+     * page write.
+     *
+     * @param insertingTxnID the ID of the inserting transaction
+     * @param deletingTxnID the ID of the deleting transaction, or 0
+     * @param insertingCommandID the ID of the inserting command
+     *
+     * @throws IllegalStateException if the tuple is not versioned
+     */
+    public void setVersion(int insertingTxnID, int deletingTxnID,
+                           int insertingCommandID) {
+        checkVersioned();
+
+        dbPage.writeInt(pageOffset + OFFSET_XMIN, insertingTxnID);
+        dbPage.writeInt(pageOffset + OFFSET_XMAX, deletingTxnID);
+        dbPage.writeInt(pageOffset + OFFSET_CMIN, insertingCommandID);
+    }
+
+
     /**
      * This helper method checks the column index for being in the proper
      * range of values.
@@ -261,7 +406,7 @@ public abstract class PageTuple implements Tuple {
         checkColumnIndex(colIndex);
 
         // Skip to the byte that contains the NULL-flag for this specific column.
-        int nullFlagOffset = pageOffset + (colIndex / 8);
+        int nullFlagOffset = pageOffset + headerSize + (colIndex / 8);
 
         // Shift the flags in that byte right, so that the flag for the
         // requested column is in the least significant bit (LSB).
@@ -286,7 +431,7 @@ public abstract class PageTuple implements Tuple {
         checkColumnIndex(colIndex);
 
         // Skip to the byte that contains the NULL-flag for this specific column.
-        int nullFlagOffset = pageOffset + (colIndex / 8);
+        int nullFlagOffset = pageOffset + headerSize + (colIndex / 8);
 
         // Create a bit-mask for setting or clearing the specified NULL flag,
         // then set/clear the flag in the mask byte.
@@ -305,7 +450,8 @@ public abstract class PageTuple implements Tuple {
 
     /**
      * Returns the offset where the tuple's data actually starts.  This is
-     * past the bytes used to store NULL-flags.
+     * past the version header, if any, and the bytes used to store
+     * NULL-flags.
      *
      * @return the starting index of the tuple's data
      */
@@ -313,7 +459,7 @@ public abstract class PageTuple implements Tuple {
         // Compute how many bytes the NULL flags take, at the start of the
         // tuple data.
         int nullFlagBytes = getNullFlagsSize(schema.numColumns());
-        return pageOffset + nullFlagBytes;
+        return pageOffset + headerSize + nullFlagBytes;
     }
 
 
@@ -370,6 +516,23 @@ public abstract class PageTuple implements Tuple {
     }
 
 
+    /**
+     * Returns the offset in the page of the specified column's value, or
+     * {@link #NULL_OFFSET} if the column is <tt>NULL</tt>.  This allows
+     * values to be read directly from the page's data, without creating an
+     * object for each value as {@link #getColumnValue} does.
+     *
+     * @param colIndex the index of the column
+     *
+     * @return the offset of the column's value in the page, or
+     *         {@link #NULL_OFFSET}
+     */
+    public int getColumnOffset(int colIndex) {
+        checkColumnIndex(colIndex);
+        return valueOffsets[colIndex];
+    }
+
+
     /**
      * Returns true if the specified column is currently set to the SQL
      * <tt>NULL</tt> value.
@@ -628,6 +791,39 @@ public abstract class PageTuple implements Tuple {
     }
 
 
+    /**
+     * Returns the ID of the current session's transaction, or 0 if no
+     * transaction is in progress.
+     *
+     * @return the ID to record in the version header of a tuple
+     */
+    private static int getCurrentTxnID() {
+        TransactionState txnState = SessionState.get().getTxnState();
+        if (txnState.isTxnInProgress())
+            return txnState.getTransactionID();
+
+        return 0;
+    }
+
+
+    /**
+     * Returns the number of bytes of version information stored at the start
+     * of each tuple with the specified schema.  Only tables whose schema is
+     * marked as versioned store this information.
+     *
+     * @param schema the schema of the tuples
+     *
+     * @return {@link #VERSION_HEADER_SIZE} if the tuples are versioned, or 0
+     *         otherwise
+     */
+    public static int getVersionHeaderSize(Schema schema) {
+        if (schema instanceof TableSchema && ((TableSchema) schema).isVersioned())
+            return VERSION_HEADER_SIZE;
+
+        return 0;
+    }
+
+
     /**
      * Returns the storage size of a particular column's (non-<tt>NULL</tt>)
      * value, in bytes.  The length of the value is required in cases where
@@ -717,7 +913,8 @@ public abstract class PageTuple implements Tuple {
                 "Tuple has different arity than target schema.");
         }
 
-        int storageSize = getNullFlagsSize(schema.numColumns());
+        int storageSize = getVersionHeaderSize(schema) +
+            getNullFlagsSize(schema.numColumns());
         int iCol = 0;
         for (ColumnInfo colInfo : schema.getColumnInfos()) {
 
@@ -754,8 +951,19 @@ public abstract class PageTuple implements Tuple {
             "Tuple has different arity than target schema.");
         }
 
-        // Start writing data just past the NULL-flag bytes.
-        int currOffset = pageOffset + getNullFlagsSize(schema.numColumns());
+        // New versions are stamped with the current transaction and command,
+        // so that other transactions can tell whether they are visible.
+        int headerSize = getVersionHeaderSize(schema);
+        if (headerSize != 0) {
+            TransactionState txnState = SessionState.get().getTxnState();
+            dbPage.writeInt(pageOffset + OFFSET_XMIN, getCurrentTxnID());
+            dbPage.writeInt(pageOffset + OFFSET_XMAX, 0);
+            dbPage.writeInt(pageOffset + OFFSET_CMIN, txnState.getCommandID());
+        }
+
+        // Start writing data just past the version header and NULL-flag bytes.
+        int nullFlagsStart = pageOffset + headerSize;
+        int currOffset = nullFlagsStart + getNullFlagsSize(schema.numColumns());
         int iCol = 0;
         for (ColumnInfo colInfo : schema.getColumnInfos()) {
             ColumnType colType = colInfo.getType();
@@ -765,11 +973,11 @@ public abstract class PageTuple implements Tuple {
             // If the value is NULL (represented by Java's null here) then set
             // the corresponding NULL-flag.  Otherwise, write the value.
             if (value == null) {
-                setNullFlag(dbPage, pageOffset, iCol, true);
+                setNullFlag(dbPage, nullFlagsStart, iCol, true);
             }
             else {
                 // Write in the data value.
-                setNullFlag(dbPage, pageOffset, iCol, false);
+                setNullFlag(dbPage, nullFlagsStart, iCol, false);
                 dataSize = writeNonNullValue(dbPage, currOffset, colType, value);
             }
 
@@ -159,6 +159,13 @@ import edu.caltech.nanodb.relations.TableSchema;
  *     </ul>
  *   </dd>
  *
+ *   <dt>Table Flags:</dt>
+ *
+ *   <dd>
+ *     A single unsigned byte of flags.  Bit 0 is set if the table's tuples
+ *     are versioned (see {@link TableSchema#isVersioned}).
+ *   </dd>
+ *
  * </dl>
  */
 public class SchemaWriter {
@@ -191,6 +198,9 @@ public class SchemaWriter {
         // Write all details of indexes on this table:
         writeIndexes(schema, pgWriter);
 
+        // Write the table's flags:
+        writeTableFlags(schema, pgWriter);
+
         // Report how much space was used by schema info.
         if (logger.isDebugEnabled()) {
             int size = pgWriter.getPosition() - startPosition;
@@ -459,6 +469,19 @@ public class SchemaWriter {
     }
 
 
+    /** Table-flag bit recording that the table's tuples are versioned. */
+    private static final int FLAG_VERSIONED = 0x01;
+
+
+    protected void writeTableFlags(TableSchema schema, PageWriter pgWriter) {
+        int flags = 0;
+        if (schema.isVersioned())
+            flags |= FLAG_VERSIONED;
+
+        pgWriter.writeByte(flags);
+    }
+
+
     /**
      * This method opens the data file corresponding to the specified table
      * name and reads in the table's schema.
@@ -487,6 +510,8 @@ public class SchemaWriter {
 
         readIndexes(pgReader, schema);
 
+        readTableFlags(pgReader, schema);
+
         logger.info("Completed schema:  " + schema);
         return schema;
     }
@@ -762,4 +787,10 @@ public class SchemaWriter {
 
         return new ColumnRefs(indexName, idxCols);
     }
+
+
+    protected void readTableFlags(PageReader pgReader, TableSchema schema) {
+        int flags = pgReader.readUnsignedByte();
+        schema.setVersioned((flags & FLAG_VERSIONED) != 0);
+    }
 }
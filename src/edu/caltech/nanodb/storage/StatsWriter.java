@@ -8,6 +8,8 @@ import org.apache.log4j.Logger;
 import edu.caltech.nanodb.qeval.ColumnStats;
 import edu.caltech.nanodb.qeval.TableStats;
 import edu.caltech.nanodb.relations.ColumnInfo;
+import edu.caltech.nanodb.relations.ColumnType;
+import edu.caltech.nanodb.relations.SQLDataType;
 import edu.caltech.nanodb.relations.Schema;
 
 
@@ -47,11 +49,35 @@ public class StatsWriter {
     private static final int COLSTAT_NULLMASK_MAX_VALUE = 0x01;
 
 
+    /**
+     * A bit-mask used for storing column-stats, to record whether or not the
+     * column's most common values are present.  Unlike the bits above, this
+     * bit is set when the values <em>are</em> present, so that stats stored
+     * before most common values were kept are still read correctly.
+     */
+    private static final int COLSTAT_MASK_MOST_COMMON_VALUES = 0x10;
+
+
+    /**
+     * A bit-mask used for storing column-stats, to record whether or not the
+     * column's histogram is present.  Like
+     * {@link #COLSTAT_MASK_MOST_COMMON_VALUES}, this bit is set when the
+     * histogram is present.
+     */
+    private static final int COLSTAT_MASK_HISTOGRAM = 0x20;
+
+
     public void writeTableStats(Schema schema, TableStats stats, PageWriter pgWriter) {
         logger.debug("Writing table-statistics:  " + stats);
 
         int startPosition = pgWriter.getPosition();
 
+        // The stats are the last thing in the header page.  The most common
+        // values and histograms of the columns are only stored while there
+        // is room for them after the rest of the stats.
+        int spaceLeft = pgWriter.getDBPage().getPageSize() - startPosition -
+            getBasicStatsSize(schema, stats);
+
         pgWriter.writeShort(stats.numDataPages);
         pgWriter.writeInt(stats.numTuples);
         pgWriter.writeFloat(stats.avgTupleSize);
@@ -69,6 +95,28 @@ public class StatsWriter {
             int numNull   = c.getNumNullValues();
             Object minVal = c.getMinValue();
             Object maxVal = c.getMaxValue();
+            ColumnType colType = colInfo.getType();
+
+            Object[] common = null;
+            float[] frequencies = null;
+            if (c.hasMostCommonValues()) {
+                int size = 1 + getValuesSize(colType, c.getMostCommonValues()) +
+                    4 * c.getMostCommonValues().length;
+                if (size <= spaceLeft) {
+                    common = c.getMostCommonValues();
+                    frequencies = c.getMostCommonFrequencies();
+                    spaceLeft -= size;
+                }
+            }
+
+            Object[] bounds = null;
+            if (c.hasHistogram()) {
+                int size = 1 + getValuesSize(colType, c.getHistogramBounds());
+                if (size <= spaceLeft) {
+                    bounds = c.getHistogramBounds();
+                    spaceLeft -= size;
+                }
+            }
 
             // Build up the NULL-mask.
 
@@ -84,6 +132,12 @@ public class StatsWriter {
             if (maxVal == null)
                 nullMask |= COLSTAT_NULLMASK_MAX_VALUE;
 
+            if (common != null)
+                nullMask |= COLSTAT_MASK_MOST_COMMON_VALUES;
+
+            if (bounds != null)
+                nullMask |= COLSTAT_MASK_HISTOGRAM;
+
             // Store the NULL-mask, then store the non-NULL values.
 
             logger.debug(String.format("Writing column-stat data:  " +
@@ -103,6 +157,20 @@ public class StatsWriter {
 
             if (maxVal != null)
                 pgWriter.writeObject(colInfo.getType(), maxVal);
+
+            if (common != null) {
+                pgWriter.writeByte(common.length);
+                for (int j = 0; j < common.length; j++) {
+                    pgWriter.writeObject(colType, common[j]);
+                    pgWriter.writeFloat(frequencies[j]);
+                }
+            }
+
+            if (bounds != null) {
+                pgWriter.writeByte(bounds.length);
+                for (Object bound : bounds)
+                    pgWriter.writeObject(colType, bound);
+            }
         }
 
         if (logger.isDebugEnabled()) {
@@ -141,6 +209,24 @@ public class StatsWriter {
             if ((nullMask & COLSTAT_NULLMASK_MAX_VALUE) == 0)
                 c.setMaxValue(pgReader.readObject(colInfo.getType()));
 
+            if ((nullMask & COLSTAT_MASK_MOST_COMMON_VALUES) != 0) {
+                int num = pgReader.readUnsignedByte();
+                Object[] common = new Object[num];
+                float[] frequencies = new float[num];
+                for (int j = 0; j < num; j++) {
+                    common[j] = pgReader.readObject(colInfo.getType());
+                    frequencies[j] = pgReader.readFloat();
+                }
+                c.setMostCommonValues(common, frequencies);
+            }
+
+            if ((nullMask & COLSTAT_MASK_HISTOGRAM) != 0) {
+                Object[] bounds = new Object[pgReader.readUnsignedByte()];
+                for (int j = 0; j < bounds.length; j++)
+                    bounds[j] = pgReader.readObject(colInfo.getType());
+                c.setHistogramBounds(bounds);
+            }
+
             logger.debug(String.format("Read column-stat data:  " +
                 "nullmask=0x%X, unique=%d, null=%d, min=%s, max=%s",
                 nullMask, c.getNumUniqueValues(), c.getNumNullValues(),
@@ -151,4 +237,55 @@ public class StatsWriter {
 
         return new TableStats(numDataPages, numTuples, avgTupleSize, colStats);
     }
+
+
+    /**
+     * Returns the number of bytes that the stats take, not counting the
+     * columns' most common values and histograms.
+     */
+    private int getBasicStatsSize(Schema schema, TableStats stats) {
+        // The number of data pages, the number of tuples and the average
+        // tuple size.
+        int size = 2 + 4 + 4;
+
+        ArrayList<ColumnStats> colStats = stats.getAllColumnStats();
+        for (int i = 0; i < colStats.size(); i++) {
+            ColumnStats c = colStats.get(i);
+            ColumnType colType = schema.getColumnInfo(i).getType();
+
+            // The NULL-mask.
+            size++;
+
+            if (c.getNumUniqueValues() != -1)
+                size += 4;
+
+            if (c.getNumNullValues() != -1)
+                size += 4;
+
+            size += getValuesSize(colType, c.getMinValue(), c.getMaxValue());
+        }
+
+        return size;
+    }
+
+
+    /**
+     * Returns the number of bytes that the specified non-<tt>NULL</tt>
+     * values of a column take when they are stored.
+     */
+    private int getValuesSize(ColumnType colType, Object... values) {
+        int size = 0;
+        for (Object value : values) {
+            if (value == null)
+                continue;
+
+            int length = 0;
+            if (colType.getBaseType() == SQLDataType.VARCHAR)
+                length = value.toString().length();
+
+            size += PageTuple.getStorageSize(colType, length);
+        }
+
+        return size;
+    }
 }
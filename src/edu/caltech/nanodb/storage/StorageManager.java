@@ -15,6 +15,9 @@ import edu.caltech.nanodb.indexes.IndexManager;
 
 import edu.caltech.nanodb.indexes.IndexUpdater;
 import edu.caltech.nanodb.server.EventDispatcher;
+import edu.caltech.nanodb.server.performance.Counter;
+import edu.caltech.nanodb.server.performance.Gauge;
+import edu.caltech.nanodb.server.performance.MetricsRegistry;
 import edu.caltech.nanodb.server.properties.PropertyHandler;
 import edu.caltech.nanodb.server.properties.PropertyRegistry;
 import edu.caltech.nanodb.server.properties.ReadOnlyPropertyException;
@@ -22,6 +25,7 @@ import edu.caltech.nanodb.server.properties.UnrecognizedPropertyException;
 
 import edu.caltech.nanodb.storage.btreefile.BTreeTupleFileManager;
 import edu.caltech.nanodb.storage.heapfile.HeapTupleFileManager;
+import edu.caltech.nanodb.transactions.LockException;
 import edu.caltech.nanodb.transactions.TransactionManager;
 
 import edu.caltech.nanodb.storage.linhash.LinHashTupleFileManager;
@@ -39,6 +43,29 @@ public class StorageManager {
     private static Logger logger = Logger.getLogger(StorageManager.class);
 
 
+    /** The number of pages loaded that were found in the buffer manager. */
+    private static final Counter pageHits =
+        MetricsRegistry.getInstance().counter("bufmgr.pageHits");
+
+
+    /** The number of pages loaded that had to be read from their files. */
+    private static final Counter pageMisses =
+        MetricsRegistry.getInstance().counter("bufmgr.pageMisses");
+
+
+    static {
+        // The fraction of loaded pages that were found in the buffer manager,
+        // since the counters were last reset.
+        MetricsRegistry.getInstance().addGauge(new Gauge("bufmgr.hitRatio") {
+            public double getValue() {
+                long hits = pageHits.get();
+                long total = hits + pageMisses.get();
+                return (total == 0) ? 0 : (double) hits / total;
+            }
+        });
+    }
+
+
     /*========================================================================
      * STATIC FIELDS AND METHODS
      */
@@ -186,6 +213,13 @@ public class StorageManager {
     private IndexManager indexManager;
 
 
+    /**
+     * The component that analyzes tables again once they have changed enough,
+     * which is removed from the event dispatcher on shutdown.
+     */
+    private AutoAnalyzer autoAnalyzer;
+
+
     /**
      * This mapping is used to keep track of the tuple-file managers for all
      * the kinds of tuple-files we support.
@@ -276,6 +310,12 @@ public class StorageManager {
             eventDispatcher.addRowEventListener(new IndexUpdater(this));
         }
 
+        // Register the event-handler that keeps table statistics current.
+        // It is registered after the transaction manager's handler, so that
+        // the command's transaction has ended when it analyzes tables.
+        autoAnalyzer = new AutoAnalyzer(this);
+        eventDispatcher.addCommandEventListener(autoAnalyzer);
+
         initialized = true;
     }
 
@@ -295,8 +335,10 @@ public class StorageManager {
                 "Storage manager is not initialized.");
         }
 
+        EventDispatcher.getInstance().removeCommandEventListener(autoAnalyzer);
+
         if (transactionManager != null)
-            transactionManager.forceWAL();
+            transactionManager.shutdown();
 
         List<DBFile> dbFiles = bufferManager.removeAll();
         for (DBFile dbFile : dbFiles)
@@ -445,25 +487,38 @@ public class StorageManager {
     public DBPage loadDBPage(DBFile dbFile, int pageNo, boolean create)
         throws IOException {
 
-        // Try to retrieve from the buffer manager.
-        DBPage dbPage = bufferManager.getPage(dbFile, pageNo);
-        if (dbPage == null) {
-            // Buffer manager didn't have it.  Read the page directly from
-            // the file, then add it to the buffer manager.
-            dbPage = new DBPage(bufferManager, dbFile, pageNo);
-            try {
-                fileManager.loadPage(dbFile, pageNo, dbPage.getPageData(), create);
-                bufferManager.addPage(dbPage);
+        // Hold the buffer manager's lock while looking for the page and
+        // loading it, so that threads loading the same page at once don't
+        // both read it and try to add it to the buffer manager.
+        synchronized (bufferManager) {
+            // Try to retrieve from the buffer manager.
+            DBPage dbPage = bufferManager.getPage(dbFile, pageNo);
+            PageAccessCounters counters = PageAccessCounters.forCurrentThread();
+            if (dbPage == null) {
+                // Buffer manager didn't have it.  Read the page directly from
+                // the file, then add it to the buffer manager.
+                dbPage = new DBPage(bufferManager, dbFile, pageNo);
+                try {
+                    fileManager.loadPage(dbFile, pageNo, dbPage.getPageData(),
+                        create);
+                    bufferManager.addPage(dbPage);
+                    counters.recordRead();
+                    pageMisses.inc();
+                }
+                catch (IOException e) {
+                    // Make sure to release the DBPage's buffer, or else we
+                    // will have a resource leak...
+                    dbPage.invalidate();
+                    throw e;
+                }
             }
-            catch (IOException e) {
-                // Make sure to release the DBPage's buffer, or else we will
-                // have a resource leak...
-                dbPage.invalidate();
-                throw e;
+            else {
+                counters.recordHit();
+                pageHits.inc();
             }
-        }
 
-        return dbPage;
+            return dbPage;
+        }
     }
 
 
@@ -494,6 +549,31 @@ public class StorageManager {
     }
 
 
+    /**
+     * This method must be called before a tuple file modifies the specified
+     * page, so that the transaction manager can lock the page for the current
+     * transaction.  The page stays locked until the transaction ends, so that
+     * rolling back the transaction can't undo other transactions' changes to
+     * the page.
+     *
+     * @param dbPage the page that is about to be modified
+     *
+     * @throws IOException if the page couldn't be locked; the cause is the
+     *         {@link LockException} reported by the lock manager
+     */
+    public void lockDBPageWrite(DBPage dbPage) throws IOException {
+        if (transactionManager != null) {
+            try {
+                transactionManager.lockPageForWrite(dbPage);
+            }
+            catch (LockException e) {
+                throw new IOException("Couldn't lock page " +
+                    dbPage.getPageNo() + " of file " + dbPage.getDBFile(), e);
+            }
+        }
+    }
+
+
     /**
      * This method causes any changes to the specified page to be logged by
      * the transaction manager's write-ahead log, so that the changes can be
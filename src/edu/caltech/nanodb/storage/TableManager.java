@@ -2,6 +2,7 @@ package edu.caltech.nanodb.storage;
 
 
 import java.io.IOException;
+import java.util.List;
 
 import edu.caltech.nanodb.commands.CommandProperties;
 import edu.caltech.nanodb.relations.TableInfo;
@@ -79,16 +80,28 @@ public interface TableManager {
     void saveTableInfo(TableInfo tableInfo) throws IOException;
 
 
+    /**
+     * Returns the tables that are currently open.
+     *
+     * @return a list of the tables that are currently open
+     */
+    List<TableInfo> getOpenTables();
+
+
     /**
      * This function analyzes the specified table, and updates the table's
      * statistics to be the most up-to-date values.
      *
      * @param tableInfo the opened table to analyze.
      *
+     * @param sample the part of the table to read, or {@code null} to read
+     *        the whole table
+     *
      * @throws IOException if an IO error occurs while trying to analyze the
      *         table.
      */
-    void analyzeTable(TableInfo tableInfo) throws IOException;
+    void analyzeTable(TableInfo tableInfo, TableSample sample)
+        throws IOException;
 
 
     /**
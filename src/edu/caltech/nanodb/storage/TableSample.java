@@ -0,0 +1,155 @@
+package edu.caltech.nanodb.storage;
+
+
+import java.util.Arrays;
+import java.util.Random;
+
+
+/**
+ * This class specifies how much of a table's file <tt>ANALYZE</tt> reads, as
+ * in <tt>ANALYZE t SAMPLE 10 PERCENT</tt> or <tt>ANALYZE t SAMPLE 50
+ * PAGES</tt>.  A table file divides its data into <em>units</em> that are
+ * sampled as a whole, such as the data pages of a heap file or the buckets
+ * of a hash file, and the sample chooses which of them to read; the file then
+ * scales the statistics of the units it read up to the whole file.
+ */
+public class TableSample {
+
+    /** The ways in which the size of a sample can be specified. */
+    public enum Unit {
+        /** The sample holds a number of the file's units. */
+        PAGES,
+
+        /** The sample holds a percentage of the file's units. */
+        PERCENT
+    }
+
+
+    /** The size of the sample, in the units specified by {@link #unit}. */
+    private float amount;
+
+
+    /** How the size of the sample is specified. */
+    private Unit unit;
+
+
+    /** The source of the random choices of units. */
+    private Random random;
+
+
+    /**
+     * Creates a new sample specification.
+     *
+     * @param amount the number of units, or the percentage of units, to read
+     * @param unit how the size of the sample is specified
+     *
+     * @throws IllegalArgumentException if the amount isn't positive, or is a
+     *         percentage greater than 100
+     */
+    public TableSample(float amount, Unit unit) {
+        this(amount, unit, new Random());
+    }
+
+
+    /**
+     * Creates a new sample specification, which makes its random choices
+     * with the specified source of randomness.  This allows the choices to
+     * be reproduced.
+     *
+     * @param amount the number of units, or the percentage of units, to read
+     * @param unit how the size of the sample is specified
+     * @param random the source of the random choices of units
+     *
+     * @throws IllegalArgumentException if the amount isn't positive, or is a
+     *         percentage greater than 100
+     */
+    public TableSample(float amount, Unit unit, Random random) {
+        if (unit == null)
+            throw new IllegalArgumentException("unit cannot be null");
+
+        if (random == null)
+            throw new IllegalArgumentException("random cannot be null");
+
+        if (!(amount > 0) || (unit == Unit.PERCENT && amount > 100)) {
+            throw new IllegalArgumentException("Invalid sample size " +
+                amount + " " + unit);
+        }
+
+        this.amount = amount;
+        this.unit = unit;
+        this.random = random;
+    }
+
+
+    public float getAmount() {
+        return amount;
+    }
+
+
+    public Unit getUnit() {
+        return unit;
+    }
+
+
+    /**
+     * Returns the number of units to read from a file with the specified
+     * number of units.  At least one unit is read from a nonempty file.
+     *
+     * @param numUnits the number of units in the file
+     *
+     * @return the number of units in the sample
+     */
+    public int getSampleSize(int numUnits) {
+        long size;
+        if (unit == Unit.PERCENT)
+            size = (long) Math.ceil(numUnits * (double) amount / 100.0);
+        else
+            size = (long) Math.ceil(amount);
+
+        if (numUnits > 0 && size < 1)
+            size = 1;
+
+        return (int) Math.min(size, numUnits);
+    }
+
+
+    /**
+     * Chooses the units to read from a file with the specified number of
+     * units, numbered from 0.  Each unit is equally likely to be chosen.  The
+     * units are chosen with reservoir sampling, so that the memory used only
+     * depends on the size of the sample, and are returned in increasing
+     * order, so that they can be read in the order they are stored.
+     *
+     * @param numUnits the number of units in the file
+     *
+     * @return the numbers of the units to read, in increasing order
+     */
+    public int[] chooseUnits(int numUnits) {
+        int size = getSampleSize(numUnits);
+
+        int[] chosen = new int[size];
+        for (int i = 0; i < numUnits; i++) {
+            if (i < size) {
+                chosen[i] = i;
+            }
+            else {
+                // Replace a chosen unit with probability size / (i + 1).
+                int j = random.nextInt(i + 1);
+                if (j < size)
+                    chosen[j] = i;
+            }
+        }
+
+        Arrays.sort(chosen);
+        return chosen;
+    }
+
+
+    @Override
+    public String toString() {
+        String amountStr = (amount == Math.rint(amount)) ?
+            Integer.toString((int) amount) : Float.toString(amount);
+
+        return "SAMPLE " + amountStr + " " + unit;
+    }
+}
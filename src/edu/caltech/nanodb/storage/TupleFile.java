@@ -146,11 +146,16 @@ public interface TupleFile {
 
     /**
      * Analyzes the tuple data in the file, updating the file's statistics.
+     * If a sample is specified, only the part of the file chosen by the
+     * sample is read, and the statistics are estimated from it.
+     *
+     * @param sample the part of the file to read, or {@code null} to read
+     *        the whole file
      *
      * @throws IOException if an IO error occurs while analyzing the file or
      *         updating the statistics.
      */
-    void analyze() throws IOException;
+    void analyze(TableSample sample) throws IOException;
 
 
     /**
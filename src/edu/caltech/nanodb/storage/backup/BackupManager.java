@@ -0,0 +1,538 @@
+package edu.caltech.nanodb.storage.backup;
+
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.log4j.Logger;
+
+import edu.caltech.nanodb.storage.DBFile;
+import edu.caltech.nanodb.storage.DBFileType;
+import edu.caltech.nanodb.storage.DBPage;
+import edu.caltech.nanodb.storage.StorageManager;
+import edu.caltech.nanodb.storage.writeahead.LogSequenceNumber;
+import edu.caltech.nanodb.storage.writeahead.WALManager;
+import edu.caltech.nanodb.transactions.TransactionManager;
+import edu.caltech.nanodb.transactions.TransactionStatePage;
+
+
+/**
+ * <p>
+ * This class takes online backups of a running database, and restores them.
+ * Backups copy each data file page by page through the Buffer Manager while
+ * other sessions continue to modify the database, so a data page may be
+ * copied in the middle of a transaction's changes.  The backup therefore
+ * also archives the write-ahead log from {@link BackupManifest#getRecoveryLSN}
+ * up to the point where copying finished, along with a transaction-state file
+ * that directs recovery to replay that range.  When a restored backup is
+ * opened, the normal recovery process brings every page to a consistent state
+ * and rolls back the transactions that were incomplete.
+ * </p>
+ * <p>
+ * A full backup copies every page of every data file.  An incremental backup
+ * is based on a previous backup, and only copies the pages that write-ahead
+ * log records modified since the previous backup started copying, plus the
+ * header page of each file.  Files that are new since the previous backup,
+ * and files whose changes aren't write-ahead logged, are copied in full.
+ * </p>
+ * <p>
+ * A backup directory contains the manifest file, a <tt>data</tt> directory
+ * with the copied data files (sparse for incremental backups), and a
+ * <tt>wal</tt> directory with the archived WAL files and the
+ * transaction-state file.  Restoring a chain of backups copies the full
+ * backup, overlays the pages of each incremental backup in order, and then
+ * installs the WAL archive of the last backup.
+ * </p>
+ */
+public class BackupManager {
+    /** A logging object for reporting anything interesting that happens. */
+    private static Logger logger = Logger.getLogger(BackupManager.class);
+
+
+    /** The subdirectory of a backup holding the copied data files. */
+    public static final String DATA_DIRNAME = "data";
+
+
+    /**
+     * The subdirectory of a backup holding the archived WAL files and the
+     * transaction-state file.
+     */
+    public static final String WAL_DIRNAME = "wal";
+
+
+    /**
+     * The types of data files whose changes are recorded in the write-ahead
+     * log.  Incremental backups use the log to find the changed pages of
+     * these files; files of other types are always copied in full.
+     */
+    private static final Set<DBFileType> LOGGED_FILE_TYPES = EnumSet.of(
+        DBFileType.HEAP_TUPLE_FILE, DBFileType.LINEAR_HASH_FILE,
+        DBFileType.OVERFLOW_FILE);
+
+
+    private StorageManager storageManager;
+
+
+    private TransactionManager transactionManager;
+
+
+    public BackupManager(StorageManager storageManager) {
+        if (storageManager == null)
+            throw new IllegalArgumentException("storageManager cannot be null");
+
+        transactionManager = storageManager.getTransactionManager();
+        if (transactionManager == null) {
+            throw new IllegalStateException("Online backups require " +
+                "transaction processing to be enabled.");
+        }
+
+        this.storageManager = storageManager;
+    }
+
+
+    /**
+     * Takes a backup of the database into the specified directory.
+     *
+     * @param backupDir the directory to store the backup in; this must not
+     *        exist, or must be empty
+     *
+     * @param baseBackupDir the directory of the backup that an incremental
+     *        backup is based on, or {@code null} for a full backup
+     *
+     * @return the manifest describing the new backup
+     *
+     * @throws IOException if an IO error occurs while taking the backup, or
+     *         if the base backup is unusable
+     */
+    public BackupManifest backup(File backupDir, File baseBackupDir)
+        throws IOException {
+
+        File dataDir = new File(backupDir, DATA_DIRNAME);
+        File walDir = new File(backupDir, WAL_DIRNAME);
+        prepareDirectory(backupDir);
+        if (!dataDir.mkdir() || !walDir.mkdir())
+            throw new IOException("Couldn't create directories in " + backupDir);
+
+        BackupManifest base = null;
+        if (baseBackupDir != null)
+            base = BackupManifest.load(baseBackupDir);
+
+        BackupManifest manifest =
+            new BackupManifest(base != null, baseBackupDir);
+
+        // Every change made before this point is in the write-ahead log.
+        // Recovery must also start early enough to undo any transaction
+        // that is still in progress.
+        WALManager walManager = transactionManager.getWALManager();
+        LogSequenceNumber startLSN = walManager.getNextLSN();
+        transactionManager.forceWAL(startLSN);
+
+        LogSequenceNumber recoveryLSN = startLSN;
+        LogSequenceNumber oldestTxnLSN =
+            transactionManager.getOldestActiveTxnLSN();
+        if (oldestTxnLSN != null && oldestTxnLSN.compareTo(recoveryLSN) < 0)
+            recoveryLSN = oldestTxnLSN;
+
+        manifest.setStartLSN(startLSN);
+        manifest.setRecoveryLSN(recoveryLSN);
+
+        // For an incremental backup, find the pages that changed since the
+        // base backup started.  Changes made while the base backup was
+        // copying may not have been captured by it.
+        Map<String, Set<Integer>> updatedPages = null;
+        if (base != null) {
+            updatedPages = new HashMap<String, Set<Integer>>();
+            walManager.collectUpdatedPages(base.getStartLSN(), startLSN,
+                updatedPages);
+        }
+
+        // Copy the data files.  Files that are created while the backup runs
+        // are picked up by the second pass.
+        copyDataFiles(dataDir, base, updatedPages, manifest);
+
+        LogSequenceNumber endLSN = walManager.getNextLSN();
+        transactionManager.forceWAL(endLSN);
+        manifest.setEndLSN(endLSN);
+
+        // Pages added to the files since they were copied may be modified by
+        // records before the end LSN, so they must be present for recovery.
+        copyDataFiles(dataDir, base, updatedPages, manifest);
+
+        archiveWAL(walDir, recoveryLSN, endLSN);
+        writeTxnStateFile(walDir, recoveryLSN, endLSN);
+
+        manifest.store(backupDir);
+
+        logger.info(String.format("Backed up %d pages to %s (WAL %s to %s)",
+            manifest.getNumPagesCopied(), backupDir, recoveryLSN, endLSN));
+
+        return manifest;
+    }
+
+
+    private void prepareDirectory(File dir) throws IOException {
+        if (dir.exists()) {
+            String[] contents = dir.list();
+            if (contents == null)
+                throw new IOException(dir + " is not a directory");
+
+            if (contents.length > 0)
+                throw new IOException("Directory " + dir + " is not empty");
+        }
+        else if (!dir.mkdirs()) {
+            throw new IOException("Couldn't create directory " + dir);
+        }
+    }
+
+
+    /**
+     * Copies the data files of the database into the backup, or tops up the
+     * files already copied with the pages added since.
+     *
+     * @param dataDir the directory to copy the data files into
+     * @param base the manifest of the base backup, or {@code null}
+     * @param updatedPages the pages modified since the base backup, or
+     *        {@code null} for a full backup
+     * @param manifest the manifest of the backup, which is updated with the
+     *        pages that were copied
+     *
+     * @throws IOException if a data file can't be copied
+     */
+    private void copyDataFiles(File dataDir, BackupManifest base,
+        Map<String, Set<Integer>> updatedPages, BackupManifest manifest)
+        throws IOException {
+
+        String[] filenames = storageManager.getBaseDir().list();
+        if (filenames == null) {
+            throw new IOException("Couldn't list the files in " +
+                storageManager.getBaseDir());
+        }
+
+        for (String filename : filenames) {
+            DBFile dbFile;
+            try {
+                dbFile = storageManager.openDBFile(filename);
+            }
+            catch (FileNotFoundException e) {
+                // The file was dropped after the directory was listed.
+                continue;
+            }
+
+            DBFileType type = dbFile.getType();
+            if (type == DBFileType.WRITE_AHEAD_LOG_FILE ||
+                type == DBFileType.TXNSTATE_FILE) {
+                continue;
+            }
+
+            int numPages = dbFile.getNumPages();
+            BackupManifest.FileEntry entry = manifest.getFile(filename);
+
+            int firstNewPage = 0;
+            if (entry == null) {
+                // Decide which pages this backup needs.
+                Set<Integer> pages = null;
+                if (base != null && base.getFile(filename) != null &&
+                    LOGGED_FILE_TYPES.contains(type)) {
+                    pages = new TreeSet<Integer>();
+                    pages.add(0);
+
+                    Set<Integer> updated = updatedPages.get(filename);
+                    if (updated != null) {
+                        for (int pageNo : updated) {
+                            if (pageNo < numPages)
+                                pages.add(pageNo);
+                        }
+                    }
+                }
+
+                entry = new BackupManifest.FileEntry(dbFile.getPageSize(),
+                    numPages, pages);
+                manifest.addFile(filename, entry);
+            }
+            else {
+                firstNewPage = entry.numPages;
+                if (entry.pages != null) {
+                    for (int pageNo = entry.numPages; pageNo < numPages; pageNo++)
+                        entry.pages.add(pageNo);
+                }
+                entry.numPages = numPages;
+            }
+
+            RandomAccessFile out =
+                new RandomAccessFile(new File(dataDir, filename), "rw");
+            try {
+                for (int pageNo = firstNewPage; pageNo < numPages; pageNo++) {
+                    if (entry.pages == null || entry.pages.contains(pageNo))
+                        copyPage(dbFile, pageNo, out);
+                }
+
+                out.setLength((long) numPages * dbFile.getPageSize());
+            }
+            finally {
+                out.close();
+            }
+        }
+    }
+
+
+    /**
+     * Copies one page of a file into the backup.  Other sessions may be
+     * changing the page, so the page is copied while holding the Buffer
+     * Manager's lock:  a clean page can't be changed while the lock is held,
+     * since marking a page dirty allocates a buffer for its old contents,
+     * and a dirty page can't be written out and marked clean.
+     * <p>
+     * A dirty page of a write-ahead logged file may hold changes that aren't
+     * in the log yet, which recovery couldn't undo, so the page's contents
+     * as of its last logged change are copied instead.  Recovery redoes all
+     * of the page's later changes from the archived log.
+     *
+     * @param dbFile the file to copy the page from
+     * @param pageNo the number of the page to copy
+     * @param out the backup copy of the file
+     *
+     * @throws IOException if the page can't be read or written
+     */
+    private void copyPage(DBFile dbFile, int pageNo, RandomAccessFile out)
+        throws IOException {
+
+        byte[] data = new byte[dbFile.getPageSize()];
+        boolean logged = LOGGED_FILE_TYPES.contains(dbFile.getType());
+
+        DBPage dbPage = storageManager.loadDBPage(dbFile, pageNo);
+        try {
+            synchronized (storageManager.getBufferManager()) {
+                byte[] image = dbPage.getPageData();
+                if (logged && dbPage.isDirty())
+                    image = dbPage.getOldPageData();
+
+                System.arraycopy(image, 0, data, 0, data.length);
+            }
+        }
+        finally {
+            dbPage.unpin();
+        }
+
+        out.seek((long) pageNo * dbFile.getPageSize());
+        out.write(data);
+    }
+
+
+    /**
+     * Copies the WAL files containing the specified range of the write-ahead
+     * log into the backup.
+     *
+     * @param walDir the directory to copy the WAL files into
+     * @param startLSN the first LSN that must be archived
+     * @param endLSN the LSN just past the last record that must be archived
+     *
+     * @throws IOException if a WAL file can't be copied
+     */
+    private void archiveWAL(File walDir, LogSequenceNumber startLSN,
+                            LogSequenceNumber endLSN) throws IOException {
+
+        int fileNo = startLSN.getLogFileNo();
+        while (true) {
+            String filename = WALManager.getWALFileName(fileNo);
+            try {
+                copyWholeFile(storageManager.openDBFile(filename), walDir);
+            }
+            catch (FileNotFoundException e) {
+                // The end LSN may be at the start of a WAL file that hasn't
+                // been created yet.  Every other file must exist.
+                if (fileNo != endLSN.getLogFileNo())
+                    throw e;
+            }
+
+            if (fileNo == endLSN.getLogFileNo())
+                break;
+
+            fileNo++;
+            if (fileNo > WALManager.MAX_WAL_FILE_NUMBER)
+                fileNo = 0;
+        }
+    }
+
+
+    private void copyWholeFile(DBFile dbFile, File dir) throws IOException {
+        String filename = dbFile.getDataFile().getName();
+        RandomAccessFile out = new RandomAccessFile(new File(dir, filename), "rw");
+        try {
+            int numPages = dbFile.getNumPages();
+            for (int pageNo = 0; pageNo < numPages; pageNo++)
+                copyPage(dbFile, pageNo, out);
+        }
+        finally {
+            out.close();
+        }
+    }
+
+
+    /**
+     * Writes a transaction-state file into the backup that directs recovery
+     * to replay the archived range of the write-ahead log.
+     *
+     * @param walDir the directory to write the transaction-state file into
+     * @param firstLSN the LSN that recovery should start from
+     * @param nextLSN the LSN just past the last archived WAL record
+     *
+     * @throws IOException if the transaction-state file can't be written
+     */
+    private void writeTxnStateFile(File walDir, LogSequenceNumber firstLSN,
+                                   LogSequenceNumber nextLSN) throws IOException {
+
+        DBFile dbFile =
+            storageManager.openDBFile(TransactionManager.TXNSTATE_FILENAME);
+        copyWholeFile(dbFile, walDir);
+
+        byte[] header = new byte[dbFile.getPageSize()];
+        RandomAccessFile out = new RandomAccessFile(
+            new File(walDir, TransactionManager.TXNSTATE_FILENAME), "rw");
+        try {
+            out.readFully(header);
+
+            ByteBuffer buf = ByteBuffer.wrap(header);
+            buf.putLong(TransactionStatePage.OFFSET_FIRST_LSN, firstLSN.toLong());
+            buf.putLong(TransactionStatePage.OFFSET_NEXT_LSN, nextLSN.toLong());
+
+            out.seek(0);
+            out.write(header);
+        }
+        finally {
+            out.close();
+        }
+    }
+
+
+    /**
+     * Restores a backup into an empty directory, which can then be used as
+     * the base directory of a database.  If the backup is incremental, the
+     * chain of backups it is based on is restored first.  The restored
+     * database must be opened with transaction processing enabled, so that
+     * recovery replays the archived write-ahead log.
+     *
+     * @param backupDir the directory of the backup to restore
+     * @param targetDir the directory to restore the database into; this
+     *        must not exist, or must be empty
+     *
+     * @throws IOException if an IO error occurs, or if a backup in the chain
+     *         is missing or malformed
+     */
+    public static void restore(File backupDir, File targetDir)
+        throws IOException {
+
+        BackupManifest manifest = BackupManifest.load(backupDir);
+        if (manifest.isIncremental()) {
+            restore(manifest.getBaseBackupDir(), targetDir);
+        }
+        else {
+            String[] contents = targetDir.list();
+            if (contents != null && contents.length > 0)
+                throw new IOException("Directory " + targetDir + " is not empty");
+
+            if (!targetDir.exists() && !targetDir.mkdirs())
+                throw new IOException("Couldn't create directory " + targetDir);
+        }
+
+        // Remove files that were dropped since the base backup, and the WAL
+        // archive of the base backup, which this backup supersedes.
+        String[] existing = targetDir.list();
+        if (existing != null) {
+            for (String filename : existing) {
+                if (manifest.getFile(filename) == null &&
+                    !new File(targetDir, filename).delete()) {
+                    throw new IOException("Couldn't delete " + filename +
+                        " from " + targetDir);
+                }
+            }
+        }
+
+        File dataDir = new File(backupDir, DATA_DIRNAME);
+        for (Map.Entry<String, BackupManifest.FileEntry> e :
+             manifest.getFiles().entrySet()) {
+
+            String filename = e.getKey();
+            BackupManifest.FileEntry entry = e.getValue();
+
+            RandomAccessFile in =
+                new RandomAccessFile(new File(dataDir, filename), "r");
+            RandomAccessFile out =
+                new RandomAccessFile(new File(targetDir, filename), "rw");
+            try {
+                byte[] page = new byte[entry.pageSize];
+                for (int pageNo = 0; pageNo < entry.numPages; pageNo++) {
+                    if (entry.pages != null && !entry.pages.contains(pageNo))
+                        continue;
+
+                    long position = (long) pageNo * entry.pageSize;
+                    in.seek(position);
+                    in.readFully(page);
+                    out.seek(position);
+                    out.write(page);
+                }
+                out.setLength((long) entry.numPages * entry.pageSize);
+            }
+            finally {
+                in.close();
+                out.close();
+            }
+        }
+
+        File walDir = new File(backupDir, WAL_DIRNAME);
+        String[] walFiles = walDir.list();
+        if (walFiles == null)
+            throw new IOException("Backup " + backupDir + " has no WAL archive");
+
+        for (String filename : walFiles) {
+            RandomAccessFile in =
+                new RandomAccessFile(new File(walDir, filename), "r");
+            RandomAccessFile out =
+                new RandomAccessFile(new File(targetDir, filename), "rw");
+            try {
+                byte[] data = new byte[(int) in.length()];
+                in.readFully(data);
+                out.setLength(0);
+                out.write(data);
+            }
+            finally {
+                in.close();
+                out.close();
+            }
+        }
+    }
+
+
+    /**
+     * Restores a backup from the command line.  The arguments are the
+     * directory of the backup to restore, and the directory to restore the
+     * database into.
+     *
+     * @param args the command-line arguments
+     */
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.out.println("usage:  BackupManager backupDir targetDir");
+            System.exit(1);
+        }
+
+        try {
+            restore(new File(args[0]), new File(args[1]));
+            System.out.println("Restored backup " + args[0] + " into " +
+                args[1] + ".  Start NanoDB with transactions enabled to " +
+                "complete recovery.");
+        }
+        catch (IOException e) {
+            System.out.println("Couldn't restore backup:  " + e.getMessage());
+            e.printStackTrace(System.out);
+            System.exit(1);
+        }
+    }
+}
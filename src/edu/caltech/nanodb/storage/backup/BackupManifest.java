@@ -0,0 +1,317 @@
+package edu.caltech.nanodb.storage.backup;
+
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import edu.caltech.nanodb.storage.writeahead.LogSequenceNumber;
+
+
+/**
+ * This class records the contents of a backup:  whether it is a full or an
+ * incremental backup, the range of the write-ahead log it covers, and which
+ * pages of each data file it holds.  The manifest is stored as a properties
+ * file named {@link #MANIFEST_FILENAME} in the backup directory.
+ */
+public class BackupManifest {
+
+    /** The name of the manifest file within a backup directory. */
+    public static final String MANIFEST_FILENAME = "backup.properties";
+
+
+    /** Details of one data file stored in a backup. */
+    public static class FileEntry {
+        /** The page size of the data file. */
+        public int pageSize;
+
+        /** The number of pages in the data file when it was backed up. */
+        public int numPages;
+
+        /**
+         * The pages of the file held by the backup, or {@code null} if the
+         * backup holds every page of the file.
+         */
+        public Set<Integer> pages;
+
+
+        public FileEntry(int pageSize, int numPages, Set<Integer> pages) {
+            this.pageSize = pageSize;
+            this.numPages = numPages;
+            this.pages = pages;
+        }
+    }
+
+
+    /** True if this is an incremental backup. */
+    private boolean incremental;
+
+
+    /**
+     * For an incremental backup, the directory of the backup it is based on;
+     * otherwise {@code null}.
+     */
+    private File baseBackupDir;
+
+
+    /** The WAL position when the backup started copying data pages. */
+    private LogSequenceNumber startLSN;
+
+
+    /** The WAL position when the backup finished copying data pages. */
+    private LogSequenceNumber endLSN;
+
+
+    /**
+     * The WAL position where recovery must start when the backup is
+     * restored.  This is never later than {@link #startLSN}, and is earlier
+     * if transactions were in progress when the backup started.
+     */
+    private LogSequenceNumber recoveryLSN;
+
+
+    /** The data files stored in the backup, keyed by filename. */
+    private TreeMap<String, FileEntry> files = new TreeMap<String, FileEntry>();
+
+
+    public BackupManifest(boolean incremental, File baseBackupDir) {
+        if (incremental && baseBackupDir == null) {
+            throw new IllegalArgumentException(
+                "An incremental backup must specify its base backup");
+        }
+
+        this.incremental = incremental;
+        this.baseBackupDir = baseBackupDir;
+    }
+
+
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+
+    public File getBaseBackupDir() {
+        return baseBackupDir;
+    }
+
+
+    public LogSequenceNumber getStartLSN() {
+        return startLSN;
+    }
+
+
+    public void setStartLSN(LogSequenceNumber startLSN) {
+        this.startLSN = startLSN;
+    }
+
+
+    public LogSequenceNumber getEndLSN() {
+        return endLSN;
+    }
+
+
+    public void setEndLSN(LogSequenceNumber endLSN) {
+        this.endLSN = endLSN;
+    }
+
+
+    public LogSequenceNumber getRecoveryLSN() {
+        return recoveryLSN;
+    }
+
+
+    public void setRecoveryLSN(LogSequenceNumber recoveryLSN) {
+        this.recoveryLSN = recoveryLSN;
+    }
+
+
+    public Map<String, FileEntry> getFiles() {
+        return Collections.unmodifiableMap(files);
+    }
+
+
+    public FileEntry getFile(String filename) {
+        return files.get(filename);
+    }
+
+
+    public void addFile(String filename, FileEntry entry) {
+        files.put(filename, entry);
+    }
+
+
+    /**
+     * Returns the total number of data pages stored in the backup.
+     *
+     * @return the number of data pages stored in the backup
+     */
+    public int getNumPagesCopied() {
+        int total = 0;
+        for (FileEntry entry : files.values())
+            total += (entry.pages != null) ? entry.pages.size() : entry.numPages;
+
+        return total;
+    }
+
+
+    /**
+     * Writes this manifest into the specified backup directory.
+     *
+     * @param backupDir the directory of the backup
+     *
+     * @throws IOException if the manifest file can't be written
+     */
+    public void store(File backupDir) throws IOException {
+        Properties props = new Properties();
+        props.setProperty("backup.type", incremental ? "incremental" : "full");
+        if (baseBackupDir != null)
+            props.setProperty("backup.base", baseBackupDir.getAbsolutePath());
+
+        props.setProperty("backup.startLSN", formatLSN(startLSN));
+        props.setProperty("backup.endLSN", formatLSN(endLSN));
+        props.setProperty("backup.recoveryLSN", formatLSN(recoveryLSN));
+
+        StringBuilder names = new StringBuilder();
+        for (Map.Entry<String, FileEntry> e : files.entrySet()) {
+            String name = e.getKey();
+            FileEntry entry = e.getValue();
+
+            if (names.length() > 0)
+                names.append(',');
+            names.append(name);
+
+            String prefix = "file." + name + ".";
+            props.setProperty(prefix + "pageSize", Integer.toString(entry.pageSize));
+            props.setProperty(prefix + "numPages", Integer.toString(entry.numPages));
+            props.setProperty(prefix + "pages", formatPages(entry.pages));
+        }
+        props.setProperty("backup.files", names.toString());
+
+        OutputStream out =
+            new FileOutputStream(new File(backupDir, MANIFEST_FILENAME));
+        try {
+            props.store(out, "NanoDB backup manifest");
+        }
+        finally {
+            out.close();
+        }
+    }
+
+
+    /**
+     * Reads the manifest of the backup in the specified directory.
+     *
+     * @param backupDir the directory of the backup
+     *
+     * @return the backup's manifest
+     *
+     * @throws IOException if the manifest file can't be read, or if it is
+     *         malformed
+     */
+    public static BackupManifest load(File backupDir) throws IOException {
+        File manifestFile = new File(backupDir, MANIFEST_FILENAME);
+        Properties props = new Properties();
+        InputStream in = new FileInputStream(manifestFile);
+        try {
+            props.load(in);
+        }
+        finally {
+            in.close();
+        }
+
+        try {
+            boolean incremental =
+                "incremental".equals(getRequired(props, "backup.type"));
+
+            File base = null;
+            String baseName = props.getProperty("backup.base");
+            if (baseName != null)
+                base = new File(baseName);
+
+            BackupManifest manifest = new BackupManifest(incremental, base);
+            manifest.startLSN = parseLSN(getRequired(props, "backup.startLSN"));
+            manifest.endLSN = parseLSN(getRequired(props, "backup.endLSN"));
+            manifest.recoveryLSN =
+                parseLSN(getRequired(props, "backup.recoveryLSN"));
+
+            String names = getRequired(props, "backup.files");
+            if (!names.isEmpty()) {
+                for (String name : names.split(",")) {
+                    String prefix = "file." + name + ".";
+                    FileEntry entry = new FileEntry(
+                        Integer.parseInt(getRequired(props, prefix + "pageSize")),
+                        Integer.parseInt(getRequired(props, prefix + "numPages")),
+                        parsePages(getRequired(props, prefix + "pages")));
+
+                    manifest.files.put(name, entry);
+                }
+            }
+
+            return manifest;
+        }
+        catch (IllegalArgumentException e) {
+            throw new IOException("Backup manifest " + manifestFile +
+                " is malformed:  " + e.getMessage(), e);
+        }
+    }
+
+
+    private static String getRequired(Properties props, String name) {
+        String value = props.getProperty(name);
+        if (value == null)
+            throw new IllegalArgumentException("missing property " + name);
+
+        return value;
+    }
+
+
+    private static String formatLSN(LogSequenceNumber lsn) {
+        return lsn.getLogFileNo() + ":" + lsn.getFileOffset();
+    }
+
+
+    private static LogSequenceNumber parseLSN(String value) {
+        String[] parts = value.split(":");
+        if (parts.length != 2)
+            throw new IllegalArgumentException("bad LSN " + value);
+
+        return new LogSequenceNumber(Integer.parseInt(parts[0]),
+            Integer.parseInt(parts[1]));
+    }
+
+
+    private static String formatPages(Set<Integer> pages) {
+        if (pages == null)
+            return "all";
+
+        StringBuilder buf = new StringBuilder();
+        for (int pageNo : pages) {
+            if (buf.length() > 0)
+                buf.append(',');
+            buf.append(pageNo);
+        }
+        return buf.toString();
+    }
+
+
+    private static Set<Integer> parsePages(String value) {
+        if ("all".equals(value))
+            return null;
+
+        TreeSet<Integer> pages = new TreeSet<Integer>();
+        if (!value.isEmpty()) {
+            for (String pageNo : value.split(","))
+                pages.add(Integer.valueOf(pageNo));
+        }
+        return pages;
+    }
+}
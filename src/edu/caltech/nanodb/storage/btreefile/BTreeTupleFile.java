@@ -9,10 +9,12 @@ import java.util.Map;
 
 import org.apache.log4j.Logger;
 
+import edu.caltech.nanodb.expressions.ColumnValue;
 import edu.caltech.nanodb.expressions.OrderByExpression;
 import edu.caltech.nanodb.expressions.TupleComparator;
 import edu.caltech.nanodb.expressions.TupleLiteral;
 import edu.caltech.nanodb.qeval.TableStats;
+import edu.caltech.nanodb.relations.ColumnInfo;
 import edu.caltech.nanodb.relations.Schema;
 import edu.caltech.nanodb.relations.TableSchema;
 import edu.caltech.nanodb.relations.Tuple;
@@ -27,6 +29,7 @@ import edu.caltech.nanodb.storage.SchemaWriter;
 import edu.caltech.nanodb.storage.SequentialTupleFile;
 import edu.caltech.nanodb.storage.StatsWriter;
 import edu.caltech.nanodb.storage.StorageManager;
+import edu.caltech.nanodb.storage.TableSample;
 import edu.caltech.nanodb.storage.TupleFileManager;
 
 import static edu.caltech.nanodb.storage.btreefile.BTreePageTypes.*;
@@ -176,9 +179,22 @@ public class BTreeTupleFile implements SequentialTupleFile {
     }
 
 
+    /**
+     * Tuples in a B<sup>+</sup> tree file are ordered by all of their
+     * columns, in the order the columns appear in the schema, as specified
+     * by {@link TupleComparator#compareTuples}.
+     */
     @Override
     public List<OrderByExpression> getOrderSpec() {
-        throw new UnsupportedOperationException("NYI");
+        ArrayList<OrderByExpression> orderSpec =
+            new ArrayList<OrderByExpression>(schema.numColumns());
+
+        for (ColumnInfo colInfo : schema) {
+            orderSpec.add(
+                new OrderByExpression(new ColumnValue(colInfo.getColumnName())));
+        }
+
+        return orderSpec;
     }
 
 
@@ -276,16 +292,19 @@ public class BTreeTupleFile implements SequentialTupleFile {
         logger.debug("Finding first tuple that equals " + searchKey +
             " in BTree file " + dbFile);
 
-        LeafPage leaf = navigateToLeafPage(searchKey, false, null);
+        // A search key with fewer columns than the file may equal several
+        // tuples, and the first of them can be to the left of an inner key
+        // that it also equals, so navigate to the leftmost candidate leaf.
+        LeafPage leaf = navigateToLeafPage(searchKey, false, null, true);
         if (leaf == null) {
             logger.debug("BTree file is empty!");
             return null;
         }
 
         logger.debug("Navigated to leaf page " + leaf.getPageNo());
-        if (leaf.getNumTuples() > 0) {
-            // We have at least one tuple to look at, so scan through to find
-            // the first tuple that equals what we are looking for.
+        while (leaf != null) {
+            // Scan through the leaf to find the first tuple that equals what
+            // we are looking for.
             for (int i = 0; i < leaf.getNumTuples(); i++) {
                 BTreeFilePageTuple tup = leaf.getTuple(i);
                 int cmp = TupleComparator.comparePartialTuples(tup, searchKey);
@@ -302,6 +321,10 @@ public class BTreeTupleFile implements SequentialTupleFile {
                     return null;
                 }
             }
+
+            // Every tuple in this leaf is less than the search key, so the
+            // first match, if any, is at the start of the next leaf.
+            leaf = getNextLeafPage(leaf);
         }
 
         return null;
@@ -312,21 +335,45 @@ public class BTreeTupleFile implements SequentialTupleFile {
     public PageTuple findFirstTupleGreaterThan(Tuple searchKey) throws IOException {
         LeafPage leaf = navigateToLeafPage(searchKey, false, null);
 
-        if (leaf != null && leaf.getNumTuples() > 0) {
-            // We have at least one tuple to look at, so scan through to find
-            // the first tuple that equals what we are looking for.
+        while (leaf != null) {
+            // Scan through the leaf to find the first tuple that is greater
+            // than what we are looking for.
             for (int i = 0; i < leaf.getNumTuples(); i++) {
                 BTreeFilePageTuple tup = leaf.getTuple(i);
                 int cmp = TupleComparator.comparePartialTuples(tup, searchKey);
                 if (cmp > 0)
                     return tup;  // Found it!
             }
+
+            // The search key may fall between the last tuple in this leaf
+            // and the first tuple of the next one.
+            leaf = getNextLeafPage(leaf);
         }
 
         return null;
     }
 
 
+    /**
+     * Returns the leaf page that follows the specified leaf page, or
+     * {@code null} if the specified page is the last leaf in the file.
+     *
+     * @param leaf the leaf page to find the successor of
+     *
+     * @return the next leaf page, or {@code null} if there isn't one
+     *
+     * @throws IOException if the next leaf page couldn't be loaded
+     */
+    private LeafPage getNextLeafPage(LeafPage leaf) throws IOException {
+        int nextPageNo = leaf.getNextPageNo();
+        if (nextPageNo == 0)
+            return null;
+
+        DBPage dbPage = storageManager.loadDBPage(dbFile, nextPageNo);
+        return new LeafPage(dbPage, schema);
+    }
+
+
     @Override
     public Tuple addTuple(Tuple tup) throws IOException {
         logger.debug("Adding tuple " + tup + " to BTree file " + dbFile);
@@ -397,6 +444,42 @@ public class BTreeTupleFile implements SequentialTupleFile {
      */
     private LeafPage navigateToLeafPage(Tuple searchKey,
         boolean createIfNeeded, List<Integer> pagePath) throws IOException {
+        return navigateToLeafPage(searchKey, createIfNeeded, pagePath, false);
+    }
+
+
+    /**
+     * This helper method navigates from the root of the B<sup>+</sup> tree
+     * down to a leaf node, as described for
+     * {@link #navigateToLeafPage(Tuple, boolean, List)}.  When the search-key
+     * is equal to a key in an inner page, the navigation normally follows the
+     * pointer after that key.  If {@code leftmost} is true, it follows the
+     * pointer before the key instead; this finds the leftmost leaf that may
+     * hold tuples equal to a search-key that only specifies a prefix of the
+     * file's columns.
+     *
+     * @param searchKey the search-key being used to navigate the
+     *        B<sup>+</sup> tree structure
+     *
+     * @param createIfNeeded if true, a new leaf page is created if the
+     *        B<sup>+</sup> tree is currently empty
+     *
+     * @param pagePath an optional list to store the page-numbers visited
+     *        from root to leaf in, or {@code null}
+     *
+     * @param leftmost true to follow the pointer before an inner key that is
+     *        equal to the search-key, or false to follow the pointer after it
+     *
+     * @return the leaf-page where the search-key would appear, or
+     *         {@code null} if the B<sup>+</sup> tree file is currently empty
+     *         and {@code createIfNeeded} is {@code false}.
+     *
+     * @throws IOException if an IO error occurs while navigating the
+     *         B<sup>+</sup> tree file's structure
+     */
+    private LeafPage navigateToLeafPage(Tuple searchKey,
+        boolean createIfNeeded, List<Integer> pagePath, boolean leftmost)
+        throws IOException {
 
         // The header page tells us where the root page starts.
         DBPage dbpHeader = storageManager.loadDBPage(dbFile, 0);
@@ -462,7 +545,7 @@ public class BTreeTupleFile implements SequentialTupleFile {
             for (int i = 0; i < numKeys; i++) {
                 BTreeFilePageTuple key = innerPage.getKey(i);
                 int cmp = TupleComparator.comparePartialTuples(searchKey, key);
-                if (cmp < 0) {
+                if (cmp < 0 || (cmp == 0 && leftmost)) {
                     nextPageNo = innerPage.getPointer(i);
                     logger.debug("Value is less than tuple at index " + i +
                         "; following pointer " + i + " before this tuple," +
@@ -503,7 +586,7 @@ public class BTreeTupleFile implements SequentialTupleFile {
 
 
     @Override
-    public void analyze() throws IOException {
+    public void analyze(TableSample sample) throws IOException {
         throw new UnsupportedOperationException("NYI");
     }
 
@@ -11,9 +11,8 @@ import java.util.Map;
 
 import org.apache.log4j.Logger;
 
-import edu.caltech.nanodb.qeval.ColumnStats;
-import edu.caltech.nanodb.qeval.ColumnStatsCollector;
 import edu.caltech.nanodb.qeval.TableStats;
+import edu.caltech.nanodb.qeval.TableStatsCollector;
 import edu.caltech.nanodb.relations.TableSchema;
 import edu.caltech.nanodb.relations.Tuple;
 
@@ -24,7 +23,9 @@ import edu.caltech.nanodb.storage.TupleFile;
 import edu.caltech.nanodb.storage.InvalidFilePointerException;
 import edu.caltech.nanodb.storage.PageTuple;
 import edu.caltech.nanodb.storage.StorageManager;
+import edu.caltech.nanodb.storage.TableSample;
 import edu.caltech.nanodb.storage.TupleFileManager;
+import edu.caltech.nanodb.transactions.TransactionManager;
 
 
 /**
@@ -117,14 +118,40 @@ public class HeapTupleFile implements TupleFile {
      */
     @Override
     public Tuple getFirstTuple() throws IOException {
-        try {
-            // Scan through the data pages until we hit the end of the table
-            // file.  It may be that the first run of data pages is empty,
-            // so just keep looking until we hit the end of the file.
+        // Header page is page 0, so first data page is page 1.
+        return getFirstTupleInPages(1, Integer.MAX_VALUE);
+    }
+
+
+    /**
+     * Returns the first tuple in the specified range of data pages, or
+     * <tt>null</tt> if there are no tuples in those pages.  Together with
+     * {@link #getNextTupleInPages}, this allows the file to be split into
+     * ranges of pages that are scanned separately, e.g. by several threads.
+     *
+     * @param startPageNo the first data page to scan, which must be at least 1
+     * @param endPageNo the page after the last data page to scan; pages past
+     *        the end of the file are ignored
+     *
+     * @return the first tuple in the range of pages, or <tt>null</tt> if the
+     *         pages have no tuples
+     *
+     * @throws IOException if the file's pages can't be read
+     */
+    public Tuple getFirstTupleInPages(int startPageNo, int endPageNo)
+        throws IOException {
 
-            // Header page is page 0, so first data page is page 1.
+        if (startPageNo < 1) {
+            throw new IllegalArgumentException(
+                "startPageNo must be at least 1; got " + startPageNo);
+        }
+
+        try {
+            // Scan through the data pages until we hit the end of the range
+            // or of the table file.  It may be that the first run of data
+            // pages is empty, so just keep looking until we hit the end.
 
-            for (int iPage = 1; /* nothing */ ; iPage++) {
+            for (int iPage = startPageNo; iPage < endPageNo; iPage++) {
                 // Look for data on this page...
 
                 DBPage dbPage = storageManager.loadDBPage(dbFile, iPage);
@@ -151,6 +178,7 @@ public class HeapTupleFile implements TupleFile {
                          ".  Returning null.");
         }
 
+        // If we got here, the range of pages has no tuples.
         return null;
     }
 
@@ -208,6 +236,25 @@ public class HeapTupleFile implements TupleFile {
      **/
     @Override
     public Tuple getNextTuple(Tuple tup) throws IOException {
+        return getNextTupleInPages(tup, Integer.MAX_VALUE);
+    }
+
+
+    /**
+     * Returns the tuple that follows the specified tuple in a range of data
+     * pages, or <tt>null</tt> if there are no more tuples in the range.
+     *
+     * @param tup the current tuple, which must be in the range of pages
+     * @param endPageNo the page after the last data page to scan; pages past
+     *        the end of the file are ignored
+     *
+     * @return the next tuple in the range of pages, or <tt>null</tt> if
+     *         there are no more tuples in the range
+     *
+     * @throws IOException if the file's pages can't be read
+     */
+    public Tuple getNextTupleInPages(Tuple tup, int endPageNo)
+        throws IOException {
 
         /* Procedure:
          *   1)  Get slot index of current tuple.
@@ -243,7 +290,10 @@ public class HeapTupleFile implements TupleFile {
 
             // If we got here then we reached the end of this page with no
             // tuples.  Go on to the next data-page, and start with the first
-            // tuple in that page.
+            // tuple in that page, unless it is past the end of the range.
+
+            if (dbPage.getPageNo() + 1 >= endPageNo)
+                return null;
 
             try {
                 DBPage nextDBPage =
@@ -327,10 +377,16 @@ public class HeapTupleFile implements TupleFile {
 
             // If this page has enough free space to add a new tuple, break
             // out of the loop.  (The "+ 2" is for the new slot entry we will
-            // also need.)
+            // also need.)  The page must be locked before it is changed, and
+            // another transaction may fill the page while we wait for the
+            // lock, so check the free space again once we hold it.
             if (freeSpace >= tupSize + 2) {
-                logger.debug("Found space for new tuple in page " + pageNo + ".");
-                break;
+                storageManager.lockDBPageWrite(dbPage);
+                if (DataPage.getFreeSpaceInPage(dbPage) >= tupSize + 2) {
+                    logger.debug("Found space for new tuple in page " +
+                        pageNo + ".");
+                    break;
+                }
             }
 
             // If we reached this point then the page doesn't have enough
@@ -346,7 +402,9 @@ public class HeapTupleFile implements TupleFile {
             // file.
             logger.debug("Creating new page " + pageNo + " to store new tuple.");
             dbPage = storageManager.loadDBPage(dbFile, pageNo, true);
+            storageManager.lockDBPageWrite(dbPage);
             DataPage.initNewPage(dbPage);
+            stats.pageAdded();
         }
 
         int slot = DataPage.allocNewTuple(dbPage, tupSize);
@@ -362,6 +420,8 @@ public class HeapTupleFile implements TupleFile {
 
         DataPage.sanityCheck(dbPage);
 
+        stats.tupleAdded(pageTup, tupSize);
+
         return pageTup;
     }
 
@@ -383,6 +443,7 @@ public class HeapTupleFile implements TupleFile {
                 "Tuple must be of type HeapFilePageTuple; got " + tup.getClass());
         }
         HeapFilePageTuple ptup = (HeapFilePageTuple) tup;
+        storageManager.lockDBPageWrite(ptup.getDBPage());
 
         for (Map.Entry<String, Object> entry : newValues.entrySet()) {
             String colName = entry.getKey();
@@ -396,6 +457,8 @@ public class HeapTupleFile implements TupleFile {
         storageManager.logDBPageWrite(dbPage);
 
         DataPage.sanityCheck(dbPage);
+
+        stats.tupleUpdated();
     }
 
 
@@ -408,8 +471,21 @@ public class HeapTupleFile implements TupleFile {
                 "Tuple must be of type HeapFilePageTuple; got " + tup.getClass());
         }
         HeapFilePageTuple ptup = (HeapFilePageTuple) tup;
-
         DBPage dbPage = ptup.getDBPage();
+        storageManager.lockDBPageWrite(dbPage);
+
+        // The tuple's values are needed to update the stats, so this must be
+        // done before it is removed from the page.
+        stats.tupleRemoved(ptup, ptup.getSize());
+
+        if (ptup.isVersioned()) {
+            // Other transactions may still see this version, so just record
+            // that it was deleted.  Vacuuming the file will remove it.
+            ptup.markDeleted();
+            storageManager.logDBPageWrite(dbPage);
+            return;
+        }
+
         DataPage.deleteTuple(dbPage, ptup.getSlot());
         storageManager.logDBPageWrite(dbPage);
 
@@ -418,33 +494,35 @@ public class HeapTupleFile implements TupleFile {
 
 
     @Override
-    public void analyze() throws IOException {
-        int numPages, numTuples, totalTupleSpace;
-
-        int numCols = schema.numColumns();
-        ColumnStatsCollector[] collectors =
-            new ColumnStatsCollector[numCols];
-        for (int i = 0; i < numCols; i++) {
-            collectors[i] = new ColumnStatsCollector(
-                schema.getColumnInfo(i).getType().getBaseType());
-        }
+    public void analyze(TableSample sample) throws IOException {
+        TableStatsCollector collector = new TableStatsCollector(schema);
 
-        numPages = dbFile.getNumPages();
-        numTuples = 0;
-        totalTupleSpace = 0;
+        // In the heap file, number of data pages is the total number of pages
+        // minus the header page.
+        int numDataPages = dbFile.getNumPages() - 1;
+
+        // Data page i is page i + 1 of the file, since page 0 is the header.
+        int[] pages = null;
+        int numPagesRead = numDataPages;
+        if (sample != null) {
+            pages = sample.chooseUnits(numDataPages);
+            numPagesRead = pages.length;
+        }
 
-        for (int iPage = 1; iPage < numPages; iPage++) {
+        for (int i = 0; i < numPagesRead; i++) {
+            int iPage = (pages != null) ? pages[i] + 1 : i + 1;
             DBPage dbPage = storageManager.loadDBPage(dbFile, iPage);
 
-            totalTupleSpace += DataPage.getTupleDataEnd(dbPage) -
-                DataPage.getTupleDataStart(dbPage);
-
             int numSlots = DataPage.getNumSlots(dbPage);
+            collector.addPage(dbPage.getPageSize(),
+                DataPage.getFreeSpaceInPage(dbPage));
 
             if (logger.isDebugEnabled()) {
                 logger.debug(String.format("Analyzing page %d of %s.  " +
                     "Page contains %d slots and %d bytes of tuple data.",
-                    iPage, dbFile, numSlots, totalTupleSpace));
+                    iPage, dbFile, numSlots,
+                    DataPage.getTupleDataEnd(dbPage) -
+                    DataPage.getTupleDataStart(dbPage)));
             }
 
             for (int iSlot = 0; iSlot < numSlots; iSlot++) {
@@ -452,31 +530,23 @@ public class HeapTupleFile implements TupleFile {
                 if (tupleOffset == DataPage.EMPTY_SLOT)
                     continue;
 
-                numTuples++;
-
-                // logger.info("Analyzing tuple " + numTuples);
-
-                Tuple tup = new HeapFilePageTuple(schema, dbPage, iSlot, tupleOffset);
-                for (int iCol = 0; iCol < schema.numColumns(); iCol++) {
-                    Object value = tup.getColumnValue(iCol);
-                    collectors[iCol].addValue(value);
-                }
+                PageTuple tup =
+                    new HeapFilePageTuple(schema, dbPage, iSlot, tupleOffset);
+                collector.addTuple(tup);
                 tup.unpin();
             }
 
             dbPage.unpin();
         }
 
-        // Generate statistics objects for holding the stats we have collected
-
-        ArrayList<ColumnStats> colStats = new ArrayList<ColumnStats>();
-        for (int i = 0; i < numCols; i++)
-            colStats.add(collectors[i].getColumnStats());
+        // Generate statistics objects for holding the stats we have
+        // collected, scaled up to the whole file if only some of the pages
+        // were read.
+        double sampleFraction = (numPagesRead < numDataPages) ?
+            (double) numPagesRead / numDataPages : 1;
 
-        // In the heap file, number of data pages is the total number of pages
-        // minus the header page.
-        TableStats newStats = new TableStats(numPages - 1, numTuples,
-            (float) totalTupleSpace / (float) numTuples, colStats);
+        TableStats newStats =
+            collector.getTableStats(numDataPages, sampleFraction);
 
         // Finally, replace the existing stats and save the new info to the
         // header page.
@@ -493,9 +563,69 @@ public class HeapTupleFile implements TupleFile {
     }
 
 
+    /**
+     * Optimizing a heap file removes tuple versions that were deleted by a
+     * transaction that every running transaction sees as committed.  Files
+     * whose tuples aren't versioned are left unchanged.
+     */
     @Override
     public void optimize() throws IOException {
-        // TODO!
-        throw new UnsupportedOperationException("Not yet implemented!");
+        if (!schema.isVersioned())
+            return;
+
+        TransactionManager txnManager = storageManager.getTransactionManager();
+        int horizon = Integer.MAX_VALUE;
+        if (txnManager != null)
+            horizon = txnManager.getVacuumHorizon();
+
+        int numRemoved = 0;
+        int numPages = dbFile.getNumPages();
+        for (int iPage = 1; iPage < numPages; iPage++) {
+            DBPage dbPage = storageManager.loadDBPage(dbFile, iPage);
+
+            boolean locked = false;
+            boolean removed = false;
+            int numSlots = DataPage.getNumSlots(dbPage);
+            for (int iSlot = 0; iSlot < numSlots; iSlot++) {
+                int tupleOffset = DataPage.getSlotValue(dbPage, iSlot);
+                if (tupleOffset == DataPage.EMPTY_SLOT)
+                    continue;
+
+                HeapFilePageTuple tup =
+                    new HeapFilePageTuple(schema, dbPage, iSlot, tupleOffset);
+                int deleter = tup.getDeletingTxnID();
+                tup.unpin();
+
+                if (deleter != 0 && deleter < horizon) {
+                    if (!locked) {
+                        // Lock the page before changing it, and look at the
+                        // slot again, since the page may have changed while
+                        // we waited for the lock.
+                        storageManager.lockDBPageWrite(dbPage);
+                        locked = true;
+                        numSlots = DataPage.getNumSlots(dbPage);
+                        iSlot--;
+                        continue;
+                    }
+
+                    // Deleting a tuple may shrink the slot array, so recheck
+                    // the number of slots afterward.
+                    DataPage.deleteTuple(dbPage, iSlot);
+                    numSlots = DataPage.getNumSlots(dbPage);
+                    removed = true;
+                    numRemoved++;
+                }
+            }
+
+            if (removed) {
+                storageManager.logDBPageWrite(dbPage);
+                DataPage.sanityCheck(dbPage);
+            }
+
+            dbPage.unpin();
+        }
+
+        logger.debug(String.format("Removed %d dead tuple versions from %s",
+            numRemoved, dbFile));
     }
 }
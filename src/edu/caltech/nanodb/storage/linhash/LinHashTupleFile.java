@@ -12,11 +12,13 @@ import java.util.Map;
 
 import org.apache.log4j.Logger;
 
-import edu.caltech.nanodb.qeval.ColumnStats;
-import edu.caltech.nanodb.qeval.ColumnStatsCollector;
 import edu.caltech.nanodb.qeval.TableStats;
+import edu.caltech.nanodb.qeval.TableStatsCollector;
 import edu.caltech.nanodb.relations.TableSchema;
 import edu.caltech.nanodb.relations.Tuple;
+import edu.caltech.nanodb.server.performance.Counter;
+import edu.caltech.nanodb.server.performance.Histogram;
+import edu.caltech.nanodb.server.performance.MetricsRegistry;
 import edu.caltech.nanodb.expressions.TupleLiteral;
 
 
@@ -27,9 +29,11 @@ import edu.caltech.nanodb.storage.TupleFile;
 import edu.caltech.nanodb.storage.InvalidFilePointerException;
 import edu.caltech.nanodb.storage.PageTuple;
 import edu.caltech.nanodb.storage.StorageManager;
+import edu.caltech.nanodb.storage.TableSample;
 import edu.caltech.nanodb.storage.TupleFileManager;
 import edu.caltech.nanodb.storage.BucketPage;
 import edu.caltech.nanodb.storage.HashedTupleFile;
+import edu.caltech.nanodb.transactions.TransactionManager;
 
 import edu.caltech.nanodb.expressions.TupleHasher;
 
@@ -44,6 +48,21 @@ public class LinHashTupleFile implements HashedTupleFile
     /** Logging object for reporting runtime data. */
     private static Logger logger = Logger.getLogger(LinHashTupleFile.class);
 
+    /** The number of buckets that were split, in all linear hash files. */
+    private static final Counter splits =
+        MetricsRegistry.getInstance().counter("linhash.splits");
+
+    /** The number of overflow pages that were added to bucket chains. */
+    private static final Counter overflowPagesAdded =
+        MetricsRegistry.getInstance().counter("linhash.overflowPagesAdded");
+
+    /**
+     * The number of pages of a bucket's chain that were walked to find room
+     * for each new tuple, counting the bucket page itself.
+     */
+    private static final Histogram insertChainLength =
+        MetricsRegistry.getInstance().histogram("linhash.insertChainLength");
+
     /** The initial number of storage buckets. Needs to match N_BUCKETS in linash.HeaderPage. */
     public static final int N_BUCKETS = 3;
 
@@ -130,6 +149,88 @@ public class LinHashTupleFile implements HashedTupleFile
 
     public List<Integer> getHashColumns() { return hashColumns; }
 
+    public DBFile getOverflowFile() { return overflowFile; }
+
+
+    /**
+     * Returns the file's level, which is the number of times the number of
+     * buckets has doubled.
+     * @return The level of the file.
+     * @throws IOException
+     */
+    public int getLevel() throws IOException {
+        DBPage headerPage = storageManager.loadDBPage(dbFile, 0);
+        int level = HeaderPage.getLevel(headerPage);
+        headerPage.unpin();
+        return level;
+    }
+
+    /**
+     * Returns the file's next pointer, which is the number of buckets that
+     * have been split in the current level.
+     * @return The next bucket to split.
+     * @throws IOException
+     */
+    public int getNext() throws IOException {
+        DBPage headerPage = storageManager.loadDBPage(dbFile, 0);
+        int next = HeaderPage.getNext(headerPage);
+        headerPage.unpin();
+        return next;
+    }
+
+    /**
+     * Returns the number of buckets the file currently has.
+     * @return The number of buckets.
+     * @throws IOException
+     */
+    public int getNumBuckets() throws IOException {
+        DBPage headerPage = storageManager.loadDBPage(dbFile, 0);
+        int numBuckets = N_BUCKETS * (1 << HeaderPage.getLevel(headerPage)) +
+            HeaderPage.getNext(headerPage);
+        headerPage.unpin();
+        return numBuckets;
+    }
+
+    /**
+     * Returns the number of pages in the overflow file that hold tuples.
+     * @return The number of overflow pages.
+     * @throws IOException
+     */
+    public int getNumOverflowPages() throws IOException {
+        // Page 0 of the overflow file is a header page.
+        return overflowFile.getNumPages() - 1;
+    }
+
+    /**
+     * Computes the length of each bucket's chain of pages, counting the
+     * bucket page itself.  Only the pages' headers are read, not their
+     * tuples.
+     * @return An array of the chain length of each bucket.
+     * @throws IOException
+     */
+    public int[] getChainLengths() throws IOException {
+        int[] chainLengths = new int[getNumBuckets()];
+        for (int bucket = 0; bucket < chainLengths.length; bucket++) {
+            // Bucket b is page b + 1 of the main file; the rest of its chain
+            // is in the overflow file.
+            DBPage dbPage = storageManager.loadDBPage(dbFile, bucket + 1);
+            int chainLength = 1;
+            int nextPage = BucketPage.getNextBucket(dbPage);
+            dbPage.unpin();
+
+            while (nextPage != 0) {
+                dbPage = storageManager.loadDBPage(overflowFile, nextPage);
+                chainLength++;
+                nextPage = BucketPage.getNextBucket(dbPage);
+                dbPage.unpin();
+            }
+
+            chainLengths[bucket] = chainLength;
+        }
+
+        return chainLengths;
+    }
+
 
     /**
      * Initializes the dbFile by creating a page for each initial bucket.
@@ -317,6 +418,27 @@ public class LinHashTupleFile implements HashedTupleFile
      * @throws IOException
      */
     public Tuple addTuple(Tuple tup) throws IOException {
+        // Before we add the tuple, we perform a quick check to see if we need
+        // to split a bucket to stay below our capacity threshold.  Splitting
+        // first means that the new tuple isn't moved by the split, so the
+        // tuple we return stays valid.
+        splitCheck();
+
+        HashFilePageTuple pageTup = storeTuple(tup);
+        stats.tupleAdded(pageTup, pageTup.getSize());
+
+        return pageTup;
+    }
+
+    /**
+     * Stores a tuple in the bucket it hashes to, without updating the
+     * table's tuple count or splitting any buckets.  This is used both to
+     * add new tuples and to move tuples when a bucket is split.
+     * @param tup The tuple to be stored.
+     * @return The HashFilePageTuple containing the tuple details and location data.
+     * @throws IOException
+     */
+    private HashFilePageTuple storeTuple(Tuple tup) throws IOException {
 
         int tupSize = PageTuple.getTupleStorageSize(schema, tup);
         logger.debug("Adding new tuple of size " + tupSize + " bytes.");
@@ -341,6 +463,7 @@ public class LinHashTupleFile implements HashedTupleFile
         // Current page and previous page cursors
         DBPage dbPage = storageManager.loadDBPage(dbFile, pageNo);
         DBPage old = dbPage;
+        int chainLength = 1;
         while (true)
         {
             int freeSpace = BucketPage.getFreeSpaceInPage(dbPage);
@@ -350,10 +473,16 @@ public class LinHashTupleFile implements HashedTupleFile
 
             // If this page has enough free space to add a new tuple, break
             // out of the loop.  (The "+ 2" is for the new slot entry we will
-            // also need.)
+            // also need.)  The page must be locked before it is changed, and
+            // another transaction may fill the page while we wait for the
+            // lock, so check the free space again once we hold it.
             if (freeSpace >= tupSize + 2) {
-                logger.debug("Found space for new tuple in page " + pageNo + ".");
-                break;
+                storageManager.lockDBPageWrite(dbPage);
+                if (BucketPage.getFreeSpaceInPage(dbPage) >= tupSize + 2) {
+                    logger.debug("Found space for new tuple in page " +
+                        pageNo + ".");
+                    break;
+                }
             }
 
             // If we reached this point then the page doesn't have enough
@@ -361,7 +490,15 @@ public class LinHashTupleFile implements HashedTupleFile
             int nextPageNo = BucketPage.getNextBucket(dbPage);
             old = dbPage;
 
-            // If the next page number is 0, we need to create a new overflow page
+            // If the next page number is 0, we need to create a new overflow
+            // page.  Once we hold the lock on the last page of the chain, no
+            // other transaction can extend the chain, but one may have done
+            // so while we waited.
+            if (nextPageNo == 0) {
+                storageManager.lockDBPageWrite(dbPage);
+                nextPageNo = BucketPage.getNextBucket(dbPage);
+            }
+
             if (nextPageNo == 0) {
                 dbPage = null;
                 break;
@@ -370,6 +507,7 @@ public class LinHashTupleFile implements HashedTupleFile
             // Otherwise, we go to the next overflow page and loop back
             else {
                 dbPage = storageManager.loadDBPage(overflowFile, nextPageNo);
+                chainLength++;
             }
 
         }
@@ -378,9 +516,14 @@ public class LinHashTupleFile implements HashedTupleFile
         if (dbPage == null) {
             int numPages = overflowFile.getNumPages();
             dbPage = storageManager.loadDBPage(overflowFile, numPages, true);
+            storageManager.lockDBPageWrite(dbPage);
             BucketPage.initNewPage(dbPage);
             BucketPage.setNextBucket(old, numPages);
+            stats.pageAdded();
+            overflowPagesAdded.inc();
+            chainLength++;
         }
+        insertChainLength.record(chainLength);
 
         // Finally, we add the tuple to the page
         int slot = BucketPage.allocNewTuple(dbPage, tupSize);
@@ -392,10 +535,6 @@ public class LinHashTupleFile implements HashedTupleFile
 
         BucketPage.sanityCheck(dbPage);
 
-        // Once we finish adding the tuple, we perform a quick check to see if
-        // we need to split a bucket to stay below our capacity threshold.
-        splitCheck();
-
         return pageTup;
     }
 
@@ -417,8 +556,32 @@ public class LinHashTupleFile implements HashedTupleFile
                     "Tuple must be of type HashFilePageTuple; got " + tup.getClass());
         }
         HashFilePageTuple ptup = (HashFilePageTuple) tup;
+        storageManager.lockDBPageWrite(ptup.getDBPage());
+
+        // The tuple's values are needed to update the stats, so this must be
+        // done before it is removed from the page.
+        stats.tupleRemoved(ptup, ptup.getSize());
+
+        if (ptup.isVersioned()) {
+            // Other transactions may still see this version, so just record
+            // that it was deleted.  Optimizing the file will remove it.
+            ptup.markDeleted();
+            storageManager.logDBPageWrite(ptup.getDBPage());
+            return;
+        }
+
+        removeTuple(ptup);
+    }
 
+    /**
+     * Physically removes a tuple from its bucket page, regardless of whether
+     * it is versioned.
+     * @param ptup The tuple to be removed.
+     * @throws IOException
+     */
+    private void removeTuple(HashFilePageTuple ptup) throws IOException {
         DBPage dbPage = ptup.getDBPage();
+        storageManager.lockDBPageWrite(dbPage);
         BucketPage.deleteTuple(dbPage, ptup.getSlot());
         storageManager.logDBPageWrite(dbPage);
 
@@ -429,13 +592,14 @@ public class LinHashTupleFile implements HashedTupleFile
      * Finds the first tuple in the table that hashes to the same value as
      * the input tuple. Hashes the tuple to get the page number, then loads
      * that page and iterates through it (and overflow pages if necessary)
-     * @param hashKey The input tuple.
+     * @param hashKey The input tuple, holding just the values of the hash
+     *        columns, in the order the hash columns are specified.
      * @return The first tuple, or null if no such tuple exists.
      * @throws IOException
      */
     public Tuple findFirstTupleEquals(Tuple hashKey) throws IOException {
 
-        int pageNo = hashTuple(hashKey);
+        int pageNo = getKeyBucket(hashKey);
         DBPage curr = storageManager.loadDBPage(dbFile, pageNo + 1);
         // Keep looping until we hit then end of the bucket
         while (true) {
@@ -536,10 +700,69 @@ public class LinHashTupleFile implements HashedTupleFile
         return hashColumns;
     }
 
+    /**
+     * Analyzes the file's buckets, or a sample of them.  Along with the
+     * usual table stats, this collects how full the bucket pages are and how
+     * long the buckets' chains of overflow pages are.  A sample is taken of
+     * whole buckets, so the chain lengths of the buckets read are exact.
+     */
     @Override
-    public void analyze() throws IOException {
+    public void analyze(TableSample sample) throws IOException {
+        TableStatsCollector collector = new TableStatsCollector(schema);
 
-        throw new UnsupportedOperationException("Not yet implemented!");
+        int numBuckets = getNumBuckets();
+
+        int[] buckets = null;
+        int numBucketsRead = numBuckets;
+        if (sample != null) {
+            buckets = sample.chooseUnits(numBuckets);
+            numBucketsRead = buckets.length;
+        }
+
+        for (int i = 0; i < numBucketsRead; i++) {
+            int bucket = (buckets != null) ? buckets[i] : i;
+
+            // Bucket b is page b + 1 of the main file; the rest of its chain
+            // is in the overflow file.
+            DBPage dbPage = storageManager.loadDBPage(dbFile, bucket + 1);
+            int chainLength = 0;
+            while (true) {
+                chainLength++;
+                collector.addPage(dbPage.getPageSize(),
+                    BucketPage.getFreeSpaceInPage(dbPage));
+
+                int numSlots = BucketPage.getNumSlots(dbPage);
+                for (int iSlot = 0; iSlot < numSlots; iSlot++) {
+                    int offset = BucketPage.getSlotValue(dbPage, iSlot);
+                    if (offset == BucketPage.EMPTY_SLOT)
+                        continue;
+
+                    HashFilePageTuple tup =
+                        new HashFilePageTuple(schema, dbPage, iSlot, offset);
+                    collector.addTuple(tup);
+                    tup.unpin();
+                }
+
+                int nextPage = BucketPage.getNextBucket(dbPage);
+                dbPage.unpin();
+                if (nextPage == 0)
+                    break;
+
+                dbPage = storageManager.loadDBPage(overflowFile, nextPage);
+            }
+
+            collector.addChain(chainLength);
+        }
+
+        // Page 0 of both files is a header page.
+        int numDataPages =
+            (dbFile.getNumPages() - 1) + (overflowFile.getNumPages() - 1);
+
+        double sampleFraction = (numBucketsRead < numBuckets) ?
+            (double) numBucketsRead / numBuckets : 1;
+
+        stats = collector.getTableStats(numDataPages, sampleFraction);
+        linHashFileManager.saveMetadata(this);
     }
 
     @Override
@@ -550,10 +773,88 @@ public class LinHashTupleFile implements HashedTupleFile
     }
 
 
+    /**
+     * Removes tuple versions that were deleted by a transaction that every
+     * running transaction sees as committed, from both the bucket pages and
+     * the overflow pages.  Files whose tuples aren't versioned are left
+     * unchanged.
+     * @throws IOException
+     */
     @Override
     public void optimize() throws IOException {
+        if (!schema.isVersioned())
+            return;
 
-        throw new UnsupportedOperationException("Not yet implemented!");
+        TransactionManager txnManager = storageManager.getTransactionManager();
+        int horizon = Integer.MAX_VALUE;
+        if (txnManager != null)
+            horizon = txnManager.getVacuumHorizon();
+
+        int numRemoved = removeDeadTuples(dbFile, horizon);
+        numRemoved += removeDeadTuples(overflowFile, horizon);
+
+        logger.debug(String.format("Removed %d dead tuple versions from %s",
+            numRemoved, dbFile));
+    }
+
+    /**
+     * Physically removes the dead tuple versions from every bucket page in
+     * the specified file.
+     * @param file The main file or the overflow file.
+     * @param horizon Versions deleted by a transaction with a smaller ID
+     * than this are dead.
+     * @return The number of tuple versions removed.
+     * @throws IOException
+     */
+    private int removeDeadTuples(DBFile file, int horizon) throws IOException {
+        int numRemoved = 0;
+        int numPages = file.getNumPages();
+
+        // Page 0 of both files is a header page.
+        for (int iPage = 1; iPage < numPages; iPage++) {
+            DBPage dbPage = storageManager.loadDBPage(file, iPage);
+
+            boolean locked = false;
+            boolean removed = false;
+            int numSlots = BucketPage.getNumSlots(dbPage);
+            for (int iSlot = 0; iSlot < numSlots; iSlot++) {
+                int offset = BucketPage.getSlotValue(dbPage, iSlot);
+                if (offset == BucketPage.EMPTY_SLOT)
+                    continue;
+
+                HashFilePageTuple tup =
+                    new HashFilePageTuple(schema, dbPage, iSlot, offset);
+                int deleter = tup.getDeletingTxnID();
+                tup.unpin();
+
+                if (deleter != 0 && deleter < horizon) {
+                    if (!locked) {
+                        // Lock the page before changing it, and look at the
+                        // slot again, since the page may have changed while
+                        // we waited for the lock.
+                        storageManager.lockDBPageWrite(dbPage);
+                        locked = true;
+                        numSlots = BucketPage.getNumSlots(dbPage);
+                        iSlot--;
+                        continue;
+                    }
+
+                    BucketPage.deleteTuple(dbPage, iSlot);
+                    numSlots = BucketPage.getNumSlots(dbPage);
+                    removed = true;
+                    numRemoved++;
+                }
+            }
+
+            if (removed) {
+                storageManager.logDBPageWrite(dbPage);
+                BucketPage.sanityCheck(dbPage);
+            }
+
+            dbPage.unpin();
+        }
+
+        return numRemoved;
     }
 
     /**
@@ -567,9 +868,32 @@ public class LinHashTupleFile implements HashedTupleFile
      * @throws IOException
      */
     public int hashTuple(Tuple tup) throws IOException {
+        return getBucket(Math.abs(TupleHasher.hashTuple(tup, hashColumns)));
+    }
+
+    /**
+     * Returns the bucket that tuples with the specified hash key are stored
+     * in.  Unlike {@link #hashTuple}, the key holds just the values of the
+     * hash columns, in the order the hash columns are specified, so probes
+     * for keys in the same bucket can be grouped together.
+     * @param hashKey The hash key.
+     * @return the bucket number for the key.
+     * @throws IOException if the header page can't be read
+     */
+    public int getKeyBucket(Tuple hashKey) throws IOException {
+        return getBucket(Math.abs(TupleHasher.hashTuple(hashKey)));
+    }
+
+    /**
+     * Maps a hash value to a bucket, taking into account which buckets of
+     * the current level have already been split.
+     * @param hash The non-negative hash value.
+     * @return the bucket number for the hash value.
+     * @throws IOException if the header page can't be read
+     */
+    private int getBucket(int hash) throws IOException {
         // load the header page
         DBPage dbPage = storageManager.loadDBPage(dbFile, 0);
-        int hash = Math.abs(TupleHasher.hashTuple(tup, hashColumns));
         int hash0 = hash % (N_BUCKETS * (1 << HeaderPage.getLevel(dbPage)));
 
         // check if the bucket has already been split
@@ -612,7 +936,11 @@ public class LinHashTupleFile implements HashedTupleFile
      * @throws IOException
      */
     public void splitBucket() throws IOException {
+        // The split changes the header, the new bucket and every page of the
+        // old bucket's chain, so all of them must be locked first.  The pages
+        // of the old bucket are locked as tuples are moved out of them.
         DBPage headerPage = storageManager.loadDBPage(dbFile, 0);
+        storageManager.lockDBPageWrite(headerPage);
         int n = N_BUCKETS;
         int level = HeaderPage.getLevel(headerPage);
         int next = HeaderPage.getNext(headerPage);
@@ -622,7 +950,10 @@ public class LinHashTupleFile implements HashedTupleFile
 
         // Create that bucket
         DBPage newBucket = storageManager.loadDBPage(dbFile, newBucketNum + 1, true);
+        storageManager.lockDBPageWrite(newBucket);
         BucketPage.initNewPage(newBucket);
+        stats.pageAdded();
+        splits.inc();
 
 
         // Here, we need to increment the next variable, so that
@@ -638,8 +969,9 @@ public class LinHashTupleFile implements HashedTupleFile
         }
 
         // Iterate through the old bucket and all the overflow pages. For
-        // each tuple, delete the tuple and add a copy of it. The add function
-        // automatically determines which bucket the tuple should go into.
+        // each tuple, delete the tuple and store a copy of it. Storing the
+        // tuple automatically determines which bucket it should go into, and
+        // leaves the table's tuple count alone, since the tuple only moves.
         DBPage currPage = storageManager.loadDBPage(dbFile, next + 1);
         while (true)
         {
@@ -653,15 +985,28 @@ public class LinHashTupleFile implements HashedTupleFile
                     continue;
 
                 // Check if splitting causes the tuple to hash to a different bucket
-                Tuple tup = new HashFilePageTuple(schema, currPage, i, offset);
+                HashFilePageTuple tup =
+                    new HashFilePageTuple(schema, currPage, i, offset);
                 int hash = Math.abs(TupleHasher.hashTuple(tup, hashColumns));
                 hash %= N_BUCKETS * (1 << (level + 1));
                 if (hash >= N_BUCKETS * (1 << level))
                 {
-                    // we need to move the tuple to the new bucket
+                    // we need to move the tuple to the new bucket.  A moved
+                    // tuple is the same version, so it keeps its header.
                     Tuple add = new TupleLiteral(tup);
-                    deleteTuple(tup);
-                    addTuple(add);
+                    int xmin = 0, xmax = 0, cmin = 0;
+                    if (tup.isVersioned()) {
+                        xmin = tup.getInsertingTxnID();
+                        xmax = tup.getDeletingTxnID();
+                        cmin = tup.getInsertingCommandID();
+                    }
+
+                    removeTuple(tup);
+                    PageTuple moved = storeTuple(add);
+                    if (moved.isVersioned()) {
+                        moved.setVersion(xmin, xmax, cmin);
+                        storageManager.logDBPageWrite(moved.getDBPage());
+                    }
                 }
             }
             // Once we finish with one page, move to the next one
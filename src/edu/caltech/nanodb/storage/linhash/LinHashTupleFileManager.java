@@ -146,14 +146,11 @@ public class LinHashTupleFileManager implements HashTupleFileManager {
         List<Integer> hashColumns = lhTupleFile.getHashColumns();
 
 
-        // Grab header page for initialization
+        // Grab the header page.  The level and next values are left alone,
+        // since the metadata is also saved after the file has been split;
+        // createTupleFile() initializes them.
         DBPage headerPage = storageManager.loadDBPage(dbFile, 0);
 
-        // Initialize level and next values to 0
-        headerPage.writeShort(HeaderPage.getLevelOffset(headerPage), 0);
-        headerPage.writeShort(HeaderPage.getNextOffset(headerPage), 0);
-
-
         // Table schema is stored into the header page, so get it and prepare
         // to write out the schema information.
         PageWriter hpWriter = new PageWriter(headerPage);
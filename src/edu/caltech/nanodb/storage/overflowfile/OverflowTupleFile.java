@@ -2,6 +2,7 @@ package edu.caltech.nanodb.storage.overflowfile;
 
 import edu.caltech.nanodb.expressions.TupleHasher;
 import edu.caltech.nanodb.qeval.TableStats;
+import edu.caltech.nanodb.qeval.TableStatsCollector;
 import edu.caltech.nanodb.relations.TableSchema;
 import edu.caltech.nanodb.relations.Tuple;
 import edu.caltech.nanodb.storage.*;
@@ -252,6 +253,7 @@ public class OverflowTupleFile implements HashedTupleFile{
         HashFilePageTuple ptup = (HashFilePageTuple) tup;
 
         DBPage dbPage = ptup.getDBPage();
+        storageManager.lockDBPageWrite(dbPage);
         BucketPage.deleteTuple(dbPage, ptup.getSlot());
         storageManager.logDBPageWrite(dbPage);
 
@@ -262,11 +264,51 @@ public class OverflowTupleFile implements HashedTupleFile{
     /**
      * Analyzes the tuple data in the file, updating the file's statistics.
      *
+     * @param sample the pages to read, or {@code null} to read every page
+     *
      * @throws IOException if an IO error occurs while analyzing the file or
      *         updating the statistics.
      */
-    public void analyze() throws IOException{
-        throw new UnsupportedOperationException("NYI");
+    public void analyze(TableSample sample) throws IOException {
+        TableStatsCollector collector = new TableStatsCollector(schema);
+
+        // The overflow pages belong to the chains of another file's buckets,
+        // so the pages themselves are sampled, and no chain stats are kept.
+        int numDataPages = dbFile.getNumPages() - 1;
+
+        int[] pages = null;
+        int numPagesRead = numDataPages;
+        if (sample != null) {
+            pages = sample.chooseUnits(numDataPages);
+            numPagesRead = pages.length;
+        }
+
+        for (int i = 0; i < numPagesRead; i++) {
+            int iPage = (pages != null) ? pages[i] + 1 : i + 1;
+            DBPage dbPage = storageManager.loadDBPage(dbFile, iPage);
+            collector.addPage(dbPage.getPageSize(),
+                BucketPage.getFreeSpaceInPage(dbPage));
+
+            int numSlots = BucketPage.getNumSlots(dbPage);
+            for (int iSlot = 0; iSlot < numSlots; iSlot++) {
+                int offset = BucketPage.getSlotValue(dbPage, iSlot);
+                if (offset == BucketPage.EMPTY_SLOT)
+                    continue;
+
+                HashFilePageTuple tup =
+                    new HashFilePageTuple(schema, dbPage, iSlot, offset);
+                collector.addTuple(tup);
+                tup.unpin();
+            }
+
+            dbPage.unpin();
+        }
+
+        double sampleFraction = (numPagesRead < numDataPages) ?
+            (double) numPagesRead / numDataPages : 1;
+
+        stats = collector.getTableStats(numDataPages, sampleFraction);
+        hashFileManager.saveMetadata(this);
     }
 
 
@@ -13,6 +13,13 @@ package edu.caltech.nanodb.storage.writeahead;
  *   <li>The offset of the log record from the start of the file
  *       (range:  0..2<sup>31</sup>-1)</li>
  * </ul>
+ * <p>
+ * Wherever an LSN is persisted (in "previous LSN" fields of WAL records, and
+ * in the transaction-state file), it is stored as a single 64-bit value with
+ * the file number in the upper 32 bits and the file offset in the lower 32
+ * bits.  See {@link #toLong} and {@link #fromLong}.  This packing preserves
+ * the ordering of {@link #compareTo}.
+ * </p>
  */
 public class LogSequenceNumber
     implements Comparable<LogSequenceNumber>, Cloneable {
@@ -44,6 +51,35 @@ public class LogSequenceNumber
     }
 
 
+    /**
+     * Reconstructs a log sequence number from the 64-bit value produced by
+     * {@link #toLong}.
+     *
+     * @param value the packed 64-bit log sequence number
+     *
+     * @return the corresponding log sequence number
+     *
+     * @throws IllegalArgumentException if the file number or offset packed
+     *         into the value is out of range
+     */
+    public static LogSequenceNumber fromLong(long value) {
+        return new LogSequenceNumber((int) (value >>> 32), (int) value);
+    }
+
+
+    /**
+     * Returns this log sequence number packed into a single 64-bit value,
+     * with the WAL file number in the upper 32 bits and the file offset in
+     * the lower 32 bits.  Since both parts are nonnegative, comparing packed
+     * values gives the same result as {@link #compareTo}.
+     *
+     * @return this log sequence number as a 64-bit value
+     */
+    public long toLong() {
+        return ((long) logFileNo << 32) | (fileOffset & 0xFFFFFFFFL);
+    }
+
+
     @Override
     public boolean equals(Object obj) {
         if (obj instanceof LogSequenceNumber) {
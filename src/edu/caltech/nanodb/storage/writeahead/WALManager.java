@@ -5,10 +5,15 @@ import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 import org.apache.log4j.Logger;
 
 import edu.caltech.nanodb.client.SessionState;
+import edu.caltech.nanodb.server.performance.Counter;
+import edu.caltech.nanodb.server.performance.MetricsRegistry;
 import edu.caltech.nanodb.storage.BufferManager;
 import edu.caltech.nanodb.storage.DBFile;
 import edu.caltech.nanodb.storage.DBFileReader;
@@ -47,6 +52,16 @@ public class WALManager {
     private static Logger logger = Logger.getLogger(WALManager.class);
 
 
+    /** The number of records written to the write-ahead log. */
+    private static final Counter walRecords =
+        MetricsRegistry.getInstance().counter("wal.records");
+
+
+    /** The number of bytes written to the write-ahead log. */
+    private static final Counter walBytes =
+        MetricsRegistry.getInstance().counter("wal.bytesWritten");
+
+
     /** Write-ahead log files follow this pattern. */
     public static final String WAL_FILENAME_PATTERN = "wal-%05d.log";
 
@@ -65,18 +80,36 @@ public class WALManager {
     public static final int MAX_WAL_FILE_SIZE = 10 * 1024 * 1024;
 
 
+    /**
+     * The version of the write-ahead log record format written by this class.
+     * Version 1 (never explicitly recorded in the files) stored page numbers
+     * as unsigned shorts and "previous LSN" values as a 2-byte file number
+     * plus a 4-byte offset.  Version 2 stores page numbers as 4-byte integers
+     * and LSNs as 8-byte values; see {@link LogSequenceNumber#toLong}.
+     * Version 3 adds the {@link WALRecordType#UPDATE_NEW_PAGE} record type.
+     */
+    public static final int WAL_FORMAT_VERSION = 3;
+
+
+    /**
+     * This is the file-offset of the WAL format version, stored as an unsigned
+     * byte immediately after the standard {@link DBFile} header.
+     */
+    public static final int OFFSET_FORMAT_VERSION = 2;
+
+
     /**
      * This is the file-offset just past the last byte written in the previous
      * WAL file, or 0 for the first WAL file.  The value is an integer,
      * occupying 4 bytes.
      */
-    public static final int OFFSET_PREV_FILE_END = 2;
+    public static final int OFFSET_PREV_FILE_END = 3;
 
 
     /**
      * This is the file-offset of the first log entry in a WAL file.
      */
-    public static final int OFFSET_FIRST_RECORD = 6;
+    public static final int OFFSET_FIRST_RECORD = 7;
 
 
     /**
@@ -133,7 +166,16 @@ public class WALManager {
     public DBFile createWALFile(int fileNo) throws IOException {
         String filename = getWALFileName(fileNo);
         logger.debug("Creating WAL file " + filename);
-        return storageManager.createDBFile(filename, DBFileType.WRITE_AHEAD_LOG_FILE);
+        DBFile dbFile = storageManager.createDBFile(filename,
+            DBFileType.WRITE_AHEAD_LOG_FILE);
+
+        // Record the format version so that later readers can tell which
+        // record layout the file uses.
+        DBPage dbPage = storageManager.loadDBPage(dbFile, 0, /* create */ true);
+        dbPage.writeByte(OFFSET_FORMAT_VERSION, WAL_FORMAT_VERSION);
+        dbPage.unpin();
+
+        return dbFile;
     }
 
 
@@ -163,6 +205,18 @@ public class WALManager {
                 "File %s is not of WAL-file type.", filename));
         }
 
+        DBPage dbPage = storageManager.loadDBPage(dbFile, 0);
+        int version = dbPage.readUnsignedByte(OFFSET_FORMAT_VERSION);
+        dbPage.unpin();
+
+        if (version != WAL_FORMAT_VERSION) {
+            throw new WALFileException(String.format("WAL file %s uses " +
+                "record format version %d, but only version %d is supported." +
+                "  Recover the database with the version of NanoDB that " +
+                "wrote it before upgrading.", filename, version,
+                WAL_FORMAT_VERSION));
+        }
+
         return dbFile;
     }
 
@@ -254,8 +308,8 @@ public class WALManager {
                 // have a "previous LSN" value, but everything else does.
     
                 // During redo processing we don't use the previous LSN, so just
-                // skip over it.  File # is a short, and the offset is an int.
-                walReader.movePosition(6);
+                // skip over it.  It is stored as a single 8-byte value.
+                walReader.movePosition(8);
             }
 
             // Update our general recovery info, namely the LSN of the last
@@ -287,10 +341,11 @@ public class WALManager {
 
             case UPDATE_PAGE:
             case UPDATE_PAGE_REDO_ONLY:
+            case UPDATE_NEW_PAGE:
                 // Reapply the changes to the specified file and page.
 
                 String redoFilename = walReader.readVarString255();
-                int redoPageNo = walReader.readUnsignedShort();
+                int redoPageNo = walReader.readInt();
 
                 DBFile redoFile = storageManager.openDBFile(redoFilename);
                 DBPage redoPage = storageManager.loadDBPage(redoFile, redoPageNo);
@@ -400,13 +455,14 @@ public class WALManager {
 
             case COMMIT_TXN:
             case ABORT_TXN:
-                // Type (1B) + TransactionID (4B) + PrevLSN (2B+4B) + Type (1B)
-                // = 12 bytes
-                startOffset = fileOffset - 12;
+                // Type (1B) + TransactionID (4B) + PrevLSN (8B) + Type (1B)
+                // = 14 bytes
+                startOffset = fileOffset - 14;
                 break;
 
             case UPDATE_PAGE:
             case UPDATE_PAGE_REDO_ONLY:
+            case UPDATE_NEW_PAGE:
                 // For these records, the WAL record's start offset is stored
                 // immediately before the last type-byte.  We go back 5 bytes
                 // because reading the type ID moves the position forward by
@@ -472,16 +528,16 @@ public class WALManager {
                     transactionID + "!");
 
             case UPDATE_PAGE:
+            case UPDATE_NEW_PAGE:
                 // Undo the changes to the specified file and page.
 
-                // UPDATE_PAGE records store the "previous LSN" value for the
-                // transaction they are a part of.  This consists of a 2-byte
-                // WAL file # and a 4-byte offset within the file, giving
-                // 6 bytes to skip over.
-                walReader.movePosition(6);
+                // Update records store the "previous LSN" value for the
+                // transaction they are a part of.  This is a single 8-byte
+                // value, so skip over it.
+                walReader.movePosition(8);
 
                 String undoFilename = walReader.readVarString255();
-                int undoPageNo = walReader.readUnsignedShort();
+                int undoPageNo = walReader.readInt();
 
                 // Read the number of segments in the redo/undo record, and
                 // undo the writes.  While we do this, the data for a redo-only
@@ -496,8 +552,8 @@ public class WALManager {
                 DBFile undoFile = storageManager.openDBFile(undoFilename);
                 DBPage undoPage = storageManager.loadDBPage(undoFile, undoPageNo);
 
-                byte[] redoOnlyData = applyUndoAndGenRedoOnlyData(walReader,
-                    undoPage, numSegments);
+                byte[] redoOnlyData = applyUndoAndGenRedoOnlyData(type,
+                    walReader, undoPage, numSegments);
 
                 // Update the WAL with the redo-only record.  Make sure to grab
                 // the LSN of the redo-only record so that we can chain any
@@ -528,6 +584,95 @@ public class WALManager {
     }
 
 
+    /**
+     * Scans the write-ahead log between two log sequence numbers, and
+     * records every data page that an update record in that range modified.
+     * This is used by incremental backups to find the pages that changed
+     * since a previous backup.
+     *
+     * @param startLSN the location of the first WAL record to examine
+     *
+     * @param endLSN the location <em>just past</em> the last WAL record to
+     *        examine
+     *
+     * @param updatedPages a map from data-file names to the numbers of the
+     *        pages modified in that file; this method adds to the map
+     *
+     * @throws IOException if an IO error occurs while reading the WAL, or if
+     *         the WAL doesn't contain valid records in the specified range
+     */
+    public void collectUpdatedPages(LogSequenceNumber startLSN,
+        LogSequenceNumber endLSN, Map<String, Set<Integer>> updatedPages)
+        throws IOException {
+
+        LogSequenceNumber currLSN = startLSN;
+        logger.debug(String.format("Collecting updated pages from %s to %s",
+            startLSN, endLSN));
+
+        LogSequenceNumber oldLSN = null;
+        DBFileReader walReader = null;
+        while (currLSN.compareTo(endLSN) < 0) {
+            if (oldLSN == null || oldLSN.getLogFileNo() != currLSN.getLogFileNo())
+                walReader = getWALFileReader(currLSN);
+
+            byte typeID = walReader.readByte();
+            WALRecordType type = WALRecordType.valueOf(typeID);
+
+            // Skip the transaction ID, and the previous LSN of every record
+            // except "start transaction" records.
+            walReader.movePosition(4);
+            if (type != WALRecordType.START_TXN)
+                walReader.movePosition(8);
+
+            switch (type) {
+            case START_TXN:
+            case COMMIT_TXN:
+            case ABORT_TXN:
+                // Move past the trailing record-type value.
+                walReader.movePosition(1);
+                break;
+
+            case UPDATE_PAGE:
+            case UPDATE_PAGE_REDO_ONLY:
+            case UPDATE_NEW_PAGE:
+                String filename = walReader.readVarString255();
+                int pageNo = walReader.readInt();
+
+                Set<Integer> pages = updatedPages.get(filename);
+                if (pages == null) {
+                    pages = new TreeSet<Integer>();
+                    updatedPages.put(filename, pages);
+                }
+                pages.add(pageNo);
+
+                // Skip the segments; update records store both undo and
+                // redo data for each segment.
+                int numSegments = walReader.readUnsignedShort();
+                for (int iSeg = 0; iSeg < numSegments; iSeg++) {
+                    walReader.movePosition(2);
+                    int size = walReader.readUnsignedShort();
+                    if (type == WALRecordType.UPDATE_PAGE)
+                        size *= 2;
+
+                    walReader.movePosition(size);
+                }
+
+                // Skip the record size (int) and the record type (byte).
+                walReader.movePosition(5);
+                break;
+
+            default:
+                throw new WALFileException(
+                    "Encountered unrecognized WAL record type " + type +
+                    " at LSN " + currLSN + " while collecting updated pages!");
+            }
+
+            oldLSN = currLSN;
+            currLSN = computeNextLSN(currLSN.getLogFileNo(), walReader.getPosition());
+        }
+    }
+
+
     /**
      * This static helper function takes the file number of a WAL file, and
      * the offset in the WAL file where the next write-ahead log record would
@@ -557,6 +702,17 @@ public class WALManager {
     }
 
 
+    /**
+     * Records a WAL record that was just written in the metrics.
+     *
+     * @param lsn the LSN of the record, with its size set
+     */
+    private void recordWritten(LogSequenceNumber lsn) {
+        walRecords.inc();
+        walBytes.add(lsn.getRecordSize());
+    }
+
+
     /**
      * This method opens the WAL file specified in the passed-in Log Sequence
      * Number, wraps it with a {@link DBFileWriter} so that it can be read and
@@ -694,15 +850,15 @@ public class WALManager {
             lsn.setRecordSize(6);
         }
         else {
-            walWriter.writeShort(prevLSN.getLogFileNo());
-            walWriter.writeInt(prevLSN.getFileOffset());
+            walWriter.writeLong(prevLSN.toLong());
             walWriter.writeByte(type.getID());
 
-            // TypeID (1B) + TransactionID (4B) + PrevLSN (6B) + TypeID (1B)
-            lsn.setRecordSize(12);
+            // TypeID (1B) + TransactionID (4B) + PrevLSN (8B) + TypeID (1B)
+            lsn.setRecordSize(14);
         }
 
         nextLSN = computeNextLSN(nextLSN.getLogFileNo(), walWriter.getPosition());
+        recordWritten(lsn);
         logger.debug("Next-LSN value is now " + nextLSN);
 
         return lsn;
@@ -750,7 +906,19 @@ public class WALManager {
 
     /**
      * This method writes an update-page record to the write-ahead log,
-     * including both undo and redo details.
+     * including both undo and redo details.  If the page contained only zero
+     * bytes before the update, as is the case for newly allocated pages, an
+     * {@link WALRecordType#UPDATE_NEW_PAGE} record is written instead, which
+     * omits the undo details.  The transaction details are passed explicitly
+     * so that a page's changes can be logged on behalf of a transaction
+     * other than the current session's.  The alternate method
+     * {@link #writeUpdatePageRecord(DBPage)} retrieves the transaction state
+     * from thread-local storage, and should be used during normal operation.
+     *
+     * @param transactionID the transaction ID that the WAL record is for.
+     *
+     * @param prevLSN the log sequence number of the transaction's immediately
+     *        previous WAL record.
      *
      * @param dbPage The data page whose changes are to be recorded in the log.
      *
@@ -758,12 +926,12 @@ public class WALManager {
      *
      * @throws IOException if the write-ahead log cannot be updated for some
      *         reason.
-     * 
+     *
      * @throws IllegalArgumentException if <tt>dbPage</tt> is <tt>null</tt>, or
      *         if it shows no updates.
      */
-    public LogSequenceNumber writeUpdatePageRecord(DBPage dbPage)
-        throws IOException {
+    public LogSequenceNumber writeUpdatePageRecord(int transactionID,
+        LogSequenceNumber prevLSN, DBPage dbPage) throws IOException {
 
         if (dbPage == null)
             throw new IllegalArgumentException("dbPage must be specified");
@@ -771,43 +939,40 @@ public class WALManager {
         if (!dbPage.isDirty())
             throw new IllegalArgumentException("dbPage has no updates to store");
 
-        // Retrieve and verify the transaction state.
-        TransactionState txnState = SessionState.get().getTxnState();
-        if (!txnState.isTxnInProgress()) {
-            throw new IllegalStateException(
-                "No transaction is currently in progress!");
-        }
+        byte[] oldData = dbPage.getOldPageData();
+        byte[] newData = dbPage.getPageData();
+        int pageSize = dbPage.getPageSize();
+
+        // If the page was empty before the update, the undo data would be
+        // nothing but zeroes, so don't store it.
+        WALRecordType type = WALRecordType.UPDATE_PAGE;
+        if (isAllZeroes(oldData))
+            type = WALRecordType.UPDATE_NEW_PAGE;
 
         LogSequenceNumber lsn = nextLSN;
 
         logger.debug(String.format("Writing an %s record for transaction %d at LSN %s",
-            WALRecordType.UPDATE_PAGE, txnState.getTransactionID(), lsn));
+            type, transactionID, lsn));
 
         // Record the WAL record.  First thing to do:  figure out where it goes.
 
         DBFileWriter walWriter = getWALFileWriter(lsn);
 
-        walWriter.writeByte(WALRecordType.UPDATE_PAGE.getID());
-        walWriter.writeInt(txnState.getTransactionID());
+        walWriter.writeByte(type.getID());
+        walWriter.writeInt(transactionID);
 
         // We need to store the previous log sequence number for this record.
-        LogSequenceNumber prevLSN = txnState.getLastLSN();
-        walWriter.writeShort(prevLSN.getLogFileNo());
-        walWriter.writeInt(prevLSN.getFileOffset());
+        walWriter.writeLong(prevLSN.toLong());
 
         // Store the filename and page number that is being updated.
         walWriter.writeVarString255(dbPage.getDBFile().getDataFile().getName());
-        walWriter.writeShort(dbPage.getPageNo());
+        walWriter.writeInt(dbPage.getPageNo());
 
         // This offset is where we will store the number of data segments we
         // need to record.  We don't know the value until later, so remember
         // the position and fill it in later.
         int segCountOffset = walWriter.getPosition();
         walWriter.writeShort(-1);
-        
-        byte[] oldData = dbPage.getOldPageData();
-        byte[] newData = dbPage.getPageData();
-        int pageSize = dbPage.getPageSize();
 
         // DEBUG:  Show changes from old version of page to new version of page.
         // logger.debug("DBPage changes:\n" + dbPage.getChangesAsString());
@@ -855,7 +1020,9 @@ public class WALManager {
             walWriter.writeShort(size);
 
             // Write the old data (undo), and then the new data (redo).
-            walWriter.write(oldData, index, size);
+            if (type == WALRecordType.UPDATE_PAGE)
+                walWriter.write(oldData, index, size);
+
             walWriter.write(newData, index, size);
 
             numSegments++;
@@ -875,34 +1042,78 @@ public class WALManager {
         // back to the record's start when scanning the log backwards.
 
         walWriter.writeInt(lsn.getFileOffset());
-        walWriter.writeByte(WALRecordType.UPDATE_PAGE.getID());
+        walWriter.writeByte(type.getID());
 
         // Store the LSN of the change on the page.
         lsn.setRecordSize(walWriter.getPosition() - lsn.getFileOffset());
         dbPage.setPageLSN(lsn);
         dbPage.syncOldPageData();
 
+        nextLSN = computeNextLSN(nextLSN.getLogFileNo(), walWriter.getPosition());
+        recordWritten(lsn);
+
+        return lsn;
+    }
+
+
+    /**
+     * This method writes an update-page record to the write-ahead log,
+     * including both undo and redo details.  The transaction state is taken
+     * from thread-local storage; this method should be used during normal
+     * operation.
+     *
+     * @param dbPage The data page whose changes are to be recorded in the log.
+     *
+     * @return the Log Sequence Number of the WAL record that was written
+     *
+     * @throws IOException if the write-ahead log cannot be updated for some
+     *         reason.
+     * 
+     * @throws IllegalArgumentException if <tt>dbPage</tt> is <tt>null</tt>, or
+     *         if it shows no updates.
+     */
+    public LogSequenceNumber writeUpdatePageRecord(DBPage dbPage)
+        throws IOException {
+
+        // Retrieve and verify the transaction state.
+        TransactionState txnState = SessionState.get().getTxnState();
+        if (!txnState.isTxnInProgress()) {
+            throw new IllegalStateException(
+                "No transaction is currently in progress!");
+        }
+
+        LogSequenceNumber lsn = writeUpdatePageRecord(
+            txnState.getTransactionID(), txnState.getLastLSN(), dbPage);
+
         // Since we issued a new write-ahead log record for the current
         // transaction, update the "last LSN" value for the transaction.
         txnState.setLastLSN(lsn);
 
-        nextLSN = computeNextLSN(nextLSN.getLogFileNo(), walWriter.getPosition());
-
         return lsn;
     }
 
 
+    private static boolean isAllZeroes(byte[] data) {
+        for (byte b : data) {
+            if (b != 0)
+                return false;
+        }
+        return true;
+    }
+
+
     /**
      * This helper function writes a sequence of redo-segments from an
-     * {@link WALRecordType#UPDATE_PAGE} or
-     * {@link WALRecordType#UPDATE_PAGE_REDO_ONLY} record.  Note that the
+     * {@link WALRecordType#UPDATE_PAGE}, {@link WALRecordType#UPDATE_NEW_PAGE}
+     * or {@link WALRecordType#UPDATE_PAGE_REDO_ONLY} record.  Note that the
      * {@code walReader} argument is expected to be positioned at the start of
      * the segments containing the old and new versions of the page data (or
-     * just the new versions, for redo-only records).  Additionally, the
+     * just the new versions, for the other records).  Additionally, the
      * reader position will be advanced by this method.
      *
-     * @param type The record type, either {@link WALRecordType#UPDATE_PAGE}
-     *        or {@link WALRecordType#UPDATE_PAGE_REDO_ONLY}.
+     * @param type The record type, one of {@link WALRecordType#UPDATE_PAGE},
+     *        {@link WALRecordType#UPDATE_NEW_PAGE} or
+     *        {@link WALRecordType#UPDATE_PAGE_REDO_ONLY}.
      *
      * @param walReader A reader positioned at the start of the redo/undo data
      *        to apply to the data page.  This method will advance the reader's
@@ -917,9 +1128,11 @@ public class WALManager {
                            DBPage dbPage, int numSegments) throws IOException {
 
         if (type != WALRecordType.UPDATE_PAGE &&
+            type != WALRecordType.UPDATE_NEW_PAGE &&
             type != WALRecordType.UPDATE_PAGE_REDO_ONLY) {
             throw new IllegalArgumentException("This method can only be " +
-                "used with UPDATE_PAGE and UPDATE_PAGE_REDO_ONLY records.");
+                "used with UPDATE_PAGE, UPDATE_NEW_PAGE and " +
+                "UPDATE_PAGE_REDO_ONLY records.");
         }
 
         for (int iSeg = 0; iSeg < numSegments; iSeg++) {
@@ -941,9 +1154,14 @@ public class WALManager {
 
 
     /**
-     * This helper method uses a {@link WALRecordType#UPDATE_PAGE} record to
-     * undo changes to a data page, and at the same time the method generates
-     * the data that must go into a corresponding redo-only WAL record.
+     * This helper method uses a {@link WALRecordType#UPDATE_PAGE} or
+     * {@link WALRecordType#UPDATE_NEW_PAGE} record to undo changes to a data
+     * page, and at the same time the method generates the data that must go
+     * into a corresponding redo-only WAL record.  The undo data of an
+     * {@code UPDATE_NEW_PAGE} record is not stored, since it is all zeroes.
+     *
+     * @param type The record type, either {@link WALRecordType#UPDATE_PAGE}
+     *        or {@link WALRecordType#UPDATE_NEW_PAGE}.
      *
      * @param walReader A reader positioned at the start of the redo/undo data
      *        to apply to the data page.  This method will advance the reader's
@@ -960,8 +1178,9 @@ public class WALManager {
      * @throws IOException if an IO error occurs while applying the undo
      *         operation
      */
-    private byte[] applyUndoAndGenRedoOnlyData(DBFileReader walReader,
-        DBPage dbPage, int numSegments) throws IOException {
+    private byte[] applyUndoAndGenRedoOnlyData(WALRecordType type,
+        DBFileReader walReader, DBPage dbPage, int numSegments)
+        throws IOException {
 
         ByteArrayOutputStream redoOnlyBAOS = new ByteArrayOutputStream();
         DataOutputStream dos = new DataOutputStream(redoOnlyBAOS);
@@ -971,9 +1190,12 @@ public class WALManager {
             int index = walReader.readUnsignedShort();
             int size = walReader.readUnsignedShort();
 
-            // Apply the undo data to the data page.
+            // Apply the undo data to the data page.  New pages were all
+            // zeroes before the update, so their undo data isn't stored.
             byte[] undoData = new byte[size];
-            walReader.read(undoData);
+            if (type == WALRecordType.UPDATE_PAGE)
+                walReader.read(undoData);
+
             dbPage.write(index, undoData);
 
             // Skip past the redo data, because don't care about it.
@@ -1042,11 +1264,10 @@ public class WALManager {
         walWriter.writeInt(transactionID);
 
         // We need to store the previous log sequence number for this record.
-        walWriter.writeShort(prevLSN.getLogFileNo());
-        walWriter.writeInt(prevLSN.getFileOffset());
+        walWriter.writeLong(prevLSN.toLong());
 
         walWriter.writeVarString255(dbPage.getDBFile().getDataFile().getName());
-        walWriter.writeShort(dbPage.getPageNo());
+        walWriter.writeInt(dbPage.getPageNo());
 
         // Write the redo-only data.
         walWriter.writeShort(numSegments);
@@ -1064,6 +1285,7 @@ public class WALManager {
         dbPage.syncOldPageData();
 
         nextLSN = computeNextLSN(nextLSN.getLogFileNo(), walWriter.getPosition());
+        recordWritten(lsn);
 
         return lsn;
     }
@@ -1161,19 +1383,18 @@ public class WALManager {
             }
 
             // Read out the "previous LSN" value.
-            int prevFileNo = walReader.readUnsignedShort();
-            int prevOffset = walReader.readInt();
             LogSequenceNumber prevLSN =
-                new LogSequenceNumber(prevFileNo, prevOffset);
+                LogSequenceNumber.fromLong(walReader.readLong());
 
             logger.debug("Read PrevLSN of " + prevLSN);
 
-            if (type == WALRecordType.UPDATE_PAGE) {
+            if (type == WALRecordType.UPDATE_PAGE ||
+                type == WALRecordType.UPDATE_NEW_PAGE) {
                 // Undo this change.
 
                 // Read the file and page with the changes to undo.
                 String filename = walReader.readVarString255();
-                int pageNo = walReader.readUnsignedShort();
+                int pageNo = walReader.readInt();
 
                 // Open the specified file and retrieve the data page to undo.
                 DBFile dbFile = storageManager.openDBFile(filename);
@@ -1184,12 +1405,12 @@ public class WALManager {
                 // record is also accumulated.
                 int numSegments = walReader.readUnsignedShort();
 
-                logger.debug(String.format("UPDATE_PAGE record is for file " +
+                logger.debug(String.format("%s record is for file " +
                     "%s, page %d.  Record contains %d segments.",
-                    filename, pageNo, numSegments));
+                    type, filename, pageNo, numSegments));
 
-                byte[] redoOnlyData = applyUndoAndGenRedoOnlyData(walReader,
-                    dbPage, numSegments);
+                byte[] redoOnlyData = applyUndoAndGenRedoOnlyData(type,
+                    walReader, dbPage, numSegments);
 
                 logger.debug("Generated " + redoOnlyData.length +
                     " bytes of redo-only data.");
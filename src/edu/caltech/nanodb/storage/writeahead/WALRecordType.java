@@ -25,6 +25,14 @@ public enum WALRecordType {
      */
     UPDATE_PAGE_REDO_ONLY(3),
 
+    /**
+     * The record represents a "&lt;<i>T<sub>i</sub></i>:  update <i>P'</i>
+     * (new page)&gt;" record, for a page that contained only zero bytes
+     * before the update.  Only the redo data is stored, since undoing the
+     * update simply zeroes the modified bytes again.
+     */
+    UPDATE_NEW_PAGE(4),
+
     /**
      * The record represents a "&lt;<i>T<sub>i</sub></i>:  commit
      * transaction&gt;" record.
@@ -0,0 +1,17 @@
+package edu.caltech.nanodb.transactions;
+
+
+/**
+ * This exception is thrown when a lock request would cause a cycle in the
+ * waits-for graph.  The requesting transaction is chosen as the victim.
+ */
+public class DeadlockException extends LockException {
+    public DeadlockException() {
+        super();
+    }
+
+
+    public DeadlockException(String msg) {
+        super(msg);
+    }
+}
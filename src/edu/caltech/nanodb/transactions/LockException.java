@@ -0,0 +1,28 @@
+package edu.caltech.nanodb.transactions;
+
+
+/**
+ * This class represents errors that occur when a transaction cannot acquire
+ * a lock it has requested.  The transaction that receives this exception is
+ * expected to roll back so that its locks are released.
+ */
+public class LockException extends TransactionException {
+    public LockException() {
+        super();
+    }
+
+
+    public LockException(String msg) {
+        super(msg);
+    }
+
+
+    public LockException(Throwable cause) {
+        super(cause);
+    }
+
+
+    public LockException(String msg, Throwable cause) {
+        super(msg, cause);
+    }
+}
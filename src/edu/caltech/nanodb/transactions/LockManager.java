@@ -0,0 +1,527 @@
+package edu.caltech.nanodb.transactions;
+
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+
+/**
+ * <p>
+ * This class implements a multiple-granularity lock manager for the database.
+ * Transactions acquire locks on {@link LockResource}s in one of the
+ * {@link LockMode}s; before a bucket, page or tuple is locked, the
+ * appropriate intention locks are acquired on all of its ancestors.  Locks
+ * are held until the transaction commits or rolls back (strict two-phase
+ * locking), at which point {@link #releaseAllLocks} is called.
+ * </p>
+ * <p>
+ * Requests that conflict with locks held by other transactions wait in a
+ * FIFO queue on the resource; lock conversions (e.g. S to X) are placed at
+ * the front of the queue.  Whenever a transaction must wait, the waits-for
+ * graph is checked for cycles, and if a cycle is found the requesting
+ * transaction is chosen as the victim and receives a
+ * {@link DeadlockException}.  A request that waits longer than the
+ * configured timeout receives a {@link LockTimeoutException}.
+ * </p>
+ * <p>
+ * When a transaction acquires many fine-grained locks within a single
+ * table, the lock manager attempts to escalate them to a single S or X lock
+ * on the table.  Escalation is opportunistic:  if the table lock cannot be
+ * granted immediately, the transaction simply keeps its fine-grained locks
+ * and escalation is retried later.
+ * </p>
+ *
+ * @design All state is guarded by the lock manager's monitor, so that
+ *         waiting transactions can use {@link Object#wait} and be woken up
+ *         with {@link Object#notifyAll} when locks are released.
+ */
+public class LockManager {
+    /** A logging object for reporting anything interesting that happens. */
+    private static Logger logger = Logger.getLogger(LockManager.class);
+
+
+    /**
+     * The system property that specifies how long (in milliseconds) a
+     * transaction will wait for a lock before giving up.
+     */
+    public static final String PROP_LOCK_TIMEOUT = "nanodb.locks.timeout";
+
+
+    /** The default lock-wait timeout, in milliseconds. */
+    public static final int DEFAULT_LOCK_TIMEOUT = 30000;
+
+
+    /**
+     * The system property that specifies how many fine-grained locks a
+     * transaction may acquire on a single table before the lock manager
+     * attempts to escalate them to a table lock.
+     */
+    public static final String PROP_ESCALATION_THRESHOLD =
+        "nanodb.locks.escalationThreshold";
+
+
+    /** The default lock-escalation threshold. */
+    public static final int DEFAULT_ESCALATION_THRESHOLD = 1000;
+
+
+    /** A lock request made by a transaction that is waiting on a resource. */
+    private static class LockRequest {
+        int txnID;
+
+        LockResource resource;
+
+        /** The mode the lock will be held in once the request is granted. */
+        LockMode mode;
+
+        LockRequest(int txnID, LockResource resource, LockMode mode) {
+            this.txnID = txnID;
+            this.resource = resource;
+            this.mode = mode;
+        }
+    }
+
+
+    /** The state of the locks on a single resource. */
+    private static class LockEntry {
+        /** The transactions currently granted a lock, and their modes. */
+        LinkedHashMap<Integer, LockMode> granted =
+            new LinkedHashMap<Integer, LockMode>();
+
+        /** The requests waiting on this resource, in the order to grant them. */
+        LinkedList<LockRequest> waiting = new LinkedList<LockRequest>();
+
+        boolean isUnused() {
+            return granted.isEmpty() && waiting.isEmpty();
+        }
+    }
+
+
+    /** The lock table, mapping each locked resource to its lock state. */
+    private HashMap<LockResource, LockEntry> lockTable =
+        new HashMap<LockResource, LockEntry>();
+
+
+    /** The locks held by each transaction. */
+    private HashMap<Integer, LinkedHashMap<LockResource, LockMode>> txnLocks =
+        new HashMap<Integer, LinkedHashMap<LockResource, LockMode>>();
+
+
+    /**
+     * For each transaction, the number of fine-grained locks acquired on each
+     * table since the last escalation attempt on that table.
+     */
+    private HashMap<Integer, HashMap<LockResource, Integer>> fineLockCounts =
+        new HashMap<Integer, HashMap<LockResource, Integer>>();
+
+
+    /** The request each blocked transaction is currently waiting on. */
+    private HashMap<Integer, LockRequest> waitingRequests =
+        new HashMap<Integer, LockRequest>();
+
+
+    /** The lock-wait timeout, in milliseconds. */
+    private long lockTimeout;
+
+
+    /** The number of fine-grained locks that triggers escalation. */
+    private int escalationThreshold;
+
+
+    public LockManager() {
+        lockTimeout = Integer.getInteger(PROP_LOCK_TIMEOUT, DEFAULT_LOCK_TIMEOUT);
+        escalationThreshold = Integer.getInteger(PROP_ESCALATION_THRESHOLD,
+            DEFAULT_ESCALATION_THRESHOLD);
+    }
+
+
+    public synchronized long getLockTimeout() {
+        return lockTimeout;
+    }
+
+
+    public synchronized void setLockTimeout(long lockTimeout) {
+        if (lockTimeout <= 0)
+            throw new IllegalArgumentException("lockTimeout must be positive");
+
+        this.lockTimeout = lockTimeout;
+    }
+
+
+    public synchronized int getEscalationThreshold() {
+        return escalationThreshold;
+    }
+
+
+    public synchronized void setEscalationThreshold(int escalationThreshold) {
+        if (escalationThreshold <= 0) {
+            throw new IllegalArgumentException(
+                "escalationThreshold must be positive");
+        }
+
+        this.escalationThreshold = escalationThreshold;
+    }
+
+
+    /**
+     * Acquires a lock on the specified resource for the specified transaction,
+     * first acquiring intention locks on all of the resource's ancestors.  If
+     * an ancestor is already held in a mode that implicitly covers the
+     * request (e.g. the table is held in X mode), no further locks are
+     * acquired.  The call blocks until the lock is granted.
+     *
+     * @param txnID the ID of the transaction requesting the lock
+     * @param resource the resource to lock
+     * @param mode the mode to lock the resource in
+     *
+     * @throws DeadlockException if waiting for the lock would deadlock; the
+     *         requesting transaction should roll back
+     * @throws LockTimeoutException if the lock couldn't be granted within the
+     *         lock-wait timeout
+     * @throws LockException if the wait was interrupted
+     */
+    public synchronized void acquireLock(int txnID, LockResource resource,
+                                         LockMode mode) throws LockException {
+        // Build the path from the root of the hierarchy down to the resource.
+        ArrayList<LockResource> path = new ArrayList<LockResource>();
+        for (LockResource res = resource; res != null; res = res.getParent())
+            path.add(0, res);
+
+        // If any ancestor already covers this request, we're done.
+        for (int i = 0; i < path.size() - 1; i++) {
+            LockMode held = getLockMode(txnID, path.get(i));
+            if (held != null && held.coversChildren(mode))
+                return;
+        }
+
+        LockMode intention = mode.getParentIntention();
+        for (int i = 0; i < path.size() - 1; i++)
+            acquireSingleLock(txnID, path.get(i), intention);
+
+        // Only locks beneath a table count towards escalating to it.
+        if (acquireSingleLock(txnID, resource, mode) &&
+            resource.getParent() != null) {
+            countFineLock(txnID, resource.getTable());
+        }
+    }
+
+
+    /**
+     * Returns the mode the transaction explicitly holds on the resource, or
+     * {@code null} if it holds no lock on the resource.
+     *
+     * @param txnID the ID of the transaction
+     * @param resource the resource to check
+     *
+     * @return the mode the lock is held in, or {@code null} if not held
+     */
+    public synchronized LockMode getLockMode(int txnID, LockResource resource) {
+        LinkedHashMap<LockResource, LockMode> held = txnLocks.get(txnID);
+        if (held == null)
+            return null;
+
+        return held.get(resource);
+    }
+
+
+    /**
+     * Returns the number of locks explicitly held by the transaction.
+     *
+     * @param txnID the ID of the transaction
+     *
+     * @return the number of locks held by the transaction
+     */
+    public synchronized int getNumLocksHeld(int txnID) {
+        LinkedHashMap<LockResource, LockMode> held = txnLocks.get(txnID);
+        return (held != null) ? held.size() : 0;
+    }
+
+
+    /**
+     * Releases every lock held by the transaction, waking up any transactions
+     * waiting on those resources.  This is called when a transaction commits
+     * or rolls back.
+     *
+     * @param txnID the ID of the transaction whose locks are released
+     */
+    public synchronized void releaseAllLocks(int txnID) {
+        LinkedHashMap<LockResource, LockMode> held = txnLocks.remove(txnID);
+        fineLockCounts.remove(txnID);
+
+        if (held == null)
+            return;
+
+        logger.debug(String.format("Releasing %d locks held by transaction %d",
+            held.size(), txnID));
+
+        for (LockResource resource : held.keySet())
+            removeGrantedLock(txnID, resource);
+
+        notifyAll();
+    }
+
+
+    /**
+     * Acquires a lock on a single resource, waiting if necessary.
+     *
+     * @return {@code true} if the transaction didn't hold any lock on the
+     *         resource before this call, or {@code false} if the lock was
+     *         already held or was converted to a stronger mode.
+     */
+    private boolean acquireSingleLock(int txnID, LockResource resource,
+                                      LockMode mode) throws LockException {
+        LockEntry entry = lockTable.get(resource);
+        if (entry == null) {
+            entry = new LockEntry();
+            lockTable.put(resource, entry);
+        }
+
+        LockMode held = entry.granted.get(txnID);
+        if (held != null && held.covers(mode))
+            return false;
+
+        LockMode target = (held == null) ? mode : held.combine(mode);
+        boolean conversion = (held != null);
+
+        if (isCompatible(entry, txnID, target) &&
+            (conversion || entry.waiting.isEmpty())) {
+            grantLock(txnID, resource, entry, target);
+            return !conversion;
+        }
+
+        // We have to wait.  Conversions go to the front of the queue, since
+        // the transaction already holds a lock that others are waiting on.
+        LockRequest request = new LockRequest(txnID, resource, target);
+        if (conversion)
+            entry.waiting.addFirst(request);
+        else
+            entry.waiting.addLast(request);
+
+        waitingRequests.put(txnID, request);
+
+        logger.debug(String.format("Transaction %d waiting for %s lock on %s",
+            txnID, target, resource));
+
+        long deadline = System.currentTimeMillis() + lockTimeout;
+        boolean granted = false;
+        try {
+            while (true) {
+                if (findDeadlock(txnID)) {
+                    throw new DeadlockException(String.format(
+                        "Transaction %d was chosen as a deadlock victim " +
+                        "while waiting for %s lock on %s", txnID, target,
+                        resource));
+                }
+
+                if (entry.waiting.getFirst() == request &&
+                    isCompatible(entry, txnID, target)) {
+                    granted = true;
+                    break;
+                }
+
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new LockTimeoutException(String.format(
+                        "Transaction %d timed out after %d ms waiting for " +
+                        "%s lock on %s", txnID, lockTimeout, target,
+                        resource));
+                }
+
+                try {
+                    wait(remaining);
+                }
+                catch (InterruptedException e) {
+                    throw new LockException(String.format("Transaction %d " +
+                        "was interrupted while waiting for %s lock on %s",
+                        txnID, target, resource), e);
+                }
+            }
+        }
+        finally {
+            entry.waiting.remove(request);
+            waitingRequests.remove(txnID);
+
+            if (granted)
+                grantLock(txnID, resource, entry, target);
+            else if (entry.isUnused())
+                lockTable.remove(resource);
+
+            // Other waiters may have been queued behind this request.
+            notifyAll();
+        }
+
+        return !conversion;
+    }
+
+
+    /**
+     * Returns true if the mode is compatible with the locks granted to every
+     * transaction other than the specified one.
+     */
+    private boolean isCompatible(LockEntry entry, int txnID, LockMode mode) {
+        for (Map.Entry<Integer, LockMode> g : entry.granted.entrySet()) {
+            if (g.getKey() != txnID && !mode.isCompatibleWith(g.getValue()))
+                return false;
+        }
+        return true;
+    }
+
+
+    private void grantLock(int txnID, LockResource resource, LockEntry entry,
+                           LockMode mode) {
+        entry.granted.put(txnID, mode);
+
+        LinkedHashMap<LockResource, LockMode> held = txnLocks.get(txnID);
+        if (held == null) {
+            held = new LinkedHashMap<LockResource, LockMode>();
+            txnLocks.put(txnID, held);
+        }
+        held.put(resource, mode);
+    }
+
+
+    private void removeGrantedLock(int txnID, LockResource resource) {
+        LockEntry entry = lockTable.get(resource);
+        if (entry == null)
+            return;
+
+        entry.granted.remove(txnID);
+        if (entry.isUnused())
+            lockTable.remove(resource);
+    }
+
+
+    /**
+     * Returns the transactions that the specified transaction is waiting
+     * for:  the holders of incompatible locks on the resource it is waiting
+     * on, and the requests queued ahead of it.
+     */
+    private Set<Integer> getBlockers(int txnID) {
+        HashSet<Integer> blockers = new HashSet<Integer>();
+
+        LockRequest request = waitingRequests.get(txnID);
+        if (request == null)
+            return blockers;
+
+        LockEntry entry = lockTable.get(request.resource);
+        if (entry == null)
+            return blockers;
+
+        for (Map.Entry<Integer, LockMode> g : entry.granted.entrySet()) {
+            if (g.getKey() != txnID && !request.mode.isCompatibleWith(g.getValue()))
+                blockers.add(g.getKey());
+        }
+
+        for (LockRequest other : entry.waiting) {
+            if (other == request)
+                break;
+
+            blockers.add(other.txnID);
+        }
+
+        return blockers;
+    }
+
+
+    /**
+     * Returns true if the waits-for graph contains a cycle passing through
+     * the specified transaction.
+     */
+    private boolean findDeadlock(int txnID) {
+        HashSet<Integer> visited = new HashSet<Integer>();
+        LinkedList<Integer> toVisit = new LinkedList<Integer>(getBlockers(txnID));
+
+        while (!toVisit.isEmpty()) {
+            int current = toVisit.removeFirst();
+            if (current == txnID)
+                return true;
+
+            if (visited.add(current))
+                toVisit.addAll(getBlockers(current));
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Records that the transaction acquired a new fine-grained lock within
+     * the specified table, and attempts lock escalation once the transaction
+     * has acquired enough of them.
+     */
+    private void countFineLock(int txnID, LockResource table) {
+        HashMap<LockResource, Integer> counts = fineLockCounts.get(txnID);
+        if (counts == null) {
+            counts = new HashMap<LockResource, Integer>();
+            fineLockCounts.put(txnID, counts);
+        }
+
+        Integer count = counts.get(table);
+        int newCount = (count == null) ? 1 : count + 1;
+        if (newCount < escalationThreshold) {
+            counts.put(table, newCount);
+            return;
+        }
+
+        // Whether or not escalation succeeds, start counting again so that
+        // we don't retry on every subsequent lock request.
+        counts.put(table, 0);
+        tryEscalate(txnID, table);
+    }
+
+
+    /**
+     * Attempts to replace all of the transaction's fine-grained locks on the
+     * table with a single table lock.  The table lock is only acquired if it
+     * can be granted without waiting.
+     */
+    private void tryEscalate(int txnID, LockResource table) {
+        LinkedHashMap<LockResource, LockMode> held = txnLocks.get(txnID);
+
+        // Figure out whether the fine-grained locks include any writes.
+        LockMode escalated = LockMode.SHARED;
+        ArrayList<LockResource> fineLocks = new ArrayList<LockResource>();
+        for (Map.Entry<LockResource, LockMode> h : held.entrySet()) {
+            LockResource res = h.getKey();
+            if (res.getKind() == LockResource.Kind.TABLE ||
+                !res.getTable().equals(table)) {
+                continue;
+            }
+
+            fineLocks.add(res);
+            if (h.getValue() != LockMode.SHARED &&
+                h.getValue() != LockMode.INTENTION_SHARED) {
+                escalated = LockMode.EXCLUSIVE;
+            }
+        }
+
+        LockEntry entry = lockTable.get(table);
+        LockMode current = entry.granted.get(txnID);
+        LockMode target = (current == null) ? escalated : current.combine(escalated);
+
+        if (!isCompatible(entry, txnID, target)) {
+            logger.debug(String.format("Couldn't escalate %d locks of " +
+                "transaction %d to a %s lock on %s", fineLocks.size(), txnID,
+                target, table));
+            return;
+        }
+
+        logger.debug(String.format("Escalating %d locks of transaction %d " +
+            "to a %s lock on %s", fineLocks.size(), txnID, target, table));
+
+        grantLock(txnID, table, entry, target);
+
+        for (LockResource res : fineLocks) {
+            held.remove(res);
+            removeGrantedLock(txnID, res);
+        }
+
+        notifyAll();
+    }
+}
@@ -0,0 +1,160 @@
+package edu.caltech.nanodb.transactions;
+
+
+/**
+ * This enumeration specifies the modes that a lock may be held in by the
+ * {@link LockManager}.  In addition to the familiar shared and exclusive
+ * modes, the intention modes allow locks to be acquired at multiple
+ * granularities:  a transaction must hold an intention lock on a table
+ * before it may lock individual buckets, pages or tuples in the table.
+ *
+ * <table>
+ *   <tr><th></th><th>IS</th><th>IX</th><th>S</th><th>SIX</th><th>X</th></tr>
+ *   <tr><th>IS</th> <td>Y</td><td>Y</td><td>Y</td><td>Y</td><td>N</td></tr>
+ *   <tr><th>IX</th> <td>Y</td><td>Y</td><td>N</td><td>N</td><td>N</td></tr>
+ *   <tr><th>S</th>  <td>Y</td><td>N</td><td>Y</td><td>N</td><td>N</td></tr>
+ *   <tr><th>SIX</th><td>Y</td><td>N</td><td>N</td><td>N</td><td>N</td></tr>
+ *   <tr><th>X</th>  <td>N</td><td>N</td><td>N</td><td>N</td><td>N</td></tr>
+ * </table>
+ */
+public enum LockMode {
+    /** Intention-shared:  the holder will lock some children in S mode. */
+    INTENTION_SHARED,
+
+    /** Intention-exclusive:  the holder will lock some children in X mode. */
+    INTENTION_EXCLUSIVE,
+
+    /** Shared:  the holder may read the resource and all of its children. */
+    SHARED,
+
+    /**
+     * Shared with intention-exclusive:  the holder may read the entire
+     * resource, and will lock some children in X mode.
+     */
+    SHARED_INTENTION_EXCLUSIVE,
+
+    /** Exclusive:  the holder may read and write the resource and children. */
+    EXCLUSIVE;
+
+
+    /** The compatibility matrix, indexed by the enum ordinals. */
+    private static final boolean[][] COMPATIBLE = {
+        /*           IS     IX     S      SIX    X   */
+        /* IS  */ { true,  true,  true,  true,  false },
+        /* IX  */ { true,  true,  false, false, false },
+        /* S   */ { true,  false, true,  false, false },
+        /* SIX */ { true,  false, false, false, false },
+        /* X   */ { false, false, false, false, false }
+    };
+
+
+    /**
+     * Returns true if a lock in this mode may be held by one transaction
+     * while another transaction holds a lock in the specified mode on the
+     * same resource.
+     *
+     * @param other the mode held by the other transaction
+     *
+     * @return true if the two modes are compatible
+     */
+    public boolean isCompatibleWith(LockMode other) {
+        return COMPATIBLE[ordinal()][other.ordinal()];
+    }
+
+
+    /**
+     * Returns true if holding a lock in this mode grants at least all of the
+     * rights of a lock in the specified mode, so that a request for the
+     * other mode is already satisfied.
+     *
+     * @param other the mode being requested
+     *
+     * @return true if this mode is at least as strong as the other mode
+     */
+    public boolean covers(LockMode other) {
+        switch (this) {
+        case EXCLUSIVE:
+            return true;
+
+        case SHARED_INTENTION_EXCLUSIVE:
+            return other != EXCLUSIVE;
+
+        case SHARED:
+            return other == SHARED || other == INTENTION_SHARED;
+
+        case INTENTION_EXCLUSIVE:
+            return other == INTENTION_EXCLUSIVE || other == INTENTION_SHARED;
+
+        case INTENTION_SHARED:
+            return other == INTENTION_SHARED;
+
+        default:
+            throw new IllegalStateException("Unrecognized lock mode " + this);
+        }
+    }
+
+
+    /**
+     * Returns the weakest mode that covers both this mode and the specified
+     * mode.  This is the mode a lock is converted to when a transaction that
+     * already holds this mode requests the other mode.
+     *
+     * @param other the other lock mode
+     *
+     * @return the least upper bound of the two modes
+     */
+    public LockMode combine(LockMode other) {
+        if (covers(other))
+            return this;
+
+        if (other.covers(this))
+            return other;
+
+        // The only incomparable pair that isn't resolved above is S and IX.
+        if ((this == SHARED && other == INTENTION_EXCLUSIVE) ||
+            (this == INTENTION_EXCLUSIVE && other == SHARED)) {
+            return SHARED_INTENTION_EXCLUSIVE;
+        }
+
+        return EXCLUSIVE;
+    }
+
+
+    /**
+     * Returns the intention mode that must be held on a parent resource
+     * before a child resource can be locked in this mode.
+     *
+     * @return {@link #INTENTION_SHARED} for shared-style modes, or
+     *         {@link #INTENTION_EXCLUSIVE} for modes that allow writing
+     */
+    public LockMode getParentIntention() {
+        if (this == SHARED || this == INTENTION_SHARED)
+            return INTENTION_SHARED;
+
+        return INTENTION_EXCLUSIVE;
+    }
+
+
+    /**
+     * Returns true if a child resource locked in the specified mode is
+     * implicitly locked by a parent resource held in this mode, so that no
+     * explicit child lock is required.
+     *
+     * @param childMode the mode requested on the child resource
+     *
+     * @return true if this parent mode implicitly covers the child lock
+     */
+    public boolean coversChildren(LockMode childMode) {
+        switch (this) {
+        case EXCLUSIVE:
+            return true;
+
+        case SHARED:
+        case SHARED_INTENTION_EXCLUSIVE:
+            return childMode == SHARED || childMode == INTENTION_SHARED;
+
+        default:
+            return false;
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package edu.caltech.nanodb.transactions;
+
+
+import edu.caltech.nanodb.expressions.TupleHasher;
+import edu.caltech.nanodb.relations.TableInfo;
+import edu.caltech.nanodb.relations.Tuple;
+import edu.caltech.nanodb.storage.DBPage;
+import edu.caltech.nanodb.storage.FilePointer;
+import edu.caltech.nanodb.storage.HashedTupleFile;
+
+
+/**
+ * This class identifies a resource that can be locked by the
+ * {@link LockManager}.  Resources form a simple hierarchy:  a table is the
+ * root of the hierarchy, and hash keys, B-tree pages and individual tuples
+ * live beneath it.  A tuple in a hashed table may optionally be placed
+ * beneath its hash key, so that writers that add or remove a tuple with a
+ * given key conflict with readers that have probed the table for that key.
+ * Hash keys are identified by the hash of the key columns rather than the
+ * bucket number, since bucket numbers change as a linear-hashing file
+ * splits its buckets.
+ * <p>
+ * Data pages are locked outside of this hierarchy, since the locks protect
+ * the physical contents of a page rather than the rows it holds:  undoing a
+ * transaction restores the byte ranges it changed in each page, so no other
+ * transaction may change a page until the writer that holds it has ended.
+ * Page resources are identified by the name of their file, and have no
+ * parent.
+ * <p>
+ * The identity of a resource (used by {@link #equals} and {@link #hashCode})
+ * is its kind, table name and key; the parent is only used to decide which
+ * intention locks must be acquired first.
+ */
+public class LockResource {
+
+    /** The different kinds of resources that can be locked. */
+    public enum Kind {
+        /** An entire table. */
+        TABLE,
+
+        /** All tuples of a hashed tuple file whose key has a given hash. */
+        HASH_KEY,
+
+        /** A single page of a B-tree tuple file. */
+        BTREE_PAGE,
+
+        /** A single data page of any file, locked while it is written. */
+        PAGE,
+
+        /** A single tuple, identified by its file-pointer. */
+        TUPLE
+    }
+
+
+    /** The kind of resource being locked. */
+    private Kind kind;
+
+
+    /**
+     * The name of the table that the resource is part of, or for a page
+     * resource, the name of the page's file.
+     */
+    private String tableName;
+
+
+    /**
+     * The key of the resource within the table:  the key's hash, the page
+     * number, or the page number and offset of the tuple packed into a long.
+     * This is 0 for table resources.
+     */
+    private long key;
+
+
+    /** The parent of this resource, or {@code null} for a table. */
+    private LockResource parent;
+
+
+    private LockResource(Kind kind, String tableName, long key,
+                         LockResource parent) {
+        if (tableName == null)
+            throw new IllegalArgumentException("tableName cannot be null");
+
+        this.kind = kind;
+        this.tableName = tableName.toUpperCase();
+        this.key = key;
+        this.parent = parent;
+    }
+
+
+    /**
+     * Returns a resource representing an entire table.
+     *
+     * @param tableName the name of the table
+     *
+     * @return a resource representing the table
+     */
+    public static LockResource forTable(String tableName) {
+        return new LockResource(Kind.TABLE, tableName, 0, null);
+    }
+
+
+    /**
+     * Returns a resource representing all tuples of a hashed table whose
+     * hash-key columns hash to the specified value.
+     *
+     * @param tableName the name of the table
+     * @param keyHash the hash of the key columns
+     *
+     * @return a resource representing the hash key
+     */
+    public static LockResource forHashKey(String tableName, int keyHash) {
+        return new LockResource(Kind.HASH_KEY, tableName, keyHash,
+            forTable(tableName));
+    }
+
+
+    /**
+     * Returns a resource representing one page of a B-tree table.
+     *
+     * @param tableName the name of the table
+     * @param pageNo the page number within the B-tree file
+     *
+     * @return a resource representing the B-tree page
+     */
+    public static LockResource forBTreePage(String tableName, int pageNo) {
+        return new LockResource(Kind.BTREE_PAGE, tableName, pageNo,
+            forTable(tableName));
+    }
+
+
+    /**
+     * Returns a resource representing a single data page.  Page resources
+     * are not part of any table's hierarchy.
+     *
+     * @param dbPage the page to lock
+     *
+     * @return a resource representing the page
+     */
+    public static LockResource forPage(DBPage dbPage) {
+        return new LockResource(Kind.PAGE,
+            dbPage.getDBFile().getDataFile().getName(), dbPage.getPageNo(),
+            null);
+    }
+
+
+    /**
+     * Returns a resource representing a single tuple, whose parent is the
+     * table itself.
+     *
+     * @param tableName the name of the table
+     * @param fptr the file-pointer of the tuple
+     *
+     * @return a resource representing the tuple
+     */
+    public static LockResource forTuple(String tableName, FilePointer fptr) {
+        return new LockResource(Kind.TUPLE, tableName, packFilePointer(fptr),
+            forTable(tableName));
+    }
+
+
+    /**
+     * Returns a resource representing a single tuple within a hashed table.
+     * Locking the tuple will also acquire an intention lock on its hash key.
+     *
+     * @param hashKey the hash-key resource of the tuple
+     * @param fptr the file-pointer of the tuple
+     *
+     * @return a resource representing the tuple
+     */
+    public static LockResource forTuple(LockResource hashKey, FilePointer fptr) {
+        if (hashKey.kind != Kind.HASH_KEY) {
+            throw new IllegalArgumentException(
+                "Parent of a tuple must be a hash key; got " + hashKey);
+        }
+
+        return new LockResource(Kind.TUPLE, hashKey.tableName,
+            packFilePointer(fptr), hashKey);
+    }
+
+
+    /**
+     * Returns a resource representing a tuple stored in the specified table.
+     * If the table is stored in a hashed tuple file, the tuple is placed
+     * beneath the hash key computed from the tuple's key columns.
+     *
+     * @param tableInfo the table that the tuple is stored in
+     * @param tuple the tuple, which must have an external reference
+     *
+     * @return a resource representing the tuple
+     */
+    public static LockResource forTuple(TableInfo tableInfo, Tuple tuple) {
+        String tableName = tableInfo.getTableName();
+        FilePointer fptr = tuple.getExternalReference();
+
+        if (tableInfo.getTupleFile() instanceof HashedTupleFile) {
+            HashedTupleFile hashFile = (HashedTupleFile) tableInfo.getTupleFile();
+            int keyHash = TupleHasher.hashTuple(tuple, hashFile.getKeySpec());
+            return forTuple(forHashKey(tableName, keyHash), fptr);
+        }
+
+        return forTuple(tableName, fptr);
+    }
+
+
+    private static long packFilePointer(FilePointer fptr) {
+        if (fptr == null)
+            throw new IllegalArgumentException("fptr cannot be null");
+
+        return ((long) fptr.getPageNo() << 32) | fptr.getOffset();
+    }
+
+
+    public Kind getKind() {
+        return kind;
+    }
+
+
+    public String getTableName() {
+        return tableName;
+    }
+
+
+    /**
+     * Returns the parent of this resource, or {@code null} if this resource
+     * is a table.
+     *
+     * @return the parent of this resource
+     */
+    public LockResource getParent() {
+        return parent;
+    }
+
+
+    /**
+     * Returns the table resource at the root of this resource's hierarchy.
+     *
+     * @return the table resource containing this resource
+     */
+    public LockResource getTable() {
+        LockResource res = this;
+        while (res.parent != null)
+            res = res.parent;
+
+        return res;
+    }
+
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj instanceof LockResource) {
+            LockResource other = (LockResource) obj;
+            return kind == other.kind && key == other.key &&
+                   tableName.equals(other.tableName);
+        }
+        return false;
+    }
+
+
+    @Override
+    public int hashCode() {
+        int hashCode = 17;
+        hashCode = 31 * hashCode + kind.hashCode();
+        hashCode = 31 * hashCode + tableName.hashCode();
+        hashCode = 31 * hashCode + (int) (key ^ (key >>> 32));
+        return hashCode;
+    }
+
+
+    @Override
+    public String toString() {
+        switch (kind) {
+        case TABLE:
+            return "Table[" + tableName + "]";
+
+        case HASH_KEY:
+            return "HashKey[" + tableName + ":" + key + "]";
+
+        case BTREE_PAGE:
+            return "Page[" + tableName + ":" + key + "]";
+
+        case PAGE:
+            return "DataPage[" + tableName + ":" + key + "]";
+
+        default:
+            return String.format("Tuple[%s:%d:%d]", tableName, key >>> 32,
+                key & 0xFFFFFFFFL);
+        }
+    }
+}
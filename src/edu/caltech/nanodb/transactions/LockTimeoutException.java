@@ -0,0 +1,17 @@
+package edu.caltech.nanodb.transactions;
+
+
+/**
+ * This exception is thrown when a lock request cannot be granted within the
+ * lock manager's configured timeout.
+ */
+public class LockTimeoutException extends LockException {
+    public LockTimeoutException() {
+        super();
+    }
+
+
+    public LockTimeoutException(String msg) {
+        super(msg);
+    }
+}
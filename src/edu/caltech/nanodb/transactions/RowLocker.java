@@ -0,0 +1,149 @@
+package edu.caltech.nanodb.transactions;
+
+
+import edu.caltech.nanodb.client.SessionState;
+import edu.caltech.nanodb.expressions.TupleHasher;
+import edu.caltech.nanodb.relations.TableInfo;
+import edu.caltech.nanodb.relations.Tuple;
+import edu.caltech.nanodb.server.RowEventListener;
+import edu.caltech.nanodb.storage.HashedTupleFile;
+import edu.caltech.nanodb.storage.PageTuple;
+import edu.caltech.nanodb.storage.TupleFile;
+
+
+/**
+ * This implementation of the {@link RowEventListener} interface acquires
+ * exclusive locks on rows before they are modified, so that transactions
+ * cannot see or overwrite each other's uncommitted changes.  This handler
+ * is installed by the {@link TransactionManager#initialize} method, before
+ * any other row-event listeners, so that the locks are held before indexes
+ * or other structures are touched.
+ * <p>
+ * Inserted rows can only be locked once they have a location in the tuple
+ * file, so before an insert the appropriate intention lock is acquired on
+ * the row's table, or on its hash key if the table is hashed.  This ensures
+ * that an insert conflicts with readers that have locked the key.
+ * <p>
+ * For versioned tables, readers don't acquire locks, so the exclusive locks
+ * only order concurrent writers.  Once a writer holds the lock on a tuple
+ * version, it checks that no other transaction has already deleted or
+ * replaced that version; if one has, the first updater wins and the
+ * current transaction must roll back.
+ */
+public class RowLocker implements RowEventListener {
+
+    private LockManager lockManager;
+
+
+    public RowLocker(LockManager lockManager) {
+        if (lockManager == null)
+            throw new IllegalArgumentException("lockManager cannot be null");
+
+        this.lockManager = lockManager;
+    }
+
+
+    @Override
+    public void beforeRowInserted(TableInfo tblFileInfo, Tuple newValues)
+        throws LockException {
+
+        String tableName = tblFileInfo.getTableName();
+        TupleFile tupleFile = tblFileInfo.getTupleFile();
+
+        LockResource resource;
+        if (tupleFile instanceof HashedTupleFile) {
+            int keyHash = TupleHasher.hashTuple(newValues,
+                ((HashedTupleFile) tupleFile).getKeySpec());
+            resource = LockResource.forHashKey(tableName, keyHash);
+        }
+        else {
+            resource = LockResource.forTable(tableName);
+        }
+
+        acquireLock(resource, LockMode.INTENTION_EXCLUSIVE);
+    }
+
+
+    @Override
+    public void afterRowInserted(TableInfo tblFileInfo, Tuple newTuple)
+        throws LockException {
+        acquireLock(LockResource.forTuple(tblFileInfo, newTuple),
+            LockMode.EXCLUSIVE);
+    }
+
+
+    @Override
+    public void beforeRowUpdated(TableInfo tblFileInfo, Tuple oldTuple,
+                                 Tuple newValues) throws LockException {
+        lockForWrite(tblFileInfo, oldTuple);
+    }
+
+
+    @Override
+    public void afterRowUpdated(TableInfo tblFileInfo, Tuple oldValues,
+                                Tuple newTuple) throws LockException {
+        // Versioned tables store the new values as a new tuple version.
+        if (newTuple instanceof PageTuple && ((PageTuple) newTuple).isVersioned()) {
+            acquireLock(LockResource.forTuple(tblFileInfo, newTuple),
+                LockMode.EXCLUSIVE);
+        }
+    }
+
+
+    @Override
+    public void beforeRowDeleted(TableInfo tblFileInfo, Tuple oldTuple)
+        throws LockException {
+        lockForWrite(tblFileInfo, oldTuple);
+    }
+
+
+    @Override
+    public void afterRowDeleted(TableInfo tblFileInfo, Tuple oldValues) {
+        // Ignore.
+    }
+
+
+    /**
+     * Acquires an exclusive lock on a tuple that is about to be updated or
+     * deleted.  If the tuple is versioned, this also verifies that no other
+     * transaction has deleted it in the meantime.
+     *
+     * @param tblFileInfo the table that the tuple is stored in
+     * @param oldTuple the tuple about to be modified
+     *
+     * @throws LockException if the lock couldn't be acquired, or if the
+     *         tuple version has already been deleted by another transaction
+     */
+    private void lockForWrite(TableInfo tblFileInfo, Tuple oldTuple)
+        throws LockException {
+
+        acquireLock(LockResource.forTuple(tblFileInfo, oldTuple),
+            LockMode.EXCLUSIVE);
+
+        if (oldTuple instanceof PageTuple) {
+            PageTuple ptup = (PageTuple) oldTuple;
+            if (ptup.isVersioned()) {
+                int deleter = ptup.getDeletingTxnID();
+                int txnID = SessionState.get().getTxnState().getTransactionID();
+                if (deleter != 0 && deleter != txnID) {
+                    throw new SerializationFailureException(String.format(
+                        "Row in table %s was concurrently modified by " +
+                        "transaction %d", tblFileInfo.getTableName(), deleter));
+                }
+            }
+        }
+    }
+
+
+    private void acquireLock(LockResource resource, LockMode mode)
+        throws LockException {
+
+        TransactionState txnState = SessionState.get().getTxnState();
+        if (!txnState.isTxnInProgress()) {
+            throw new IllegalStateException(
+                "Rows cannot be modified outside of a transaction");
+        }
+
+        lockManager.acquireLock(txnState.getTransactionID(), resource, mode);
+    }
+}
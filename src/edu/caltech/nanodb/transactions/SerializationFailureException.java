@@ -0,0 +1,19 @@
+package edu.caltech.nanodb.transactions;
+
+
+/**
+ * This exception is thrown when a transaction attempts to update or delete
+ * a tuple version that a concurrent transaction has already deleted or
+ * replaced.  Under snapshot isolation the first updater wins, so the
+ * requesting transaction must roll back.
+ */
+public class SerializationFailureException extends LockException {
+    public SerializationFailureException() {
+        super();
+    }
+
+
+    public SerializationFailureException(String msg) {
+        super(msg);
+    }
+}
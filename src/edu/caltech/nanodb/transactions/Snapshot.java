@@ -0,0 +1,135 @@
+package edu.caltech.nanodb.transactions;
+
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import edu.caltech.nanodb.storage.PageTuple;
+
+
+/**
+ * A snapshot records which transactions had committed when a transaction
+ * started, so that the transaction sees a consistent version of every
+ * versioned table for its entire duration.  A transaction with ID
+ * <em>T</em> is considered committed in the snapshot if <em>T</em> is less
+ * than {@link #getXMax} and <em>T</em> was not active when the snapshot was
+ * taken.
+ * <p>
+ * Transactions that roll back have their changes physically undone from the
+ * write-ahead log, so a tuple version can never be left behind by an
+ * aborted transaction, and no separate commit log is required.
+ */
+public class Snapshot {
+
+    /** The ID of the transaction that owns the snapshot. */
+    private int txnID;
+
+
+    /**
+     * The smallest transaction ID that was still active when the snapshot
+     * was taken.  All transactions with a smaller ID had completed.
+     */
+    private int xmin;
+
+
+    /**
+     * The next transaction ID to be allocated when the snapshot was taken.
+     * Transactions with this ID or greater are never visible.
+     */
+    private int xmax;
+
+
+    /**
+     * The sorted IDs of the other transactions that were active when the
+     * snapshot was taken.
+     */
+    private int[] activeTxnIDs;
+
+
+    public Snapshot(int txnID, int xmax, Collection<Integer> activeTxnIDs) {
+        this.txnID = txnID;
+        this.xmax = xmax;
+
+        this.activeTxnIDs = new int[activeTxnIDs.size()];
+        int i = 0;
+        for (int id : activeTxnIDs)
+            this.activeTxnIDs[i++] = id;
+
+        Arrays.sort(this.activeTxnIDs);
+
+        xmin = Math.min(txnID, xmax);
+        if (this.activeTxnIDs.length > 0)
+            xmin = Math.min(xmin, this.activeTxnIDs[0]);
+    }
+
+
+    public int getTransactionID() {
+        return txnID;
+    }
+
+
+    public int getXMin() {
+        return xmin;
+    }
+
+
+    public int getXMax() {
+        return xmax;
+    }
+
+
+    /**
+     * Returns true if the specified transaction had committed when this
+     * snapshot was taken.  The snapshot's own transaction is not considered
+     * committed.
+     *
+     * @param id the transaction ID to check
+     *
+     * @return true if the transaction's changes are visible in the snapshot
+     */
+    public boolean isCommitted(int id) {
+        if (id == txnID || id >= xmax)
+            return false;
+
+        if (id < xmin)
+            return true;
+
+        return Arrays.binarySearch(activeTxnIDs, id) < 0;
+    }
+
+
+    /**
+     * Returns true if the specified tuple version is visible to the
+     * snapshot's transaction, while it executes the specified command.  A
+     * version inserted by the transaction itself is only visible to later
+     * commands, so that a command never sees its own output.
+     *
+     * @param tuple the versioned tuple to check
+     * @param commandID the ID of the command currently executing
+     *
+     * @return true if the tuple version is visible
+     */
+    public boolean isVisible(PageTuple tuple, int commandID) {
+        int inserter = tuple.getInsertingTxnID();
+        if (inserter == txnID) {
+            if (tuple.getInsertingCommandID() >= commandID)
+                return false;
+        }
+        else if (inserter != 0 && !isCommitted(inserter)) {
+            return false;
+        }
+
+        int deleter = tuple.getDeletingTxnID();
+        if (deleter == 0)
+            return true;
+
+        return deleter != txnID && !isCommitted(deleter);
+    }
+
+
+    @Override
+    public String toString() {
+        return String.format("Snapshot[txnID=%d, xmin=%d, xmax=%d, active=%s]",
+            txnID, xmin, xmax, Arrays.toString(activeTxnIDs));
+    }
+}
@@ -3,12 +3,19 @@ package edu.caltech.nanodb.transactions;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 
 import edu.caltech.nanodb.expressions.TypeCastException;
+import edu.caltech.nanodb.server.performance.Histogram;
+import edu.caltech.nanodb.server.performance.MetricsRegistry;
 import edu.caltech.nanodb.server.properties.PropertyHandler;
 import edu.caltech.nanodb.server.properties.PropertyRegistry;
 import edu.caltech.nanodb.server.properties.ReadOnlyPropertyException;
@@ -16,6 +23,9 @@ import edu.caltech.nanodb.server.properties.UnrecognizedPropertyException;
 
 import edu.caltech.nanodb.client.SessionState;
 
+import edu.caltech.nanodb.relations.TableInfo;
+import edu.caltech.nanodb.relations.Tuple;
+
 import edu.caltech.nanodb.server.EventDispatcher;
 
 import edu.caltech.nanodb.storage.BufferManager;
@@ -27,6 +37,7 @@ import edu.caltech.nanodb.storage.StorageManager;
 
 import edu.caltech.nanodb.storage.writeahead.LogSequenceNumber;
 import edu.caltech.nanodb.storage.writeahead.RecoveryInfo;
+import edu.caltech.nanodb.storage.writeahead.WALFileException;
 import edu.caltech.nanodb.storage.writeahead.WALManager;
 import edu.caltech.nanodb.storage.writeahead.WALRecordType;
 
@@ -38,6 +49,14 @@ public class TransactionManager implements BufferManagerObserver {
     private static Logger logger = Logger.getLogger(TransactionManager.class);
 
 
+    /**
+     * The time taken to force the write-ahead log to disk, in nanoseconds.
+     * Forces that find the log already written aren't recorded.
+     */
+    private static final Histogram walForceLatency =
+        MetricsRegistry.getInstance().histogram("wal.forceLatency");
+
+
     /**
      * The system property that can be used to turn on or off transaction
      * processing.
@@ -45,6 +64,14 @@ public class TransactionManager implements BufferManagerObserver {
     public static final String PROP_TXNS = "nanodb.txns";
 
 
+    /**
+     * The system property that can be used to turn on or off multi-version
+     * concurrency control.  This only has an effect if transactions are
+     * also enabled, and only applies to tables created while it is on.
+     */
+    public static final String PROP_MVCC = "nanodb.mvcc";
+
+
     /**
      * This is the name of the file that the Transaction Manager uses to keep
      * track of overall transaction state.
@@ -66,6 +93,20 @@ public class TransactionManager implements BufferManagerObserver {
     }
 
 
+    /**
+     * Returns true if newly created tables should store multiple versions of
+     * their tuples, so that readers see a snapshot of the database instead
+     * of acquiring locks.
+     *
+     * @return true if multi-version concurrency control is enabled, or false
+     *         otherwise.
+     */
+    public static boolean isMVCCEnabled() {
+        return isEnabled() &&
+            "on".equalsIgnoreCase(System.getProperty(PROP_MVCC, "off"));
+    }
+
+
     private static class TransactionPropertyHandler implements PropertyHandler {
 
         @Override
@@ -75,6 +116,9 @@ public class TransactionManager implements BufferManagerObserver {
             if (PROP_TXNS.equals(propertyName)) {
                 return isEnabled();
             }
+            else if (PROP_MVCC.equals(propertyName)) {
+                return isMVCCEnabled();
+            }
             else {
                 throw new UnrecognizedPropertyException("No property named " +
                         propertyName);
@@ -86,7 +130,8 @@ public class TransactionManager implements BufferManagerObserver {
                 throws UnrecognizedPropertyException, ReadOnlyPropertyException,
                 TypeCastException {
 
-            if (PROP_TXNS.equals(propertyName)) {
+            if (PROP_TXNS.equals(propertyName) ||
+                PROP_MVCC.equals(propertyName)) {
                 throw new ReadOnlyPropertyException(propertyName +
                         " is read-only");
             }
@@ -101,7 +146,7 @@ public class TransactionManager implements BufferManagerObserver {
     static {
         // Register properties that the Transaction Manager exposes.
         PropertyRegistry.getInstance().registerProperties(
-                new TransactionPropertyHandler(), PROP_TXNS);
+                new TransactionPropertyHandler(), PROP_TXNS, PROP_MVCC);
     }
 
     private StorageManager storageManager;
@@ -110,6 +155,21 @@ public class TransactionManager implements BufferManagerObserver {
     private WALManager walManager;
 
 
+    /**
+     * The lock manager that isolates concurrent transactions from each other.
+     * Locks are released when a transaction commits or rolls back.
+     */
+    private LockManager lockManager;
+
+
+    /** Starts and ends transactions around commands. */
+    private TransactionStateUpdater txnStateUpdater;
+
+
+    /** Locks rows before they are modified. */
+    private RowLocker rowLocker;
+
+
     /**
      * This variable keeps track of the next transaction ID that should be used
      * for a transaction.  It is initialized when the transaction manager is
@@ -118,6 +178,39 @@ public class TransactionManager implements BufferManagerObserver {
     private AtomicInteger nextTxnID;
 
 
+    /**
+     * The transactions that are currently in progress, mapped to the
+     * snapshots they read from.  Access to this map is synchronized on the
+     * map itself, so that allocating a transaction ID and taking a snapshot
+     * happen atomically.
+     */
+    private final Map<Integer, Snapshot> activeTxns =
+        new HashMap<Integer, Snapshot>();
+
+
+    /**
+     * The LSNs of the "start transaction" records of the active transactions
+     * that have written to the database.  A backup must include the WAL from
+     * the oldest of these, so that these transactions can be undone when the
+     * backup is restored.  Access is synchronized on {@link #activeTxns}.
+     */
+    private final Map<Integer, LogSequenceNumber> txnStartLSNs =
+        new HashMap<Integer, LogSequenceNumber>();
+
+
+    /**
+     * Data pages whose changes are not yet in the write-ahead log because
+     * they were made during a bulk load, mapped to the state of the
+     * transaction that made the changes.  The changes are logged when the
+     * page is about to be written to disk, or when the transaction ends.
+     * Only pages of a table that the bulk-loading transaction holds an
+     * exclusive lock on are deferred, so no other transaction can modify
+     * them in the meantime.  Access is synchronized on the map itself.
+     */
+    private final Map<DBPage, TransactionState> deferredPages =
+        new LinkedHashMap<DBPage, TransactionState>();
+
+
     /**
      * This is the last value of nextLSN saved to the transaction-state file.
      */
@@ -136,6 +229,17 @@ public class TransactionManager implements BufferManagerObserver {
         this.nextTxnID = new AtomicInteger();
 
         walManager = new WALManager(storageManager, bufferManager);
+        lockManager = new LockManager();
+    }
+
+
+    public LockManager getLockManager() {
+        return lockManager;
+    }
+
+
+    public WALManager getWALManager() {
+        return walManager;
     }
 
 
@@ -161,6 +265,8 @@ public class TransactionManager implements BufferManagerObserver {
         DBPage dbpTxnState = storageManager.loadDBPage(dbfTxnState, 0);
         TransactionStatePage txnState = new TransactionStatePage(dbpTxnState);
 
+        txnState.setFormatVersion(WALManager.WAL_FORMAT_VERSION);
+
         // Set the "next transaction ID" value to an initial default.
         txnState.setNextTransactionID(1);
         nextTxnID.set(1);
@@ -184,6 +290,15 @@ public class TransactionManager implements BufferManagerObserver {
         DBPage dbpTxnState = storageManager.loadDBPage(dbfTxnState, 0);
         TransactionStatePage txnState = new TransactionStatePage(dbpTxnState);
 
+        // LSNs from an older WAL format can't be interpreted by this version.
+        int version = txnState.getFormatVersion();
+        if (version != WALManager.WAL_FORMAT_VERSION) {
+            throw new WALFileException(String.format("Transaction-state " +
+                "file %s uses WAL format version %d, but only version %d " +
+                "is supported.", TXNSTATE_FILENAME, version,
+                WALManager.WAL_FORMAT_VERSION));
+        }
+
         // Set the "next transaction ID" value properly.
         nextTxnID.set(txnState.getNextTransactionID());
 
@@ -251,8 +366,28 @@ public class TransactionManager implements BufferManagerObserver {
         storeTxnStateToFile();
 
         // Register the component that manages indexes when tables are modified.
-        EventDispatcher.getInstance().addCommandEventListener(
-            new TransactionStateUpdater(this, storageManager.getBufferManager()));
+        txnStateUpdater =
+            new TransactionStateUpdater(this, storageManager.getBufferManager());
+        EventDispatcher.getInstance().addCommandEventListener(txnStateUpdater);
+
+        // Register the component that locks rows before they are modified.
+        rowLocker = new RowLocker(lockManager);
+        EventDispatcher.getInstance().addRowEventListener(rowLocker);
+    }
+
+
+    /**
+     * Forces the write-ahead log to disk, and unregisters the components
+     * that {@link #initialize} registered, so that a new transaction manager
+     * can be started in the same process.
+     *
+     * @throws IOException if the write-ahead log couldn't be forced
+     */
+    public void shutdown() throws IOException {
+        forceWAL();
+
+        EventDispatcher.getInstance().removeCommandEventListener(txnStateUpdater);
+        EventDispatcher.getInstance().removeRowEventListener(rowLocker);
     }
 
 
@@ -288,9 +423,18 @@ public class TransactionManager implements BufferManagerObserver {
         if (txnState.isTxnInProgress())
             throw new IllegalStateException("A transaction is already in progress!");
 
-        int txnID = getAndIncrementNextTxnID();
+        int txnID;
+        Snapshot snapshot;
+        synchronized (activeTxns) {
+            txnID = getAndIncrementNextTxnID();
+            snapshot = new Snapshot(txnID, txnID + 1, activeTxns.keySet());
+            activeTxns.put(txnID, snapshot);
+        }
+
         txnState.setTransactionID(txnID);
         txnState.setUserStartedTxn(userStarted);
+        if (isMVCCEnabled())
+            txnState.setSnapshot(snapshot);
 
         logger.debug("Starting transaction with ID " + txnID +
             (userStarted ? " (user-started)" : ""));
@@ -306,17 +450,208 @@ public class TransactionManager implements BufferManagerObserver {
             return;
         }
 
+        TransactionState txnState = SessionState.get().getTxnState();
+
+        // Deferred pages are exclusively locked by their owner, so they can
+        // only be modified by the transaction that deferred them.
+        TransactionState owner;
+        synchronized (deferredPages) {
+            owner = deferredPages.remove(dbPage);
+        }
+        assert owner == null || owner == txnState :
+            "Page " + dbPage + " was modified while another transaction's " +
+            "changes to it were deferred";
+
+        if (txnState.isBulkLoadFile(dbPage.getDBFile())) {
+            logger.debug("Deferring page-update for page " + dbPage.getPageNo() +
+                " of file " + dbPage.getDBFile() + " during bulk load");
+
+            synchronized (deferredPages) {
+                deferredPages.put(dbPage, txnState);
+            }
+            return;
+        }
+
         logger.debug("Recording page-update for page " + dbPage.getPageNo() +
             " of file " + dbPage.getDBFile());
 
+        logPageUpdate(txnState, dbPage);
+    }
+
+
+    /**
+     * Writes an update record for a page's changes to the write-ahead log, on
+     * behalf of the specified transaction.  If the transaction hasn't written
+     * anything to the log yet, its "start transaction" record is written
+     * first.
+     *
+     * @param txnState the state of the transaction that made the changes
+     * @param dbPage the page whose changes should be logged
+     *
+     * @throws IOException if the write-ahead log can't be updated
+     */
+    /**
+     * Acquires an exclusive lock on a data page for the current transaction,
+     * before the transaction modifies the page.  The lock is held until the
+     * transaction ends, since rolling back the transaction restores the byte
+     * ranges it changed in the page, and would overwrite any changes that
+     * another transaction had made to the same bytes in the meantime.  Tuple
+     * and hash-key locks don't prevent this, because a page's header and
+     * slot table are shared by all of the tuples in the page.
+     *
+     * @param dbPage the page that is about to be modified
+     *
+     * @throws LockException if the page couldn't be locked
+     */
+    public void lockPageForWrite(DBPage dbPage) throws LockException {
         TransactionState txnState = SessionState.get().getTxnState();
+
+        // Changes made outside of a transaction are never undone.
+        if (!txnState.isTxnInProgress())
+            return;
+
+        lockManager.acquireLock(txnState.getTransactionID(),
+            LockResource.forPage(dbPage), LockMode.EXCLUSIVE);
+    }
+
+
+    private void logPageUpdate(TransactionState txnState, DBPage dbPage)
+        throws IOException {
+
+        int txnID = txnState.getTransactionID();
         if (!txnState.hasLoggedTxnStart()) {
-            walManager.writeTxnRecord(WALRecordType.START_TXN);
+            LogSequenceNumber startLSN =
+                walManager.writeTxnRecord(WALRecordType.START_TXN, txnID, null);
+            txnState.setLastLSN(startLSN);
             txnState.setLoggedTxnStart(true);
+
+            synchronized (activeTxns) {
+                txnStartLSNs.put(txnID, startLSN);
+            }
         }
 
-        walManager.writeUpdatePageRecord(dbPage);
-        dbPage.syncOldPageData();
+        LogSequenceNumber lsn =
+            walManager.writeUpdatePageRecord(txnID, txnState.getLastLSN(), dbPage);
+        txnState.setLastLSN(lsn);
+    }
+
+
+    /**
+     * Starts bulk-loading data into a table in the current transaction.  If
+     * the table is empty, the transaction locks it exclusively until it
+     * ends, and until {@link #endBulkLoad} is called, changes to the table's
+     * data pages are not logged when the page is modified, but only when the
+     * page is about to be written to disk or when the transaction ends.  All
+     * of a page's changes are then logged in one record; for pages that are
+     * new to their file this is a redo-only image of the page, so that the
+     * loaded data is written to the log only once.
+     * <p>
+     * A table that already holds data is loaded with the usual logging and
+     * locking, since its pages may also hold other transactions' changes,
+     * which a deferred record would include and rolling back the load would
+     * then undo.
+     *
+     * @param tableInfo the table that data is being loaded into
+     *
+     * @throws IOException if the table's file can't be read
+     * @throws LockException if the table couldn't be locked
+     */
+    public void beginBulkLoad(TableInfo tableInfo)
+        throws IOException, LockException {
+
+        TransactionState txnState = SessionState.get().getTxnState();
+        txnState.setBulkLoading(true);
+
+        if (!isTableEmpty(tableInfo))
+            return;
+
+        lockManager.acquireLock(txnState.getTransactionID(),
+            LockResource.forTable(tableInfo.getTableName()),
+            LockMode.EXCLUSIVE);
+
+        // Another transaction may have added to the table before the lock
+        // was granted.
+        if (isTableEmpty(tableInfo)) {
+            logger.debug("Deferring logging of bulk load into table " +
+                tableInfo.getTableName());
+            txnState.addBulkLoadFile(tableInfo.getTupleFile().getDBFile());
+        }
+    }
+
+
+    /**
+     * Returns true if the table's tuple file holds no tuples.
+     *
+     * @param tableInfo the table to check
+     *
+     * @return true if the table holds no tuples
+     *
+     * @throws IOException if the table's file can't be read
+     */
+    private boolean isTableEmpty(TableInfo tableInfo) throws IOException {
+        Tuple tuple = tableInfo.getTupleFile().getFirstTuple();
+        if (tuple == null)
+            return true;
+
+        tuple.unpin();
+        return false;
+    }
+
+
+    /**
+     * Stops bulk-loading data in the current transaction.  Pages modified
+     * during the bulk load may still have their changes logged later.
+     */
+    public void endBulkLoad() {
+        SessionState.get().getTxnState().setBulkLoading(false);
+    }
+
+
+    /**
+     * Records that the current transaction has modified a file without
+     * write-ahead logging the changes, as is the case when building an index
+     * file.  The file's dirty pages are written out and synced before the
+     * transaction's commit record is written, so that the changes are
+     * durable once the transaction has committed.
+     *
+     * @param dbFile the file that was modified without logging
+     */
+    public void syncFileOnCommit(DBFile dbFile) {
+        SessionState.get().getTxnState().addUnloggedFile(dbFile);
+    }
+
+
+    /**
+     * Logs the changes of all pages that the specified transaction modified
+     * during a bulk load, and that have not been logged yet.
+     *
+     * @param txnState the state of the transaction
+     *
+     * @throws IOException if the write-ahead log can't be updated
+     */
+    private void logDeferredPages(TransactionState txnState) throws IOException {
+        ArrayList<DBPage> pages = new ArrayList<DBPage>();
+        synchronized (deferredPages) {
+            Iterator<Map.Entry<DBPage, TransactionState>> entries =
+                deferredPages.entrySet().iterator();
+            while (entries.hasNext()) {
+                Map.Entry<DBPage, TransactionState> entry = entries.next();
+                if (entry.getValue() == txnState) {
+                    pages.add(entry.getKey());
+                    entries.remove();
+                }
+            }
+        }
+
+        if (!pages.isEmpty()) {
+            logger.debug(String.format("Logging %d pages deferred by " +
+                "transaction %d", pages.size(), txnState.getTransactionID()));
+        }
+
+        for (DBPage dbPage : pages) {
+            if (dbPage.isDirty())
+                logPageUpdate(txnState, dbPage);
+        }
     }
 
 
@@ -335,6 +670,20 @@ public class TransactionManager implements BufferManagerObserver {
 
         int txnID = txnState.getTransactionID();
 
+        // Log the changes deferred by any bulk load, and make the changes to
+        // unlogged files durable, before the transaction can commit.
+        try {
+            logDeferredPages(txnState);
+
+            BufferManager bufferManager = storageManager.getBufferManager();
+            for (DBFile dbFile : txnState.getUnloggedFiles())
+                bufferManager.writeDBFile(dbFile, /* sync */ true);
+        }
+        catch (IOException e) {
+            throw new TransactionException("Couldn't commit transaction " +
+                txnID + "!", e);
+        }
+
         if (txnState.hasLoggedTxnStart()) {
             // Must record the transaction as committed to the write-ahead log.
             // Then, we must force the WAL to include this commit record.
@@ -352,9 +701,10 @@ public class TransactionManager implements BufferManagerObserver {
                 "recording transaction-commit to WAL.");
         }
 
-        // Now that the transaction is successfully committed, clear the current
-        // transaction state.
+        // Now that the transaction is successfully committed, release its
+        // locks and clear the current transaction state.
         logger.debug("Transaction completed, resetting transaction state.");
+        endTransaction(txnID);
         txnState.clear();
     }
 
@@ -374,6 +724,16 @@ public class TransactionManager implements BufferManagerObserver {
 
         int txnID = txnState.getTransactionID();
 
+        // Changes deferred by a bulk load are logged first, so that rolling
+        // back the transaction undoes them along with its other changes.
+        try {
+            logDeferredPages(txnState);
+        }
+        catch (IOException e) {
+            throw new TransactionException(
+                "Couldn't rollback transaction " + txnID + "!", e);
+        }
+
         if (txnState.hasLoggedTxnStart()) {
             // Must rollback the transaction using the write-ahead log.
             try {
@@ -389,13 +749,113 @@ public class TransactionManager implements BufferManagerObserver {
                 "recording transaction-rollback to WAL.");
         }
 
-        // Now that the transaction is successfully rolled back, clear the
-        // current transaction state.
+        // Now that the transaction is successfully rolled back, release its
+        // locks and clear the current transaction state.
         logger.debug("Transaction completed, resetting transaction state.");
+        endTransaction(txnID);
         txnState.clear();
     }
 
 
+    /**
+     * Removes a completed transaction from the set of active transactions,
+     * then releases its locks.  The transaction must be removed first, so
+     * that a transaction that was waiting on one of its locks sees its
+     * changes as committed.
+     *
+     * @param txnID the ID of the transaction that completed
+     */
+    private void endTransaction(int txnID) {
+        synchronized (activeTxns) {
+            activeTxns.remove(txnID);
+            txnStartLSNs.remove(txnID);
+        }
+        lockManager.releaseAllLocks(txnID);
+    }
+
+
+    /**
+     * Returns the LSN of the oldest "start transaction" record written by a
+     * transaction that is still in progress.  Recovery needs the write-ahead
+     * log from this point onward to undo the active transactions.
+     *
+     * @return the LSN of the oldest active transaction's start record, or
+     *         {@code null} if no active transaction has written to the WAL
+     */
+    public LogSequenceNumber getOldestActiveTxnLSN() {
+        synchronized (activeTxns) {
+            LogSequenceNumber oldest = null;
+            for (LogSequenceNumber lsn : txnStartLSNs.values()) {
+                if (oldest == null || lsn.compareTo(oldest) < 0)
+                    oldest = lsn;
+            }
+            return oldest;
+        }
+    }
+
+
+    /**
+     * Returns the oldest transaction ID that any active transaction might
+     * still need to see.  A tuple version deleted by a transaction with a
+     * smaller ID is invisible to every active and future transaction, and
+     * may therefore be removed from its table.
+     *
+     * @return the transaction ID below which deleted versions are dead
+     */
+    public int getVacuumHorizon() {
+        synchronized (activeTxns) {
+            int horizon = nextTxnID.get();
+            for (Snapshot snapshot : activeTxns.values())
+                horizon = Math.min(horizon, snapshot.getXMin());
+
+            return horizon;
+        }
+    }
+
+
+    /**
+     * This method cleans up the current transaction after a command fails.
+     * An auto-started transaction is rolled back, since it will never be
+     * auto-committed.  A user-started transaction is left open unless the
+     * failure was caused by a lock that couldn't be acquired, in which case
+     * it must be rolled back so that other transactions can proceed.
+     *
+     * @param failure the exception that caused the command to fail
+     */
+    public void handleCommandFailure(Throwable failure) {
+        SessionState state = SessionState.get();
+        TransactionState txnState = state.getTxnState();
+
+        if (!txnState.isTxnInProgress())
+            return;
+
+        LockException lockFailure = null;
+        for (Throwable t = failure; t != null; t = t.getCause()) {
+            if (t instanceof LockException) {
+                lockFailure = (LockException) t;
+                break;
+            }
+        }
+
+        if (txnState.getUserStartedTxn() && lockFailure == null)
+            return;
+
+        int txnID = txnState.getTransactionID();
+        try {
+            rollbackTransaction();
+        }
+        catch (TransactionException e) {
+            logger.error("Couldn't roll back failed transaction " + txnID, e);
+            return;
+        }
+
+        if (lockFailure != null) {
+            state.getOutputStream().println("Transaction " + txnID +
+                " was rolled back:  " + lockFailure.getMessage());
+        }
+    }
+
+
     /**
      * This method is registered on the {@link BufferManager}, to ensure that
      * the write-ahead logging rule is enforced.  Specifically, all dirty
@@ -409,7 +869,18 @@ public class TransactionManager implements BufferManagerObserver {
      */
     @Override
     public void beforeWriteDirtyPages(List<DBPage> pages) throws IOException {
-        // First, find out how much of the WAL must be forced to allow
+        // Pages modified during a bulk load must have their changes logged
+        // before they can be written.
+        for (DBPage dbPage : pages) {
+            TransactionState owner;
+            synchronized (deferredPages) {
+                owner = deferredPages.remove(dbPage);
+            }
+            if (owner != null)
+                logPageUpdate(owner, dbPage);
+        }
+
+        // Next, find out how much of the WAL must be forced to allow
         // these pages to be written back to disk.
         LogSequenceNumber maxLSN = null;
         for (DBPage dbPage : pages) {
@@ -470,6 +941,7 @@ public class TransactionManager implements BufferManagerObserver {
         // Flush all dirty pages for the write-ahead log, then sync the WAL to
         // disk.
 
+        long start = System.nanoTime();
         BufferManager bufferManager = storageManager.getBufferManager();
 
         // Go through all WAL files that we need to sync the entirety of, and
@@ -507,6 +979,7 @@ public class TransactionManager implements BufferManagerObserver {
         txnStateNextLSN =
             WALManager.computeNextLSN(lsn.getLogFileNo(), lastPosition);
         storeTxnStateToFile();
+        walForceLatency.recordSince(start);
 
         logger.debug(String.format("WAL was successfully forced to LSN %s " +
             "(plus %d bytes)", lsn, lsn.getRecordSize()));
@@ -1,6 +1,11 @@
 package edu.caltech.nanodb.transactions;
 
 
+import java.util.HashSet;
+import java.util.Set;
+
+import edu.caltech.nanodb.storage.DBFile;
+import edu.caltech.nanodb.storage.PageTuple;
 import edu.caltech.nanodb.storage.writeahead.LogSequenceNumber;
 
 
@@ -42,6 +47,45 @@ public class TransactionState {
     private LogSequenceNumber lastLSN = null;
 
 
+    /**
+     * The ID of the command currently executing within the transaction.
+     * This is incremented before each command, so that a command can ignore
+     * tuple versions that it inserted itself.
+     */
+    private int commandID = 0;
+
+
+    /**
+     * The snapshot that determines which tuple versions are visible to the
+     * transaction, or {@code null} if multi-version concurrency control is
+     * not enabled.
+     */
+    private Snapshot snapshot = null;
+
+
+    /**
+     * True while the transaction is bulk-loading data.  Changes to the
+     * pages of {@link #bulkLoadFiles} are then logged once per page, rather
+     * than after each tuple.
+     */
+    private boolean bulkLoading = false;
+
+
+    /**
+     * The files of the empty tables that the transaction is bulk-loading,
+     * and holds exclusive locks on.
+     */
+    private Set<DBFile> bulkLoadFiles = new HashSet<DBFile>();
+
+
+    /**
+     * Files that the transaction modified without write-ahead logging the
+     * changes.  These files must be written out and synced before the
+     * transaction commits.
+     */
+    private Set<DBFile> unloggedFiles = new HashSet<DBFile>();
+
+
     public int getTransactionID() {
         return transactionID;
     }
@@ -92,12 +136,101 @@ public class TransactionState {
     }
 
 
+    public int getCommandID() {
+        return commandID;
+    }
+
+
+    public void incrementCommandID() {
+        commandID++;
+    }
+
+
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+
+    /**
+     * Returns true if the specified tuple version is visible to the current
+     * command of this transaction.  With a snapshot, the version is checked
+     * against the snapshot.  Without one, the caller must already hold a
+     * lock on the tuple, so only deleted versions and versions inserted by
+     * the current command are hidden.
+     *
+     * @param tuple the versioned tuple to check
+     *
+     * @return true if the tuple version is visible
+     */
+    public boolean isVisible(PageTuple tuple) {
+        if (snapshot != null)
+            return snapshot.isVisible(tuple, commandID);
+
+        if (tuple.getInsertingTxnID() == transactionID &&
+            tuple.getInsertingCommandID() >= commandID) {
+            return false;
+        }
+
+        return tuple.getDeletingTxnID() == 0;
+    }
+
+
+    public void setSnapshot(Snapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+
+    public boolean isBulkLoading() {
+        return bulkLoading;
+    }
+
+
+    public void setBulkLoading(boolean b) {
+        bulkLoading = b;
+        if (!b)
+            bulkLoadFiles.clear();
+    }
+
+
+    public void addBulkLoadFile(DBFile dbFile) {
+        bulkLoadFiles.add(dbFile);
+    }
+
+
+    /**
+     * Returns true if the transaction is bulk-loading the specified file, so
+     * that logging its changes can be deferred.
+     *
+     * @param dbFile the file to check
+     *
+     * @return true if changes to the file's pages can be deferred
+     */
+    public boolean isBulkLoadFile(DBFile dbFile) {
+        return bulkLoading && bulkLoadFiles.contains(dbFile);
+    }
+
+
+    public Set<DBFile> getUnloggedFiles() {
+        return unloggedFiles;
+    }
+
+
+    public void addUnloggedFile(DBFile dbFile) {
+        unloggedFiles.add(dbFile);
+    }
+
+
     public void clear() {
         transactionID = NO_TRANSACTION;
         lastLSN = null;
+        commandID = 0;
+        snapshot = null;
         userStartedTxn = false;
         performedWrites = false;
         loggedTxnStart = false;
+        bulkLoading = false;
+        bulkLoadFiles.clear();
+        unloggedFiles.clear();
     }
 
 
@@ -3,6 +3,7 @@ package edu.caltech.nanodb.transactions;
 
 import edu.caltech.nanodb.storage.DBPage;
 import edu.caltech.nanodb.storage.writeahead.LogSequenceNumber;
+import edu.caltech.nanodb.storage.writeahead.WALManager;
 
 
 /**
@@ -23,6 +24,8 @@ import edu.caltech.nanodb.storage.writeahead.LogSequenceNumber;
  *     log.  Note that this value may be behind the
  *     {@link edu.caltech.nanodb.storage.writeahead.WALManager#nextLSN} value
  *     stored in memory.</li>
+ * <li><b>WAL Format Version.</b>  The version of the write-ahead log record
+ *     format that the LSNs refer to.</li>
  * </ul>
  */
 public class TransactionStatePage {
@@ -36,29 +39,27 @@ public class TransactionStatePage {
 
     /**
      * The offset in the checkpoint page where the "First Log Sequence Number"
-     * file-number is stored.  This value is an unsigned short (2 bytes).
+     * is stored.  This value is a packed 64-bit LSN (8 bytes); see
+     * {@link LogSequenceNumber#toLong}.
      */
-    public static final int OFFSET_FIRST_LSN_FILENUM = 6;
-
-
-    /**
-     * The offset in the checkpoint page where the "First Log Sequence Number"
-     * file-offset is stored.  This value is a signed int (4 bytes).
-     */
-    public static final int OFFSET_FIRST_LSN_OFFSET = 8;
+    public static final int OFFSET_FIRST_LSN = 6;
 
 
     /**
      * The offset in the checkpoint page where the "Next Log Sequence Number"
-     * file-number is stored.  This value is an unsigned short (2 bytes).
+     * is stored.  This value is a packed 64-bit LSN (8 bytes); see
+     * {@link LogSequenceNumber#toLong}.
      */
-    public static final int OFFSET_NEXT_LSN_FILENUM = 12;
+    public static final int OFFSET_NEXT_LSN = 14;
+
 
     /**
-     * The offset in the checkpoint page where the "Next Log Sequence Number"
-     * file-offset is stored.  This value is a signed int (4 bytes).
+     * The offset in the checkpoint page where the WAL format version is
+     * stored.  This value is an unsigned byte, and must match
+     * {@link WALManager#WAL_FORMAT_VERSION}.  Transaction-state files from
+     * before the format was versioned have a 0 here.
      */
-    public static final int OFFSET_NEXT_LSN_OFFSET = 14;
+    public static final int OFFSET_FORMAT_VERSION = 22;
 
 
     private DBPage dbPage;
@@ -79,30 +80,32 @@ public class TransactionStatePage {
     }
 
 
-    public LogSequenceNumber getFirstLSN() {
-        int fileNum = dbPage.readUnsignedShort(OFFSET_FIRST_LSN_FILENUM);
-        int offset = dbPage.readInt(OFFSET_FIRST_LSN_OFFSET);
+    public int getFormatVersion() {
+        return dbPage.readUnsignedByte(OFFSET_FORMAT_VERSION);
+    }
+
 
-        return new LogSequenceNumber(fileNum, offset);
+    public void setFormatVersion(int version) {
+        dbPage.writeByte(OFFSET_FORMAT_VERSION, version);
+    }
+
+
+    public LogSequenceNumber getFirstLSN() {
+        return LogSequenceNumber.fromLong(dbPage.readLong(OFFSET_FIRST_LSN));
     }
 
 
     public void setFirstLSN(LogSequenceNumber firstLSN) {
-        dbPage.writeShort(OFFSET_FIRST_LSN_FILENUM, firstLSN.getLogFileNo());
-        dbPage.writeInt(OFFSET_FIRST_LSN_OFFSET, firstLSN.getFileOffset());
+        dbPage.writeLong(OFFSET_FIRST_LSN, firstLSN.toLong());
     }
 
 
     public LogSequenceNumber getNextLSN() {
-        int fileNum = dbPage.readUnsignedShort(OFFSET_NEXT_LSN_FILENUM);
-        int offset = dbPage.readInt(OFFSET_NEXT_LSN_OFFSET);
-
-        return new LogSequenceNumber(fileNum, offset);
+        return LogSequenceNumber.fromLong(dbPage.readLong(OFFSET_NEXT_LSN));
     }
 
 
     public void setNextLSN(LogSequenceNumber nextLSN) {
-        dbPage.writeShort(OFFSET_NEXT_LSN_FILENUM, nextLSN.getLogFileNo());
-        dbPage.writeInt(OFFSET_NEXT_LSN_OFFSET, nextLSN.getFileOffset());
+        dbPage.writeLong(OFFSET_NEXT_LSN, nextLSN.toLong());
     }
 }
@@ -65,6 +65,10 @@ public class TransactionStateUpdater implements CommandEventListener {
                 throw new EventDispatchException(e);
             }
         }
+
+        // Tuple versions inserted by this command must not be visible to the
+        // command itself.
+        txnState.incrementCommandID();
     }
 
 
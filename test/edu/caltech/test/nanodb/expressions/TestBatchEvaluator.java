@@ -0,0 +1,191 @@
+package edu.caltech.test.nanodb.expressions;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import org.testng.annotations.Test;
+
+import edu.caltech.nanodb.expressions.ArithmeticOperator;
+import edu.caltech.nanodb.expressions.BatchEvaluator;
+import edu.caltech.nanodb.expressions.BooleanOperator;
+import edu.caltech.nanodb.expressions.ColumnName;
+import edu.caltech.nanodb.expressions.ColumnValue;
+import edu.caltech.nanodb.expressions.CompareOperator;
+import edu.caltech.nanodb.expressions.Environment;
+import edu.caltech.nanodb.expressions.Expression;
+import edu.caltech.nanodb.expressions.IsNullOperator;
+import edu.caltech.nanodb.expressions.LiteralValue;
+import edu.caltech.nanodb.expressions.TupleBatch;
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.relations.ColumnInfo;
+import edu.caltech.nanodb.relations.ColumnType;
+import edu.caltech.nanodb.relations.SQLDataType;
+import edu.caltech.nanodb.relations.Schema;
+
+
+/**
+ * This test class exercises the functionality of the {@link BatchEvaluator}
+ * class, by checking that evaluating expressions over a whole batch gives
+ * the same results as evaluating them one tuple at a time.
+ */
+@Test
+public class TestBatchEvaluator {
+
+    /** The number of rows in the test batch. */
+    private static final int NUM_ROWS = 40;
+
+
+    private Schema makeSchema() {
+        Schema schema = new Schema();
+        schema.addColumnInfo(new ColumnInfo("a", "t",
+            new ColumnType(SQLDataType.INTEGER)));
+        schema.addColumnInfo(new ColumnInfo("b", "t",
+            new ColumnType(SQLDataType.DOUBLE)));
+        return schema;
+    }
+
+
+    /** Returns the rows of the test batch, some of which have NULLs. */
+    private List<TupleLiteral> makeRows() {
+        ArrayList<TupleLiteral> rows = new ArrayList<TupleLiteral>();
+        for (int i = 0; i < NUM_ROWS; i++) {
+            Integer a = (i % 5 == 0) ? null : i % 7;
+            Double b = (i % 3 == 0) ? null : i * 0.5;
+            rows.add(new TupleLiteral(a, b));
+        }
+        return rows;
+    }
+
+
+    private TupleBatch makeBatch(List<TupleLiteral> rows) {
+        TupleBatch batch = new TupleBatch(2, NUM_ROWS);
+        for (TupleLiteral row : rows)
+            batch.addTuple(row);
+
+        return batch;
+    }
+
+
+    private static Expression col(String name) {
+        return new ColumnValue(new ColumnName(name));
+    }
+
+
+    private static Expression cmp(CompareOperator.Type type, Expression lhs,
+                                  Expression rhs) {
+        return new CompareOperator(type, lhs, rhs);
+    }
+
+
+    private static Expression bool(BooleanOperator.Type type,
+                                   Expression... terms) {
+        BooleanOperator op = new BooleanOperator(type);
+        for (Expression term : terms)
+            op.addTerm(term);
+        return op;
+    }
+
+
+    /** Returns the expressions that are checked against the test batch. */
+    private List<Expression> makeExpressions() {
+        ArrayList<Expression> exprs = new ArrayList<Expression>();
+
+        Expression aGt2 = cmp(CompareOperator.Type.GREATER_THAN, col("a"),
+            new LiteralValue(2));
+        Expression bLt10 = cmp(CompareOperator.Type.LESS_THAN, col("b"),
+            new LiteralValue(10));
+
+        exprs.add(col("a"));
+        exprs.add(new LiteralValue(Boolean.TRUE));
+        exprs.add(aGt2);
+        exprs.add(cmp(CompareOperator.Type.EQUALS, col("a"), col("b")));
+        exprs.add(bool(BooleanOperator.Type.AND_EXPR, aGt2, bLt10));
+        exprs.add(bool(BooleanOperator.Type.OR_EXPR,
+            cmp(CompareOperator.Type.LESS_THAN, col("a"), new LiteralValue(2)),
+            cmp(CompareOperator.Type.GREATER_THAN, col("b"), new LiteralValue(15))));
+        exprs.add(bool(BooleanOperator.Type.NOT_EXPR,
+            cmp(CompareOperator.Type.EQUALS, col("a"), new LiteralValue(4))));
+        exprs.add(bool(BooleanOperator.Type.OR_EXPR,
+            bool(BooleanOperator.Type.NOT_EXPR,
+                bool(BooleanOperator.Type.AND_EXPR, aGt2, bLt10)),
+            new IsNullOperator(col("a"), false)));
+
+        // Arithmetic is evaluated one row at a time, inside a comparison
+        // that is evaluated over the whole batch.
+        exprs.add(cmp(CompareOperator.Type.GREATER_OR_EQUAL,
+            new ArithmeticOperator(ArithmeticOperator.Type.MULTIPLY,
+                new ArithmeticOperator(ArithmeticOperator.Type.ADD, col("a"),
+                    new LiteralValue(1)),
+                new LiteralValue(2)),
+            col("b")));
+
+        return exprs;
+    }
+
+
+    /**
+     * Checks the results of evaluating and filtering with each expression
+     * over the rows of the batch that the selection vector lists.
+     */
+    private void checkExpressions(int[] selection, int count) {
+        Schema schema = makeSchema();
+        List<TupleLiteral> rows = makeRows();
+
+        Environment env = new Environment();
+        for (Expression expr : makeExpressions()) {
+            TupleBatch batch = makeBatch(rows);
+            if (selection != null)
+                batch.setSelection(selection, count);
+
+            BatchEvaluator evaluator = BatchEvaluator.create(expr, schema);
+
+            Object[] values = evaluator.evaluate(batch);
+            assert batch.size() == (selection != null ? count : NUM_ROWS) :
+                "Evaluating " + expr + " changed the batch's rows";
+
+            ArrayList<Integer> expected = new ArrayList<Integer>();
+            for (int i = 0; i < batch.size(); i++) {
+                int row = batch.getRowIndex(i);
+
+                env.clear();
+                env.addTuple(schema, rows.get(row));
+                assert Objects.equals(expr.evaluate(env), values[row]) :
+                    "Wrong value of " + expr + " for row " + rows.get(row);
+
+                if (expr.evaluatePredicate(env))
+                    expected.add(row);
+            }
+
+            evaluator.filter(batch);
+            ArrayList<Integer> actual = new ArrayList<Integer>();
+            for (int i = 0; i < batch.size(); i++)
+                actual.add(batch.getRowIndex(i));
+
+            assert expected.equals(actual) : "Filtering with " + expr +
+                " selected rows " + actual + " instead of " + expected;
+        }
+    }
+
+
+    /** This test evaluates expressions over all of the rows of a batch. */
+    public void testAllRows() {
+        checkExpressions(null, 0);
+    }
+
+
+    /**
+     * This test evaluates expressions over a batch that has already been
+     * filtered, so that only some rows are selected.
+     */
+    public void testSelectedRows() {
+        int[] selection = new int[NUM_ROWS];
+        int count = 0;
+        for (int i = 1; i < NUM_ROWS; i += 3)
+            selection[count++] = i;
+
+        checkExpressions(selection, count);
+        checkExpressions(new int[0], 0);
+    }
+}
@@ -145,6 +145,61 @@ public class TestBooleanOperator {
     }
 
 
+    /**
+     * This method exercises the three-valued logic of the Boolean operator,
+     * where a <tt>NULL</tt> term is UNKNOWN rather than false.
+     */
+    public void testUnknownTerms() {
+        BooleanOperator op;
+
+        // NOT UNKNOWN = UNKNOWN
+
+        op = new BooleanOperator(BooleanOperator.Type.NOT_EXPR);
+        op.addTerm(new LiteralValue(null));
+        assert op.evaluate() == null;
+        assert !op.evaluatePredicate(null);
+
+        // TRUE && UNKNOWN && TRUE = UNKNOWN
+
+        op = new BooleanOperator(BooleanOperator.Type.AND_EXPR);
+        op.addTerm(new EvalTracker(Boolean.TRUE));
+        op.addTerm(new EvalTracker(null));
+        op.addTerm(new EvalTracker(Boolean.TRUE));
+        assert op.evaluate() == null;
+        assert ((EvalTracker) op.getTerm(2)).evaluated;
+
+        // UNKNOWN && FALSE = FALSE
+
+        op = new BooleanOperator(BooleanOperator.Type.AND_EXPR);
+        op.addTerm(new EvalTracker(null));
+        op.addTerm(new EvalTracker(Boolean.FALSE));
+        assert Boolean.FALSE.equals(op.evaluate());
+
+        // FALSE || UNKNOWN = UNKNOWN
+
+        op = new BooleanOperator(BooleanOperator.Type.OR_EXPR);
+        op.addTerm(new EvalTracker(Boolean.FALSE));
+        op.addTerm(new EvalTracker(null));
+        assert op.evaluate() == null;
+
+        // UNKNOWN || TRUE = TRUE
+
+        op = new BooleanOperator(BooleanOperator.Type.OR_EXPR);
+        op.addTerm(new EvalTracker(null));
+        op.addTerm(new EvalTracker(Boolean.TRUE));
+        assert Boolean.TRUE.equals(op.evaluate());
+
+        // NOT (FALSE || UNKNOWN) = UNKNOWN
+
+        BooleanOperator orOp = new BooleanOperator(BooleanOperator.Type.OR_EXPR);
+        orOp.addTerm(new LiteralValue(Boolean.FALSE));
+        orOp.addTerm(new LiteralValue(null));
+        op = new BooleanOperator(BooleanOperator.Type.NOT_EXPR);
+        op.addTerm(orOp);
+        assert op.evaluate() == null;
+    }
+
+
     /**
      * This test exercises the {@link BooleanOperator#hasTermsReferencingAllTables}
      * method with various scenarios.
@@ -0,0 +1,323 @@
+package edu.caltech.test.nanodb.expressions;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import org.testng.annotations.Test;
+
+import edu.caltech.nanodb.expressions.ArithmeticOperator;
+import edu.caltech.nanodb.expressions.BooleanOperator;
+import edu.caltech.nanodb.expressions.ColumnName;
+import edu.caltech.nanodb.expressions.ColumnValue;
+import edu.caltech.nanodb.expressions.CompareOperator;
+import edu.caltech.nanodb.expressions.CompiledExpression;
+import edu.caltech.nanodb.expressions.Environment;
+import edu.caltech.nanodb.expressions.Expression;
+import edu.caltech.nanodb.expressions.ExpressionException;
+import edu.caltech.nanodb.expressions.IsNullOperator;
+import edu.caltech.nanodb.expressions.LiteralValue;
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.relations.ColumnInfo;
+import edu.caltech.nanodb.relations.ColumnType;
+import edu.caltech.nanodb.relations.SQLDataType;
+import edu.caltech.nanodb.relations.Schema;
+
+
+/**
+ * This test class exercises the functionality of the
+ * {@link CompiledExpression} class, by checking that compiled expressions
+ * produce the same results as the expressions they were compiled from.
+ */
+@Test
+public class TestCompiledExpression {
+
+    /** The number of rows the expressions are evaluated against. */
+    private static final int NUM_ROWS = 60;
+
+
+    private static Schema makeSchema(String tableName) {
+        Schema schema = new Schema();
+        schema.addColumnInfo(new ColumnInfo("i", tableName,
+            new ColumnType(SQLDataType.INTEGER)));
+        schema.addColumnInfo(new ColumnInfo("l", tableName,
+            new ColumnType(SQLDataType.BIGINT)));
+        schema.addColumnInfo(new ColumnInfo("d", tableName,
+            new ColumnType(SQLDataType.DOUBLE)));
+        schema.addColumnInfo(new ColumnInfo("s", tableName,
+            new ColumnType(SQLDataType.VARCHAR)));
+        return schema;
+    }
+
+
+    /**
+     * Returns a row of values for a schema made by {@link #makeSchema}.
+     * Some rows have <tt>NULL</tt>s, and some have values of a different
+     * type than the schema specifies, which the compiled expressions must
+     * still handle in the same way as the interpreted expressions.
+     */
+    private static TupleLiteral makeRow(int n) {
+        Object i = (n % 7 == 3) ? null : Integer.valueOf(n % 11 - 5);
+        Object l = (n % 5 == 1) ? null : Long.valueOf(n * 100000L - 3000000L);
+        Object d = (n % 6 == 2) ? null : Double.valueOf(n * 0.25 - 4);
+        Object s = (n % 9 == 4) ? null : "v" + (n % 13);
+
+        if (n % 10 == 7)
+            i = Long.valueOf(n);
+        if (n % 10 == 8)
+            d = Integer.valueOf(n / 4);
+        if (n % 10 == 9)
+            s = Integer.valueOf(n);
+
+        return new TupleLiteral(i, l, d, s);
+    }
+
+
+    private static Expression col(String name) {
+        return new ColumnValue(new ColumnName(name));
+    }
+
+
+    private static Expression col(String table, String name) {
+        return new ColumnValue(new ColumnName(table, name));
+    }
+
+
+    private static Expression lit(Object value) {
+        return new LiteralValue(value);
+    }
+
+
+    private static Expression cmp(CompareOperator.Type type, Expression lhs,
+                                  Expression rhs) {
+        return new CompareOperator(type, lhs, rhs);
+    }
+
+
+    private static Expression arith(ArithmeticOperator.Type type,
+                                    Expression lhs, Expression rhs) {
+        return new ArithmeticOperator(type, lhs, rhs);
+    }
+
+
+    private static Expression bool(BooleanOperator.Type type,
+                                   Expression... terms) {
+        BooleanOperator op = new BooleanOperator(type);
+        for (Expression term : terms)
+            op.addTerm(term);
+        return op;
+    }
+
+
+    /**
+     * Returns expressions over one tuple, covering every comparison and
+     * arithmetic operation on every pair of the columns' types.
+     */
+    private static List<Expression> makeExpressions() {
+        ArrayList<Expression> exprs = new ArrayList<Expression>();
+
+        Expression[] operands = {
+            col("i"), col("l"), col("d"), lit(3), lit(2.5), lit(-4000000L)
+        };
+
+        for (Expression lhs : operands) {
+            for (Expression rhs : operands) {
+                for (CompareOperator.Type type : CompareOperator.Type.values())
+                    exprs.add(cmp(type, lhs, rhs));
+
+                for (ArithmeticOperator.Type type :
+                     ArithmeticOperator.Type.values()) {
+                    exprs.add(arith(type, lhs, rhs));
+                }
+            }
+        }
+
+        exprs.add(cmp(CompareOperator.Type.LESS_THAN, col("s"), lit("v5")));
+        exprs.add(cmp(CompareOperator.Type.EQUALS, col("s"), col("s")));
+
+        Expression iGt0 = cmp(CompareOperator.Type.GREATER_THAN, col("i"), lit(0));
+        Expression dLt3 = cmp(CompareOperator.Type.LESS_THAN, col("d"), lit(3));
+        exprs.add(bool(BooleanOperator.Type.AND_EXPR, iGt0, dLt3));
+        exprs.add(bool(BooleanOperator.Type.OR_EXPR, iGt0, dLt3,
+            new IsNullOperator(col("s"), false)));
+        exprs.add(bool(BooleanOperator.Type.NOT_EXPR,
+            bool(BooleanOperator.Type.OR_EXPR, iGt0, dLt3)));
+        exprs.add(new IsNullOperator(col("l"), true));
+
+        // Nested arithmetic, and subexpressions that only involve literals.
+        exprs.add(cmp(CompareOperator.Type.GREATER_OR_EQUAL,
+            arith(ArithmeticOperator.Type.MULTIPLY,
+                arith(ArithmeticOperator.Type.ADD, col("i"), lit(1)),
+                arith(ArithmeticOperator.Type.SUBTRACT, lit(10), lit(8))),
+            col("d")));
+        exprs.add(bool(BooleanOperator.Type.AND_EXPR,
+            cmp(CompareOperator.Type.LESS_THAN, lit(1), lit(2)), iGt0));
+        exprs.add(arith(ArithmeticOperator.Type.ADD, col("i"), lit(null)));
+
+        return exprs;
+    }
+
+
+    /**
+     * Checks that a compiled expression produces the same value and the
+     * same predicate result as the original expression, or fails in the
+     * same way.
+     */
+    private static void checkSame(Expression expr, CompiledExpression compiled,
+                                  Environment env, Object row) {
+        Object expected;
+        try {
+            expected = expr.evaluate(env);
+        }
+        catch (RuntimeException e) {
+            try {
+                compiled.evaluate(env);
+            }
+            catch (RuntimeException e2) {
+                assert e.getClass() == e2.getClass() : "Evaluating " + expr +
+                    " on " + row + " failed with " + e2 + " instead of " + e;
+                return;
+            }
+            assert false : "Evaluating " + expr + " on " + row +
+                " should fail with " + e;
+            return;
+        }
+
+        Object actual = compiled.evaluate(env);
+        assert Objects.equals(expected, actual) : "Evaluating " + expr +
+            " on " + row + " gave " + actual + " instead of " + expected;
+
+        boolean expectedPredicate;
+        try {
+            expectedPredicate = expr.evaluatePredicate(env);
+        }
+        catch (RuntimeException e) {
+            // Values that aren't Boolean can't be used as predicates.
+            return;
+        }
+
+        assert expectedPredicate == compiled.evaluatePredicate(env) :
+            "Evaluating " + expr + " on " + row + " as a predicate gave " +
+            !expectedPredicate;
+    }
+
+
+    /**
+     * This test evaluates expressions over one tuple, including tuples with
+     * values of different types than their schema specifies.
+     */
+    public void testSingleTuple() {
+        Schema schema = makeSchema("t");
+        Environment env = new Environment();
+
+        for (Expression expr : makeExpressions()) {
+            CompiledExpression compiled = CompiledExpression.compile(expr, schema);
+            for (int n = 0; n < NUM_ROWS; n++) {
+                TupleLiteral row = makeRow(n);
+                env.clear();
+                env.addTuple(schema, row);
+                checkSame(expr, compiled, env, row);
+            }
+        }
+    }
+
+
+    /**
+     * This test evaluates expressions over pairs of tuples, as for join
+     * predicates, including references that are ambiguous between them.
+     */
+    public void testTwoTuples() {
+        Schema left = makeSchema("a");
+        Schema right = makeSchema("b");
+        Environment env = new Environment();
+
+        Expression[] exprs = {
+            cmp(CompareOperator.Type.EQUALS, col("a", "i"), col("b", "i")),
+            cmp(CompareOperator.Type.LESS_THAN, col("a", "d"), col("b", "l")),
+            bool(BooleanOperator.Type.AND_EXPR,
+                cmp(CompareOperator.Type.NOT_EQUALS, col("a", "s"), col("b", "s")),
+                cmp(CompareOperator.Type.GREATER_THAN,
+                    arith(ArithmeticOperator.Type.ADD, col("a", "i"), col("b", "d")),
+                    lit(0))),
+        };
+
+        for (Expression expr : exprs) {
+            CompiledExpression compiled =
+                CompiledExpression.compile(expr, left, right);
+            for (int n = 0; n < NUM_ROWS; n += 3) {
+                for (int m = 0; m < NUM_ROWS; m += 4) {
+                    TupleLiteral leftRow = makeRow(n);
+                    TupleLiteral rightRow = makeRow(m);
+                    env.clear();
+                    env.addTuple(left, leftRow);
+                    env.addTuple(right, rightRow);
+                    checkSame(expr, compiled, env, leftRow + " " + rightRow);
+                }
+            }
+        }
+
+        // A column name that both tuples have is reported as ambiguous.
+        CompiledExpression compiled = CompiledExpression.compile(
+            cmp(CompareOperator.Type.EQUALS, col("i"), lit(1)), left, right);
+        env.clear();
+        env.addTuple(left, makeRow(1));
+        env.addTuple(right, makeRow(2));
+        try {
+            compiled.evaluate(env);
+            assert false : "Ambiguous column reference wasn't reported";
+        }
+        catch (ExpressionException e) {
+            // Success.
+        }
+    }
+
+
+    /**
+     * This test evaluates an expression that refers to a column of an
+     * enclosing query, which is found in the parent environment.
+     */
+    public void testParentEnvironment() {
+        Schema outer = makeSchema("o");
+        Schema inner = makeSchema("t");
+
+        Environment parent = new Environment();
+        Environment env = new Environment(parent);
+
+        Expression expr = cmp(CompareOperator.Type.LESS_THAN,
+            col("t", "i"), col("o", "i"));
+        CompiledExpression compiled = CompiledExpression.compile(expr, inner);
+
+        for (int n = 0; n < NUM_ROWS; n += 5) {
+            parent.clear();
+            parent.addTuple(outer, makeRow(n));
+            for (int m = 0; m < NUM_ROWS; m += 2) {
+                TupleLiteral row = makeRow(m);
+                env.clear();
+                env.addTuple(inner, row);
+                checkSame(expr, compiled, env, row);
+            }
+        }
+    }
+
+
+    /**
+     * This test checks that integer division and remainders by zero are
+     * handled in the same way as before compilation.
+     */
+    public void testDivisionByZero() {
+        Schema schema = makeSchema("t");
+        Environment env = new Environment();
+        env.addTuple(schema, new TupleLiteral(7, 7L, 7.0, "s"));
+
+        for (String name : new String[] { "i", "l", "d" }) {
+            for (ArithmeticOperator.Type type : new ArithmeticOperator.Type[] {
+                     ArithmeticOperator.Type.DIVIDE,
+                     ArithmeticOperator.Type.REMAINDER }) {
+                Expression expr = arith(type, col(name), lit(0));
+                checkSame(expr, CompiledExpression.compile(expr, schema), env,
+                    name + " " + type);
+            }
+        }
+    }
+}
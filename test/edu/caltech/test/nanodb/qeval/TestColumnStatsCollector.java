@@ -0,0 +1,117 @@
+package edu.caltech.test.nanodb.qeval;
+
+
+import org.testng.annotations.Test;
+
+import edu.caltech.nanodb.qeval.ColumnStats;
+import edu.caltech.nanodb.qeval.ColumnStatsCollector;
+import edu.caltech.nanodb.qeval.HyperLogLog;
+import edu.caltech.nanodb.relations.SQLDataType;
+
+
+/**
+ * This class exercises the column-stats collector and the HyperLogLog
+ * sketch that it counts distinct values with.
+ */
+@Test
+public class TestColumnStatsCollector {
+
+    /**
+     * Returns true if an estimate is within the specified fraction of the
+     * actual value.
+     */
+    private static boolean isClose(long estimate, long actual, double error) {
+        return Math.abs(estimate - actual) <= actual * error;
+    }
+
+
+    /**
+     * Small numbers of distinct values are counted exactly, whether they are
+     * added as objects or as primitives.
+     */
+    public void testSmallCounts() {
+        ColumnStatsCollector collector =
+            new ColumnStatsCollector(SQLDataType.INTEGER);
+
+        for (int i = 0; i < 1000; i++) {
+            collector.addValue(i % 50);
+            collector.addLong(i % 50);
+            collector.addValue(null);
+        }
+
+        ColumnStats stats = collector.getColumnStats();
+        assert stats.getNumUniqueValues() == 50;
+        assert stats.getNumNullValues() == 1000;
+        assert Integer.valueOf(0).equals(stats.getMinValue());
+        assert Integer.valueOf(49).equals(stats.getMaxValue());
+    }
+
+
+    /** Large numbers of distinct values are estimated closely. */
+    public void testLargeCounts() {
+        ColumnStatsCollector collector =
+            new ColumnStatsCollector(SQLDataType.BIGINT);
+
+        for (long i = 0; i < 200000; i++)
+            collector.addLong(i * 7919L);
+
+        assert isClose(collector.getNumUniqueValues(), 200000, 0.05);
+        assert Long.valueOf(0).equals(collector.getMinValue());
+        assert Long.valueOf(199999 * 7919L).equals(collector.getMaxValue());
+    }
+
+
+    /**
+     * Merging the collectors of two overlapping parts of a column gives the
+     * stats of the whole column.
+     */
+    public void testMerge() {
+        ColumnStatsCollector first =
+            new ColumnStatsCollector(SQLDataType.DOUBLE);
+        ColumnStatsCollector second =
+            new ColumnStatsCollector(SQLDataType.DOUBLE);
+
+        for (int i = 0; i < 30000; i++)
+            first.addDouble(i * 0.5);
+
+        for (int i = 20000; i < 50000; i++)
+            second.addDouble(i * 0.5);
+
+        second.addValue(null);
+
+        first.merge(second);
+        assert isClose(first.getNumUniqueValues(), 50000, 0.05);
+        assert first.getNumNullValues() == 1;
+        assert Double.valueOf(0).equals(first.getMinValue());
+        assert Double.valueOf(49999 * 0.5).equals(first.getMaxValue());
+
+        // Merging small exact sketches keeps the count exact.
+        HyperLogLog a = new HyperLogLog();
+        HyperLogLog b = new HyperLogLog();
+        for (int i = 0; i < 100; i++) {
+            a.add(HyperLogLog.hash(i));
+            b.add(HyperLogLog.hash(i + 60));
+        }
+        a.merge(b);
+        assert a.estimate() == 160;
+    }
+
+
+    /**
+     * Strings have the same hash whether they are added as strings or as
+     * their stored bytes, and string columns have no minimum or maximum.
+     */
+    public void testStrings() throws Exception {
+        ColumnStatsCollector collector =
+            new ColumnStatsCollector(SQLDataType.VARCHAR);
+
+        byte[] bytes = "xxappleyy".getBytes("US-ASCII");
+        collector.addString("apple");
+        collector.addString(bytes, 2, 5);
+        collector.addValue("banana");
+
+        assert collector.getNumUniqueValues() == 2;
+        assert collector.getMinValue() == null;
+        assert collector.getMaxValue() == null;
+    }
+}
@@ -0,0 +1,125 @@
+package edu.caltech.test.nanodb.qeval;
+
+
+import java.util.HashSet;
+
+import org.testng.annotations.Test;
+
+import edu.caltech.nanodb.qeval.JoinGraph;
+
+
+/**
+ * This class exercises the enumeration of the pairs of connected sets of
+ * leaves of join graphs, checking the numbers of pairs of graphs whose
+ * counts are known, and that each set is only used after all of its pairs
+ * have been produced.
+ */
+@Test
+public class TestJoinGraph {
+
+    /**
+     * This visitor counts the pairs produced, and checks that they are
+     * disjoint and connected, that no pair is produced twice, and that the
+     * sets in each pair are leaves or have already been built from pairs.
+     */
+    private static class CheckingVisitor implements JoinGraph.PairVisitor {
+        private JoinGraph graph;
+
+        private HashSet<Long> built = new HashSet<Long>();
+
+        private HashSet<String> pairs = new HashSet<String>();
+
+        int numPairs;
+
+        CheckingVisitor(JoinGraph graph) {
+            this.graph = graph;
+        }
+
+        private boolean isBuilt(long leaves) {
+            return Long.bitCount(leaves) == 1 || built.contains(leaves);
+        }
+
+        @Override
+        public void visitPair(long leaves1, long leaves2) {
+            assert (leaves1 & leaves2) == 0;
+            assert graph.isConnected(leaves1, leaves2);
+            assert isBuilt(leaves1) && isBuilt(leaves2);
+
+            long lo = Math.min(leaves1, leaves2);
+            long hi = Math.max(leaves1, leaves2);
+            assert pairs.add(lo + "," + hi) : "Pair produced twice";
+
+            built.add(leaves1 | leaves2);
+            numPairs++;
+        }
+    }
+
+
+    private static int countPairs(JoinGraph graph) throws Exception {
+        CheckingVisitor visitor = new CheckingVisitor(graph);
+        graph.enumeratePairs(visitor);
+        assert visitor.built.contains(graph.getAllLeaves());
+        return visitor.numPairs;
+    }
+
+
+    /** A chain of n leaves has (n<sup>3</sup> - n) / 6 pairs. */
+    public void testChain() throws Exception {
+        for (int n = 2; n <= 10; n++) {
+            JoinGraph graph = new JoinGraph(n);
+            for (int i = 0; i < n - 1; i++)
+                graph.addEdge((1L << i) | (1L << (i + 1)));
+
+            assert countPairs(graph) == (n * n * n - n) / 6;
+        }
+    }
+
+
+    /** A star of n leaves has (n - 1) 2<sup>n - 2</sup> pairs. */
+    public void testStar() throws Exception {
+        for (int n = 2; n <= 10; n++) {
+            JoinGraph graph = new JoinGraph(n);
+            for (int i = 1; i < n; i++)
+                graph.addEdge(1L | (1L << i));
+
+            assert countPairs(graph) == (n - 1) * (1 << (n - 2));
+        }
+    }
+
+
+    /**
+     * A clique of n leaves has (3<sup>n</sup> - 2<sup>n + 1</sup> + 1) / 2
+     * pairs.  A conjunct that references all of the leaves makes a clique.
+     */
+    public void testClique() throws Exception {
+        for (int n = 2; n <= 8; n++) {
+            JoinGraph graph = new JoinGraph(n);
+            graph.addEdge(graph.getAllLeaves());
+
+            int pow3 = 1;
+            for (int i = 0; i < n; i++)
+                pow3 *= 3;
+
+            assert countPairs(graph) == (pow3 - (1 << (n + 1)) + 1) / 2;
+        }
+    }
+
+
+    /**
+     * A graph with several components is connected by making the leaves of
+     * different components adjacent.
+     */
+    public void testConnectComponents() throws Exception {
+        JoinGraph graph = new JoinGraph(4);
+        graph.addEdge(0x3);
+        assert graph.getNeighbors(0x1) == 0x2;
+        assert !graph.isConnected(0x3, 0x4);
+
+        assert graph.connectComponents() == 3;
+        assert graph.getNeighbors(0x1) == 0xE;
+        assert graph.isConnected(0x3, 0x4);
+        assert graph.connectComponents() == 1;
+
+        countPairs(graph);
+    }
+}
@@ -0,0 +1,218 @@
+package edu.caltech.test.nanodb.qeval;
+
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import edu.caltech.nanodb.expressions.ColumnName;
+import edu.caltech.nanodb.expressions.ColumnValue;
+import edu.caltech.nanodb.expressions.CompareOperator;
+import edu.caltech.nanodb.expressions.Expression;
+import edu.caltech.nanodb.expressions.LiteralValue;
+import edu.caltech.nanodb.expressions.StringMatchOperator;
+import edu.caltech.nanodb.qeval.ColumnStats;
+import edu.caltech.nanodb.qeval.ColumnStatsCollector;
+import edu.caltech.nanodb.qeval.SelectivityEstimator;
+import edu.caltech.nanodb.relations.ColumnInfo;
+import edu.caltech.nanodb.relations.ColumnType;
+import edu.caltech.nanodb.relations.SQLDataType;
+import edu.caltech.nanodb.relations.Schema;
+import edu.caltech.nanodb.relations.TableInfo;
+import edu.caltech.nanodb.storage.TableManager;
+import edu.caltech.test.nanodb.sql.SqlTestCase;
+
+
+/**
+ * This class exercises the selectivity estimates that are made from the
+ * most common values and histograms of skewed columns, and checks that
+ * <tt>ANALYZE</tt> saves them in the table file.
+ */
+@Test
+public class TestSelectivityEstimator extends SqlTestCase {
+
+    /** The number of values in each of the test columns. */
+    private static final int NUM_VALUES = 10000;
+
+
+    /** The schema of the test columns. */
+    private Schema schema;
+
+
+    /** The stats of the test columns. */
+    private ArrayList<ColumnStats> stats;
+
+
+    /**
+     * Collects the stats of two skewed columns.  Half of the values of the
+     * integer column <tt>a</tt> are 7, and the rest are spread over
+     * [0, 1000).  Forty percent of the values of the string column <tt>b</tt>
+     * are <tt>'apple'</tt>, and the rest are <tt>'item0'</tt> to
+     * <tt>'item1999'</tt>.
+     */
+    @BeforeClass
+    public void collectStats() {
+        schema = new Schema();
+        schema.addColumnInfo(
+            new ColumnInfo("a", new ColumnType(SQLDataType.INTEGER)));
+        schema.addColumnInfo(
+            new ColumnInfo("b", new ColumnType(SQLDataType.VARCHAR)));
+
+        ColumnStatsCollector aCollector =
+            new ColumnStatsCollector(SQLDataType.INTEGER);
+        ColumnStatsCollector bCollector =
+            new ColumnStatsCollector(SQLDataType.VARCHAR);
+
+        Random rand = new Random(12345);
+        for (int i = 0; i < NUM_VALUES; i++) {
+            aCollector.addLong(i % 2 == 0 ? 7 : rand.nextInt(1000));
+
+            if (rand.nextInt(10) < 4)
+                bCollector.addString("apple");
+            else
+                bCollector.addString("item" + rand.nextInt(2000));
+        }
+
+        stats = new ArrayList<ColumnStats>();
+        stats.add(aCollector.getColumnStats());
+        stats.add(bCollector.getColumnStats());
+    }
+
+
+    private float estimate(Expression expr) {
+        return SelectivityEstimator.estimateSelectivity(expr, schema, stats);
+    }
+
+
+    private static Expression compare(CompareOperator.Type type,
+                                      String column, Object value) {
+        return new CompareOperator(type,
+            new ColumnValue(new ColumnName(column)), new LiteralValue(value));
+    }
+
+
+    private static boolean isClose(float estimate, float actual,
+                                   float error) {
+        return Math.abs(estimate - actual) <= error;
+    }
+
+
+    /** The skewed values are among the most common values. */
+    public void testMostCommonValues() {
+        ColumnStats aStats = stats.get(0);
+        assert aStats.hasMostCommonValues();
+        assert Integer.valueOf(7).equals(aStats.getMostCommonValues()[0]);
+        assert isClose(aStats.getMostCommonFrequencies()[0], 0.5f, 0.03f);
+
+        ColumnStats bStats = stats.get(1);
+        assert bStats.hasMostCommonValues();
+        assert "apple".equals(bStats.getMostCommonValues()[0]);
+        assert bStats.hasHistogram();
+    }
+
+
+    /**
+     * Equality comparisons use the frequencies of the most common values,
+     * and spread the rest of the column over its other values.
+     */
+    public void testEquals() {
+        float sel = estimate(compare(CompareOperator.Type.EQUALS, "a", 7));
+        assert isClose(sel, 0.5f, 0.03f) : sel;
+
+        sel = estimate(compare(CompareOperator.Type.EQUALS, "a", 500));
+        assert sel < 0.002f : sel;
+
+        sel = estimate(compare(CompareOperator.Type.NOT_EQUALS, "a", 7));
+        assert isClose(sel, 0.5f, 0.03f) : sel;
+
+        sel = estimate(compare(CompareOperator.Type.EQUALS, "b", "apple"));
+        assert isClose(sel, 0.4f, 0.03f) : sel;
+
+        sel = estimate(compare(CompareOperator.Type.EQUALS, "b", "item5"));
+        assert sel < 0.002f : sel;
+    }
+
+
+    /**
+     * Range comparisons count the most common values on the right side of
+     * the comparison, and use the histogram for the other values.
+     */
+    public void testRanges() {
+        // Half of the values are 7, and a quarter are other values below 500.
+        float sel = estimate(compare(CompareOperator.Type.LESS_THAN, "a", 500));
+        assert isClose(sel, 0.75f, 0.05f) : sel;
+
+        sel = estimate(compare(CompareOperator.Type.GREATER_OR_EQUAL, "a", 500));
+        assert isClose(sel, 0.25f, 0.05f) : sel;
+
+        sel = estimate(compare(CompareOperator.Type.LESS_THAN, "a", 7));
+        assert isClose(sel, 0.0035f, 0.01f) : sel;
+
+        sel = estimate(compare(CompareOperator.Type.LESS_OR_EQUAL, "a", 7));
+        assert isClose(sel, 0.5f, 0.03f) : sel;
+
+        sel = estimate(compare(CompareOperator.Type.GREATER_THAN, "a", 2000));
+        assert sel == 0 : sel;
+
+        // String columns have no minimum and maximum, but have a histogram.
+        sel = estimate(compare(CompareOperator.Type.LESS_THAN, "b", "b"));
+        assert isClose(sel, 0.4f, 0.03f) : sel;
+    }
+
+
+    /**
+     * String matches use the most common values and the histogram bounds
+     * that match the pattern.
+     */
+    public void testStringMatch() {
+        Expression match = new StringMatchOperator(
+            StringMatchOperator.Type.LIKE,
+            new ColumnValue(new ColumnName("b")), new LiteralValue("app%"));
+        float sel = estimate(match);
+        assert isClose(sel, 0.4f, 0.03f) : sel;
+
+        // Of item0 to item1999, 1111 start with "item1".
+        match = new StringMatchOperator(StringMatchOperator.Type.LIKE,
+            new ColumnValue(new ColumnName("b")), new LiteralValue("item1%"));
+        sel = estimate(match);
+        assert isClose(sel, 0.6f * 1111 / 2000, 0.1f) : sel;
+    }
+
+
+    /**
+     * <tt>ANALYZE</tt> saves the most common values and the histogram in the
+     * table file, so that they are read back when the table is opened.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testStatsAreSaved() throws Exception {
+        tryDoCommand("CREATE TABLE test_skewed_stats (a INTEGER, b VARCHAR(20))");
+        for (int i = 0; i < 1000; i++) {
+            tryDoCommand(String.format("INSERT INTO test_skewed_stats " +
+                "VALUES (%d, 'b%d')", (i % 3 == 0) ? 42 : i, i % 5));
+        }
+        tryDoCommand("ANALYZE test_skewed_stats");
+
+        TableManager tableManager = server.getStorageManager().getTableManager();
+        TableInfo tableInfo = tableManager.openTable("TEST_SKEWED_STATS");
+        tableManager.closeTable(tableInfo);
+        tableInfo = tableManager.openTable("TEST_SKEWED_STATS");
+
+        ColumnStats aStats =
+            tableInfo.getTupleFile().getStats().getColumnStats(0);
+        assert Integer.valueOf(42).equals(aStats.getMostCommonValues()[0]);
+        assert aStats.hasHistogram();
+        Object[] bounds = aStats.getHistogramBounds();
+        assert Integer.valueOf(1).equals(bounds[0]);
+        assert Integer.valueOf(998).equals(bounds[bounds.length - 1]);
+
+        // Column b has only five values, so they are all most common values.
+        ColumnStats bStats =
+            tableInfo.getTupleFile().getStats().getColumnStats(1);
+        assert bStats.getMostCommonValues().length == 5;
+        assert !bStats.hasHistogram();
+        assert isClose(bStats.getMostCommonFrequencies()[0], 0.2f, 0.001f);
+    }
+}
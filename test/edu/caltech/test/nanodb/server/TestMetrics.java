@@ -0,0 +1,142 @@
+package edu.caltech.test.nanodb.server;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import edu.caltech.nanodb.server.performance.Counter;
+import edu.caltech.nanodb.server.performance.Gauge;
+import edu.caltech.nanodb.server.performance.Histogram;
+import edu.caltech.nanodb.server.performance.Metric;
+import edu.caltech.nanodb.server.performance.MetricsRegistry;
+
+
+/**
+ * This class exercises the counters, gauges and histograms of the metrics
+ * registry.
+ */
+@Test
+public class TestMetrics {
+
+    /**
+     * Counters are 64 bits, and can be read and reset.
+     */
+    public void testCounter() {
+        Counter counter = new Counter("test.counter");
+        counter.inc();
+        counter.add(Integer.MAX_VALUE);
+        counter.add(Integer.MAX_VALUE);
+        assert counter.get() == 2L * Integer.MAX_VALUE + 1;
+
+        assert counter.getAndReset() == 2L * Integer.MAX_VALUE + 1;
+        assert counter.get() == 0;
+    }
+
+
+    /**
+     * Small values are recorded exactly, and larger values are within about
+     * 3% of their actual values.
+     */
+    public void testHistogramPercentiles() {
+        Histogram histogram = new Histogram("test.histogram");
+        assert histogram.getPercentile(50) == 0;
+
+        for (int i = 1; i <= 50; i++)
+            histogram.record(i);
+
+        assert histogram.getCount() == 50;
+        assert histogram.getMax() == 50;
+        assert histogram.getPercentile(50) == 25;
+        assert histogram.getPercentile(100) == 50;
+        assert histogram.getMean() == 25.5;
+
+        histogram.reset();
+        for (long i = 1; i <= 100000; i++)
+            histogram.record(i * 1000);
+
+        checkNear(histogram.getPercentile(50), 50000000L);
+        checkNear(histogram.getPercentile(99), 99000000L);
+        assert histogram.getPercentile(100) == 100000000L;
+        assert histogram.getMax() == 100000000L;
+
+        // The largest values still fit.
+        histogram.record(Long.MAX_VALUE);
+        assert histogram.getPercentile(100) == Long.MAX_VALUE;
+    }
+
+
+    private void checkNear(long actual, long expected) {
+        assert Math.abs(actual - expected) <= expected / 32 :
+            "Expected about " + expected + "; got " + actual;
+    }
+
+
+    /**
+     * Every value recorded by many threads at once is counted.
+     */
+    public void testHistogramConcurrent() throws Exception {
+        final Histogram histogram = new Histogram("test.concurrent");
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                public void run() {
+                    for (int j = 0; j < 10000; j++)
+                        histogram.record(j);
+                }
+            });
+            threads[i].start();
+        }
+
+        for (Thread thread : threads)
+            thread.join();
+
+        assert histogram.getCount() == 40000;
+        assert histogram.getMax() == 9999;
+    }
+
+
+    /**
+     * The registry returns the same metric for a name each time, keeps
+     * kinds of metrics apart, and lists and dumps its metrics by name.
+     */
+    public void testRegistry() {
+        MetricsRegistry registry = MetricsRegistry.getInstance();
+
+        Counter counter = registry.counter("test.registry.b");
+        assert registry.counter("test.registry.b") == counter;
+        assert registry.getMetric("test.registry.b") == counter;
+        assert registry.getMetric("test.registry.missing") == null;
+
+        Histogram histogram = registry.histogram("test.registry.a");
+        histogram.record(5);
+
+        registry.addGauge(new Gauge("test.registry.c") {
+            public double getValue() {
+                return 0.5;
+            }
+        });
+
+        try {
+            registry.histogram("test.registry.b");
+            assert false : "A counter was returned as a histogram";
+        }
+        catch (IllegalArgumentException e) {
+            // Success.
+        }
+
+        List<Metric> metrics = registry.getMetrics();
+        int a = metrics.indexOf(histogram);
+        int b = metrics.indexOf(counter);
+        assert a >= 0 && b == a + 1;
+        assert metrics.get(b + 1).getName().equals("test.registry.c");
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        registry.dump(new PrintStream(baos, true));
+        String dump = baos.toString();
+        assert dump.contains("test.registry.a = count=1") : dump;
+        assert dump.contains("test.registry.c = 0.5000") : dump;
+    }
+}
@@ -11,6 +11,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Properties;
 
+import edu.caltech.nanodb.client.SessionState;
 import edu.caltech.nanodb.server.CommandResult;
 import org.apache.commons.io.FileUtils;
 
@@ -159,6 +160,56 @@ public class SqlTestCase {
     }
 
 
+    /**
+     * Returns a new session, so that a test can interleave the commands of
+     * several sessions in one thread.  The session is created by another
+     * thread, since each thread starts with a session of its own.
+     */
+    protected SessionState newSession() throws InterruptedException {
+        final SessionState[] session = new SessionState[1];
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                session[0] = SessionState.get();
+            }
+        });
+        thread.start();
+        thread.join();
+        return session[0];
+    }
+
+
+    /**
+     * Runs a command in the specified session of this thread.
+     *
+     * @param session the session to run the command in
+     * @param command the SQL command to run
+     * @param includeTuples if true, the command's result includes the
+     *        tuples it produced
+     * @return the result of the command
+     */
+    protected CommandResult doCommandAs(SessionState session, String command,
+                                        boolean includeTuples)
+        throws Exception {
+
+        SessionState current = SessionState.get();
+        SessionState.set(session);
+        try {
+            return server.doCommand(command, includeTuples);
+        }
+        finally {
+            SessionState.set(current);
+        }
+    }
+
+
+    /** Runs a command in the specified session of this thread. */
+    protected CommandResult doCommandAs(SessionState session, String command)
+        throws Exception {
+
+        return doCommandAs(session, command, false);
+    }
+
+
     /**
      * This helper function examines two collections of tuples, the expected
      * tuples and the actual tuples, and returns <tt>true</tt> if they are the
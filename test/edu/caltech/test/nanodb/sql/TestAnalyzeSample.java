@@ -0,0 +1,148 @@
+package edu.caltech.test.nanodb.sql;
+
+
+import java.util.Random;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import edu.caltech.nanodb.qeval.TableStats;
+import edu.caltech.nanodb.storage.TableSample;
+
+
+/**
+ * This class exercises <tt>ANALYZE</tt> on the heap and linear-hashing
+ * table formats, both of the whole table and of a sample of it, to see if
+ * the statistics are close to the actual values.
+ */
+@Test
+public class TestAnalyzeSample extends SqlTestCase {
+
+    /** The number of rows loaded into each of the test tables. */
+    private static final int NUM_ROWS = 4000;
+
+
+    /** The number of distinct values in column <tt>b</tt>. */
+    private static final int NUM_B_VALUES = 100;
+
+
+    /**
+     * Creates and loads the test tables.  Column <tt>a</tt> is unique, and
+     * column <tt>b</tt> has {@link #NUM_B_VALUES} distinct values.  The
+     * values of <tt>b</tt> are random, so that they don't depend on which
+     * page or hash bucket a row is stored in.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    @BeforeClass
+    public void loadRows() throws Exception {
+        tryDoCommand("CREATE TABLE test_analyze_heap " +
+            "(a INTEGER, b INTEGER, c VARCHAR(20)) " +
+            "PROPERTIES (pagesize = 4096);");
+        tryDoCommand("CREATE TABLE test_analyze_hash " +
+            "(a INTEGER, b INTEGER, c VARCHAR(20)) " +
+            "PROPERTIES (storage = 'lin-hash', pagesize = 4096, hashkey = '0');");
+
+        Random rand = new Random(12345);
+        for (int i = 0; i < NUM_ROWS; i++) {
+            String values = String.format("VALUES (%d, %d, 'row %d')",
+                i, rand.nextInt(NUM_B_VALUES), i);
+            tryDoCommand("INSERT INTO test_analyze_heap " + values);
+            tryDoCommand("INSERT INTO test_analyze_hash " + values);
+        }
+    }
+
+
+    private TableStats getStats(String tableName) throws Exception {
+        return server.getStorageManager().getTableManager()
+            .openTable(tableName.toUpperCase()).getTupleFile().getStats();
+    }
+
+
+    /**
+     * Returns true if an estimate is within the specified fraction of the
+     * actual value.
+     */
+    private static boolean isClose(long estimate, long actual, double error) {
+        return Math.abs(estimate - actual) <= actual * error;
+    }
+
+
+    /** Checks the stats of a table that has been analyzed. */
+    private void checkStats(String tableName, double error) throws Exception {
+        TableStats stats = getStats(tableName);
+
+        assert isClose(stats.numTuples, NUM_ROWS, error) : stats.toString();
+        assert isClose(stats.getColumnStats(0).getNumUniqueValues(),
+            NUM_ROWS, error) : stats.toString();
+        assert isClose(stats.getColumnStats(1).getNumUniqueValues(),
+            NUM_B_VALUES, 0.05) : stats.toString();
+        assert stats.getColumnStats(1).getNumNullValues() == 0;
+        assert stats.avgPageFill > 0 && stats.avgPageFill <= 1 :
+            stats.toString();
+    }
+
+
+    /**
+     * Analyzing the whole table gives exact counts, apart from the error of
+     * the distinct-value sketch.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testAnalyzeWholeTable() throws Exception {
+        tryDoCommand("ANALYZE test_analyze_heap, test_analyze_hash");
+
+        checkStats("test_analyze_heap", 0.05);
+        assert getStats("test_analyze_heap").numTuples == NUM_ROWS;
+
+        checkStats("test_analyze_hash", 0.05);
+        TableStats stats = getStats("test_analyze_hash");
+        assert stats.numTuples == NUM_ROWS;
+        assert stats.avgChainLength >= 1 : stats.toString();
+    }
+
+
+    /**
+     * Analyzing a sample of the table scales the stats up to the whole
+     * table.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testAnalyzeSample() throws Exception {
+        tryDoCommand("ANALYZE test_analyze_heap SAMPLE 50 PERCENT");
+        checkStats("test_analyze_heap", 0.2);
+
+        tryDoCommand("ANALYZE test_analyze_hash SAMPLE 12.5 PERCENT");
+        checkStats("test_analyze_hash", 0.35);
+        assert getStats("test_analyze_hash").avgChainLength >= 1;
+
+        // A sample larger than the table reads the whole table.
+        tryDoCommand("ANALYZE test_analyze_heap SAMPLE 100000 PAGES");
+        assert getStats("test_analyze_heap").numTuples == NUM_ROWS;
+    }
+
+
+    /**
+     * A sample chooses distinct units, in increasing order, and reads at
+     * least one unit of a nonempty table.
+     */
+    public void testChooseUnits() {
+        TableSample sample =
+            new TableSample(10, TableSample.Unit.PERCENT, new Random(42));
+
+        assert sample.getSampleSize(0) == 0;
+        assert sample.getSampleSize(3) == 1;
+        assert sample.getSampleSize(1000) == 100;
+
+        int[] units = sample.chooseUnits(1000);
+        assert units.length == 100;
+        for (int i = 0; i < units.length; i++) {
+            assert units[i] >= 0 && units[i] < 1000;
+            assert i == 0 || units[i] > units[i - 1];
+        }
+
+        sample = new TableSample(5, TableSample.Unit.PAGES);
+        assert sample.chooseUnits(3).length == 3;
+        assert sample.chooseUnits(50).length == 5;
+    }
+}
@@ -0,0 +1,231 @@
+package edu.caltech.test.nanodb.sql;
+
+
+import java.util.ArrayList;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.plans.PlanNode;
+import edu.caltech.nanodb.server.CommandResult;
+
+
+/**
+ * This class exercises the database with queries that are evaluated a batch
+ * of tuples at a time, to see if filters, projections, grouping and joins
+ * produce the expected results with batches of different sizes, including
+ * batches that are partly or entirely filtered out.
+ */
+@Test
+public class TestBatchExecution extends SqlTestCase {
+
+    /** The number of rows loaded into the main test table. */
+    private static final int NUM_ROWS = 100;
+
+
+    /** The number of distinct values in column <tt>g</tt>. */
+    private static final int NUM_GROUPS = 8;
+
+
+    /** The batch sizes that each test is run with. */
+    private static final String[] BATCH_SIZES = { "1", "7", "1024" };
+
+
+    /** The batch size that was set before the test changed it. */
+    private String oldBatchSize = System.getProperty(PlanNode.PROP_BATCH_SIZE);
+
+
+    public TestBatchExecution() {
+        super("setup_testBatchExecution");
+    }
+
+
+    /**
+     * Loads the test tables.  Columns <tt>g</tt> and <tt>f</tt> have some
+     * <tt>NULL</tt>s, and only some groups have a name.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    @BeforeClass
+    public void loadRows() throws Exception {
+        for (int i = 0; i < NUM_ROWS; i++) {
+            tryDoCommand(String.format(
+                "INSERT INTO test_batch_a VALUES (%d, %s, %s)",
+                i, getGroup(i), getValue(i)));
+        }
+
+        for (int g = 0; g < NUM_GROUPS; g += 2) {
+            tryDoCommand(String.format(
+                "INSERT INTO test_batch_b VALUES (%d, 'g%d')", g, g));
+        }
+    }
+
+
+    private static Integer getGroup(int i) {
+        return (i % 13 == 4) ? null : i % NUM_GROUPS;
+    }
+
+
+    private static Double getValue(int i) {
+        return (i % 9 == 2) ? null : i * 0.5;
+    }
+
+
+    /**
+     * Restores the batch size that was set before the test changed it.
+     */
+    @AfterMethod
+    public void restoreBatchSize() {
+        if (oldBatchSize != null)
+            System.setProperty(PlanNode.PROP_BATCH_SIZE, oldBatchSize);
+        else
+            System.clearProperty(PlanNode.PROP_BATCH_SIZE);
+    }
+
+
+    /**
+     * This test filters the rows of the table with predicates that remove
+     * none, some and all of the rows of each batch.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testFilters() throws Throwable {
+        for (String size : BATCH_SIZES) {
+            System.setProperty(PlanNode.PROP_BATCH_SIZE, size);
+            ArrayList<TupleLiteral> expected = new ArrayList<TupleLiteral>();
+            for (int i = 0; i < NUM_ROWS; i++) {
+                Integer g = getGroup(i);
+                Double f = getValue(i);
+                if (g != null && g > 2 && f != null && f < 30)
+                    expected.add(new TupleLiteral(i, f));
+            }
+
+            CommandResult result = server.doCommand(
+                "SELECT id, f FROM test_batch_a WHERE g > 2 AND f < 30",
+                true);
+            assert checkUnorderedResults(toArray(expected), result);
+
+            result = server.doCommand(
+                "SELECT id, f FROM test_batch_a WHERE id < 0", true);
+            assert checkUnorderedResults(new TupleLiteral[0], result);
+        }
+    }
+
+
+    /**
+     * This test projects columns and computed values from rows that pass a
+     * filter with <tt>OR</tt>, <tt>NOT</tt> and <tt>IS NULL</tt>.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testProjections() throws Throwable {
+        for (String size : BATCH_SIZES) {
+            System.setProperty(PlanNode.PROP_BATCH_SIZE, size);
+            ArrayList<TupleLiteral> expected = new ArrayList<TupleLiteral>();
+            for (int i = 0; i < NUM_ROWS; i++) {
+                Integer g = getGroup(i);
+                Double f = getValue(i);
+                if (g == null || !(i >= 10)) {
+                    expected.add(new TupleLiteral(
+                        f != null ? f * 2 : null, i + 1, g));
+                }
+            }
+
+            CommandResult result = server.doCommand(
+                "SELECT f * 2, id + 1, g FROM test_batch_a " +
+                "WHERE g IS NULL OR NOT id >= 10", true);
+            assert checkUnorderedResults(toArray(expected), result);
+        }
+    }
+
+
+    /**
+     * This test groups the rows of the table, including the group of
+     * <tt>NULL</tt> keys, and filters the groups with a <tt>HAVING</tt>
+     * clause.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testGrouping() throws Throwable {
+        for (String size : BATCH_SIZES) {
+            System.setProperty(PlanNode.PROP_BATCH_SIZE, size);
+            ArrayList<TupleLiteral> expected = new ArrayList<TupleLiteral>();
+            for (int key = -1; key < NUM_GROUPS; key++) {
+                Integer g = (key < 0) ? null : key;
+                int count = 0;
+                int sum = 0;
+                for (int i = 0; i < NUM_ROWS; i++) {
+                    if (g == null ? getGroup(i) == null :
+                                    g.equals(getGroup(i))) {
+                        count++;
+                        sum += i;
+                    }
+                }
+                if (count > 5)
+                    expected.add(new TupleLiteral(g, count, sum));
+            }
+
+            CommandResult result = server.doCommand(
+                "SELECT g, COUNT(*), SUM(id) FROM test_batch_a " +
+                "GROUP BY g HAVING COUNT(*) > 5", true);
+            assert checkUnorderedResults(toArray(expected), result);
+        }
+    }
+
+
+    /**
+     * This test joins the table with the table of group names, where only
+     * some groups have a name and rows with <tt>NULL</tt> keys never match.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testJoin() throws Throwable {
+        for (String size : BATCH_SIZES) {
+            System.setProperty(PlanNode.PROP_BATCH_SIZE, size);
+            ArrayList<TupleLiteral> expected = new ArrayList<TupleLiteral>();
+            for (int i = 0; i < NUM_ROWS; i++) {
+                Integer g = getGroup(i);
+                if (g != null && g % 2 == 0 && i % 3 == 0)
+                    expected.add(new TupleLiteral(i, "g" + g));
+            }
+
+            CommandResult result = server.doCommand(
+                "SELECT id, name FROM test_batch_a a JOIN test_batch_b b " +
+                "ON a.g = b.g WHERE a.id % 3 = 0", true);
+            assert checkUnorderedResults(toArray(expected), result);
+        }
+    }
+
+
+    /**
+     * This test copies filtered rows into another table with
+     * <tt>INSERT ... SELECT</tt>, which also reads its rows in batches.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testInsertSelect() throws Throwable {
+        for (String size : BATCH_SIZES) {
+            System.setProperty(PlanNode.PROP_BATCH_SIZE, size);
+            ArrayList<TupleLiteral> expected = new ArrayList<TupleLiteral>();
+            for (int i = 0; i < NUM_ROWS; i++) {
+                if (Integer.valueOf(3).equals(getGroup(i)))
+                    expected.add(new TupleLiteral(i, 3));
+            }
+
+            tryDoCommand("DELETE FROM test_batch_copy");
+            tryDoCommand("INSERT INTO test_batch_copy " +
+                "SELECT id, g FROM test_batch_a WHERE g = 3");
+
+            CommandResult result =
+                server.doCommand("SELECT id, g FROM test_batch_copy", true);
+            assert checkUnorderedResults(toArray(expected), result);
+        }
+    }
+
+
+    private static TupleLiteral[] toArray(ArrayList<TupleLiteral> tuples) {
+        return tuples.toArray(new TupleLiteral[tuples.size()]);
+    }
+}
@@ -0,0 +1,227 @@
+package edu.caltech.test.nanodb.sql;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import edu.caltech.nanodb.client.SessionState;
+import edu.caltech.nanodb.commands.QueryCommand;
+import edu.caltech.nanodb.plans.NestedLoopsJoinNode;
+import edu.caltech.nanodb.plans.PlanMetrics;
+import edu.caltech.nanodb.plans.PlanNode;
+import edu.caltech.nanodb.plans.SortNode;
+import edu.caltech.nanodb.qeval.EvalStats;
+import edu.caltech.nanodb.qeval.QueryEvaluator;
+import edu.caltech.nanodb.qeval.TupleProcessor;
+import edu.caltech.nanodb.relations.Schema;
+import edu.caltech.nanodb.relations.Tuple;
+
+
+/**
+ * This class exercises the metrics that plan nodes record while they are
+ * evaluated, and <tt>EXPLAIN ANALYZE</tt>, which reports them.
+ */
+@Test
+public class TestExplainAnalyze extends SqlTestCase {
+
+    /** The number of rows in table <tt>test_ea</tt>. */
+    private static final int NUM_ROWS = 40;
+
+
+    /** A tuple processor that only counts the tuples it is given. */
+    private static class TupleCounter implements TupleProcessor {
+        int count;
+
+        public void setSchema(Schema schema) {
+        }
+
+        public void process(Tuple tuple) {
+            count++;
+        }
+
+        public void finish() {
+        }
+    }
+
+
+    /**
+     * Creates the test tables.  Table <tt>test_ea</tt> has the rows
+     * (<em>i</em>, <em>i</em> % 4) for <em>i</em> in [0, 40), and table
+     * <tt>test_ea_small</tt> has the rows 0 to 4.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    @BeforeClass
+    public void createTables() throws Exception {
+        tryDoCommand("CREATE TABLE test_ea (a INTEGER, b INTEGER)");
+        for (int i = 0; i < NUM_ROWS; i++) {
+            tryDoCommand(String.format(
+                "INSERT INTO test_ea VALUES (%d, %d)", i, i % 4));
+        }
+
+        tryDoCommand("CREATE TABLE test_ea_small (c INTEGER)");
+        for (int i = 0; i < 5; i++)
+            tryDoCommand("INSERT INTO test_ea_small VALUES (" + i + ")");
+    }
+
+
+    /**
+     * Plans a query, and evaluates its plan with metrics enabled.
+     */
+    private PlanNode evaluateWithMetrics(String query, TupleCounter counter)
+        throws Exception {
+
+        QueryCommand cmd = (QueryCommand) server.parseCommand(query);
+        cmd.preparePlan(server.getStorageManager());
+
+        PlanNode plan = cmd.getPlan();
+        plan.setMetricsEnabled(true);
+        EvalStats stats = QueryEvaluator.executePlan(plan, counter);
+        assert stats.getRowsProduced() == counter.count;
+
+        return plan;
+    }
+
+
+    /** Finds the first node of the specified class in a plan. */
+    private PlanNode findNode(PlanNode plan, Class<?> nodeClass) {
+        if (plan == null || nodeClass.isInstance(plan))
+            return plan;
+
+        PlanNode node = findNode(plan.getLeftChild(), nodeClass);
+        if (node == null)
+            node = findNode(plan.getRightChild(), nodeClass);
+
+        return node;
+    }
+
+
+    /** Finds a leaf of a plan. */
+    private PlanNode findLeaf(PlanNode plan) {
+        while (plan.getLeftChild() != null)
+            plan = plan.getLeftChild();
+
+        return plan;
+    }
+
+
+    /**
+     * Every node of an evaluated plan records the rows it produced, and the
+     * scan records the pages it loaded.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testRowsAndPages() throws Exception {
+        TupleCounter counter = new TupleCounter();
+        PlanNode plan =
+            evaluateWithMetrics("SELECT a FROM test_ea WHERE b = 1", counter);
+
+        assert counter.count == NUM_ROWS / 4;
+
+        PlanMetrics metrics = plan.getMetrics();
+        assert metrics.getRows() == counter.count;
+        assert metrics.getLoops() == 1;
+        assert metrics.getElapsedNanos() > 0;
+
+        PlanMetrics scanMetrics = findLeaf(plan).getMetrics();
+        assert scanMetrics.getLoops() == 1;
+        assert scanMetrics.getPagesHit() + scanMetrics.getPagesRead() > 0;
+
+        // A node's pages include the pages of its children.
+        assert metrics.getPagesHit() >= scanMetrics.getPagesHit();
+
+        // Turning metrics off removes them.
+        plan.setMetricsEnabled(false);
+        assert plan.getMetrics() == null;
+        assert findLeaf(plan).getMetrics() == null;
+    }
+
+
+    /**
+     * The inner side of a nested-loop join is initialized once for each
+     * outer tuple, which is reported as its number of loops.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testLoops() throws Exception {
+        TupleCounter counter = new TupleCounter();
+        PlanNode plan = evaluateWithMetrics(
+            "SELECT * FROM test_ea, test_ea_small WHERE a < c", counter);
+
+        assert counter.count == 10;
+
+        PlanNode join = findNode(plan, NestedLoopsJoinNode.class);
+        assert join != null : PlanNode.printNodeTreeToString(plan, true);
+        assert join.getMetrics().getRows() == counter.count;
+
+        long outerRows = join.getLeftChild().getMetrics().getRows();
+        assert outerRows > 1;
+        assert join.getRightChild().getMetrics().getLoops() == outerRows;
+    }
+
+
+    /**
+     * A sort reports the memory it used.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testMemory() throws Exception {
+        TupleCounter counter = new TupleCounter();
+        PlanNode plan = evaluateWithMetrics(
+            "SELECT a, b FROM test_ea ORDER BY b, a DESC", counter);
+
+        assert counter.count == NUM_ROWS;
+
+        PlanNode sort = findNode(plan, SortNode.class);
+        assert sort != null;
+        assert sort.getMetrics().getPeakMemory() > 0;
+        assert sort.getMetrics().getRows() == NUM_ROWS;
+    }
+
+
+    /**
+     * <tt>EXPLAIN ANALYZE</tt> prints the actual metrics of each node next to
+     * its estimated cost, but <tt>EXPLAIN</tt> doesn't.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testExplainAnalyze() throws Exception {
+        String query = "SELECT b, COUNT(*) FROM test_ea WHERE a > 3 GROUP BY b";
+
+        String output = runAndCapture("EXPLAIN ANALYZE " + query);
+        assert output.contains("cost=") : output;
+        assert output.contains("actual=[rows=4, loops=1") : output;
+        assert output.contains("Actual 4 tuples") : output;
+
+        output = runAndCapture("EXPLAIN " + query);
+        assert output.contains("cost=") : output;
+        assert !output.contains("actual=") : output;
+
+        // EXPLAIN ANALYZE of a modification performs it.
+        runAndCapture("EXPLAIN ANALYZE DELETE FROM test_ea_small WHERE c = 4");
+        assert tryDoCommand("SELECT * FROM test_ea_small", true)
+            .getTuples().size() == 4;
+        tryDoCommand("INSERT INTO test_ea_small VALUES (4)");
+    }
+
+
+    /** Runs a command, returning what it printed to the session. */
+    private String runAndCapture(String command) throws Exception {
+        SessionState session = SessionState.get();
+        PrintStream oldOut = session.getOutputStream();
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        session.setOutputStream(new PrintStream(baos, true, "US-ASCII"));
+        try {
+            tryDoCommand(command);
+        }
+        finally {
+            session.setOutputStream(oldOut);
+        }
+
+        return baos.toString("US-ASCII");
+    }
+}
@@ -0,0 +1,111 @@
+package edu.caltech.test.nanodb.sql;
+
+
+import org.testng.annotations.Test;
+
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.plans.HashJoinNode;
+import edu.caltech.nanodb.server.CommandResult;
+
+
+/**
+ * This class exercises the database with equijoins, which the planner
+ * evaluates with the hash join, to see if inner and outer joins produce the
+ * expected results both in memory and when the hash table is spilled to
+ * disk.
+ */
+@Test
+public class TestHashJoin extends SqlTestCase {
+
+    public TestHashJoin() {
+        super("setup_testHashJoin");
+    }
+
+
+    /**
+     * This test performs an inner equijoin between an <tt>INTEGER</tt> and a
+     * <tt>BIGINT</tt> column, to see if matching values of different types
+     * are joined, and <tt>NULL</tt>s aren't.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testInnerJoin() throws Throwable {
+        TupleLiteral[] expected = {
+            new TupleLiteral(1, "one", 1L, 10),
+            new TupleLiteral(2, "two", 2L, 20),
+            new TupleLiteral(2, "two", 2L, 21),
+            new TupleLiteral(4, "four", 4L, 40)
+        };
+
+        CommandResult result = server.doCommand(
+            "SELECT * FROM test_hj_left, test_hj_right WHERE a = c", true);
+        assert checkUnorderedResults(expected, result);
+
+        // The other conjuncts of the join predicate must also be applied.
+        TupleLiteral[] expected2 = {
+            new TupleLiteral(2, "two", 2L, 21),
+            new TupleLiteral(4, "four", 4L, 40)
+        };
+
+        result = server.doCommand("SELECT * FROM test_hj_left JOIN " +
+            "test_hj_right ON a = c AND d > 20", true);
+        assert checkUnorderedResults(expected2, result);
+    }
+
+
+    /**
+     * This test performs left and right outer equijoins, to see if
+     * unmatched rows are padded with <tt>NULL</tt>s.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testOuterJoins() throws Throwable {
+        TupleLiteral[] expectedLeft = {
+            new TupleLiteral(1, "one", 1L, 10),
+            new TupleLiteral(2, "two", 2L, 20),
+            new TupleLiteral(2, "two", 2L, 21),
+            new TupleLiteral(3, "three", null, null),
+            new TupleLiteral(4, "four", 4L, 40),
+            new TupleLiteral(null, "none", null, null)
+        };
+
+        CommandResult result = server.doCommand("SELECT * FROM test_hj_left " +
+            "LEFT OUTER JOIN test_hj_right ON a = c", true);
+        assert checkUnorderedResults(expectedLeft, result);
+
+        TupleLiteral[] expectedRight = {
+            new TupleLiteral(1, "one", 1L, 10),
+            new TupleLiteral(2, "two", 2L, 20),
+            new TupleLiteral(2, "two", 2L, 21),
+            new TupleLiteral(4, "four", 4L, 40),
+            new TupleLiteral(null, null, 5L, 50),
+            new TupleLiteral(null, null, null, 60)
+        };
+
+        result = server.doCommand("SELECT * FROM test_hj_left " +
+            "RIGHT OUTER JOIN test_hj_right ON a = c", true);
+        assert checkUnorderedResults(expectedRight, result);
+    }
+
+
+    /**
+     * This test reruns the joins with a memory budget so small that every
+     * partition of the hash table is spilled to disk.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testSpilledJoins() throws Throwable {
+        String oldBudget = System.getProperty(HashJoinNode.PROP_MEMORY_BUDGET);
+        System.setProperty(HashJoinNode.PROP_MEMORY_BUDGET, "1");
+        try {
+            testInnerJoin();
+            testOuterJoins();
+        }
+        finally {
+            if (oldBudget != null)
+                System.setProperty(HashJoinNode.PROP_MEMORY_BUDGET, oldBudget);
+            else
+                System.clearProperty(HashJoinNode.PROP_MEMORY_BUDGET);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package edu.caltech.test.nanodb.sql;
+
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.plans.HashedGroupAggregateNode;
+import edu.caltech.nanodb.server.CommandResult;
+
+
+/**
+ * This class exercises the database with grouping and aggregation over
+ * many groups, both when the groups fit in memory and when the input tuples
+ * of some groups must be spilled to disk and aggregated later, to see if
+ * every group's aggregates are computed correctly.
+ */
+@Test
+public class TestHashedAggregation extends SqlTestCase {
+
+    /** The number of rows loaded into the test table. */
+    private static final int NUM_ROWS = 1500;
+
+
+    /** The number of distinct values in column <tt>g</tt>. */
+    private static final int NUM_GROUPS = 600;
+
+
+    /** The rows of the test table, in the order they were inserted. */
+    private ArrayList<Object[]> rows = new ArrayList<Object[]>();
+
+
+    public TestHashedAggregation() {
+        super("setup_testHashedAggregation");
+    }
+
+
+    /**
+     * Loads the test table.  Columns <tt>s</tt> and <tt>x</tt> have some
+     * <tt>NULL</tt>s.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    @BeforeClass
+    public void loadRows() throws Exception {
+        for (int i = 0; i < NUM_ROWS; i++) {
+            int g = (i * 7) % NUM_GROUPS;
+            String s = (i % 10 == 3) ? null : "k" + (i % 3);
+            Integer x = (i % 11 == 5) ? null : Integer.valueOf(i % 50);
+            double f = i * 0.5;
+
+            tryDoCommand(String.format(
+                "INSERT INTO test_hash_agg VALUES (%d, %d, %s, %s, %s)",
+                i, g, (s != null ? "'" + s + "'" : "NULL"), x, f));
+            rows.add(new Object[] { i, g, s, x, f });
+        }
+    }
+
+
+    /**
+     * This test groups on two columns, with <tt>COUNT</tt>, <tt>SUM</tt>,
+     * <tt>MIN</tt> and <tt>MAX</tt> aggregates.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testSimpleAggregates() throws Throwable {
+        LinkedHashMap<List<Object>, int[]> groups =
+            new LinkedHashMap<List<Object>, int[]>();
+
+        for (Object[] row : rows) {
+            List<Object> key = new ArrayList<Object>();
+            key.add(row[1]);
+            key.add(row[2]);
+
+            // COUNT(*), COUNT(x), SUM(x), MIN(x), MAX(id)
+            int[] agg = groups.get(key);
+            if (agg == null) {
+                agg = new int[] { 0, 0, 0, Integer.MAX_VALUE, 0 };
+                groups.put(key, agg);
+            }
+
+            agg[0]++;
+            if (row[3] != null) {
+                int x = (Integer) row[3];
+                agg[1]++;
+                agg[2] += x;
+                agg[3] = Math.min(agg[3], x);
+            }
+            agg[4] = Math.max(agg[4], (Integer) row[0]);
+        }
+
+        ArrayList<TupleLiteral> expected = new ArrayList<TupleLiteral>();
+        for (Map.Entry<List<Object>, int[]> entry : groups.entrySet()) {
+            List<Object> key = entry.getKey();
+            int[] agg = entry.getValue();
+            boolean noValues = (agg[1] == 0);
+            expected.add(new TupleLiteral(key.get(0), key.get(1), agg[0],
+                agg[1], noValues ? null : agg[2], noValues ? null : agg[3],
+                agg[4]));
+        }
+
+        CommandResult result = server.doCommand(
+            "SELECT g, s, COUNT(*), COUNT(x), SUM(x), MIN(x), MAX(id) " +
+            "FROM test_hash_agg GROUP BY g, s", true);
+        assert checkUnorderedResults(toArray(expected), result);
+    }
+
+
+    /**
+     * This test computes averages of floating-point values, and distinct
+     * counts, which are computed by the aggregate functions themselves.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testAverageAndDistinct() throws Throwable {
+        LinkedHashMap<Integer, double[]> sums = new LinkedHashMap<Integer, double[]>();
+        LinkedHashMap<Integer, HashSet<Object>> distinct =
+            new LinkedHashMap<Integer, HashSet<Object>>();
+
+        for (Object[] row : rows) {
+            Integer g = (Integer) row[1];
+            if (!sums.containsKey(g)) {
+                sums.put(g, new double[2]);
+                distinct.put(g, new HashSet<Object>());
+            }
+
+            sums.get(g)[0] += (Double) row[4];
+            sums.get(g)[1]++;
+            if (row[3] != null)
+                distinct.get(g).add(row[3]);
+        }
+
+        ArrayList<TupleLiteral> expected = new ArrayList<TupleLiteral>();
+        for (Integer g : sums.keySet()) {
+            double[] sum = sums.get(g);
+            expected.add(new TupleLiteral(g, sum[0] / sum[1],
+                distinct.get(g).size()));
+        }
+
+        CommandResult result = server.doCommand(
+            "SELECT g, AVG(f), COUNT(DISTINCT x) FROM test_hash_agg " +
+            "GROUP BY g", true);
+        assert checkUnorderedResults(toArray(expected), result);
+    }
+
+
+    /**
+     * This test reruns the aggregations with memory budgets so small that
+     * most groups' input tuples are spilled, some of them more than once.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testSpilledGroups() throws Throwable {
+        String oldBudget =
+            System.getProperty(HashedGroupAggregateNode.PROP_MEMORY_BUDGET);
+        try {
+            for (String budget : new String[] { "1", "2000" }) {
+                System.setProperty(HashedGroupAggregateNode.PROP_MEMORY_BUDGET,
+                    budget);
+                testSimpleAggregates();
+                testAverageAndDistinct();
+            }
+        }
+        finally {
+            if (oldBudget != null) {
+                System.setProperty(HashedGroupAggregateNode.PROP_MEMORY_BUDGET,
+                    oldBudget);
+            }
+            else {
+                System.clearProperty(HashedGroupAggregateNode.PROP_MEMORY_BUDGET);
+            }
+        }
+    }
+
+
+    private static TupleLiteral[] toArray(List<TupleLiteral> rows) {
+        return rows.toArray(new TupleLiteral[rows.size()]);
+    }
+}
@@ -0,0 +1,161 @@
+package edu.caltech.test.nanodb.sql;
+
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import edu.caltech.nanodb.qeval.ColumnStats;
+import edu.caltech.nanodb.qeval.TableStats;
+import edu.caltech.nanodb.storage.AutoAnalyzer;
+
+
+/**
+ * This class exercises the statistics that table files keep current as
+ * tuples are added and removed, and the automatic analysis of tables that
+ * have changed enough since they were last analyzed.
+ */
+@Test
+public class TestIncrementalStats extends SqlTestCase {
+
+    /** Automatic analysis is turned off unless a test turns it on. */
+    @BeforeMethod
+    public void disableAutoAnalyze() {
+        System.setProperty(AutoAnalyzer.PROP_ENABLED, "false");
+    }
+
+
+    @AfterMethod
+    public void clearProperties() {
+        System.clearProperty(AutoAnalyzer.PROP_ENABLED);
+        System.clearProperty(AutoAnalyzer.PROP_THRESHOLD);
+    }
+
+
+    private TableStats getStats(String tableName) throws Exception {
+        return server.getStorageManager().getTableManager()
+            .openTable(tableName.toUpperCase()).getTupleFile().getStats();
+    }
+
+
+    private void insertRows(String tableName, int start, int end)
+        throws Exception {
+
+        for (int i = start; i < end; i++) {
+            tryDoCommand(String.format("INSERT INTO %s VALUES (%d, %s)",
+                tableName, i, (i % 10 == 0) ? "NULL" : "'row " + i + "'"));
+        }
+    }
+
+
+    /** Checks the tuple and page counts of a table with no ANALYZE. */
+    private void checkCounts(String tableName) throws Exception {
+        insertRows(tableName, 0, 500);
+
+        TableStats stats = getStats(tableName);
+        assert stats.numTuples == 500 : stats.toString();
+        assert stats.numDataPages > 1 : stats.toString();
+        assert stats.avgTupleSize > 0 : stats.toString();
+        assert stats.getNumModifications() == 500 : stats.toString();
+
+        tryDoCommand("DELETE FROM " + tableName + " WHERE a < 100");
+        stats = getStats(tableName);
+        assert stats.numTuples == 400 : stats.toString();
+        assert stats.getNumModifications() == 600 : stats.toString();
+    }
+
+
+    /**
+     * Adding and deleting tuples updates the tuple and page counts of a heap
+     * file without analyzing it.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testHeapFileCounts() throws Exception {
+        tryDoCommand("CREATE TABLE test_incr_heap (a INTEGER, b VARCHAR(20)) " +
+            "PROPERTIES (pagesize = 512)");
+        checkCounts("test_incr_heap");
+    }
+
+
+    /**
+     * Adding and deleting tuples updates the tuple and page counts of a
+     * linear-hashing file, and splitting buckets doesn't change the number
+     * of tuples.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testLinHashFileCounts() throws Exception {
+        tryDoCommand("CREATE TABLE test_incr_hash (a INTEGER, b VARCHAR(20)) " +
+            "PROPERTIES (storage = 'lin-hash', pagesize = 512, hashkey = '0')");
+        checkCounts("test_incr_hash");
+    }
+
+
+    /**
+     * After the whole table is analyzed, the distinct-value counts, the
+     * <tt>NULL</tt> counts and the maximum values are updated as tuples are
+     * added.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testColumnStatsUpdated() throws Exception {
+        tryDoCommand("CREATE TABLE test_incr_cols (a INTEGER, b VARCHAR(20))");
+        insertRows("test_incr_cols", 0, 200);
+        tryDoCommand("ANALYZE test_incr_cols");
+
+        TableStats stats = getStats("test_incr_cols");
+        assert stats.getNumModifications() == 0 : stats.toString();
+        ColumnStats aStats = stats.getColumnStats(0);
+        assert aStats.getNumUniqueValues() == 200;
+        assert Integer.valueOf(199).equals(aStats.getMaxValue());
+        assert stats.getColumnStats(1).getNumNullValues() == 20;
+
+        insertRows("test_incr_cols", 200, 400);
+        assert stats.numTuples == 400 : stats.toString();
+        // The sketch only counts exactly up to 256 distinct values.
+        assert Math.abs(aStats.getNumUniqueValues() - 400) <= 20 :
+            aStats.getNumUniqueValues();
+        assert Integer.valueOf(399).equals(aStats.getMaxValue());
+        assert stats.getColumnStats(1).getNumNullValues() == 40;
+    }
+
+
+    /**
+     * Once a table has been modified enough, it is analyzed after the
+     * command that modified it.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testAutoAnalyze() throws Exception {
+        tryDoCommand("CREATE TABLE test_incr_auto (a INTEGER, b VARCHAR(20))");
+        insertRows("test_incr_auto", 0, 100);
+
+        // The table has never been analyzed, so it has no column stats.
+        TableStats stats = getStats("test_incr_auto");
+        assert stats.getColumnStats(0).getNumUniqueValues() == -1;
+        assert stats.getNumModifications() == 100;
+
+        // The next command analyzes the table, since it has had more than
+        // 20 + 10% of 100 modifications.
+        System.clearProperty(AutoAnalyzer.PROP_ENABLED);
+        System.setProperty(AutoAnalyzer.PROP_THRESHOLD, "20");
+        insertRows("test_incr_auto", 100, 101);
+
+        stats = getStats("test_incr_auto");
+        assert stats.getNumModifications() == 0 : stats.toString();
+        assert stats.numTuples == 101 : stats.toString();
+        assert stats.getColumnStats(0).getNumUniqueValues() == 101;
+
+        // With 134 rows, 20 + 10% of 134 modifications are allowed before
+        // the next analysis.
+        insertRows("test_incr_auto", 101, 134);
+        stats = getStats("test_incr_auto");
+        assert stats.getNumModifications() == 33 : stats.toString();
+
+        insertRows("test_incr_auto", 134, 135);
+        stats = getStats("test_incr_auto");
+        assert stats.getNumModifications() == 0 : stats.toString();
+        assert stats.getColumnStats(0).getNumUniqueValues() == 135;
+    }
+}
@@ -0,0 +1,199 @@
+package edu.caltech.test.nanodb.sql;
+
+
+import java.util.ArrayList;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.plans.IndexNestedLoopJoinNode;
+import edu.caltech.nanodb.server.CommandResult;
+
+
+/**
+ * This class exercises the database with equijoins into indexed tables,
+ * which the planner evaluates by looking up the indexed table for each
+ * tuple of the other table, to see if inner and outer joins produce the
+ * expected results with unique and duplicate keys, and with batches of
+ * lookups of different sizes.
+ */
+@Test
+public class TestIndexNestedLoopJoin extends SqlTestCase {
+
+    /** The number of rows loaded into the indexed tables. */
+    private static final int NUM_DIM_ROWS = 2000;
+
+
+    /** The number of distinct values in column <tt>g</tt>. */
+    private static final int NUM_GROUPS = 500;
+
+
+    /** The number of rows loaded into the fact table. */
+    private static final int NUM_FACT_ROWS = 40;
+
+
+    public TestIndexNestedLoopJoin() {
+        super("setup_testIndexNestedLoopJoin");
+    }
+
+
+    /**
+     * Loads the test tables.  Some rows of the fact table refer to keys that
+     * aren't in the indexed tables, and one row has <tt>NULL</tt> keys.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    @BeforeClass
+    public void loadRows() throws Exception {
+        for (int i = 0; i < NUM_DIM_ROWS; i++) {
+            tryDoCommand(String.format(
+                "INSERT INTO test_inlj_dim VALUES (%d, 'n%d')", i, i));
+            tryDoCommand(String.format(
+                "INSERT INTO test_inlj_grp VALUES (%d, %d)", i % NUM_GROUPS, i));
+        }
+
+        for (int i = 0; i < NUM_FACT_ROWS; i++) {
+            tryDoCommand(String.format(
+                "INSERT INTO test_inlj_fact VALUES (%d, %d, %s)",
+                i, getDimId(i), getScore(i)));
+        }
+        tryDoCommand("INSERT INTO test_inlj_fact VALUES (99, NULL, NULL)");
+
+        tryDoCommand("ANALYZE test_inlj_dim");
+        tryDoCommand("ANALYZE test_inlj_grp");
+        tryDoCommand("ANALYZE test_inlj_fact");
+    }
+
+
+    /**
+     * Returns the key of the fact row.  Several rows have each key, and some
+     * keys are past the last key of the indexed tables.
+     */
+    private static int getDimId(int fid) {
+        return ((fid % 25) * 97) % (NUM_DIM_ROWS + 100);
+    }
+
+
+    /** Returns the score of the fact row; odd rows have a fraction. */
+    private static String getScore(int fid) {
+        return getDimId(fid) + (fid % 2 == 0 ? ".0" : ".5");
+    }
+
+
+    /**
+     * This test joins the fact table with the primary key of the dimension
+     * table, including with a floating-point column that only matches the
+     * key when it has no fraction.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testUniqueKeys() throws Throwable {
+        ArrayList<TupleLiteral> expected = new ArrayList<TupleLiteral>();
+        ArrayList<TupleLiteral> expectedScores = new ArrayList<TupleLiteral>();
+        for (int i = 0; i < NUM_FACT_ROWS; i++) {
+            int dimId = getDimId(i);
+            if (dimId < NUM_DIM_ROWS) {
+                TupleLiteral row = new TupleLiteral(i, dimId, "n" + dimId);
+                expected.add(row);
+                if (i % 2 == 0)
+                    expectedScores.add(row);
+            }
+        }
+
+        CommandResult result = server.doCommand(
+            "SELECT fid, id, name FROM test_inlj_fact, test_inlj_dim " +
+            "WHERE dim_id = id", true);
+        assert checkUnorderedResults(toArray(expected), result);
+
+        result = server.doCommand(
+            "SELECT fid, id, name FROM test_inlj_fact f JOIN test_inlj_dim d " +
+            "ON f.score = d.id", true);
+        assert checkUnorderedResults(toArray(expectedScores), result);
+    }
+
+
+    /**
+     * This test joins the fact table with an index that has several rows
+     * for each key, with another conjunct in the join predicate.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testDuplicateKeys() throws Throwable {
+        ArrayList<TupleLiteral> expected = new ArrayList<TupleLiteral>();
+        for (int i = 0; i < NUM_FACT_ROWS; i++) {
+            int dimId = getDimId(i);
+            if (dimId >= NUM_GROUPS)
+                continue;
+
+            for (int v = dimId; v < NUM_DIM_ROWS; v += NUM_GROUPS) {
+                if (v > 1000)
+                    expected.add(new TupleLiteral(i, dimId, v));
+            }
+        }
+
+        CommandResult result = server.doCommand(
+            "SELECT fid, g, v FROM test_inlj_fact JOIN test_inlj_grp " +
+            "ON dim_id = g AND v > 1000", true);
+        assert checkUnorderedResults(toArray(expected), result);
+    }
+
+
+    /**
+     * This test performs a left outer join into the dimension table, to see
+     * if fact rows without a match are padded with <tt>NULL</tt>s.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testOuterJoin() throws Throwable {
+        ArrayList<TupleLiteral> expected = new ArrayList<TupleLiteral>();
+        for (int i = 0; i < NUM_FACT_ROWS; i++) {
+            int dimId = getDimId(i);
+            if (dimId < 1000)
+                expected.add(new TupleLiteral(i, dimId, "n" + dimId));
+            else
+                expected.add(new TupleLiteral(i, null, null));
+        }
+        expected.add(new TupleLiteral(99, null, null));
+
+        CommandResult result = server.doCommand(
+            "SELECT fid, id, name FROM test_inlj_fact LEFT OUTER JOIN " +
+            "test_inlj_dim ON dim_id = id AND id < 1000", true);
+        assert checkUnorderedResults(toArray(expected), result);
+    }
+
+
+    /**
+     * This test reruns the joins with batches of lookups so small that
+     * tuples with the same key fall into different batches.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testSmallBatches() throws Throwable {
+        String oldSize = System.getProperty(
+            IndexNestedLoopJoinNode.PROP_BATCH_SIZE);
+        try {
+            for (String size : new String[] { "1", "3" }) {
+                System.setProperty(IndexNestedLoopJoinNode.PROP_BATCH_SIZE,
+                    size);
+                testUniqueKeys();
+                testDuplicateKeys();
+                testOuterJoin();
+            }
+        }
+        finally {
+            if (oldSize != null) {
+                System.setProperty(IndexNestedLoopJoinNode.PROP_BATCH_SIZE,
+                    oldSize);
+            }
+            else {
+                System.clearProperty(IndexNestedLoopJoinNode.PROP_BATCH_SIZE);
+            }
+        }
+    }
+
+
+    private static TupleLiteral[] toArray(ArrayList<TupleLiteral> rows) {
+        return rows.toArray(new TupleLiteral[rows.size()]);
+    }
+}
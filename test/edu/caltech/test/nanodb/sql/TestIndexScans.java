@@ -0,0 +1,170 @@
+package edu.caltech.test.nanodb.sql;
+
+
+import java.util.ArrayList;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.server.CommandResult;
+
+
+/**
+ * This class exercises the database with queries that the planner can
+ * evaluate with index lookups, index range scans or hash-key probes, to see
+ * if they produce the same results as scanning the whole table.
+ */
+@Test
+public class TestIndexScans extends SqlTestCase {
+
+    /** The number of rows loaded into each of the test tables. */
+    private static final int NUM_ROWS = 3000;
+
+
+    /** The number of distinct values in column <tt>b</tt>. */
+    private static final int NUM_B_VALUES = 1000;
+
+
+    public TestIndexScans() {
+        super("setup_testIndexScans");
+    }
+
+
+    /**
+     * Loads the test tables with enough rows that index lookups are cheaper
+     * than scanning the whole table.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    @BeforeClass
+    public void loadRows() throws Exception {
+        for (int i = 0; i < NUM_ROWS; i++) {
+            tryDoCommand(String.format("INSERT INTO test_idx_scans " +
+                "VALUES (%d, %d, 'c%d')", i, i % NUM_B_VALUES, i));
+            tryDoCommand(String.format("INSERT INTO test_idx_scans_hash " +
+                "VALUES (%d, 'b%d')", i % 300, i));
+        }
+
+        tryDoCommand("ANALYZE test_idx_scans");
+    }
+
+
+    private TupleLiteral[] rowsWithA(int lower, int upper) {
+        ArrayList<TupleLiteral> rows = new ArrayList<TupleLiteral>();
+        for (int i = Math.max(lower, 0); i < Math.min(upper, NUM_ROWS); i++)
+            rows.add(new TupleLiteral(i, i % NUM_B_VALUES, "c" + i));
+
+        return rows.toArray(new TupleLiteral[rows.size()]);
+    }
+
+
+    /**
+     * This test performs equality lookups on the primary key and on an
+     * index with duplicate values.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testEqualityLookups() throws Throwable {
+        CommandResult result = server.doCommand(
+            "SELECT * FROM test_idx_scans WHERE a = 1234", true);
+        assert checkUnorderedResults(rowsWithA(1234, 1235), result);
+
+        result = server.doCommand(
+            "SELECT * FROM test_idx_scans WHERE 1234 = a", true);
+        assert checkUnorderedResults(rowsWithA(1234, 1235), result);
+
+        result = server.doCommand(
+            "SELECT * FROM test_idx_scans WHERE a = 5000", true);
+        assert checkUnorderedResults(new TupleLiteral[0], result);
+
+        TupleLiteral[] expected = {
+            new TupleLiteral(17, 17, "c17"),
+            new TupleLiteral(1017, 17, "c1017"),
+            new TupleLiteral(2017, 17, "c2017")
+        };
+        result = server.doCommand(
+            "SELECT * FROM test_idx_scans WHERE b = 17", true);
+        assert checkUnorderedResults(expected, result);
+
+        // The other conjuncts of the predicate must also be applied.
+        result = server.doCommand(
+            "SELECT * FROM test_idx_scans WHERE b = 17 AND a > 1000", true);
+        assert checkUnorderedResults(new TupleLiteral[] {
+            expected[1], expected[2] }, result);
+
+        result = server.doCommand(
+            "SELECT * FROM test_idx_scans t WHERE t.a = 42", true);
+        assert checkUnorderedResults(rowsWithA(42, 43), result);
+    }
+
+
+    /**
+     * This test performs range scans with inclusive, exclusive and open
+     * bounds.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testRangeScans() throws Throwable {
+        CommandResult result = server.doCommand(
+            "SELECT * FROM test_idx_scans WHERE a >= 100 AND a < 103", true);
+        assert checkUnorderedResults(rowsWithA(100, 103), result);
+
+        result = server.doCommand(
+            "SELECT * FROM test_idx_scans WHERE a > 100 AND a <= 103", true);
+        assert checkUnorderedResults(rowsWithA(101, 104), result);
+
+        result = server.doCommand(
+            "SELECT * FROM test_idx_scans WHERE a > 2995", true);
+        assert checkUnorderedResults(rowsWithA(2996, NUM_ROWS), result);
+
+        result = server.doCommand(
+            "SELECT * FROM test_idx_scans WHERE a < 3", true);
+        assert checkUnorderedResults(rowsWithA(0, 3), result);
+
+        result = server.doCommand(
+            "SELECT * FROM test_idx_scans WHERE a > 5 AND a < 5", true);
+        assert checkUnorderedResults(new TupleLiteral[0], result);
+    }
+
+
+    /**
+     * This test compares integer columns with values that aren't integers,
+     * to see that the values aren't truncated to match the column's type
+     * when the planner considers the column's index.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testNonIntegerValues() throws Throwable {
+        CommandResult result = server.doCommand(
+            "SELECT * FROM test_idx_scans WHERE a = 2.5", true);
+        assert checkUnorderedResults(new TupleLiteral[0], result);
+
+        result = server.doCommand(
+            "SELECT * FROM test_idx_scans WHERE a < 2.5", true);
+        assert checkUnorderedResults(rowsWithA(0, 3), result);
+    }
+
+
+    /**
+     * This test probes a hashed table for a key, in both queries and
+     * <tt>DELETE</tt> commands.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testHashKeyProbes() throws Throwable {
+        ArrayList<TupleLiteral> rows = new ArrayList<TupleLiteral>();
+        for (int i = 17; i < NUM_ROWS; i += 300)
+            rows.add(new TupleLiteral(17L, "b" + i));
+
+        CommandResult result = server.doCommand(
+            "SELECT * FROM test_idx_scans_hash WHERE a = 17", true);
+        assert checkUnorderedResults(
+            rows.toArray(new TupleLiteral[rows.size()]), result);
+
+        tryDoCommand("DELETE FROM test_idx_scans_hash WHERE a = 18");
+        result = server.doCommand(
+            "SELECT * FROM test_idx_scans_hash WHERE a = 18", true);
+        assert checkUnorderedResults(new TupleLiteral[0], result);
+    }
+}
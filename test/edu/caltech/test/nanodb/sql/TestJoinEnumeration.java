@@ -0,0 +1,152 @@
+package edu.caltech.test.nanodb.sql;
+
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.qeval.CostBasedJoinPlanner;
+import edu.caltech.nanodb.server.CommandResult;
+
+
+/**
+ * This class exercises the planning of joins of many tables, with left-deep
+ * and bushy plans enumerated by dynamic programming, and with greedy
+ * planning of joins of more tables than dynamic programming is used for.
+ */
+@Test
+public class TestJoinEnumeration extends SqlTestCase {
+
+    /** The number of tables joined by the largest test queries. */
+    private static final int NUM_TABLES = 14;
+
+
+    /**
+     * Creates the test tables.  Table <tt>test_je_<em>i</em></tt> has the
+     * keys 0 to 10 + <em>i</em>, so a join of the tables on their keys has
+     * the keys 0 to 10.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    @BeforeClass
+    public void createTables() throws Exception {
+        for (int i = 0; i < NUM_TABLES; i++) {
+            tryDoCommand(String.format(
+                "CREATE TABLE test_je_%d (k INTEGER, v INTEGER)", i));
+
+            for (int k = 0; k <= 10 + i; k++) {
+                tryDoCommand(String.format(
+                    "INSERT INTO test_je_%d VALUES (%d, %d)", i, k, k * i));
+            }
+        }
+    }
+
+
+    @AfterMethod
+    public void clearProperties() {
+        System.clearProperty(CostBasedJoinPlanner.PROP_BUSHY_PLANS);
+        System.clearProperty(CostBasedJoinPlanner.PROP_MAX_DP_LEAVES);
+    }
+
+
+    /**
+     * Returns a query that joins the first <tt>numTables</tt> test tables.
+     * A chain query joins each table to the next one; a star query joins
+     * every table to the first one.
+     */
+    private static String makeQuery(int numTables, boolean star) {
+        StringBuilder from = new StringBuilder();
+        StringBuilder where = new StringBuilder();
+        for (int i = 0; i < numTables; i++) {
+            if (i > 0) {
+                from.append(", ");
+                if (i > 1)
+                    where.append(" AND ");
+
+                where.append(String.format("test_je_%d.k = test_je_%d.k",
+                    star ? 0 : i - 1, i));
+            }
+            from.append("test_je_").append(i);
+        }
+
+        return "SELECT test_je_0.k FROM " + from + " WHERE " + where;
+    }
+
+
+    /** Checks that a join query produces the keys 0 to 10. */
+    private void checkJoin(String query) throws Throwable {
+        TupleLiteral[] expected = new TupleLiteral[11];
+        for (int k = 0; k <= 10; k++)
+            expected[k] = createTupleFromNum(k);
+
+        CommandResult result = server.doCommand(query, true);
+        assert checkUnorderedResults(expected, result) : query;
+    }
+
+
+    /**
+     * Joins of up to twelve tables are planned with dynamic programming, as
+     * left-deep plans by default.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testDynamicProgramming() throws Throwable {
+        checkJoin(makeQuery(2, false));
+        checkJoin(makeQuery(8, false));
+        checkJoin(makeQuery(8, true));
+    }
+
+
+    /**
+     * Bushy plans produce the same results.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testBushyPlans() throws Throwable {
+        System.setProperty(CostBasedJoinPlanner.PROP_BUSHY_PLANS, "true");
+        checkJoin(makeQuery(8, false));
+        checkJoin(makeQuery(8, true));
+    }
+
+
+    /**
+     * Joins of more tables than dynamic programming is used for are planned
+     * greedily, both as left-deep and as bushy plans.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testGreedyPlans() throws Throwable {
+        checkJoin(makeQuery(NUM_TABLES, false));
+        checkJoin(makeQuery(NUM_TABLES, true));
+
+        System.setProperty(CostBasedJoinPlanner.PROP_BUSHY_PLANS, "true");
+        checkJoin(makeQuery(NUM_TABLES, false));
+
+        System.setProperty(CostBasedJoinPlanner.PROP_MAX_DP_LEAVES, "4");
+        checkJoin(makeQuery(6, true));
+    }
+
+
+    /**
+     * Tables that no conjunct joins are joined with cross products.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testCrossProducts() throws Throwable {
+        CommandResult result = server.doCommand("SELECT test_je_0.k, " +
+            "test_je_1.k, test_je_2.k FROM test_je_0, test_je_1, test_je_2 " +
+            "WHERE test_je_0.k < 2 AND test_je_1.k = test_je_2.v " +
+            "AND test_je_2.k < 3", true);
+
+        TupleLiteral[] expected = {
+            new TupleLiteral(0, 0, 0),
+            new TupleLiteral(1, 0, 0),
+            new TupleLiteral(0, 2, 1),
+            new TupleLiteral(1, 2, 1),
+            new TupleLiteral(0, 4, 2),
+            new TupleLiteral(1, 4, 2)
+        };
+        assert checkUnorderedResults(expected, result);
+    }
+}
@@ -0,0 +1,215 @@
+package edu.caltech.test.nanodb.sql;
+
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import edu.caltech.nanodb.client.SessionState;
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.relations.Tuple;
+import edu.caltech.nanodb.storage.TupleFile;
+import edu.caltech.nanodb.transactions.TransactionManager;
+
+
+/**
+ * This class exercises multiversion concurrency control, to see if a
+ * transaction's snapshot hides the changes of transactions that started
+ * after it, and if <tt>OPTIMIZE</tt> only removes the old versions of rows
+ * that no snapshot can see.  The tables are scanned with file scans, since
+ * the planner doesn't use indexes on versioned tables.
+ */
+@Test
+public class TestMVCC extends SqlTestCase {
+
+    @BeforeClass
+    @Override
+    public void beforeClass() throws Exception {
+        System.setProperty(TransactionManager.PROP_TXNS, "on");
+        System.setProperty(TransactionManager.PROP_MVCC, "on");
+        super.beforeClass();
+    }
+
+
+    @AfterClass
+    @Override
+    public void afterClass() {
+        super.afterClass();
+        System.clearProperty(TransactionManager.PROP_MVCC);
+        System.clearProperty(TransactionManager.PROP_TXNS);
+    }
+
+
+    /**
+     * Creates a table with the specified storage and three rows.  The table
+     * is versioned, since MVCC is on.
+     */
+    private void createTable(String tableName, String storage)
+        throws Exception {
+
+        String props = "";
+        if (storage != null)
+            props = " PROPERTIES (storage = '" + storage + "', hashkey = '0')";
+
+        tryDoCommand("CREATE TABLE " + tableName +
+            " (a INTEGER, b VARCHAR(20))" + props);
+        tryDoCommand("INSERT INTO " + tableName + " VALUES (1, 'one')");
+        tryDoCommand("INSERT INTO " + tableName + " VALUES (2, 'two')");
+        tryDoCommand("INSERT INTO " + tableName + " VALUES (3, 'six')");
+    }
+
+
+    /**
+     * Returns the number of tuples stored in a table, including old
+     * versions of rows that aren't visible to any transaction.
+     */
+    private int countVersions(String tableName) throws Exception {
+        TupleFile tupleFile = server.getStorageManager().getTableManager()
+            .openTable(tableName.toUpperCase()).getTupleFile();
+
+        int count = 0;
+        Tuple tuple = tupleFile.getFirstTuple();
+        while (tuple != null) {
+            count++;
+            Tuple next = tupleFile.getNextTuple(tuple);
+            tuple.unpin();
+            tuple = next;
+        }
+        return count;
+    }
+
+
+    /**
+     * This test checks that a transaction's snapshot doesn't include the
+     * updates and deletes of transactions that commit after it starts, or
+     * the changes of transactions that haven't committed yet.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testSnapshotIgnoresLaterChanges() throws Throwable {
+        checkSnapshot("test_mvcc_heap", null);
+        checkSnapshot("test_mvcc_hash", "lin-hash");
+    }
+
+
+    private void checkSnapshot(String tableName, String storage)
+        throws Throwable {
+
+        createTable(tableName, storage);
+        String select = "SELECT * FROM " + tableName;
+
+        TupleLiteral[] original = {
+            new TupleLiteral(1, "one"),
+            new TupleLiteral(2, "two"),
+            new TupleLiteral(3, "six")
+        };
+
+        SessionState writer = SessionState.get();
+        SessionState reader = newSession();
+
+        try {
+            doCommandAs(reader, "BEGIN");
+            assert checkUnorderedResults(original,
+                doCommandAs(reader, select, true));
+
+            // These changes commit after the reader's snapshot was taken.
+            tryDoCommand("UPDATE " + tableName +
+                " SET b = 'uno' WHERE a = 1");
+            tryDoCommand("DELETE FROM " + tableName + " WHERE a = 2");
+            tryDoCommand("INSERT INTO " + tableName + " VALUES (4, 'four')");
+
+            // These changes aren't committed yet.
+            tryDoCommand("BEGIN");
+            tryDoCommand("UPDATE " + tableName +
+                " SET b = 'vier' WHERE a = 4");
+            tryDoCommand("DELETE FROM " + tableName + " WHERE a = 3");
+
+            assert checkUnorderedResults(original,
+                doCommandAs(reader, select, true));
+
+            tryDoCommand("COMMIT");
+            assert checkUnorderedResults(original,
+                doCommandAs(reader, select, true));
+
+            // A new transaction sees all of the committed changes.
+            doCommandAs(reader, "COMMIT");
+            TupleLiteral[] changed = {
+                new TupleLiteral(1, "uno"),
+                new TupleLiteral(4, "vier")
+            };
+            assert checkUnorderedResults(changed,
+                doCommandAs(reader, select, true));
+        }
+        finally {
+            if (reader.getTxnState().isTxnInProgress())
+                doCommandAs(reader, "ROLLBACK");
+            SessionState.set(writer);
+        }
+    }
+
+
+    /**
+     * This test checks that <tt>OPTIMIZE</tt> keeps the old versions of rows
+     * while a transaction's snapshot can still see them, and removes them
+     * once no snapshot can.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testOptimizeKeepsVisibleVersions() throws Throwable {
+        checkOptimize("test_vacuum_heap", null);
+        checkOptimize("test_vacuum_hash", "lin-hash");
+    }
+
+
+    private void checkOptimize(String tableName, String storage)
+        throws Throwable {
+
+        createTable(tableName, storage);
+        String select = "SELECT * FROM " + tableName;
+
+        TupleLiteral[] original = {
+            new TupleLiteral(1, "one"),
+            new TupleLiteral(2, "two"),
+            new TupleLiteral(3, "six")
+        };
+
+        SessionState writer = SessionState.get();
+        SessionState reader = newSession();
+
+        try {
+            doCommandAs(reader, "BEGIN");
+            assert checkUnorderedResults(original,
+                doCommandAs(reader, select, true));
+
+            // The update adds a new version of the row, and leaves the old
+            // version in place, like the delete.
+            tryDoCommand("UPDATE " + tableName +
+                " SET b = 'uno' WHERE a = 1");
+            tryDoCommand("DELETE FROM " + tableName + " WHERE a = 2");
+            assert countVersions(tableName) == 4;
+
+            // The reader's snapshot still sees the old versions.
+            tryDoCommand("OPTIMIZE " + tableName);
+            assert countVersions(tableName) == 4;
+            assert checkUnorderedResults(original,
+                doCommandAs(reader, select, true));
+
+            // Once the reader finishes, no snapshot sees them.
+            doCommandAs(reader, "COMMIT");
+            tryDoCommand("OPTIMIZE " + tableName);
+            assert countVersions(tableName) == 2;
+
+            TupleLiteral[] changed = {
+                new TupleLiteral(1, "uno"),
+                new TupleLiteral(3, "six")
+            };
+            assert checkUnorderedResults(changed,
+                doCommandAs(reader, select, true));
+        }
+        finally {
+            if (reader.getTxnState().isTxnInProgress())
+                doCommandAs(reader, "ROLLBACK");
+            SessionState.set(writer);
+        }
+    }
+}
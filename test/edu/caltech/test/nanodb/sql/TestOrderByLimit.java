@@ -0,0 +1,169 @@
+package edu.caltech.test.nanodb.sql;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.plans.SortNode;
+import edu.caltech.nanodb.server.CommandResult;
+
+
+/**
+ * This class exercises the database with <tt>ORDER BY</tt>, <tt>LIMIT</tt>
+ * and <tt>OFFSET</tt> clauses, both when the sorted tuples fit in memory and
+ * when they must be spilled to disk and merged, to see if the results come
+ * back in the expected order.
+ */
+@Test
+public class TestOrderByLimit extends SqlTestCase {
+
+    /** The number of rows loaded into the test table. */
+    private static final int NUM_ROWS = 1200;
+
+
+    /** The rows of the test table, in the order they were inserted. */
+    private ArrayList<TupleLiteral> rows = new ArrayList<TupleLiteral>();
+
+
+    public TestOrderByLimit() {
+        super("setup_testOrderByLimit");
+    }
+
+
+    /**
+     * Loads the test table.  Column <tt>a</tt> has many duplicate values and
+     * some <tt>NULL</tt>s, and column <tt>id</tt> is unique.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    @BeforeClass
+    public void loadRows() throws Exception {
+        for (int i = 0; i < NUM_ROWS; i++) {
+            Integer a = (i % 50 == 7) ? null : Integer.valueOf((i * 37) % 211);
+            tryDoCommand(String.format(
+                "INSERT INTO test_order_by VALUES (%d, %s, 'v%d')", i, a, i));
+            rows.add(new TupleLiteral(i, a, "v" + i));
+        }
+    }
+
+
+    /**
+     * Returns the test table's rows sorted on column <tt>a</tt> and then on
+     * column <tt>id</tt>.  <tt>NULL</tt>s sort before all other values.
+     */
+    private List<TupleLiteral> sortRows(final boolean aAscending) {
+        ArrayList<TupleLiteral> sorted = new ArrayList<TupleLiteral>(rows);
+        Collections.sort(sorted, new Comparator<TupleLiteral>() {
+            public int compare(TupleLiteral t1, TupleLiteral t2) {
+                Integer a1 = (Integer) t1.getColumnValue(1);
+                Integer a2 = (Integer) t2.getColumnValue(1);
+                int result;
+                if (a1 == null || a2 == null)
+                    result = (a1 == null ? 0 : 1) - (a2 == null ? 0 : 1);
+                else
+                    result = a1.compareTo(a2);
+
+                if (!aAscending)
+                    result = -result;
+
+                if (result == 0) {
+                    result = ((Integer) t1.getColumnValue(0)).compareTo(
+                        (Integer) t2.getColumnValue(0));
+                }
+                return result;
+            }
+        });
+        return sorted;
+    }
+
+
+    /**
+     * This test sorts the whole table in both directions.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testOrderBy() throws Throwable {
+        CommandResult result = server.doCommand(
+            "SELECT * FROM test_order_by ORDER BY a, id", true);
+        assert checkOrderedResults(toArray(sortRows(true)), result);
+
+        result = server.doCommand(
+            "SELECT * FROM test_order_by ORDER BY a DESC, id", true);
+        assert checkOrderedResults(toArray(sortRows(false)), result);
+    }
+
+
+    /**
+     * This test retrieves slices of the sorted table with <tt>LIMIT</tt> and
+     * <tt>OFFSET</tt>, including a limit larger than the table and an offset
+     * past the end of the table.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testLimitOffset() throws Throwable {
+        List<TupleLiteral> ascending = sortRows(true);
+        List<TupleLiteral> descending = sortRows(false);
+
+        CommandResult result = server.doCommand(
+            "SELECT * FROM test_order_by ORDER BY a, id LIMIT 10", true);
+        assert checkOrderedResults(toArray(ascending.subList(0, 10)), result);
+
+        result = server.doCommand(
+            "SELECT * FROM test_order_by ORDER BY a DESC, id LIMIT 25 OFFSET 40",
+            true);
+        assert checkOrderedResults(toArray(descending.subList(40, 65)), result);
+
+        result = server.doCommand(
+            "SELECT * FROM test_order_by ORDER BY a, id OFFSET 1190", true);
+        assert checkOrderedResults(
+            toArray(ascending.subList(1190, NUM_ROWS)), result);
+
+        result = server.doCommand(
+            "SELECT * FROM test_order_by ORDER BY a, id LIMIT 5000", true);
+        assert checkOrderedResults(toArray(ascending), result);
+
+        result = server.doCommand(
+            "SELECT * FROM test_order_by ORDER BY a, id LIMIT 5 OFFSET 5000",
+            true);
+        assert checkOrderedResults(new TupleLiteral[0], result);
+
+        // Without an ORDER BY clause, any rows may be returned.
+        result = server.doCommand(
+            "SELECT * FROM test_order_by LIMIT 7 OFFSET 3", true);
+        assert result.getTuples().size() == 7;
+    }
+
+
+    /**
+     * This test reruns the sorts with a memory budget so small that every
+     * tuple is spilled in its own run, so that the runs must be merged in
+     * several passes.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testSpilledSorts() throws Throwable {
+        String oldBudget = System.getProperty(SortNode.PROP_MEMORY_BUDGET);
+        System.setProperty(SortNode.PROP_MEMORY_BUDGET, "1");
+        try {
+            testOrderBy();
+            testLimitOffset();
+        }
+        finally {
+            if (oldBudget != null)
+                System.setProperty(SortNode.PROP_MEMORY_BUDGET, oldBudget);
+            else
+                System.clearProperty(SortNode.PROP_MEMORY_BUDGET);
+        }
+    }
+
+
+    private static TupleLiteral[] toArray(List<TupleLiteral> rows) {
+        return rows.toArray(new TupleLiteral[rows.size()]);
+    }
+}
@@ -0,0 +1,250 @@
+package edu.caltech.test.nanodb.sql;
+
+
+import java.util.ArrayList;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.plans.GatherNode;
+import edu.caltech.nanodb.server.CommandResult;
+
+
+/**
+ * This class exercises the database with queries whose scans, filters,
+ * joins and aggregates are evaluated in parallel, to see if the results
+ * gathered from the parallel workers are the same as those of a serial
+ * plan.  The planner is made to use several workers even for the small
+ * test table.
+ */
+@Test
+public class TestParallelExecution extends SqlTestCase {
+
+    /** The number of rows loaded into the main test table. */
+    private static final int NUM_ROWS = 600;
+
+
+    /** The number of distinct values in column <tt>g</tt>. */
+    private static final int NUM_GROUPS = 8;
+
+
+    /**
+     * A long string stored in every row, so that the table spans enough
+     * pages to be split among the workers.
+     */
+    private static final String PADDING = String.format("%150s", "x");
+
+
+    /** The maximum degree that was set before the test changed it. */
+    private String oldMaxDegree = System.getProperty(GatherNode.PROP_MAX_DEGREE);
+
+
+    /** The minimum pages per worker set before the test changed it. */
+    private String oldMinPages = System.getProperty(GatherNode.PROP_MIN_PAGES);
+
+
+    public TestParallelExecution() {
+        super("setup_testParallelExecution");
+    }
+
+
+    /**
+     * Loads the test tables.  Columns <tt>g</tt> and <tt>f</tt> have some
+     * <tt>NULL</tt>s, and only some groups have a name.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    @BeforeClass
+    public void loadRows() throws Exception {
+        for (int i = 0; i < NUM_ROWS; i++) {
+            tryDoCommand(String.format(
+                "INSERT INTO test_parallel_a VALUES (%d, %s, %s, '%s')",
+                i, getGroup(i), getValue(i), PADDING));
+        }
+
+        for (int g = 0; g < NUM_GROUPS; g += 2) {
+            tryDoCommand(String.format(
+                "INSERT INTO test_parallel_b VALUES (%d, 'g%d')", g, g));
+        }
+
+        tryDoCommand("ANALYZE test_parallel_a");
+        tryDoCommand("ANALYZE test_parallel_b");
+    }
+
+
+    private static Integer getGroup(int i) {
+        return (i % 13 == 4) ? null : i % NUM_GROUPS;
+    }
+
+
+    private static Double getValue(int i) {
+        return (i % 9 == 2) ? null : i * 0.5;
+    }
+
+
+    /**
+     * Makes the planner split even small tables among four workers.
+     */
+    @BeforeMethod
+    public void forceParallelism() {
+        System.setProperty(GatherNode.PROP_MAX_DEGREE, "4");
+        System.setProperty(GatherNode.PROP_MIN_PAGES, "1");
+    }
+
+
+    /**
+     * Restores the parallelism settings from before the test changed them.
+     */
+    @AfterMethod
+    public void restoreParallelism() {
+        restoreProperty(GatherNode.PROP_MAX_DEGREE, oldMaxDegree);
+        restoreProperty(GatherNode.PROP_MIN_PAGES, oldMinPages);
+    }
+
+
+    private static void restoreProperty(String name, String value) {
+        if (value != null)
+            System.setProperty(name, value);
+        else
+            System.clearProperty(name);
+    }
+
+
+    /**
+     * This test filters and projects the rows of the table.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testFilterProject() throws Throwable {
+        ArrayList<TupleLiteral> expected = new ArrayList<TupleLiteral>();
+        for (int i = 0; i < NUM_ROWS; i++) {
+            Integer g = getGroup(i);
+            Double f = getValue(i);
+            if (g != null && g > 2 && (f == null || f < 200))
+                expected.add(new TupleLiteral(i + 1, f));
+        }
+
+        CommandResult result = server.doCommand(
+            "SELECT id + 1, f FROM test_parallel_a " +
+            "WHERE g > 2 AND (f IS NULL OR f < 200)", true);
+        assert checkUnorderedResults(toArray(expected), result);
+
+        result = server.doCommand(
+            "SELECT id FROM test_parallel_a WHERE id < 0", true);
+        assert checkUnorderedResults(new TupleLiteral[0], result);
+    }
+
+
+    /**
+     * This test groups the rows of the table, including the group of
+     * <tt>NULL</tt> keys, with aggregates that the workers compute in part
+     * and that are then combined.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testGrouping() throws Throwable {
+        ArrayList<TupleLiteral> expected = new ArrayList<TupleLiteral>();
+        for (int key = -1; key < NUM_GROUPS; key++) {
+            Integer g = (key < 0) ? null : key;
+            int count = 0;
+            int countF = 0;
+            int sum = 0;
+            double sumF = 0;
+            Double minF = null;
+            Double maxF = null;
+            for (int i = 0; i < NUM_ROWS; i++) {
+                if (g == null ? getGroup(i) != null : !g.equals(getGroup(i)))
+                    continue;
+
+                count++;
+                sum += i;
+
+                Double f = getValue(i);
+                if (f != null) {
+                    countF++;
+                    sumF += f;
+                    if (minF == null || f < minF)
+                        minF = f;
+                    if (maxF == null || f > maxF)
+                        maxF = f;
+                }
+            }
+
+            expected.add(new TupleLiteral(g, count, sum, countF, minF, maxF,
+                sumF / countF));
+        }
+
+        CommandResult result = server.doCommand(
+            "SELECT g, COUNT(*), SUM(id), COUNT(f), MIN(f), MAX(f), AVG(f) " +
+            "FROM test_parallel_a GROUP BY g", true);
+        assert checkUnorderedResults(toArray(expected), result);
+
+        result = server.doCommand(
+            "SELECT COUNT(*), SUM(id) FROM test_parallel_a", true);
+        assert checkUnorderedResults(new TupleLiteral[] {
+            new TupleLiteral(NUM_ROWS, NUM_ROWS * (NUM_ROWS - 1) / 2) },
+            result);
+    }
+
+
+    /**
+     * This test computes an aggregate that can't be computed in parts, so
+     * the workers' rows must be gathered and grouped in one place.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testDistinctAggregate() throws Throwable {
+        CommandResult result = server.doCommand(
+            "SELECT COUNT(DISTINCT g) FROM test_parallel_a", true);
+        assert checkUnorderedResults(new TupleLiteral[] {
+            new TupleLiteral((Object) NUM_GROUPS) }, result);
+    }
+
+
+    /**
+     * This test joins the table with the table of group names, so that each
+     * worker probes its own copy of the join's hash table.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testJoin() throws Throwable {
+        ArrayList<TupleLiteral> expected = new ArrayList<TupleLiteral>();
+        for (int i = 0; i < NUM_ROWS; i++) {
+            Integer g = getGroup(i);
+            if (g != null && g % 2 == 0 && i % 3 == 0)
+                expected.add(new TupleLiteral(i, "g" + g));
+        }
+
+        CommandResult result = server.doCommand(
+            "SELECT id, name FROM test_parallel_a a JOIN test_parallel_b b " +
+            "ON a.g = b.g WHERE a.id % 3 = 0", true);
+        assert checkUnorderedResults(toArray(expected), result);
+    }
+
+
+    /**
+     * This test stops reading the workers' results early with a
+     * <tt>LIMIT</tt>, and then checks that the workers were stopped by
+     * running another query.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testLimit() throws Throwable {
+        CommandResult result = server.doCommand(
+            "SELECT id FROM test_parallel_a LIMIT 5", true);
+        assert result.getTuples().size() == 5;
+
+        result = server.doCommand(
+            "SELECT COUNT(*) FROM test_parallel_a WHERE id >= 0", true);
+        assert checkUnorderedResults(new TupleLiteral[] {
+            new TupleLiteral((Object) NUM_ROWS) }, result);
+    }
+
+
+    private static TupleLiteral[] toArray(ArrayList<TupleLiteral> tuples) {
+        return tuples.toArray(new TupleLiteral[tuples.size()]);
+    }
+}
@@ -0,0 +1,302 @@
+package edu.caltech.test.nanodb.sql;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import edu.caltech.nanodb.client.SessionState;
+import edu.caltech.nanodb.commands.PreparedStatement;
+import edu.caltech.nanodb.commands.QueryCommand;
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.plans.PlanNode;
+import edu.caltech.nanodb.server.CommandResult;
+import edu.caltech.nanodb.server.PlanCache;
+
+
+/**
+ * This class exercises prepared statements with parameters, and the cache of
+ * the plans of commands that are run from their text.
+ */
+@Test
+public class TestPreparedStatements extends SqlTestCase {
+
+    /**
+     * Creates the test tables.  Table <tt>test_ps</tt> has the rows
+     * (<em>i</em>, <tt>'row <em>i</em>'</tt>) for <em>i</em> in [0, 20), and
+     * table <tt>test_ps_other</tt> has the rows (<em>i</em>, 10<em>i</em>)
+     * for <em>i</em> in [0, 10).
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    @BeforeClass
+    public void createTables() throws Exception {
+        tryDoCommand("CREATE TABLE test_ps (a INTEGER, b VARCHAR(20))");
+        for (int i = 0; i < 20; i++) {
+            tryDoCommand(String.format(
+                "INSERT INTO test_ps VALUES (%d, 'row %d')", i, i));
+        }
+
+        tryDoCommand("CREATE TABLE test_ps_other (a INTEGER, c INTEGER)");
+        for (int i = 0; i < 10; i++) {
+            tryDoCommand(String.format(
+                "INSERT INTO test_ps_other VALUES (%d, %d)", i, i * 10));
+        }
+    }
+
+
+    /** Returns the expected results of a query that selects 0 to n - 1. */
+    private TupleLiteral[] makeRange(int n) {
+        TupleLiteral[] expected = new TupleLiteral[n];
+        for (int i = 0; i < n; i++)
+            expected[i] = createTupleFromNum(i);
+
+        return expected;
+    }
+
+
+    private PlanNode getPlan(String name) {
+        PreparedStatement stmt =
+            SessionState.get().getPreparedStatement(name.toUpperCase());
+        return ((QueryCommand) stmt.getCommand()).getPlan();
+    }
+
+
+    /**
+     * A prepared query produces the results for the values bound to its
+     * parameters, and keeps its plan between executions.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testPrepareExecute() throws Exception {
+        tryDoCommand("PREPARE ps_range AS " +
+            "SELECT a FROM test_ps WHERE a >= ? AND a < ?");
+
+        CommandResult result = server.doCommand("EXECUTE ps_range (0, 5)", true);
+        assert checkUnorderedResults(makeRange(5), result);
+        PlanNode plan = getPlan("ps_range");
+        assert plan != null;
+
+        result = server.doCommand("EXECUTE ps_range (0, 3)", true);
+        assert checkUnorderedResults(makeRange(3), result);
+
+        result = server.doCommand("EXECUTE ps_range (18, 100)", true);
+        assert checkUnorderedResults(new TupleLiteral[] {
+            createTupleFromNum(18), createTupleFromNum(19) }, result);
+        assert getPlan("ps_range") == plan;
+
+        tryDoCommand("DEALLOCATE ps_range");
+    }
+
+
+    /**
+     * Queries of various shapes produce the same results each time their
+     * cached plans are executed, and after they are planned again.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testCachedPlansReexecuted() throws Exception {
+        String[] queries = {
+            "SELECT * FROM test_ps WHERE a > 12",
+            "SELECT t.a, o.c FROM test_ps t JOIN test_ps_other o ON t.a = o.a",
+            "SELECT o.c, COUNT(*), MAX(t.b) FROM test_ps t JOIN test_ps_other o " +
+                "ON t.a = o.a OR t.a = o.a + 10 GROUP BY o.c",
+            "SELECT a FROM test_ps ORDER BY a DESC LIMIT 4",
+            "SELECT a FROM test_ps WHERE a IN (SELECT c / 10 FROM test_ps_other)",
+            "SELECT a FROM test_ps t WHERE EXISTS " +
+                "(SELECT * FROM test_ps_other o WHERE o.c = t.a)",
+            "SELECT (SELECT MAX(c) FROM test_ps_other), b FROM test_ps WHERE a = 4",
+        };
+
+        ArrayList<TupleLiteral[]> results = new ArrayList<TupleLiteral[]>();
+        for (String query : queries) {
+            List<TupleLiteral> first = tryDoCommand(query, true).getTuples();
+            assert !first.isEmpty() : query;
+            results.add(first.toArray(new TupleLiteral[first.size()]));
+
+            for (int i = 0; i < 2; i++) {
+                CommandResult result = server.doCommand(query, true);
+                assert checkUnorderedResults(results.get(results.size() - 1),
+                    result) : query;
+            }
+        }
+
+        // Analyzing the tables makes the cached commands plan again.
+        tryDoCommand("ANALYZE test_ps, test_ps_other");
+        for (int i = 0; i < queries.length; i++) {
+            CommandResult result = server.doCommand(queries[i], true);
+            assert checkUnorderedResults(results.get(i), result) : queries[i];
+        }
+
+        // The ordered query keeps its order.
+        List<TupleLiteral> tuples = tryDoCommand(queries[3], true).getTuples();
+        assert tuples.size() == 4;
+        assert tuples.get(0).equals(createTupleFromNum(19));
+        assert tuples.get(3).equals(createTupleFromNum(16));
+    }
+
+
+    /**
+     * Commands run from their text are cached by their normalized text, and
+     * can be run with values for their parameters.  Commands other than
+     * <tt>SELECT</tt>s are only cached if they have parameters.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testPlanCache() throws Exception {
+        String query = "SELECT a FROM test_ps WHERE b = ?";
+        CommandResult result =
+            server.doCommand(query, Arrays.asList("row 7"), true);
+        assert checkUnorderedResults(
+            new TupleLiteral[] { createTupleFromNum(7) }, result);
+
+        int size = server.getPlanCache().size();
+        result = server.doCommand("select  a\n from TEST_PS where b = ?;",
+            Arrays.asList("row 8"), true);
+        assert checkUnorderedResults(
+            new TupleLiteral[] { createTupleFromNum(8) }, result);
+        assert server.getPlanCache().size() == size;
+
+        // Other commands are only cached if they have parameters.
+        tryDoCommand("UPDATE test_ps SET b = 'row 9' WHERE a = 9");
+        assert server.getPlanCache().size() == size;
+        result = server.doCommand("UPDATE test_ps SET b = ? WHERE a = 9",
+            Arrays.asList("row 9"), false);
+        assert !result.failed();
+        assert server.getPlanCache().size() == size + 1;
+
+        // String literals aren't case-folded.
+        assert !PlanCache.normalize("SELECT 'A'").equals(
+            PlanCache.normalize("SELECT 'a'"));
+        assert PlanCache.normalize("SELECT  a\r\nFROM t ;").equals(
+            "select a from t");
+
+        // A DDL command empties the cache.
+        tryDoCommand("CREATE TABLE test_ps_ddl (a INTEGER)");
+        assert server.getPlanCache().size() == 0;
+        tryDoCommand("DROP TABLE test_ps_ddl");
+
+        // The wrong number of values is an error.
+        result = server.doCommand(query, null, true);
+        assert result.failed();
+    }
+
+
+    /**
+     * A prepared statement is planned again after DDL commands, after its
+     * tables are analyzed, and after its tables grow significantly.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testPlanInvalidation() throws Exception {
+        tryDoCommand("CREATE TABLE test_ps_grow (a INTEGER)");
+        for (int i = 0; i < 10; i++)
+            tryDoCommand("INSERT INTO test_ps_grow VALUES (" + i + ")");
+
+        tryDoCommand("PREPARE ps_grow AS SELECT a FROM test_ps_grow WHERE a < ?");
+        assert checkUnorderedResults(makeRange(5),
+            server.doCommand("EXECUTE ps_grow (5)", true));
+        PlanNode plan = getPlan("ps_grow");
+
+        // A few more tuples don't change the plan.
+        for (int i = 10; i < 13; i++)
+            tryDoCommand("INSERT INTO test_ps_grow VALUES (" + i + ")");
+        assert checkUnorderedResults(makeRange(12),
+            server.doCommand("EXECUTE ps_grow (12)", true));
+        assert getPlan("ps_grow") == plan;
+
+        // Doubling the table does.
+        for (int i = 13; i < 20; i++)
+            tryDoCommand("INSERT INTO test_ps_grow VALUES (" + i + ")");
+        assert checkUnorderedResults(makeRange(20),
+            server.doCommand("EXECUTE ps_grow (100)", true));
+        assert getPlan("ps_grow") != plan;
+        plan = getPlan("ps_grow");
+
+        tryDoCommand("ANALYZE test_ps_grow");
+        assert checkUnorderedResults(makeRange(2),
+            server.doCommand("EXECUTE ps_grow (2)", true));
+        assert getPlan("ps_grow") != plan;
+        plan = getPlan("ps_grow");
+
+        tryDoCommand("CREATE INDEX idx_ps_grow ON test_ps_grow (a)");
+        assert checkUnorderedResults(makeRange(3),
+            server.doCommand("EXECUTE ps_grow (3)", true));
+        assert getPlan("ps_grow") != plan;
+
+        tryDoCommand("DEALLOCATE PREPARE ps_grow");
+    }
+
+
+    /**
+     * A prepared statement with aggregates and string literals is parsed
+     * again from its text when it is planned again.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testParsedAgain() throws Exception {
+        tryDoCommand("PREPARE ps_agg AS SELECT COUNT(*), MAX(b) FROM test_ps " +
+            "WHERE b <> 'row 1' AND a < ?");
+
+        TupleLiteral[] expected = { new TupleLiteral(4, "row 4") };
+        assert checkUnorderedResults(expected,
+            server.doCommand("EXECUTE ps_agg (5)", true));
+
+        tryDoCommand("ANALYZE test_ps");
+        assert checkUnorderedResults(expected,
+            server.doCommand("EXECUTE ps_agg (5)", true));
+
+        tryDoCommand("DEALLOCATE ps_agg");
+    }
+
+
+    /**
+     * <tt>INSERT</tt>, <tt>UPDATE</tt> and <tt>DELETE</tt> commands can be
+     * prepared.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testPreparedModifications() throws Exception {
+        tryDoCommand("CREATE TABLE test_ps_dml (a INTEGER, c INTEGER)");
+        tryDoCommand("PREPARE ps_ins AS INSERT INTO test_ps_dml VALUES (?, ?)");
+        tryDoCommand("PREPARE ps_upd AS UPDATE test_ps_dml SET c = ? WHERE a = ?");
+        tryDoCommand("PREPARE ps_del FROM DELETE FROM test_ps_dml WHERE a > ?");
+
+        for (int i = 0; i < 6; i++)
+            tryDoCommand(String.format("EXECUTE ps_ins (%d, %d)", i, i + 100));
+
+        tryDoCommand("EXECUTE ps_upd (42, 1)");
+        tryDoCommand("EXECUTE ps_upd (43, 2)");
+        tryDoCommand("EXECUTE ps_del (3)");
+
+        CommandResult result = server.doCommand("SELECT * FROM test_ps_dml", true);
+        assert checkUnorderedResults(new TupleLiteral[] {
+            new TupleLiteral(0, 100), new TupleLiteral(1, 42),
+            new TupleLiteral(2, 43), new TupleLiteral(3, 103) }, result);
+    }
+
+
+    /**
+     * Executing a statement that doesn't exist, or with the wrong number of
+     * values, fails, and so does preparing a statement with a name that is
+     * in use.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testErrors() throws Exception {
+        assert server.doCommand("EXECUTE ps_missing (1)", false).failed();
+
+        tryDoCommand("PREPARE ps_err AS SELECT a FROM test_ps WHERE a = ?");
+        assert server.doCommand("EXECUTE ps_err", false).failed();
+        assert server.doCommand("EXECUTE ps_err (1, 2)", false).failed();
+        assert server.doCommand(
+            "PREPARE ps_err AS SELECT a FROM test_ps", false).failed();
+
+        tryDoCommand("DEALLOCATE ps_err");
+        assert server.doCommand("EXECUTE ps_err (1)", false).failed();
+        assert server.doCommand("DEALLOCATE ps_err", false).failed();
+    }
+}
@@ -0,0 +1,252 @@
+package edu.caltech.test.nanodb.sql;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Objects;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.server.CommandResult;
+
+
+/**
+ * This class exercises the database with equijoins and groupings over tables
+ * whose tuples are already in key order, which the planner evaluates with
+ * sort-merge joins and sorted grouping, to see if inner and outer joins,
+ * grouping and ordering produce the expected results with duplicate and
+ * <tt>NULL</tt> keys.
+ */
+@Test
+public class TestSortMergeJoin extends SqlTestCase {
+
+    /** The number of rows loaded into each test table. */
+    private static final int NUM_ROWS = 60;
+
+
+    /**
+     * Rows have <tt>NULL</tt> keys when their ID has a particular remainder
+     * modulo this value.
+     */
+    private static final int NULL_KEY_MOD = 17;
+
+
+    public TestSortMergeJoin() {
+        super("setup_testSortMergeJoin");
+    }
+
+
+    /**
+     * Loads the test tables.  Each table has several rows for most keys,
+     * some keys that only appear in one table, and some <tt>NULL</tt> keys.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    @BeforeClass
+    public void loadRows() throws Exception {
+        for (int i = 0; i < NUM_ROWS; i++) {
+            tryDoCommand(String.format("INSERT INTO test_smj_a VALUES (%s, %d)",
+                toSql(getKeyA(i)), i));
+            tryDoCommand(String.format("INSERT INTO test_smj_b VALUES (%s, %d)",
+                toSql(getKeyB(i)), i));
+            tryDoCommand(String.format("INSERT INTO test_smj_h VALUES (%s, %d)",
+                toSql(getKeyH(i)), i));
+        }
+
+        // B+ tree tuple files don't support ANALYZE yet.
+        tryDoCommand("ANALYZE test_smj_h");
+    }
+
+
+    private static Integer getKeyA(int i) {
+        return (i % NULL_KEY_MOD == 5) ? null : (i * 7) % 25;
+    }
+
+
+    private static Integer getKeyB(int i) {
+        return (i % NULL_KEY_MOD == 3) ? null : (i * 11) % 30 + 10;
+    }
+
+
+    private static Integer getKeyH(int i) {
+        return (i % NULL_KEY_MOD == 8) ? null : (i * 13) % 35;
+    }
+
+
+    private static String toSql(Integer key) {
+        return key == null ? "NULL" : key.toString();
+    }
+
+
+    /**
+     * Computes the expected results of joining the rows of two tables on
+     * their keys, optionally padding the unmatched rows of either side.
+     */
+    private static TupleLiteral[] joinRows(boolean rightTable, boolean padLeft,
+                                           boolean padRight) {
+        ArrayList<TupleLiteral> expected = new ArrayList<TupleLiteral>();
+        boolean[] rightMatched = new boolean[NUM_ROWS];
+
+        for (int i = 0; i < NUM_ROWS; i++) {
+            Integer leftKey = getKeyA(i);
+            boolean matched = false;
+            for (int j = 0; j < NUM_ROWS; j++) {
+                Integer rightKey = rightTable ? getKeyH(j) : getKeyB(j);
+                if (leftKey != null && leftKey.equals(rightKey)) {
+                    expected.add(new TupleLiteral(leftKey, i, rightKey, j));
+                    matched = true;
+                    rightMatched[j] = true;
+                }
+            }
+
+            if (!matched && padLeft)
+                expected.add(new TupleLiteral(leftKey, i, null, null));
+        }
+
+        if (padRight) {
+            for (int j = 0; j < NUM_ROWS; j++) {
+                if (!rightMatched[j]) {
+                    Integer rightKey = rightTable ? getKeyH(j) : getKeyB(j);
+                    expected.add(new TupleLiteral(null, null, rightKey, j));
+                }
+            }
+        }
+
+        return expected.toArray(new TupleLiteral[expected.size()]);
+    }
+
+
+    /**
+     * This test performs an inner join of the two ordered tables, and of an
+     * ordered table with the heap table.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testInnerJoin() throws Throwable {
+        CommandResult result = server.doCommand(
+            "SELECT id, x, bid, v FROM test_smj_a JOIN test_smj_b " +
+            "ON id = bid", true);
+        assert checkUnorderedResults(joinRows(false, false, false), result);
+
+        result = server.doCommand(
+            "SELECT id, x, hid, w FROM test_smj_a JOIN test_smj_h " +
+            "ON id = hid", true);
+        assert checkUnorderedResults(joinRows(true, false, false), result);
+    }
+
+
+    /**
+     * This test performs left, right and full outer joins of the ordered
+     * tables, to see if unmatched rows and rows with <tt>NULL</tt> keys are
+     * padded with <tt>NULL</tt>s.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testOuterJoins() throws Throwable {
+        CommandResult result = server.doCommand(
+            "SELECT id, x, bid, v FROM test_smj_a LEFT OUTER JOIN test_smj_b " +
+            "ON id = bid", true);
+        assert checkUnorderedResults(joinRows(false, true, false), result);
+
+        result = server.doCommand(
+            "SELECT id, x, bid, v FROM test_smj_a RIGHT OUTER JOIN test_smj_b " +
+            "ON id = bid", true);
+        assert checkUnorderedResults(joinRows(false, false, true), result);
+
+        result = server.doCommand(
+            "SELECT id, x, bid, v FROM test_smj_a FULL OUTER JOIN test_smj_b " +
+            "ON id = bid", true);
+        assert checkUnorderedResults(joinRows(false, true, true), result);
+    }
+
+
+    /**
+     * This test performs a full outer join with the heap table, which can
+     * only be evaluated by sorting the heap table and merge-joining it.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testFullOuterJoinWithSort() throws Throwable {
+        CommandResult result = server.doCommand(
+            "SELECT id, x, hid, w FROM test_smj_a FULL OUTER JOIN test_smj_h " +
+            "ON id = hid", true);
+        assert checkUnorderedResults(joinRows(true, true, true), result);
+    }
+
+
+    /**
+     * This test groups the ordered table on its key, and orders the results
+     * on the same key, including the group of <tt>NULL</tt> keys.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testSortedGrouping() throws Throwable {
+        ArrayList<TupleLiteral> expected = new ArrayList<TupleLiteral>();
+
+        // The group of NULL keys comes first, followed by the other keys.
+        for (int key = -1; key < 25; key++) {
+            Integer groupKey = (key < 0) ? null : key;
+            int count = 0;
+            int sum = 0;
+            for (int i = 0; i < NUM_ROWS; i++) {
+                if (Objects.equals(getKeyA(i), groupKey)) {
+                    count++;
+                    sum += i;
+                }
+            }
+            if (count > 0)
+                expected.add(new TupleLiteral(groupKey, count, sum));
+        }
+
+        CommandResult result = server.doCommand(
+            "SELECT id, COUNT(*), SUM(x) FROM test_smj_a GROUP BY id " +
+            "ORDER BY id", true);
+        assert checkOrderedResults(
+            expected.toArray(new TupleLiteral[expected.size()]), result);
+    }
+
+
+    /**
+     * This test orders the rows of the ordered tables by their keys, in the
+     * same order they are stored and in the opposite order.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testOrderBy() throws Throwable {
+        ArrayList<TupleLiteral> rows = new ArrayList<TupleLiteral>();
+        for (int i = 0; i < NUM_ROWS; i++)
+            rows.add(new TupleLiteral(getKeyA(i), i));
+
+        // Order by the key and then the row ID, with NULL keys first.
+        Collections.sort(rows, new Comparator<TupleLiteral>() {
+            @Override
+            public int compare(TupleLiteral t1, TupleLiteral t2) {
+                Integer k1 = (Integer) t1.getColumnValue(0);
+                Integer k2 = (Integer) t2.getColumnValue(0);
+                if (k1 == null || k2 == null || !k1.equals(k2)) {
+                    if (k1 == null)
+                        return k2 == null ? 0 : -1;
+                    if (k2 == null)
+                        return 1;
+                    return k1.compareTo(k2);
+                }
+                return ((Integer) t1.getColumnValue(1)).compareTo(
+                    (Integer) t2.getColumnValue(1));
+            }
+        });
+
+        CommandResult result = server.doCommand(
+            "SELECT id, x FROM test_smj_a ORDER BY id, x", true);
+        assert checkOrderedResults(
+            rows.toArray(new TupleLiteral[rows.size()]), result);
+
+        Collections.reverse(rows);
+        result = server.doCommand(
+            "SELECT id, x FROM test_smj_a ORDER BY id DESC, x DESC", true);
+        assert checkOrderedResults(
+            rows.toArray(new TupleLiteral[rows.size()]), result);
+    }
+}
@@ -0,0 +1,255 @@
+package edu.caltech.test.nanodb.sql;
+
+
+import org.testng.annotations.Test;
+
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.server.CommandResult;
+
+
+/**
+ * This class exercises the database with <tt>IN</tt>, <tt>EXISTS</tt> and
+ * scalar subqueries, both those that the planner turns into semijoins and
+ * antijoins and those that are evaluated by the subquery operators, to see
+ * if they produce the expected results, including for <tt>NULL</tt>s.
+ */
+@Test
+public class TestSubqueries extends SqlTestCase {
+
+    public TestSubqueries() {
+        super("setup_testSubqueries");
+    }
+
+
+    private static TupleLiteral[] names(String... names) {
+        TupleLiteral[] tuples = new TupleLiteral[names.length];
+        for (int i = 0; i < names.length; i++)
+            tuples[i] = new TupleLiteral((Object) names[i]);
+
+        return tuples;
+    }
+
+
+    /**
+     * This test looks up values in lists of literals and of expressions,
+     * including values of different numeric types and <tt>NULL</tt>s.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testInList() throws Throwable {
+        CommandResult result = server.doCommand(
+            "SELECT name FROM test_sq_custs WHERE cust_id IN (1, 3, 7)", true);
+        assert checkUnorderedResults(names("alice", "carol"), result);
+
+        result = server.doCommand(
+            "SELECT name FROM test_sq_custs WHERE region IN (10, NULL)", true);
+        assert checkUnorderedResults(names("alice", "carol"), result);
+
+        result = server.doCommand(
+            "SELECT name FROM test_sq_custs WHERE cust_id IN (1.0, 2)", true);
+        assert checkUnorderedResults(names("alice", "bob"), result);
+
+        result = server.doCommand(
+            "SELECT name FROM test_sq_custs WHERE name NOT IN ('alice', 'bob')",
+            true);
+        assert checkUnorderedResults(names("carol", "dave", "nobody"), result);
+
+        // Values that depend on the current row.
+        result = server.doCommand(
+            "SELECT name FROM test_sq_custs WHERE cust_id IN (region - 7, 2)",
+            true);
+        assert checkUnorderedResults(names("bob", "carol"), result);
+    }
+
+
+    /**
+     * This test looks up values in the results of uncorrelated subqueries,
+     * which are joined with the enclosing query as a whole.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testInSubquery() throws Throwable {
+        CommandResult result = server.doCommand(
+            "SELECT name FROM test_sq_custs WHERE cust_id IN " +
+            "(SELECT cust FROM test_sq_orders)", true);
+        assert checkUnorderedResults(names("alice", "bob", "carol"), result);
+
+        result = server.doCommand(
+            "SELECT name FROM test_sq_custs WHERE cust_id IN " +
+            "(SELECT cust FROM test_sq_orders GROUP BY cust " +
+            "HAVING COUNT(*) > 1)", true);
+        assert checkUnorderedResults(names("alice"), result);
+
+        // The subquery reads the same table as the enclosing query.
+        TupleLiteral[] expected = {
+            new TupleLiteral((Object) 100), new TupleLiteral((Object) 101)
+        };
+        result = server.doCommand(
+            "SELECT id FROM test_sq_orders WHERE amount IN " +
+            "(SELECT amount FROM test_sq_orders WHERE cust = 1)", true);
+        assert checkUnorderedResults(expected, result);
+    }
+
+
+    /**
+     * This test excludes the values in the results of an uncorrelated
+     * subquery.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testNotInSubquery() throws Throwable {
+        CommandResult result = server.doCommand(
+            "SELECT name FROM test_sq_custs WHERE cust_id IS NOT NULL AND " +
+            "cust_id NOT IN (SELECT cust FROM test_sq_orders " +
+            "WHERE cust IS NOT NULL)", true);
+        assert checkUnorderedResults(names("dave"), result);
+    }
+
+
+    /**
+     * This test checks that <tt>NOT IN</tt> and <tt>NOT</tt> are UNKNOWN,
+     * and so don't select the row, when a <tt>NULL</tt> on either side
+     * makes the result of the test they negate UNKNOWN.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testNotInWithNulls() throws Throwable {
+        // The subquery's results include a NULL, so no row is selected.
+        CommandResult result = server.doCommand(
+            "SELECT name FROM test_sq_custs WHERE cust_id NOT IN " +
+            "(SELECT cust FROM test_sq_orders)", true);
+        assert checkUnorderedResults(names(), result);
+
+        // The subquery has no NULLs, but the outer NULL is still UNKNOWN.
+        result = server.doCommand(
+            "SELECT name FROM test_sq_custs WHERE cust_id NOT IN " +
+            "(SELECT cust FROM test_sq_orders WHERE cust IS NOT NULL)", true);
+        assert checkUnorderedResults(names("dave"), result);
+
+        result = server.doCommand(
+            "SELECT name FROM test_sq_custs WHERE cust_id NOT IN (1, 2)", true);
+        assert checkUnorderedResults(names("carol", "dave"), result);
+
+        result = server.doCommand(
+            "SELECT name FROM test_sq_custs WHERE region NOT IN (10, NULL)",
+            true);
+        assert checkUnorderedResults(names(), result);
+
+        result = server.doCommand(
+            "SELECT name FROM test_sq_custs WHERE NOT (cust_id > 2)", true);
+        assert checkUnorderedResults(names("alice", "bob"), result);
+
+        // UNKNOWN terms of AND and OR only decide the result when no other
+        // term does.
+        result = server.doCommand(
+            "SELECT name FROM test_sq_custs " +
+            "WHERE NOT (region = 20 OR cust_id = 3)", true);
+        assert checkUnorderedResults(names("alice"), result);
+
+        result = server.doCommand(
+            "SELECT name FROM test_sq_custs " +
+            "WHERE NOT (region = 20 AND cust_id = 4)", true);
+        assert checkUnorderedResults(
+            names("alice", "bob", "carol", "nobody"), result);
+
+        // The negated value itself is NULL, not just filtered out.
+        TupleLiteral[] expected = {
+            new TupleLiteral("alice", Boolean.TRUE),
+            new TupleLiteral("carol", Boolean.FALSE),
+            new TupleLiteral("nobody", null)
+        };
+        result = server.doCommand(
+            "SELECT name, NOT (cust_id > 2) FROM test_sq_custs " +
+            "WHERE region <> 20 OR cust_id IS NULL", true);
+        assert checkUnorderedResults(expected, result);
+    }
+
+
+    /**
+     * This test uses correlated <tt>EXISTS</tt>, <tt>NOT EXISTS</tt> and
+     * <tt>IN</tt> subqueries that are joined with the enclosing query on an
+     * equality.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testCorrelatedSemiJoins() throws Throwable {
+        CommandResult result = server.doCommand(
+            "SELECT name FROM test_sq_custs c WHERE EXISTS " +
+            "(SELECT * FROM test_sq_orders o " +
+            "WHERE o.cust = c.cust_id AND o.amount > 30)", true);
+        assert checkUnorderedResults(names("alice"), result);
+
+        result = server.doCommand(
+            "SELECT name FROM test_sq_custs c WHERE NOT EXISTS " +
+            "(SELECT * FROM test_sq_orders o WHERE o.cust = c.cust_id)", true);
+        assert checkUnorderedResults(names("dave", "nobody"), result);
+
+        result = server.doCommand(
+            "SELECT name FROM test_sq_custs c WHERE 20 IN " +
+            "(SELECT amount FROM test_sq_orders o WHERE o.cust = c.cust_id)",
+            true);
+        assert checkUnorderedResults(names("carol"), result);
+    }
+
+
+    /**
+     * This test uses <tt>EXISTS</tt> subqueries that can't be turned into
+     * joins, so they are evaluated by the operator:  a correlated subquery
+     * without an equality, which is evaluated for every row, and
+     * uncorrelated subqueries, which are only evaluated once.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testExistsWithoutJoin() throws Throwable {
+        CommandResult result = server.doCommand(
+            "SELECT name FROM test_sq_custs c WHERE EXISTS " +
+            "(SELECT * FROM test_sq_orders o WHERE o.amount > c.region * 3)",
+            true);
+        assert checkUnorderedResults(names("alice", "bob", "carol"), result);
+
+        result = server.doCommand(
+            "SELECT COUNT(*) FROM test_sq_custs WHERE EXISTS " +
+            "(SELECT * FROM test_sq_orders WHERE amount > 60)", true);
+        assert checkUnorderedResults(new TupleLiteral[] {
+            new TupleLiteral((Object) 5) }, result);
+
+        result = server.doCommand(
+            "SELECT name FROM test_sq_custs WHERE NOT EXISTS " +
+            "(SELECT * FROM test_sq_orders WHERE amount > 100)", true);
+        assert checkUnorderedResults(
+            names("alice", "bob", "carol", "dave", "nobody"), result);
+    }
+
+
+    /**
+     * This test uses scalar subqueries in the <tt>WHERE</tt> clause and in
+     * the <tt>SELECT</tt> values, and checks that a subquery producing more
+     * than one row is reported.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testScalarSubqueries() throws Throwable {
+        CommandResult result = server.doCommand(
+            "SELECT id FROM test_sq_orders WHERE amount = " +
+            "(SELECT MAX(amount) FROM test_sq_orders)", true);
+        assert checkUnorderedResults(new TupleLiteral[] {
+            new TupleLiteral((Object) 101) }, result);
+
+        TupleLiteral[] expected = {
+            new TupleLiteral("alice", 2),
+            new TupleLiteral("bob", 1),
+            new TupleLiteral("carol", 1),
+            new TupleLiteral("dave", 0),
+            new TupleLiteral("nobody", 0)
+        };
+        result = server.doCommand(
+            "SELECT name, (SELECT COUNT(*) FROM test_sq_orders o " +
+            "WHERE o.cust = c.cust_id) FROM test_sq_custs c", true);
+        assert checkUnorderedResults(expected, result);
+
+        result = server.doCommand(
+            "SELECT name FROM test_sq_custs WHERE cust_id = " +
+            "(SELECT cust FROM test_sq_orders)", true);
+        assert result.failed();
+    }
+}
@@ -0,0 +1,274 @@
+package edu.caltech.test.nanodb.sql;
+
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import edu.caltech.nanodb.client.SessionState;
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.server.CommandResult;
+import edu.caltech.nanodb.storage.linhash.LinHashTupleFile;
+
+
+/**
+ * This class exercises the system tables, which are table-returning
+ * functions that report the state of the database.
+ */
+@Test
+public class TestSystemTables extends SqlTestCase {
+
+    /** The number of rows in table <tt>test_sys_hash</tt>. */
+    private static final int NUM_HASH_ROWS = 150;
+
+
+    /**
+     * Creates the test tables, so that some pages are read and written.
+     * Table <tt>test_sys_hash</tt> is a linear hash file with small pages,
+     * so that its buckets are split and overflow.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    @BeforeClass
+    public void createTables() throws Exception {
+        tryDoCommand("CREATE TABLE test_sys (a INTEGER)");
+        for (int i = 0; i < 10; i++)
+            tryDoCommand("INSERT INTO test_sys VALUES (" + i + ")");
+
+        tryDoCommand("CREATE TABLE test_sys_hash (a INTEGER, b VARCHAR(40)) " +
+            "PROPERTIES (storage = 'lin-hash', pagesize = 512, hashkey = '0')");
+        for (int i = 0; i < NUM_HASH_ROWS; i++) {
+            tryDoCommand(String.format("INSERT INTO test_sys_hash VALUES " +
+                "(%d, 'a string to fill the pages %d')", i, i));
+        }
+    }
+
+
+    /** Returns the single value that a query produces. */
+    private Object getValue(String query) throws Exception {
+        List<TupleLiteral> tuples = tryDoCommand(query, true).getTuples();
+        assert tuples.size() == 1 : query + " produced " + tuples;
+        return tuples.get(0).getColumnValue(0);
+    }
+
+
+    /**
+     * <tt>SYS_METRICS()</tt> reports the counters, gauges and histograms of
+     * the metrics registry, including the latencies of commands.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testSysMetrics() throws Exception {
+        tryDoCommand("SELECT * FROM test_sys");
+
+        Object count = getValue("SELECT COUNT FROM SYS_METRICS() " +
+            "WHERE NAME = 'storage.pagesRead'");
+        assert ((Long) count) > 0;
+
+        assert "GAUGE".equals(getValue("SELECT m.KIND FROM SYS_METRICS() m " +
+            "WHERE m.NAME = 'bufmgr.hitRatio'"));
+
+        CommandResult result = server.doCommand(
+            "SELECT COUNT, P50, MAX FROM SYS_METRICS() " +
+            "WHERE NAME = 'command.insert.latency'", true);
+        assert !result.failed();
+        TupleLiteral row = result.getTuples().get(0);
+        assert ((Long) row.getColumnValue(0)) >= 10;
+        assert ((Long) row.getColumnValue(1)) > 0;
+        assert ((Long) row.getColumnValue(2)) >= (Long) row.getColumnValue(1);
+
+        // System tables can be joined with other tables.
+        List<TupleLiteral> tuples = tryDoCommand("SELECT t.a, m.KIND " +
+            "FROM test_sys t, SYS_METRICS() AS m " +
+            "WHERE m.NAME = 'storage.pagesRead' AND t.a < 3", true).getTuples();
+        assert tuples.size() == 3 : tuples;
+    }
+
+
+    /**
+     * <tt>SYS_BUFFER_POOL</tt> has a row for each open file, and can be named
+     * without calling it.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testSysBufferPool() throws Exception {
+        tryDoCommand("SELECT * FROM test_sys");
+
+        assert "HEAP_TUPLE_FILE".equals(getValue("SELECT FILE_TYPE " +
+            "FROM SYS_BUFFER_POOL() WHERE FILE_NAME = 'TEST_SYS.tbl'"));
+
+        TupleLiteral row = tryDoCommand("SELECT CACHED_PAGES, DIRTY_PAGES, " +
+            "PINNED_PAGES, PCT_OF_CACHE FROM sys_buffer_pool " +
+            "WHERE FILE_NAME = 'TEST_SYS.tbl'", true).getTuples().get(0);
+        int cachedPages = (Integer) row.getColumnValue(0);
+        assert cachedPages >= (Integer) row.getColumnValue(1);
+        assert cachedPages >= (Integer) row.getColumnValue(2);
+        assert (Double) row.getColumnValue(3) >= 0;
+
+        // No page is pinned between commands.
+        assert ((Integer) getValue("SELECT COUNT(*) FROM sys_buffer_pool " +
+            "WHERE PINS > 0 AND FILE_NAME = 'TEST_SYS.tbl'")) == 0;
+    }
+
+
+    /**
+     * <tt>SYS_IO_STATS</tt> reports the pages read from and written to each
+     * open file.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testSysIOStats() throws Exception {
+        tryDoCommand("SELECT * FROM test_sys");
+
+        TupleLiteral row = tryDoCommand("SELECT PAGES_READ, BYTES_READ, " +
+            "PAGES_WRITTEN, BYTES_WRITTEN FROM sys_io_stats " +
+            "WHERE FILE_NAME = 'TEST_SYS.tbl'", true).getTuples().get(0);
+        long pagesRead = (Long) row.getColumnValue(0);
+        long pagesWritten = (Long) row.getColumnValue(2);
+        assert pagesRead > 0;
+        assert pagesWritten > 0;
+
+        int pageSize = server.getStorageManager().getTableManager()
+            .openTable("TEST_SYS").getDBFile().getPageSize();
+        assert (Long) row.getColumnValue(1) == pagesRead * pageSize;
+        assert (Long) row.getColumnValue(3) == pagesWritten * pageSize;
+    }
+
+
+    /**
+     * <tt>SYS_HASH_FILES</tt> reports the buckets and chains of the tables
+     * stored in linear hash files.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testSysHashFiles() throws Exception {
+        List<TupleLiteral> tuples = tryDoCommand("SELECT LEVEL, NEXT, " +
+            "BUCKETS, OVERFLOW_PAGES, MAX_CHAIN, AVG_CHAIN, CHAIN_LENGTHS " +
+            "FROM sys_hash_files WHERE TABLE_NAME = 'TEST_SYS_HASH'",
+            true).getTuples();
+        assert tuples.size() == 1 : tuples;
+
+        TupleLiteral row = tuples.get(0);
+        int level = (Integer) row.getColumnValue(0);
+        int next = (Integer) row.getColumnValue(1);
+        int buckets = (Integer) row.getColumnValue(2);
+        assert buckets == LinHashTupleFile.N_BUCKETS * (1 << level) + next;
+        assert buckets > LinHashTupleFile.N_BUCKETS : row;
+
+        int maxChain = (Integer) row.getColumnValue(4);
+        double avgChain = (Double) row.getColumnValue(5);
+        assert maxChain >= 1 && avgChain >= 1 && avgChain <= maxChain;
+
+        // Every bucket appears in the distribution of chain lengths, and
+        // every chain page past the first is an overflow page.
+        int numBuckets = 0;
+        int chainPages = 0;
+        for (String pair : ((String) row.getColumnValue(6)).split(" ")) {
+            String[] parts = pair.split(":");
+            int length = Integer.parseInt(parts[0]);
+            int count = Integer.parseInt(parts[1]);
+            assert length <= maxChain;
+            numBuckets += count;
+            chainPages += (length - 1) * count;
+        }
+        assert numBuckets == buckets;
+        assert chainPages <= (Integer) row.getColumnValue(3);
+
+        // Tables in other kinds of files aren't reported.
+        assert tryDoCommand("SELECT * FROM SYS_HASH_FILES() " +
+            "WHERE TABLE_NAME = 'TEST_SYS'", true).getTuples().isEmpty();
+    }
+
+
+    /**
+     * <tt>SYS_SESSIONS</tt> reports each session that hasn't ended, and what
+     * it is doing.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testSysSessions() throws Exception {
+        int sessionID = SessionState.get().getSessionID();
+        TupleLiteral row = tryDoCommand("SELECT STATE, COMMAND, TXN_ID " +
+            "FROM sys_sessions WHERE SESSION_ID = " + sessionID,
+            true).getTuples().get(0);
+        assert "ACTIVE".equals(row.getColumnValue(0));
+        assert "SELECT".equals(row.getColumnValue(1));
+
+        // Another session prepares a statement, and waits until it is told
+        // to end.
+        final int[] otherID = new int[1];
+        final CountDownLatch prepared = new CountDownLatch(1);
+        final CountDownLatch finish = new CountDownLatch(1);
+        Thread other = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    otherID[0] = SessionState.get().getSessionID();
+                    server.doCommand("PREPARE ps_sys AS SELECT * FROM test_sys",
+                        false);
+                    prepared.countDown();
+                    finish.await();
+                }
+                catch (Exception e) {
+                    // Fall through and end the session.
+                }
+                finally {
+                    SessionState.remove();
+                }
+            }
+        }, "test-sys-session");
+        other.start();
+        prepared.await();
+
+        try {
+            row = tryDoCommand("SELECT THREAD_NAME, STATE, COMMAND, " +
+                "PREPARED_STATEMENTS, COMMAND_MS FROM SYS_SESSIONS() " +
+                "WHERE SESSION_ID = " + otherID[0], true).getTuples().get(0);
+            assert "test-sys-session".equals(row.getColumnValue(0));
+            assert "IDLE".equals(row.getColumnValue(1));
+            assert "PREPARE".equals(row.getColumnValue(2));
+            assert ((Integer) row.getColumnValue(3)) == 1;
+            assert ((Double) row.getColumnValue(4)) > 0;
+        }
+        finally {
+            finish.countDown();
+            other.join();
+        }
+
+        // The session ended.
+        assert tryDoCommand("SELECT * FROM sys_sessions WHERE SESSION_ID = " +
+            otherID[0], true).getTuples().isEmpty();
+    }
+
+
+    /**
+     * <tt>PERF_COUNTER()</tt> and <tt>RESET_PERF_COUNTER()</tt> read and
+     * reset metrics by name.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testPerfCounter() throws Exception {
+        tryDoCommand("SELECT * FROM test_sys");
+
+        assert ((Long) getValue("SELECT PERF_COUNTER('storage.pagesRead')")) > 0;
+        assert ((Long) getValue("SELECT PERF_COUNTER('no.such.metric')")) == 0;
+
+        getValue("SELECT RESET_PERF_COUNTER('storage.largeSeeks')");
+        assert ((Long) getValue(
+            "SELECT PERF_COUNTER('storage.largeSeeks')")) == 0;
+    }
+
+
+    /**
+     * Scalar functions, and functions that don't exist, can't be used as
+     * tables, and system tables don't take arguments.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testErrors() throws Exception {
+        assert server.doCommand("SELECT * FROM ABS(1)", false).failed();
+        assert server.doCommand("SELECT * FROM NO_SUCH_FUNCTION()", false).failed();
+        assert server.doCommand("SELECT * FROM SYS_METRICS(1)", false).failed();
+    }
+}
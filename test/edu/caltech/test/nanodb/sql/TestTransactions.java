@@ -0,0 +1,385 @@
+package edu.caltech.test.nanodb.sql;
+
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import edu.caltech.nanodb.client.SessionState;
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.server.CommandResult;
+import edu.caltech.nanodb.server.NanoDBServer;
+import edu.caltech.nanodb.storage.StorageManager;
+import edu.caltech.nanodb.storage.backup.BackupManager;
+import edu.caltech.nanodb.transactions.LockManager;
+import edu.caltech.nanodb.transactions.LockTimeoutException;
+import edu.caltech.nanodb.transactions.TransactionManager;
+
+
+/**
+ * This class exercises the database with transactions enabled, to see if
+ * the changes of transactions that roll back or don't finish before a
+ * crash are undone, without undoing the changes of other transactions.
+ */
+@Test
+public class TestTransactions extends SqlTestCase {
+
+    /** The number of rows in the table that bulk loads read from. */
+    private static final int NUM_SOURCE_ROWS = 300;
+
+
+    @BeforeClass
+    @Override
+    public void beforeClass() throws Exception {
+        System.setProperty(TransactionManager.PROP_TXNS, "on");
+        super.beforeClass();
+
+        tryDoCommand("CREATE TABLE test_txn_src (a INTEGER, b VARCHAR(40))");
+        for (int i = 0; i < NUM_SOURCE_ROWS; i++) {
+            tryDoCommand(String.format("INSERT INTO test_txn_src VALUES " +
+                "(%d, 'a string to fill the pages %d')", i, i));
+        }
+    }
+
+
+    @AfterClass
+    @Override
+    public void afterClass() {
+        super.afterClass();
+        System.clearProperty(TransactionManager.PROP_TXNS);
+    }
+
+
+    /**
+     * Shuts down the server in the middle of the current transaction and
+     * starts it again, so that recovery must undo the transaction.  Dirty
+     * pages are written out when the server shuts down, so the incomplete
+     * transaction's changes are on disk, as they may be after a crash.
+     */
+    private void crashAndRecover() throws Exception {
+        server.shutdown();
+
+        // The session's transaction died with the server.
+        SessionState.get().getTxnState().clear();
+
+        server = new NanoDBServer();
+        server.startup();
+    }
+
+
+    /**
+     * Shuts down the server and starts it again on the specified base
+     * directory.
+     */
+    private void restartServer(File baseDir) throws Exception {
+        server.shutdown();
+        System.setProperty(StorageManager.PROP_BASEDIR,
+            baseDir.getAbsolutePath());
+
+        server = new NanoDBServer();
+        server.startup();
+    }
+
+
+    /** Returns true if a command failed because a lock wait timed out. */
+    private boolean isLockTimeout(CommandResult result) {
+        for (Throwable t = result.getFailure(); t != null; t = t.getCause()) {
+            if (t instanceof LockTimeoutException)
+                return true;
+        }
+        return false;
+    }
+
+
+    private LockManager getLockManager() {
+        return server.getStorageManager().getTransactionManager()
+            .getLockManager();
+    }
+
+
+    /** Returns the number of rows in a table. */
+    private int countRows(String tableName) throws Exception {
+        CommandResult result = tryDoCommand("SELECT COUNT(*) FROM " +
+            tableName, true);
+        return ((Number) result.getTuples().get(0).getColumnValue(0)).intValue();
+    }
+
+
+    private void createTable(String tableName, String storage)
+        throws Exception {
+
+        String props = "";
+        if (storage != null) {
+            props = " PROPERTIES (storage = '" + storage +
+                "', pagesize = 512, hashkey = '0')";
+        }
+
+        tryDoCommand("CREATE TABLE " + tableName +
+            " (a INTEGER, b VARCHAR(40))" + props);
+    }
+
+
+    /**
+     * Bulk-loads data into a table in a transaction, and checks that rolling
+     * back the transaction removes all of the loaded rows, and only those.
+     */
+    private void checkBulkLoadRollback(String tableName, String storage,
+                                       int numExisting) throws Exception {
+        createTable(tableName, storage);
+        for (int i = 0; i < numExisting; i++) {
+            tryDoCommand(String.format("INSERT INTO %s VALUES (%d, 'old')",
+                tableName, -1 - i));
+        }
+
+        tryDoCommand("BEGIN");
+        tryDoCommand("INSERT INTO " + tableName + " SELECT * FROM test_txn_src");
+        assert countRows(tableName) == numExisting + NUM_SOURCE_ROWS;
+        tryDoCommand("ROLLBACK");
+
+        CommandResult result = tryDoCommand("SELECT COUNT(*) FROM " +
+            tableName + " WHERE b = 'old'", true);
+        assert countRows(tableName) == numExisting;
+        assert result.getTuples().get(0).getColumnValue(0).equals(numExisting);
+    }
+
+
+    /**
+     * This test rolls back <tt>INSERT ... SELECT</tt> statements, which
+     * bulk-load their results, into empty tables and tables that already
+     * hold committed rows.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testBulkLoadRollback() throws Throwable {
+        checkBulkLoadRollback("test_bulk_empty", null, 0);
+        checkBulkLoadRollback("test_bulk_nonempty", null, 5);
+        checkBulkLoadRollback("test_bulk_hash_empty", "lin-hash", 0);
+        checkBulkLoadRollback("test_bulk_hash_nonempty", "lin-hash", 5);
+    }
+
+
+    /**
+     * This test crashes the database in the middle of transactions that
+     * bulk-load data, and checks that recovery undoes the incomplete loads
+     * but keeps the committed ones.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testBulkLoadRecovery() throws Throwable {
+        createTable("test_bulk_committed", null);
+        tryDoCommand("INSERT INTO test_bulk_committed " +
+            "SELECT * FROM test_txn_src");
+
+        createTable("test_bulk_crash_empty", null);
+        createTable("test_bulk_crash_nonempty", null);
+        tryDoCommand("INSERT INTO test_bulk_crash_nonempty VALUES (-1, 'old')");
+
+        tryDoCommand("BEGIN");
+        tryDoCommand("INSERT INTO test_bulk_crash_empty " +
+            "SELECT * FROM test_txn_src");
+        tryDoCommand("INSERT INTO test_bulk_crash_nonempty " +
+            "SELECT * FROM test_txn_src");
+        crashAndRecover();
+
+        assert countRows("test_bulk_committed") == NUM_SOURCE_ROWS;
+        assert countRows("test_bulk_crash_empty") == 0;
+
+        TupleLiteral[] expected = { new TupleLiteral(-1, "old") };
+        CommandResult result = server.doCommand(
+            "SELECT * FROM test_bulk_crash_nonempty", true);
+        assert checkUnorderedResults(expected, result);
+    }
+
+
+    /**
+     * This test checks that a transaction that bulk-loads an empty table
+     * keeps other transactions from writing to the table until it ends, so
+     * that rolling back the load doesn't undo their changes.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testBulkLoadExcludesWriters() throws Throwable {
+        createTable("test_bulk_shared", null);
+        SessionState loader = SessionState.get();
+        SessionState other = newSession();
+
+        LockManager lockManager = getLockManager();
+        long oldTimeout = lockManager.getLockTimeout();
+        lockManager.setLockTimeout(100);
+        try {
+            tryDoCommand("BEGIN");
+            tryDoCommand("INSERT INTO test_bulk_shared " +
+                "SELECT * FROM test_txn_src");
+
+            // The other transaction can't write to the table until the bulk
+            // load ends.
+            CommandResult result = doCommandAs(other,
+                "INSERT INTO test_bulk_shared VALUES (-1, 'other')");
+            assert isLockTimeout(result);
+
+            tryDoCommand("ROLLBACK");
+            result = doCommandAs(other,
+                "INSERT INTO test_bulk_shared VALUES (-1, 'other')");
+            if (result.failed())
+                throw result.getFailure();
+        }
+        finally {
+            SessionState.set(loader);
+            lockManager.setLockTimeout(oldTimeout);
+        }
+
+        TupleLiteral[] expected = { new TupleLiteral(-1, "other") };
+        CommandResult result = server.doCommand(
+            "SELECT * FROM test_bulk_shared", true);
+        assert checkUnorderedResults(expected, result);
+    }
+
+
+    /**
+     * This test checks that two transactions can't write to the same page at
+     * the same time, so that rolling back one of them doesn't undo the
+     * other's changes to the page.  All of the rows have the same hash key,
+     * so that they are in the same page even in a hashed table.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testWritersLockPages() throws Throwable {
+        checkWriterAbort("test_page_heap", null);
+        checkWriterAbort("test_page_hash", "lin-hash");
+    }
+
+
+    /**
+     * Inserts a row in one transaction and tries to insert a row in a second
+     * one, then rolls back the first transaction and checks that the second
+     * transaction's row survives.  Without page locks, the second row would
+     * be added to the same page, and undoing the first insert would restore
+     * the page's old slot count and drop it.
+     */
+    private void checkWriterAbort(String tableName, String storage)
+        throws Throwable {
+
+        createTable(tableName, storage);
+        tryDoCommand("INSERT INTO " + tableName + " VALUES (0, 'old')");
+
+        SessionState writer = SessionState.get();
+        SessionState other = newSession();
+        String otherInsert = "INSERT INTO " + tableName + " VALUES (0, 'other')";
+
+        LockManager lockManager = getLockManager();
+        long oldTimeout = lockManager.getLockTimeout();
+        lockManager.setLockTimeout(100);
+        try {
+            tryDoCommand("BEGIN");
+            tryDoCommand("INSERT INTO " + tableName + " VALUES (0, 'aborted')");
+
+            // The other transaction can't change the page until the first
+            // transaction ends.
+            CommandResult result = doCommandAs(other, otherInsert);
+            assert isLockTimeout(result);
+
+            tryDoCommand("ROLLBACK");
+            result = doCommandAs(other, otherInsert);
+            if (result.failed())
+                throw result.getFailure();
+        }
+        finally {
+            SessionState.set(writer);
+            lockManager.setLockTimeout(oldTimeout);
+        }
+
+        TupleLiteral[] expected = {
+            new TupleLiteral(0, "old"),
+            new TupleLiteral(0, "other")
+        };
+        CommandResult result = server.doCommand(
+            "SELECT * FROM " + tableName, true);
+        assert checkUnorderedResults(expected, result);
+    }
+
+
+    /**
+     * This test takes a full backup, changes the data, takes an incremental
+     * backup while another transaction has uncommitted changes, and checks
+     * that restoring the incremental backup recovers exactly the data that
+     * was committed when it was taken.
+     *
+     * @throws Exception if any query parsing or execution issues occur.
+     */
+    public void testBackupRoundTrip() throws Throwable {
+        File backupsDir = new File("test_backups");
+        File fullDir = new File(backupsDir, "full");
+        File incrDir = new File(backupsDir, "incr");
+        File restoreDir = new File(backupsDir, "restore");
+        File testBaseDir = new File(System.getProperty(
+            StorageManager.PROP_BASEDIR));
+
+        if (backupsDir.exists())
+            FileUtils.cleanDirectory(backupsDir);
+
+        createTable("test_backup", null);
+        createTable("test_backup_hash", "lin-hash");
+        for (int i = 0; i < 5; i++) {
+            tryDoCommand(String.format(
+                "INSERT INTO test_backup VALUES (%d, 'full')", i));
+            tryDoCommand(String.format(
+                "INSERT INTO test_backup_hash VALUES (%d, 'full')", i));
+        }
+        tryDoCommand("BACKUP TO '" + fullDir.getAbsolutePath() + "'");
+
+        tryDoCommand("UPDATE test_backup SET b = 'updt' WHERE a = 1");
+        tryDoCommand("DELETE FROM test_backup WHERE a = 2");
+        tryDoCommand("INSERT INTO test_backup VALUES (5, 'incr')");
+        tryDoCommand("DELETE FROM test_backup_hash WHERE a = 3");
+        tryDoCommand("INSERT INTO test_backup_hash VALUES (5, 'incr')");
+
+        // This transaction is still running when the incremental backup is
+        // taken, so recovering the backup must roll it back.
+        SessionState writer = SessionState.get();
+        SessionState other = newSession();
+        tryDoCommand("BEGIN");
+        tryDoCommand("INSERT INTO test_backup VALUES (6, 'uncommitted')");
+        tryDoCommand("INSERT INTO test_backup_hash VALUES (6, 'uncommitted')");
+
+        CommandResult result = doCommandAs(other, "BACKUP TO '" +
+            incrDir.getAbsolutePath() + "' INCREMENTAL FROM '" +
+            fullDir.getAbsolutePath() + "'");
+        if (result.failed())
+            throw result.getFailure();
+
+        tryDoCommand("COMMIT");
+        tryDoCommand("INSERT INTO test_backup VALUES (7, 'later')");
+
+        BackupManager.restore(incrDir, restoreDir);
+        restartServer(restoreDir);
+        try {
+            TupleLiteral[] expected = {
+                new TupleLiteral(0, "full"),
+                new TupleLiteral(1, "updt"),
+                new TupleLiteral(3, "full"),
+                new TupleLiteral(4, "full"),
+                new TupleLiteral(5, "incr")
+            };
+            result = server.doCommand("SELECT * FROM test_backup", true);
+            assert checkUnorderedResults(expected, result);
+
+            TupleLiteral[] expectedHash = {
+                new TupleLiteral(0, "full"),
+                new TupleLiteral(1, "full"),
+                new TupleLiteral(2, "full"),
+                new TupleLiteral(4, "full"),
+                new TupleLiteral(5, "incr")
+            };
+            result = server.doCommand("SELECT * FROM test_backup_hash", true);
+            assert checkUnorderedResults(expectedHash, result);
+        }
+        finally {
+            SessionState.set(writer);
+            restartServer(testBaseDir);
+            FileUtils.deleteDirectory(backupsDir);
+        }
+    }
+}
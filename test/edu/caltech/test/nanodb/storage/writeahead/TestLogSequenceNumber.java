@@ -94,4 +94,22 @@ public class TestLogSequenceNumber {
         assert lsn1.hashCode() == lsn2.hashCode();
         assert lsn1.compareTo(lsn2) == 0;
     }
+
+
+    public void testLongEncoding() {
+        LogSequenceNumber lsn1 = new LogSequenceNumber(123, 456);
+        LogSequenceNumber lsn2 = LogSequenceNumber.fromLong(lsn1.toLong());
+        assert lsn1.equals(lsn2);
+
+        LogSequenceNumber lsn3 = new LogSequenceNumber(
+            WALManager.MAX_WAL_FILE_NUMBER, Integer.MAX_VALUE);
+        LogSequenceNumber lsn4 = LogSequenceNumber.fromLong(lsn3.toLong());
+        assert lsn4.getLogFileNo() == WALManager.MAX_WAL_FILE_NUMBER;
+        assert lsn4.getFileOffset() == Integer.MAX_VALUE;
+
+        // Packed values must order the same way as the LSNs themselves.
+        LogSequenceNumber lsn5 = new LogSequenceNumber(124, 0);
+        assert lsn1.toLong() < lsn5.toLong();
+        assert lsn5.toLong() < lsn3.toLong();
+    }
 }
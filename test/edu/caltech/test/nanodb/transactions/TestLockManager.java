@@ -0,0 +1,159 @@
+package edu.caltech.test.nanodb.transactions;
+
+
+import org.testng.annotations.*;
+
+import edu.caltech.nanodb.storage.FilePointer;
+import edu.caltech.nanodb.transactions.DeadlockException;
+import edu.caltech.nanodb.transactions.LockManager;
+import edu.caltech.nanodb.transactions.LockMode;
+import edu.caltech.nanodb.transactions.LockResource;
+import edu.caltech.nanodb.transactions.LockTimeoutException;
+
+
+/**
+ * Make sure the {@link edu.caltech.nanodb.transactions.LockManager} class
+ * grants, converts, escalates and releases locks properly.
+ */
+@Test
+public class TestLockManager {
+
+    private static final LockResource TABLE = LockResource.forTable("t");
+
+
+    private static LockResource tuple(int pageNo, int offset) {
+        return LockResource.forTuple("t", new FilePointer(pageNo, offset));
+    }
+
+
+    public void testCompatibility() {
+        assert LockMode.SHARED.isCompatibleWith(LockMode.SHARED);
+        assert LockMode.INTENTION_EXCLUSIVE.isCompatibleWith(
+            LockMode.INTENTION_SHARED);
+        assert !LockMode.SHARED.isCompatibleWith(LockMode.INTENTION_EXCLUSIVE);
+        assert !LockMode.EXCLUSIVE.isCompatibleWith(LockMode.INTENTION_SHARED);
+
+        assert LockMode.SHARED.combine(LockMode.INTENTION_EXCLUSIVE) ==
+            LockMode.SHARED_INTENTION_EXCLUSIVE;
+        assert LockMode.SHARED.combine(LockMode.EXCLUSIVE) == LockMode.EXCLUSIVE;
+    }
+
+
+    public void testIntentionLocks() throws Exception {
+        LockManager lockManager = new LockManager();
+
+        lockManager.acquireLock(1, tuple(1, 10), LockMode.SHARED);
+        assert lockManager.getLockMode(1, TABLE) == LockMode.INTENTION_SHARED;
+        assert lockManager.getLockMode(1, tuple(1, 10)) == LockMode.SHARED;
+
+        // A second reader of the same tuple is granted immediately.
+        lockManager.acquireLock(2, tuple(1, 10), LockMode.SHARED);
+
+        // Upgrading the tuple lock also upgrades the table's intention lock.
+        lockManager.acquireLock(2, tuple(1, 20), LockMode.EXCLUSIVE);
+        assert lockManager.getLockMode(2, TABLE) ==
+            LockMode.INTENTION_EXCLUSIVE;
+
+        lockManager.releaseAllLocks(1);
+        lockManager.releaseAllLocks(2);
+        assert lockManager.getNumLocksHeld(1) == 0;
+        assert lockManager.getNumLocksHeld(2) == 0;
+    }
+
+
+    public void testTimeout() throws Exception {
+        LockManager lockManager = new LockManager();
+        lockManager.setLockTimeout(50);
+
+        lockManager.acquireLock(1, tuple(1, 10), LockMode.EXCLUSIVE);
+        try {
+            lockManager.acquireLock(2, tuple(1, 10), LockMode.SHARED);
+            assert false : "Conflicting lock was granted.";
+        }
+        catch (LockTimeoutException e) {
+            // Success!
+        }
+
+        // Once the holder releases its locks, the lock can be granted.
+        lockManager.releaseAllLocks(1);
+        lockManager.acquireLock(2, tuple(1, 10), LockMode.SHARED);
+    }
+
+
+    public void testWaitForRelease() throws Exception {
+        final LockManager lockManager = new LockManager();
+        lockManager.acquireLock(1, tuple(1, 10), LockMode.EXCLUSIVE);
+
+        Thread releaser = new Thread() {
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                }
+                catch (InterruptedException e) {
+                    // Fall through.
+                }
+                lockManager.releaseAllLocks(1);
+            }
+        };
+        releaser.start();
+
+        lockManager.acquireLock(2, tuple(1, 10), LockMode.EXCLUSIVE);
+        assert lockManager.getLockMode(2, tuple(1, 10)) == LockMode.EXCLUSIVE;
+        releaser.join();
+    }
+
+
+    public void testDeadlock() throws Exception {
+        final LockManager lockManager = new LockManager();
+        lockManager.setLockTimeout(5000);
+
+        lockManager.acquireLock(1, tuple(1, 10), LockMode.EXCLUSIVE);
+        lockManager.acquireLock(2, tuple(1, 20), LockMode.EXCLUSIVE);
+
+        // Transaction 1 waits for transaction 2 in another thread...
+        Thread waiter = new Thread() {
+            public void run() {
+                try {
+                    lockManager.acquireLock(1, tuple(1, 20), LockMode.EXCLUSIVE);
+                }
+                catch (Exception e) {
+                    // Not expected; the assertion below will fail.
+                }
+            }
+        };
+        waiter.start();
+
+        while (waiter.getState() != Thread.State.TIMED_WAITING)
+            Thread.sleep(5);
+
+        // ...so transaction 2 waiting for transaction 1 is a deadlock.
+        try {
+            lockManager.acquireLock(2, tuple(1, 10), LockMode.EXCLUSIVE);
+            assert false : "Deadlock was not detected.";
+        }
+        catch (DeadlockException e) {
+            // Success!
+        }
+
+        lockManager.releaseAllLocks(2);
+        waiter.join();
+        assert lockManager.getLockMode(1, tuple(1, 20)) == LockMode.EXCLUSIVE;
+    }
+
+
+    public void testEscalation() throws Exception {
+        LockManager lockManager = new LockManager();
+        lockManager.setEscalationThreshold(10);
+
+        for (int i = 0; i < 10; i++)
+            lockManager.acquireLock(1, tuple(1, i), LockMode.EXCLUSIVE);
+
+        // The tuple locks are replaced by an exclusive table lock.
+        assert lockManager.getLockMode(1, TABLE) == LockMode.EXCLUSIVE;
+        assert lockManager.getNumLocksHeld(1) == 1;
+
+        // Further tuple locks are covered by the table lock.
+        lockManager.acquireLock(1, tuple(2, 0), LockMode.EXCLUSIVE);
+        assert lockManager.getNumLocksHeld(1) == 1;
+    }
+}
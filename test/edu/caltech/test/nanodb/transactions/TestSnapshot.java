@@ -0,0 +1,49 @@
+package edu.caltech.test.nanodb.transactions;
+
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.testng.annotations.*;
+
+import edu.caltech.nanodb.transactions.Snapshot;
+
+
+/**
+ * Make sure the {@link edu.caltech.nanodb.transactions.Snapshot} class
+ * reports the correct transactions as committed.
+ */
+@Test
+public class TestSnapshot {
+
+    public void testNoActiveTransactions() {
+        Snapshot snapshot =
+            new Snapshot(5, 6, Collections.<Integer>emptyList());
+
+        assert snapshot.getXMin() == 5;
+        assert snapshot.getXMax() == 6;
+
+        assert snapshot.isCommitted(1);
+        assert snapshot.isCommitted(4);
+
+        // A transaction never sees its own changes as committed, and never
+        // sees transactions that started after the snapshot.
+        assert !snapshot.isCommitted(5);
+        assert !snapshot.isCommitted(6);
+        assert !snapshot.isCommitted(100);
+    }
+
+
+    public void testActiveTransactions() {
+        Snapshot snapshot = new Snapshot(10, 11, Arrays.asList(7, 3));
+
+        assert snapshot.getXMin() == 3;
+
+        assert snapshot.isCommitted(2);
+        assert !snapshot.isCommitted(3);
+        assert snapshot.isCommitted(4);
+        assert !snapshot.isCommitted(7);
+        assert snapshot.isCommitted(9);
+        assert !snapshot.isCommitted(10);
+    }
+}